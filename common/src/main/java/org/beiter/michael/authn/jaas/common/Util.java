@@ -35,6 +35,9 @@ package org.beiter.michael.authn.jaas.common;
 import org.apache.commons.lang3.Validate;
 
 import javax.security.auth.login.LoginException;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A utility class with various utility methods.
@@ -42,6 +45,26 @@ import javax.security.auth.login.LoginException;
 @SuppressWarnings("PMD.ShortClassName")
 public final class Util {
 
+    /**
+     * The prefix of the IDs created by this JVM, which is random to make the IDs unique across JVMs
+     */
+    private static final String ID_PREFIX = UUID.randomUUID().toString() + '-';
+
+    /**
+     * The number of IDs created by this JVM
+     */
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    /**
+     * The sequence number of the last event created in this JVM
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * The identity of this JVM (usually the process ID and the host name, e.g. {@code 1234@host})
+     */
+    private static final String NODE_ID = ManagementFactory.getRuntimeMXBean().getName();
+
     /**
      * A private constructor to prevent instantiation of this class
      */
@@ -70,4 +93,45 @@ public final class Util {
         loginException.initCause(cause);
         return loginException;
     }
+
+    /**
+     * Create an ID that is unique across JVMs, e.g. to identify an event so that a consumer receiving the event more
+     * than once (e.g. because the event has been replayed) can discard the duplicates.
+     * <p>
+     * The ID consists of a random prefix that is created once per JVM, and a counter, so that creating an ID does not
+     * have to wait for the random number generator.
+     *
+     * @return a new ID
+     */
+    public static String newId() {
+
+        return ID_PREFIX + Long.toString(ID_COUNTER.incrementAndGet(), Character.MAX_RADIX);
+    }
+
+    /**
+     * Draw the next number of the sequence of events created in this JVM.
+     * <p>
+     * The sequence is shared by all audit events and messages, and strictly increases in the order the numbers are
+     * drawn, across all threads. Drawing a number does not take any locks.
+     *
+     * @return The next sequence number, starting with 1
+     */
+    public static long nextSequence() {
+
+        return SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * Get the identity of this JVM, which is recorded in its events so that consumers can merge the streams of events
+     * of several nodes. Together with the sequence number (see {@link #nextSequence()}), it orders the events of a
+     * node.
+     *
+     * @return The identity of this JVM, usually the process ID and the host name (e.g. {@code 1234@host})
+     */
+    public static String getNodeId() {
+
+        // no need for defensive copies of String
+
+        return NODE_ID;
+    }
 }
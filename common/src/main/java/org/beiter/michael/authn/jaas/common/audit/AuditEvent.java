@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.Util;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable audit record that carries the details of an event in a login workflow.
+ * <p>
+ * Besides the event and the user, an audit event records when it happened (both as wall clock time and as a monotonic
+ * timestamp that can be used to order and measure events within a JVM), its position in the sequence of events of
+ * the JVM, how long the phase of the login workflow (e.g. the login or the commit) had been running when the event
+ * was created, and which login module instance created it. The correlation ID groups the events of all phases of one
+ * login workflow, and the node ID identifies the JVM, so that consumers can reconstruct the lifecycle of a login from
+ * the merged streams of several nodes. Events that concern several principals at once (such as a
+ * logout of a subject carrying the principals of several login modules) carry the names of all these principals, so
+ * that a single event can be audited instead of one per principal. Events created with
+ * {@link #create(Events, String, String, String, long, String)} carry an idempotency ID that is unique across JVMs,
+ * so that consumers can discard events they receive more than once (e.g. when spooled events are replayed).
+ * <p>
+ * See {@link AuditEventCodec} for a compact binary encoding.
+ */
+public final class AuditEvent {
+
+    /**
+     * @see AuditEvent#getSequence()
+     */
+    private final long sequence;
+
+    /**
+     * @see AuditEvent#getTime()
+     */
+    private final long time;
+
+    /**
+     * @see AuditEvent#getMonotonicTime()
+     */
+    private final long monotonicTime;
+
+    /**
+     * @see AuditEvent#getEvent()
+     */
+    private final Events event;
+
+    /**
+     * @see AuditEvent#getDomain()
+     */
+    private final String domain;
+
+    /**
+     * @see AuditEvent#getUsername()
+     */
+    private final String username;
+
+    /**
+     * @see AuditEvent#getUserId()
+     */
+    private final String userId;
+
+    /**
+     * @see AuditEvent#getDuration()
+     */
+    private final long duration;
+
+    /**
+     * @see AuditEvent#getModuleInstanceId()
+     */
+    private final String moduleInstanceId;
+
+    /**
+     * @see AuditEvent#getPrincipals()
+     */
+    private final Set<String> principals;
+
+    /**
+     * @see AuditEvent#getId()
+     */
+    private final String id;
+
+    /**
+     * @see AuditEvent#getCorrelationId()
+     */
+    private final String correlationId;
+
+    /**
+     * @see AuditEvent#getNodeId()
+     */
+    private final String nodeId;
+
+    /**
+     * Create an audit event with all its details, without principals. Use
+     * {@link #create(Events, String, String, String, long, String)} to create an event that happens now.
+     *
+     * @param sequence         The sequence number of the event
+     * @param time             The wall clock time of the event, in milliseconds since the epoch
+     * @param monotonicTime    The monotonic timestamp of the event, as returned by {@link System#nanoTime()}
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow had been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that created the event, may be {@code null}
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public AuditEvent(final long sequence, final long time, final long monotonicTime, final Events event,
+                      final String domain, final String username, final String userId, final long duration,
+                      final String moduleInstanceId) {
+        // CHECKSTYLE:ON
+
+        this(sequence, time, monotonicTime, event, domain, username, userId, duration, moduleInstanceId,
+                Collections.<String>emptySet());
+    }
+
+    /**
+     * Create an audit event with all its details. Use
+     * {@link #create(Events, String, String, String, long, String, Set)} to create an event that happens now.
+     *
+     * @param sequence         The sequence number of the event
+     * @param time             The wall clock time of the event, in milliseconds since the epoch
+     * @param monotonicTime    The monotonic timestamp of the event, as returned by {@link System#nanoTime()}
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow had been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that created the event, may be {@code null}
+     * @param principals       The names of the principals the event concerns
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public AuditEvent(final long sequence, final long time, final long monotonicTime, final Events event,
+                      final String domain, final String username, final String userId, final long duration,
+                      final String moduleInstanceId, final Set<String> principals) {
+        // CHECKSTYLE:ON
+
+        this(sequence, time, monotonicTime, event, domain, username, userId, duration, moduleInstanceId, principals,
+                null);
+    }
+
+    /**
+     * Create an audit event with all its details, including its idempotency ID. Use
+     * {@link #create(Events, String, String, String, long, String, Set)} to create an event that happens now.
+     *
+     * @param sequence         The sequence number of the event
+     * @param time             The wall clock time of the event, in milliseconds since the epoch
+     * @param monotonicTime    The monotonic timestamp of the event, as returned by {@link System#nanoTime()}
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow had been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that created the event, may be {@code null}
+     * @param principals       The names of the principals the event concerns
+     * @param id               The idempotency ID of the event, may be {@code null}
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public AuditEvent(final long sequence, final long time, final long monotonicTime, final Events event,
+                      final String domain, final String username, final String userId, final long duration,
+                      final String moduleInstanceId, final Set<String> principals, final String id) {
+        // CHECKSTYLE:ON
+
+        this(sequence, time, monotonicTime, event, domain, username, userId, duration, moduleInstanceId, principals,
+                id, null, null);
+    }
+
+    /**
+     * Create an audit event with all its details, including its idempotency ID, correlation ID, and node ID. Use
+     * {@link #create(Events, String, String, String, long, String, Set, String)} to create an event that happens now.
+     *
+     * @param sequence         The sequence number of the event
+     * @param time             The wall clock time of the event, in milliseconds since the epoch
+     * @param monotonicTime    The monotonic timestamp of the event, as returned by {@link System#nanoTime()}
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow had been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that created the event, may be {@code null}
+     * @param principals       The names of the principals the event concerns
+     * @param id               The idempotency ID of the event, may be {@code null}
+     * @param correlationId    The ID of the login workflow the event belongs to, may be {@code null}
+     * @param nodeId           The identity of the JVM that created the event, may be {@code null}
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public AuditEvent(final long sequence, final long time, final long monotonicTime, final Events event,
+                      final String domain, final String username, final String userId, final long duration,
+                      final String moduleInstanceId, final Set<String> principals, final String id,
+                      final String correlationId, final String nodeId) {
+        // CHECKSTYLE:ON
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notNull(principals, "The validated object 'principals' is null");
+        Validate.noNullElements(principals, "The validated collection 'principals' contains null element at index: %d");
+
+        this.sequence = sequence;
+        this.time = time;
+        this.monotonicTime = monotonicTime;
+        this.event = event;
+        // no need for defensive copies of String
+        this.domain = domain;
+        this.username = username;
+        this.userId = userId;
+        this.duration = duration;
+        this.moduleInstanceId = moduleInstanceId;
+        // create a defensive copy of the set, preserving the order of the principals
+        this.principals = Collections.unmodifiableSet(new LinkedHashSet<>(principals));
+        this.id = id;
+        this.correlationId = correlationId;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Create an audit event that happens now, with the next sequence number of this JVM, a new idempotency ID, and the
+     * node ID of this JVM.
+     *
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow has been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that creates the event, may be {@code null}
+     * @return The audit event
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    public static AuditEvent create(final Events event, final String domain, final String username,
+                                    final String userId, final long duration, final String moduleInstanceId) {
+
+        return create(event, domain, username, userId, duration, moduleInstanceId, Collections.<String>emptySet());
+    }
+
+    /**
+     * Create an audit event that concerns several principals and happens now, with the next sequence number of this
+     * JVM, a new idempotency ID, and the node ID of this JVM.
+     *
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow has been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that creates the event, may be {@code null}
+     * @param principals       The names of the principals the event concerns
+     * @return The audit event
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public static AuditEvent create(final Events event, final String domain, final String username,
+                                    final String userId, final long duration, final String moduleInstanceId,
+                                    final Set<String> principals) {
+        // CHECKSTYLE:ON
+
+        return create(event, domain, username, userId, duration, moduleInstanceId, principals, null);
+    }
+
+    /**
+     * Create an audit event of a login workflow that happens now, with the next sequence number of this JVM, a new
+     * idempotency ID, and the node ID of this JVM.
+     *
+     * @param event            The event
+     * @param domain           The domain of the user, may be {@code null}
+     * @param username         The username of the user, may be {@code null}
+     * @param userId           The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param duration         The time the phase of the login workflow has been running, in nanoseconds
+     * @param moduleInstanceId The ID of the login module instance that creates the event, may be {@code null}
+     * @param principals       The names of the principals the event concerns
+     * @param correlationId    The ID of the login workflow the event belongs to, may be {@code null}
+     * @return The audit event
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // an audit event simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public static AuditEvent create(final Events event, final String domain, final String username,
+                                    final String userId, final long duration, final String moduleInstanceId,
+                                    final Set<String> principals, final String correlationId) {
+        // CHECKSTYLE:ON
+
+        return new AuditEvent(Util.nextSequence(), System.currentTimeMillis(), System.nanoTime(), event,
+                domain, username, userId, duration, moduleInstanceId, principals, Util.newId(), correlationId,
+                Util.getNodeId());
+    }
+
+    /**
+     * @return The sequence number of the event. Events created with
+     * {@link #create(Events, String, String, String, long, String)} are numbered in the order they are created, across
+     * all threads, starting with 1 when the JVM starts. The sequence is shared with the messages of the JVM (see
+     * {@link Util#nextSequence()}), so the audit events alone may have gaps.
+     */
+    public long getSequence() {
+
+        return sequence;
+    }
+
+    /**
+     * @return The wall clock time of the event, in milliseconds since the epoch
+     */
+    public long getTime() {
+
+        return time;
+    }
+
+    /**
+     * @return The monotonic timestamp of the event, as returned by {@link System#nanoTime()}. Monotonic timestamps
+     * can only be compared within the JVM that created them.
+     */
+    public long getMonotonicTime() {
+
+        return monotonicTime;
+    }
+
+    /**
+     * @return The event
+     */
+    public Events getEvent() {
+
+        return event;
+    }
+
+    /**
+     * @return The domain of the user, or {@code null} if it is not known
+     */
+    public String getDomain() {
+
+        // no need for defensive copies of String
+        return domain;
+    }
+
+    /**
+     * @return The username of the user, or {@code null} if it is not known
+     */
+    public String getUsername() {
+
+        // no need for defensive copies of String
+        return username;
+    }
+
+    /**
+     * @return The user ID (i.e. the principal) the user has been resolved to, or {@code null} if the user has not
+     * been resolved (e.g. because the authentication has failed)
+     */
+    public String getUserId() {
+
+        // no need for defensive copies of String
+        return userId;
+    }
+
+    /**
+     * @return The time the phase of the login workflow (e.g. the login or the commit) had been running when the event
+     * was created, in nanoseconds
+     */
+    public long getDuration() {
+
+        return duration;
+    }
+
+    /**
+     * @return The ID of the login module instance that created the event, or {@code null} if it is not known
+     */
+    public String getModuleInstanceId() {
+
+        // no need for defensive copies of String
+        return moduleInstanceId;
+    }
+
+    /**
+     * @return The names of the principals the event concerns, in the order they have been provided, or an empty set if
+     * the event does not concern a specific set of principals. The set cannot be modified.
+     */
+    public Set<String> getPrincipals() {
+
+        // the set is immutable, no need for a defensive copy
+        return principals;
+    }
+
+    /**
+     * @return The idempotency ID of the event, which is unique across JVMs, or {@code null} if the event does not have
+     * an ID. An event that is delivered more than once (e.g. because it has been spooled and replayed) carries the same
+     * ID every time.
+     */
+    public String getId() {
+
+        // no need for defensive copies of String
+        return id;
+    }
+
+    /**
+     * @return The ID of the login workflow the event belongs to, or {@code null} if the event does not belong to a
+     * login workflow. All events of one login module instance (i.e. of its login, commit, abort, and logout) carry the
+     * same correlation ID, which is unique across JVMs.
+     */
+    public String getCorrelationId() {
+
+        // no need for defensive copies of String
+        return correlationId;
+    }
+
+    /**
+     * @return The identity of the JVM that created the event (see {@link Util#getNodeId()}), or {@code null} if it is
+     * unknown (e.g. because the event has been written by an earlier version)
+     */
+    public String getNodeId() {
+
+        // no need for defensive copies of String
+        return nodeId;
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A compact binary encoding of {@link AuditEvent}s.
+ * <p>
+ * The encoding is:
+ * <pre>
+ *   1 byte    format version
+ *   1 byte    event (the ordinal of the {@link Events} constant)
+ *   8 bytes   wall clock time
+ *   8 bytes   monotonic timestamp
+ *   varint    sequence number
+ *   varint    duration
+ *   string    domain
+ *   string    username
+ *   string    user ID
+ *   string    module instance ID
+ *   varint    number of principals
+ *   string    principal name (repeated for every principal)
+ *   string    idempotency ID
+ *   string    correlation ID
+ *   string    node ID
+ * </pre>
+ * Varints are zig-zag encoded, 7 bits per byte, least significant group first. Strings are encoded as a varint with
+ * the length of the UTF-8 encoding plus one (0 encodes {@code null}), followed by the UTF-8 encoding. Events are
+ * encoded by their ordinal, so new {@link Events} constants must be added at the end. Encodings of format version 1
+ * (which end after the module instance ID), format version 2 (which end after the principals), and format version 3
+ * (which end after the idempotency ID) can still be decoded, and decode to events without the fields they lack.
+ * <p>
+ * Encoding an event does not allocate any objects: the caller provides (and can reuse) the buffer, and strings are
+ * encoded character by character. This class is thread safe.
+ */
+public final class AuditEventCodec {
+
+    /**
+     * The version of the encoding
+     */
+    public static final byte FORMAT_VERSION = 4;
+
+    /**
+     * The first version of the encoding, which does not include the principals
+     */
+    private static final byte FORMAT_VERSION_1 = 1;
+
+    /**
+     * The second version of the encoding, which does not include the idempotency ID
+     */
+    private static final byte FORMAT_VERSION_2 = 2;
+
+    /**
+     * The third version of the encoding, which does not include the correlation ID and the node ID
+     */
+    private static final byte FORMAT_VERSION_3 = 3;
+
+    /**
+     * The size of the fixed part of the encoding (format version, event, wall clock time, and monotonic timestamp)
+     */
+    private static final int FIXED_LENGTH = 2 + 2 * (Long.SIZE / Byte.SIZE);
+
+    /**
+     * The events, by ordinal
+     */
+    private static final Events[] EVENTS = Events.values();
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private AuditEventCodec() {
+    }
+
+    /**
+     * Compute the length of the encoding of an audit event.
+     *
+     * @param event The audit event
+     * @return The number of bytes {@link #encode(AuditEvent, ByteBuffer)} writes for the event
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    public static int encodedLength(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        return FIXED_LENGTH
+                + varLongLength(event.getSequence())
+                + varLongLength(event.getDuration())
+                + stringLength(event.getDomain())
+                + stringLength(event.getUsername())
+                + stringLength(event.getUserId())
+                + stringLength(event.getModuleInstanceId())
+                + principalsLength(event.getPrincipals())
+                + stringLength(event.getId())
+                + stringLength(event.getCorrelationId())
+                + stringLength(event.getNodeId());
+    }
+
+    /**
+     * Encode an audit event into a buffer, starting at the buffer's position. On return, the buffer's position is
+     * after the encoded event.
+     *
+     * @param event  The audit event
+     * @param buffer The buffer to encode the event into
+     * @return The number of bytes written
+     * @throws NullPointerException    When {@code event} or {@code buffer} are {@code null}
+     * @throws BufferOverflowException When the buffer does not have enough space remaining (see
+     *                                 {@link #encodedLength(AuditEvent)}), in which case the buffer's position is
+     *                                 unchanged
+     */
+    public static int encode(final AuditEvent event, final ByteBuffer buffer) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notNull(buffer, "The validated object 'buffer' is null");
+
+        final int length = encodedLength(event);
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) event.getEvent().ordinal());
+        buffer.putLong(event.getTime());
+        buffer.putLong(event.getMonotonicTime());
+        putVarLong(buffer, event.getSequence());
+        putVarLong(buffer, event.getDuration());
+        putString(buffer, event.getDomain());
+        putString(buffer, event.getUsername());
+        putString(buffer, event.getUserId());
+        putString(buffer, event.getModuleInstanceId());
+        putVarLong(buffer, event.getPrincipals().size());
+        for (final String principal : event.getPrincipals()) {
+            putString(buffer, principal);
+        }
+        putString(buffer, event.getId());
+        putString(buffer, event.getCorrelationId());
+        putString(buffer, event.getNodeId());
+
+        return length;
+    }
+
+    /**
+     * Decode an audit event, starting at the buffer's position. On return, the buffer's position is after the
+     * encoded event.
+     *
+     * @param buffer The buffer to decode the event from
+     * @return The audit event
+     * @throws NullPointerException     When {@code buffer} is {@code null}
+     * @throws IllegalArgumentException When the buffer does not contain a valid encoding
+     */
+    public static AuditEvent decode(final ByteBuffer buffer) {
+
+        Validate.notNull(buffer, "The validated object 'buffer' is null");
+
+        try {
+            final byte version = buffer.get();
+            Validate.isTrue(version >= FORMAT_VERSION_1 && version <= FORMAT_VERSION,
+                    "The audit event has an unsupported format version");
+            final int ordinal = buffer.get();
+            Validate.isTrue(ordinal >= 0 && ordinal < EVENTS.length, "The audit event has an unknown event");
+
+            final long time = buffer.getLong();
+            final long monotonicTime = buffer.getLong();
+            final long sequence = getVarLong(buffer);
+            final long duration = getVarLong(buffer);
+            final String domain = getString(buffer);
+            final String username = getString(buffer);
+            final String userId = getString(buffer);
+            final String moduleInstanceId = getString(buffer);
+            final Set<String> principals = new LinkedHashSet<>();
+            if (version != FORMAT_VERSION_1) {
+                final long count = getVarLong(buffer);
+                // every principal takes at least one byte, which rejects bogus counts before reading them
+                Validate.isTrue(count >= 0 && count <= buffer.remaining(),
+                        "The audit event contains a malformed principal count");
+                for (long i = 0; i < count; i++) {
+                    final String principal = getString(buffer);
+                    Validate.isTrue(principal != null, "The audit event contains a malformed principal");
+                    principals.add(principal);
+                }
+            }
+            String id = null;
+            if (version >= FORMAT_VERSION_3) {
+                id = getString(buffer);
+            }
+            String correlationId = null;
+            String nodeId = null;
+            if (version == FORMAT_VERSION) {
+                correlationId = getString(buffer);
+                nodeId = getString(buffer);
+            }
+
+            return new AuditEvent(sequence, time, monotonicTime, EVENTS[ordinal], domain, username, userId, duration,
+                    moduleInstanceId, principals, id, correlationId, nodeId);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The audit event is truncated", e);
+        }
+    }
+
+    // CHECKSTYLE:OFF
+    // the bit manipulations of the varint and UTF-8 encodings are easier to read with literal numbers
+
+    /**
+     * @param value A value
+     * @return The length of the varint encoding of the value
+     */
+    private static int varLongLength(final long value) {
+
+        long zigZag = (value << 1) ^ (value >> 63);
+        int length = 1;
+        while ((zigZag & ~0x7FL) != 0) {
+            zigZag >>>= 7;
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Write a varint.
+     *
+     * @param buffer The buffer
+     * @param value  The value
+     */
+    private static void putVarLong(final ByteBuffer buffer, final long value) {
+
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        buffer.put((byte) zigZag);
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @param buffer The buffer
+     * @return The value
+     */
+    private static long getVarLong(final ByteBuffer buffer) {
+
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+
+        throw new IllegalArgumentException("The audit event contains a malformed number");
+    }
+
+    /**
+     * @param value A string, may be {@code null}
+     * @return The length of the encoding of the string
+     */
+    private static int stringLength(final String value) {
+
+        if (value == null) {
+            return 1;
+        }
+
+        final int utf8Length = utf8Length(value);
+        return varLongLength(utf8Length + 1L) + utf8Length;
+    }
+
+    /**
+     * @param value A string
+     * @return The length of the UTF-8 encoding of the string
+     */
+    private static int utf8Length(final String value) {
+
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate is replaced with '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Write a string as its UTF-8 length followed by its UTF-8 encoding, without creating intermediate objects.
+     *
+     * @param buffer The buffer
+     * @param value  The string, may be {@code null}
+     */
+    private static void putString(final ByteBuffer buffer, final String value) {
+
+        if (value == null) {
+            putVarLong(buffer, 0);
+            return;
+        }
+
+        putVarLong(buffer, utf8Length(value) + 1L);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // CHECKSTYLE:ON
+
+    /**
+     * @param principals The names of principals
+     * @return The length of the encoding of the principals
+     */
+    private static int principalsLength(final Set<String> principals) {
+
+        int length = varLongLength(principals.size());
+        for (final String principal : principals) {
+            length += stringLength(principal);
+        }
+
+        return length;
+    }
+
+    /**
+     * Read a string.
+     *
+     * @param buffer The buffer
+     * @return The string, may be {@code null}
+     */
+    private static String getString(final ByteBuffer buffer) {
+
+        final long encodedLength = getVarLong(buffer);
+        if (encodedLength == 0) {
+            return null;
+        }
+
+        Validate.isTrue(encodedLength > 0 && encodedLength - 1 <= buffer.remaining(),
+                "The audit event contains a malformed string");
+        final int length = (int) (encodedLength - 1);
+
+        final String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return value;
+    }
+}
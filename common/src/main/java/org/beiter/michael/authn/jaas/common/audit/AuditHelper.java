@@ -98,4 +98,50 @@ public final class AuditHelper {
             }
         }
     }
+
+    /**
+     * Audit a structured event (during a login workflow).
+     * <p>
+     * If {@code audit} is {@code null}, then auditing is considered disabled. If {@code audit} implements
+     * {@link StructuredAudit}, then the structured event is audited, otherwise the event is audited with the domain and
+     * username of the structured event.
+     *
+     * @param audit The audit object to use for auditing the event
+     * @param event The event to audit
+     * @param error The error message to be logged in the application log if auditing fails (i.e. no audit message
+     *              can be created)
+     * @throws LoginException           If auditing fails (i.e. no audit message can be created)
+     * @throws NullPointerException     When the {@code event}, {@code error}, or the domain or username of the
+     *                                  {@code event} are {@code null}
+     * @throws IllegalArgumentException When {@code error}, or the domain or username of the {@code event} are empty
+     */
+    public static void auditEvent(final Audit audit, final AuditEvent event, final String error)
+            throws LoginException {
+
+        // "audit" may be null, not validating here (see below)
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(event.getDomain(), "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(event.getUsername(), "The validated character sequence 'username' is null or empty");
+        Validate.notBlank(error, "The validated character sequence 'error' is null or empty");
+
+        // if auditing is disabled, the audit object will not have been initialized
+        if (audit == null) {
+            // string concatenation is only executed if log level is actually enabled
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Auditing has been disabled, not creating event '" + event.getEvent().getValue()
+                        + "' for '" + event.getUsername() + "@" + event.getDomain() + "'");
+            }
+        } else {
+            try {
+                if (audit instanceof StructuredAudit) {
+                    ((StructuredAudit) audit).audit(event);
+                } else {
+                    audit.audit(event.getEvent(), event.getDomain(), event.getUsername());
+                }
+            } catch (AuditException e) {
+                LOG.warn(error, e);
+                throw Util.newLoginException(error, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+
+/**
+ * An immutable audit record that counts how often an event happened in a domain during an interval, instead of
+ * recording every occurrence of the event (see {@link SamplingAudit}).
+ */
+public final class AuditSummary {
+
+    /**
+     * @see AuditSummary#getEvent()
+     */
+    private final Events event;
+
+    /**
+     * @see AuditSummary#getDomain()
+     */
+    private final String domain;
+
+    /**
+     * @see AuditSummary#getCount()
+     */
+    private final long count;
+
+    /**
+     * @see AuditSummary#getIntervalStart()
+     */
+    private final long intervalStart;
+
+    /**
+     * @see AuditSummary#getIntervalEnd()
+     */
+    private final long intervalEnd;
+
+    /**
+     * Create an audit summary.
+     *
+     * @param event         The event
+     * @param domain        The domain in which the events happened, may be {@code null}
+     * @param count         The number of events
+     * @param intervalStart The start of the interval, in milliseconds since the epoch
+     * @param intervalEnd   The end of the interval, in milliseconds since the epoch
+     * @throws NullPointerException     When {@code event} is {@code null}
+     * @throws IllegalArgumentException When {@code count} is negative, or the interval ends before it starts
+     */
+    public AuditSummary(final Events event, final String domain, final long count, final long intervalStart,
+                        final long intervalEnd) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.isTrue(count >= 0, "The count must not be negative");
+        Validate.isTrue(intervalEnd >= intervalStart, "The interval must not end before it starts");
+
+        this.event = event;
+        // no need for defensive copies of String
+        this.domain = domain;
+        this.count = count;
+        this.intervalStart = intervalStart;
+        this.intervalEnd = intervalEnd;
+    }
+
+    /**
+     * @return The event
+     */
+    public Events getEvent() {
+
+        return event;
+    }
+
+    /**
+     * @return The domain in which the events happened, or {@code null} if the events have been audited for user IDs
+     * (i.e. without a domain)
+     */
+    public String getDomain() {
+
+        // no need for defensive copies of String
+        return domain;
+    }
+
+    /**
+     * @return The number of events during the interval
+     */
+    public long getCount() {
+
+        return count;
+    }
+
+    /**
+     * @return The start of the interval, in milliseconds since the epoch
+     */
+    public long getIntervalStart() {
+
+        return intervalStart;
+    }
+
+    /**
+     * @return The end of the interval, in milliseconds since the epoch
+     */
+    public long getIntervalEnd() {
+
+        return intervalEnd;
+    }
+}
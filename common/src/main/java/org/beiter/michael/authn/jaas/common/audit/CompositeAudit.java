@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.fanout.Delivery;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutDispatcher;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutException;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutProperties;
+import org.beiter.michael.authn.jaas.common.fanout.SinkFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedFanOutPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An audit subsystem that passes every audit event on to several other audit subsystems (the sinks), in parallel.
+ * <p>
+ * The sinks are configured with the {@code jaas.audit.composite.*} keys (see {@link JaasBasedFanOutPropsBuilder}),
+ * and are created with {@link AuditFactory#getInstance(String, CommonProperties)} using the properties this instance
+ * is initialized with. Every sink has its own threads, queue, timeout, and failure policy (see
+ * {@link FanOutDispatcher}): an audit operation waits for the required sinks only, and fails if any of them fails or
+ * times out. Best-effort sinks neither delay nor fail audit operations.
+ * <p>
+ * Structured audit events are passed on as they are to sinks implementing {@link StructuredAudit}, while all other
+ * sinks receive the event, domain, and username (or the event and user ID if the event has no domain and username).
+ * <p>
+ * This class is thread safe.
+ */
+public final class CompositeAudit
+        implements StructuredAudit {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CompositeAudit.class);
+
+    /**
+     * The dispatcher delivering the events to the sinks
+     */
+    private volatile FanOutDispatcher<Audit> dispatcher;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the configured sinks, and stops the sinks of the previous configuration (if any). If a required sink
+     * cannot be created, or no sink has been configured, all audit operations fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final FanOutProperties fanOutProps = JaasBasedFanOutPropsBuilder.build(JaasBasedFanOutPropsBuilder.AUDIT_PREFIX,
+                properties.getAdditionalProperties());
+
+        FanOutDispatcher<Audit> newDispatcher;
+        try {
+            newDispatcher = FanOutDispatcher.create(fanOutProps, new SinkFactory<Audit>() {
+                @Override
+                public Audit getInstance(final String className)
+                        throws FactoryException {
+
+                    if (CompositeAudit.class.getName().equals(className)) {
+                        throw new FactoryException("A composite audit cannot be a sink of a composite audit");
+                    }
+                    return AuditFactory.getInstance(className, properties);
+                }
+            });
+        } catch (FanOutException e) {
+            LOG.warn("Cannot create the audit sinks, all audit operations will fail", e);
+            newDispatcher = null;
+        }
+
+        final FanOutDispatcher<Audit> oldDispatcher = dispatcher;
+        dispatcher = newDispatcher;
+        if (oldDispatcher != null) {
+            oldDispatcher.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public void audit(final Events event, final String userId)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        dispatch(new Delivery<Audit>() {
+            @Override
+            public void deliver(final Audit sink)
+                    throws AuditException {
+
+                sink.audit(event, userId);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void audit(final Events event, final String domain, final String username)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        dispatch(new Delivery<Audit>() {
+            @Override
+            public void deliver(final Audit sink)
+                    throws AuditException {
+
+                sink.audit(event, domain, username);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    public void audit(final AuditEvent event)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        dispatch(new Delivery<Audit>() {
+            @Override
+            public void deliver(final Audit sink)
+                    throws AuditException {
+
+                if (sink instanceof StructuredAudit) {
+                    ((StructuredAudit) sink).audit(event);
+                } else if (StringUtils.isNotBlank(event.getDomain()) && StringUtils.isNotBlank(event.getUsername())) {
+                    sink.audit(event.getEvent(), event.getDomain(), event.getUsername());
+                } else {
+                    sink.audit(event.getEvent(), event.getUserId());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The dispatcher delivering the events to the sinks, or {@code null} if the sinks are not available
+     */
+    FanOutDispatcher<Audit> getDispatcher() {
+
+        return dispatcher;
+    }
+
+    /**
+     * Deliver an event to all sinks.
+     *
+     * @param delivery The delivery of the event
+     * @throws AuditException When the sinks are not available, or the delivery to a required sink fails
+     */
+    private void dispatch(final Delivery<Audit> delivery)
+            throws AuditException {
+
+        // private method asserts
+        assert delivery != null : "The delivery cannot be null";
+
+        final FanOutDispatcher<Audit> myDispatcher = dispatcher;
+        if (myDispatcher == null) {
+            final String error = "The audit sinks are not available";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+
+        try {
+            myDispatcher.dispatch(delivery);
+        } catch (FanOutException e) {
+            final String error = "The audit event has not been accepted by all required sinks";
+            LOG.warn(error, e);
+            throw new AuditException(error, e);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.journal.Durability;
+import org.beiter.michael.authn.jaas.common.journal.JournalWriter;
+import org.beiter.michael.authn.jaas.common.journal.SegmentArchiver;
+import org.beiter.michael.authn.jaas.common.journal.SegmentedJournal;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedMappedAuditPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This audit implementation writes binary audit records into an append-only log of memory-mapped, pre-allocated
+ * segment files (see {@link SegmentedJournal}).
+ * <p>
+ * Writing an audit record is a memory copy into the mapped segment, plus a CRC. The records survive a crash of the
+ * process as soon as the audit call returns, and the log recovers to the last complete record when it is opened
+ * again. Segments are rolled by size and by time, and are flushed to the storage device when they are rolled.
+ * <p>
+ * To also survive a crash of the operating system or a power loss, the log must be flushed. The configured durability
+ * (see {@link MappedAuditProperties#setDurability(String)}) determines when the log is flushed, and hence whether an
+ * audit call returns after its record has been flushed: with every record, with a group commit of several records,
+ * periodically in the background, or never. As the login module fails the login when auditing fails, this is a
+ * trade-off between login latency and the records that can be lost.
+ * <p>
+ * The payload of a record is an {@link AuditEvent}, encoded with {@link AuditEventCodec}. Events are encoded into a
+ * buffer that is reused by the calling thread, so writing an audit record does not create garbage beyond the event
+ * itself. The sequence number and timestamp of the record header are assigned by the log, and are independent of the
+ * sequence number and timestamps of the audit event.
+ * <p>
+ * When archiving is enabled (see {@link MappedAuditProperties#setArchiveEnabled(boolean)}), a low priority background
+ * thread compresses the segments that have been rolled over into blocks that can be decompressed independently (see
+ * {@link SegmentArchiver}). The log and its queries read compressed segments transparently.
+ * <p>
+ * The log is configured with the keys in {@link JaasBasedMappedAuditPropsBuilder}. All instances that are configured
+ * with the same directory write to the same log. If the log cannot be opened (e.g. because no directory has been
+ * configured), all audit operations fail.
+ */
+public class MappedAuditLogger
+        implements StructuredAudit {
+
+    /**
+     * The prefix of the segment file names of the log (see {@code AuditStore} for querying the log)
+     */
+    public static final String PREFIX = "audit";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(MappedAuditLogger.class);
+
+    /**
+     * The initial size of the per-thread encoding buffers, in bytes
+     */
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    /**
+     * The per-thread encoding buffers
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The writers of the logs that are currently open, by canonical directory path
+     */
+    private static final Map<String, JournalWriter> WRITERS = new HashMap<>();
+
+    /**
+     * The archivers of the logs that are currently open and compress their rolled over segments, by canonical
+     * directory path (guarded by {@link #WRITERS})
+     */
+    private static final Map<String, SegmentArchiver> ARCHIVERS = new HashMap<>();
+
+    /**
+     * The writer of the log this instance writes to
+     */
+    private volatile JournalWriter writer;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Opens the log in the configured directory, or attaches to the log if it is already open. When the log is already
+     * open, it keeps the configuration it has been opened with.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final MappedAuditProperties auditProps =
+                JaasBasedMappedAuditPropsBuilder.build(properties.getAdditionalProperties());
+
+        if (StringUtils.isBlank(auditProps.getDirectory())) {
+            LOG.warn("No audit log directory has been configured, all audit operations will fail");
+            writer = null;
+            return;
+        }
+
+        try {
+            writer = getWriter(auditProps);
+        } catch (IOException e) {
+            LOG.warn("Cannot open the audit log, all audit operations will fail", e);
+            writer = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public final void audit(final Events event, final String userId)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        append(AuditEvent.create(event, null, null, userId, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public final void audit(final Events event, final String domain, final String username)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        append(AuditEvent.create(event, domain, username, null, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    public final void audit(final AuditEvent event)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        append(event);
+    }
+
+    /**
+     * @return The log this instance writes to, or {@code null} if the log is not available
+     */
+    final SegmentedJournal getJournal() {
+
+        final JournalWriter myWriter = writer;
+        if (myWriter == null) {
+            return null;
+        }
+
+        return myWriter.getJournal();
+    }
+
+    /**
+     * @return The writer of the log this instance writes to, or {@code null} if the log is not available
+     */
+    final JournalWriter getWriter() {
+
+        return writer;
+    }
+
+    /**
+     * Decode the payload of an audit record.
+     *
+     * @param payload The payload of the record
+     * @return The audit event
+     * @throws IllegalArgumentException When the payload is not a valid audit record
+     */
+    static AuditEvent decode(final ByteBuffer payload) {
+
+        Validate.notNull(payload, "The validated object 'payload' is null");
+
+        return AuditEventCodec.decode(payload.duplicate());
+    }
+
+    /**
+     * Close all open logs. The instances that have been attached to a closed log fail until they are initialized
+     * again.
+     *
+     * @throws IOException When a log cannot be closed
+     */
+    static void closeAll()
+            throws IOException {
+
+        synchronized (WRITERS) {
+            for (final SegmentArchiver archiver : ARCHIVERS.values()) {
+                archiver.close();
+            }
+            ARCHIVERS.clear();
+            for (final JournalWriter myWriter : WRITERS.values()) {
+                myWriter.close();
+            }
+            WRITERS.clear();
+        }
+    }
+
+    /**
+     * Return the writer of the open log for the configured directory, or open the log.
+     *
+     * @param auditProps The configuration of the log
+     * @return The writer of the log
+     * @throws IOException When the log cannot be opened
+     */
+    private static JournalWriter getWriter(final MappedAuditProperties auditProps)
+            throws IOException {
+
+        // private method asserts
+        assert auditProps != null : "The audit properties cannot be null";
+
+        final File directory = new File(auditProps.getDirectory()).getCanonicalFile();
+        synchronized (WRITERS) {
+            JournalWriter myWriter = WRITERS.get(directory.getPath());
+            if (myWriter == null) {
+                final SegmentedJournal journal = SegmentedJournal.open(directory, PREFIX,
+                        auditProps.getSegmentSize(), auditProps.getRollInterval());
+                myWriter = new JournalWriter(journal, toDurability(auditProps.getDurability()),
+                        auditProps.getGroupSize(), auditProps.getGroupDelay(), auditProps.getForceInterval());
+                WRITERS.put(directory.getPath(), myWriter);
+                if (auditProps.isArchiveEnabled()) {
+                    ARCHIVERS.put(directory.getPath(), new SegmentArchiver(directory, PREFIX,
+                            auditProps.getArchiveBlockSize(), auditProps.getArchiveInterval()));
+                }
+            }
+
+            return myWriter;
+        }
+    }
+
+    /**
+     * Map a durability setting to the durability of the journal writer.
+     *
+     * @param durability The durability setting
+     * @return The durability of the journal writer, {@link Durability#PERIODIC} if the setting is not supported
+     */
+    private static Durability toDurability(final String durability) {
+
+        if (MappedAuditProperties.DURABILITY_NONE.equals(durability)) {
+            return Durability.NONE;
+        } else if (MappedAuditProperties.DURABILITY_SYNC.equals(durability)) {
+            return Durability.SYNC;
+        } else if (MappedAuditProperties.DURABILITY_GROUP.equals(durability)) {
+            return Durability.GROUP;
+        } else {
+            return Durability.PERIODIC;
+        }
+    }
+
+    /**
+     * Append a record to the log.
+     *
+     * @param event The audit event to write into the record
+     * @throws AuditException When the log is not available, or the record cannot be written
+     */
+    private void append(final AuditEvent event)
+            throws AuditException {
+
+        // private method asserts
+        assert event != null : "The event cannot be null";
+
+        final JournalWriter myWriter = writer;
+        if (myWriter == null) {
+            final String error = "The audit log is not available";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+
+        final ByteBuffer buffer = getBuffer(AuditEventCodec.encodedLength(event));
+        final int length = AuditEventCodec.encode(event, buffer);
+
+        try {
+            myWriter.append(buffer.array(), 0, length);
+        } catch (IOException | IllegalArgumentException e) {
+            final String error = "Cannot write the audit record";
+            LOG.warn(error, e);
+            throw new AuditException(error, e);
+        }
+    }
+
+    /**
+     * Return the encoding buffer of the calling thread, cleared and large enough for the requested size.
+     *
+     * @param size The required size of the buffer, in bytes
+     * @return The buffer
+     */
+    private static ByteBuffer getBuffer(final int size) {
+
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+            BUFFERS.set(buffer);
+        }
+        buffer.clear();
+
+        return buffer;
+    }
+}
@@ -44,7 +44,7 @@ import org.slf4j.LoggerFactory;
  * This is commonly <b>not</b> recommended for production.
  */
 public class SampleAuditLogger
-        implements Audit {
+        implements StructuredAudit, SummaryAudit {
 
     /**
      * The logger object for this class
@@ -101,4 +101,47 @@ public class SampleAuditLogger
             LOG.info("[AUDIT] " + event.getValue() + ". User name '" + username + "', domain '" + domain + "'");
         }
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit when upgrading PMD.
+    @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+    public final void audit(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        // PMD does not recognize the guarded log statement
+        if (LOG.isInfoEnabled()) {
+            LOG.info("[AUDIT] " + event.getEvent().getValue() + ". User name '" + event.getUsername()
+                    + "', domain '" + event.getDomain() + "', user ID '" + event.getUserId()
+                    + "', sequence " + event.getSequence() + ", time " + event.getTime()
+                    + ", duration " + event.getDuration() + "ns, module instance '" + event.getModuleInstanceId()
+                    + "', principals " + event.getPrincipals() + ", correlation ID '" + event.getCorrelationId()
+                    + "', node '" + event.getNodeId() + "'");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code summary} is {@code null}
+     */
+    @Override
+    // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit when upgrading PMD.
+    @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+    public final void audit(final AuditSummary summary) {
+
+        Validate.notNull(summary, "The validated object 'summary' is null");
+
+        // PMD does not recognize the guarded log statement
+        if (LOG.isInfoEnabled()) {
+            LOG.info("[AUDIT] " + summary.getEvent().getValue() + ". Count " + summary.getCount() + ", domain '"
+                    + summary.getDomain() + "', interval " + summary.getIntervalStart() + " - "
+                    + summary.getIntervalEnd());
+        }
+    }
 }
@@ -0,0 +1,482 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedSamplingAuditPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An audit subsystem that passes the events that matter to investigators (such as failures, errors, and aborts) on
+ * to another audit subsystem (the delegate) in full, and rolls the high-volume success events up into counters.
+ * <p>
+ * The policy is configured with the {@code jaas.audit.sampling.*} keys (see
+ * {@link JaasBasedSamplingAuditPropsBuilder}), and the delegate is created with
+ * {@link AuditFactory#getInstance(String, CommonProperties)} using the properties this instance is initialized with.
+ * The aggregated events (by default {@link Events#AUTHN_ATTEMPT}, {@link Events#AUTHN_SUCCESS}, and
+ * {@link Events#AUTHN_LOGOUT}) are counted per event and domain, and at the end of every interval a background thread
+ * passes one {@link AuditSummary} per event and domain with a non-zero count on to the delegate. Delegates that do not
+ * implement {@link SummaryAudit} cannot store summaries, and the summaries are logged instead. Optionally, every Nth
+ * aggregated event is also passed on in full, as a sample.
+ * <p>
+ * Summaries are produced in the background, so a delegate failing to store a summary does not fail an audit
+ * operation: the failure is logged, and the counts of that summary are lost.
+ * <p>
+ * This class is thread safe.
+ */
+public final class SamplingAudit
+        implements StructuredAudit {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SamplingAudit.class);
+
+    /**
+     * The policy of the current configuration
+     */
+    private volatile Policy policy;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the configured delegate, and stops the policy of the previous configuration (if any), passing its
+     * pending summaries on to its delegate. If the delegate cannot be created, all audit operations fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final SamplingAuditProperties samplingProps =
+                JaasBasedSamplingAuditPropsBuilder.build(properties.getAdditionalProperties());
+
+        Policy newPolicy;
+        try {
+            newPolicy = new Policy(createDelegate(samplingProps.getDelegate(), properties), samplingProps);
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the audit delegate, all audit operations will fail", e);
+            newPolicy = null;
+        }
+
+        final Policy oldPolicy = policy;
+        policy = newPolicy;
+        if (oldPolicy != null) {
+            oldPolicy.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public void audit(final Events event, final String userId)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        final Policy myPolicy = getPolicy();
+        if (myPolicy.aggregate(event, null)) {
+            myPolicy.delegate.audit(event, userId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void audit(final Events event, final String domain, final String username)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        final Policy myPolicy = getPolicy();
+        if (myPolicy.aggregate(event, domain)) {
+            myPolicy.delegate.audit(event, domain, username);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    public void audit(final AuditEvent event)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        final Policy myPolicy = getPolicy();
+        if (myPolicy.aggregate(event.getEvent(), event.getDomain())) {
+            final Audit delegate = myPolicy.delegate;
+            if (delegate instanceof StructuredAudit) {
+                ((StructuredAudit) delegate).audit(event);
+            } else if (StringUtils.isNotBlank(event.getDomain()) && StringUtils.isNotBlank(event.getUsername())) {
+                delegate.audit(event.getEvent(), event.getDomain(), event.getUsername());
+            } else {
+                delegate.audit(event.getEvent(), event.getUserId());
+            }
+        }
+    }
+
+    /**
+     * Pass the summaries of the current interval on to the delegate now, and start a new interval.
+     */
+    void flush() {
+
+        final Policy myPolicy = policy;
+        if (myPolicy != null) {
+            myPolicy.flush();
+        }
+    }
+
+    /**
+     * @return The delegate of the current configuration, or {@code null} if the delegate is not available
+     */
+    Audit getDelegate() {
+
+        final Policy myPolicy = policy;
+        if (myPolicy == null) {
+            return null;
+        }
+
+        return myPolicy.delegate;
+    }
+
+    /**
+     * @return The policy of the current configuration
+     * @throws AuditException When the delegate is not available
+     */
+    private Policy getPolicy()
+            throws AuditException {
+
+        final Policy myPolicy = policy;
+        if (myPolicy == null) {
+            final String error = "The audit delegate is not available";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+
+        return myPolicy;
+    }
+
+    /**
+     * Create the delegate.
+     *
+     * @param className  The class name of the delegate, may be {@code null}
+     * @param properties The properties to initialize the delegate with
+     * @return The delegate
+     * @throws FactoryException When the delegate is not configured or cannot be created
+     */
+    private static Audit createDelegate(final String className, final CommonProperties properties)
+            throws FactoryException {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (StringUtils.isBlank(className)) {
+            throw new FactoryException("No audit delegate has been configured (key '"
+                    + JaasBasedSamplingAuditPropsBuilder.KEY_DELEGATE + "')");
+        }
+        if (SamplingAudit.class.getName().equals(className)) {
+            throw new FactoryException("A sampling audit cannot be the delegate of a sampling audit");
+        }
+
+        return AuditFactory.getInstance(className, properties);
+    }
+
+    /**
+     * The counters, sample, and background thread of one configuration.
+     */
+    private static final class Policy {
+
+        /**
+         * The delegate the events and summaries are passed on to
+         */
+        private final Audit delegate;
+
+        /**
+         * The events that are counted
+         */
+        private final Set<Events> aggregatedEvents;
+
+        /**
+         * The sample rate, or 0 if aggregated events are not sampled
+         */
+        private final int sampleRate;
+
+        /**
+         * The length of an interval in milliseconds
+         */
+        private final long interval;
+
+        /**
+         * The number of aggregated events, for sampling
+         */
+        private final AtomicLong seen = new AtomicLong();
+
+        /**
+         * The counters of the current interval. Counters are reset instead of removed when an interval ends, so that
+         * an increment can never be lost to a concurrent flush.
+         */
+        private final ConcurrentMap<Key, AtomicLong> counters = new ConcurrentHashMap<>();
+
+        /**
+         * The thread producing the summaries at the end of every interval
+         */
+        private final Thread flusher;
+
+        /**
+         * The start of the current interval, in milliseconds since the epoch
+         */
+        private long intervalStart;
+
+        /**
+         * The lock the background thread waits on between intervals
+         */
+        private final Object wakeup = new Object();
+
+        /**
+         * {@code true} when the policy has been closed
+         */
+        private boolean closed;
+
+        /**
+         * Create a policy, and start its background thread.
+         *
+         * @param delegate The delegate
+         * @param props    The properties of the policy
+         */
+        Policy(final Audit delegate, final SamplingAuditProperties props) {
+
+            this.delegate = delegate;
+            this.aggregatedEvents = props.getAggregatedEvents();
+            this.sampleRate = props.getSampleRate();
+            this.interval = props.getInterval();
+            this.intervalStart = System.currentTimeMillis();
+
+            flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    runFlushes();
+                }
+            }, "audit-sampling-flush");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        /**
+         * Count an event if it is aggregated.
+         *
+         * @param event  The event
+         * @param domain The domain of the event, may be {@code null}
+         * @return {@code true} if the event must be passed on in full (because it is not aggregated, or it has been
+         * chosen as a sample)
+         */
+        boolean aggregate(final Events event, final String domain) {
+
+            if (!aggregatedEvents.contains(event)) {
+                return true;
+            }
+
+            final Key key = new Key(event, domain);
+            AtomicLong counter = counters.get(key);
+            if (counter == null) {
+                final AtomicLong newCounter = new AtomicLong();
+                counter = counters.putIfAbsent(key, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+
+            return sampleRate > 0 && seen.incrementAndGet() % sampleRate == 0;
+        }
+
+        /**
+         * Pass the summaries of the current interval on to the delegate, and start a new interval.
+         */
+        synchronized void flush() {
+
+            final long intervalEnd = Math.max(System.currentTimeMillis(), intervalStart);
+            for (final Map.Entry<Key, AtomicLong> entry : counters.entrySet()) {
+                final long count = entry.getValue().getAndSet(0);
+                if (count > 0) {
+                    emit(new AuditSummary(entry.getKey().event, entry.getKey().domain, count, intervalStart,
+                            intervalEnd));
+                }
+            }
+            intervalStart = intervalEnd;
+        }
+
+        /**
+         * Stop the background thread, and pass the pending summaries on to the delegate.
+         */
+        void close() {
+
+            // the thread is woken up rather than interrupted, so that an interrupt cannot hit the delegate's I/O
+            synchronized (wakeup) {
+                closed = true;
+                wakeup.notifyAll();
+            }
+            flush();
+        }
+
+        /**
+         * Produce the summaries at the end of every interval, until the policy is closed.
+         */
+        private void runFlushes() {
+
+            while (true) {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                synchronized (wakeup) {
+                    long remaining = deadline - System.nanoTime();
+                    while (!closed && remaining > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(wakeup, remaining);
+                        } catch (InterruptedException e) {
+                            // closing the policy flushes the pending summaries
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        remaining = deadline - System.nanoTime();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                flush();
+            }
+        }
+
+        /**
+         * Pass a summary on to the delegate, or log it if the delegate cannot store summaries.
+         *
+         * @param summary The summary
+         */
+        // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit with PMD.
+        @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+        private void emit(final AuditSummary summary) {
+
+            // private method asserts
+            assert summary != null : "The summary cannot be null";
+
+            if (delegate instanceof SummaryAudit) {
+                try {
+                    ((SummaryAudit) delegate).audit(summary);
+                } catch (AuditException | RuntimeException e) {
+                    LOG.warn("The audit summary of " + summary.getCount() + " events '"
+                            + summary.getEvent().getValue() + "' has not been accepted by the delegate", e);
+                }
+            } else if (LOG.isInfoEnabled()) {
+                // PMD does not recognize the guarded log statement
+                LOG.info("[AUDIT SUMMARY] " + summary.getEvent().getValue() + ". Count " + summary.getCount()
+                        + ", domain '" + summary.getDomain() + "', interval " + summary.getIntervalStart() + " - "
+                        + summary.getIntervalEnd());
+            }
+        }
+    }
+
+    /**
+     * The key of a counter: an event in a domain.
+     */
+    private static final class Key {
+
+        /**
+         * The event
+         */
+        private final Events event;
+
+        /**
+         * The domain, may be {@code null}
+         */
+        private final String domain;
+
+        /**
+         * @param event  The event
+         * @param domain The domain, may be {@code null}
+         */
+        Key(final Events event, final String domain) {
+
+            this.event = event;
+            // no need for defensive copies of String
+            this.domain = domain;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return event == other.event && Objects.equals(domain, other.domain);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return Objects.hash(event, domain);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link SamplingAudit}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class SamplingAuditProperties {
+
+    /**
+     * @see SamplingAuditProperties#setDelegate(String)
+     */
+    private String delegate;
+
+    /**
+     * @see SamplingAuditProperties#setInterval(long)
+     */
+    private long interval;
+
+    /**
+     * @see SamplingAuditProperties#setSampleRate(int)
+     */
+    private int sampleRate;
+
+    /**
+     * @see SamplingAuditProperties#setAggregatedEvents(Set)
+     */
+    private Set<Events> aggregatedEvents = EnumSet.noneOf(Events.class);
+
+    /**
+     * @see SamplingAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of sampling audit properties, with most values being set to <code>null</code>, 0, or
+     * empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as {@code JaasBasedSamplingAuditPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public SamplingAuditProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of sampling audit properties from an existing set of sampling audit properties, making a
+     * defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see SamplingAuditProperties()
+     */
+    public SamplingAuditProperties(final SamplingAuditProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setDelegate(properties.getDelegate());
+        setInterval(properties.getInterval());
+        setSampleRate(properties.getSampleRate());
+        setAggregatedEvents(properties.getAggregatedEvents());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The class name of the audit subsystem the events are passed on to
+     * @see SamplingAuditProperties#setDelegate(String)
+     */
+    public final String getDelegate() {
+
+        // no need for defensive copies of String
+
+        return delegate;
+    }
+
+    /**
+     * Set the class name of the audit subsystem the events and the summaries are passed on to. The class must
+     * implement {@link Audit}, and should implement {@link SummaryAudit} to receive the summaries (which are logged
+     * otherwise).
+     *
+     * @param delegate A class name
+     */
+    public final void setDelegate(final String delegate) {
+
+        // no need for defensive copies of String
+
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The length of the intervals over which the aggregated events are counted, in milliseconds
+     * @see SamplingAuditProperties#setInterval(long)
+     */
+    public final long getInterval() {
+
+        return interval;
+    }
+
+    /**
+     * Set the length of the intervals over which the aggregated events are counted, in milliseconds. At the end of
+     * every interval, one summary per event and domain is passed on to the delegate
+     *
+     * @param interval The interval in milliseconds
+     */
+    public final void setInterval(final long interval) {
+
+        this.interval = interval;
+    }
+
+    /**
+     * @return The rate at which aggregated events are sampled
+     * @see SamplingAuditProperties#setSampleRate(int)
+     */
+    public final int getSampleRate() {
+
+        return sampleRate;
+    }
+
+    /**
+     * Set the rate at which aggregated events are sampled: with a rate of N, every Nth aggregated event is also
+     * passed on to the delegate in full. A rate of 0 disables sampling, so that aggregated events are only counted
+     *
+     * @param sampleRate The sample rate
+     */
+    public final void setSampleRate(final int sampleRate) {
+
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return The events that are counted instead of being passed on one by one
+     * @see SamplingAuditProperties#setAggregatedEvents(Set)
+     */
+    public final Set<Events> getAggregatedEvents() {
+
+        // create a defensive copy of the set
+        if (aggregatedEvents == null) {
+            // this should never happen!
+            return EnumSet.noneOf(Events.class);
+        } else {
+            return EnumSet.copyOf(aggregatedEvents);
+        }
+    }
+
+    /**
+     * Set the events that are counted instead of being passed on one by one (usually the high-volume success events).
+     * All other events (such as failures, errors, and aborts) are passed on to the delegate in full
+     *
+     * @param aggregatedEvents The aggregated events
+     */
+    public final void setAggregatedEvents(final Set<Events> aggregatedEvents) {
+
+        // create a defensive copy of the set
+        if (aggregatedEvents == null || aggregatedEvents.isEmpty()) {
+            this.aggregatedEvents = EnumSet.noneOf(Events.class);
+        } else {
+            this.aggregatedEvents = EnumSet.copyOf(aggregatedEvents);
+        }
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see SamplingAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
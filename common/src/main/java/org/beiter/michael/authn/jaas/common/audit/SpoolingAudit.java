@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.Util;
+import org.beiter.michael.authn.jaas.common.journal.JournalSpool;
+import org.beiter.michael.authn.jaas.common.journal.RecordHandler;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedSpoolingAuditPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An audit subsystem that passes the events on to another audit subsystem (the delegate), and spools the events the
+ * delegate fails to audit to a local disk queue (see {@link JournalSpool}) instead of failing the audit operation, so
+ * that logins do not depend on the availability of the delegate (e.g. an audit database).
+ * <p>
+ * The spool is configured with the {@code jaas.audit.spooling.*} keys (see {@link JaasBasedSpoolingAuditPropsBuilder}),
+ * and the delegate is created with {@link AuditFactory#getInstance(String, CommonProperties)} using the properties
+ * this instance is initialized with. A background thread replays the spooled events to the delegate in order, every
+ * retry interval, until the delegate has recovered. While there are spooled events, new events are spooled as well,
+ * so that the delegate receives the events in the order they have been audited. An audit operation only fails if the
+ * event can neither be audited by the delegate nor be spooled.
+ * <p>
+ * Every event carries an idempotency ID (see {@link AuditEvent#getId()}), which a delegate implementing
+ * {@link StructuredAudit} receives with the event also when the event is replayed, so that it can discard an event it
+ * receives twice (e.g. when the delegate has stored an event, but has failed to report this in time).
+ * <p>
+ * All instances that are configured with the same directory share one spool, which replays the events to the delegate
+ * of the instance that has been initialized last. This class is thread safe.
+ */
+public final class SpoolingAudit
+        implements StructuredAudit {
+
+    /**
+     * The prefix of the segment file names of the spool
+     */
+    public static final String PREFIX = "audit-spool";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolingAudit.class);
+
+    /**
+     * The spools that are currently open, by canonical directory path
+     */
+    private static final Map<String, JournalSpool> SPOOLS = new HashMap<>();
+
+    /**
+     * The delegate and spool of the current configuration
+     */
+    private volatile Destination destination;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the configured delegate, and opens the spool in the configured directory (or attaches to the spool if
+     * it is already open). If the delegate cannot be created or the spool cannot be opened, all audit operations fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final SpoolingAuditProperties spoolProps =
+                JaasBasedSpoolingAuditPropsBuilder.build(properties.getAdditionalProperties());
+
+        if (StringUtils.isBlank(spoolProps.getDirectory())) {
+            LOG.warn("No audit spool directory has been configured, all audit operations will fail");
+            destination = null;
+            return;
+        }
+
+        try {
+            final Audit delegate = createDelegate(spoolProps.getDelegate(), properties);
+            final JournalSpool spool = getSpool(spoolProps);
+            spool.setReplayer(new RecordHandler() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                    return replay(delegate, sequence, payload);
+                }
+            });
+            destination = new Destination(delegate, spool);
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the audit delegate, all audit operations will fail", e);
+            destination = null;
+        } catch (IOException e) {
+            LOG.warn("Cannot open the audit spool, all audit operations will fail", e);
+            destination = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public void audit(final Events event, final String userId)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        audit(AuditEvent.create(event, null, null, userId, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void audit(final Events event, final String domain, final String username)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        audit(AuditEvent.create(event, domain, username, null, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Events without an idempotency ID are given a new ID.
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    public void audit(final AuditEvent event)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        final Destination myDestination = destination;
+        if (myDestination == null) {
+            final String error = "The audit delegate or spool is not available";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+
+        final AuditEvent identified = withId(event);
+        if (!myDestination.spool.isSpooling()) {
+            try {
+                deliver(myDestination.delegate, identified);
+                return;
+            } catch (AuditException e) {
+                LOG.warn("The audit delegate has failed, spooling the event for a later replay", e);
+            }
+        }
+
+        final byte[] payload = new byte[AuditEventCodec.encodedLength(identified)];
+        AuditEventCodec.encode(identified, ByteBuffer.wrap(payload));
+        try {
+            myDestination.spool.append(payload, 0, payload.length);
+        } catch (IOException | IllegalArgumentException e) {
+            final String error = "Cannot spool the audit event";
+            LOG.warn(error, e);
+            throw new AuditException(error, e);
+        }
+    }
+
+    /**
+     * @return The spool of the current configuration, or {@code null} if the spool is not available
+     */
+    JournalSpool getSpool() {
+
+        final Destination myDestination = destination;
+        if (myDestination == null) {
+            return null;
+        }
+
+        return myDestination.spool;
+    }
+
+    /**
+     * Close all open spools. The instances that have been attached to a closed spool fail to spool events until they
+     * are initialized again.
+     *
+     * @throws IOException When a spool cannot be closed
+     */
+    static void closeAll()
+            throws IOException {
+
+        synchronized (SPOOLS) {
+            for (final JournalSpool spool : SPOOLS.values()) {
+                spool.close();
+            }
+            SPOOLS.clear();
+        }
+    }
+
+    /**
+     * Return the open spool for the configured directory, or open the spool.
+     *
+     * @param spoolProps The configuration of the spool
+     * @return The spool
+     * @throws IOException When the spool cannot be opened
+     */
+    private static JournalSpool getSpool(final SpoolingAuditProperties spoolProps)
+            throws IOException {
+
+        // private method asserts
+        assert spoolProps != null : "The spool properties cannot be null";
+
+        final File directory = new File(spoolProps.getDirectory()).getCanonicalFile();
+        synchronized (SPOOLS) {
+            JournalSpool spool = SPOOLS.get(directory.getPath());
+            if (spool == null) {
+                spool = JournalSpool.open(directory, PREFIX, spoolProps.getSegmentSize(),
+                        spoolProps.getRetryInterval(), spoolProps.getBatchSize());
+                SPOOLS.put(directory.getPath(), spool);
+            }
+
+            return spool;
+        }
+    }
+
+    /**
+     * Create the delegate.
+     *
+     * @param className  The class name of the delegate, may be {@code null}
+     * @param properties The properties to initialize the delegate with
+     * @return The delegate
+     * @throws FactoryException When the delegate is not configured or cannot be created
+     */
+    private static Audit createDelegate(final String className, final CommonProperties properties)
+            throws FactoryException {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (StringUtils.isBlank(className)) {
+            throw new FactoryException("No audit delegate has been configured (key '"
+                    + JaasBasedSpoolingAuditPropsBuilder.KEY_DELEGATE + "')");
+        }
+        if (SpoolingAudit.class.getName().equals(className)) {
+            throw new FactoryException("A spooling audit cannot be the delegate of a spooling audit");
+        }
+
+        return AuditFactory.getInstance(className, properties);
+    }
+
+    /**
+     * @param event An event
+     * @return The event, or a copy of the event with a new idempotency ID if the event does not have an ID
+     */
+    private static AuditEvent withId(final AuditEvent event) {
+
+        // private method asserts
+        assert event != null : "The event cannot be null";
+
+        if (event.getId() != null) {
+            return event;
+        }
+
+        return new AuditEvent(event.getSequence(), event.getTime(), event.getMonotonicTime(), event.getEvent(),
+                event.getDomain(), event.getUsername(), event.getUserId(), event.getDuration(),
+                event.getModuleInstanceId(), event.getPrincipals(), Util.newId(), event.getCorrelationId(),
+                event.getNodeId());
+    }
+
+    /**
+     * Pass an event on to the delegate, as a structured event if the delegate supports it.
+     *
+     * @param delegate The delegate
+     * @param event    The event
+     * @throws AuditException When the delegate fails to audit the event
+     */
+    private static void deliver(final Audit delegate, final AuditEvent event)
+            throws AuditException {
+
+        // private method asserts
+        assert delegate != null : "The delegate cannot be null";
+        assert event != null : "The event cannot be null";
+
+        if (delegate instanceof StructuredAudit) {
+            ((StructuredAudit) delegate).audit(event);
+        } else if (StringUtils.isNotBlank(event.getDomain()) && StringUtils.isNotBlank(event.getUsername())) {
+            delegate.audit(event.getEvent(), event.getDomain(), event.getUsername());
+        } else {
+            delegate.audit(event.getEvent(), event.getUserId());
+        }
+    }
+
+    /**
+     * Replay a spooled event to the delegate.
+     *
+     * @param delegate The delegate
+     * @param sequence The sequence number of the spooled record
+     * @param payload  The payload of the spooled record
+     * @return {@code false} if the delegate has failed to audit the event
+     */
+    private static boolean replay(final Audit delegate, final long sequence, final ByteBuffer payload) {
+
+        // private method asserts
+        assert delegate != null : "The delegate cannot be null";
+        assert payload != null : "The payload cannot be null";
+
+        final AuditEvent event;
+        try {
+            event = AuditEventCodec.decode(payload.duplicate());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Skipping spooled audit event " + sequence + ", which cannot be decoded", e);
+            return true;
+        }
+
+        try {
+            deliver(delegate, event);
+            return true;
+        } catch (AuditException e) {
+            LOG.warn("The audit delegate is still not available, replaying the spooled events later", e);
+            return false;
+        }
+    }
+
+    /**
+     * The delegate and spool of one configuration.
+     */
+    private static final class Destination {
+
+        /**
+         * The delegate the events are passed on to
+         */
+        private final Audit delegate;
+
+        /**
+         * The spool for the events the delegate fails to audit
+         */
+        private final JournalSpool spool;
+
+        /**
+         * @param delegate The delegate
+         * @param spool    The spool
+         */
+        Destination(final Audit delegate, final JournalSpool spool) {
+
+            this.delegate = delegate;
+            this.spool = spool;
+        }
+    }
+}
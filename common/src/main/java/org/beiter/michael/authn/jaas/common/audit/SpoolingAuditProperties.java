@@ -0,0 +1,276 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link SpoolingAudit}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class SpoolingAuditProperties {
+
+    /**
+     * @see SpoolingAuditProperties#setDelegate(String)
+     */
+    private String delegate;
+
+    /**
+     * @see SpoolingAuditProperties#setDirectory(String)
+     */
+    private String directory;
+
+    /**
+     * @see SpoolingAuditProperties#setSegmentSize(int)
+     */
+    private int segmentSize;
+
+    /**
+     * @see SpoolingAuditProperties#setRetryInterval(long)
+     */
+    private long retryInterval;
+
+    /**
+     * @see SpoolingAuditProperties#setBatchSize(int)
+     */
+    private int batchSize;
+
+    /**
+     * @see SpoolingAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of spooling audit properties, with most values being set to <code>null</code>, 0,
+     * or empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as {@code JaasBasedSpoolingAuditPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public SpoolingAuditProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of spooling audit properties from an existing set of spooling audit properties, making
+     * a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see SpoolingAuditProperties()
+     */
+    public SpoolingAuditProperties(final SpoolingAuditProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setDelegate(properties.getDelegate());
+        setDirectory(properties.getDirectory());
+        setSegmentSize(properties.getSegmentSize());
+        setRetryInterval(properties.getRetryInterval());
+        setBatchSize(properties.getBatchSize());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The class name of the audit subsystem the events are passed on to
+     * @see SpoolingAuditProperties#setDelegate(String)
+     */
+    public final String getDelegate() {
+
+        // no need for defensive copies of String
+
+        return delegate;
+    }
+
+    /**
+     * Set the class name of the audit subsystem the events are passed on to. The class must implement
+     * {@link Audit}, and should implement {@link StructuredAudit} for the events to keep their idempotency IDs when
+     * they are replayed.
+     *
+     * @param delegate A class name
+     */
+    public final void setDelegate(final String delegate) {
+
+        // no need for defensive copies of String
+
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The directory of the spool
+     * @see SpoolingAuditProperties#setDirectory(String)
+     */
+    public final String getDirectory() {
+
+        // no need for defensive copies of String
+
+        return directory;
+    }
+
+    /**
+     * Set the directory in which the spooled events are stored. The directory is created if it does not exist, and
+     * can only be used by one JVM at a time
+     *
+     * @param directory A directory
+     */
+    public final void setDirectory(final String directory) {
+
+        // no need for defensive copies of String
+
+        this.directory = directory;
+    }
+
+    /**
+     * @return The size of a spool segment file in bytes
+     * @see SpoolingAuditProperties#setSegmentSize(int)
+     */
+    public final int getSegmentSize() {
+
+        return segmentSize;
+    }
+
+    /**
+     * Set the size of a spool segment file in bytes. Segments are deleted once all their events have been replayed
+     *
+     * @param segmentSize The segment size in bytes
+     */
+    public final void setSegmentSize(final int segmentSize) {
+
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return The time between two attempts to replay the spooled events, in milliseconds
+     * @see SpoolingAuditProperties#setRetryInterval(long)
+     */
+    public final long getRetryInterval() {
+
+        return retryInterval;
+    }
+
+    /**
+     * Set the time between two attempts to replay the spooled events to the delegate, in milliseconds
+     *
+     * @param retryInterval The retry interval in milliseconds
+     */
+    public final void setRetryInterval(final long retryInterval) {
+
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * @return The maximum number of events replayed before the replay position is committed
+     * @see SpoolingAuditProperties#setBatchSize(int)
+     */
+    public final int getBatchSize() {
+
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of events replayed before the replay position is committed. A larger batch commits
+     * the position less often, but replays more events a second time after a crash
+     *
+     * @param batchSize The batch size
+     */
+    public final void setBatchSize(final int batchSize) {
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see SpoolingAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
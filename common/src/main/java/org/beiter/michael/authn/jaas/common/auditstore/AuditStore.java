@@ -0,0 +1,476 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.auditstore;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditEventCodec;
+import org.beiter.michael.authn.jaas.common.journal.RecordHandler;
+import org.beiter.michael.authn.jaas.common.journal.RecordLocator;
+import org.beiter.michael.authn.jaas.common.journal.SegmentArchive;
+import org.beiter.michael.authn.jaas.common.journal.SegmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A query interface to the audit log written by the
+ * {@link org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger}, which finds the events of a user or of a time
+ * range without scanning the whole log.
+ * <p>
+ * Every sealed segment of the log (i.e. every segment but the last one, which is still being written to) gets a
+ * secondary index file next to it, with the records of the segment by user hash and by time bucket, and with the time
+ * range of the segment. A query skips the segments outside of its time range, looks up the matching records in the
+ * indexes of the remaining segments, and reads only these records. Only the last segment is scanned. The indexes are
+ * built by {@link #index()}, or on demand by the first query that needs them. Sealed segments that have been
+ * compressed (see {@link org.beiter.michael.authn.jaas.common.journal.SegmentArchiver}) are queried like all other
+ * segments, and keep their indexes, as the positions of their records do not change.
+ * <p>
+ * The store does not lock the log, so the log can be queried while it is being written, also from another process.
+ * Time ranges refer to the time the records have been appended to the log. Results are returned in the order in
+ * which the events have been logged.
+ * <p>
+ * This class is thread safe.
+ */
+public final class AuditStore {
+
+    /**
+     * The default width of a time bucket in milliseconds
+     */
+    public static final long DEFAULT_BUCKET_WIDTH = 60L * 1000;
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(AuditStore.class);
+
+    /**
+     * The directory of the log
+     */
+    private final File directory;
+
+    /**
+     * The prefix of the segment file names
+     */
+    private final String prefix;
+
+    /**
+     * The width of a time bucket in milliseconds, for new indexes
+     */
+    private final long bucketWidth;
+
+    /**
+     * The indexes that have been loaded, by segment file
+     */
+    private final ConcurrentMap<File, SegmentIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a store for an audit log.
+     *
+     * @param directory   The directory of the log
+     * @param prefix      The prefix of the segment file names, e.g.
+     *                    {@link org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger#PREFIX}
+     * @param bucketWidth The width of a time bucket of new indexes in milliseconds
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty or {@code bucketWidth} is not positive
+     */
+    public AuditStore(final File directory, final String prefix, final long bucketWidth) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+        Validate.isTrue(bucketWidth > 0, "The bucket width must be positive");
+
+        this.directory = directory;
+        // no need for defensive copies of String
+        this.prefix = prefix;
+        this.bucketWidth = bucketWidth;
+    }
+
+    /**
+     * Build the missing indexes of the sealed segments.
+     *
+     * @return The number of indexes that have been built
+     * @throws IOException When a segment cannot be read, or an index cannot be written
+     */
+    public int index()
+            throws IOException {
+
+        final List<File> segments = SegmentArchive.listSegments(directory, prefix);
+        int built = 0;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            final File segment = segments.get(i);
+            if (indexes.containsKey(segment)) {
+                continue;
+            }
+
+            final SegmentReader reader = SegmentReader.open(segment);
+            SegmentIndex index = SegmentIndex.load(segment, reader.getBaseSequence());
+            if (index == null) {
+                index = SegmentIndex.build(reader, bucketWidth);
+                built++;
+            }
+            indexes.put(segment, index);
+        }
+
+        return built;
+    }
+
+    /**
+     * Find the events of a user identified by domain and username.
+     *
+     * @param domain   The domain of the user
+     * @param username The username of the user
+     * @param from     The start of the time range in milliseconds since the epoch, inclusive
+     * @param to       The end of the time range in milliseconds since the epoch, inclusive
+     * @param limit    The maximum number of events to return
+     * @return The events, in the order in which they have been logged
+     * @throws NullPointerException     When {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code limit} is not positive
+     * @throws IOException              When the log cannot be read
+     */
+    public List<AuditEvent> findByUser(final String domain, final String username, final long from, final long to,
+                                       final int limit)
+            throws IOException {
+
+        Validate.notNull(domain, "The validated object 'domain' is null");
+        Validate.notNull(username, "The validated object 'username' is null");
+        Validate.isTrue(limit > 0, "The limit must be positive");
+
+        return find(new UserQuery(SegmentIndex.userHash(domain, username), from, to, limit) {
+            @Override
+            boolean matches(final AuditEvent event) {
+
+                return domain.equals(event.getDomain()) && username.equals(event.getUsername());
+            }
+        });
+    }
+
+    /**
+     * Find the events of a user identified by user ID (i.e. by principal).
+     *
+     * @param userId The user ID of the user
+     * @param from   The start of the time range in milliseconds since the epoch, inclusive
+     * @param to     The end of the time range in milliseconds since the epoch, inclusive
+     * @param limit  The maximum number of events to return
+     * @return The events, in the order in which they have been logged
+     * @throws NullPointerException     When {@code userId} is {@code null}
+     * @throws IllegalArgumentException When {@code limit} is not positive
+     * @throws IOException              When the log cannot be read
+     */
+    public List<AuditEvent> findByUserId(final String userId, final long from, final long to, final int limit)
+            throws IOException {
+
+        Validate.notNull(userId, "The validated object 'userId' is null");
+        Validate.isTrue(limit > 0, "The limit must be positive");
+
+        return find(new UserQuery(SegmentIndex.userIdHash(userId), from, to, limit) {
+            @Override
+            boolean matches(final AuditEvent event) {
+
+                return userId.equals(event.getUserId());
+            }
+        });
+    }
+
+    /**
+     * Find the events of a time range.
+     *
+     * @param from  The start of the time range in milliseconds since the epoch, inclusive
+     * @param to    The end of the time range in milliseconds since the epoch, inclusive
+     * @param limit The maximum number of events to return
+     * @return The events, in the order in which they have been logged
+     * @throws IllegalArgumentException When {@code limit} is not positive
+     * @throws IOException              When the log cannot be read
+     */
+    public List<AuditEvent> findByTime(final long from, final long to, final int limit)
+            throws IOException {
+
+        Validate.isTrue(limit > 0, "The limit must be positive");
+
+        return find(new Query(from, to, limit) {
+            @Override
+            boolean matches(final AuditEvent event) {
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Run a query against all segments of the log.
+     *
+     * @param query The query
+     * @return The events found by the query
+     * @throws IOException When the log cannot be read
+     */
+    private List<AuditEvent> find(final Query query)
+            throws IOException {
+
+        // private method asserts
+        assert query != null : "The query cannot be null";
+
+        final List<File> segments = SegmentArchive.listSegments(directory, prefix);
+        for (int i = 0; i < segments.size() && !query.isComplete(); i++) {
+            final File segment = segments.get(i);
+            final SegmentReader reader;
+            try {
+                reader = SegmentReader.open(segment);
+            } catch (IOException e) {
+                if (segment.exists() || SegmentArchive.archiveFile(segment).exists()) {
+                    throw e;
+                }
+                // the segment has been deleted (e.g. by a retention job) since the segments have been listed
+                continue;
+            }
+
+            final SegmentIndex index;
+            if (i < segments.size() - 1) {
+                index = getIndex(reader);
+            } else {
+                index = null;
+            }
+
+            if (index == null) {
+                reader.scan(SegmentReader.getFirstOffset(), Integer.MAX_VALUE, query);
+            } else {
+                query.run(reader, index);
+            }
+        }
+
+        return query.getResults();
+    }
+
+    /**
+     * Return the index of a sealed segment, loading or building it if necessary.
+     *
+     * @param reader The reader of the segment
+     * @return The index, or {@code null} if the segment cannot be indexed
+     */
+    private SegmentIndex getIndex(final SegmentReader reader) {
+
+        // private method asserts
+        assert reader != null : "The reader cannot be null";
+
+        final File segment = reader.getFile();
+        SegmentIndex index = indexes.get(segment);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            index = SegmentIndex.load(segment, reader.getBaseSequence());
+            if (index == null) {
+                index = SegmentIndex.build(reader, bucketWidth);
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot index the segment '" + segment + "', scanning the segment instead", e);
+            return null;
+        }
+
+        final SegmentIndex existing = indexes.putIfAbsent(segment, index);
+        if (existing == null) {
+            return index;
+        }
+
+        return existing;
+    }
+
+    /**
+     * A query, which collects the events of the records it is passed that match its filters.
+     */
+    private abstract static class Query
+            implements RecordLocator, RecordHandler {
+
+        /**
+         * The start of the time range
+         */
+        private final long from;
+
+        /**
+         * The end of the time range
+         */
+        private final long to;
+
+        /**
+         * The maximum number of results
+         */
+        private final int limit;
+
+        /**
+         * The events that have been found
+         */
+        private final List<AuditEvent> results = new ArrayList<>();
+
+        /**
+         * Create a query.
+         *
+         * @param from  The start of the time range
+         * @param to    The end of the time range
+         * @param limit The maximum number of results
+         */
+        Query(final long from, final long to, final int limit) {
+
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+        }
+
+        /**
+         * @param event An event in the time range
+         * @return {@code true} if the event is a result of the query
+         */
+        abstract boolean matches(final AuditEvent event);
+
+        /**
+         * Run the query against an indexed segment.
+         *
+         * @param reader The reader of the segment
+         * @param index  The index of the segment
+         */
+        void run(final SegmentReader reader, final SegmentIndex index) {
+
+            final int[] range = index.findTimeRange(from, to);
+            if (range != null) {
+                reader.scan(range[0], range[1] + 1, this);
+            }
+        }
+
+        /**
+         * @return The start of the time range
+         */
+        final long getFrom() {
+
+            return from;
+        }
+
+        /**
+         * @return The end of the time range
+         */
+        final long getTo() {
+
+            return to;
+        }
+
+        /**
+         * @return The events that have been found
+         */
+        final List<AuditEvent> getResults() {
+
+            return results;
+        }
+
+        /**
+         * @return {@code true} if the query has found the maximum number of results
+         */
+        final boolean isComplete() {
+
+            return results.size() >= limit;
+        }
+
+        @Override
+        public final boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                      final ByteBuffer payload) {
+
+            return onRecord(sequence, timestamp, payload);
+        }
+
+        @Override
+        public final boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+            if (timestamp < from || timestamp > to) {
+                return true;
+            }
+
+            final AuditEvent event;
+            try {
+                event = AuditEventCodec.decode(payload);
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Skipping record " + sequence + ", which is not an audit event", e);
+                return true;
+            }
+
+            if (matches(event)) {
+                results.add(event);
+            }
+
+            return !isComplete();
+        }
+    }
+
+    /**
+     * A query for the events of a user, which uses the user entries of the indexes.
+     */
+    private abstract static class UserQuery
+            extends Query {
+
+        /**
+         * The user hash
+         */
+        private final long hash;
+
+        /**
+         * Create a query.
+         *
+         * @param hash  The user hash
+         * @param from  The start of the time range
+         * @param to    The end of the time range
+         * @param limit The maximum number of results
+         */
+        UserQuery(final long hash, final long from, final long to, final int limit) {
+
+            super(from, to, limit);
+            this.hash = hash;
+        }
+
+        @Override
+        void run(final SegmentReader reader, final SegmentIndex index) {
+
+            if (getFrom() > index.getMaxTime() || getTo() < index.getMinTime()) {
+                return;
+            }
+
+            final List<Integer> offsets = new ArrayList<>();
+            index.findUser(hash, getFrom(), getTo(), offsets);
+            for (int i = 0; i < offsets.size() && !isComplete(); i++) {
+                reader.read(offsets.get(i), this);
+            }
+        }
+    }
+}
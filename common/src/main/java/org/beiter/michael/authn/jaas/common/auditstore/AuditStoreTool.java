@@ -0,0 +1,252 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.auditstore;
+
+import org.apache.commons.lang3.StringUtils;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command line tool that queries an audit log written by the
+ * {@link org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger} (see {@link AuditStore}).
+ * <p>
+ * Usage: {@code java -cp ... AuditStoreTool --directory=<dir> [--index] [--domain=<domain> --username=<username> |
+ * --userId=<userId>] [--last=<n>(s|m|h|d) | --from=<ms> --to=<ms>] [--limit=<n>]}
+ * <p>
+ * The tool prints one line per event (time, sequence number, event, domain, username, user ID, phase duration, and
+ * login module instance), tab separated, in the order in which the events have been logged. Without a user, it
+ * prints all events of the time range. With {@code --index}, it builds the missing indexes before running the query
+ * (or instead of it, if no user or time range is given), which is useful to run periodically.
+ */
+public final class AuditStoreTool {
+
+    /**
+     * The default maximum number of events to print
+     */
+    public static final int DEFAULT_LIMIT = 1000;
+
+    /**
+     * The number of nanoseconds per millisecond
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private AuditStoreTool() {
+    }
+
+    /**
+     * Run the query tool.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(final String[] args) {
+
+        final int status = run(args, System.out);
+        if (status != 0) {
+            // CHECKSTYLE:OFF
+            // a command line tool must report failures through the exit code
+            System.exit(status);
+            // CHECKSTYLE:ON
+        }
+    }
+
+    /**
+     * Run the query tool, writing the events to the provided stream.
+     *
+     * @param args The command line arguments
+     * @param out  The stream to write the events to
+     * @return The exit code: 0 on success, 1 if the arguments are invalid, 2 if the log cannot be read
+     */
+    // CHECKSTYLE:OFF
+    // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+    // suppress warnings about the complexity of argument parsing
+    @SuppressWarnings({"PMD.CyclomaticComplexity", "PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity",
+            "PMD.NPathComplexity"})
+    // CHECKSTYLE:ON
+    static int run(final String[] args, final PrintStream out) {
+
+        String directory = null;
+        String domain = null;
+        String username = null;
+        String userId = null;
+        boolean index = false;
+        boolean timeRange = false;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        int limit = DEFAULT_LIMIT;
+
+        try {
+            for (final String arg : args) {
+                if (arg.startsWith("--directory=")) {
+                    directory = valueOf(arg);
+                } else if ("--index".equals(arg)) {
+                    index = true;
+                } else if (arg.startsWith("--domain=")) {
+                    domain = valueOf(arg);
+                } else if (arg.startsWith("--username=")) {
+                    username = valueOf(arg);
+                } else if (arg.startsWith("--userId=")) {
+                    userId = valueOf(arg);
+                } else if (arg.startsWith("--last=")) {
+                    from = System.currentTimeMillis() - parseDuration(valueOf(arg));
+                    timeRange = true;
+                } else if (arg.startsWith("--from=")) {
+                    from = Long.parseLong(valueOf(arg));
+                    timeRange = true;
+                } else if (arg.startsWith("--to=")) {
+                    to = Long.parseLong(valueOf(arg));
+                    timeRange = true;
+                } else if (arg.startsWith("--limit=")) {
+                    limit = Integer.parseInt(valueOf(arg));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+
+            if (StringUtils.isBlank(directory)) {
+                throw new IllegalArgumentException("The audit log directory is required");
+            }
+            if ((domain == null) != (username == null)) {
+                throw new IllegalArgumentException("The domain and the username must be provided together");
+            }
+            if (domain != null && userId != null) {
+                throw new IllegalArgumentException("A user is either identified by domain and username, or by ID");
+            }
+            if (limit <= 0) {
+                throw new IllegalArgumentException("The limit must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            out.println("Usage: AuditStoreTool --directory=<dir> [--index] [--domain=<domain> --username=<username> "
+                    + "| --userId=<userId>] [--last=<n>(s|m|h|d) | --from=<ms> --to=<ms>] [--limit=<n>]");
+            return 1;
+        }
+
+        final AuditStore store = new AuditStore(new File(directory), MappedAuditLogger.PREFIX,
+                AuditStore.DEFAULT_BUCKET_WIDTH);
+        try {
+            if (index) {
+                out.println("Built " + store.index() + " index(es)");
+                if (domain == null && userId == null && !timeRange) {
+                    return 0;
+                }
+            }
+
+            final long start = System.nanoTime();
+            final List<AuditEvent> events;
+            if (domain != null) {
+                events = store.findByUser(domain, username, from, to, limit);
+            } else if (userId != null) {
+                events = store.findByUserId(userId, from, to, limit);
+            } else {
+                events = store.findByTime(from, to, limit);
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            for (final AuditEvent event : events) {
+                out.println(format.format(new Date(event.getTime())) + "\t" + event.getSequence() + "\t"
+                        + event.getEvent() + "\t" + event.getDomain() + "\t" + event.getUsername() + "\t"
+                        + event.getUserId() + "\t" + event.getDuration() / NANOS_PER_MILLI + "ms\t"
+                        + event.getModuleInstanceId());
+            }
+            out.println(String.format(Locale.ENGLISH, "%d event(s) in %.1f ms", events.size(),
+                    (double) elapsed / NANOS_PER_MILLI));
+        } catch (IOException e) {
+            out.println("Cannot read the audit log: " + e.getMessage());
+            return 2;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Parse a duration with a unit suffix.
+     *
+     * @param value The duration, e.g. "90s", "30m", "6h", or "7d"
+     * @return The duration in milliseconds
+     * @throws IllegalArgumentException When the duration cannot be parsed
+     */
+    private static long parseDuration(final String value) {
+
+        // private method asserts
+        assert value != null : "The value cannot be null";
+
+        if (value.length() < 2) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+
+        final long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        final TimeUnit unit;
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS;
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES;
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS;
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid duration unit: " + value);
+        }
+
+        return unit.toMillis(amount);
+    }
+
+    /**
+     * @param arg An argument of the form "--name=value"
+     * @return The value of the argument
+     */
+    private static String valueOf(final String arg) {
+
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.auditstore;
+
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditEventCodec;
+import org.beiter.michael.authn.jaas.common.journal.RecordLocator;
+import org.beiter.michael.authn.jaas.common.journal.SegmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The secondary indexes of a sealed (i.e. no longer written to) audit log segment, stored in a file next to the
+ * segment.
+ * <p>
+ * The index file has the layout:
+ * <pre>
+ *   offset  length  content
+ *        0       4  marker
+ *        4       4  format version
+ *        8       8  sequence number of the first record in the segment
+ *       16       8  smallest record timestamp
+ *       24       8  largest record timestamp
+ *       32       4  number of records
+ *       36       4  number of user entries (u)
+ *       40       4  number of time buckets (b)
+ *       44       4  reserved
+ *       48       8  width of a time bucket in milliseconds
+ *       56       8  reserved
+ *       64  u * 24  user entries: user hash (8), record timestamp (8), record offset (4), reserved (4)
+ *          b * 16  time buckets: bucket number (8), offset of the first record (4), offset of the last record (4)
+ * </pre>
+ * User entries are sorted by user hash, and by record offset within a hash, so that the records of a user are found
+ * with a binary search. A record has a user entry for its domain and username, and one for its user ID (if present).
+ * Time buckets are sorted by bucket number (the timestamp divided by the bucket width), and cover the records with a
+ * timestamp in the bucket, so that the records in a time range are found with a binary search and a scan of the
+ * covered part of the segment.
+ * <p>
+ * Index files are written to a temporary file, and renamed when complete, so that an index file is either complete or
+ * missing. This class is immutable and thread safe.
+ */
+final class SegmentIndex {
+
+    /**
+     * The suffix of index file names, appended to the segment file name
+     */
+    static final String SUFFIX = ".idx";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentIndex.class);
+
+    /**
+     * The marker at the beginning of an index file ("JIDX")
+     */
+    private static final int MARKER = 0x4A494458;
+
+    /**
+     * The format version of the index file
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The size of the header
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The size of a user entry
+     */
+    private static final int USER_ENTRY_SIZE = 24;
+
+    /**
+     * The size of a time bucket
+     */
+    private static final int BUCKET_SIZE = 16;
+
+    // CHECKSTYLE:OFF
+    // the offsets of the header fields are easier to read as a table
+
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_BASE_SEQUENCE = 8;
+    private static final int OFFSET_MIN_TIME = 16;
+    private static final int OFFSET_MAX_TIME = 24;
+    private static final int OFFSET_RECORDS = 32;
+    private static final int OFFSET_USERS = 36;
+    private static final int OFFSET_BUCKETS = 40;
+    private static final int OFFSET_BUCKET_WIDTH = 48;
+    private static final int OFFSET_ENTRY_TIME = 8;
+    private static final int OFFSET_ENTRY_OFFSET = 16;
+    private static final int OFFSET_BUCKET_FIRST = 8;
+    private static final int OFFSET_BUCKET_LAST = 12;
+
+    /**
+     * The FNV-1a offset basis for user hashes
+     */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV-1a prime
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // CHECKSTYLE:ON
+
+    /**
+     * The mapped index file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of user entries
+     */
+    private final int userCount;
+
+    /**
+     * The number of time buckets
+     */
+    private final int bucketCount;
+
+    /**
+     * The width of a time bucket in milliseconds
+     */
+    private final long bucketWidth;
+
+    /**
+     * The smallest record timestamp
+     */
+    private final long minTime;
+
+    /**
+     * The largest record timestamp
+     */
+    private final long maxTime;
+
+    /**
+     * Create an index.
+     *
+     * @param buffer The mapped index file
+     */
+    private SegmentIndex(final ByteBuffer buffer) {
+
+        this.buffer = buffer;
+        this.userCount = buffer.getInt(OFFSET_USERS);
+        this.bucketCount = buffer.getInt(OFFSET_BUCKETS);
+        this.bucketWidth = buffer.getLong(OFFSET_BUCKET_WIDTH);
+        this.minTime = buffer.getLong(OFFSET_MIN_TIME);
+        this.maxTime = buffer.getLong(OFFSET_MAX_TIME);
+    }
+
+    /**
+     * @param segment A segment file
+     * @return The index file of the segment
+     */
+    static File indexFile(final File segment) {
+
+        // private method asserts
+        assert segment != null : "The segment cannot be null";
+
+        return new File(segment.getParentFile(), segment.getName() + SUFFIX);
+    }
+
+    /**
+     * Load the index of a segment.
+     *
+     * @param segment      The segment file
+     * @param baseSequence The sequence number of the first record in the segment
+     * @return The index, or {@code null} if the segment does not have a valid index
+     * @throws IOException When the index file exists, but cannot be read
+     */
+    static SegmentIndex load(final File segment, final long baseSequence)
+            throws IOException {
+
+        // private method asserts
+        assert segment != null : "The segment cannot be null";
+
+        final File file = indexFile(segment);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MARKER
+                || buffer.getInt(OFFSET_VERSION) != FORMAT_VERSION
+                || buffer.getLong(OFFSET_BASE_SEQUENCE) != baseSequence
+                || buffer.getLong(OFFSET_BUCKET_WIDTH) <= 0
+                || buffer.capacity() != HEADER_SIZE + (long) buffer.getInt(OFFSET_USERS) * USER_ENTRY_SIZE
+                + (long) buffer.getInt(OFFSET_BUCKETS) * BUCKET_SIZE) {
+            LOG.warn("The index file '" + file + "' is invalid");
+            return null;
+        }
+
+        return new SegmentIndex(buffer);
+    }
+
+    /**
+     * Build the index of a sealed segment, and write it next to the segment.
+     *
+     * @param reader      The reader of the segment
+     * @param bucketWidth The width of a time bucket in milliseconds
+     * @return The index
+     * @throws IOException When the index file cannot be written
+     */
+    static SegmentIndex build(final SegmentReader reader, final long bucketWidth)
+            throws IOException {
+
+        // private method asserts
+        assert reader != null : "The reader cannot be null";
+        assert bucketWidth > 0 : "The bucket width must be positive";
+
+        final Entries entries = new Entries();
+        final Map<Long, int[]> buckets = new TreeMap<>();
+        final long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        final int[] records = {0};
+        reader.scan(SegmentReader.getFirstOffset(), Integer.MAX_VALUE, new RecordLocator() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                    final ByteBuffer payload) {
+
+                records[0]++;
+                range[0] = Math.min(range[0], timestamp);
+                range[1] = Math.max(range[1], timestamp);
+
+                final Long bucket = floorDiv(timestamp, bucketWidth);
+                final int[] bucketRange = buckets.get(bucket);
+                if (bucketRange == null) {
+                    buckets.put(bucket, new int[]{offset, offset});
+                } else {
+                    bucketRange[1] = offset;
+                }
+
+                final AuditEvent event;
+                try {
+                    event = AuditEventCodec.decode(payload);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Record " + sequence + " of segment '" + reader.getFile()
+                            + "' is not an audit event, the record is not indexed by user", e);
+                    return true;
+                }
+
+                if (event.getDomain() != null && event.getUsername() != null) {
+                    entries.add(userHash(event.getDomain(), event.getUsername()), timestamp, offset);
+                }
+                if (event.getUserId() != null) {
+                    entries.add(userIdHash(event.getUserId()), timestamp, offset);
+                }
+                return true;
+            }
+        });
+
+        final int size = HEADER_SIZE + entries.size * USER_ENTRY_SIZE + buckets.size() * BUCKET_SIZE;
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MARKER);
+        out.putInt(FORMAT_VERSION);
+        out.putLong(reader.getBaseSequence());
+        out.putLong(range[0]);
+        out.putLong(range[1]);
+        out.putInt(records[0]);
+        out.putInt(entries.size);
+        out.putInt(buckets.size());
+        out.putInt(0);
+        out.putLong(bucketWidth);
+        out.putLong(0);
+
+        for (final int i : entries.sortedByHash()) {
+            out.putLong(entries.hashes[i]);
+            out.putLong(entries.times[i]);
+            out.putInt(entries.offsets[i]);
+            out.putInt(0);
+        }
+        for (final Map.Entry<Long, int[]> bucket : buckets.entrySet()) {
+            out.putLong(bucket.getKey());
+            out.putInt(bucket.getValue()[0]);
+            out.putInt(bucket.getValue()[1]);
+        }
+        out.flip();
+
+        write(indexFile(reader.getFile()), out);
+        out.rewind();
+
+        return new SegmentIndex(out.asReadOnlyBuffer());
+    }
+
+    /**
+     * @return The smallest timestamp of the records in the segment
+     */
+    long getMinTime() {
+
+        return minTime;
+    }
+
+    /**
+     * @return The largest timestamp of the records in the segment
+     */
+    long getMaxTime() {
+
+        return maxTime;
+    }
+
+    /**
+     * @return The number of records in the segment
+     */
+    int getRecordCount() {
+
+        return buffer.getInt(OFFSET_RECORDS);
+    }
+
+    /**
+     * Find the records of a user within a time range.
+     *
+     * @param hash    The user hash (see {@link #userHash(String, String)} and {@link #userIdHash(String)})
+     * @param from    The smallest timestamp, inclusive
+     * @param to      The largest timestamp, inclusive
+     * @param offsets The list to add the offsets of the records to, in ascending order. The records may belong to
+     *                other users with the same hash, and must be verified by the caller.
+     */
+    void findUser(final long hash, final long from, final long to, final List<Integer> offsets) {
+
+        // private method asserts
+        assert offsets != null : "The offsets cannot be null";
+
+        // binary search for the first entry with the hash
+        int low = 0;
+        int high = userCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (buffer.getLong(HEADER_SIZE + mid * USER_ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < userCount; i++) {
+            final int entry = HEADER_SIZE + i * USER_ENTRY_SIZE;
+            if (buffer.getLong(entry) != hash) {
+                break;
+            }
+
+            final long time = buffer.getLong(entry + OFFSET_ENTRY_TIME);
+            if (time >= from && time <= to) {
+                offsets.add(buffer.getInt(entry + OFFSET_ENTRY_OFFSET));
+            }
+        }
+    }
+
+    /**
+     * Find the part of the segment that contains the records within a time range.
+     *
+     * @param from The smallest timestamp, inclusive
+     * @param to   The largest timestamp, inclusive
+     * @return The offset of the first record and the offset of the last record that may be in the time range, or
+     * {@code null} if no record is in the time range. The records between the offsets must be filtered by the caller.
+     */
+    int[] findTimeRange(final long from, final long to) {
+
+        if (from > maxTime || to < minTime || from > to) {
+            return null;
+        }
+
+        final long firstBucket = floorDiv(Math.max(from, minTime), bucketWidth);
+        final long lastBucket = floorDiv(Math.min(to, maxTime), bucketWidth);
+        final int buckets = HEADER_SIZE + userCount * USER_ENTRY_SIZE;
+
+        // binary search for the first bucket in the range
+        int low = 0;
+        int high = bucketCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (buffer.getLong(buckets + mid * BUCKET_SIZE) < firstBucket) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = low; i < bucketCount; i++) {
+            final int bucket = buckets + i * BUCKET_SIZE;
+            if (buffer.getLong(bucket) > lastBucket) {
+                break;
+            }
+            first = Math.min(first, buffer.getInt(bucket + OFFSET_BUCKET_FIRST));
+            last = Math.max(last, buffer.getInt(bucket + OFFSET_BUCKET_LAST));
+        }
+
+        if (last < 0) {
+            return null;
+        }
+
+        return new int[]{first, last};
+    }
+
+    /**
+     * Compute the hash of a user identified by domain and username.
+     *
+     * @param domain   The domain
+     * @param username The username
+     * @return The hash
+     */
+    static long userHash(final String domain, final String username) {
+
+        // private method asserts
+        assert domain != null : "The domain cannot be null";
+        assert username != null : "The username cannot be null";
+
+        // every string is followed by a separator, so "a" + "bc" and "ab" + "c" hash differently
+        return mix(hash(hash(hash(FNV_BASIS, "u"), domain), username));
+    }
+
+    /**
+     * Compute the hash of a user identified by user ID.
+     *
+     * @param userId The user ID
+     * @return The hash
+     */
+    static long userIdHash(final String userId) {
+
+        // private method asserts
+        assert userId != null : "The user ID cannot be null";
+
+        return mix(hash(hash(FNV_BASIS, "i"), userId));
+    }
+
+    /**
+     * Divide, rounding towards negative infinity.
+     *
+     * @param value   The dividend
+     * @param divisor The positive divisor
+     * @return The quotient
+     */
+    private static long floorDiv(final long value, final long divisor) {
+
+        final long quotient = value / divisor;
+        if (value % divisor < 0) {
+            return quotient - 1;
+        }
+
+        return quotient;
+    }
+
+    // CHECKSTYLE:OFF
+    // the bit manipulations of the hash function are easier to read with literal numbers
+
+    /**
+     * Continue an FNV-1a hash with the characters of a string, followed by a separator.
+     *
+     * @param hash  The hash so far
+     * @param value The string
+     * @return The hash
+     */
+    private static long hash(final long hash, final String value) {
+
+        long result = hash;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            result = (result ^ (c & 0xFF)) * FNV_PRIME;
+            result = (result ^ (c >>> 8)) * FNV_PRIME;
+        }
+
+        // a separator that is not the encoding of any character
+        return (result ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    /**
+     * Spread the bits of a hash (the finalizer of MurmurHash3).
+     *
+     * @param hash The hash
+     * @return The mixed hash
+     */
+    private static long mix(final long hash) {
+
+        long result = hash;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
+    // CHECKSTYLE:ON
+
+    /**
+     * Write an index file, replacing an existing file.
+     *
+     * @param file    The index file
+     * @param content The content
+     * @throws IOException When the file cannot be written
+     */
+    private static void write(final File file, final ByteBuffer content)
+            throws IOException {
+
+        // private method asserts
+        assert file != null : "The file cannot be null";
+        assert content != null : "The content cannot be null";
+
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            final FileChannel channel = raf.getChannel();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            final String error = "Cannot write the index file '" + file + "'";
+            LOG.warn(error);
+            if (!temp.delete()) {
+                LOG.warn("Cannot delete the temporary index file '" + temp + "'");
+            }
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * The user entries of an index that is being built, in parallel arrays.
+     */
+    private static final class Entries {
+
+        /**
+         * The initial capacity of the arrays
+         */
+        private static final int INITIAL_CAPACITY = 1024;
+
+        /**
+         * The user hashes
+         */
+        private long[] hashes = new long[INITIAL_CAPACITY];
+
+        /**
+         * The record timestamps
+         */
+        private long[] times = new long[INITIAL_CAPACITY];
+
+        /**
+         * The record offsets
+         */
+        private int[] offsets = new int[INITIAL_CAPACITY];
+
+        /**
+         * The number of entries
+         */
+        private int size;
+
+        /**
+         * Add an entry.
+         *
+         * @param hash   The user hash
+         * @param time   The record timestamp
+         * @param offset The record offset
+         */
+        private void add(final long hash, final long time, final int offset) {
+
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+
+            hashes[size] = hash;
+            times[size] = time;
+            offsets[size] = offset;
+            size++;
+        }
+
+        /**
+         * @return The indexes of the entries, sorted by user hash, and by record offset within a hash
+         */
+        private Integer[] sortedByHash() {
+
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+
+            // the entries have been added in the order of their offsets, and the sort is stable
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer first, final Integer second) {
+
+                    final long firstHash = hashes[first];
+                    final long secondHash = hashes[second];
+                    if (firstHash < secondHash) {
+                        return -1;
+                    } else if (firstHash > secondHash) {
+                        return 1;
+                    } else {
+                        return 0;
+                    }
+                }
+            });
+
+            return order;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.Util;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.listener.DeliveryMode;
+import org.beiter.michael.authn.jaas.common.listener.EventListener;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the distinct users that authenticated successfully, per domain and window, with one {@link HyperLogLog}
+ * sketch per domain and window instead of a set of usernames.
+ * <p>
+ * The counter is an {@link EventListener} that is subscribed synchronously to {@link Events#AUTHN_SUCCESS}, which the
+ * login modules fire when a login is committed. There is one counter per JVM, which counts the logins of all login
+ * modules (see {@link #getInstance(DistinctUserProperties)}). A user is counted by
+ * username in its domain, or by user ID for events without a domain. Events are assigned to a window by their time.
+ * <p>
+ * The sketches of the last windows are kept in memory, and can be queried and merged (e.g. the hours of a day). At the
+ * end of every window, a background thread exports the sketches of the completed window to a {@link SketchFile} in the
+ * configured directory, named after the start of the window and the node ID, so that the sketches of several JVMs can
+ * be combined offline (see {@link DistinctUserTool}). Events that arrive after their window has been exported are not
+ * counted (see {@link #getDroppedCount()}).
+ * <p>
+ * This class is thread safe.
+ */
+public final class DistinctUserCounter
+        implements EventListener, Closeable {
+
+    /**
+     * The prefix of the names of the exported files
+     */
+    public static final String PREFIX = "distinct-users";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DistinctUserCounter.class);
+
+    /**
+     * The lock guarding the counter of this JVM
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The configurations that have been ignored because the counter of this JVM had already been created with another
+     * configuration, used to warn only once per configuration (guarded by the lock)
+     */
+    private static final Set<String> IGNORED_KEYS = new HashSet<>();
+
+    /**
+     * The counter of this JVM, {@code null} if it has not been created (guarded by the lock)
+     */
+    private static DistinctUserCounter instance;
+
+    /**
+     * The configuration of the counter of this JVM (guarded by the lock)
+     */
+    private static String instanceKey;
+
+    /**
+     * The key of the sketches of users without a domain
+     */
+    private static final String NO_DOMAIN = "";
+
+    /**
+     * The time the background thread waits after the end of a window before exporting it, in milliseconds, so that
+     * events created just before the end of the window can still be counted
+     */
+    private static final long EXPORT_GRACE = 50L;
+
+    /**
+     * The precision of the sketches
+     */
+    private final int precision;
+
+    /**
+     * The length of a window in milliseconds
+     */
+    private final long interval;
+
+    /**
+     * The number of windows kept in memory
+     */
+    private final int windowCount;
+
+    /**
+     * The directory the sketches are exported to, may be {@code null}
+     */
+    private final File directory;
+
+    /**
+     * The sketches of the recent windows, by the start of the window and the domain
+     */
+    private final ConcurrentNavigableMap<Long, ConcurrentMap<String, HyperLogLog>> windows =
+            new ConcurrentSkipListMap<>();
+
+    /**
+     * The start of the earliest window that has not been exported yet, in milliseconds since the epoch
+     */
+    private volatile long nextExport;
+
+    /**
+     * The number of events that have not been counted
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The lock the background thread waits on between windows
+     */
+    private final Object wakeup = new Object();
+
+    /**
+     * {@code true} when the counter has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create a counter without a background thread. The windows are exported with {@link #export(long)}.
+     *
+     * @param precision   The precision of the sketches
+     * @param interval    The length of a window in milliseconds
+     * @param windowCount The number of windows kept in memory
+     * @param directory   The directory the sketches are exported to, may be {@code null}
+     * @param start       The time of the first window, in milliseconds since the epoch
+     * @throws IllegalArgumentException When {@code precision} is out of range, or {@code interval} or
+     *                                  {@code windowCount} are not positive
+     */
+    DistinctUserCounter(final int precision, final long interval, final int windowCount, final File directory,
+                        final long start) {
+
+        Validate.inclusiveBetween(HyperLogLog.MIN_PRECISION, HyperLogLog.MAX_PRECISION, precision,
+                "The precision is out of range");
+        Validate.isTrue(interval > 0, "The interval must be positive");
+        Validate.isTrue(windowCount > 0, "The window count must be positive");
+
+        this.precision = precision;
+        this.interval = interval;
+        this.windowCount = windowCount;
+        this.directory = directory;
+        this.nextExport = windowStart(start);
+    }
+
+    /**
+     * Return the counter of this JVM, creating it (and subscribing it to success events) if it does not exist.
+     * <p>
+     * The in-process event listeners are JVM wide, so a second counter would receive every login again, and export
+     * sketches of the same users. The counter is hence created with the configuration of the first login module that
+     * enables it, and counts the logins of all login modules in the JVM. A different configuration of another login
+     * module is ignored, with a warning.
+     *
+     * @param distinctProps The configuration of the counter
+     * @return The counter
+     * @throws NullPointerException     When {@code distinctProps} is {@code null}
+     * @throws IllegalArgumentException When the precision is out of range, or the interval or the window count are not
+     *                                  positive
+     */
+    public static DistinctUserCounter getInstance(final DistinctUserProperties distinctProps) {
+
+        Validate.notNull(distinctProps, "The validated object 'distinctProps' is null");
+
+        final String key = distinctProps.getPrecision() + "/" + distinctProps.getInterval() + "/"
+                + distinctProps.getWindowCount() + "/" + distinctProps.getDirectory();
+        synchronized (LOCK) {
+            if (instance == null) {
+                File directory = null;
+                if (StringUtils.isNotBlank(distinctProps.getDirectory())) {
+                    directory = new File(distinctProps.getDirectory());
+                }
+                instance = new DistinctUserCounter(distinctProps.getPrecision(), distinctProps.getInterval(),
+                        distinctProps.getWindowCount(), directory, System.currentTimeMillis());
+                instance.start();
+                EventListeners.subscribe(Events.AUTHN_SUCCESS, instance, DeliveryMode.SYNCHRONOUS);
+                instanceKey = key;
+            } else if (!instanceKey.equals(key) && IGNORED_KEYS.add(key)) {
+                LOG.warn("The distinct user counter of this JVM has already been created with another configuration, "
+                        + "ignoring this configuration");
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * Close the counter of this JVM, so that the next call to {@code getInstance()} creates a new one.
+     */
+    static void closeInstance() {
+
+        synchronized (LOCK) {
+            if (instance != null) {
+                instance.close();
+                instance = null;
+                instanceKey = null;
+            }
+            IGNORED_KEYS.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts the user of a successful login in its domain and window. All other events are ignored.
+     *
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    @Override
+    public void onEvent(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        if (event.getEvent() != Events.AUTHN_SUCCESS) {
+            return;
+        }
+
+        String domain = event.getDomain();
+        String user = event.getUsername();
+        if (StringUtils.isEmpty(domain) || StringUtils.isEmpty(user)) {
+            domain = NO_DOMAIN;
+            user = event.getUserId();
+        }
+        if (StringUtils.isEmpty(user)) {
+            return;
+        }
+
+        final long start = windowStart(event.getTime());
+        if (start < nextExport) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        getOrCreateSketch(start, domain).add(user);
+    }
+
+    /**
+     * Estimate the distinct users of a domain during the last windows.
+     *
+     * @param domain The domain, may be {@code null} for users without a domain
+     * @param count  The number of windows, including the current window, between 1 and the window count
+     * @return The estimated number of distinct users
+     * @throws IllegalArgumentException When {@code count} is out of range
+     */
+    public long estimate(final String domain, final int count) {
+
+        return getSketch(domain, count).estimate();
+    }
+
+    /**
+     * Return the sketch of the distinct users of a domain during the last windows, e.g. to merge it with the sketches
+     * of other JVMs.
+     *
+     * @param domain The domain, may be {@code null} for users without a domain
+     * @param count  The number of windows, including the current window, between 1 and the window count
+     * @return The merged sketch of the windows, which may be modified by the caller
+     * @throws IllegalArgumentException When {@code count} is out of range
+     */
+    public HyperLogLog getSketch(final String domain, final int count) {
+
+        Validate.inclusiveBetween(1, windowCount, count, "The number of windows is out of range");
+
+        final String key = StringUtils.defaultString(domain);
+        final long last = windowStart(System.currentTimeMillis());
+        final HyperLogLog merged = new HyperLogLog(precision);
+        for (final ConcurrentMap<String, HyperLogLog> sketches
+                : windows.subMap(last - (count - 1) * interval, true, last, true).values()) {
+            final HyperLogLog sketch = sketches.get(key);
+            if (sketch != null) {
+                merged.merge(sketch);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Return the sketches of all domains of a window.
+     *
+     * @param windowStart The start of the window, in milliseconds since the epoch
+     * @return Copies of the sketches, by domain (the empty domain for users without a domain), or an empty map if the
+     * window is not in memory
+     */
+    public Map<String, HyperLogLog> getSketches(final long windowStart) {
+
+        final Map<String, HyperLogLog> copies = new HashMap<>();
+        final ConcurrentMap<String, HyperLogLog> sketches = windows.get(windowStart);
+        if (sketches != null) {
+            for (final Map.Entry<String, HyperLogLog> entry : sketches.entrySet()) {
+                copies.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+
+        return copies;
+    }
+
+    /**
+     * @return The number of events that have not been counted because their window had already been exported
+     */
+    public long getDroppedCount() {
+
+        return dropped.get();
+    }
+
+    /**
+     * Unsubscribe the counter, stop the background thread, and export the windows that have ended.
+     */
+    @Override
+    public void close() {
+
+        EventListeners.unsubscribe(Events.AUTHN_SUCCESS, this);
+
+        // the thread is woken up rather than interrupted, so that an interrupt cannot hit the export I/O
+        synchronized (wakeup) {
+            closed = true;
+            wakeup.notifyAll();
+        }
+        export(System.currentTimeMillis());
+    }
+
+    /**
+     * Export the windows that have ended at the given time, and discard the windows that are no longer kept in memory.
+     *
+     * @param now The current time, in milliseconds since the epoch
+     */
+    synchronized void export(final long now) {
+
+        final long current = windowStart(now);
+
+        // skip the windows that are no longer kept in memory when the counter has not been exporting for a while
+        // (e.g. when the host has been suspended)
+        final long oldest = current - windowCount * interval;
+        if (nextExport < oldest) {
+            nextExport = oldest;
+        }
+
+        while (nextExport < current) {
+            final long start = nextExport;
+            // events of the window that arrive from now on are dropped; an event counted concurrently with the export
+            // may be missing from the exported file
+            nextExport = start + interval;
+
+            final ConcurrentMap<String, HyperLogLog> sketches = windows.get(start);
+            if (directory != null && sketches != null && !sketches.isEmpty()) {
+                write(start, sketches);
+            }
+        }
+
+        windows.headMap(current - (windowCount - 1) * interval).clear();
+    }
+
+    /**
+     * Write the sketches of a window to the export directory.
+     *
+     * @param start    The start of the window
+     * @param sketches The sketches of the window
+     */
+    private void write(final long start, final Map<String, HyperLogLog> sketches) {
+
+        // private method asserts
+        assert sketches != null : "The sketches cannot be null";
+
+        final String nodeId = Util.getNodeId();
+        final File file = new File(directory, PREFIX + "-" + start + "-" + nodeId.replaceAll("[^A-Za-z0-9._-]", "_")
+                + SketchFile.EXTENSION);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the directory " + directory);
+            }
+            new SketchFile(start, interval, nodeId, sketches).write(file);
+        } catch (IOException e) {
+            LOG.warn("Cannot export the distinct user sketches of the window starting at " + start + " to "
+                    + file, e);
+        }
+    }
+
+    /**
+     * Start the background thread that exports the windows.
+     */
+    private void start() {
+
+        final Thread exporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                runExports();
+            }
+        }, "jaas-distinct-export");
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+    /**
+     * Export every window shortly after it ends, until the counter is closed.
+     */
+    private void runExports() {
+
+        while (true) {
+            final long deadline = nextExport + interval + EXPORT_GRACE;
+            synchronized (wakeup) {
+                long remaining = deadline - System.currentTimeMillis();
+                while (!closed && remaining > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.timedWait(wakeup, remaining);
+                    } catch (InterruptedException e) {
+                        // closing the counter exports the windows that have ended
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            export(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Return the sketch of a domain in a window, creating it if it does not exist.
+     *
+     * @param start  The start of the window
+     * @param domain The domain
+     * @return The sketch
+     */
+    private HyperLogLog getOrCreateSketch(final long start, final String domain) {
+
+        ConcurrentMap<String, HyperLogLog> sketches = windows.get(start);
+        if (sketches == null) {
+            final ConcurrentMap<String, HyperLogLog> newSketches = new ConcurrentHashMap<>();
+            sketches = windows.putIfAbsent(start, newSketches);
+            if (sketches == null) {
+                sketches = newSketches;
+            }
+        }
+
+        HyperLogLog sketch = sketches.get(domain);
+        if (sketch == null) {
+            final HyperLogLog newSketch = new HyperLogLog(precision);
+            sketch = sketches.putIfAbsent(domain, newSketch);
+            if (sketch == null) {
+                sketch = newSketch;
+            }
+        }
+
+        return sketch;
+    }
+
+    /**
+     * @param time A time, in milliseconds since the epoch
+     * @return The start of the window the time belongs to
+     */
+    private long windowStart(final long time) {
+
+        return time - ((time % interval) + interval) % interval;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link DistinctUserCounter}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class DistinctUserProperties {
+
+    /**
+     * @see DistinctUserProperties#setEnabled(boolean)
+     */
+    private boolean enabled;
+
+    /**
+     * @see DistinctUserProperties#setPrecision(int)
+     */
+    private int precision;
+
+    /**
+     * @see DistinctUserProperties#setInterval(long)
+     */
+    private long interval;
+
+    /**
+     * @see DistinctUserProperties#setWindowCount(int)
+     */
+    private int windowCount;
+
+    /**
+     * @see DistinctUserProperties#setDirectory(String)
+     */
+    private String directory;
+
+    /**
+     * @see DistinctUserProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of distinct user properties, with most values being set to <code>null</code>, 0, or
+     * empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as {@code JaasBasedDistinctUserPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public DistinctUserProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of distinct user properties from an existing set of distinct user properties, making a defensive
+     * copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see DistinctUserProperties()
+     */
+    public DistinctUserProperties(final DistinctUserProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setEnabled(properties.isEnabled());
+        setPrecision(properties.getPrecision());
+        setInterval(properties.getInterval());
+        setWindowCount(properties.getWindowCount());
+        setDirectory(properties.getDirectory());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return {@code true} if the distinct users are counted
+     * @see DistinctUserProperties#setEnabled(boolean)
+     */
+    public final boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the counting of the distinct users that authenticated successfully
+     *
+     * @param enabled {@code true} to count the distinct users
+     */
+    public final void setEnabled(final boolean enabled) {
+
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The precision of the sketches
+     * @see DistinctUserProperties#setPrecision(int)
+     */
+    public final int getPrecision() {
+
+        return precision;
+    }
+
+    /**
+     * Set the precision of the sketches, between {@link HyperLogLog#MIN_PRECISION} and
+     * {@link HyperLogLog#MAX_PRECISION}. A sketch of precision {@code p} uses {@code 2^p} bytes, and has a standard
+     * error of about {@code 1.04 / sqrt(2^p)}. Only sketches of the same precision can be combined.
+     *
+     * @param precision The precision
+     */
+    public final void setPrecision(final int precision) {
+
+        this.precision = precision;
+    }
+
+    /**
+     * @return The length of a window, in milliseconds
+     * @see DistinctUserProperties#setInterval(long)
+     */
+    public final long getInterval() {
+
+        return interval;
+    }
+
+    /**
+     * Set the length of a window, in milliseconds. Every domain has one sketch per window, and the sketches of
+     * consecutive windows can be merged to count the distinct users of longer periods (e.g. the hours of a day).
+     *
+     * @param interval The length of a window in milliseconds
+     */
+    public final void setInterval(final long interval) {
+
+        this.interval = interval;
+    }
+
+    /**
+     * @return The number of windows kept in memory
+     * @see DistinctUserProperties#setWindowCount(int)
+     */
+    public final int getWindowCount() {
+
+        return windowCount;
+    }
+
+    /**
+     * Set the number of windows kept in memory (including the current window), which is the longest period that can
+     * be queried in-process.
+     *
+     * @param windowCount The number of windows
+     */
+    public final void setWindowCount(final int windowCount) {
+
+        this.windowCount = windowCount;
+    }
+
+    /**
+     * @return The directory the sketches of completed windows are exported to
+     * @see DistinctUserProperties#setDirectory(String)
+     */
+    public final String getDirectory() {
+
+        // no need for defensive copies of String
+
+        return directory;
+    }
+
+    /**
+     * Set the directory the sketches of every completed window are exported to (see {@link SketchFile}), so that the
+     * sketches of several JVMs can be combined offline. The directory may be shared by several JVMs. If no directory
+     * is configured, the sketches are not exported.
+     *
+     * @param directory A directory, may be {@code null}
+     */
+    public final void setDirectory(final String directory) {
+
+        // no need for defensive copies of String
+
+        this.directory = directory;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see DistinctUserProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
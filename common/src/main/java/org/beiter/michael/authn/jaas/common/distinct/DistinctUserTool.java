@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command line tool that combines the distinct user sketches exported by one or more JVMs (see
+ * {@link DistinctUserCounter} and {@link SketchFile}).
+ * <p>
+ * Usage: {@code java -cp ... DistinctUserTool --directory=<dir> [--domain=<domain>] [--last=<n>(s|m|h|d) |
+ * --from=<ms> --to=<ms>]}
+ * <p>
+ * The tool merges the sketches of all nodes per window and domain, and prints one line per window and domain (start of
+ * the window, domain, estimated distinct users, and number of nodes), tab separated, followed by one line per domain
+ * with the distinct users of all windows in the time range. A window is in the time range if it starts in it.
+ */
+public final class DistinctUserTool {
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private DistinctUserTool() {
+    }
+
+    /**
+     * Run the tool.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(final String[] args) {
+
+        final int status = run(args, System.out);
+        if (status != 0) {
+            // CHECKSTYLE:OFF
+            // a command line tool must report failures through the exit code
+            System.exit(status);
+            // CHECKSTYLE:ON
+        }
+    }
+
+    /**
+     * Run the tool, writing the estimates to the provided stream.
+     *
+     * @param args The command line arguments
+     * @param out  The stream to write the estimates to
+     * @return The exit code: 0 on success, 1 if the arguments are invalid, 2 if the sketches cannot be read
+     */
+    // CHECKSTYLE:OFF
+    // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+    // suppress warnings about the complexity of argument parsing
+    @SuppressWarnings({"PMD.CyclomaticComplexity", "PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity",
+            "PMD.NPathComplexity"})
+    // CHECKSTYLE:ON
+    static int run(final String[] args, final PrintStream out) {
+
+        String directory = null;
+        String domain = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        try {
+            for (final String arg : args) {
+                if (arg.startsWith("--directory=")) {
+                    directory = valueOf(arg);
+                } else if (arg.startsWith("--domain=")) {
+                    domain = valueOf(arg);
+                } else if (arg.startsWith("--last=")) {
+                    from = System.currentTimeMillis() - parseDuration(valueOf(arg));
+                } else if (arg.startsWith("--from=")) {
+                    from = Long.parseLong(valueOf(arg));
+                } else if (arg.startsWith("--to=")) {
+                    to = Long.parseLong(valueOf(arg));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+
+            if (StringUtils.isBlank(directory)) {
+                throw new IllegalArgumentException("The sketch directory is required");
+            }
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            out.println("Usage: DistinctUserTool --directory=<dir> [--domain=<domain>] "
+                    + "[--last=<n>(s|m|h|d) | --from=<ms> --to=<ms>]");
+            return 1;
+        }
+
+        final File[] files = new File(directory).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+
+                return name.startsWith(DistinctUserCounter.PREFIX + "-") && name.endsWith(SketchFile.EXTENSION);
+            }
+        });
+        if (files == null) {
+            out.println("Cannot read the sketch directory: " + directory);
+            return 2;
+        }
+
+        // the merged sketches by window and domain, and the nodes by window
+        final SortedMap<Long, SortedMap<String, HyperLogLog>> windows = new TreeMap<>();
+        final Map<Long, Set<String>> nodes = new TreeMap<>();
+        final SortedMap<String, HyperLogLog> totals = new TreeMap<>();
+        try {
+            for (final File file : files) {
+                final SketchFile sketchFile = SketchFile.read(file);
+                final long start = sketchFile.getWindowStart();
+                if (start < from || start >= to) {
+                    continue;
+                }
+
+                for (final Map.Entry<String, HyperLogLog> entry : sketchFile.getSketches().entrySet()) {
+                    if (domain != null && !domain.equals(entry.getKey())) {
+                        continue;
+                    }
+                    SortedMap<String, HyperLogLog> sketches = windows.get(start);
+                    if (sketches == null) {
+                        sketches = new TreeMap<>();
+                        windows.put(start, sketches);
+                        nodes.put(start, new HashSet<String>());
+                    }
+                    nodes.get(start).add(sketchFile.getNodeId());
+                    merge(sketches, entry.getKey(), entry.getValue());
+                    merge(totals, entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            out.println("Cannot combine the sketches: " + e.getMessage());
+            return 2;
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (final Map.Entry<Long, SortedMap<String, HyperLogLog>> window : windows.entrySet()) {
+            for (final Map.Entry<String, HyperLogLog> entry : window.getValue().entrySet()) {
+                out.println(format.format(new Date(window.getKey())) + "\t" + entry.getKey() + "\t"
+                        + entry.getValue().estimate() + "\t" + nodes.get(window.getKey()).size() + " node(s)");
+            }
+        }
+        for (final Map.Entry<String, HyperLogLog> entry : totals.entrySet()) {
+            out.println("total\t" + entry.getKey() + "\t" + entry.getValue().estimate() + "\t" + windows.size()
+                    + " window(s)");
+        }
+
+        return 0;
+    }
+
+    /**
+     * Merge a sketch into the sketch of a domain, creating the sketch of the domain if it does not exist.
+     *
+     * @param sketches The sketches, by domain
+     * @param domain   The domain
+     * @param sketch   The sketch to merge
+     * @throws IllegalArgumentException When the precisions of the sketches differ
+     */
+    private static void merge(final Map<String, HyperLogLog> sketches, final String domain, final HyperLogLog sketch) {
+
+        // private method asserts
+        assert sketches != null : "The sketches cannot be null";
+
+        final HyperLogLog merged = sketches.get(domain);
+        if (merged == null) {
+            sketches.put(domain, sketch.copy());
+        } else {
+            merged.merge(sketch);
+        }
+    }
+
+    /**
+     * Parse a duration with a unit suffix.
+     *
+     * @param value The duration, e.g. "90s", "30m", "6h", or "7d"
+     * @return The duration in milliseconds
+     * @throws IllegalArgumentException When the duration cannot be parsed
+     */
+    private static long parseDuration(final String value) {
+
+        // private method asserts
+        assert value != null : "The value cannot be null";
+
+        if (value.length() < 2) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+
+        final long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        final TimeUnit unit;
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS;
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES;
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS;
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid duration unit: " + value);
+        }
+
+        return unit.toMillis(amount);
+    }
+
+    /**
+     * @param arg An argument of the form "--name=value"
+     * @return The value of the argument
+     */
+    private static String valueOf(final String arg) {
+
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values it has seen in a fixed amount of memory.
+ * <p>
+ * A sketch of precision {@code p} has {@code 2^p} registers of one byte each, and estimates with a standard error of
+ * about {@code 1.04 / sqrt(2^p)} (e.g. 1.6% with the default precision of 12, using 4 KB). Sketches of the same
+ * precision are mergeable: the merge of two sketches is the sketch of the union of their values, so sketches of
+ * several windows (e.g. the hours of a day) or several JVMs can be combined without double counting values that have
+ * been seen by more than one of them.
+ * <p>
+ * Values are hashed with a fixed 64 bit hash (see {@link #hash(String)}), so that sketches built by different JVMs
+ * are compatible. The serialized form (see {@link #toBytes()}) is versioned, and includes the precision.
+ * <p>
+ * The registers are updated without locking. This class is thread safe.
+ */
+public final class HyperLogLog {
+
+    /**
+     * The minimum precision
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * The maximum precision
+     */
+    public static final int MAX_PRECISION = 16;
+
+    /**
+     * The version of the serialized form
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * The first bytes of the serialized form ("HLL")
+     */
+    private static final byte[] MAGIC = {'H', 'L', 'L'};
+
+    /**
+     * The length of the header of the serialized form: the magic, the version, and the precision
+     */
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    /**
+     * The number of registers packed into one int
+     */
+    private static final int REGISTERS_PER_INT = 4;
+
+    /**
+     * The number of bits of a register
+     */
+    private static final int REGISTER_BITS = 8;
+
+    /**
+     * The mask of a register
+     */
+    private static final int REGISTER_MASK = 0xFF;
+
+    /**
+     * The offset basis of the 64 bit FNV-1a hash
+     */
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+
+    /**
+     * The prime of the 64 bit FNV-1a hash
+     */
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /**
+     * The first multiplier of the hash finalizer (from MurmurHash3)
+     */
+    private static final long MIX_1 = 0xFF51AFD7ED558CCDL;
+
+    /**
+     * The second multiplier of the hash finalizer (from MurmurHash3)
+     */
+    private static final long MIX_2 = 0xC4CEB9FE1A85EC53L;
+
+    /**
+     * The shift of the hash finalizer (from MurmurHash3)
+     */
+    private static final int MIX_SHIFT = 33;
+
+    /**
+     * The bias correction constant for large sketches
+     */
+    private static final double ALPHA_NUMERATOR = 0.7213;
+
+    /**
+     * The bias correction constant for large sketches
+     */
+    private static final double ALPHA_DENOMINATOR = 1.079;
+
+    /**
+     * The bias correction constant for sketches with 16 registers
+     */
+    private static final double ALPHA_16 = 0.673;
+
+    /**
+     * The bias correction constant for sketches with 32 registers
+     */
+    private static final double ALPHA_32 = 0.697;
+
+    /**
+     * The bias correction constant for sketches with 64 registers
+     */
+    private static final double ALPHA_64 = 0.709;
+
+    /**
+     * The threshold (as a multiple of the number of registers) below which small estimates are corrected with linear
+     * counting
+     */
+    private static final double SMALL_RANGE_FACTOR = 2.5;
+
+    /**
+     * The precision
+     */
+    private final int precision;
+
+    /**
+     * The registers, four per int
+     */
+    private final AtomicIntegerArray registers;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param precision The precision, i.e. the base 2 logarithm of the number of registers
+     * @throws IllegalArgumentException When {@code precision} is out of range
+     */
+    public HyperLogLog(final int precision) {
+
+        Validate.inclusiveBetween(MIN_PRECISION, MAX_PRECISION, precision, "The precision is out of range");
+
+        this.precision = precision;
+        this.registers = new AtomicIntegerArray((1 << precision) / REGISTERS_PER_INT);
+    }
+
+    /**
+     * Create a sketch from its serialized form.
+     *
+     * @param bytes The serialized form
+     * @return The sketch
+     * @throws NullPointerException     When {@code bytes} is {@code null}
+     * @throws IllegalArgumentException When {@code bytes} is not a serialized sketch of a supported version
+     * @see #toBytes()
+     */
+    public static HyperLogLog fromBytes(final byte[] bytes) {
+
+        Validate.notNull(bytes, "The validated object 'bytes' is null");
+        Validate.isTrue(bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1]
+                && bytes[2] == MAGIC[2], "The bytes are not a serialized HyperLogLog sketch");
+        Validate.isTrue(bytes[MAGIC.length] == FORMAT_VERSION, "Unsupported sketch version: %d",
+                bytes[MAGIC.length]);
+
+        final HyperLogLog sketch = new HyperLogLog(bytes[MAGIC.length + 1]);
+        final int count = 1 << sketch.precision;
+        Validate.isTrue(bytes.length == HEADER_LENGTH + count, "The length of the sketch does not match its precision");
+
+        for (int i = 0; i < count; i++) {
+            sketch.update(i, bytes[HEADER_LENGTH + i] & REGISTER_MASK);
+        }
+
+        return sketch;
+    }
+
+    /**
+     * Return the hash of a value, as used by all sketches. The hash is part of the serialized form: changing it
+     * requires a new format version.
+     *
+     * @param value The value
+     * @return The 64 bit FNV-1a hash of the UTF-16 code units of the value, with the MurmurHash3 finalizer applied
+     * @throws NullPointerException When {@code value} is {@code null}
+     */
+    public static long hash(final String value) {
+
+        Validate.notNull(value, "The validated object 'value' is null");
+
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        hash = (hash ^ (hash >>> MIX_SHIFT)) * MIX_1;
+        hash = (hash ^ (hash >>> MIX_SHIFT)) * MIX_2;
+
+        return hash ^ (hash >>> MIX_SHIFT);
+    }
+
+    /**
+     * @return The precision, i.e. the base 2 logarithm of the number of registers
+     */
+    public int getPrecision() {
+
+        return precision;
+    }
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value The value
+     * @throws NullPointerException When {@code value} is {@code null}
+     */
+    public void add(final String value) {
+
+        final long hash = hash(value);
+        final int index = (int) (hash >>> (Long.SIZE - precision));
+        final int rank = Math.min(Long.numberOfLeadingZeros(hash << precision), Long.SIZE - precision) + 1;
+        update(index, rank);
+    }
+
+    /**
+     * @return The estimated number of distinct values that have been added to the sketch
+     */
+    public long estimate() {
+
+        final int count = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < count; i++) {
+            final int rank = get(i);
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = alpha(count) * count * count / sum;
+        if (estimate <= SMALL_RANGE_FACTOR * count && zeros > 0) {
+            estimate = count * Math.log((double) count / zeros);
+        }
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * Merge another sketch into this sketch, so that this sketch estimates the union of the values of both sketches.
+     *
+     * @param other The sketch to merge
+     * @throws NullPointerException     When {@code other} is {@code null}
+     * @throws IllegalArgumentException When the precisions of the sketches differ
+     */
+    public void merge(final HyperLogLog other) {
+
+        Validate.notNull(other, "The validated object 'other' is null");
+        Validate.isTrue(other.precision == precision, "Cannot merge sketches of different precisions");
+
+        final int count = 1 << precision;
+        for (int i = 0; i < count; i++) {
+            update(i, other.get(i));
+        }
+    }
+
+    /**
+     * @return A copy of the sketch
+     */
+    public HyperLogLog copy() {
+
+        final HyperLogLog copy = new HyperLogLog(precision);
+        copy.merge(this);
+
+        return copy;
+    }
+
+    /**
+     * Serialize the sketch: the bytes "HLL", the format version, the precision, and one byte per register.
+     *
+     * @return The serialized form
+     * @see #fromBytes(byte[])
+     */
+    public byte[] toBytes() {
+
+        final int count = 1 << precision;
+        final byte[] bytes = new byte[HEADER_LENGTH + count];
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[MAGIC.length] = FORMAT_VERSION;
+        bytes[MAGIC.length + 1] = (byte) precision;
+        for (int i = 0; i < count; i++) {
+            bytes[HEADER_LENGTH + i] = (byte) get(i);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @param index The index of a register
+     * @return The value of the register
+     */
+    private int get(final int index) {
+
+        final int shift = (index % REGISTERS_PER_INT) * REGISTER_BITS;
+        return (registers.get(index / REGISTERS_PER_INT) >>> shift) & REGISTER_MASK;
+    }
+
+    /**
+     * Raise a register to a rank, unless it is already higher.
+     *
+     * @param index The index of the register
+     * @param rank  The rank
+     */
+    private void update(final int index, final int rank) {
+
+        final int slot = index / REGISTERS_PER_INT;
+        final int shift = (index % REGISTERS_PER_INT) * REGISTER_BITS;
+        while (true) {
+            final int packed = registers.get(slot);
+            if (((packed >>> shift) & REGISTER_MASK) >= rank) {
+                return;
+            }
+            final int updated = (packed & ~(REGISTER_MASK << shift)) | (rank << shift);
+            if (registers.compareAndSet(slot, packed, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param count The number of registers
+     * @return The bias correction constant
+     */
+    // CHECKSTYLE:OFF
+    // the register counts are the documented thresholds of the bias correction
+    private static double alpha(final int count) {
+
+        switch (count) {
+            case 16:
+                return ALPHA_16;
+            case 32:
+                return ALPHA_32;
+            case 64:
+                return ALPHA_64;
+            default:
+                return ALPHA_NUMERATOR / (1 + ALPHA_DENOMINATOR / count);
+        }
+    }
+    // CHECKSTYLE:ON
+}
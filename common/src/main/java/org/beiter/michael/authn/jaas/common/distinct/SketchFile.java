@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The distinct user sketches of all domains of one window, as exported by one JVM.
+ * <p>
+ * The file format is: the magic number "HLLF" (4 bytes), the format version (1 byte), the start and the length of the
+ * window in milliseconds (8 bytes each), the node ID (modified UTF-8), the number of domains (4 bytes), and for every
+ * domain its name (modified UTF-8, empty for users without a domain), the length of its sketch (4 bytes), and the
+ * serialized sketch (see {@link HyperLogLog#toBytes()}). All numbers are big-endian.
+ * <p>
+ * This class is immutable.
+ */
+public final class SketchFile {
+
+    /**
+     * The extension of sketch files
+     */
+    public static final String EXTENSION = ".hll";
+
+    /**
+     * The version of the file format
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * The magic number of sketch files ("HLLF")
+     */
+    private static final int MAGIC = 0x484C4C46;
+
+    /**
+     * @see SketchFile#getWindowStart()
+     */
+    private final long windowStart;
+
+    /**
+     * @see SketchFile#getInterval()
+     */
+    private final long interval;
+
+    /**
+     * @see SketchFile#getNodeId()
+     */
+    private final String nodeId;
+
+    /**
+     * @see SketchFile#getSketches()
+     */
+    private final Map<String, HyperLogLog> sketches;
+
+    /**
+     * Create the sketches of a window.
+     *
+     * @param windowStart The start of the window, in milliseconds since the epoch
+     * @param interval    The length of the window, in milliseconds
+     * @param nodeId      The ID of the JVM that has built the sketches
+     * @param sketches    The sketches, by domain (the empty domain for users without a domain)
+     * @throws NullPointerException When {@code nodeId} or {@code sketches} are {@code null}
+     */
+    public SketchFile(final long windowStart, final long interval, final String nodeId,
+                      final Map<String, HyperLogLog> sketches) {
+
+        Validate.notNull(nodeId, "The validated object 'nodeId' is null");
+        Validate.notNull(sketches, "The validated object 'sketches' is null");
+
+        this.windowStart = windowStart;
+        this.interval = interval;
+        // no need for defensive copies of String
+        this.nodeId = nodeId;
+        this.sketches = Collections.unmodifiableMap(new HashMap<>(sketches));
+    }
+
+    /**
+     * Read the sketches of a window from a file.
+     *
+     * @param file The file
+     * @return The sketches
+     * @throws NullPointerException When {@code file} is {@code null}
+     * @throws IOException          When the file cannot be read, or is not a sketch file of a supported version
+     */
+    public static SketchFile read(final File file)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a sketch file: " + file);
+            }
+            final int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported sketch file version " + version + ": " + file);
+            }
+
+            final long windowStart = in.readLong();
+            final long interval = in.readLong();
+            final String nodeId = in.readUTF();
+            final int count = in.readInt();
+            final Map<String, HyperLogLog> sketches = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final String domain = in.readUTF();
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try {
+                    sketches.put(domain, HyperLogLog.fromBytes(bytes));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid sketch of domain '" + domain + "': " + file, e);
+                }
+            }
+
+            return new SketchFile(windowStart, interval, nodeId, sketches);
+        } catch (NegativeArraySizeException e) {
+            throw new IOException("Invalid sketch length: " + file, e);
+        }
+    }
+
+    /**
+     * Write the sketches to a file. The file is written next to its final name first, and then renamed, so that
+     * readers never see a partially written file.
+     *
+     * @param file The file
+     * @throws NullPointerException When {@code file} is {@code null}
+     * @throws IOException          When the file cannot be written
+     */
+    public void write(final File file)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+
+        final File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(windowStart);
+            out.writeLong(interval);
+            out.writeUTF(nodeId);
+            out.writeInt(sketches.size());
+            for (final Map.Entry<String, HyperLogLog> entry : sketches.entrySet()) {
+                final byte[] bytes = entry.getValue().toBytes();
+                out.writeUTF(entry.getKey());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The start of the window, in milliseconds since the epoch
+     */
+    public long getWindowStart() {
+
+        return windowStart;
+    }
+
+    /**
+     * @return The length of the window, in milliseconds
+     */
+    public long getInterval() {
+
+        return interval;
+    }
+
+    /**
+     * @return The ID of the JVM that has built the sketches
+     */
+    public String getNodeId() {
+
+        // no need for defensive copies of String
+        return nodeId;
+    }
+
+    /**
+     * @return The sketches, by domain (the empty domain for users without a domain). The map cannot be modified, but
+     * the sketches are not copied.
+     */
+    public Map<String, HyperLogLog> getSketches() {
+
+        return sketches;
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.fanout;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers events to several sinks in parallel.
+ * <p>
+ * Every sink has threads and a bounded queue of its own, so a slow or failing sink does not delay the other sinks. A
+ * dispatch hands the delivery to all sinks at once, and then waits for the {@link SinkPolicy#REQUIRED} sinks only,
+ * every one of them up to its own timeout (measured from the start of the dispatch). The dispatch fails if the
+ * delivery to a required sink fails, times out, or cannot be queued. Deliveries to {@link SinkPolicy#BEST_EFFORT} sinks
+ * are not waited for, and their failures are logged and counted. Hence the latency of a dispatch is the latency of the
+ * slowest required sink, and best-effort sinks never add latency.
+ * <p>
+ * A delivery that times out is not cancelled, as interrupting a sink may leave it in an inconsistent state. It keeps
+ * occupying one of the sink's threads until it completes.
+ * <p>
+ * The threads of a sink are created on demand, and terminate when they have been idle for a while. This class is
+ * thread safe.
+ *
+ * @param <S> The type of the sinks
+ */
+public final class FanOutDispatcher<S>
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(FanOutDispatcher.class);
+
+    /**
+     * The time an idle sink thread waits for work before it terminates, in seconds
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * The sinks
+     */
+    private final List<Sink<S>> sinks;
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param sinks The sinks to deliver events to
+     * @throws NullPointerException When {@code sinks} or any of the sinks are {@code null}
+     */
+    public FanOutDispatcher(final List<Sink<S>> sinks) {
+
+        Validate.noNullElements(sinks, "The validated collection 'sinks' contains null element at index: %d");
+
+        this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+    }
+
+    /**
+     * Create a dispatcher with the configured sinks.
+     * <p>
+     * A best-effort sink that cannot be created is left out (with a warning), while a required sink that cannot be
+     * created fails the creation of the dispatcher, as the dispatcher could never deliver events to it.
+     *
+     * @param <S>        The type of the sinks
+     * @param properties The configuration of the sinks
+     * @param factory    The factory creating the sinks
+     * @return The dispatcher
+     * @throws FanOutException      When a required sink cannot be created, or no sink has been configured
+     * @throws NullPointerException When {@code properties} or {@code factory} are {@code null}
+     */
+    public static <S> FanOutDispatcher<S> create(final FanOutProperties properties, final SinkFactory<S> factory)
+            throws FanOutException {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+        Validate.notNull(factory, "The validated object 'factory' is null");
+
+        final List<Sink<S>> sinks = new ArrayList<>();
+        for (final SinkProperties sinkProps : properties.getSinks()) {
+            final SinkPolicy policy;
+            if (SinkProperties.POLICY_BEST_EFFORT.equals(sinkProps.getPolicy())) {
+                policy = SinkPolicy.BEST_EFFORT;
+            } else {
+                policy = SinkPolicy.REQUIRED;
+            }
+
+            final S target;
+            try {
+                target = factory.getInstance(sinkProps.getClassName());
+            } catch (FactoryException | RuntimeException e) {
+                final String error = "Cannot create the sink '" + sinkProps.getName() + "'";
+                if (policy == SinkPolicy.REQUIRED) {
+                    LOG.warn(error, e);
+                    throw new FanOutException(error, e);
+                }
+                LOG.warn(error + ", ignoring the best-effort sink", e);
+                continue;
+            }
+
+            sinks.add(new Sink<>(sinkProps.getName(), target, policy, sinkProps.getTimeout(), sinkProps.getThreads(),
+                    sinkProps.getQueueCapacity()));
+        }
+
+        if (sinks.isEmpty()) {
+            final String error = "No sink has been configured";
+            LOG.warn(error);
+            throw new FanOutException(error);
+        }
+
+        return new FanOutDispatcher<>(sinks);
+    }
+
+    /**
+     * @return The sinks of this dispatcher
+     */
+    public List<Sink<S>> getSinks() {
+
+        return sinks;
+    }
+
+    /**
+     * Deliver an event to all sinks in parallel, and wait for the required sinks.
+     *
+     * @param delivery The delivery of the event to a sink
+     * @throws FanOutException      When the delivery to a required sink fails, times out, or cannot be queued
+     * @throws NullPointerException When {@code delivery} is {@code null}
+     */
+    public void dispatch(final Delivery<S> delivery)
+            throws FanOutException {
+
+        Validate.notNull(delivery, "The validated object 'delivery' is null");
+
+        final long start = System.nanoTime();
+        final int count = sinks.size();
+        final List<Future<Void>> futures = new ArrayList<>(count);
+        FanOutException failure = null;
+
+        // hand the delivery to all sinks first, so that the sinks work in parallel
+        for (int i = 0; i < count; i++) {
+            final Sink<S> sink = sinks.get(i);
+            Future<Void> future = null;
+            try {
+                future = sink.submit(delivery);
+            } catch (RejectedExecutionException e) {
+                sink.dropCount.incrementAndGet();
+                final String error = "The queue of sink '" + sink.getName() + "' is full, the event is not delivered";
+                LOG.warn(error);
+                if (sink.getPolicy() == SinkPolicy.REQUIRED && failure == null) {
+                    failure = new FanOutException(error, e);
+                }
+            }
+            futures.add(future);
+        }
+
+        // then wait for the required sinks
+        for (int i = 0; i < count; i++) {
+            final Sink<S> sink = sinks.get(i);
+            final Future<Void> future = futures.get(i);
+            if (sink.getPolicy() != SinkPolicy.REQUIRED || future == null) {
+                continue;
+            }
+
+            final long remaining = sink.getTimeout() - (System.nanoTime() - start);
+            try {
+                future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                sink.failureCount.incrementAndGet();
+                final String error = "The delivery to sink '" + sink.getName() + "' failed";
+                LOG.warn(error, e.getCause());
+                if (failure == null) {
+                    failure = new FanOutException(error, e.getCause());
+                }
+            } catch (TimeoutException e) {
+                sink.failureCount.incrementAndGet();
+                final String error = "The delivery to sink '" + sink.getName() + "' has timed out";
+                LOG.warn(error);
+                if (failure == null) {
+                    failure = new FanOutException(error, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                final String error = "Interrupted while waiting for the delivery to sink '" + sink.getName() + "'";
+                LOG.warn(error);
+                throw new FanOutException(error, e);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stop the threads of all sinks. Deliveries that have already been queued are completed.
+     */
+    @Override
+    public void close() {
+
+        for (final Sink<S> sink : sinks) {
+            sink.executor.shutdown();
+        }
+    }
+
+    /**
+     * A sink of a {@link FanOutDispatcher}, with its failure policy, timeout, threads, and queue.
+     *
+     * @param <S> The type of the sink
+     */
+    public static final class Sink<S> {
+
+        /**
+         * The name of the sink
+         */
+        private final String name;
+
+        /**
+         * The sink
+         */
+        private final S target;
+
+        /**
+         * The failure policy of the sink
+         */
+        private final SinkPolicy policy;
+
+        /**
+         * The timeout of the sink, in nanoseconds
+         */
+        private final long timeout;
+
+        /**
+         * The threads and queue of the sink
+         */
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * The number of failed or timed out deliveries
+         */
+        private final AtomicLong failureCount = new AtomicLong();
+
+        /**
+         * The number of events that have not been delivered because the queue was full
+         */
+        private final AtomicLong dropCount = new AtomicLong();
+
+        /**
+         * Create a sink.
+         *
+         * @param name          The name of the sink, used in log messages and as the name of its threads
+         * @param target        The sink
+         * @param policy        The failure policy of the sink
+         * @param timeout       The time a dispatch waits for a required sink, in milliseconds
+         * @param threads       The number of threads delivering events to the sink
+         * @param queueCapacity The maximum number of events waiting to be delivered to the sink
+         * @throws NullPointerException     When {@code name}, {@code target}, or {@code policy} are {@code null}
+         * @throws IllegalArgumentException When {@code name} is empty, or {@code timeout}, {@code threads} or
+         *                                  {@code queueCapacity} are not positive
+         */
+        public Sink(final String name, final S target, final SinkPolicy policy, final long timeout,
+                    final int threads, final int queueCapacity) {
+
+            Validate.notBlank(name, "The validated character sequence 'name' is null or empty");
+            Validate.notNull(target, "The validated object 'target' is null");
+            Validate.notNull(policy, "The validated object 'policy' is null");
+            Validate.isTrue(timeout > 0, "The timeout must be positive");
+            Validate.isTrue(threads > 0, "The number of threads must be positive");
+            Validate.isTrue(queueCapacity > 0, "The queue capacity must be positive");
+
+            // no need for defensive copies of String
+            this.name = name;
+            this.target = target;
+            this.policy = policy;
+            this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+
+                            final Thread thread = new Thread(runnable,
+                                    "jaas-fanout-" + name + "-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * @return The name of the sink
+         */
+        public String getName() {
+
+            // no need for defensive copies of String
+            return name;
+        }
+
+        /**
+         * @return The sink
+         */
+        public S getTarget() {
+
+            return target;
+        }
+
+        /**
+         * @return The failure policy of the sink
+         */
+        public SinkPolicy getPolicy() {
+
+            return policy;
+        }
+
+        /**
+         * @return The number of deliveries to the sink that have failed or timed out
+         */
+        public long getFailureCount() {
+
+            return failureCount.get();
+        }
+
+        /**
+         * @return The number of events that have not been delivered to the sink because its queue was full
+         */
+        public long getDropCount() {
+
+            return dropCount.get();
+        }
+
+        /**
+         * @return The timeout of the sink, in nanoseconds
+         */
+        private long getTimeout() {
+
+            return timeout;
+        }
+
+        /**
+         * Queue a delivery to this sink.
+         *
+         * @param delivery The delivery
+         * @return The future of the delivery
+         * @throws RejectedExecutionException When the queue is full
+         */
+        private Future<Void> submit(final Delivery<S> delivery) {
+
+            // private method asserts
+            assert delivery != null : "The delivery cannot be null";
+
+            return executor.submit(new Callable<Void>() {
+                @Override
+                // the sinks throw their own checked exceptions, which are all treated as a failed delivery
+                @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+                public Void call()
+                        throws Exception {
+
+                    if (policy == SinkPolicy.REQUIRED) {
+                        delivery.deliver(target);
+                    } else {
+                        // nobody waits for a best-effort sink, so its failures are handled here
+                        try {
+                            delivery.deliver(target);
+                        } catch (Exception e) {
+                            failureCount.incrementAndGet();
+                            LOG.warn("The delivery to best-effort sink '" + name + "' failed", e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+}
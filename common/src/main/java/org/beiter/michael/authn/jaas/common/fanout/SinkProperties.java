@@ -0,0 +1,253 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.fanout;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * This class specifies the properties of a sink of a {@link FanOutDispatcher}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class SinkProperties {
+
+    /**
+     * The policy setting for sinks that must accept every event
+     */
+    public static final String POLICY_REQUIRED = "required";
+
+    /**
+     * The policy setting for sinks that may miss events
+     */
+    public static final String POLICY_BEST_EFFORT = "bestEffort";
+
+    /**
+     * @see SinkProperties#setName(String)
+     */
+    private String name;
+
+    /**
+     * @see SinkProperties#setClassName(String)
+     */
+    private String className;
+
+    /**
+     * @see SinkProperties#setPolicy(String)
+     */
+    private String policy;
+
+    /**
+     * @see SinkProperties#setTimeout(long)
+     */
+    private long timeout;
+
+    /**
+     * @see SinkProperties#setThreads(int)
+     */
+    private int threads;
+
+    /**
+     * @see SinkProperties#setQueueCapacity(int)
+     */
+    private int queueCapacity;
+
+    /**
+     * Constructs an empty set of sink properties, with most values being set to <code>null</code>, 0, or empty
+     * (depending on the type of the property). Usually this constructor is used if this configuration POJO is populated
+     * in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults), use or
+     * create a properties builder.
+     * <p>
+     * You can change the defaults with the setters.
+     *
+     * @see org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedFanOutPropsBuilder
+     */
+    public SinkProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of sink properties from an existing set of sink properties, making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see SinkProperties()
+     */
+    public SinkProperties(final SinkProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setName(properties.getName());
+        setClassName(properties.getClassName());
+        setPolicy(properties.getPolicy());
+        setTimeout(properties.getTimeout());
+        setThreads(properties.getThreads());
+        setQueueCapacity(properties.getQueueCapacity());
+    }
+
+    /**
+     * @return The name of the sink
+     * @see SinkProperties#setName(String)
+     */
+    public final String getName() {
+
+        // no need for defensive copies of String
+
+        return name;
+    }
+
+    /**
+     * Set the name of the sink, which identifies the sink in the configuration and in log messages
+     *
+     * @param name The name of the sink
+     */
+    public final void setName(final String name) {
+
+        // no need for defensive copies of String
+
+        this.name = name;
+    }
+
+    /**
+     * @return The name of the class implementing the sink
+     * @see SinkProperties#setClassName(String)
+     */
+    public final String getClassName() {
+
+        // no need for defensive copies of String
+
+        return className;
+    }
+
+    /**
+     * Set the name of the class implementing the sink (e.g. a class implementing the
+     * {@link org.beiter.michael.authn.jaas.common.audit.Audit} interface)
+     *
+     * @param className The name of the class implementing the sink
+     */
+    public final void setClassName(final String className) {
+
+        // no need for defensive copies of String
+
+        this.className = className;
+    }
+
+    /**
+     * @return The failure policy of the sink
+     * @see SinkProperties#setPolicy(String)
+     */
+    public final String getPolicy() {
+
+        // no need for defensive copies of String
+
+        return policy;
+    }
+
+    /**
+     * Set the failure policy of the sink: {@link #POLICY_REQUIRED} or {@link #POLICY_BEST_EFFORT} (see
+     * {@link SinkPolicy})
+     *
+     * @param policy The failure policy of the sink
+     */
+    public final void setPolicy(final String policy) {
+
+        // no need for defensive copies of String
+
+        this.policy = policy;
+    }
+
+    /**
+     * @return The time the dispatcher waits for a required sink, in milliseconds
+     * @see SinkProperties#setTimeout(long)
+     */
+    public final long getTimeout() {
+
+        return timeout;
+    }
+
+    /**
+     * Set the time the dispatcher waits for a required sink to accept an event, in milliseconds, measured from the
+     * start of the dispatch
+     *
+     * @param timeout The timeout in milliseconds
+     */
+    public final void setTimeout(final long timeout) {
+
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The number of threads delivering events to the sink
+     * @see SinkProperties#setThreads(int)
+     */
+    public final int getThreads() {
+
+        return threads;
+    }
+
+    /**
+     * Set the number of threads delivering events to the sink. Every sink has threads of its own, so a slow sink
+     * does not delay the other sinks.
+     *
+     * @param threads The number of threads
+     */
+    public final void setThreads(final int threads) {
+
+        this.threads = threads;
+    }
+
+    /**
+     * @return The maximum number of events waiting to be delivered to the sink
+     * @see SinkProperties#setQueueCapacity(int)
+     */
+    public final int getQueueCapacity() {
+
+        return queueCapacity;
+    }
+
+    /**
+     * Set the maximum number of events waiting to be delivered to the sink. When the queue is full, events are not
+     * delivered to the sink, which fails the dispatch if the sink is required.
+     *
+     * @param queueCapacity The capacity of the queue
+     */
+    public final void setQueueCapacity(final int queueCapacity) {
+
+        this.queueCapacity = queueCapacity;
+    }
+}
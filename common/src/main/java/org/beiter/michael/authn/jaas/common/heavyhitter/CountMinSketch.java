@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.apache.commons.lang3.Validate;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Count-Min sketch, which estimates the number of occurrences of any key of a stream in a fixed amount of memory.
+ * <p>
+ * Every key is counted in one counter of each row, chosen by an independent hash of the key per row. The estimate of a
+ * key is the lowest of its counters: it is never lower than the true count, and exceeds it by more than
+ * {@code 2 * total / width} with a probability of at most {@code 2^-depth}.
+ * <p>
+ * The keys are hashed with a random seed per sketch (rather than with {@link String#hashCode()}), so that an attacker
+ * cannot choose keys that share all counters with the key of a victim, and inflate its estimate.
+ * <p>
+ * The counters are updated without locking. This class is thread safe.
+ */
+final class CountMinSketch {
+
+    /**
+     * The number of rows
+     */
+    static final int DEPTH = 4;
+
+    /**
+     * The prime of the 64 bit FNV-1a hash
+     */
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /**
+     * The multiplier that derives the hash seed of a row from the row number (the golden ratio in 64 bit fixed point)
+     */
+    private static final long SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The first multiplier of the hash finalizer (from MurmurHash3)
+     */
+    private static final long MIX_1 = 0xFF51AFD7ED558CCDL;
+
+    /**
+     * The second multiplier of the hash finalizer (from MurmurHash3)
+     */
+    private static final long MIX_2 = 0xC4CEB9FE1A85EC53L;
+
+    /**
+     * The shift of the hash finalizer (from MurmurHash3)
+     */
+    private static final int MIX_SHIFT = 33;
+
+    /**
+     * The counters, one row after the other
+     */
+    private final AtomicLongArray counters;
+
+    /**
+     * The number of counters per row minus one (the width is a power of two)
+     */
+    private final int mask;
+
+    /**
+     * The seed of the hash of the keys
+     */
+    private final long seed = new SecureRandom().nextLong();
+
+    /**
+     * Create a sketch.
+     *
+     * @param minWidth The minimum number of counters per row, which is rounded up to the next power of two
+     * @throws IllegalArgumentException When {@code minWidth} is not positive, or too large
+     */
+    CountMinSketch(final int minWidth) {
+
+        Validate.isTrue(minWidth > 0 && minWidth <= (1 << (Integer.SIZE - 2)) / DEPTH,
+                "The width is out of range");
+
+        int width = 1;
+        while (width < minWidth) {
+            width <<= 1;
+        }
+
+        this.counters = new AtomicLongArray(width * DEPTH);
+        this.mask = width - 1;
+    }
+
+    /**
+     * Count an occurrence of a key.
+     *
+     * @param key The key
+     */
+    void add(final String key) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        final long hash = hash(key);
+        for (int row = 0; row < DEPTH; row++) {
+            counters.incrementAndGet(slot(hash, row));
+        }
+    }
+
+    /**
+     * Estimate the number of occurrences of a key.
+     *
+     * @param key The key
+     * @return The estimated number of occurrences, which is never lower than the true number
+     */
+    long estimate(final String key) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        final long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(slot(hash, row)));
+        }
+
+        return estimate;
+    }
+
+    /**
+     * @param key A key
+     * @return The seeded 64 bit FNV-1a hash of the key
+     */
+    private long hash(final String key) {
+
+        long hash = seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * @param hash The hash of a key
+     * @param row  The row
+     * @return The index of the counter of the key in the row
+     */
+    private int slot(final long hash, final int row) {
+
+        long mixed = hash + (row + 1) * SEED_MULTIPLIER;
+        mixed = (mixed ^ (mixed >>> MIX_SHIFT)) * MIX_1;
+        mixed = (mixed ^ (mixed >>> MIX_SHIFT)) * MIX_2;
+        mixed ^= mixed >>> MIX_SHIFT;
+
+        return row * (mask + 1) + ((int) mixed & mask);
+    }
+}
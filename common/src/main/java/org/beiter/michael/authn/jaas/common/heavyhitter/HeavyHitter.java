@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * An immutable, approximate count of the failures of a username or domain during an interval.
+ * <p>
+ * The count may overestimate the true number of failures by up to {@link #getError()}, because the key may have
+ * taken over the counter of another key when it was first seen.
+ */
+public final class HeavyHitter {
+
+    /**
+     * @see HeavyHitter#getKey()
+     */
+    private final String key;
+
+    /**
+     * @see HeavyHitter#getCount()
+     */
+    private final long count;
+
+    /**
+     * @see HeavyHitter#getError()
+     */
+    private final long error;
+
+    /**
+     * Create a heavy hitter.
+     *
+     * @param key   The username (as {@code username@domain}, or the user ID) or the domain
+     * @param count The (possibly overestimated) number of failures
+     * @param error The maximum overestimation of the count
+     * @throws NullPointerException     When {@code key} is {@code null}
+     * @throws IllegalArgumentException When {@code count} or {@code error} are negative, or the error exceeds the
+     *                                  count
+     */
+    public HeavyHitter(final String key, final long count, final long error) {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+        Validate.isTrue(error >= 0, "The error must not be negative");
+        Validate.isTrue(count >= error, "The error must not exceed the count");
+
+        // no need for defensive copies of String
+        this.key = key;
+        this.count = count;
+        this.error = error;
+    }
+
+    /**
+     * @return The username (as {@code username@domain}, or the user ID) or the domain
+     */
+    public String getKey() {
+
+        // no need for defensive copies of String
+        return key;
+    }
+
+    /**
+     * @return The number of failures, which may be overestimated by up to {@link #getError()}
+     */
+    public long getCount() {
+
+        return count;
+    }
+
+    /**
+     * @return The maximum overestimation of the count
+     */
+    public long getError() {
+
+        return error;
+    }
+
+    /**
+     * @return The number of failures that are guaranteed to have happened (the count minus the error)
+     */
+    public long getGuaranteedCount() {
+
+        return count - error;
+    }
+}
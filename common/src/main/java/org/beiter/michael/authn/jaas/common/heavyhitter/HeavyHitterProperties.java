@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link HeavyHitterTracker}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class HeavyHitterProperties {
+
+    /**
+     * @see HeavyHitterProperties#setEnabled(boolean)
+     */
+    private boolean enabled;
+
+    /**
+     * @see HeavyHitterProperties#setCapacity(int)
+     */
+    private int capacity;
+
+    /**
+     * @see HeavyHitterProperties#setExportSize(int)
+     */
+    private int exportSize;
+
+    /**
+     * @see HeavyHitterProperties#setInterval(long)
+     */
+    private long interval;
+
+    /**
+     * @see HeavyHitterProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of heavy hitter properties, with most values being set to <code>null</code>, 0, or empty
+     * (depending on the type of the property). Usually this constructor is used if this configuration POJO is populated
+     * in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults), use or
+     * create a properties builder (such as {@code JaasBasedHeavyHitterPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public HeavyHitterProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of heavy hitter properties from an existing set of heavy hitter properties, making a defensive
+     * copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see HeavyHitterProperties()
+     */
+    public HeavyHitterProperties(final HeavyHitterProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setEnabled(properties.isEnabled());
+        setCapacity(properties.getCapacity());
+        setExportSize(properties.getExportSize());
+        setInterval(properties.getInterval());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return {@code true} if the most frequently failing usernames and domains are tracked
+     * @see HeavyHitterProperties#setEnabled(boolean)
+     */
+    public final boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the tracking of the most frequently failing usernames and domains
+     *
+     * @param enabled {@code true} to track the most frequently failing usernames and domains
+     */
+    public final void setEnabled(final boolean enabled) {
+
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The maximum number of usernames and domains that are counted individually
+     * @see HeavyHitterProperties#setCapacity(int)
+     */
+    public final int getCapacity() {
+
+        return capacity;
+    }
+
+    /**
+     * Set the maximum number of usernames (and, separately, domains) that are counted individually during an interval.
+     * When more usernames fail, the username with the lowest count is replaced, so the memory used by the tracker does
+     * not depend on the number of usernames. Any username that fails more often than once in {@code capacity} failures
+     * is guaranteed to be tracked.
+     *
+     * @param capacity The number of counters
+     */
+    public final void setCapacity(final int capacity) {
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The number of usernames and domains that are exported at the end of every interval
+     * @see HeavyHitterProperties#setExportSize(int)
+     */
+    public final int getExportSize() {
+
+        return exportSize;
+    }
+
+    /**
+     * Set the number of usernames and domains with the most failures that are exported (logged) at the end of every
+     * interval. An export size of 0 disables the export; the heavy hitters are still available through the query
+     * methods of the {@link HeavyHitterTracker}.
+     *
+     * @param exportSize The number of usernames and domains to export
+     */
+    public final void setExportSize(final int exportSize) {
+
+        this.exportSize = exportSize;
+    }
+
+    /**
+     * @return The length of an interval, in milliseconds
+     * @see HeavyHitterProperties#setInterval(long)
+     */
+    public final long getInterval() {
+
+        return interval;
+    }
+
+    /**
+     * Set the length of an interval, in milliseconds. The counters are reset at the end of every interval, so the
+     * counts are failure rates per interval.
+     *
+     * @param interval The length of an interval in milliseconds
+     */
+    public final void setInterval(final long interval) {
+
+        this.interval = interval;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see HeavyHitterProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.listener.DeliveryMode;
+import org.beiter.michael.authn.jaas.common.listener.EventListener;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the usernames and domains with the most authentication failures in real time, in a fixed amount of memory.
+ * <p>
+ * The tracker is an {@link EventListener} that is subscribed synchronously to {@link Events#AUTHN_FAILURE}, and there
+ * is one tracker per JVM, which tracks the failures of all login modules (see
+ * {@link #getInstance(HeavyHitterProperties)}). Failures are counted per interval:
+ * <ul>
+ * <li>per username (as {@code username@domain}, or the user ID for events without a domain) and per domain in
+ * Space-Saving summaries with a fixed number of counters, which find the keys with the most failures however many
+ * keys fail, and</li>
+ * <li>per username in a Count-Min sketch, which estimates the failures of any username, including those that are not
+ * among the heavy hitters.</li>
+ * </ul>
+ * The username summary is partitioned by the hash of the key, so that concurrent failures of different usernames
+ * rarely contend on the same lock.
+ * <p>
+ * At the end of every interval a background thread starts a new interval, and exports (logs) the usernames and domains
+ * with the most failures of the completed interval. The heavy hitters of both the current and the completed interval
+ * are available through the query methods, e.g. to drive alerts or throttling.
+ * <p>
+ * This class is thread safe.
+ */
+public final class HeavyHitterTracker
+        implements EventListener, Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(HeavyHitterTracker.class);
+
+    /**
+     * The lock guarding the tracker of this JVM
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The configurations that have been ignored because the tracker of this JVM had already been created with another
+     * configuration, used to warn only once per configuration (guarded by the lock)
+     */
+    private static final Set<String> IGNORED_KEYS = new HashSet<>();
+
+    /**
+     * The tracker of this JVM, {@code null} if it has not been created (guarded by the lock)
+     */
+    private static HeavyHitterTracker instance;
+
+    /**
+     * The configuration of the tracker of this JVM (guarded by the lock)
+     */
+    private static String instanceKey;
+
+    /**
+     * The maximum number of partitions of the username summary
+     */
+    private static final int MAX_PARTITIONS = 8;
+
+    /**
+     * The number of partitions of the username summary (a power of two)
+     */
+    private static final int PARTITIONS = partitions(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of counters per row of the sketch, per counter of the username summary
+     */
+    private static final int SKETCH_WIDTH_FACTOR = 4;
+
+    /**
+     * The number of usernames and domains that are counted individually
+     */
+    private final int capacity;
+
+    /**
+     * The number of usernames and domains that are exported at the end of every interval
+     */
+    private final int exportSize;
+
+    /**
+     * The length of an interval in milliseconds
+     */
+    private final long interval;
+
+    /**
+     * The counters of the current interval
+     */
+    private volatile Window current;
+
+    /**
+     * The counters of the completed interval, may be {@code null}
+     */
+    private volatile Window completed;
+
+    /**
+     * The lock the background thread waits on between intervals
+     */
+    private final Object wakeup = new Object();
+
+    /**
+     * {@code true} when the tracker has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create a tracker without a background thread. The intervals are completed with {@link #export()}.
+     *
+     * @param capacity   The number of usernames and domains that are counted individually
+     * @param exportSize The number of usernames and domains that are exported at the end of every interval
+     * @param interval   The length of an interval in milliseconds
+     * @throws IllegalArgumentException When {@code capacity} or {@code interval} are not positive, or
+     *                                  {@code exportSize} is negative
+     */
+    HeavyHitterTracker(final int capacity, final int exportSize, final long interval) {
+
+        Validate.isTrue(capacity > 0, "The capacity must be positive");
+        Validate.isTrue(exportSize >= 0, "The export size must not be negative");
+        Validate.isTrue(interval > 0, "The interval must be positive");
+
+        this.capacity = capacity;
+        this.exportSize = exportSize;
+        this.interval = interval;
+        this.current = new Window(capacity);
+    }
+
+    /**
+     * Return the tracker of this JVM, creating it (and subscribing it to failure events) if it does not exist.
+     * <p>
+     * The in-process event listeners are JVM wide, so a second tracker would count every failure again. The tracker
+     * is hence created with the configuration of the first login module that enables it, and tracks the failures of
+     * all login modules in the JVM. A different configuration of another login module is ignored, with a warning.
+     *
+     * @param hitterProps The configuration of the tracker
+     * @return The tracker
+     * @throws NullPointerException     When {@code hitterProps} is {@code null}
+     * @throws IllegalArgumentException When the capacity or the interval are not positive, or the export size is
+     *                                  negative
+     */
+    public static HeavyHitterTracker getInstance(final HeavyHitterProperties hitterProps) {
+
+        Validate.notNull(hitterProps, "The validated object 'hitterProps' is null");
+
+        final String key = hitterProps.getCapacity() + "/" + hitterProps.getExportSize() + "/"
+                + hitterProps.getInterval();
+        synchronized (LOCK) {
+            if (instance == null) {
+                instance = new HeavyHitterTracker(hitterProps.getCapacity(), hitterProps.getExportSize(),
+                        hitterProps.getInterval());
+                instance.start();
+                EventListeners.subscribe(Events.AUTHN_FAILURE, instance, DeliveryMode.SYNCHRONOUS);
+                instanceKey = key;
+            } else if (!instanceKey.equals(key) && IGNORED_KEYS.add(key)) {
+                LOG.warn("The heavy hitter tracker of this JVM has already been created with another configuration, "
+                        + "ignoring this configuration");
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * Close the tracker of this JVM, so that the next call to {@code getInstance()} creates a new one.
+     */
+    static void closeInstance() {
+
+        synchronized (LOCK) {
+            if (instance != null) {
+                instance.close();
+                instance = null;
+                instanceKey = null;
+            }
+            IGNORED_KEYS.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts the failure of the username and the domain of the event. All other events are ignored.
+     *
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    @Override
+    public void onEvent(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        if (event.getEvent() != Events.AUTHN_FAILURE) {
+            return;
+        }
+
+        final String userKey = userKey(event.getUsername(), event.getDomain(), event.getUserId());
+        final Window window = current;
+        if (userKey != null) {
+            window.users[partition(userKey)].offer(userKey);
+            window.sketch.add(userKey);
+        }
+        if (StringUtils.isNotEmpty(event.getDomain())) {
+            window.domains.offer(event.getDomain());
+        }
+    }
+
+    /**
+     * Return the usernames with the most failures during the current interval.
+     *
+     * @param count The maximum number of usernames to return
+     * @return The usernames (as {@code username@domain}, or the user ID), in descending order of their failures
+     * @throws IllegalArgumentException When {@code count} is negative
+     */
+    public List<HeavyHitter> getTopUsers(final int count) {
+
+        Validate.isTrue(count >= 0, "The count must not be negative");
+
+        return current.topUsers(count);
+    }
+
+    /**
+     * Return the domains with the most failures during the current interval.
+     *
+     * @param count The maximum number of domains to return
+     * @return The domains, in descending order of their failures
+     * @throws IllegalArgumentException When {@code count} is negative
+     */
+    public List<HeavyHitter> getTopDomains(final int count) {
+
+        Validate.isTrue(count >= 0, "The count must not be negative");
+
+        return current.domains.top(count);
+    }
+
+    /**
+     * Return the usernames with the most failures during the last completed interval.
+     *
+     * @param count The maximum number of usernames to return
+     * @return The usernames (as {@code username@domain}, or the user ID), in descending order of their failures, or an
+     * empty list if no interval has been completed yet
+     * @throws IllegalArgumentException When {@code count} is negative
+     */
+    public List<HeavyHitter> getCompletedTopUsers(final int count) {
+
+        Validate.isTrue(count >= 0, "The count must not be negative");
+
+        final Window window = completed;
+        if (window == null) {
+            return Collections.emptyList();
+        }
+
+        return window.topUsers(count);
+    }
+
+    /**
+     * Return the domains with the most failures during the last completed interval.
+     *
+     * @param count The maximum number of domains to return
+     * @return The domains, in descending order of their failures, or an empty list if no interval has been completed
+     * yet
+     * @throws IllegalArgumentException When {@code count} is negative
+     */
+    public List<HeavyHitter> getCompletedTopDomains(final int count) {
+
+        Validate.isTrue(count >= 0, "The count must not be negative");
+
+        final Window window = completed;
+        if (window == null) {
+            return Collections.emptyList();
+        }
+
+        return window.domains.top(count);
+    }
+
+    /**
+     * Estimate the failures of a username during the current interval. The estimate is never lower than the true
+     * number of failures.
+     *
+     * @param username The username, may be {@code null} if the user is identified by a user ID
+     * @param domain   The domain, may be {@code null} if the user is identified by a user ID
+     * @param userId   The user ID, may be {@code null} if the user is identified by a username and domain
+     * @return The estimated number of failures
+     */
+    public long estimateFailures(final String username, final String domain, final String userId) {
+
+        final String userKey = userKey(username, domain, userId);
+        if (userKey == null) {
+            return 0;
+        }
+
+        return current.sketch.estimate(userKey);
+    }
+
+    /**
+     * Stop the background thread, and complete the current interval.
+     */
+    @Override
+    public void close() {
+
+        EventListeners.unsubscribe(Events.AUTHN_FAILURE, this);
+
+        // the thread is woken up rather than interrupted, so that an interrupt cannot hit the logging I/O
+        synchronized (wakeup) {
+            closed = true;
+            wakeup.notifyAll();
+        }
+        export();
+    }
+
+    /**
+     * Complete the current interval, start a new interval, and export the heavy hitters of the completed interval.
+     */
+    // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit with PMD.
+    @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+    synchronized void export() {
+
+        // failures counted concurrently with the swap are included in the completed interval, but may be missing from
+        // the export
+        final Window window = current;
+        current = new Window(capacity);
+        completed = window;
+
+        if (exportSize > 0 && LOG.isInfoEnabled()) {
+            // PMD does not recognize the guarded log statement
+            for (final HeavyHitter hitter : window.topUsers(exportSize)) {
+                LOG.info("[HEAVY HITTER] user '" + hitter.getKey() + "'. Failures " + hitter.getCount()
+                        + " (error " + hitter.getError() + ") in " + interval + " ms");
+            }
+            for (final HeavyHitter hitter : window.domains.top(exportSize)) {
+                LOG.info("[HEAVY HITTER] domain '" + hitter.getKey() + "'. Failures " + hitter.getCount()
+                        + " (error " + hitter.getError() + ") in " + interval + " ms");
+            }
+        }
+    }
+
+    /**
+     * Start the background thread that completes the intervals.
+     */
+    private void start() {
+
+        final Thread exporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                runExports();
+            }
+        }, "jaas-heavyhitters-export");
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+    /**
+     * Complete an interval at the end of every interval, until the tracker is closed.
+     */
+    private void runExports() {
+
+        while (true) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            synchronized (wakeup) {
+                long remaining = deadline - System.nanoTime();
+                while (!closed && remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(wakeup, remaining);
+                    } catch (InterruptedException e) {
+                        // closing the tracker completes the current interval
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            export();
+        }
+    }
+
+    /**
+     * @param username The username, may be {@code null}
+     * @param domain   The domain, may be {@code null}
+     * @param userId   The user ID, may be {@code null}
+     * @return The key of the user ({@code username@domain}, or the user ID), or {@code null} if the user is not
+     * identified
+     */
+    private static String userKey(final String username, final String domain, final String userId) {
+
+        if (StringUtils.isNotEmpty(username) && StringUtils.isNotEmpty(domain)) {
+            return username + "@" + domain;
+        }
+        if (StringUtils.isNotEmpty(userId)) {
+            return userId;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key A key
+     * @return The partition of the username summary the key is counted in
+     */
+    private static int partition(final String key) {
+
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> (Integer.SIZE / 2))) & (PARTITIONS - 1);
+    }
+
+    /**
+     * @param processors The number of processors
+     * @return The smallest power of two that is not less than the number of processors, limited to the maximum number
+     * of partitions
+     */
+    private static int partitions(final int processors) {
+
+        int partitions = 1;
+        while (partitions < processors && partitions < MAX_PARTITIONS) {
+            partitions <<= 1;
+        }
+
+        return partitions;
+    }
+
+    /**
+     * The counters of one interval.
+     */
+    private static final class Window {
+
+        /**
+         * The partitions of the username summary
+         */
+        private final SpaceSaving[] users;
+
+        /**
+         * The domain summary
+         */
+        private final SpaceSaving domains;
+
+        /**
+         * The username sketch
+         */
+        private final CountMinSketch sketch;
+
+        /**
+         * @param capacity The number of usernames and domains that are counted individually
+         */
+        Window(final int capacity) {
+
+            users = new SpaceSaving[PARTITIONS];
+            final int partitionCapacity = (capacity + PARTITIONS - 1) / PARTITIONS;
+            for (int i = 0; i < PARTITIONS; i++) {
+                users[i] = new SpaceSaving(partitionCapacity);
+            }
+            domains = new SpaceSaving(capacity);
+            sketch = new CountMinSketch(capacity * SKETCH_WIDTH_FACTOR);
+        }
+
+        /**
+         * @param count The maximum number of usernames to return
+         * @return The usernames with the most failures, in descending order of their failures
+         */
+        List<HeavyHitter> topUsers(final int count) {
+
+            final List<HeavyHitter> hitters = new ArrayList<>();
+            for (final SpaceSaving partition : users) {
+                partition.addTo(hitters);
+            }
+
+            return SpaceSaving.top(hitters, count);
+        }
+    }
+}
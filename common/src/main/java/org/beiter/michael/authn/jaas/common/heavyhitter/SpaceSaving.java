@@ -0,0 +1,273 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Space-Saving summary, which counts the most frequent keys of a stream with a fixed number of counters.
+ * <p>
+ * A key that is already counted has its counter incremented. A new key takes over the counter with the lowest count
+ * when all counters are in use, and inherits its count as the error of its own count. Every key that occurs more often
+ * than once in {@code capacity} offers is guaranteed to be counted, and no count is ever underestimated.
+ * <p>
+ * The counters are kept in a min-heap that is indexed by key, so offering a key takes logarithmic time in the
+ * capacity.
+ * <p>
+ * This class is thread safe.
+ */
+final class SpaceSaving {
+
+    /**
+     * Sorts heavy hitters by descending count
+     */
+    static final Comparator<HeavyHitter> BY_COUNT = new Comparator<HeavyHitter>() {
+        @Override
+        public int compare(final HeavyHitter hitter1, final HeavyHitter hitter2) {
+
+            return Long.compare(hitter2.getCount(), hitter1.getCount());
+        }
+    };
+
+    /**
+     * The counters, as a min-heap ordered by count
+     */
+    private final Counter[] heap;
+
+    /**
+     * The counters, by key
+     */
+    private final Map<String, Counter> index;
+
+    /**
+     * The number of counters in use
+     */
+    private int size;
+
+    /**
+     * Create a summary.
+     *
+     * @param capacity The number of counters
+     * @throws IllegalArgumentException When {@code capacity} is not positive
+     */
+    SpaceSaving(final int capacity) {
+
+        Validate.isTrue(capacity > 0, "The capacity must be positive");
+
+        this.heap = new Counter[capacity];
+        this.index = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Count an occurrence of a key.
+     *
+     * @param key The key
+     */
+    synchronized void offer(final String key) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        Counter counter = index.get(key);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter.position);
+        } else if (size < heap.length) {
+            counter = new Counter(key);
+            counter.count = 1;
+            counter.position = size;
+            heap[size] = counter;
+            size++;
+            index.put(key, counter);
+            siftUp(counter.position);
+        } else {
+            // take over the counter with the lowest count
+            counter = heap[0];
+            index.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.count;
+            counter.count++;
+            index.put(key, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Add the counters to a list, unsorted.
+     *
+     * @param hitters The list to add to
+     */
+    synchronized void addTo(final List<HeavyHitter> hitters) {
+
+        // private method asserts
+        assert hitters != null : "The list cannot be null";
+
+        for (int i = 0; i < size; i++) {
+            hitters.add(new HeavyHitter(heap[i].key, heap[i].count, heap[i].error));
+        }
+    }
+
+    /**
+     * Return the keys with the highest counts.
+     *
+     * @param count The maximum number of keys to return
+     * @return The keys with the highest counts, in descending order of their counts
+     */
+    List<HeavyHitter> top(final int count) {
+
+        final List<HeavyHitter> hitters = new ArrayList<>();
+        addTo(hitters);
+
+        return top(hitters, count);
+    }
+
+    /**
+     * Sort heavy hitters by descending count, and return the first of them.
+     *
+     * @param hitters The heavy hitters, which are sorted in place
+     * @param count   The maximum number of heavy hitters to return
+     * @return The heavy hitters with the highest counts
+     */
+    static List<HeavyHitter> top(final List<HeavyHitter> hitters, final int count) {
+
+        // private method asserts
+        assert hitters != null : "The list cannot be null";
+
+        Collections.sort(hitters, BY_COUNT);
+        if (hitters.size() <= count) {
+            return hitters;
+        }
+
+        return new ArrayList<>(hitters.subList(0, count));
+    }
+
+    /**
+     * Move a counter towards the leaves of the heap until the heap is ordered.
+     *
+     * @param start The position of the counter
+     */
+    private void siftDown(final int start) {
+
+        int position = start;
+        while (true) {
+            final int left = 2 * position + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            if (left + 1 < size && heap[left + 1].count < heap[left].count) {
+                smallest = left + 1;
+            }
+            if (heap[position].count <= heap[smallest].count) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    /**
+     * Move a counter towards the root of the heap until the heap is ordered.
+     *
+     * @param start The position of the counter
+     */
+    private void siftUp(final int start) {
+
+        int position = start;
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (heap[parent].count <= heap[position].count) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    /**
+     * Swap two counters in the heap.
+     *
+     * @param first  The position of the first counter
+     * @param second The position of the second counter
+     */
+    private void swap(final int first, final int second) {
+
+        final Counter counter = heap[first];
+        heap[first] = heap[second];
+        heap[second] = counter;
+        heap[first].position = first;
+        heap[second].position = second;
+    }
+
+    /**
+     * The counter of a key.
+     */
+    private static final class Counter {
+
+        /**
+         * The key
+         */
+        private String key;
+
+        /**
+         * The (possibly overestimated) number of occurrences of the key
+         */
+        private long count;
+
+        /**
+         * The maximum overestimation of the count
+         */
+        private long error;
+
+        /**
+         * The position of the counter in the heap
+         */
+        private int position;
+
+        /**
+         * @param key The key
+         */
+        Counter(final String key) {
+
+            // no need for defensive copies of String
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the records of a {@link SegmentedJournal} one batch at a time, remembering the position after the last record
+ * it has read.
+ * <p>
+ * A cursor reads the segment files directly (see {@link SegmentReader}) and does not lock the journal directory, so
+ * the journal can be read while it is being written, also from another process. The cursor keeps the segment it is
+ * positioned in open, so reading the next batch continues where the previous batch ended, without scanning the segment
+ * again. When the records before the position have been removed (e.g. by a retention job), the cursor continues with
+ * the oldest record that still exists.
+ * <p>
+ * This class is <b>not</b> thread safe.
+ */
+public final class JournalCursor {
+
+    /**
+     * The directory with the segment files
+     */
+    private final File directory;
+
+    /**
+     * The prefix of the segment file names
+     */
+    private final String prefix;
+
+    /**
+     * The sequence number of the next record to read
+     */
+    private long sequence;
+
+    /**
+     * The reader of the segment the cursor is positioned in, or {@code null} if the segment has not been located yet
+     */
+    private SegmentReader reader;
+
+    /**
+     * The offset in the segment at which to continue reading
+     */
+    private int offset;
+
+    /**
+     * Create a cursor.
+     *
+     * @param directory The directory with the segment files
+     * @param prefix    The prefix of the segment file names
+     * @param sequence  The sequence number of the first record to read (e.g. 1 to read from the beginning)
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty
+     */
+    public JournalCursor(final File directory, final String prefix, final long sequence) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+
+        this.directory = directory;
+        this.prefix = prefix;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return The sequence number of the next record the cursor reads
+     */
+    public long getSequence() {
+
+        return sequence;
+    }
+
+    /**
+     * Move the cursor to a record, e.g. to read records again.
+     *
+     * @param newSequence The sequence number of the next record to read
+     */
+    @SuppressWarnings("PMD.NullAssignment")
+    public void seek(final long newSequence) {
+
+        sequence = newSequence;
+        reader = null;
+    }
+
+    /**
+     * Read the next records, up to a maximum number of records, and move the cursor behind the last record that has
+     * been read.
+     *
+     * @param maxRecords The maximum number of records to read
+     * @param handler    The handler that receives the records. The cursor moves behind a record also if the handler
+     *                   returns {@code false}, in which case no more records are read.
+     * @return The number of records that have been read, 0 if there are no records behind the cursor
+     * @throws NullPointerException     When {@code handler} is {@code null}
+     * @throws IllegalArgumentException When {@code maxRecords} is not positive
+     * @throws IOException              When a segment file cannot be read
+     */
+    public int read(final int maxRecords, final RecordHandler handler)
+            throws IOException {
+
+        Validate.isTrue(maxRecords > 0, "The maximum number of records must be positive");
+        Validate.notNull(handler, "The validated object 'handler' is null");
+
+        final int[] count = {0};
+        final boolean[] stopped = {false};
+        final RecordLocator locator = new RecordLocator() {
+            @Override
+            public boolean onRecord(final long recordSequence, final long timestamp, final int recordOffset,
+                                    final ByteBuffer payload) {
+
+                if (recordSequence < sequence) {
+                    return true;
+                }
+
+                sequence = recordSequence + 1;
+                count[0]++;
+                stopped[0] = !handler.onRecord(recordSequence, timestamp, payload);
+                return !stopped[0] && count[0] < maxRecords;
+            }
+        };
+
+        while (count[0] < maxRecords && !stopped[0]) {
+            if (reader == null && !locate()) {
+                break;
+            }
+
+            final int before = count[0];
+            offset = reader.scan(offset, Integer.MAX_VALUE, locator);
+            if (count[0] > before) {
+                continue;
+            }
+
+            // the end of the written part of the segment: continue with the next segment once it has been started,
+            // reading the records that have been completed in this segment in the meantime first
+            final File next = nextSegment(reader.getFile());
+            if (next == null) {
+                break;
+            }
+            offset = reader.scan(offset, Integer.MAX_VALUE, locator);
+            if (count[0] == before) {
+                reader = SegmentReader.open(next);
+                offset = SegmentReader.getFirstOffset();
+            }
+        }
+
+        return count[0];
+    }
+
+    /**
+     * Position the cursor in the segment containing the next record to read.
+     *
+     * @return {@code false} if the journal has no segments
+     * @throws IOException When the segment cannot be read
+     */
+    private boolean locate()
+            throws IOException {
+
+        final List<File> segments = SegmentArchive.listSegments(directory, prefix);
+        if (segments.isEmpty()) {
+            return false;
+        }
+
+        // the last segment starting at or before the next record, or the oldest segment if there is none
+        File segment = segments.get(0);
+        for (final File file : segments) {
+            if (SegmentedJournal.parseBaseSequence(prefix, file) > sequence) {
+                break;
+            }
+            segment = file;
+        }
+
+        reader = SegmentReader.open(segment);
+        offset = SegmentReader.getFirstOffset();
+        return true;
+    }
+
+    /**
+     * @param segment A segment file
+     * @return The segment following the segment, or {@code null} if it is the last segment
+     */
+    private File nextSegment(final File segment) {
+
+        // private method asserts
+        assert segment != null : "The segment cannot be null";
+
+        final List<File> segments = SegmentArchive.listSegments(directory, prefix);
+        for (final File file : segments) {
+            if (file.getName().compareTo(segment.getName()) > 0) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A file that stores the position of a reader of a {@link SegmentedJournal}, i.e. the sequence number of the next
+ * record the reader reads, so that the reader can continue at this position after a restart.
+ * <p>
+ * The file contains the position and its CRC. It is replaced atomically when a new position is written, so that a
+ * crash leaves either the old or the new position behind. This class is thread safe.
+ */
+public final class JournalOffset {
+
+    /**
+     * The suffix of the offset file names
+     */
+    public static final String SUFFIX = ".offset";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalOffset.class);
+
+    /**
+     * The length of the file: the position, and the CRC of the position
+     */
+    private static final int FILE_LENGTH = 12;
+
+    /**
+     * The offset file
+     */
+    private final File file;
+
+    /**
+     * Create an offset in a journal directory. The file is named after the prefix of the journal and the name of the
+     * reader.
+     *
+     * @param directory The directory of the journal
+     * @param prefix    The prefix of the segment file names of the journal
+     * @param name      The name of the reader
+     * @throws NullPointerException     When {@code directory}, {@code prefix}, or {@code name} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} or {@code name} are empty
+     */
+    public JournalOffset(final File directory, final String prefix, final String name) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+        Validate.notBlank(name, "The validated character sequence 'name' is null or empty");
+
+        this.file = new File(directory, prefix + "-" + name + SUFFIX);
+    }
+
+    /**
+     * @return The offset file
+     */
+    public File getFile() {
+
+        return file;
+    }
+
+    /**
+     * Read the position.
+     *
+     * @return The position, or 1 (i.e. the first record of the journal) if no position has been written yet
+     * @throws IOException When the file cannot be read, or is damaged
+     */
+    public synchronized long read()
+            throws IOException {
+
+        if (!file.isFile()) {
+            return 1;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() != FILE_LENGTH) {
+                final String error = "The journal offset file '" + file + "' is damaged";
+                LOG.warn(error);
+                throw new IOException(error);
+            }
+
+            final long position = raf.readLong();
+            if (raf.readInt() != crc(position)) {
+                final String error = "The journal offset file '" + file + "' is damaged";
+                LOG.warn(error);
+                throw new IOException(error);
+            }
+
+            return position;
+        }
+    }
+
+    /**
+     * Write a position. The position is flushed to the storage device before this method returns.
+     *
+     * @param position The position
+     * @throws IOException When the position cannot be written
+     */
+    public synchronized void write(final long position)
+            throws IOException {
+
+        final ByteBuffer content = ByteBuffer.allocate(FILE_LENGTH);
+        content.putLong(position);
+        content.putInt(crc(position));
+        content.flip();
+
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            final FileChannel channel = raf.getChannel();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param position A position
+     * @return The CRC of the position
+     */
+    private static int crc(final long position) {
+
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(position).array());
+        return (int) crc.getValue();
+    }
+}
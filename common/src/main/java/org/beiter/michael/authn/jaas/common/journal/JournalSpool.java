@@ -0,0 +1,431 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent, first-in first-out spool of records that could not be delivered to their destination (e.g. because
+ * an audit database is down), which replays the records in order once the destination has recovered.
+ * <p>
+ * Records are appended to a {@link SegmentedJournal}, and are flushed to the storage device before
+ * {@link #append(byte[], int, int)} returns. A background thread replays the spooled records every retry interval to
+ * the replayer (see {@link #setReplayer(RecordHandler)}), a handler that delivers a record and returns {@code false}
+ * if the destination is still not available. A replay stops at the first record that cannot be delivered, and the
+ * next replay starts with this record, so the records are delivered in the order they have been spooled. The replay
+ * position is committed (see {@link JournalOffset}) after every batch, and segments that have been replayed completely
+ * are deleted. A record can be delivered twice if the spool stops between the delivery and the commit of the position,
+ * so the records should carry an ID that allows the destination to discard duplicates.
+ * <p>
+ * The spool is <i>spooling</i> from the first record that is appended until all records have been replayed, also
+ * across restarts. While the spool is spooling, new records should be appended instead of delivered directly, so that
+ * they are delivered after the records that have been spooled before them (see {@link #isSpooling()}).
+ * <p>
+ * This class is thread safe.
+ */
+public final class JournalSpool
+        implements Closeable {
+
+    /**
+     * The name of the replay position (see {@link JournalOffset})
+     */
+    private static final String OFFSET_NAME = "replay";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalSpool.class);
+
+    /**
+     * The journal with the spooled records
+     */
+    private final SegmentedJournal journal;
+
+    /**
+     * The prefix of the segment file names
+     */
+    private final String prefix;
+
+    /**
+     * The committed replay position
+     */
+    private final JournalOffset offset;
+
+    /**
+     * The cursor at the replay position, guarded by {@link #replayLock}
+     */
+    private final JournalCursor cursor;
+
+    /**
+     * The time between two replays, in milliseconds
+     */
+    private final long retryInterval;
+
+    /**
+     * The maximum number of records replayed before the position is committed
+     */
+    private final int batchSize;
+
+    /**
+     * The lock that serializes replays
+     */
+    private final Object replayLock = new Object();
+
+    /**
+     * The lock that orders appends with the end of a replay
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * The lock the background thread waits on between replays
+     */
+    private final Object wakeup = new Object();
+
+    /**
+     * The thread replaying the records
+     */
+    private final Thread replayThread;
+
+    /**
+     * The handler that delivers the records, or {@code null} if there is no replayer yet
+     */
+    private volatile RecordHandler replayer;
+
+    /**
+     * {@code true} while there are records that have not been replayed
+     */
+    private volatile boolean spooling;
+
+    /**
+     * The replay position that has been committed last
+     */
+    private volatile long committedPosition;
+
+    /**
+     * {@code true} when the spool has been closed, guarded by {@link #wakeup}
+     */
+    private boolean closed;
+
+    /**
+     * Create a spool, and start its background thread.
+     *
+     * @param journal       The journal with the spooled records
+     * @param directory     The directory of the journal
+     * @param prefix        The prefix of the segment file names
+     * @param offset        The committed replay position
+     * @param position      The value of the committed replay position
+     * @param retryInterval The time between two replays, in milliseconds
+     * @param batchSize     The maximum number of records replayed before the position is committed
+     */
+    // CHECKSTYLE:OFF
+    // the spool is opened with all its details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    private JournalSpool(final SegmentedJournal journal, final File directory, final String prefix,
+                         final JournalOffset offset, final long position, final long retryInterval,
+                         final int batchSize) {
+        // CHECKSTYLE:ON
+
+        this.journal = journal;
+        this.prefix = prefix;
+        this.offset = offset;
+        this.cursor = new JournalCursor(directory, prefix, position);
+        this.retryInterval = retryInterval;
+        this.batchSize = batchSize;
+        this.committedPosition = position;
+        this.spooling = position < journal.getNextSequence();
+
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                runReplays();
+            }
+        }, "jaas-spool-replay-" + prefix);
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    /**
+     * Open a spool in a directory, creating the directory if it does not exist. A spool with records that have not
+     * been replayed before it has been closed continues to replay these records.
+     *
+     * @param directory     The directory of the spool
+     * @param prefix        The prefix of the segment file names (e.g. "audit-spool")
+     * @param segmentSize   The size of a new segment file in bytes
+     * @param retryInterval The time between two replays, in milliseconds
+     * @param batchSize     The maximum number of records replayed before the position is committed
+     * @return The spool
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty, the segment size is too small to hold a record,
+     *                                  or the retry interval or batch size are not positive
+     * @throws IOException              When the directory cannot be created, is in use by another journal, or the
+     *                                  segment files or the replay position cannot be read
+     */
+    public static JournalSpool open(final File directory, final String prefix, final int segmentSize,
+                                    final long retryInterval, final int batchSize)
+            throws IOException {
+
+        Validate.isTrue(retryInterval > 0, "The retry interval must be positive");
+        Validate.isTrue(batchSize > 0, "The batch size must be positive");
+
+        final SegmentedJournal journal = SegmentedJournal.open(directory, prefix, segmentSize, 0);
+        try {
+            final JournalOffset offset = new JournalOffset(directory, prefix, OFFSET_NAME);
+            return new JournalSpool(journal, directory, prefix, offset, offset.read(), retryInterval, batchSize);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set the handler that delivers the spooled records. The handler returns {@code false} (or throws a runtime
+     * exception) if a record cannot be delivered, in which case the record is replayed again later. It must return
+     * {@code true} for records that can never be delivered (e.g. because they cannot be decoded), which are skipped.
+     *
+     * @param newReplayer The handler
+     * @throws NullPointerException When {@code newReplayer} is {@code null}
+     */
+    public void setReplayer(final RecordHandler newReplayer) {
+
+        Validate.notNull(newReplayer, "The validated object 'newReplayer' is null");
+
+        replayer = newReplayer;
+    }
+
+    /**
+     * @return {@code true} if there are records that have not been replayed yet, in which case new records should be
+     * appended instead of delivered directly
+     */
+    public boolean isSpooling() {
+
+        return spooling;
+    }
+
+    /**
+     * @return The number of records that have not been replayed (or whose replay has not been committed) yet
+     */
+    public long getPending() {
+
+        return journal.getNextSequence() - committedPosition;
+    }
+
+    /**
+     * Append a record to the spool, and return when it has been flushed to the storage device.
+     *
+     * @param payload The array that contains the payload of the record
+     * @param start   The offset of the payload in the array
+     * @param length  The length of the payload
+     * @return The sequence number of the record
+     * @throws NullPointerException      When {@code payload} is {@code null}
+     * @throws IllegalArgumentException  When the payload does not fit into a segment
+     * @throws IndexOutOfBoundsException When the offset or length do not describe a range of the array
+     * @throws IOException               When the record cannot be written or flushed, or the spool has been closed
+     */
+    public long append(final byte[] payload, final int start, final int length)
+            throws IOException {
+
+        final long sequence;
+        synchronized (appendLock) {
+            sequence = journal.append(payload, start, length);
+            spooling = true;
+        }
+        journal.force();
+
+        return sequence;
+    }
+
+    /**
+     * Replay the spooled records to the replayer now, until all records have been replayed or a record cannot be
+     * delivered. The background thread calls this method every retry interval.
+     *
+     * @return The number of records that have been replayed
+     * @throws IOException When the spool cannot be read, or the replay position cannot be committed
+     */
+    public int replay()
+            throws IOException {
+
+        synchronized (replayLock) {
+            final RecordHandler myReplayer = replayer;
+            if (myReplayer == null || !spooling) {
+                return 0;
+            }
+
+            final long[] failed = {0};
+            final RecordHandler handler = new RecordHandler() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                    boolean delivered;
+                    try {
+                        delivered = myReplayer.onRecord(sequence, timestamp, payload);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Cannot replay the spooled record " + sequence, e);
+                        delivered = false;
+                    }
+                    if (!delivered) {
+                        failed[0] = sequence;
+                    }
+                    return delivered;
+                }
+            };
+
+            int replayed = 0;
+            while (true) {
+                failed[0] = 0;
+                final int count = cursor.read(batchSize, handler);
+                if (failed[0] > 0) {
+                    // the cursor has moved behind the record that could not be delivered
+                    cursor.seek(failed[0]);
+                    replayed += count - 1;
+                    break;
+                }
+                replayed += count;
+                if (count == 0) {
+                    // records are appended under the append lock, so no record can be appended between this check
+                    // and the end of spooling
+                    synchronized (appendLock) {
+                        if (cursor.getSequence() >= journal.getNextSequence()) {
+                            spooling = false;
+                        }
+                    }
+                    break;
+                }
+                commit();
+            }
+
+            commit();
+            purge();
+
+            return replayed;
+        }
+    }
+
+    /**
+     * Stop the background thread, and close the spool. Records that have not been replayed are replayed when the
+     * spool is opened again. Closing a closed spool has no effect.
+     *
+     * @throws IOException When the spool cannot be closed
+     */
+    @Override
+    public void close()
+            throws IOException {
+
+        // the thread is woken up rather than interrupted, so that an interrupt cannot hit the replayer's I/O
+        synchronized (wakeup) {
+            closed = true;
+            wakeup.notifyAll();
+        }
+        try {
+            replayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        journal.close();
+    }
+
+    /**
+     * Commit the replay position, if it has changed.
+     *
+     * @throws IOException When the position cannot be written
+     */
+    private void commit()
+            throws IOException {
+
+        // private method asserts
+        assert Thread.holdsLock(replayLock) : "The replay lock must be held";
+
+        final long position = cursor.getSequence();
+        if (position != committedPosition) {
+            offset.write(position);
+            committedPosition = position;
+        }
+    }
+
+    /**
+     * Delete the segments whose records have all been replayed. The current segment is never deleted.
+     */
+    private void purge() {
+
+        final List<File> segments = journal.getSegments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (SegmentedJournal.parseBaseSequence(prefix, segments.get(i + 1)) > committedPosition) {
+                break;
+            }
+            if (!segments.get(i).delete()) {
+                LOG.warn("Cannot delete the replayed spool segment '" + segments.get(i) + "'");
+            }
+        }
+    }
+
+    /**
+     * Replay the spooled records every retry interval, until the spool is closed.
+     */
+    private void runReplays() {
+
+        while (true) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryInterval);
+            synchronized (wakeup) {
+                long remaining = deadline - System.nanoTime();
+                while (!closed && remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(wakeup, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+                if (closed) {
+                    return;
+                }
+            }
+
+            try {
+                replay();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Cannot replay the spool, trying again later", e);
+            }
+        }
+    }
+}
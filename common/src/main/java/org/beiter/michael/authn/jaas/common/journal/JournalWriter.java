@@ -0,0 +1,442 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends records to a {@link SegmentedJournal} with a selectable {@link Durability}.
+ * <p>
+ * With {@link Durability#GROUP} and {@link Durability#PERIODIC}, the journal is flushed by a background (daemon)
+ * thread that is started when the writer is created, and stopped when the writer is closed. With
+ * {@link Durability#GROUP}, the flush does not block appends: the records of the next group are written while the
+ * current group is being flushed. If a group commit fails, the appends of that group fail, and the next group is
+ * committed with a new flush, so that a transient error of the storage device does not fail all later appends.
+ * <p>
+ * This class is thread safe.
+ */
+public final class JournalWriter
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalWriter.class);
+
+    /**
+     * The journal
+     */
+    private final SegmentedJournal journal;
+
+    /**
+     * The durability of the appended records
+     */
+    private final Durability durability;
+
+    /**
+     * The number of records that completes a group
+     */
+    private final int groupSize;
+
+    /**
+     * The longest time the first record of a group waits for the group to complete, in nanoseconds
+     */
+    private final long groupDelayNanos;
+
+    /**
+     * The time between two periodic flushes, in milliseconds
+     */
+    private final long forceInterval;
+
+    /**
+     * The lock that protects the group commit state, and that waiting appends are released on
+     */
+    private final Object monitor = new Object();
+
+    /**
+     * The number of flushes, for monitoring
+     */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    /**
+     * The background thread that flushes the journal, if any
+     */
+    private final Thread flusher;
+
+    /**
+     * The number of appended records that are waiting for the next group commit
+     */
+    private int pending;
+
+    /**
+     * The time the first record of the current group started waiting, in nanoseconds
+     */
+    private long groupStart;
+
+    /**
+     * The sequence number of the last record that has been flushed by a group commit
+     */
+    private long durableSequence;
+
+    /**
+     * The generation of the current group, i.e. the number of group commits that have been started
+     */
+    private long generation;
+
+    /**
+     * The generation of the last group whose commit has failed, {@link Long#MAX_VALUE} if group commits have stopped
+     */
+    private long failedGeneration = -1;
+
+    /**
+     * The error of the last failed group commit
+     */
+    private IOException failure;
+
+    /**
+     * Whether the writer has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create a writer.
+     *
+     * @param journal          The journal to write to
+     * @param durability       The durability of the appended records
+     * @param groupSize        The number of records that completes a group (only used with {@link Durability#GROUP})
+     * @param groupDelayMicros The longest time the first record of a group waits for the group to complete, in
+     *                         microseconds (only used with {@link Durability#GROUP})
+     * @param forceInterval    The time between two flushes in milliseconds (only used with
+     *                         {@link Durability#PERIODIC})
+     * @throws NullPointerException     When {@code journal} or {@code durability} are {@code null}
+     * @throws IllegalArgumentException When the group size, group delay, or force interval are not positive
+     */
+    public JournalWriter(final SegmentedJournal journal, final Durability durability, final int groupSize,
+                         final long groupDelayMicros, final long forceInterval) {
+
+        Validate.notNull(journal, "The validated object 'journal' is null");
+        Validate.notNull(durability, "The validated object 'durability' is null");
+        Validate.isTrue(groupSize > 0, "The group size must be positive");
+        Validate.isTrue(groupDelayMicros > 0, "The group delay must be positive");
+        Validate.isTrue(forceInterval > 0, "The force interval must be positive");
+
+        this.journal = journal;
+        this.durability = durability;
+        this.groupSize = groupSize;
+        this.groupDelayNanos = TimeUnit.MICROSECONDS.toNanos(groupDelayMicros);
+        this.forceInterval = forceInterval;
+
+        if (durability == Durability.GROUP) {
+            flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    runGroupCommits();
+                }
+            }, "journal-group-commit");
+        } else if (durability == Durability.PERIODIC) {
+            flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    runPeriodicFlushes();
+                }
+            }, "journal-periodic-flush");
+        } else {
+            flusher = null;
+        }
+
+        if (flusher != null) {
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Append a record, and return when it is durable as specified by the durability of this writer.
+     *
+     * @param payload The payload of the record
+     * @return The sequence number of the record
+     * @throws NullPointerException     When {@code payload} is {@code null}
+     * @throws IllegalArgumentException When the payload does not fit into a segment
+     * @throws IOException              When the record cannot be written or flushed, or the writer has been closed
+     * @see SegmentedJournal#append(byte[])
+     */
+    public long append(final byte[] payload)
+            throws IOException {
+
+        Validate.notNull(payload, "The validated object 'payload' is null");
+
+        return append(payload, 0, payload.length);
+    }
+
+    /**
+     * Append a record, and return when it is durable as specified by the durability of this writer.
+     *
+     * @param payload The array that contains the payload of the record
+     * @param offset  The offset of the payload in the array
+     * @param length  The length of the payload
+     * @return The sequence number of the record
+     * @throws NullPointerException      When {@code payload} is {@code null}
+     * @throws IllegalArgumentException  When the payload does not fit into a segment
+     * @throws IndexOutOfBoundsException When the offset or length do not describe a range of the array
+     * @throws IOException               When the record cannot be written or flushed, or the writer has been closed
+     * @see SegmentedJournal#append(byte[], int, int)
+     */
+    public long append(final byte[] payload, final int offset, final int length)
+            throws IOException {
+
+        final long sequence = journal.append(payload, offset, length);
+
+        if (durability == Durability.SYNC) {
+            journal.force();
+            flushCount.incrementAndGet();
+        } else if (durability == Durability.GROUP) {
+            awaitGroupCommit(sequence);
+        }
+
+        return sequence;
+    }
+
+    /**
+     * @return The journal this writer appends to
+     */
+    public SegmentedJournal getJournal() {
+
+        return journal;
+    }
+
+    /**
+     * @return The durability of the appended records
+     */
+    public Durability getDurability() {
+
+        return durability;
+    }
+
+    /**
+     * @return The number of flushes this writer has issued
+     */
+    public long getFlushCount() {
+
+        return flushCount.get();
+    }
+
+    /**
+     * Stop the background thread, release the appends that wait for a group commit, and close the journal (which
+     * flushes the remaining records). Closing a closed writer has no effect.
+     *
+     * @throws IOException When the journal cannot be closed
+     */
+    @Override
+    public void close()
+            throws IOException {
+
+        synchronized (monitor) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            monitor.notifyAll();
+        }
+
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        journal.close();
+    }
+
+    /**
+     * Wait until a record has been flushed by a group commit.
+     *
+     * @param sequence The sequence number of the record
+     * @throws IOException When the group commit of the record fails, or the writer is closed while waiting
+     */
+    private void awaitGroupCommit(final long sequence)
+            throws IOException {
+
+        synchronized (monitor) {
+            if (durableSequence >= sequence) {
+                // a group commit that started after the append has already flushed the record
+                return;
+            }
+            if (closed) {
+                throw new IOException("The journal writer has been closed before the record has been flushed");
+            }
+
+            final long group = generation;
+            pending++;
+            if (pending == 1) {
+                // the group commit thread waits without a timeout while there is no group, it has to start the delay
+                groupStart = System.nanoTime();
+                monitor.notifyAll();
+            } else if (pending >= groupSize) {
+                monitor.notifyAll();
+            }
+
+            boolean interrupted = false;
+            while (durableSequence < sequence) {
+                if (failedGeneration >= group) {
+                    throw new IOException("The group commit has failed", failure);
+                }
+                // the group commit thread flushes the pending records before it stops, even if the writer is closed
+                try {
+                    monitor.wait();
+                } catch (InterruptedException e) {
+                    // the record has been written, the caller must learn whether it is durable
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Flush the journal whenever a group is complete, or the first record of a group has waited for the group delay.
+     * <p>
+     * A failed flush fails the appends of its group only: the appends of the next group wait for the next flush, which
+     * retries the flush of all records that have been written so far.
+     */
+    private void runGroupCommits() {
+
+        while (true) {
+            final long group;
+            synchronized (monitor) {
+                try {
+                    while (!closed && !isGroupDue()) {
+                        if (pending == 0) {
+                            monitor.wait();
+                        } else {
+                            final long remaining = groupDelayNanos - (System.nanoTime() - groupStart);
+                            TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("The group commit thread has been interrupted, stopping group commits", e);
+                    failure = new IOException("The group commit thread has been interrupted", e);
+                    failedGeneration = Long.MAX_VALUE;
+                    monitor.notifyAll();
+                    return;
+                }
+
+                if (closed && pending == 0) {
+                    return;
+                }
+                pending = 0;
+                group = generation++;
+            }
+
+            // flush without holding the lock, so that the next group can be appended in the meantime
+            long flushed = 0;
+            IOException error = null;
+            try {
+                flushed = journal.force();
+                flushCount.incrementAndGet();
+            } catch (IOException e) {
+                LOG.warn("The group commit has failed, the next group will be flushed again", e);
+                error = e;
+            } catch (RuntimeException e) {
+                // the storage device may report errors of a mapped buffer as unchecked exceptions
+                LOG.warn("The group commit has failed, the next group will be flushed again", e);
+                error = new IOException("The journal cannot be flushed", e);
+            }
+
+            synchronized (monitor) {
+                if (error == null) {
+                    durableSequence = Math.max(durableSequence, flushed);
+                } else {
+                    failedGeneration = group;
+                    failure = error;
+                }
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the current group is complete, or its first record has waited for the group delay
+     */
+    private boolean isGroupDue() {
+
+        return pending >= groupSize || (pending > 0 && System.nanoTime() - groupStart >= groupDelayNanos);
+    }
+
+    /**
+     * Flush the journal periodically until the writer is closed.
+     */
+    private void runPeriodicFlushes() {
+
+        while (true) {
+            synchronized (monitor) {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(forceInterval);
+                long remaining = deadline - System.nanoTime();
+                try {
+                    while (!closed && remaining > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                        remaining = deadline - System.nanoTime();
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("The periodic flush thread has been interrupted, stopping periodic flushes", e);
+                    return;
+                }
+
+                if (closed) {
+                    // closing the journal flushes the remaining records
+                    return;
+                }
+            }
+
+            try {
+                journal.force();
+                flushCount.incrementAndGet();
+            } catch (IOException e) {
+                LOG.warn("The periodic flush has failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed copy of a sealed segment of a {@link SegmentedJournal}, which replaces the segment file.
+ * <p>
+ * The records of the segment are compressed in blocks of about the configured block size, and every block starts and
+ * ends at a record boundary. A block index at the end of the archive maps the offsets the records had in the segment
+ * file to their blocks, so a single record can be read by decompressing only its block. As the offsets of the records
+ * do not change, a {@link SegmentReader} reads an archived segment the same way as a segment file, and offsets that
+ * have been recorded for a segment (e.g. in an index of the segment) remain valid after the segment has been archived.
+ * <p>
+ * The archive of a segment is stored next to the segment, with the name of the segment file followed by
+ * {@value #SUFFIX}. Its format is:
+ * <pre>
+ *   header (32 bytes):
+ *     4 bytes   marker ("JSGZ")
+ *     4 bytes   format version
+ *     8 bytes   sequence number of the first record in the segment
+ *     4 bytes   offset after the last record in the segment
+ *     4 bytes   number of blocks
+ *     8 bytes   position of the block index in the archive
+ *   blocks: the deflated bytes of the records, block after block
+ *   block index (24 bytes per block):
+ *     4 bytes   offset of the first record of the block in the segment
+ *     4 bytes   uncompressed length of the block
+ *     8 bytes   position of the deflated block in the archive
+ *     4 bytes   deflated length of the block
+ *     4 bytes   CRC32 of the uncompressed block
+ * </pre>
+ * An archive is written to a temporary file and renamed when it is complete, before the segment file is deleted. This
+ * class is <b>not</b> thread safe.
+ */
+public final class SegmentArchive {
+
+    /**
+     * The file name extension that is appended to the name of a segment file to name its archive
+     */
+    public static final String SUFFIX = ".z";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentArchive.class);
+
+    /**
+     * The marker at the start of every archive ("JSGZ")
+     */
+    private static final int MARKER = 0x4A53475A;
+
+    /**
+     * The version of the archive format
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The size of the archive header in bytes
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The size of a block index entry in bytes
+     */
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    /**
+     * The offset of the format version in the header
+     */
+    private static final int OFFSET_VERSION = 4;
+
+    /**
+     * The offset of the base sequence number in the header
+     */
+    private static final int OFFSET_BASE_SEQUENCE = 8;
+
+    /**
+     * The offset of the end of the records in the header
+     */
+    private static final int OFFSET_END = 16;
+
+    /**
+     * The offset of the number of blocks in the header
+     */
+    private static final int OFFSET_BLOCKS = 20;
+
+    /**
+     * The offset of the position of the block index in the header
+     */
+    private static final int OFFSET_INDEX = 24;
+
+    /**
+     * The file name extension of the temporary file an archive is written to
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The number of bytes a deflated block may exceed its uncompressed length by, in addition to 1/8 of that length
+     */
+    private static final int DEFLATE_OVERHEAD = 64;
+
+    /**
+     * The archive file
+     */
+    private final File file;
+
+    /**
+     * The mapped content of the archive file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The sequence number of the first record in the segment
+     */
+    private final long baseSequence;
+
+    /**
+     * The offsets of the first records of the blocks in the segment, in ascending order
+     */
+    private final int[] blockOffsets;
+
+    /**
+     * The uncompressed lengths of the blocks
+     */
+    private final int[] blockLengths;
+
+    /**
+     * The positions of the deflated blocks in the archive
+     */
+    private final long[] blockPositions;
+
+    /**
+     * The deflated lengths of the blocks
+     */
+    private final int[] deflatedLengths;
+
+    /**
+     * The CRC32s of the uncompressed blocks
+     */
+    private final int[] blockCrcs;
+
+    /**
+     * The decompressor
+     */
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * The CRC calculator
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Create an archive reader. Use {@link #open(File)} to obtain an instance.
+     *
+     * @param file   The archive file
+     * @param buffer The mapped content of the archive file, with a valid header and block index
+     */
+    private SegmentArchive(final File file, final ByteBuffer buffer) {
+
+        this.file = file;
+        this.buffer = buffer;
+        this.baseSequence = buffer.getLong(OFFSET_BASE_SEQUENCE);
+
+        final int blocks = buffer.getInt(OFFSET_BLOCKS);
+        final int index = (int) buffer.getLong(OFFSET_INDEX);
+        blockOffsets = new int[blocks];
+        blockLengths = new int[blocks];
+        blockPositions = new long[blocks];
+        deflatedLengths = new int[blocks];
+        blockCrcs = new int[blocks];
+        // CHECKSTYLE:OFF
+        // the layout of an index entry is easier to read with literal numbers
+        for (int i = 0; i < blocks; i++) {
+            final int entry = index + i * INDEX_ENTRY_SIZE;
+            blockOffsets[i] = buffer.getInt(entry);
+            blockLengths[i] = buffer.getInt(entry + 4);
+            blockPositions[i] = buffer.getLong(entry + 8);
+            deflatedLengths[i] = buffer.getInt(entry + 16);
+            blockCrcs[i] = buffer.getInt(entry + 20);
+        }
+        // CHECKSTYLE:ON
+    }
+
+    /**
+     * Compress a sealed segment into its archive, and delete the segment file.
+     * <p>
+     * The complete records at the beginning of the segment are archived; anything after them (such as the unused
+     * space at the end of the segment) is discarded.
+     *
+     * @param segment   The segment file, which must not be written to anymore
+     * @param blockSize The uncompressed size of a block in bytes (a record larger than the block size is stored in a
+     *                  block of its own)
+     * @param level     The compression level (see {@link Deflater})
+     * @return The archive file
+     * @throws NullPointerException     When {@code segment} is {@code null}
+     * @throws IllegalArgumentException When {@code blockSize} is not positive
+     * @throws IOException              When the segment cannot be read, or the archive cannot be written
+     */
+    public static File archive(final File segment, final int blockSize, final int level)
+            throws IOException {
+
+        Validate.notNull(segment, "The validated object 'segment' is null");
+        Validate.isTrue(blockSize > 0, "The block size must be positive");
+
+        final ByteBuffer source;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            source = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (!SegmentedJournal.hasValidHeader(source)) {
+            final String error = "The file '" + segment + "' is not a journal segment";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+
+        // cut the records into blocks at record boundaries
+        final List<int[]> blocks = new ArrayList<>();
+        final CRC32 readCrc = new CRC32();
+        final SegmentedJournal.Scratch scratch = new SegmentedJournal.Scratch();
+        final long base = SegmentedJournal.getBaseSequence(source);
+        int blockStart = SegmentedJournal.SEGMENT_HEADER_SIZE;
+        int position = blockStart;
+        long expected = base;
+        while (true) {
+            final int length = SegmentedJournal.checkRecord(source, position, source.capacity(), readCrc, scratch);
+            if (length < 0 || SegmentedJournal.getSequence(source, position) != expected) {
+                break;
+            }
+            final int size = SegmentedJournal.recordSize(length);
+            if (position > blockStart && position + size - blockStart > blockSize) {
+                blocks.add(new int[]{blockStart, position - blockStart});
+                blockStart = position;
+            }
+            position += size;
+            expected++;
+        }
+        if (position > blockStart) {
+            blocks.add(new int[]{blockStart, position - blockStart});
+        }
+
+        final File archive = archiveFile(segment);
+        final File temp = new File(archive.getParentFile(), archive.getName() + TEMP_SUFFIX);
+        write(source, base, position, blocks, level, temp);
+        Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(segment.toPath());
+
+        return archive;
+    }
+
+    /**
+     * Open an archive for reading.
+     *
+     * @param file The archive file
+     * @return The archive
+     * @throws NullPointerException When {@code file} is {@code null}
+     * @throws IOException          When the file cannot be read, or is not a valid archive
+     */
+    public static SegmentArchive open(final File file)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+
+        final ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        final long capacity = buffer.capacity();
+        if (capacity < HEADER_SIZE || buffer.getInt(0) != MARKER || buffer.getInt(OFFSET_VERSION) != FORMAT_VERSION
+                || buffer.getInt(OFFSET_BLOCKS) < 0 || buffer.getLong(OFFSET_INDEX) < HEADER_SIZE
+                || buffer.getLong(OFFSET_INDEX) + (long) buffer.getInt(OFFSET_BLOCKS) * INDEX_ENTRY_SIZE != capacity) {
+            final String error = "The file '" + file + "' is not a valid journal segment archive";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+
+        return new SegmentArchive(file, buffer);
+    }
+
+    /**
+     * @param segment A segment file
+     * @return The archive file of the segment
+     * @throws NullPointerException When {@code segment} is {@code null}
+     */
+    public static File archiveFile(final File segment) {
+
+        Validate.notNull(segment, "The validated object 'segment' is null");
+
+        return new File(segment.getParentFile(), segment.getName() + SUFFIX);
+    }
+
+    /**
+     * List the segments of a journal, whether they have been archived or not, without opening the journal.
+     * <p>
+     * Archived segments are listed with the name of their segment file, which can be passed to
+     * {@link SegmentReader#open(File)} like the name of a segment that has not been archived.
+     *
+     * @param directory The directory with the segment files
+     * @param prefix    The prefix of the segment file names
+     * @return The segments, ordered by the sequence numbers of their first records (the last segment is the one that
+     * is currently written to)
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty
+     * @see SegmentedJournal#listSegments(File, String)
+     */
+    public static List<File> listSegments(final File directory, final String prefix) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+
+        final File[] archives = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File candidate) {
+
+                final String name = candidate.getName();
+                return candidate.isFile() && name.endsWith(SUFFIX)
+                        && SegmentedJournal.isSegmentName(prefix, name.substring(0, name.length() - SUFFIX.length()));
+            }
+        });
+
+        final TreeSet<File> segments = new TreeSet<>(SegmentedJournal.listSegments(directory, prefix));
+        if (archives != null) {
+            for (final File archive : archives) {
+                final String name = archive.getName();
+                segments.add(new File(directory, name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+
+        // the sequence numbers in the names are zero padded, the lexical order is the numerical order
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * @return The archive file
+     */
+    public File getFile() {
+
+        return file;
+    }
+
+    /**
+     * @return The sequence number of the first record in the segment
+     */
+    public long getBaseSequence() {
+
+        return baseSequence;
+    }
+
+    /**
+     * @return The number of blocks in the archive
+     */
+    public int getBlockCount() {
+
+        return blockOffsets.length;
+    }
+
+    /**
+     * Find the block containing an offset of the segment.
+     *
+     * @param offset An offset of the segment
+     * @return The block, or -1 if the offset is not within a block
+     */
+    int findBlock(final int offset) {
+
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (blockOffsets[mid] > offset) {
+                high = mid - 1;
+            } else if (offset - blockOffsets[mid] >= blockLengths[mid]) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param block A block
+     * @return The offset of the first record of the block in the segment
+     */
+    int getBlockOffset(final int block) {
+
+        return blockOffsets[block];
+    }
+
+    /**
+     * @param block A block
+     * @return The uncompressed length of the block
+     */
+    int getBlockLength(final int block) {
+
+        return blockLengths[block];
+    }
+
+    /**
+     * Decompress a block.
+     *
+     * @param block  A block
+     * @param target The array to decompress the block into
+     * @param offset The position in the array at which to store the block
+     * @throws IOException When the block is corrupt
+     */
+    void readBlock(final int block, final byte[] target, final int offset)
+            throws IOException {
+
+        // private method asserts
+        assert target.length - offset >= blockLengths[block] : "The target is too small for the block";
+
+        final byte[] deflated = new byte[deflatedLengths[block]];
+        final ByteBuffer view = buffer.duplicate();
+        view.position((int) blockPositions[block]);
+        view.get(deflated);
+
+        inflater.reset();
+        inflater.setInput(deflated);
+        try {
+            int inflated = 0;
+            while (inflated < blockLengths[block] && !inflater.finished()) {
+                final int count = inflater.inflate(target, offset + inflated, blockLengths[block] - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != blockLengths[block]) {
+                throw new DataFormatException("The block is truncated");
+            }
+        } catch (DataFormatException e) {
+            final String error = "Block " + block + " of the archive '" + file + "' is corrupt";
+            LOG.warn(error, e);
+            throw new IOException(error, e);
+        }
+
+        crc.reset();
+        crc.update(target, offset, blockLengths[block]);
+        if ((int) crc.getValue() != blockCrcs[block]) {
+            final String error = "Block " + block + " of the archive '" + file + "' has an invalid CRC";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * Write an archive.
+     *
+     * @param source The mapped segment
+     * @param base   The sequence number of the first record in the segment
+     * @param end    The offset after the last record in the segment
+     * @param blocks The offsets and lengths of the blocks
+     * @param level  The compression level
+     * @param target The file to write the archive to
+     * @throws IOException When the archive cannot be written
+     */
+    private static void write(final ByteBuffer source, final long base, final int end, final List<int[]> blocks,
+                              final int level, final File target)
+            throws IOException {
+
+        // private method asserts
+        assert source != null : "The source cannot be null";
+        assert blocks != null : "The blocks cannot be null";
+        assert target != null : "The target cannot be null";
+
+        final ByteBuffer index = ByteBuffer.allocate(blocks.size() * INDEX_ENTRY_SIZE);
+        final Deflater deflater = new Deflater(level);
+        final CRC32 blockCrc = new CRC32();
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            raf.setLength(0);
+            final FileChannel channel = raf.getChannel();
+            long position = HEADER_SIZE;
+            byte[] input = new byte[0];
+            byte[] output = new byte[0];
+            for (final int[] block : blocks) {
+                if (input.length < block[1]) {
+                    input = new byte[block[1]];
+                    // deflating incompressible data may grow it slightly
+                    output = new byte[block[1] + block[1] / 8 + DEFLATE_OVERHEAD];
+                }
+                final ByteBuffer view = source.duplicate();
+                view.position(block[0]);
+                view.get(input, 0, block[1]);
+
+                deflater.reset();
+                deflater.setInput(input, 0, block[1]);
+                deflater.finish();
+                int deflated = 0;
+                while (!deflater.finished()) {
+                    if (deflated == output.length) {
+                        final byte[] larger = new byte[output.length * 2];
+                        System.arraycopy(output, 0, larger, 0, deflated);
+                        output = larger;
+                    }
+                    deflated += deflater.deflate(output, deflated, output.length - deflated);
+                }
+
+                blockCrc.reset();
+                blockCrc.update(input, 0, block[1]);
+                index.putInt(block[0]).putInt(block[1]).putLong(position).putInt(deflated)
+                        .putInt((int) blockCrc.getValue());
+                writeFully(channel, ByteBuffer.wrap(output, 0, deflated), position);
+                position += deflated;
+            }
+
+            index.flip();
+            writeFully(channel, index, position);
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MARKER).putInt(FORMAT_VERSION).putLong(base).putInt(end).putInt(blocks.size())
+                    .putLong(position);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write a buffer completely at a position of a file.
+     *
+     * @param channel  The file
+     * @param source   The buffer
+     * @param position The position
+     * @throws IOException When the buffer cannot be written
+     */
+    private static void writeFully(final FileChannel channel, final ByteBuffer source, final long position)
+            throws IOException {
+
+        long myPosition = position;
+        while (source.hasRemaining()) {
+            myPosition += channel.write(source, myPosition);
+        }
+    }
+}
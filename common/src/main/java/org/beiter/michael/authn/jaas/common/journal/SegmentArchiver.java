@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * A background thread that compresses the sealed segments of a {@link SegmentedJournal} into {@link SegmentArchive}s.
+ * <p>
+ * All segments but the last (i.e. the one that is currently written to) are sealed. The archiver checks for sealed
+ * segments in fixed intervals, and archives them one at a time. The thread runs at the lowest priority, so that on
+ * platforms that support thread priorities it does not compete with the threads writing the journal for CPU time.
+ * <p>
+ * Readers access archived segments transparently (see {@link SegmentReader} and
+ * {@link SegmentedJournal#read(long, RecordHandler)}). This class is thread safe.
+ */
+public final class SegmentArchiver
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentArchiver.class);
+
+    /**
+     * The directory with the segment files
+     */
+    private final File directory;
+
+    /**
+     * The prefix of the segment file names
+     */
+    private final String prefix;
+
+    /**
+     * The uncompressed size of a block in bytes
+     */
+    private final int blockSize;
+
+    /**
+     * The time between two checks for sealed segments, in milliseconds
+     */
+    private final long interval;
+
+    /**
+     * The background thread
+     */
+    private final Thread archiver;
+
+    /**
+     * The lock the background thread waits on between checks
+     */
+    private final Object wakeup = new Object();
+
+    /**
+     * {@code true} when the archiver has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create an archiver, and start its background thread.
+     *
+     * @param directory The directory with the segment files
+     * @param prefix    The prefix of the segment file names
+     * @param blockSize The uncompressed size of a block in bytes
+     * @param interval  The time between two checks for sealed segments, in milliseconds
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty, or {@code blockSize} or {@code interval} are not
+     *                                  positive
+     */
+    public SegmentArchiver(final File directory, final String prefix, final int blockSize, final long interval) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+        Validate.isTrue(blockSize > 0, "The block size must be positive");
+        Validate.isTrue(interval > 0, "The interval must be positive");
+
+        this.directory = directory;
+        // no need for defensive copies of String
+        this.prefix = prefix;
+        this.blockSize = blockSize;
+        this.interval = interval;
+
+        archiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                runArchiving();
+            }
+        }, "journal-archiver");
+        archiver.setDaemon(true);
+        archiver.setPriority(Thread.MIN_PRIORITY);
+        archiver.start();
+    }
+
+    /**
+     * Archive the sealed segments that have not been archived yet.
+     * <p>
+     * This is done by the background thread in fixed intervals, but can also be called directly.
+     *
+     * @return The number of segments that have been archived
+     * @throws IOException When a segment cannot be archived
+     */
+    public synchronized int archiveSealed()
+            throws IOException {
+
+        final List<File> segments = SegmentedJournal.listSegments(directory, prefix);
+        int archived = 0;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            final File segment = segments.get(i);
+            if (SegmentArchive.archiveFile(segment).isFile()) {
+                // archiving has been interrupted after the archive had been completed
+                Files.deleteIfExists(segment.toPath());
+                continue;
+            }
+
+            SegmentArchive.archive(segment, blockSize, Deflater.DEFAULT_COMPRESSION);
+            archived++;
+        }
+
+        return archived;
+    }
+
+    /**
+     * Stop the background thread. Archiving a segment that is in progress is completed first.
+     */
+    @Override
+    public void close() {
+
+        // the thread is woken up rather than interrupted, because an interrupt closes the file channels it writes to
+        synchronized (wakeup) {
+            closed = true;
+            wakeup.notifyAll();
+        }
+
+        try {
+            archiver.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the archiver of the journal '" + directory + "' to stop", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Archive the sealed segments in fixed intervals, until the archiver is closed.
+     */
+    private void runArchiving() {
+
+        while (true) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            synchronized (wakeup) {
+                long remaining = deadline - System.nanoTime();
+                while (!closed && remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(wakeup, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+                if (closed) {
+                    return;
+                }
+            }
+
+            try {
+                archiveSealed();
+            } catch (IOException | RuntimeException e) {
+                // the segment is archived with the next check
+                LOG.warn("Cannot archive the sealed segments of the journal '" + directory + "'", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only view of a single segment file of a {@link SegmentedJournal}, with random access to its records by their
+ * offset in the file.
+ * <p>
+ * Segments that have been archived (see {@link SegmentArchive}) are read transparently: the records keep their
+ * offsets, and only the blocks of the archive that contain the requested records are decompressed.
+ * <p>
+ * A segment reader does not lock the journal directory, so segments can be read while another process appends to the
+ * journal. Records are only passed on when they are complete (i.e. have a valid marker and a matching CRC), which
+ * excludes records that are being written while the segment is read.
+ * <p>
+ * This class is <b>not</b> thread safe. The mapping of the segment file is released when the reader is garbage
+ * collected.
+ */
+public final class SegmentReader {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentReader.class);
+
+    /**
+     * The segment file
+     */
+    private final File file;
+
+    /**
+     * The archive of the segment, or {@code null} if the segment has not been archived
+     */
+    private final SegmentArchive archive;
+
+    /**
+     * The part of the segment that is currently accessible: the mapped segment file, or a decompressed block of the
+     * archive (preceded by a gap of the size of the segment header, so that records are never at the start)
+     */
+    private ByteBuffer window;
+
+    /**
+     * The offset in the segment that corresponds to position 0 of the window
+     */
+    private int windowOffset;
+
+    /**
+     * The offset in the segment at which the records of the window start
+     */
+    private int windowStart;
+
+    /**
+     * The offset in the segment at which the window ends
+     */
+    private int windowEnd;
+
+    /**
+     * The sequence number of the first record in the segment
+     */
+    private final long baseSequence;
+
+    /**
+     * The CRC calculator
+     */
+    private final CRC32 readCrc = new CRC32();
+
+    /**
+     * The scratch buffer for computing CRCs
+     */
+    private final SegmentedJournal.Scratch scratch = new SegmentedJournal.Scratch();
+
+    /**
+     * Create a segment reader. Use {@link #open(File)} to obtain an instance.
+     *
+     * @param file   The segment file
+     * @param buffer The mapped content of the segment file
+     */
+    private SegmentReader(final File file, final ByteBuffer buffer) {
+
+        this.file = file;
+        this.archive = null;
+        this.baseSequence = SegmentedJournal.getBaseSequence(buffer);
+        this.window = buffer;
+        this.windowOffset = 0;
+        this.windowStart = 0;
+        this.windowEnd = buffer.capacity();
+    }
+
+    /**
+     * Create a reader of an archived segment. Use {@link #open(File)} to obtain an instance.
+     *
+     * @param file    The segment file
+     * @param archive The archive of the segment
+     */
+    private SegmentReader(final File file, final SegmentArchive archive) {
+
+        this.file = file;
+        this.archive = archive;
+        this.baseSequence = archive.getBaseSequence();
+        // no block has been decompressed yet
+        this.window = ByteBuffer.allocate(0);
+        this.windowOffset = 0;
+        this.windowStart = 0;
+        this.windowEnd = 0;
+    }
+
+    /**
+     * Open a segment file for reading. If the segment file does not exist, but the segment has been archived, the
+     * archive is opened instead.
+     *
+     * @param file The segment file (see {@link SegmentedJournal#getSegments()} and
+     *             {@link SegmentArchive#listSegments(File, String)})
+     * @return The segment reader
+     * @throws NullPointerException When {@code file} is {@code null}
+     * @throws IOException          When the file cannot be read, or is not a segment file
+     */
+    public static SegmentReader open(final File file)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+
+        if (!file.isFile()) {
+            final File archiveFile = SegmentArchive.archiveFile(file);
+            if (archiveFile.isFile()) {
+                return new SegmentReader(file, SegmentArchive.open(archiveFile));
+            }
+        }
+
+        final ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        if (!SegmentedJournal.hasValidHeader(buffer)) {
+            final String error = "The file '" + file + "' is not a journal segment";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+
+        return new SegmentReader(file, buffer);
+    }
+
+    /**
+     * @return The segment file (also for an archived segment, whose segment file does not exist anymore)
+     */
+    public File getFile() {
+
+        return file;
+    }
+
+    /**
+     * @return {@code true} if the segment has been archived
+     */
+    public boolean isArchived() {
+
+        return archive != null;
+    }
+
+    /**
+     * @return The sequence number of the first record in the segment
+     */
+    public long getBaseSequence() {
+
+        return baseSequence;
+    }
+
+    /**
+     * @return The offset of the first record in a segment file
+     */
+    public static int getFirstOffset() {
+
+        return SegmentedJournal.SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Read the complete records of the segment in the order of their sequence numbers, starting with the record at
+     * an offset and stopping before an offset (or at the first incomplete record).
+     *
+     * @param fromOffset The offset of the first record to read (e.g. {@link #getFirstOffset()}, or an offset that has
+     *                   been passed to a {@link RecordLocator} before)
+     * @param toOffset   The offset at which to stop reading, e.g. {@link Integer#MAX_VALUE} to read to the end
+     * @param locator    The callback that receives the records
+     * @return The offset after the last record that has been read
+     * @throws NullPointerException When {@code locator} is {@code null}
+     */
+    public int scan(final int fromOffset, final int toOffset, final RecordLocator locator) {
+
+        Validate.notNull(locator, "The validated object 'locator' is null");
+
+        int position = fromOffset;
+        long expected = -1;
+        while (position < toOffset && moveTo(position)) {
+            final int relative = position - windowOffset;
+            final int length = SegmentedJournal.checkRecord(window, relative, windowEnd - windowOffset, readCrc,
+                    scratch);
+            if (length < 0) {
+                break;
+            }
+
+            final long sequence = SegmentedJournal.getSequence(window, relative);
+            if (expected >= 0 && sequence != expected) {
+                break;
+            }
+
+            final ByteBuffer view = window.duplicate();
+            view.position(relative + SegmentedJournal.RECORD_HEADER_SIZE);
+            view.limit(relative + SegmentedJournal.RECORD_HEADER_SIZE + length);
+            final int offset = position;
+            position += SegmentedJournal.recordSize(length);
+            expected = sequence + 1;
+            if (!locator.onRecord(sequence, SegmentedJournal.getTimestamp(window, relative), offset,
+                    view.asReadOnlyBuffer())) {
+                break;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Read the record at an offset.
+     *
+     * @param offset  The offset of the record, as passed to a {@link RecordLocator}
+     * @param handler The handler that receives the record
+     * @return {@code true} if there is a complete record at the offset, which has been passed to the handler
+     * @throws NullPointerException When {@code handler} is {@code null}
+     */
+    public boolean read(final int offset, final RecordHandler handler) {
+
+        Validate.notNull(handler, "The validated object 'handler' is null");
+
+        if (!moveTo(offset)) {
+            return false;
+        }
+
+        final int relative = offset - windowOffset;
+        final int length = SegmentedJournal.checkRecord(window, relative, windowEnd - windowOffset, readCrc, scratch);
+        if (length < 0) {
+            return false;
+        }
+
+        final ByteBuffer view = window.duplicate();
+        view.position(relative + SegmentedJournal.RECORD_HEADER_SIZE);
+        view.limit(relative + SegmentedJournal.RECORD_HEADER_SIZE + length);
+        handler.onRecord(SegmentedJournal.getSequence(window, relative),
+                SegmentedJournal.getTimestamp(window, relative), view.asReadOnlyBuffer());
+
+        return true;
+    }
+
+    /**
+     * Make the part of the segment containing an offset accessible, decompressing its block if the segment has been
+     * archived.
+     *
+     * @param offset An offset of the segment
+     * @return {@code true} if the window contains the offset, {@code false} if there is no record at the offset
+     */
+    private boolean moveTo(final int offset) {
+
+        if (archive == null || offset >= windowStart && offset < windowEnd) {
+            return true;
+        }
+
+        final int block = archive.findBlock(offset);
+        if (block < 0) {
+            return false;
+        }
+
+        final int blockOffset = archive.getBlockOffset(block);
+        final int blockLength = archive.getBlockLength(block);
+        final byte[] bytes = new byte[SegmentedJournal.SEGMENT_HEADER_SIZE + blockLength];
+        try {
+            archive.readBlock(block, bytes, SegmentedJournal.SEGMENT_HEADER_SIZE);
+        } catch (IOException e) {
+            LOG.warn("Cannot read the records at offset " + offset + " of the archived segment '" + file + "'", e);
+            return false;
+        }
+
+        window = ByteBuffer.wrap(bytes);
+        windowOffset = blockOffset - SegmentedJournal.SEGMENT_HEADER_SIZE;
+        windowStart = blockOffset;
+        windowEnd = blockOffset + blockLength;
+        return true;
+    }
+}
@@ -0,0 +1,1068 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of binary records, stored in a directory of memory-mapped, pre-allocated segment files.
+ * <p>
+ * Every record gets a sequence number (starting with 1, without gaps) and a timestamp, and is written with a fixed
+ * layout:
+ * <pre>
+ *   offset  length  content
+ *        0       4  record marker
+ *        4       4  payload length
+ *        8       8  sequence number
+ *       16       8  timestamp (milliseconds since the epoch)
+ *       24       4  CRC32 over the payload length, sequence number, timestamp, and payload
+ *       28       4  reserved
+ *       32       n  payload
+ * </pre>
+ * Records are aligned to 8 bytes. Every segment file starts with a 32 byte header (marker, format version, sequence
+ * number of the first record, and creation time), and is named after the sequence number of its first record.
+ * <p>
+ * Segment files are created with their full size and mapped into memory, so appending a record is a memory copy and
+ * never grows a file. A new segment is started when a record does not fit into the current segment, or when the
+ * current segment is older than the configured roll interval.
+ * <p>
+ * The marker of a record is written last. When the journal is opened, the last segment is scanned, and the journal
+ * continues after the last complete record (i.e. a record with a valid marker, the expected sequence number, and a
+ * matching CRC). A record that has been torn by a crash is discarded.
+ * <p>
+ * Records written to the journal survive a crash of the process as soon as {@code append()} returns, because the
+ * operating system writes the mapped pages back to disk. To survive a crash of the operating system or a power loss,
+ * the records have to be flushed with {@link #force()}. Segments are flushed when they are rolled, and when the
+ * journal is closed.
+ * <p>
+ * A journal directory can be opened by only one journal at a time, which is enforced with a lock file. This class is
+ * thread safe.
+ */
+public final class SegmentedJournal
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedJournal.class);
+
+    /**
+     * The size of the segment header in bytes
+     */
+    public static final int SEGMENT_HEADER_SIZE = 32;
+
+    /**
+     * The size of the record header in bytes
+     */
+    public static final int RECORD_HEADER_SIZE = 32;
+
+    /**
+     * The marker at the start of every segment ("JSEG")
+     */
+    private static final int SEGMENT_MARKER = 0x4A534547;
+
+    /**
+     * The marker at the start of every record ("JREC")
+     */
+    private static final int RECORD_MARKER = 0x4A524543;
+
+    /**
+     * The version of the segment format
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The alignment of the records in bytes
+     */
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * The offset of the payload length in the record header
+     */
+    private static final int OFFSET_LENGTH = 4;
+
+    /**
+     * The offset of the sequence number in the record header
+     */
+    private static final int OFFSET_SEQUENCE = 8;
+
+    /**
+     * The offset of the timestamp in the record header
+     */
+    private static final int OFFSET_TIMESTAMP = 16;
+
+    /**
+     * The offset of the CRC in the record header
+     */
+    private static final int OFFSET_CRC = 24;
+
+    /**
+     * The offset of the reserved field in the record header
+     */
+    private static final int OFFSET_RESERVED = 28;
+
+    /**
+     * The number of header bytes covered by the CRC (payload length, sequence number, and timestamp)
+     */
+    private static final int CRC_HEADER_LENGTH = OFFSET_CRC - OFFSET_LENGTH;
+
+    /**
+     * The offset of the segment format version in the segment header
+     */
+    private static final int OFFSET_VERSION = 4;
+
+    /**
+     * The offset of the first sequence number in the segment header
+     */
+    private static final int OFFSET_BASE_SEQUENCE = 8;
+
+    /**
+     * The offset of the creation time in the segment header
+     */
+    private static final int OFFSET_CREATED = 16;
+
+    /**
+     * The number of digits of the sequence number in the segment file names
+     */
+    private static final int NAME_DIGITS = 20;
+
+    /**
+     * The file name extension of the segment files
+     */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * The file name extension of the lock file
+     */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * The directory with the segment files
+     */
+    private final File directory;
+
+    /**
+     * The prefix of the segment file names
+     */
+    private final String prefix;
+
+    /**
+     * The size of a segment file in bytes
+     */
+    private final int segmentSize;
+
+    /**
+     * The maximum age of a segment in milliseconds before a new segment is started
+     */
+    private final long rollInterval;
+
+    /**
+     * The CRC calculator used by the writer
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * A scratch buffer for the header fields covered by the CRC
+     */
+    private final byte[] crcHeader = new byte[CRC_HEADER_LENGTH];
+
+    /**
+     * The channel of the lock file
+     */
+    private FileChannel lockChannel;
+
+    /**
+     * The lock that protects the directory from being used by another journal
+     */
+    private FileLock lock;
+
+    /**
+     * The segment that is currently written to
+     */
+    private Segment current;
+
+    /**
+     * The sequence number of the next record
+     */
+    private long nextSequence;
+
+    /**
+     * Whether the journal has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create a journal. Use {@link #open(File, String, int, long)} to obtain an instance.
+     *
+     * @param directory    The directory with the segment files
+     * @param prefix       The prefix of the segment file names
+     * @param segmentSize  The size of a segment file in bytes
+     * @param rollInterval The maximum age of a segment in milliseconds
+     */
+    private SegmentedJournal(final File directory, final String prefix, final int segmentSize,
+                             final long rollInterval) {
+
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.rollInterval = rollInterval;
+    }
+
+    /**
+     * Open a journal in a directory, creating the directory if it does not exist, and recovering the records that
+     * have been written before.
+     *
+     * @param directory    The directory with the segment files
+     * @param prefix       The prefix of the segment file names (e.g. "audit")
+     * @param segmentSize  The size of a new segment file in bytes
+     * @param rollInterval The maximum age of a segment in milliseconds before a new segment is started, or 0 to only
+     *                     start new segments when a segment is full
+     * @return The journal
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty, the segment size is too small to hold a record,
+     *                                  or the roll interval is negative
+     * @throws IOException              When the directory cannot be created, is in use by another journal, or the
+     *                                  segment files cannot be read or written
+     */
+    public static SegmentedJournal open(final File directory, final String prefix, final int segmentSize,
+                                        final long rollInterval)
+            throws IOException {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+        Validate.isTrue(segmentSize > SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE,
+                "The segment size must be larger than %d bytes", SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE);
+        Validate.isTrue(rollInterval >= 0, "The roll interval must not be negative");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            final String error = "Cannot create the journal directory '" + directory + "'";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+
+        final SegmentedJournal journal = new SegmentedJournal(directory, prefix, segmentSize, rollInterval);
+        journal.lock();
+        try {
+            journal.recover();
+        } catch (IOException | RuntimeException e) {
+            journal.unlock();
+            throw e;
+        }
+
+        return journal;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param payload The payload of the record
+     * @return The sequence number of the record
+     * @throws NullPointerException     When {@code payload} is {@code null}
+     * @throws IllegalArgumentException When the payload does not fit into a segment
+     * @throws IOException              When the journal has been closed, or a new segment cannot be created
+     */
+    public long append(final byte[] payload)
+            throws IOException {
+
+        Validate.notNull(payload, "The validated object 'payload' is null");
+
+        return append(payload, 0, payload.length);
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param payload The array that contains the payload of the record
+     * @param offset  The offset of the payload in the array
+     * @param length  The length of the payload
+     * @return The sequence number of the record
+     * @throws NullPointerException      When {@code payload} is {@code null}
+     * @throws IllegalArgumentException  When the payload does not fit into a segment
+     * @throws IndexOutOfBoundsException When the offset or length do not describe a range of the array
+     * @throws IOException               When the journal has been closed, or a new segment cannot be created
+     */
+    public synchronized long append(final byte[] payload, final int offset, final int length)
+            throws IOException {
+
+        Validate.notNull(payload, "The validated object 'payload' is null");
+        if (offset < 0 || length < 0 || offset + length > payload.length) {
+            throw new IndexOutOfBoundsException("The payload range is outside of the array");
+        }
+        Validate.isTrue(length <= getMaxPayloadLength(),
+                "The payload length must not exceed %d bytes", getMaxPayloadLength());
+        ensureOpen();
+
+        final int recordSize = align(RECORD_HEADER_SIZE + length);
+        final long now = System.currentTimeMillis();
+        if (current.buffer.position() + recordSize > current.buffer.capacity()
+                || (rollInterval > 0 && now - current.created >= rollInterval
+                && current.buffer.position() > SEGMENT_HEADER_SIZE)) {
+            roll(now);
+        }
+
+        final long sequence = nextSequence;
+        final ByteBuffer header = ByteBuffer.wrap(crcHeader);
+        header.putInt(length).putLong(sequence).putLong(now);
+        crc.reset();
+        crc.update(crcHeader, 0, CRC_HEADER_LENGTH);
+        crc.update(payload, offset, length);
+
+        // write everything but the marker first: a record without a marker is ignored when the journal is recovered
+        final MappedByteBuffer buffer = current.buffer;
+        final int start = buffer.position();
+        buffer.putInt(start + OFFSET_LENGTH, length);
+        buffer.putLong(start + OFFSET_SEQUENCE, sequence);
+        buffer.putLong(start + OFFSET_TIMESTAMP, now);
+        buffer.putInt(start + OFFSET_CRC, (int) crc.getValue());
+        buffer.putInt(start + OFFSET_RESERVED, 0);
+        buffer.position(start + RECORD_HEADER_SIZE);
+        buffer.put(payload, offset, length);
+        buffer.putInt(start, RECORD_MARKER);
+        buffer.position(start + recordSize);
+
+        nextSequence++;
+        return sequence;
+    }
+
+    /**
+     * Flush the records of the current segment to the storage device.
+     * <p>
+     * The flush does not block concurrent appends. Records that are appended while the flush is running may or may not
+     * be flushed with it.
+     *
+     * @return The sequence number of the last record that is guaranteed to have been flushed (all records of the
+     * previous segments have been flushed when the segments were rolled)
+     * @throws IOException When the journal has been closed
+     */
+    public long force()
+            throws IOException {
+
+        final MappedByteBuffer buffer;
+        final long lastSequence;
+        synchronized (this) {
+            ensureOpen();
+            buffer = current.buffer;
+            lastSequence = nextSequence - 1;
+        }
+
+        // a concurrent roll flushes this segment as well, so it does not matter if it is no longer current
+        buffer.force();
+        return lastSequence;
+    }
+
+    /**
+     * Read the records of the journal in the order of their sequence numbers.
+     * <p>
+     * The records that are appended while this method is running may or may not be passed to the handler. Segments
+     * that have been archived (see {@link SegmentArchive}) are read as well.
+     *
+     * @param fromSequence The sequence number of the first record to read
+     * @param handler      The handler that receives the records
+     * @throws NullPointerException When {@code handler} is {@code null}
+     * @throws IOException          When the journal has been closed, or a segment file cannot be read
+     */
+    public void read(final long fromSequence, final RecordHandler handler)
+            throws IOException {
+
+        Validate.notNull(handler, "The validated object 'handler' is null");
+
+        // take a snapshot of the segments, and of the written part of the current segment
+        final List<File> files;
+        final File currentFile;
+        final ByteBuffer currentBuffer;
+        final int currentLimit;
+        final long currentBase;
+        synchronized (this) {
+            ensureOpen();
+            files = SegmentArchive.listSegments(directory, prefix);
+            currentFile = current.file;
+            currentBuffer = current.buffer.duplicate();
+            currentLimit = current.buffer.position();
+            currentBase = current.baseSequence;
+        }
+
+        final CRC32 readCrc = new CRC32();
+        final Scratch scratch = new Scratch();
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            if (file.equals(currentFile)) {
+                scan(currentBuffer.asReadOnlyBuffer(), currentLimit, currentBase, fromSequence, handler, readCrc,
+                        scratch);
+                return;
+            }
+
+            // skip segments that end before the first requested record
+            if (i + 1 < files.size() && parseBaseSequence(files.get(i + 1)) <= fromSequence) {
+                continue;
+            }
+
+            if (!file.isFile()) {
+                // the segment has been archived
+                if (!readArchived(file, fromSequence, handler)) {
+                    return;
+                }
+                continue;
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (!hasValidHeader(buffer)) {
+                    LOG.warn("Skipping segment '" + file + "' with an invalid header");
+                    continue;
+                }
+                final long base = buffer.getLong(OFFSET_BASE_SEQUENCE);
+                if (scan(buffer, buffer.capacity(), base, fromSequence, handler, readCrc, scratch) < 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the records of an archived segment.
+     *
+     * @param file         The segment file
+     * @param fromSequence The sequence number of the first record to read
+     * @param handler      The handler that receives the records
+     * @return {@code false} if the handler has stopped the reading
+     * @throws IOException When the archive cannot be read
+     */
+    private static boolean readArchived(final File file, final long fromSequence, final RecordHandler handler)
+            throws IOException {
+
+        // private method asserts
+        assert file != null : "The file cannot be null";
+        assert handler != null : "The handler cannot be null";
+
+        final boolean[] stopped = {false};
+        SegmentReader.open(file).scan(SEGMENT_HEADER_SIZE, Integer.MAX_VALUE, new RecordLocator() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                    final ByteBuffer payload) {
+
+                if (sequence < fromSequence || handler.onRecord(sequence, timestamp, payload)) {
+                    return true;
+                }
+                stopped[0] = true;
+                return false;
+            }
+        });
+
+        return !stopped[0];
+    }
+
+    /**
+     * @return The sequence number that will be assigned to the next record
+     */
+    public synchronized long getNextSequence() {
+
+        return nextSequence;
+    }
+
+    /**
+     * @return The largest payload that fits into a segment, in bytes
+     */
+    public int getMaxPayloadLength() {
+
+        return segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * @return The segment files of this journal, ordered by the sequence numbers of their first records
+     */
+    public synchronized List<File> getSegments() {
+
+        return listSegments();
+    }
+
+    /**
+     * Flush the current segment and close the journal. Closing a closed journal has no effect.
+     *
+     * @throws IOException When the lock on the journal directory cannot be released
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public synchronized void close()
+            throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        current.buffer.force();
+        // the mapping is released when the buffer is garbage collected
+        current = null;
+        unlock();
+    }
+
+    /**
+     * Lock the journal directory.
+     *
+     * @throws IOException When the directory is in use by another journal, or the lock file cannot be created
+     */
+    private void lock()
+            throws IOException {
+
+        final File lockFile = new File(directory, prefix + LOCK_SUFFIX);
+        lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+
+        if (lock == null) {
+            lockChannel.close();
+            final String error = "The journal directory '" + directory + "' is in use by another journal";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * Release the lock on the journal directory.
+     *
+     * @throws IOException When the lock cannot be released
+     */
+    private void unlock()
+            throws IOException {
+
+        try {
+            lock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Open the last segment and position the journal after its last complete record, or create the first segment if
+     * the directory does not contain any segments.
+     *
+     * @throws IOException When a segment file cannot be read or written
+     */
+    private void recover()
+            throws IOException {
+
+        final List<File> files = listSegments();
+        if (files.isEmpty()) {
+            nextSequence = 1;
+            current = createSegment(nextSequence, System.currentTimeMillis());
+            return;
+        }
+
+        final File file = files.get(files.size() - 1);
+        final long fileBase = parseBaseSequence(file);
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+                // the segment file has been created, but not pre-allocated before a crash
+                raf.setLength(segmentSize);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+
+        if (!hasValidHeader(buffer)
+                || buffer.getLong(OFFSET_BASE_SEQUENCE) != fileBase) {
+            // the segment has been created, but the header has not been written before a crash
+            LOG.warn("The segment '" + file + "' has an invalid header, discarding its content");
+            zero(buffer, 0, buffer.capacity());
+            writeHeader(buffer, fileBase, System.currentTimeMillis());
+        }
+
+        final long[] last = {fileBase - 1};
+        final RecordHandler counter = new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                last[0] = sequence;
+                return true;
+            }
+        };
+        final int end = scan(buffer, buffer.capacity(), fileBase, fileBase, counter, new CRC32(), new Scratch());
+
+        // wipe what is left of a torn record, so that it cannot be mistaken for a record later
+        final int torn = tornLength(buffer, end);
+        if (torn > 0) {
+            LOG.warn("Discarding an incomplete record at offset " + end + " of segment '" + file + "'");
+            zero(buffer, end, torn);
+            buffer.force();
+        }
+
+        buffer.position(end);
+        current = new Segment(file, buffer, fileBase, buffer.getLong(OFFSET_CREATED));
+        nextSequence = last[0] + 1;
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Opened journal '" + directory + "' with " + files.size() + " segment(s), next sequence number is "
+                    + nextSequence);
+        }
+    }
+
+    /**
+     * Flush the current segment and start a new segment with the next sequence number.
+     *
+     * @param now The current time in milliseconds since the epoch
+     * @throws IOException When the new segment cannot be created
+     */
+    private void roll(final long now)
+            throws IOException {
+
+        current.buffer.force();
+        current = createSegment(nextSequence, now);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Started new journal segment '" + current.file + "'");
+        }
+    }
+
+    /**
+     * Create, pre-allocate, and map a new segment file.
+     *
+     * @param baseSequence The sequence number of the first record in the segment
+     * @param created      The creation time in milliseconds since the epoch
+     * @return The segment
+     * @throws IOException When the segment file cannot be created
+     */
+    private Segment createSegment(final long baseSequence, final long created)
+            throws IOException {
+
+        final File file = new File(directory, segmentName(baseSequence));
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        writeHeader(buffer, baseSequence, created);
+        buffer.force();
+        buffer.position(SEGMENT_HEADER_SIZE);
+
+        return new Segment(file, buffer, baseSequence, created);
+    }
+
+    /**
+     * Scan the records of a segment.
+     *
+     * @param buffer       The segment
+     * @param limit        The end of the area to scan
+     * @param baseSequence The sequence number of the first record in the segment
+     * @param fromSequence The sequence number of the first record to pass to the handler
+     * @param handler      The handler that receives the records
+     * @param readCrc      The CRC calculator
+     * @param scratch      The scratch buffer for computing the CRC
+     * @return The offset after the last complete record, or -1 if the handler has requested to stop reading
+     */
+    private static int scan(final ByteBuffer buffer, final int limit, final long baseSequence,
+                            final long fromSequence, final RecordHandler handler, final CRC32 readCrc,
+                            final Scratch scratch) {
+
+        // private method asserts
+        assert buffer != null : "The buffer cannot be null";
+        assert handler != null : "The handler cannot be null";
+
+        int position = SEGMENT_HEADER_SIZE;
+        long expected = baseSequence;
+        while (true) {
+            final int length = checkRecord(buffer, position, limit, readCrc, scratch);
+            if (length < 0 || buffer.getLong(position + OFFSET_SEQUENCE) != expected) {
+                break;
+            }
+
+            if (expected >= fromSequence) {
+                final ByteBuffer view = buffer.duplicate();
+                view.position(position + RECORD_HEADER_SIZE);
+                view.limit(position + RECORD_HEADER_SIZE + length);
+                if (!handler.onRecord(expected, buffer.getLong(position + OFFSET_TIMESTAMP),
+                        view.asReadOnlyBuffer())) {
+                    return -1;
+                }
+            }
+
+            position += recordSize(length);
+            expected++;
+        }
+
+        return position;
+    }
+
+    /**
+     * Check whether there is a complete record (i.e. a record with a valid marker, length, and CRC) at an offset of a
+     * segment.
+     *
+     * @param buffer   The segment
+     * @param position The offset of the record
+     * @param limit    The end of the area that may contain records
+     * @param readCrc  The CRC calculator
+     * @param scratch  The scratch buffer for computing the CRC
+     * @return The length of the payload of the record, or -1 if there is no complete record at the offset
+     */
+    static int checkRecord(final ByteBuffer buffer, final int position, final int limit, final CRC32 readCrc,
+                           final Scratch scratch) {
+
+        // private method asserts
+        assert buffer != null : "The buffer cannot be null";
+
+        if (position < SEGMENT_HEADER_SIZE || position + RECORD_HEADER_SIZE > limit
+                || buffer.getInt(position) != RECORD_MARKER) {
+            return -1;
+        }
+
+        final int length = buffer.getInt(position + OFFSET_LENGTH);
+        if (length < 0 || length > limit - position - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+
+        final byte[] bytes = scratch.get(CRC_HEADER_LENGTH + length);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position + OFFSET_LENGTH);
+        view.get(bytes, 0, CRC_HEADER_LENGTH);
+        view.position(position + RECORD_HEADER_SIZE);
+        view.get(bytes, CRC_HEADER_LENGTH, length);
+        readCrc.reset();
+        readCrc.update(bytes, 0, CRC_HEADER_LENGTH + length);
+        if ((int) readCrc.getValue() != buffer.getInt(position + OFFSET_CRC)) {
+            return -1;
+        }
+
+        return length;
+    }
+
+    /**
+     * @param buffer   The segment
+     * @param position The offset of a complete record
+     * @return The sequence number of the record
+     */
+    static long getSequence(final ByteBuffer buffer, final int position) {
+
+        return buffer.getLong(position + OFFSET_SEQUENCE);
+    }
+
+    /**
+     * @param buffer   The segment
+     * @param position The offset of a complete record
+     * @return The timestamp of the record
+     */
+    static long getTimestamp(final ByteBuffer buffer, final int position) {
+
+        return buffer.getLong(position + OFFSET_TIMESTAMP);
+    }
+
+    /**
+     * @param length The length of the payload of a record
+     * @return The size of the record in the segment, including its header and alignment
+     */
+    static int recordSize(final int length) {
+
+        return align(RECORD_HEADER_SIZE + length);
+    }
+
+    /**
+     * @param buffer The segment
+     * @return The sequence number of the first record in the segment, as recorded in its header
+     */
+    static long getBaseSequence(final ByteBuffer buffer) {
+
+        return buffer.getLong(OFFSET_BASE_SEQUENCE);
+    }
+
+    /**
+     * Determine the extent of an incomplete record.
+     *
+     * @param buffer   The segment
+     * @param position The offset after the last complete record
+     * @return The number of bytes after the offset that belong to an incomplete record
+     */
+    private static int tornLength(final ByteBuffer buffer, final int position) {
+
+        final int available = buffer.capacity() - position;
+        if (available < RECORD_HEADER_SIZE) {
+            return available;
+        }
+
+        // the header may have been written without the marker, or with a garbled length
+        int length = RECORD_HEADER_SIZE;
+        final int payloadLength = buffer.getInt(position + OFFSET_LENGTH);
+        if (payloadLength > 0 && payloadLength <= available - RECORD_HEADER_SIZE) {
+            length += payloadLength;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != 0) {
+                return align(length);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Write a segment header.
+     *
+     * @param buffer       The segment
+     * @param baseSequence The sequence number of the first record in the segment
+     * @param created      The creation time in milliseconds since the epoch
+     */
+    private static void writeHeader(final ByteBuffer buffer, final long baseSequence, final long created) {
+
+        buffer.putInt(0, SEGMENT_MARKER);
+        buffer.putInt(OFFSET_VERSION, FORMAT_VERSION);
+        buffer.putLong(OFFSET_BASE_SEQUENCE, baseSequence);
+        buffer.putLong(OFFSET_CREATED, created);
+    }
+
+    /**
+     * @param buffer The segment
+     * @return {@code true} if the segment starts with a valid header
+     */
+    static boolean hasValidHeader(final ByteBuffer buffer) {
+
+        return buffer.capacity() >= SEGMENT_HEADER_SIZE
+                && buffer.getInt(0) == SEGMENT_MARKER && buffer.getInt(OFFSET_VERSION) == FORMAT_VERSION;
+    }
+
+    /**
+     * Fill an area of a buffer with zeros.
+     *
+     * @param buffer The buffer
+     * @param offset The start of the area
+     * @param length The length of the area
+     */
+    private static void zero(final ByteBuffer buffer, final int offset, final int length) {
+
+        final int end = Math.min(offset + length, buffer.capacity());
+        for (int i = offset; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * @param size A size in bytes
+     * @return The size, rounded up to the record alignment
+     */
+    private static int align(final int size) {
+
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * @return The segment files of this journal, ordered by the sequence numbers of their first records
+     */
+    private List<File> listSegments() {
+
+        return listSegments(directory, prefix);
+    }
+
+    /**
+     * List the segment files of a journal without opening the journal, e.g. to read them with a
+     * {@link SegmentReader} while another process appends to the journal.
+     *
+     * @param directory The directory with the segment files
+     * @param prefix    The prefix of the segment file names
+     * @return The segment files, ordered by the sequence numbers of their first records (the last segment is the one
+     * that is currently written to)
+     * @throws NullPointerException     When {@code directory} or {@code prefix} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty
+     */
+    public static List<File> listSegments(final File directory, final String prefix) {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+
+                return file.isFile() && isSegmentName(prefix, file.getName());
+            }
+        });
+
+        if (files == null) {
+            return new ArrayList<>();
+        }
+
+        // the sequence numbers in the names are zero padded, the lexical order is the numerical order
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * @param prefix The prefix of the segment file names
+     * @param name   A file name
+     * @return {@code true} if the name is the name of a segment of a journal with the prefix
+     */
+    static boolean isSegmentName(final String prefix, final String name) {
+
+        if (name.length() != prefix.length() + 1 + NAME_DIGITS + SEGMENT_SUFFIX.length()
+                || !name.startsWith(prefix + "-") || !name.endsWith(SEGMENT_SUFFIX)) {
+            return false;
+        }
+
+        for (int i = prefix.length() + 1; i < prefix.length() + 1 + NAME_DIGITS; i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param baseSequence The sequence number of the first record in a segment
+     * @return The file name of the segment
+     */
+    private String segmentName(final long baseSequence) {
+
+        return prefix + "-" + String.format("%0" + NAME_DIGITS + "d", baseSequence) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @param file A segment file
+     * @return The sequence number of the first record in the segment, as encoded in the file name
+     */
+    private long parseBaseSequence(final File file) {
+
+        return parseBaseSequence(prefix, file);
+    }
+
+    /**
+     * @param prefix The prefix of the segment file names
+     * @param file   A segment file
+     * @return The sequence number of the first record in the segment, as encoded in the file name
+     */
+    static long parseBaseSequence(final String prefix, final File file) {
+
+        final String name = file.getName();
+        return Long.parseLong(name.substring(prefix.length() + 1, prefix.length() + 1 + NAME_DIGITS));
+    }
+
+    /**
+     * @throws IOException When the journal has been closed
+     */
+    private void ensureOpen()
+            throws IOException {
+
+        if (closed) {
+            final String error = "The journal '" + directory + "' has been closed";
+            LOG.warn(error);
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+
+        /**
+         * The segment file
+         */
+        private final File file;
+
+        /**
+         * The mapped content of the file, positioned at the end of the last record
+         */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The sequence number of the first record in the segment
+         */
+        private final long baseSequence;
+
+        /**
+         * The creation time in milliseconds since the epoch
+         */
+        private final long created;
+
+        /**
+         * Create a segment.
+         *
+         * @param file         The segment file
+         * @param buffer       The mapped content of the file
+         * @param baseSequence The sequence number of the first record in the segment
+         * @param created      The creation time in milliseconds since the epoch
+         */
+        private Segment(final File file, final MappedByteBuffer buffer, final long baseSequence, final long created) {
+
+            this.file = file;
+            this.buffer = buffer;
+            this.baseSequence = baseSequence;
+            this.created = created;
+        }
+    }
+
+    /**
+     * A growable scratch array for computing record CRCs while reading.
+     */
+    static final class Scratch {
+
+        /**
+         * The initial size of the array
+         */
+        private static final int INITIAL_SIZE = 256;
+
+        /**
+         * The array
+         */
+        private byte[] bytes = new byte[INITIAL_SIZE];
+
+        /**
+         * @param size The required size
+         * @return An array of at least the required size
+         */
+        byte[] get(final int size) {
+
+            if (bytes.length < size) {
+                bytes = new byte[Math.max(size, bytes.length * 2)];
+            }
+
+            return bytes;
+        }
+    }
+}
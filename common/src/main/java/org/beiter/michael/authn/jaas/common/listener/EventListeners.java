@@ -0,0 +1,366 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.listener;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The JVM wide registry of the in-process {@link EventListener}s, which the login modules notify of their events.
+ * <p>
+ * The listeners are kept in one array per event type, which is replaced (copy-on-write) when a listener subscribes or
+ * unsubscribes. Dispatching an event hence does not take any locks: it reads the array of the event type, and calls
+ * or queues the event for every listener in it. An event type without listeners costs a single volatile read, and the
+ * login modules check {@link #hasListeners(Events)} before they create an event just for the listeners.
+ * <p>
+ * Every asynchronous listener has a background thread and a bounded queue of its own, so a slow listener does not delay
+ * the login or the other listeners. The thread is created on demand, and terminates when it has been idle for a while.
+ * This class is thread safe.
+ */
+public final class EventListeners {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EventListeners.class);
+
+    /**
+     * The capacity of the queue of an asynchronous listener
+     */
+    public static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * The time an idle listener thread waits for events before it terminates, in seconds
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * The subscriptions of an event type without listeners
+     */
+    private static final Subscription[] NONE = new Subscription[0];
+
+    /**
+     * The subscriptions, indexed by the ordinal of the event type
+     */
+    private static final AtomicReferenceArray<Subscription[]> SUBSCRIPTIONS = createSubscriptions();
+
+    /**
+     * The number of events dropped because the queue of an asynchronous listener was full
+     */
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    /**
+     * The number of listener threads created in this JVM, used to name the threads
+     */
+    private static final AtomicLong THREADS = new AtomicLong();
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private EventListeners() {
+    }
+
+    /**
+     * Subscribe a listener to an event type.
+     * <p>
+     * A listener may be subscribed to several event types (with the same or different delivery modes), but only once to
+     * the same event type.
+     *
+     * @param event    The event type
+     * @param listener The listener
+     * @param mode     The way events are delivered to the listener
+     * @return {@code true} if the listener has been subscribed, {@code false} if it already was subscribed to the event
+     * type
+     * @throws NullPointerException When {@code event}, {@code listener}, or {@code mode} are {@code null}
+     */
+    public static boolean subscribe(final Events event, final EventListener listener, final DeliveryMode mode) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notNull(listener, "The validated object 'listener' is null");
+        Validate.notNull(mode, "The validated object 'mode' is null");
+
+        final Subscription subscription = new Subscription(event, listener, mode);
+        final int index = event.ordinal();
+        while (true) {
+            final Subscription[] current = SUBSCRIPTIONS.get(index);
+            if (indexOf(current, listener) >= 0) {
+                subscription.close();
+                return false;
+            }
+
+            final Subscription[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscription;
+            if (SUBSCRIPTIONS.compareAndSet(index, current, next)) {
+                LOG.debug("Subscribed listener '" + listener + "' to " + event + " (" + mode + ")");
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unsubscribe a listener from an event type.
+     * <p>
+     * Events that have already been queued for an asynchronous listener are still delivered to it.
+     *
+     * @param event    The event type
+     * @param listener The listener
+     * @return {@code true} if the listener has been unsubscribed, {@code false} if it was not subscribed to the event
+     * type
+     * @throws NullPointerException When {@code event} or {@code listener} are {@code null}
+     */
+    public static boolean unsubscribe(final Events event, final EventListener listener) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notNull(listener, "The validated object 'listener' is null");
+
+        final int index = event.ordinal();
+        while (true) {
+            final Subscription[] current = SUBSCRIPTIONS.get(index);
+            final int position = indexOf(current, listener);
+            if (position < 0) {
+                return false;
+            }
+
+            final Subscription[] next;
+            if (current.length == 1) {
+                next = NONE;
+            } else {
+                next = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, next, 0, position);
+                System.arraycopy(current, position + 1, next, position, next.length - position);
+            }
+            if (SUBSCRIPTIONS.compareAndSet(index, current, next)) {
+                current[position].close();
+                LOG.debug("Unsubscribed listener '" + listener + "' from " + event);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Determine if any listeners are subscribed to an event type.
+     *
+     * @param event The event type
+     * @return {@code true} if at least one listener is subscribed to the event type
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    public static boolean hasListeners(final Events event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        return SUBSCRIPTIONS.get(event.ordinal()).length > 0;
+    }
+
+    /**
+     * Deliver an event to all listeners subscribed to its event type.
+     * <p>
+     * Synchronous listeners are called in the order they have subscribed, on the calling thread. Exceptions thrown by
+     * a listener are logged, and do not prevent the delivery to the other listeners.
+     *
+     * @param event The event
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    public static void dispatch(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        for (final Subscription subscription : SUBSCRIPTIONS.get(event.getEvent().ordinal())) {
+            subscription.deliver(event);
+        }
+    }
+
+    /**
+     * @return The number of events dropped in this JVM because the queue of an asynchronous listener was full
+     */
+    public static long getDroppedCount() {
+
+        return DROPPED.get();
+    }
+
+    /**
+     * @return The subscriptions of all event types, without any listeners
+     */
+    private static AtomicReferenceArray<Subscription[]> createSubscriptions() {
+
+        final AtomicReferenceArray<Subscription[]> subscriptions =
+                new AtomicReferenceArray<>(Events.values().length);
+        for (int i = 0; i < subscriptions.length(); i++) {
+            subscriptions.set(i, NONE);
+        }
+
+        return subscriptions;
+    }
+
+    /**
+     * Find the subscription of a listener.
+     *
+     * @param subscriptions The subscriptions
+     * @param listener      The listener
+     * @return The position of the listener's subscription, or -1 if the listener is not subscribed
+     */
+    private static int indexOf(final Subscription[] subscriptions, final EventListener listener) {
+
+        // private method asserts
+        assert subscriptions != null : "The subscriptions must not be null";
+        assert listener != null : "The listener must not be null";
+
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].listener.equals(listener)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Call a listener, logging any exception it throws
+     *
+     * @param listener The listener
+     * @param event    The event
+     */
+    // a failing listener must neither fail the login nor the delivery to the other listeners
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static void call(final EventListener listener, final AuditEvent event) {
+
+        // private method asserts
+        assert listener != null : "The listener must not be null";
+        assert event != null : "The event must not be null";
+
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            LOG.warn("The listener '" + listener + "' has failed to handle the event " + event.getEvent(), e);
+        }
+    }
+
+    /**
+     * The subscription of a listener to an event type.
+     */
+    private static final class Subscription {
+
+        /**
+         * The listener
+         */
+        private final EventListener listener;
+
+        /**
+         * The executor of an asynchronous listener, or {@code null} if the listener is synchronous
+         */
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * Create a subscription.
+         *
+         * @param event    The event type
+         * @param listener The listener
+         * @param mode     The way events are delivered to the listener
+         */
+        private Subscription(final Events event, final EventListener listener, final DeliveryMode mode) {
+
+            this.listener = listener;
+
+            if (mode == DeliveryMode.ASYNCHRONOUS) {
+                final String name = "jaas-listener-" + event + "-" + THREADS.incrementAndGet();
+                executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                            @Override
+                            public Thread newThread(final Runnable runnable) {
+
+                                final Thread thread = new Thread(runnable, name);
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                executor.allowCoreThreadTimeOut(true);
+            } else {
+                executor = null;
+            }
+        }
+
+        /**
+         * Deliver an event to the listener, or queue it for an asynchronous listener
+         *
+         * @param event The event
+         */
+        private void deliver(final AuditEvent event) {
+
+            if (executor == null) {
+                call(listener, event);
+                return;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        call(listener, event);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (executor.isShutdown()) {
+                    // the listener has unsubscribed while the event was dispatched
+                    LOG.debug("The listener '" + listener + "' has unsubscribed, dropping the event "
+                            + event.getEvent());
+                    return;
+                }
+                DROPPED.incrementAndGet();
+                LOG.warn("The queue of the listener '" + listener + "' is full, dropping the event "
+                        + event.getEvent(), e);
+            }
+        }
+
+        /**
+         * Stop the background thread of an asynchronous listener, after the queued events have been delivered
+         */
+        private void close() {
+
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.fanout.Delivery;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutDispatcher;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutException;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutProperties;
+import org.beiter.michael.authn.jaas.common.fanout.SinkFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedFanOutPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A message queue subsystem that passes every message on to several other message queue subsystems (the sinks), in
+ * parallel.
+ * <p>
+ * The sinks are configured with the {@code jaas.messageq.composite.*} keys (see {@link JaasBasedFanOutPropsBuilder}),
+ * and are created with {@link MessageQFactory#getInstance(String, CommonProperties)} using the properties this
+ * instance is initialized with. Every sink has its own threads, queue, timeout, and failure policy (see
+ * {@link FanOutDispatcher}): creating a message waits for the required sinks only, and fails if any of them fails or
+ * times out. Best-effort sinks neither delay nor fail the creation of messages.
+ * <p>
+ * Messages concerning a set of principals are passed on as they are to sinks implementing {@link PrincipalMessageQ},
+ * while all other sinks receive the event, domain, and username. Complete messages (see {@link StructuredMessageQ})
+ * are passed on as they are to sinks implementing {@link StructuredMessageQ}, so that they keep their idempotency ID.
+ * <p>
+ * This class is thread safe.
+ */
+public final class CompositeMessageQ
+        implements StructuredMessageQ {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CompositeMessageQ.class);
+
+    /**
+     * The dispatcher delivering the messages to the sinks
+     */
+    private volatile FanOutDispatcher<MessageQ> dispatcher;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the configured sinks, and stops the sinks of the previous configuration (if any). If a required sink
+     * cannot be created, or no sink has been configured, all message creation operations fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final FanOutProperties fanOutProps = JaasBasedFanOutPropsBuilder.build(
+                JaasBasedFanOutPropsBuilder.MESSAGEQ_PREFIX, properties.getAdditionalProperties());
+
+        FanOutDispatcher<MessageQ> newDispatcher;
+        try {
+            newDispatcher = FanOutDispatcher.create(fanOutProps, new SinkFactory<MessageQ>() {
+                @Override
+                public MessageQ getInstance(final String className)
+                        throws FactoryException {
+
+                    if (CompositeMessageQ.class.getName().equals(className)) {
+                        throw new FactoryException("A composite message queue cannot be a sink of a composite "
+                                + "message queue");
+                    }
+                    return MessageQFactory.getInstance(className, properties);
+                }
+            });
+        } catch (FanOutException e) {
+            LOG.warn("Cannot create the message queue sinks, all message creation operations will fail", e);
+            newDispatcher = null;
+        }
+
+        final FanOutDispatcher<MessageQ> oldDispatcher = dispatcher;
+        dispatcher = newDispatcher;
+        if (oldDispatcher != null) {
+            oldDispatcher.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public void create(final Events event, final String userId)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        dispatch(new Delivery<MessageQ>() {
+            @Override
+            public void deliver(final MessageQ sink)
+                    throws MessageQException {
+
+                sink.create(event, userId);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void create(final Events event, final String domain, final String username)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        dispatch(new Delivery<MessageQ>() {
+            @Override
+            public void deliver(final MessageQ sink)
+                    throws MessageQException {
+
+                sink.create(event, domain, username);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sinks that do not implement {@link StructuredMessageQ} create a new message with the details of the message.
+     *
+     * @throws NullPointerException When the {@code message} is {@code null}
+     */
+    @Override
+    public void create(final Message message)
+            throws MessageQException {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        dispatch(new Delivery<MessageQ>() {
+            @Override
+            public void deliver(final MessageQ sink)
+                    throws MessageQException {
+
+                MessageHelper.createMessage(sink, message);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain}, {@code username} or {@code principals}
+     *                                  are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void create(final Events event, final String domain, final String username,
+                       final Set<String> principals)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+        Validate.notNull(principals, "The validated object 'principals' is null");
+
+        // the sinks run in other threads, and must not see later changes of the caller's set
+        final Set<String> myPrincipals = Collections.unmodifiableSet(new LinkedHashSet<>(principals));
+        dispatch(new Delivery<MessageQ>() {
+            @Override
+            public void deliver(final MessageQ sink)
+                    throws MessageQException {
+
+                if (sink instanceof PrincipalMessageQ) {
+                    ((PrincipalMessageQ) sink).create(event, domain, username, myPrincipals);
+                } else {
+                    sink.create(event, domain, username);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The dispatcher delivering the messages to the sinks, or {@code null} if the sinks are not available
+     */
+    FanOutDispatcher<MessageQ> getDispatcher() {
+
+        return dispatcher;
+    }
+
+    /**
+     * Deliver a message to all sinks.
+     *
+     * @param delivery The delivery of the message
+     * @throws MessageQException When the sinks are not available, or the delivery to a required sink fails
+     */
+    private void dispatch(final Delivery<MessageQ> delivery)
+            throws MessageQException {
+
+        // private method asserts
+        assert delivery != null : "The delivery cannot be null";
+
+        final FanOutDispatcher<MessageQ> myDispatcher = dispatcher;
+        if (myDispatcher == null) {
+            final String error = "The message queue sinks are not available";
+            LOG.warn(error);
+            throw new MessageQException(error);
+        }
+
+        try {
+            myDispatcher.dispatch(delivery);
+        } catch (FanOutException e) {
+            final String error = "The message has not been accepted by all required sinks";
+            LOG.warn(error, e);
+            throw new MessageQException(error, e);
+        }
+    }
+}
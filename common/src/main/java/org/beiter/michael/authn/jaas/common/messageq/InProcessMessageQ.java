@@ -0,0 +1,363 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedInProcessMessageQPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This message queue implementation delivers messages to consumers in the same JVM, so that applications can
+ * subscribe to the events of the login workflow.
+ * <p>
+ * Creating a message queues it in a bounded queue and returns, without waiting for the consumers. A background thread
+ * drains the queue in batches, and passes every batch to all {@link MessageConsumer}s of the queue. The consumers are
+ * configured by class name, or subscribed by the application with {@link #subscribe(String, MessageConsumer)}. When
+ * the queue is full, the configured backpressure (see {@link InProcessMessageQProperties#setBackpressure(String)})
+ * determines whether the new message is rejected (which fails the creation of the message), dropped, replaces the
+ * oldest queued message, or waits for room in the queue.
+ * <p>
+ * The implementation is configured with the keys in {@link JaasBasedInProcessMessageQPropsBuilder}. All instances that
+ * are configured with the same queue name share one queue and one background thread, which keep the configuration
+ * they have been created with.
+ */
+public class InProcessMessageQ
+        implements StructuredMessageQ {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessMessageQ.class);
+
+    /**
+     * The dispatchers of the queues that are currently open, by queue name
+     */
+    private static final Map<String, MessageDispatcher> DISPATCHERS = new HashMap<>();
+
+    /**
+     * The consumers that have been subscribed, by queue name
+     */
+    private static final ConcurrentMap<String, List<MessageConsumer>> SUBSCRIBERS = new ConcurrentHashMap<>();
+
+    /**
+     * The dispatcher this instance queues messages to
+     */
+    private volatile MessageDispatcher dispatcher;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the queue with the configured name, or attaches to the queue if it already exists.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final InProcessMessageQProperties messageQProps =
+                JaasBasedInProcessMessageQPropsBuilder.build(properties.getAdditionalProperties());
+
+        dispatcher = getDispatcher(messageQProps);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public final void create(final Events event, final String userId)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        queue(new Message(System.currentTimeMillis(), event, null, null, userId, Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public final void create(final Events event, final String domain, final String username)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        queue(new Message(System.currentTimeMillis(), event, domain, username, null, Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain}, {@code username} or {@code principals}
+     *                                  are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty, or {@code principals} contains
+     *                                  {@code null}
+     */
+    @Override
+    public final void create(final Events event, final String domain, final String username,
+                             final Set<String> principals)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        queue(new Message(System.currentTimeMillis(), event, domain, username, null, principals));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code message} is {@code null}
+     */
+    @Override
+    public final void create(final Message message)
+            throws MessageQException {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        queue(message);
+    }
+
+    /**
+     * Subscribe a consumer to the messages of a queue. The consumer receives the messages that are queued after it has
+     * been subscribed, also if the queue is created later, or closed and created again.
+     *
+     * @param name     The name of the queue (see {@link JaasBasedInProcessMessageQPropsBuilder#KEY_NAME})
+     * @param consumer The consumer
+     * @throws NullPointerException     When {@code name} or {@code consumer} are {@code null}
+     * @throws IllegalArgumentException When {@code name} is empty
+     */
+    public static void subscribe(final String name, final MessageConsumer consumer) {
+
+        Validate.notBlank(name, "The validated character sequence 'name' is null or empty");
+        Validate.notNull(consumer, "The validated object 'consumer' is null");
+
+        getSubscribers(name).add(consumer);
+    }
+
+    /**
+     * Unsubscribe a consumer from the messages of a queue. The consumer may still receive the batch that is being
+     * delivered.
+     *
+     * @param name     The name of the queue
+     * @param consumer The consumer
+     * @return {@code true} if the consumer had been subscribed to the queue
+     * @throws NullPointerException     When {@code name} or {@code consumer} are {@code null}
+     * @throws IllegalArgumentException When {@code name} is empty
+     */
+    public static boolean unsubscribe(final String name, final MessageConsumer consumer) {
+
+        Validate.notBlank(name, "The validated character sequence 'name' is null or empty");
+        Validate.notNull(consumer, "The validated object 'consumer' is null");
+
+        return getSubscribers(name).remove(consumer);
+    }
+
+    /**
+     * @return The dispatcher this instance queues messages to
+     */
+    final MessageDispatcher getDispatcher() {
+
+        return dispatcher;
+    }
+
+    /**
+     * Close all queues, delivering the messages that are still queued. The instances that have been attached to a
+     * closed queue fail until they are initialized again. Subscriptions are kept.
+     */
+    static void closeAll() {
+
+        synchronized (DISPATCHERS) {
+            for (final MessageDispatcher myDispatcher : DISPATCHERS.values()) {
+                myDispatcher.close();
+            }
+            DISPATCHERS.clear();
+        }
+    }
+
+    /**
+     * Return the dispatcher of the queue with the configured name, or create the queue.
+     *
+     * @param messageQProps The configuration of the queue
+     * @return The dispatcher
+     */
+    private static MessageDispatcher getDispatcher(final InProcessMessageQProperties messageQProps) {
+
+        // private method asserts
+        assert messageQProps != null : "The message queue properties cannot be null";
+
+        final String name = messageQProps.getName();
+        synchronized (DISPATCHERS) {
+            MessageDispatcher myDispatcher = DISPATCHERS.get(name);
+            if (myDispatcher == null) {
+                final List<MessageConsumer> consumers = new ArrayList<>();
+                for (final String className : messageQProps.getConsumers()) {
+                    final MessageConsumer consumer = createConsumer(className);
+                    if (consumer != null) {
+                        consumers.add(consumer);
+                    }
+                }
+
+                myDispatcher = new MessageDispatcher(name, messageQProps.getCapacity(), messageQProps.getBatchSize(),
+                        toBackpressure(messageQProps.getBackpressure()), messageQProps.getOfferTimeout(), consumers,
+                        getSubscribers(name));
+                DISPATCHERS.put(name, myDispatcher);
+            }
+
+            return myDispatcher;
+        }
+    }
+
+    /**
+     * Return the subscribers of a queue.
+     *
+     * @param name The name of the queue
+     * @return The thread safe list of subscribers
+     */
+    private static List<MessageConsumer> getSubscribers(final String name) {
+
+        // private method asserts
+        assert name != null : "The name cannot be null";
+
+        List<MessageConsumer> subscribers = SUBSCRIBERS.get(name);
+        if (subscribers == null) {
+            final List<MessageConsumer> newSubscribers = new CopyOnWriteArrayList<>();
+            subscribers = SUBSCRIBERS.putIfAbsent(name, newSubscribers);
+            if (subscribers == null) {
+                subscribers = newSubscribers;
+            }
+        }
+
+        return subscribers;
+    }
+
+    /**
+     * Create a configured consumer. A consumer that cannot be created is left out with a warning, as the queue still
+     * delivers its messages to the other consumers.
+     *
+     * @param className The name of the class implementing the consumer
+     * @return The consumer, or {@code null} if it cannot be created
+     */
+    private static MessageConsumer createConsumer(final String className) {
+
+        // private method asserts
+        assert className != null : "The class name cannot be null";
+
+        try {
+            final Class<? extends MessageConsumer> consumerClazz =
+                    Class.forName(className).asSubclass(MessageConsumer.class);
+            final Constructor<? extends MessageConsumer> constructor = consumerClazz.getDeclaredConstructor();
+            if (!constructor.isAccessible()) {
+                constructor.setAccessible(true);
+            }
+
+            return constructor.newInstance();
+        } catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException
+                | InvocationTargetException | NoSuchMethodException | IllegalArgumentException e) {
+            LOG.warn("Cannot create the message consumer '" + className + "', leaving it out", e);
+            return null;
+        }
+    }
+
+    /**
+     * Map a backpressure setting to the backpressure of the dispatcher.
+     *
+     * @param backpressure The backpressure setting
+     * @return The backpressure of the dispatcher, {@link Backpressure#FAIL} if the setting is not supported
+     */
+    private static Backpressure toBackpressure(final String backpressure) {
+
+        if (InProcessMessageQProperties.BACKPRESSURE_DROP.equals(backpressure)) {
+            return Backpressure.DROP;
+        } else if (InProcessMessageQProperties.BACKPRESSURE_DROP_OLDEST.equals(backpressure)) {
+            return Backpressure.DROP_OLDEST;
+        } else if (InProcessMessageQProperties.BACKPRESSURE_BLOCK.equals(backpressure)) {
+            return Backpressure.BLOCK;
+        } else {
+            return Backpressure.FAIL;
+        }
+    }
+
+    /**
+     * Queue a message to be delivered.
+     *
+     * @param message The message
+     * @throws MessageQException When the queue has not been initialized or has been closed, or the message has been
+     *                           rejected because the queue is full
+     */
+    private void queue(final Message message)
+            throws MessageQException {
+
+        // private method asserts
+        assert message != null : "The message cannot be null";
+
+        final MessageDispatcher myDispatcher = dispatcher;
+        if (myDispatcher == null) {
+            final String error = "The message queue has not been initialized";
+            LOG.warn(error);
+            throw new MessageQException(error);
+        }
+
+        if (!myDispatcher.offer(message)) {
+            final String error = "The message queue is full or closed, cannot queue the message";
+            LOG.warn(error);
+            throw new MessageQException(error);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link InProcessMessageQ}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class InProcessMessageQProperties {
+
+    /**
+     * The backpressure setting for rejecting messages when the queue is full
+     */
+    public static final String BACKPRESSURE_FAIL = "fail";
+
+    /**
+     * The backpressure setting for dropping new messages when the queue is full
+     */
+    public static final String BACKPRESSURE_DROP = "drop";
+
+    /**
+     * The backpressure setting for dropping the oldest queued message when the queue is full
+     */
+    public static final String BACKPRESSURE_DROP_OLDEST = "dropOldest";
+
+    /**
+     * The backpressure setting for waiting for room in the queue when the queue is full
+     */
+    public static final String BACKPRESSURE_BLOCK = "block";
+
+    /**
+     * @see InProcessMessageQProperties#setName(String)
+     */
+    private String name;
+
+    /**
+     * @see InProcessMessageQProperties#setCapacity(int)
+     */
+    private int capacity;
+
+    /**
+     * @see InProcessMessageQProperties#setBatchSize(int)
+     */
+    private int batchSize;
+
+    /**
+     * @see InProcessMessageQProperties#setBackpressure(String)
+     */
+    private String backpressure;
+
+    /**
+     * @see InProcessMessageQProperties#setOfferTimeout(long)
+     */
+    private long offerTimeout;
+
+    /**
+     * @see InProcessMessageQProperties#setConsumers(List)
+     */
+    private List<String> consumers = new ArrayList<>();
+
+    /**
+     * @see InProcessMessageQProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of in-process message queue properties, with most values being set to <code>null</code>,
+     * 0, or empty (depending on the type of the property). Usually this constructor is used if this configuration POJO
+     * is populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with
+     * defaults), use or create a properties builder (such as {@code JaasBasedInProcessMessageQPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public InProcessMessageQProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of in-process message queue properties from an existing set of in-process message queue
+     * properties, making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see InProcessMessageQProperties()
+     */
+    public InProcessMessageQProperties(final InProcessMessageQProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setName(properties.getName());
+        setCapacity(properties.getCapacity());
+        setBatchSize(properties.getBatchSize());
+        setBackpressure(properties.getBackpressure());
+        setOfferTimeout(properties.getOfferTimeout());
+        setConsumers(properties.getConsumers());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The name of the queue
+     * @see InProcessMessageQProperties#setName(String)
+     */
+    public final String getName() {
+
+        // no need for defensive copies of String
+
+        return name;
+    }
+
+    /**
+     * Set the name of the queue. All instances configured with the same name share one queue, and consumers subscribe
+     * to a queue by its name
+     *
+     * @param name A queue name
+     */
+    public final void setName(final String name) {
+
+        // no need for defensive copies of String
+
+        this.name = name;
+    }
+
+    /**
+     * @return The maximum number of messages waiting to be delivered
+     * @see InProcessMessageQProperties#setCapacity(int)
+     */
+    public final int getCapacity() {
+
+        return capacity;
+    }
+
+    /**
+     * Set the maximum number of messages waiting to be delivered. When the queue is full, the backpressure determines
+     * what happens to new messages
+     *
+     * @param capacity The capacity of the queue
+     */
+    public final void setCapacity(final int capacity) {
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The maximum number of messages delivered to the consumers in one batch
+     * @see InProcessMessageQProperties#setBatchSize(int)
+     */
+    public final int getBatchSize() {
+
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of messages delivered to the consumers in one batch. Batches are not delayed to wait for
+     * more messages: a batch holds the messages that have been queued while the previous batch was delivered
+     *
+     * @param batchSize The maximum number of messages in one batch
+     */
+    public final void setBatchSize(final int batchSize) {
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return What happens to a new message when the queue is full
+     * @see InProcessMessageQProperties#setBackpressure(String)
+     */
+    public final String getBackpressure() {
+
+        // no need for defensive copies of String
+
+        return backpressure;
+    }
+
+    /**
+     * Set what happens to a new message when the queue is full: {@link #BACKPRESSURE_FAIL} fails the creation of the
+     * message, {@link #BACKPRESSURE_DROP} drops the new message, {@link #BACKPRESSURE_DROP_OLDEST} drops the oldest
+     * queued message instead, and {@link #BACKPRESSURE_BLOCK} waits for room in the queue up to the offer timeout
+     *
+     * @param backpressure A backpressure setting
+     */
+    public final void setBackpressure(final String backpressure) {
+
+        // no need for defensive copies of String
+
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * @return The maximum time to wait for room in a full queue, in milliseconds
+     * @see InProcessMessageQProperties#setOfferTimeout(long)
+     */
+    public final long getOfferTimeout() {
+
+        return offerTimeout;
+    }
+
+    /**
+     * Set the maximum time the creation of a message waits for room in a full queue before it fails, in milliseconds.
+     * Only applies to the {@link #BACKPRESSURE_BLOCK} backpressure
+     *
+     * @param offerTimeout The offer timeout in milliseconds
+     */
+    public final void setOfferTimeout(final long offerTimeout) {
+
+        this.offerTimeout = offerTimeout;
+    }
+
+    /**
+     * @return The class names of the consumers of the queue
+     * @see InProcessMessageQProperties#setConsumers(List)
+     */
+    public final List<String> getConsumers() {
+
+        // create a defensive copy of the list
+        if (consumers == null) {
+            // this should never happen!
+            return new ArrayList<>();
+        } else {
+            return new ArrayList<>(consumers);
+        }
+    }
+
+    /**
+     * Set the class names of the consumers that are created with the queue, in the order in which they receive the
+     * messages. The classes must implement {@link MessageConsumer}, and have a no-argument constructor
+     *
+     * @param consumers The class names of the consumers
+     */
+    public final void setConsumers(final List<String> consumers) {
+
+        // create a defensive copy of the list
+        if (consumers == null) {
+            this.consumers = new ArrayList<>();
+        } else {
+            this.consumers = new ArrayList<>(consumers);
+        }
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see InProcessMessageQProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.journal.JournalCursor;
+import org.beiter.michael.authn.jaas.common.journal.JournalOffset;
+import org.beiter.michael.authn.jaas.common.journal.RecordHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the messages of a {@link JournalMessageQ}, tracking its own position in the journal.
+ * <p>
+ * A consumer is identified by its name. It reads the messages behind its position with {@link #poll(int)}, or waits
+ * for new messages with {@link #poll(int, long)}, and can go back to any earlier position with {@link #seek(long)} to
+ * read messages again. The position is the sequence number of the next message to read, and is only persisted when
+ * it is committed (see {@link #commit()}), in a file named after the consumer in the directory of the journal. A
+ * consumer that is created again continues at its committed position, so messages that have been read but not
+ * committed before a restart are read again.
+ * <p>
+ * Consumers do not lock the journal, and may run in another process than the message queue. This class is <b>not</b>
+ * thread safe, every consumer should be used by a single thread.
+ */
+public final class JournalConsumer {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalConsumer.class);
+
+    /**
+     * The valid consumer names
+     */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    /**
+     * The time between two polls while waiting for new messages, in milliseconds
+     */
+    private static final long POLL_INTERVAL = 10;
+
+    /**
+     * The file with the committed position
+     */
+    private final JournalOffset offset;
+
+    /**
+     * The cursor in the journal
+     */
+    private final JournalCursor cursor;
+
+    /**
+     * The position that has been committed last
+     */
+    private long committedPosition;
+
+    /**
+     * Create a consumer, positioned at its committed position, or at the first message of the journal if the consumer
+     * has not committed a position yet.
+     *
+     * @param directory The directory of the journal
+     * @param name      The name of the consumer
+     * @throws NullPointerException     When {@code directory} or {@code name} are {@code null}
+     * @throws IllegalArgumentException When {@code name} contains other characters than letters, digits, '_', '.', and
+     *                                  '-'
+     * @throws IOException              When the committed position cannot be read
+     */
+    public JournalConsumer(final File directory, final String name)
+            throws IOException {
+
+        Validate.notNull(directory, "The validated object 'directory' is null");
+        Validate.notNull(name, "The validated object 'name' is null");
+        Validate.isTrue(NAME.matcher(name).matches(),
+                "The consumer name must only contain letters, digits, '_', '.', and '-'");
+
+        this.offset = new JournalOffset(directory, JournalMessageQ.PREFIX, name);
+        this.committedPosition = offset.read();
+        this.cursor = new JournalCursor(directory, JournalMessageQ.PREFIX, committedPosition);
+    }
+
+    /**
+     * Read the messages behind the position of the consumer, and move the position behind them. Records that cannot
+     * be decoded are skipped with a warning.
+     *
+     * @param maxMessages The maximum number of messages to read
+     * @return The messages, an empty list if there are no messages behind the position
+     * @throws IllegalArgumentException When {@code maxMessages} is not positive
+     * @throws IOException              When the journal cannot be read
+     */
+    public List<Message> poll(final int maxMessages)
+            throws IOException {
+
+        Validate.isTrue(maxMessages > 0, "The maximum number of messages must be positive");
+
+        final List<Message> messages = new ArrayList<>();
+        cursor.read(maxMessages, new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                try {
+                    messages.add(JournalMessageQ.decode(payload));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Skipping message " + sequence + ", which cannot be decoded", e);
+                }
+                return true;
+            }
+        });
+
+        return messages;
+    }
+
+    /**
+     * Read the messages behind the position of the consumer, waiting for new messages if there are none, and move the
+     * position behind them.
+     *
+     * @param maxMessages The maximum number of messages to read
+     * @param timeout     The maximum time to wait for new messages, in milliseconds
+     * @return The messages, an empty list if no message has been created before the timeout
+     * @throws IllegalArgumentException When {@code maxMessages} is not positive
+     * @throws IOException              When the journal cannot be read
+     * @throws InterruptedException     When the thread is interrupted while waiting
+     */
+    public List<Message> poll(final int maxMessages, final long timeout)
+            throws IOException, InterruptedException {
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<Message> messages = poll(maxMessages);
+        while (messages.isEmpty()) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            Thread.sleep(Math.min(remaining, POLL_INTERVAL));
+            messages = poll(maxMessages);
+        }
+
+        return messages;
+    }
+
+    /**
+     * @return The position of the consumer, i.e. the sequence number of the next message to read
+     */
+    public long getPosition() {
+
+        return cursor.getSequence();
+    }
+
+    /**
+     * Move the consumer to a position, e.g. to read messages again. The position is not committed.
+     *
+     * @param position The sequence number of the next message to read, 1 for the first message of the journal
+     */
+    public void seek(final long position) {
+
+        cursor.seek(position);
+    }
+
+    /**
+     * @return The position that has been committed last
+     */
+    public long getCommittedPosition() {
+
+        return committedPosition;
+    }
+
+    /**
+     * Commit the position of the consumer, so that the consumer continues at this position when it is created again.
+     * The position is flushed to the storage device before this method returns.
+     *
+     * @throws IOException When the position cannot be written
+     */
+    public void commit()
+            throws IOException {
+
+        final long position = cursor.getSequence();
+        offset.write(position);
+        committedPosition = position;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditEventCodec;
+import org.beiter.michael.authn.jaas.common.journal.Durability;
+import org.beiter.michael.authn.jaas.common.journal.JournalWriter;
+import org.beiter.michael.authn.jaas.common.journal.SegmentedJournal;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedJournalMessageQPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This message queue implementation appends messages to a persistent journal of memory-mapped, pre-allocated segment
+ * files (see {@link SegmentedJournal}), so that messages survive a restart of the JVM and consumers can read them at
+ * their own pace.
+ * <p>
+ * Creating a message is a memory copy into the mapped segment, plus a CRC. Messages survive a crash of the process as
+ * soon as they have been created, and the configured durability (see
+ * {@link JournalMessageQProperties#setDurability(String)}) determines when they are flushed to survive a crash of the
+ * operating system or a power loss. Every message is identified by the sequence number of its record, which is
+ * assigned by the journal and increases without gaps.
+ * <p>
+ * Consumers read the journal with a {@link JournalConsumer}, which tracks its own position, can commit the position to
+ * continue after a restart, and can go back to any earlier position to read messages again. Consumers do not lock the
+ * journal, so they can run in another process.
+ * <p>
+ * The payload of a record is the message (including its idempotency ID), encoded with {@link AuditEventCodec} as an
+ * audit event without sequence number, monotonic timestamp, duration, and module instance ID.
+ * <p>
+ * The journal is configured with the keys in {@link JaasBasedJournalMessageQPropsBuilder}. All instances that are
+ * configured with the same directory write to the same journal. If the journal cannot be opened (e.g. because no
+ * directory has been configured), the creation of all messages fails.
+ */
+public class JournalMessageQ
+        implements StructuredMessageQ {
+
+    /**
+     * The prefix of the segment file names of the journal
+     */
+    public static final String PREFIX = "messages";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalMessageQ.class);
+
+    /**
+     * The initial size of the per-thread encoding buffers, in bytes
+     */
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /**
+     * The per-thread encoding buffers
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The writers of the journals that are currently open, by canonical directory path
+     */
+    private static final Map<String, JournalWriter> WRITERS = new HashMap<>();
+
+    /**
+     * The writer of the journal this instance writes to
+     */
+    private volatile JournalWriter writer;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Opens the journal in the configured directory, or attaches to the journal if it is already open. When the journal
+     * is already open, it keeps the configuration it has been opened with.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final JournalMessageQProperties messageQProps =
+                JaasBasedJournalMessageQPropsBuilder.build(properties.getAdditionalProperties());
+
+        if (StringUtils.isBlank(messageQProps.getDirectory())) {
+            LOG.warn("No message journal directory has been configured, all message operations will fail");
+            writer = null;
+            return;
+        }
+
+        try {
+            writer = getWriter(messageQProps);
+        } catch (IOException e) {
+            LOG.warn("Cannot open the message journal, all message operations will fail", e);
+            writer = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public final void create(final Events event, final String userId)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        append(new Message(System.currentTimeMillis(), event, null, null, userId, Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public final void create(final Events event, final String domain, final String username)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        append(new Message(System.currentTimeMillis(), event, domain, username, null,
+                Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain}, {@code username} or {@code principals}
+     *                                  are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty, or {@code principals} contains
+     *                                  {@code null}
+     */
+    @Override
+    public final void create(final Events event, final String domain, final String username,
+                             final Set<String> principals)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        append(new Message(System.currentTimeMillis(), event, domain, username, null, principals));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code message} is {@code null}
+     */
+    @Override
+    public final void create(final Message message)
+            throws MessageQException {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        append(message);
+    }
+
+    /**
+     * @return The writer of the journal this instance writes to, or {@code null} if the journal is not available
+     */
+    final JournalWriter getWriter() {
+
+        return writer;
+    }
+
+    /**
+     * Decode the payload of a message record.
+     *
+     * @param payload The payload of the record
+     * @return The message
+     * @throws NullPointerException     When {@code payload} is {@code null}
+     * @throws IllegalArgumentException When the payload is not a valid message record
+     */
+    static Message decode(final ByteBuffer payload) {
+
+        Validate.notNull(payload, "The validated object 'payload' is null");
+
+        final AuditEvent event = AuditEventCodec.decode(payload.duplicate());
+        return new Message(event.getSequence(), event.getTime(), event.getEvent(), event.getDomain(),
+                event.getUsername(), event.getUserId(), event.getPrincipals(), event.getId(), event.getCorrelationId(),
+                event.getNodeId());
+    }
+
+    /**
+     * Encode a message into the payload of a message record.
+     *
+     * @param message The message
+     * @param buffer  The buffer to encode the message into, starting at the buffer's position
+     * @return The number of bytes written
+     * @throws NullPointerException    When {@code message} or {@code buffer} are {@code null}
+     * @throws java.nio.BufferOverflowException When the buffer does not have enough space remaining (see
+     *                                 {@link #encodedLength(Message)})
+     */
+    static int encode(final Message message, final ByteBuffer buffer) {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        return AuditEventCodec.encode(toRecord(message), buffer);
+    }
+
+    /**
+     * @param message A message
+     * @return The length of the payload of the message record, in bytes
+     * @throws NullPointerException When {@code message} is {@code null}
+     */
+    static int encodedLength(final Message message) {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        return AuditEventCodec.encodedLength(toRecord(message));
+    }
+
+    /**
+     * Close all open journals. The instances that have been attached to a closed journal fail until they are
+     * initialized again.
+     *
+     * @throws IOException When a journal cannot be closed
+     */
+    static void closeAll()
+            throws IOException {
+
+        synchronized (WRITERS) {
+            for (final JournalWriter myWriter : WRITERS.values()) {
+                myWriter.close();
+            }
+            WRITERS.clear();
+        }
+    }
+
+    /**
+     * Return the writer of the open journal for the configured directory, or open the journal.
+     *
+     * @param messageQProps The configuration of the journal
+     * @return The writer of the journal
+     * @throws IOException When the journal cannot be opened
+     */
+    private static JournalWriter getWriter(final JournalMessageQProperties messageQProps)
+            throws IOException {
+
+        // private method asserts
+        assert messageQProps != null : "The message queue properties cannot be null";
+
+        final File directory = new File(messageQProps.getDirectory()).getCanonicalFile();
+        synchronized (WRITERS) {
+            JournalWriter myWriter = WRITERS.get(directory.getPath());
+            if (myWriter == null) {
+                final SegmentedJournal journal = SegmentedJournal.open(directory, PREFIX,
+                        messageQProps.getSegmentSize(), messageQProps.getRollInterval());
+                myWriter = new JournalWriter(journal, toDurability(messageQProps.getDurability()),
+                        messageQProps.getGroupSize(), messageQProps.getGroupDelay(), messageQProps.getForceInterval());
+                WRITERS.put(directory.getPath(), myWriter);
+            }
+
+            return myWriter;
+        }
+    }
+
+    /**
+     * Map a durability setting to the durability of the journal writer.
+     *
+     * @param durability The durability setting
+     * @return The durability of the journal writer, {@link Durability#PERIODIC} if the setting is not supported
+     */
+    private static Durability toDurability(final String durability) {
+
+        if (JournalMessageQProperties.DURABILITY_NONE.equals(durability)) {
+            return Durability.NONE;
+        } else if (JournalMessageQProperties.DURABILITY_SYNC.equals(durability)) {
+            return Durability.SYNC;
+        } else if (JournalMessageQProperties.DURABILITY_GROUP.equals(durability)) {
+            return Durability.GROUP;
+        } else {
+            return Durability.PERIODIC;
+        }
+    }
+
+    /**
+     * @param message A message
+     * @return The audit event the message is encoded as
+     */
+    private static AuditEvent toRecord(final Message message) {
+
+        // private method asserts
+        assert message != null : "The message cannot be null";
+
+        return new AuditEvent(message.getSequence(), message.getTime(), 0, message.getEvent(), message.getDomain(),
+                message.getUsername(), message.getUserId(), 0, null, message.getPrincipals(), message.getId(),
+                message.getCorrelationId(), message.getNodeId());
+    }
+
+    /**
+     * Append a message to the journal.
+     *
+     * @param message The message
+     * @throws MessageQException When the journal is not available, or the message cannot be written
+     */
+    private void append(final Message message)
+            throws MessageQException {
+
+        // private method asserts
+        assert message != null : "The message cannot be null";
+
+        final JournalWriter myWriter = writer;
+        if (myWriter == null) {
+            final String error = "The message journal is not available";
+            LOG.warn(error);
+            throw new MessageQException(error);
+        }
+
+        final AuditEvent record = toRecord(message);
+        final ByteBuffer buffer = getBuffer(AuditEventCodec.encodedLength(record));
+        final int length = AuditEventCodec.encode(record, buffer);
+
+        try {
+            myWriter.append(buffer.array(), 0, length);
+        } catch (IOException | IllegalArgumentException e) {
+            final String error = "Cannot write the message to the journal";
+            LOG.warn(error, e);
+            throw new MessageQException(error, e);
+        }
+    }
+
+    /**
+     * Return the encoding buffer of the calling thread, cleared and large enough for the requested size.
+     *
+     * @param size The required size of the buffer, in bytes
+     * @return The buffer
+     */
+    private static ByteBuffer getBuffer(final int size) {
+
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+            BUFFERS.set(buffer);
+        }
+        buffer.clear();
+
+        return buffer;
+    }
+}
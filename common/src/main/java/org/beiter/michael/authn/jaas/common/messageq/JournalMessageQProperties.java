@@ -0,0 +1,355 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the {@link JournalMessageQ}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class JournalMessageQProperties {
+
+    /**
+     * The durability setting for records that are never flushed explicitly
+     */
+    public static final String DURABILITY_NONE = "none";
+
+    /**
+     * The durability setting for flushing the journal with every message
+     */
+    public static final String DURABILITY_SYNC = "sync";
+
+    /**
+     * The durability setting for flushing the journal with group commits
+     */
+    public static final String DURABILITY_GROUP = "group";
+
+    /**
+     * The durability setting for flushing the journal periodically in the background
+     */
+    public static final String DURABILITY_PERIODIC = "periodic";
+
+    /**
+     * @see JournalMessageQProperties#setDirectory(String)
+     */
+    private String directory;
+
+    /**
+     * @see JournalMessageQProperties#setSegmentSize(int)
+     */
+    private int segmentSize;
+
+    /**
+     * @see JournalMessageQProperties#setRollInterval(long)
+     */
+    private long rollInterval;
+
+    /**
+     * @see JournalMessageQProperties#setDurability(String)
+     */
+    private String durability;
+
+    /**
+     * @see JournalMessageQProperties#setGroupSize(int)
+     */
+    private int groupSize;
+
+    /**
+     * @see JournalMessageQProperties#setGroupDelay(long)
+     */
+    private long groupDelay;
+
+    /**
+     * @see JournalMessageQProperties#setForceInterval(long)
+     */
+    private long forceInterval;
+
+    /**
+     * @see JournalMessageQProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of journal message queue properties, with most values being set to <code>null</code>, 0,
+     * or empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as the {@code JaasBasedJournalMessageQPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public JournalMessageQProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of journal message queue properties from an existing set of journal message queue properties,
+     * making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see JournalMessageQProperties()
+     */
+    public JournalMessageQProperties(final JournalMessageQProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setDirectory(properties.getDirectory());
+        setSegmentSize(properties.getSegmentSize());
+        setRollInterval(properties.getRollInterval());
+        setDurability(properties.getDurability());
+        setGroupSize(properties.getGroupSize());
+        setGroupDelay(properties.getGroupDelay());
+        setForceInterval(properties.getForceInterval());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The directory of the journal
+     * @see JournalMessageQProperties#setDirectory(String)
+     */
+    public final String getDirectory() {
+
+        // no need for defensive copies of String
+        return directory;
+    }
+
+    /**
+     * The directory in which the journal segment files are stored. The directory is created if it does not exist.
+     * A directory can only be used by one JVM at a time.
+     *
+     * @param directory The directory of the journal
+     */
+    public final void setDirectory(final String directory) {
+
+        // no need for defensive copies of String
+        this.directory = directory;
+    }
+
+    /**
+     * @return The size of a segment file in bytes
+     * @see JournalMessageQProperties#setSegmentSize(int)
+     */
+    public final int getSegmentSize() {
+
+        return segmentSize;
+    }
+
+    /**
+     * The size of a segment file in bytes. Segment files are created with this size, and a new segment is started
+     * when a record does not fit into the current segment.
+     *
+     * @param segmentSize The size of a segment file in bytes
+     */
+    public final void setSegmentSize(final int segmentSize) {
+
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return The maximum age of a segment in milliseconds
+     * @see JournalMessageQProperties#setRollInterval(long)
+     */
+    public final long getRollInterval() {
+
+        return rollInterval;
+    }
+
+    /**
+     * The maximum age of a segment in milliseconds. When the current segment is older, a new segment is started with
+     * the next record, even if the current segment is not full.
+     *
+     * @param rollInterval The maximum age of a segment in milliseconds
+     */
+    public final void setRollInterval(final long rollInterval) {
+
+        this.rollInterval = rollInterval;
+    }
+
+    /**
+     * @return The durability of the messages
+     * @see JournalMessageQProperties#setDurability(String)
+     */
+    public final String getDurability() {
+
+        // no need for defensive copies of String
+        return durability;
+    }
+
+    /**
+     * The point at which the creation of a message returns, which trades latency against the messages that can be
+     * lost in a crash of the operating system or a power loss (messages survive a crash of the process in any case):
+     * <ul>
+     * <li>{@code none}: the records are written back by the operating system eventually</li>
+     * <li>{@code sync}: every message flushes the journal before the creation returns</li>
+     * <li>{@code group}: messages wait for a group commit, which flushes the journal for a group of messages at
+     * once and releases them together (see {@link #setGroupSize(int)} and
+     * {@link #setGroupDelay(long)})</li>
+     * <li>{@code periodic}: messages are created immediately, and the journal is flushed in the background (see
+     * {@link #setForceInterval(long)})</li>
+     * </ul>
+     *
+     * @param durability The durability of the messages
+     */
+    public final void setDurability(final String durability) {
+
+        // no need for defensive copies of String
+        this.durability = durability;
+    }
+
+    /**
+     * @return The number of records that completes a group commit
+     * @see JournalMessageQProperties#setGroupSize(int)
+     */
+    public final int getGroupSize() {
+
+        return groupSize;
+    }
+
+    /**
+     * The number of records that completes a group commit. This setting only applies to the {@code group}
+     * durability.
+     *
+     * @param groupSize The number of records in a group
+     */
+    public final void setGroupSize(final int groupSize) {
+
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * @return The longest time in microseconds a message waits for its group to complete
+     * @see JournalMessageQProperties#setGroupDelay(long)
+     */
+    public final long getGroupDelay() {
+
+        return groupDelay;
+    }
+
+    /**
+     * The longest time in microseconds the first message of a group waits for the group to complete. When the time
+     * has passed, the group is committed with the records it has. This setting only applies to the {@code group}
+     * durability.
+     *
+     * @param groupDelay The group delay in microseconds
+     */
+    public final void setGroupDelay(final long groupDelay) {
+
+        this.groupDelay = groupDelay;
+    }
+
+    /**
+     * @return The time between two background flushes in milliseconds
+     * @see JournalMessageQProperties#setForceInterval(long)
+     */
+    public final long getForceInterval() {
+
+        return forceInterval;
+    }
+
+    /**
+     * The time between two background flushes in milliseconds. This setting only applies to the {@code periodic}
+     * durability.
+     *
+     * @param forceInterval The time between two flushes in milliseconds
+     */
+    public final void setForceInterval(final long forceInterval) {
+
+        this.forceInterval = forceInterval;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see JournalMessageQProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
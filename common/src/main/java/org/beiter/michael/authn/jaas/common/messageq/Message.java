@@ -0,0 +1,286 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.Util;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable message about an event in a login workflow, as delivered to the {@link MessageConsumer}s of an
+ * {@link InProcessMessageQ}, or read by the {@link JournalConsumer}s of a {@link JournalMessageQ}.
+ * <p>
+ * A message identifies the user either by user ID (i.e. by principal), or by domain and username, depending on the
+ * method of the {@link MessageQ} interface it has been created with. Every message carries an idempotency ID that is
+ * unique across JVMs, so that consumers can discard messages they receive more than once (e.g. when spooled messages
+ * are replayed). Like audit events, messages are numbered in the sequence of events of the JVM, and carry the node ID
+ * of the JVM and (for messages of a login workflow) the correlation ID of the workflow, so that consumers can order
+ * and group the messages of several nodes.
+ */
+public final class Message {
+
+    /**
+     * @see Message#getSequence()
+     */
+    private final long sequence;
+
+    /**
+     * @see Message#getTime()
+     */
+    private final long time;
+
+    /**
+     * @see Message#getEvent()
+     */
+    private final Events event;
+
+    /**
+     * @see Message#getDomain()
+     */
+    private final String domain;
+
+    /**
+     * @see Message#getUsername()
+     */
+    private final String username;
+
+    /**
+     * @see Message#getUserId()
+     */
+    private final String userId;
+
+    /**
+     * @see Message#getPrincipals()
+     */
+    private final Set<String> principals;
+
+    /**
+     * @see Message#getId()
+     */
+    private final String id;
+
+    /**
+     * @see Message#getCorrelationId()
+     */
+    private final String correlationId;
+
+    /**
+     * @see Message#getNodeId()
+     */
+    private final String nodeId;
+
+    /**
+     * Create a message with the next sequence number of this JVM, a new idempotency ID, and the node ID of this JVM.
+     *
+     * @param time       The wall clock time of the event, in milliseconds since the epoch
+     * @param event      The event
+     * @param domain     The domain of the user, may be {@code null}
+     * @param username   The username of the user, may be {@code null}
+     * @param userId     The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param principals The names of the principals the event concerns
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    public Message(final long time, final Events event, final String domain, final String username,
+                   final String userId, final Set<String> principals) {
+
+        this(Util.nextSequence(), time, event, domain, username, userId, principals, Util.newId(), null,
+                Util.getNodeId());
+    }
+
+    /**
+     * Create a message with all its details, e.g. to deliver a message again.
+     *
+     * @param sequence      The sequence number of the message, or 0 if it is unknown
+     * @param time          The wall clock time of the event, in milliseconds since the epoch
+     * @param event         The event
+     * @param domain        The domain of the user, may be {@code null}
+     * @param username      The username of the user, may be {@code null}
+     * @param userId        The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param principals    The names of the principals the event concerns
+     * @param id            The idempotency ID of the message, may be {@code null}
+     * @param correlationId The ID of the login workflow the message belongs to, may be {@code null}
+     * @param nodeId        The identity of the JVM that created the message, may be {@code null}
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    // CHECKSTYLE:OFF
+    // a message simply has this many details
+    @SuppressWarnings("PMD.ExcessiveParameterList")
+    public Message(final long sequence, final long time, final Events event, final String domain,
+                   final String username, final String userId, final Set<String> principals, final String id,
+                   final String correlationId, final String nodeId) {
+        // CHECKSTYLE:ON
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notNull(principals, "The validated object 'principals' is null");
+        Validate.noNullElements(principals, "The validated collection 'principals' contains null element at index: %d");
+
+        this.sequence = sequence;
+        this.time = time;
+        this.event = event;
+        // no need for defensive copies of String
+        this.domain = domain;
+        this.username = username;
+        this.userId = userId;
+        if (principals.isEmpty()) {
+            this.principals = Collections.emptySet();
+        } else {
+            // create a defensive copy of the set, preserving the order of the principals
+            this.principals = Collections.unmodifiableSet(new LinkedHashSet<>(principals));
+        }
+        this.id = id;
+        this.correlationId = correlationId;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Create a message of a login workflow that happens now, with the next sequence number of this JVM, a new
+     * idempotency ID, and the node ID of this JVM.
+     *
+     * @param event         The event
+     * @param domain        The domain of the user, may be {@code null}
+     * @param username      The username of the user, may be {@code null}
+     * @param userId        The user ID (i.e. the principal) of the user, may be {@code null}
+     * @param principals    The names of the principals the event concerns
+     * @param correlationId The ID of the login workflow the message belongs to, may be {@code null}
+     * @return The message
+     * @throws NullPointerException     When {@code event} or {@code principals} are {@code null}
+     * @throws IllegalArgumentException When {@code principals} contains {@code null}
+     */
+    public static Message create(final Events event, final String domain, final String username, final String userId,
+                                 final Set<String> principals, final String correlationId) {
+
+        return new Message(Util.nextSequence(), System.currentTimeMillis(), event, domain, username, userId,
+                principals, Util.newId(), correlationId, Util.getNodeId());
+    }
+
+    /**
+     * @return The sequence number of the message, or 0 if it is unknown (e.g. because the message has been written by
+     * an earlier version). Messages are numbered in the order they are created, across all threads, in the sequence
+     * of events the JVM shares between audit events and messages (see {@link Util#nextSequence()}).
+     */
+    public long getSequence() {
+
+        return sequence;
+    }
+
+    /**
+     * @return The wall clock time of the event, in milliseconds since the epoch
+     */
+    public long getTime() {
+
+        return time;
+    }
+
+    /**
+     * @return The event
+     */
+    public Events getEvent() {
+
+        return event;
+    }
+
+    /**
+     * @return The domain of the user, or {@code null} if the message has been created for a user ID
+     */
+    public String getDomain() {
+
+        // no need for defensive copies of String
+        return domain;
+    }
+
+    /**
+     * @return The username of the user, or {@code null} if the message has been created for a user ID
+     */
+    public String getUsername() {
+
+        // no need for defensive copies of String
+        return username;
+    }
+
+    /**
+     * @return The user ID (i.e. the principal) of the user, or {@code null} if the message has been created for a
+     * domain and username
+     */
+    public String getUserId() {
+
+        // no need for defensive copies of String
+        return userId;
+    }
+
+    /**
+     * @return The names of the principals the event concerns, in the order they have been provided, or an empty set if
+     * the event does not concern a specific set of principals. The set cannot be modified.
+     */
+    public Set<String> getPrincipals() {
+
+        // the set is immutable, no need for a defensive copy
+        return principals;
+    }
+
+    /**
+     * @return The idempotency ID of the message, which is unique across JVMs, or {@code null} if the message does not
+     * have an ID (e.g. because it has been written by an earlier version). A message that is delivered more than once
+     * carries the same ID every time.
+     */
+    public String getId() {
+
+        // no need for defensive copies of String
+        return id;
+    }
+
+    /**
+     * @return The ID of the login workflow the message belongs to, or {@code null} if the message does not belong to a
+     * login workflow. All messages of one login module instance carry the same correlation ID.
+     */
+    public String getCorrelationId() {
+
+        // no need for defensive copies of String
+        return correlationId;
+    }
+
+    /**
+     * @return The identity of the JVM that created the message (see {@link Util#getNodeId()}), or {@code null} if it
+     * is unknown
+     */
+    public String getNodeId() {
+
+        // no need for defensive copies of String
+        return nodeId;
+    }
+}
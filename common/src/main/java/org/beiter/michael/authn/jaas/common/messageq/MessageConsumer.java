@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import java.util.List;
+
+/**
+ * A consumer of the messages of an {@link InProcessMessageQ}.
+ * <p>
+ * Consumers are subscribed with {@link InProcessMessageQ#subscribe(String, MessageConsumer)}, or configured by class
+ * name (in which case the class must have a no-argument constructor). The messages of a queue are delivered in
+ * batches, in the order in which they have been queued, by a single background thread that calls all consumers of the
+ * queue one after the other. A consumer should therefore return quickly, and hand off any slow processing to threads
+ * of its own, as it delays the delivery to all other consumers of the queue.
+ * <p>
+ * Classes implementing this interface <b>must</b> be thread safe, as the same consumer may be subscribed to several
+ * queues.
+ */
+public interface MessageConsumer {
+
+    /**
+     * Consume a batch of messages.
+     * <p>
+     * The list is only valid during the call, implementations must copy the list if they want to keep it (the
+     * messages themselves are immutable). Exceptions thrown by this method are logged, and do not affect the delivery
+     * of later batches or the delivery to other consumers.
+     *
+     * @param messages The messages, never empty
+     */
+    void consume(final List<Message> messages);
+}
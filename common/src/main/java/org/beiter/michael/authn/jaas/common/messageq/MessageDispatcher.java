@@ -0,0 +1,304 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the messages of an {@link InProcessMessageQ} to its consumers.
+ * <p>
+ * Messages are queued in a bounded queue by any number of threads, and delivered in batches by a single background
+ * thread, which drains up to a batch of messages at once and passes the batch to all consumers. Queueing a message
+ * does not wait for the consumers, and only blocks (up to a timeout) when the queue is full and the backpressure is
+ * {@link Backpressure#BLOCK}.
+ */
+final class MessageDispatcher
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    /**
+     * The prefix of the name of the background thread
+     */
+    private static final String THREAD_NAME = "jaas-messageq-dispatcher-";
+
+    /**
+     * The time the background thread waits for a message before it checks whether the dispatcher has been closed, in
+     * milliseconds
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * The messages waiting to be delivered
+     */
+    private final BlockingQueue<Message> queue;
+
+    /**
+     * The maximum number of messages in a batch
+     */
+    private final int batchSize;
+
+    /**
+     * What happens to a message when the queue is full
+     */
+    private final Backpressure backpressure;
+
+    /**
+     * The maximum time to wait for room in the queue, in milliseconds
+     */
+    private final long offerTimeout;
+
+    /**
+     * The consumers the dispatcher has been created with
+     */
+    private final List<MessageConsumer> configuredConsumers;
+
+    /**
+     * The consumers that have been subscribed to the queue (shared with {@link InProcessMessageQ})
+     */
+    private final List<MessageConsumer> subscribedConsumers;
+
+    /**
+     * The background thread
+     */
+    private final Thread worker;
+
+    /**
+     * The number of messages that have been delivered
+     */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /**
+     * The number of messages that have been dropped because the queue was full
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The number of deliveries of a batch to a consumer that have failed
+     */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Tracks if the dispatcher has been closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Create a dispatcher, and start its background thread.
+     *
+     * @param name                The name of the queue (used to name the background thread)
+     * @param capacity            The maximum number of queued messages
+     * @param batchSize           The maximum number of messages in a batch
+     * @param backpressure        What happens to a message when the queue is full
+     * @param offerTimeout        The maximum time to wait for room in the queue with {@link Backpressure#BLOCK}, in
+     *                            milliseconds
+     * @param configuredConsumers The consumers configured for the queue
+     * @param subscribedConsumers The consumers subscribed to the queue, a thread safe list that is read with every
+     *                            batch
+     * @throws NullPointerException When {@code name}, {@code backpressure}, or any of the lists are {@code null}
+     */
+    MessageDispatcher(final String name, final int capacity, final int batchSize, final Backpressure backpressure,
+                      final long offerTimeout, final List<MessageConsumer> configuredConsumers,
+                      final List<MessageConsumer> subscribedConsumers) {
+
+        Validate.notNull(name, "The validated object 'name' is null");
+        Validate.notNull(backpressure, "The validated object 'backpressure' is null");
+        Validate.noNullElements(configuredConsumers,
+                "The validated collection 'configuredConsumers' contains null element at index: %d");
+        Validate.notNull(subscribedConsumers, "The validated object 'subscribedConsumers' is null");
+
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.backpressure = backpressure;
+        this.offerTimeout = Math.max(0, offerTimeout);
+        this.configuredConsumers = Collections.unmodifiableList(new ArrayList<>(configuredConsumers));
+        this.subscribedConsumers = subscribedConsumers;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processMessages();
+            }
+        }, THREAD_NAME + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue a message to be delivered, applying the backpressure if the queue is full.
+     *
+     * @param message The message
+     * @return {@code true} if the message has been queued or dropped as configured, {@code false} if the dispatcher
+     * is closed, or the message has been rejected because the queue is full
+     * @throws NullPointerException When {@code message} is {@code null}
+     */
+    boolean offer(final Message message) {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        if (closed) {
+            return false;
+        }
+
+        switch (backpressure) {
+            case DROP:
+                if (!queue.offer(message)) {
+                    droppedCount.incrementAndGet();
+                }
+                return true;
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    if (queue.poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                return true;
+            case BLOCK:
+                try {
+                    return queue.offer(message, offerTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    LOG.warn("Interrupted while waiting for room in the message queue", e);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            default:
+                return queue.offer(message);
+        }
+    }
+
+    /**
+     * @return The number of messages that have been delivered to the consumers
+     */
+    long getDeliveredCount() {
+
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return The number of messages that have been dropped because the queue was full
+     */
+    long getDroppedCount() {
+
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of deliveries of a batch to a consumer that have failed
+     */
+    long getFailedCount() {
+
+        return failedCount.get();
+    }
+
+    /**
+     * Stop accepting messages, and deliver the messages that are still queued.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the message dispatcher to finish, queued messages may be lost", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deliver batches of messages until the dispatcher is closed and the queue is empty.
+     */
+    private void processMessages() {
+
+        final List<Message> batch = new ArrayList<>(batchSize);
+        final List<Message> view = Collections.unmodifiableList(batch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                final Message first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                deliver(configuredConsumers, view);
+                deliver(subscribedConsumers, view);
+                deliveredCount.addAndGet(batch.size());
+            } catch (InterruptedException e) {
+                LOG.info("The message dispatcher has been interrupted, stopping");
+                droppedCount.addAndGet(queue.size());
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Deliver a batch of messages to a list of consumers, isolating the consumers from each other's failures.
+     *
+     * @param consumers The consumers
+     * @param batch     The batch
+     */
+    private void deliver(final List<MessageConsumer> consumers, final List<Message> batch) {
+
+        // private method asserts
+        assert consumers != null : "The consumers cannot be null";
+        assert batch != null : "The batch cannot be null";
+
+        for (final MessageConsumer consumer : consumers) {
+            try {
+                consumer.consume(batch);
+            } catch (RuntimeException e) {
+                // do not let a single bad consumer kill the dispatcher
+                LOG.warn("The message consumer '" + consumer.getClass().getName() + "' failed to consume "
+                        + batch.size() + " message(s)", e);
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@
  */
 package org.beiter.michael.authn.jaas.common.messageq;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.beiter.michael.authn.jaas.common.Events;
 import org.beiter.michael.authn.jaas.common.Util;
@@ -39,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.security.auth.login.LoginException;
+import java.util.Set;
 
 /**
  * A helper class with utility methods to create messages
@@ -98,4 +100,117 @@ public final class MessageHelper {
             }
         }
     }
+
+    /**
+     * Post a message queue event concerning a set of principals (during a login workflow).
+     * <p>
+     * If {@code messageQ} is {@code null}, then messaging is considered disabled. If {@code messageQ} implements
+     * {@link PrincipalMessageQ}, then a single message with the principals is created, otherwise a single message is
+     * created with the domain and username.
+     *
+     * @param messageQ   The message queue object to use for posting the message
+     * @param domain     The user's domain
+     * @param username   The user's username
+     * @param principals The names of the principals the event concerns
+     * @param event      The event to post
+     * @param error      The error message to be logged in the application log if the message queue post fails (i.e. no
+     *                   message queue event can be created)
+     * @throws LoginException           If posting to the message queue fails (i.e. no message can be created)
+     * @throws NullPointerException     When the {@code domain}, {@code username}, {@code principals}, {@code event},
+     *                                  or {@code error} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username}, or {@code error} are empty
+     */
+    public static void postMessage(final MessageQ messageQ, final String domain, final String username,
+                                   final Set<String> principals, final Events event, final String error)
+            throws LoginException {
+
+        // "messageQ" may be null, not validating here (see below)
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+        Validate.notNull(principals, "The validated object 'principals' is null");
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(error, "The validated character sequence 'error' is null or empty");
+
+        if (messageQ instanceof PrincipalMessageQ) {
+            try {
+                ((PrincipalMessageQ) messageQ).create(event, domain, username, principals);
+            } catch (MessageQException e) {
+                LOG.warn(error, e);
+                throw Util.newLoginException(error, e);
+            }
+        } else {
+            // also handles a disabled message queue
+            postMessage(messageQ, domain, username, event, error);
+        }
+    }
+
+    /**
+     * Post a message (during a login workflow), keeping the sequence number and the IDs of the message if the message
+     * queue implements {@link StructuredMessageQ} (see {@link #createMessage(MessageQ, Message)} for other message
+     * queues).
+     * <p>
+     * If {@code messageQ} is {@code null}, then messaging is considered disabled.
+     *
+     * @param messageQ The message queue object to use for posting the message
+     * @param message  The message to post
+     * @param error    The error message to be logged in the application log if the message queue post fails (i.e. no
+     *                 message queue event can be created)
+     * @throws LoginException           If posting to the message queue fails (i.e. no message can be created)
+     * @throws NullPointerException     When the {@code message} or {@code error} are {@code null}
+     * @throws IllegalArgumentException When {@code error} is empty
+     */
+    public static void postMessage(final MessageQ messageQ, final Message message, final String error)
+            throws LoginException {
+
+        // "messageQ" may be null, not validating here (see below)
+        Validate.notNull(message, "The validated object 'message' is null");
+        Validate.notBlank(error, "The validated character sequence 'error' is null or empty");
+
+        // if message queues are disabled, the messageQ object will not have been initialized
+        if (messageQ == null) {
+            // string concatenation is only executed if log level is actually enabled
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Messages queues have been disabled, not creating event '"
+                        + message.getEvent().getValue() + "' for '" + message.getUsername() + "@"
+                        + message.getDomain() + "'");
+            }
+        } else {
+            try {
+                createMessage(messageQ, message);
+            } catch (MessageQException e) {
+                LOG.warn(error, e);
+                throw Util.newLoginException(error, e);
+            }
+        }
+    }
+
+    /**
+     * Create a message in a message queue. If {@code messageQ} implements {@link StructuredMessageQ}, then the message
+     * is created with all its details (e.g. its time and IDs), otherwise a new message is created with the principals,
+     * the domain and username, or the user ID of the message (in this order of preference).
+     *
+     * @param messageQ The message queue to create the message in
+     * @param message  The message
+     * @throws MessageQException When the message cannot be created
+     */
+    static void createMessage(final MessageQ messageQ, final Message message)
+            throws MessageQException {
+
+        // private method asserts
+        assert messageQ != null : "The message queue cannot be null";
+        assert message != null : "The message cannot be null";
+
+        final boolean hasUser = StringUtils.isNotBlank(message.getDomain())
+                && StringUtils.isNotBlank(message.getUsername());
+        if (messageQ instanceof StructuredMessageQ) {
+            ((StructuredMessageQ) messageQ).create(message);
+        } else if (hasUser && !message.getPrincipals().isEmpty() && messageQ instanceof PrincipalMessageQ) {
+            ((PrincipalMessageQ) messageQ).create(message.getEvent(), message.getDomain(), message.getUsername(),
+                    message.getPrincipals());
+        } else if (hasUser) {
+            messageQ.create(message.getEvent(), message.getDomain(), message.getUsername());
+        } else {
+            messageQ.create(message.getEvent(), message.getUserId());
+        }
+    }
 }
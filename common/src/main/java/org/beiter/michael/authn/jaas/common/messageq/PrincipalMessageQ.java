@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.beiter.michael.authn.jaas.common.Events;
+
+import java.util.Set;
+
+/**
+ * A message queue subsystem that accepts messages concerning several principals at once (such as a logout of a
+ * subject carrying the principals of several login modules), so that a single message can be created instead of one
+ * per principal.
+ * <p>
+ * Login modules pass such messages to message queue subsystems that implement this interface, and fall back to a
+ * single message created with the methods of the {@link MessageQ} interface for all other message queue subsystems
+ * (see {@link MessageHelper}).
+ * <p>
+ * Classes implementing this interface <b>must</b> be thread safe.
+ */
+public interface PrincipalMessageQ
+        extends MessageQ {
+
+    /**
+     * Create a message for the provided username in the specified white label domain, concerning a set of principals
+     *
+     * @param event      The event to create a message for
+     * @param domain     The white label domain in which the username is located
+     * @param username   The username to create a message for
+     * @param principals The names of the principals the event concerns
+     * @throws MessageQException when the message creation operation fails.
+     */
+    void create(final Events event, final String domain, final String username, final Set<String> principals)
+            throws MessageQException;
+}
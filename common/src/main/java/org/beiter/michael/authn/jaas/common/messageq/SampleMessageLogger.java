@@ -38,13 +38,15 @@ import org.beiter.michael.authn.jaas.common.Events;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Set;
+
 /**
  * This default message queue implementation prints all events to the Java logging subsystem.
  * <p>
  * This is actually not a real message queue, and should be replaced with a connector to a message queue solution.
  */
 public class SampleMessageLogger
-        implements MessageQ {
+        implements PrincipalMessageQ {
 
     /**
      * The logger object for this class
@@ -100,4 +102,29 @@ public class SampleMessageLogger
             LOG.info("[MESSAGEQ] " + event.getValue() + ". User name '" + username + "', domain '" + domain + "'");
         }
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain}, {@code username} or {@code principals}
+     *                                  are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit when upgrading PMD.
+    @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+    public final void create(final Events event, final String domain, final String username,
+                             final Set<String> principals) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+        Validate.notNull(principals, "The validated object 'principals' is null");
+
+        // PMD does not recognize the guarded log statement
+        if (LOG.isInfoEnabled()) {
+            LOG.info("[MESSAGEQ] " + event.getValue() + ". User name '" + username + "', domain '" + domain
+                    + "', principals " + principals);
+        }
+    }
 }
@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.Util;
+import org.beiter.michael.authn.jaas.common.journal.JournalSpool;
+import org.beiter.michael.authn.jaas.common.journal.RecordHandler;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedSpoolingMessageQPropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A message queue subsystem that passes the messages on to another message queue subsystem (the delegate), and spools
+ * the messages the delegate fails to create to a local disk queue (see {@link JournalSpool}) instead of failing the
+ * message creation, so that logins do not depend on the availability of the delegate (e.g. a message broker).
+ * <p>
+ * The spool is configured with the {@code jaas.messageq.spooling.*} keys (see
+ * {@link JaasBasedSpoolingMessageQPropsBuilder}), and the delegate is created with
+ * {@link MessageQFactory#getInstance(String, CommonProperties)} using the properties this instance is initialized
+ * with. A background thread replays the spooled messages to the delegate in order, every retry interval, until the
+ * delegate has recovered. While there are spooled messages, new messages are spooled as well, so that the delegate
+ * receives the messages in the order they have been created. Creating a message only fails if the message can neither
+ * be created by the delegate nor be spooled.
+ * <p>
+ * Every message carries an idempotency ID (see {@link Message#getId()}), which a delegate implementing
+ * {@link StructuredMessageQ} receives with the message also when the message is replayed, so that consumers can
+ * discard a message they receive twice.
+ * <p>
+ * All instances that are configured with the same directory share one spool, which replays the messages to the
+ * delegate of the instance that has been initialized last. This class is thread safe.
+ */
+public final class SpoolingMessageQ
+        implements StructuredMessageQ {
+
+    /**
+     * The prefix of the segment file names of the spool
+     */
+    public static final String PREFIX = "message-spool";
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolingMessageQ.class);
+
+    /**
+     * The spools that are currently open, by canonical directory path
+     */
+    private static final Map<String, JournalSpool> SPOOLS = new HashMap<>();
+
+    /**
+     * The delegate and spool of the current configuration
+     */
+    private volatile Destination destination;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the configured delegate, and opens the spool in the configured directory (or attaches to the spool if
+     * it is already open). If the delegate cannot be created or the spool cannot be opened, all message operations
+     * fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final SpoolingMessageQProperties spoolProps =
+                JaasBasedSpoolingMessageQPropsBuilder.build(properties.getAdditionalProperties());
+
+        if (StringUtils.isBlank(spoolProps.getDirectory())) {
+            LOG.warn("No message spool directory has been configured, all message operations will fail");
+            destination = null;
+            return;
+        }
+
+        try {
+            final MessageQ delegate = createDelegate(spoolProps.getDelegate(), properties);
+            final JournalSpool spool = getSpool(spoolProps);
+            spool.setReplayer(new RecordHandler() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                    return replay(delegate, sequence, payload);
+                }
+            });
+            destination = new Destination(delegate, spool);
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the message queue delegate, all message operations will fail", e);
+            destination = null;
+        } catch (IOException e) {
+            LOG.warn("Cannot open the message spool, all message operations will fail", e);
+            destination = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public void create(final Events event, final String userId)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        create(new Message(System.currentTimeMillis(), event, null, null, userId, Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public void create(final Events event, final String domain, final String username)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        create(new Message(System.currentTimeMillis(), event, domain, username, null, Collections.<String>emptySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain}, {@code username} or {@code principals}
+     *                                  are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty, or {@code principals} contains
+     *                                  {@code null}
+     */
+    @Override
+    public void create(final Events event, final String domain, final String username,
+                       final Set<String> principals)
+            throws MessageQException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        create(new Message(System.currentTimeMillis(), event, domain, username, null, principals));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Messages without an idempotency ID are given a new ID.
+     *
+     * @throws NullPointerException When the {@code message} is {@code null}
+     */
+    @Override
+    public void create(final Message message)
+            throws MessageQException {
+
+        Validate.notNull(message, "The validated object 'message' is null");
+
+        final Destination myDestination = destination;
+        if (myDestination == null) {
+            final String error = "The message queue delegate or spool is not available";
+            LOG.warn(error);
+            throw new MessageQException(error);
+        }
+
+        final Message identified = withId(message);
+        if (!myDestination.spool.isSpooling()) {
+            try {
+                MessageHelper.createMessage(myDestination.delegate, identified);
+                return;
+            } catch (MessageQException e) {
+                LOG.warn("The message queue delegate has failed, spooling the message for a later replay", e);
+            }
+        }
+
+        final byte[] payload = new byte[JournalMessageQ.encodedLength(identified)];
+        JournalMessageQ.encode(identified, ByteBuffer.wrap(payload));
+        try {
+            myDestination.spool.append(payload, 0, payload.length);
+        } catch (IOException | IllegalArgumentException e) {
+            final String error = "Cannot spool the message";
+            LOG.warn(error, e);
+            throw new MessageQException(error, e);
+        }
+    }
+
+    /**
+     * @return The spool of the current configuration, or {@code null} if the spool is not available
+     */
+    JournalSpool getSpool() {
+
+        final Destination myDestination = destination;
+        if (myDestination == null) {
+            return null;
+        }
+
+        return myDestination.spool;
+    }
+
+    /**
+     * Close all open spools. The instances that have been attached to a closed spool fail to spool messages until they
+     * are initialized again.
+     *
+     * @throws IOException When a spool cannot be closed
+     */
+    static void closeAll()
+            throws IOException {
+
+        synchronized (SPOOLS) {
+            for (final JournalSpool spool : SPOOLS.values()) {
+                spool.close();
+            }
+            SPOOLS.clear();
+        }
+    }
+
+    /**
+     * Return the open spool for the configured directory, or open the spool.
+     *
+     * @param spoolProps The configuration of the spool
+     * @return The spool
+     * @throws IOException When the spool cannot be opened
+     */
+    private static JournalSpool getSpool(final SpoolingMessageQProperties spoolProps)
+            throws IOException {
+
+        // private method asserts
+        assert spoolProps != null : "The spool properties cannot be null";
+
+        final File directory = new File(spoolProps.getDirectory()).getCanonicalFile();
+        synchronized (SPOOLS) {
+            JournalSpool spool = SPOOLS.get(directory.getPath());
+            if (spool == null) {
+                spool = JournalSpool.open(directory, PREFIX, spoolProps.getSegmentSize(),
+                        spoolProps.getRetryInterval(), spoolProps.getBatchSize());
+                SPOOLS.put(directory.getPath(), spool);
+            }
+
+            return spool;
+        }
+    }
+
+    /**
+     * Create the delegate.
+     *
+     * @param className  The class name of the delegate, may be {@code null}
+     * @param properties The properties to initialize the delegate with
+     * @return The delegate
+     * @throws FactoryException When the delegate is not configured or cannot be created
+     */
+    private static MessageQ createDelegate(final String className, final CommonProperties properties)
+            throws FactoryException {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (StringUtils.isBlank(className)) {
+            throw new FactoryException("No message queue delegate has been configured (key '"
+                    + JaasBasedSpoolingMessageQPropsBuilder.KEY_DELEGATE + "')");
+        }
+        if (SpoolingMessageQ.class.getName().equals(className)) {
+            throw new FactoryException("A spooling message queue cannot be the delegate of a spooling message queue");
+        }
+
+        return MessageQFactory.getInstance(className, properties);
+    }
+
+    /**
+     * @param message A message
+     * @return The message, or a copy of the message with a new idempotency ID if the message does not have an ID
+     */
+    private static Message withId(final Message message) {
+
+        // private method asserts
+        assert message != null : "The message cannot be null";
+
+        if (message.getId() != null) {
+            return message;
+        }
+
+        return new Message(message.getSequence(), message.getTime(), message.getEvent(), message.getDomain(),
+                message.getUsername(), message.getUserId(), message.getPrincipals(), Util.newId(),
+                message.getCorrelationId(), message.getNodeId());
+    }
+
+    /**
+     * Replay a spooled message to the delegate.
+     *
+     * @param delegate The delegate
+     * @param sequence The sequence number of the spooled record
+     * @param payload  The payload of the spooled record
+     * @return {@code false} if the delegate has failed to create the message
+     */
+    private static boolean replay(final MessageQ delegate, final long sequence, final ByteBuffer payload) {
+
+        // private method asserts
+        assert delegate != null : "The delegate cannot be null";
+        assert payload != null : "The payload cannot be null";
+
+        final Message message;
+        try {
+            message = JournalMessageQ.decode(payload);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Skipping spooled message " + sequence + ", which cannot be decoded", e);
+            return true;
+        }
+
+        try {
+            MessageHelper.createMessage(delegate, message);
+            return true;
+        } catch (MessageQException e) {
+            LOG.warn("The message queue delegate is still not available, replaying the spooled messages later", e);
+            return false;
+        }
+    }
+
+    /**
+     * The delegate and spool of one configuration.
+     */
+    private static final class Destination {
+
+        /**
+         * The delegate the messages are passed on to
+         */
+        private final MessageQ delegate;
+
+        /**
+         * The spool for the messages the delegate fails to create
+         */
+        private final JournalSpool spool;
+
+        /**
+         * @param delegate The delegate
+         * @param spool    The spool
+         */
+        Destination(final MessageQ delegate, final JournalSpool spool) {
+
+            this.delegate = delegate;
+            this.spool = spool;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutProperties;
+import org.beiter.michael.authn.jaas.common.fanout.SinkProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link FanOutProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * The keys are relative to a prefix, which is {@link #AUDIT_PREFIX} for the composite audit and
+ * {@link #MESSAGEQ_PREFIX} for the composite message queue. The sinks are listed as a comma separated list of names in
+ * {@code <prefix>.sinks}, and every sink is configured with the keys {@code <prefix>.<name>.class},
+ * {@code <prefix>.<name>.policy}, {@code <prefix>.<name>.timeout}, {@code <prefix>.<name>.threads}, and
+ * {@code <prefix>.<name>.queueCapacity}. For instance:
+ * <pre>
+ *   jaas.audit.composite.sinks = log, sample
+ *   jaas.audit.composite.log.class = org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger
+ *   jaas.audit.composite.log.timeout = 500
+ *   jaas.audit.composite.sample.class = org.beiter.michael.authn.jaas.common.audit.SampleAuditLogger
+ *   jaas.audit.composite.sample.policy = bestEffort
+ * </pre>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedFanOutPropsBuilder {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JaasBasedFanOutPropsBuilder.class);
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see SinkProperties#setPolicy(String)
+     */
+    public static final String DEFAULT_POLICY = SinkProperties.POLICY_REQUIRED;
+
+    /**
+     * @see SinkProperties#setTimeout(long)
+     */
+    public static final long DEFAULT_TIMEOUT = 1000L;
+
+    /**
+     * @see SinkProperties#setThreads(int)
+     */
+    public static final int DEFAULT_THREADS = 1;
+
+    /**
+     * @see SinkProperties#setQueueCapacity(int)
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * The prefix of the keys of the composite audit
+     */
+    public static final String AUDIT_PREFIX = "jaas.audit.composite";
+
+    /**
+     * The prefix of the keys of the composite message queue
+     */
+    public static final String MESSAGEQ_PREFIX = "jaas.messageq.composite";
+
+    /**
+     * The suffix of the key listing the names of the sinks, separated by commas
+     *
+     * @see FanOutProperties#setSinks(List)
+     */
+    public static final String KEY_SINKS = ".sinks";
+
+    /**
+     * The suffix of the per-sink key of the class name
+     *
+     * @see SinkProperties#setClassName(String)
+     */
+    public static final String KEY_CLASS = ".class";
+
+    /**
+     * The suffix of the per-sink key of the failure policy
+     *
+     * @see SinkProperties#setPolicy(String)
+     */
+    public static final String KEY_POLICY = ".policy";
+
+    /**
+     * The suffix of the per-sink key of the timeout
+     *
+     * @see SinkProperties#setTimeout(long)
+     */
+    public static final String KEY_TIMEOUT = ".timeout";
+
+    /**
+     * The suffix of the per-sink key of the number of threads
+     *
+     * @see SinkProperties#setThreads(int)
+     */
+    public static final String KEY_THREADS = ".threads";
+
+    /**
+     * The suffix of the per-sink key of the queue capacity
+     *
+     * @see SinkProperties#setQueueCapacity(int)
+     */
+    public static final String KEY_QUEUE_CAPACITY = ".queueCapacity";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedFanOutPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of fan out properties that use the defaults as specified in this class, i.e. without any sinks.
+     *
+     * @param prefix The prefix of the keys, e.g. {@link #AUDIT_PREFIX}
+     * @return A set of fan out properties with (reasonable) defaults
+     * @throws NullPointerException     When {@code prefix} is {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty
+     * @see JaasBasedFanOutPropsBuilder
+     */
+    public static FanOutProperties buildDefault(final String prefix) {
+
+        return build(prefix, new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of fan out properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Sinks without a class name are ignored. Numbers that cannot be parsed or are out of range, and unknown policies
+     * are ignored, and the default is used instead.
+     *
+     * @param prefix     The prefix of the keys, e.g. {@link #AUDIT_PREFIX}
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>FanOutProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException     When {@code prefix} or {@code properties} are {@code null}
+     * @throws IllegalArgumentException When {@code prefix} is empty
+     */
+    public static FanOutProperties build(final String prefix, final Map<String, ?> properties) {
+
+        Validate.notBlank(prefix, "The validated character sequence 'prefix' is null or empty");
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final FanOutProperties fanOutProps = new FanOutProperties();
+
+        final List<SinkProperties> sinks = new ArrayList<>();
+        final String names = PropsUtil.getOption(prefix + KEY_SINKS, properties);
+        if (StringUtils.isNotBlank(names)) {
+            PropsUtil.logValue(prefix + KEY_SINKS, names);
+            for (final String name : StringUtils.split(names, ',')) {
+                final SinkProperties sink = buildSink(prefix + "." + name.trim(), name.trim(), properties);
+                if (sink != null) {
+                    sinks.add(sink);
+                }
+            }
+        } else {
+            PropsUtil.logDefault(prefix + KEY_SINKS, null);
+        }
+        fanOutProps.setSinks(sinks);
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        fanOutProps.setAdditionalProperties(tempMap);
+
+        return fanOutProps;
+    }
+
+    /**
+     * Build the properties of a sink.
+     *
+     * @param sinkPrefix The prefix of the keys of the sink
+     * @param name       The name of the sink
+     * @param properties The properties to retrieve values from
+     * @return The properties of the sink, or {@code null} if the sink does not have a class name
+     */
+    private static SinkProperties buildSink(final String sinkPrefix, final String name,
+                                            final Map<String, ?> properties) {
+
+        // private method asserts
+        assert sinkPrefix != null : "The sink prefix cannot be null";
+        assert name != null : "The name cannot be null";
+
+        final String className = PropsUtil.getOption(sinkPrefix + KEY_CLASS, properties);
+        if (StringUtils.isBlank(className)) {
+            LOG.warn("Key '" + sinkPrefix + KEY_CLASS + "' is not configured, ignoring the sink '" + name + "'");
+            return null;
+        }
+        PropsUtil.logValue(sinkPrefix + KEY_CLASS, className);
+
+        final SinkProperties sink = new SinkProperties();
+        sink.setName(name);
+        sink.setClassName(className.trim());
+
+        final String policy = PropsUtil.getOption(sinkPrefix + KEY_POLICY, properties);
+        if (SinkProperties.POLICY_REQUIRED.equals(policy) || SinkProperties.POLICY_BEST_EFFORT.equals(policy)) {
+            sink.setPolicy(policy);
+            PropsUtil.logValue(sinkPrefix + KEY_POLICY, policy);
+        } else {
+            if (StringUtils.isNotEmpty(policy)) {
+                LOG.warn("Key '" + sinkPrefix + KEY_POLICY
+                        + "' is not a supported policy, ignoring the configured value");
+            }
+            sink.setPolicy(DEFAULT_POLICY);
+            PropsUtil.logDefault(sinkPrefix + KEY_POLICY, DEFAULT_POLICY);
+        }
+
+        sink.setTimeout(PropsUtil.getPositiveLong(sinkPrefix + KEY_TIMEOUT, DEFAULT_TIMEOUT, properties));
+        sink.setThreads(PropsUtil.getInt(sinkPrefix + KEY_THREADS, DEFAULT_THREADS, 1, properties));
+        sink.setQueueCapacity(PropsUtil.getInt(sinkPrefix + KEY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY, 1, properties));
+
+        return sink;
+    }
+}
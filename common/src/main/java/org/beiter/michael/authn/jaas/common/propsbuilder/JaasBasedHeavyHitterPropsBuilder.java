@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.heavyhitter.HeavyHitterProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link HeavyHitterProperties} using the settings obtained from a JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedHeavyHitterPropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see HeavyHitterProperties#setEnabled(boolean)
+     */
+    public static final boolean DEFAULT_IS_ENABLED = false;
+
+    /**
+     * @see HeavyHitterProperties#setCapacity(int)
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * @see HeavyHitterProperties#setExportSize(int)
+     */
+    public static final int DEFAULT_EXPORT_SIZE = 10;
+
+    /**
+     * @see HeavyHitterProperties#setInterval(long)
+     */
+    public static final long DEFAULT_INTERVAL = 60000L;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see HeavyHitterProperties#setEnabled(boolean)
+     */
+    public static final String KEY_IS_ENABLED = "jaas.heavyHitters.isEnabled";
+
+    /**
+     * @see HeavyHitterProperties#setCapacity(int)
+     */
+    public static final String KEY_CAPACITY = "jaas.heavyHitters.capacity";
+
+    /**
+     * @see HeavyHitterProperties#setExportSize(int)
+     */
+    public static final String KEY_EXPORT_SIZE = "jaas.heavyHitters.exportSize";
+
+    /**
+     * @see HeavyHitterProperties#setInterval(long)
+     */
+    public static final String KEY_INTERVAL = "jaas.heavyHitters.interval";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedHeavyHitterPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of heavy hitter properties that use the defaults as specified in this class.
+     *
+     * @return A set of heavy hitter properties with (reasonable) defaults
+     * @see JaasBasedHeavyHitterPropsBuilder
+     */
+    public static HeavyHitterProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of heavy hitter properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range are ignored, and the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>HeavyHitterProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static HeavyHitterProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final HeavyHitterProperties hitterProps = new HeavyHitterProperties();
+
+        final String tmp = PropsUtil.getOption(KEY_IS_ENABLED, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            hitterProps.setEnabled(Boolean.parseBoolean(tmp));
+            PropsUtil.logValue(KEY_IS_ENABLED, tmp);
+        } else {
+            hitterProps.setEnabled(DEFAULT_IS_ENABLED);
+            PropsUtil.logDefault(KEY_IS_ENABLED, String.valueOf(DEFAULT_IS_ENABLED));
+        }
+
+        hitterProps.setCapacity(PropsUtil.getInt(KEY_CAPACITY, DEFAULT_CAPACITY, 1, properties));
+        hitterProps.setExportSize(PropsUtil.getInt(KEY_EXPORT_SIZE, DEFAULT_EXPORT_SIZE, 0, properties));
+        hitterProps.setInterval(PropsUtil.getPositiveLong(KEY_INTERVAL, DEFAULT_INTERVAL, properties));
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        hitterProps.setAdditionalProperties(tempMap);
+
+        return hitterProps;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.messageq.InProcessMessageQProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link InProcessMessageQProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedInProcessMessageQPropsBuilder {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JaasBasedInProcessMessageQPropsBuilder.class);
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see InProcessMessageQProperties#setName(String)
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    /**
+     * @see InProcessMessageQProperties#setCapacity(int)
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * @see InProcessMessageQProperties#setBatchSize(int)
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * @see InProcessMessageQProperties#setBackpressure(String)
+     */
+    public static final String DEFAULT_BACKPRESSURE = InProcessMessageQProperties.BACKPRESSURE_FAIL;
+
+    /**
+     * @see InProcessMessageQProperties#setOfferTimeout(long)
+     */
+    public static final long DEFAULT_OFFER_TIMEOUT = 10;
+
+    /**
+     * @see InProcessMessageQProperties#setConsumers(List)
+     */
+    public static final String DEFAULT_CONSUMERS = null;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see InProcessMessageQProperties#setName(String)
+     */
+    public static final String KEY_NAME = "jaas.messageq.inprocess.name";
+
+    /**
+     * @see InProcessMessageQProperties#setCapacity(int)
+     */
+    public static final String KEY_CAPACITY = "jaas.messageq.inprocess.capacity";
+
+    /**
+     * @see InProcessMessageQProperties#setBatchSize(int)
+     */
+    public static final String KEY_BATCH_SIZE = "jaas.messageq.inprocess.batchSize";
+
+    /**
+     * @see InProcessMessageQProperties#setBackpressure(String)
+     */
+    public static final String KEY_BACKPRESSURE = "jaas.messageq.inprocess.backpressure";
+
+    /**
+     * @see InProcessMessageQProperties#setOfferTimeout(long)
+     */
+    public static final String KEY_OFFER_TIMEOUT = "jaas.messageq.inprocess.offerTimeout";
+
+    /**
+     * @see InProcessMessageQProperties#setConsumers(List)
+     */
+    public static final String KEY_CONSUMERS = "jaas.messageq.inprocess.consumers";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedInProcessMessageQPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of in-process message queue properties that use the defaults as specified in this class.
+     *
+     * @return A set of in-process message queue properties with (reasonable) defaults
+     * @see JaasBasedInProcessMessageQPropsBuilder
+     */
+    public static InProcessMessageQProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of in-process message queue properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range, and unsupported backpressure settings are ignored, and the
+     * default is used instead. The consumers are configured as a comma separated list of class names.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>InProcessMessageQProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static InProcessMessageQProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final InProcessMessageQProperties messageQProps = new InProcessMessageQProperties();
+
+        String tmp = PropsUtil.getOption(KEY_NAME, properties);
+        if (StringUtils.isNotBlank(tmp)) {
+            messageQProps.setName(tmp.trim());
+            PropsUtil.logValue(KEY_NAME, tmp);
+        } else {
+            messageQProps.setName(DEFAULT_NAME);
+            PropsUtil.logDefault(KEY_NAME, DEFAULT_NAME);
+        }
+
+        messageQProps.setCapacity(PropsUtil.getInt(KEY_CAPACITY, DEFAULT_CAPACITY, 1, properties));
+        messageQProps.setBatchSize(PropsUtil.getInt(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE, 1, properties));
+        messageQProps.setOfferTimeout(PropsUtil.getPositiveLong(KEY_OFFER_TIMEOUT, DEFAULT_OFFER_TIMEOUT, properties));
+
+        tmp = PropsUtil.getOption(KEY_BACKPRESSURE, properties);
+        if (InProcessMessageQProperties.BACKPRESSURE_FAIL.equals(tmp)
+                || InProcessMessageQProperties.BACKPRESSURE_DROP.equals(tmp)
+                || InProcessMessageQProperties.BACKPRESSURE_DROP_OLDEST.equals(tmp)
+                || InProcessMessageQProperties.BACKPRESSURE_BLOCK.equals(tmp)) {
+            messageQProps.setBackpressure(tmp);
+            PropsUtil.logValue(KEY_BACKPRESSURE, tmp);
+        } else {
+            if (StringUtils.isNotEmpty(tmp)) {
+                LOG.warn("Key '" + KEY_BACKPRESSURE + "' is not a supported backpressure, ignoring the configured "
+                        + "value");
+            }
+            messageQProps.setBackpressure(DEFAULT_BACKPRESSURE);
+            PropsUtil.logDefault(KEY_BACKPRESSURE, DEFAULT_BACKPRESSURE);
+        }
+
+        tmp = PropsUtil.getOption(KEY_CONSUMERS, properties);
+        if (StringUtils.isNotBlank(tmp)) {
+            messageQProps.setConsumers(parseList(tmp));
+            PropsUtil.logValue(KEY_CONSUMERS, tmp);
+        } else {
+            messageQProps.setConsumers(null);
+            PropsUtil.logDefault(KEY_CONSUMERS, DEFAULT_CONSUMERS);
+        }
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        messageQProps.setAdditionalProperties(tempMap);
+
+        return messageQProps;
+    }
+
+    /**
+     * Parse a comma separated list, ignoring empty entries.
+     *
+     * @param value The comma separated list
+     * @return The trimmed entries of the list
+     */
+    private static List<String> parseList(final String value) {
+
+        // private method asserts
+        assert value != null : "The value cannot be null";
+
+        final List<String> entries = new ArrayList<>();
+        for (final String entry : StringUtils.split(value, ',')) {
+            final String trimmed = entry.trim();
+            if (!trimmed.isEmpty()) {
+                entries.add(trimmed);
+            }
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.messageq.JournalMessageQProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link JournalMessageQProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedJournalMessageQPropsBuilder {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JaasBasedJournalMessageQPropsBuilder.class);
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see JournalMessageQProperties#setDirectory(String)
+     */
+    public static final String DEFAULT_DIRECTORY = null;
+
+    /**
+     * @see JournalMessageQProperties#setSegmentSize(int)
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * @see JournalMessageQProperties#setRollInterval(long)
+     */
+    public static final long DEFAULT_ROLL_INTERVAL = 24L * 60 * 60 * 1000;
+
+    /**
+     * @see JournalMessageQProperties#setDurability(String)
+     */
+    public static final String DEFAULT_DURABILITY = JournalMessageQProperties.DURABILITY_PERIODIC;
+
+    /**
+     * @see JournalMessageQProperties#setGroupSize(int)
+     */
+    public static final int DEFAULT_GROUP_SIZE = 32;
+
+    /**
+     * @see JournalMessageQProperties#setGroupDelay(long)
+     */
+    public static final long DEFAULT_GROUP_DELAY = 2000L;
+
+    /**
+     * @see JournalMessageQProperties#setForceInterval(long)
+     */
+    public static final long DEFAULT_FORCE_INTERVAL = 1000L;
+
+
+    /**
+     * The smallest accepted segment size
+     */
+    public static final int MIN_SEGMENT_SIZE = 4096;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see JournalMessageQProperties#setDirectory(String)
+     */
+    public static final String KEY_DIRECTORY = "jaas.messageq.journal.directory";
+
+    /**
+     * @see JournalMessageQProperties#setSegmentSize(int)
+     */
+    public static final String KEY_SEGMENT_SIZE = "jaas.messageq.journal.segmentSize";
+
+    /**
+     * @see JournalMessageQProperties#setRollInterval(long)
+     */
+    public static final String KEY_ROLL_INTERVAL = "jaas.messageq.journal.rollInterval";
+
+    /**
+     * @see JournalMessageQProperties#setDurability(String)
+     */
+    public static final String KEY_DURABILITY = "jaas.messageq.journal.durability";
+
+    /**
+     * @see JournalMessageQProperties#setGroupSize(int)
+     */
+    public static final String KEY_GROUP_SIZE = "jaas.messageq.journal.groupSize";
+
+    /**
+     * @see JournalMessageQProperties#setGroupDelay(long)
+     */
+    public static final String KEY_GROUP_DELAY = "jaas.messageq.journal.groupDelay";
+
+    /**
+     * @see JournalMessageQProperties#setForceInterval(long)
+     */
+    public static final String KEY_FORCE_INTERVAL = "jaas.messageq.journal.forceInterval";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedJournalMessageQPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of journal message queue properties that use the defaults as specified in this class.
+     *
+     * @return A set of journal message queue properties with (reasonable) defaults
+     * @see JaasBasedJournalMessageQPropsBuilder
+     */
+    public static JournalMessageQProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of journal message queue properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range are ignored, and the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>JournalMessageQProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static JournalMessageQProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final JournalMessageQProperties messageQProps = new JournalMessageQProperties();
+
+        String tmp = PropsUtil.getOption(KEY_DIRECTORY, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            messageQProps.setDirectory(tmp);
+            PropsUtil.logValue(KEY_DIRECTORY, tmp);
+        } else {
+            messageQProps.setDirectory(DEFAULT_DIRECTORY);
+            PropsUtil.logDefault(KEY_DIRECTORY, DEFAULT_DIRECTORY);
+        }
+
+        messageQProps.setSegmentSize(PropsUtil.getInt(KEY_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE, MIN_SEGMENT_SIZE,
+                properties));
+        messageQProps.setRollInterval(PropsUtil.getPositiveLong(KEY_ROLL_INTERVAL, DEFAULT_ROLL_INTERVAL, properties));
+        messageQProps.setGroupSize(PropsUtil.getInt(KEY_GROUP_SIZE, DEFAULT_GROUP_SIZE, 1, properties));
+        messageQProps.setGroupDelay(PropsUtil.getPositiveLong(KEY_GROUP_DELAY, DEFAULT_GROUP_DELAY, properties));
+        messageQProps.setForceInterval(PropsUtil.getPositiveLong(KEY_FORCE_INTERVAL, DEFAULT_FORCE_INTERVAL,
+                properties));
+
+        tmp = PropsUtil.getOption(KEY_DURABILITY, properties);
+        if (JournalMessageQProperties.DURABILITY_NONE.equals(tmp)
+                || JournalMessageQProperties.DURABILITY_SYNC.equals(tmp)
+                || JournalMessageQProperties.DURABILITY_GROUP.equals(tmp)
+                || JournalMessageQProperties.DURABILITY_PERIODIC.equals(tmp)) {
+            messageQProps.setDurability(tmp);
+            PropsUtil.logValue(KEY_DURABILITY, tmp);
+        } else {
+            if (StringUtils.isNotEmpty(tmp)) {
+                LOG.warn("Key '" + KEY_DURABILITY + "' is not a supported durability, ignoring the configured value");
+            }
+            messageQProps.setDurability(DEFAULT_DURABILITY);
+            PropsUtil.logDefault(KEY_DURABILITY, DEFAULT_DURABILITY);
+        }
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        messageQProps.setAdditionalProperties(tempMap);
+
+        return messageQProps;
+    }
+}
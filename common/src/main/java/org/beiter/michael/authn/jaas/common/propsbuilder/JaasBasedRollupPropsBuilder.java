@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.rollup.RollupProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link RollupProperties} using the settings obtained from a JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedRollupPropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see RollupProperties#setEnabled(boolean)
+     */
+    public static final boolean DEFAULT_IS_ENABLED = false;
+
+    /**
+     * @see RollupProperties#setInterval(long)
+     */
+    public static final long DEFAULT_INTERVAL = 60000L;
+
+    /**
+     * @see RollupProperties#setWindowCount(int)
+     */
+    public static final int DEFAULT_WINDOW_COUNT = 5;
+
+    /**
+     * @see RollupProperties#setSink(String)
+     */
+    public static final String DEFAULT_SINK = null;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see RollupProperties#setEnabled(boolean)
+     */
+    public static final String KEY_IS_ENABLED = "jaas.rollup.isEnabled";
+
+    /**
+     * @see RollupProperties#setInterval(long)
+     */
+    public static final String KEY_INTERVAL = "jaas.rollup.interval";
+
+    /**
+     * @see RollupProperties#setWindowCount(int)
+     */
+    public static final String KEY_WINDOW_COUNT = "jaas.rollup.windowCount";
+
+    /**
+     * @see RollupProperties#setSink(String)
+     */
+    public static final String KEY_SINK = "jaas.rollup.sink";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedRollupPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of rollup properties that use the defaults as specified in this class.
+     *
+     * @return A set of rollup properties with (reasonable) defaults
+     * @see JaasBasedRollupPropsBuilder
+     */
+    public static RollupProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of rollup properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range are ignored, and the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>RollupProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static RollupProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final RollupProperties rollupProps = new RollupProperties();
+
+        String tmp = PropsUtil.getOption(KEY_IS_ENABLED, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            rollupProps.setEnabled(Boolean.parseBoolean(tmp));
+            PropsUtil.logValue(KEY_IS_ENABLED, tmp);
+        } else {
+            rollupProps.setEnabled(DEFAULT_IS_ENABLED);
+            PropsUtil.logDefault(KEY_IS_ENABLED, String.valueOf(DEFAULT_IS_ENABLED));
+        }
+
+        rollupProps.setInterval(PropsUtil.getPositiveLong(KEY_INTERVAL, DEFAULT_INTERVAL, properties));
+        rollupProps.setWindowCount(PropsUtil.getInt(KEY_WINDOW_COUNT, DEFAULT_WINDOW_COUNT, 1, properties));
+
+        tmp = PropsUtil.getOption(KEY_SINK, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            rollupProps.setSink(tmp);
+            PropsUtil.logValue(KEY_SINK, tmp);
+        } else {
+            rollupProps.setSink(DEFAULT_SINK);
+            PropsUtil.logDefault(KEY_SINK, DEFAULT_SINK);
+        }
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        rollupProps.setAdditionalProperties(tempMap);
+
+        return rollupProps;
+    }
+}
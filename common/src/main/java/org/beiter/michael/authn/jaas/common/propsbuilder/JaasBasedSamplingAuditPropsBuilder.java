@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.SamplingAuditProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link SamplingAuditProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedSamplingAuditPropsBuilder {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JaasBasedSamplingAuditPropsBuilder.class);
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see SamplingAuditProperties#setDelegate(String)
+     */
+    public static final String DEFAULT_DELEGATE = null;
+
+    /**
+     * @see SamplingAuditProperties#setInterval(long)
+     */
+    public static final long DEFAULT_INTERVAL = 60L * 1000;
+
+    /**
+     * @see SamplingAuditProperties#setSampleRate(int)
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 0;
+
+    /**
+     * @see SamplingAuditProperties#setAggregatedEvents(Set)
+     */
+    public static final String DEFAULT_AGGREGATED_EVENTS = "AUTHN_ATTEMPT,AUTHN_SUCCESS,AUTHN_LOGOUT";
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see SamplingAuditProperties#setDelegate(String)
+     */
+    public static final String KEY_DELEGATE = "jaas.audit.sampling.delegate";
+
+    /**
+     * @see SamplingAuditProperties#setInterval(long)
+     */
+    public static final String KEY_INTERVAL = "jaas.audit.sampling.interval";
+
+    /**
+     * @see SamplingAuditProperties#setSampleRate(int)
+     */
+    public static final String KEY_SAMPLE_RATE = "jaas.audit.sampling.sampleRate";
+
+    /**
+     * @see SamplingAuditProperties#setAggregatedEvents(Set)
+     */
+    public static final String KEY_AGGREGATED_EVENTS = "jaas.audit.sampling.aggregatedEvents";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedSamplingAuditPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of sampling audit properties that use the defaults as specified in this class.
+     *
+     * @return A set of sampling audit properties with (reasonable) defaults
+     * @see JaasBasedSamplingAuditPropsBuilder
+     */
+    public static SamplingAuditProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of sampling audit properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range are ignored, and the default is used instead. The aggregated
+     * events are configured as a comma separated list of {@link Events} names, unknown names are ignored.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>SamplingAuditProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static SamplingAuditProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final SamplingAuditProperties auditProps = new SamplingAuditProperties();
+
+        String tmp = PropsUtil.getOption(KEY_DELEGATE, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            auditProps.setDelegate(tmp);
+            PropsUtil.logValue(KEY_DELEGATE, tmp);
+        } else {
+            auditProps.setDelegate(DEFAULT_DELEGATE);
+            PropsUtil.logDefault(KEY_DELEGATE, DEFAULT_DELEGATE);
+        }
+
+        auditProps.setInterval(PropsUtil.getPositiveLong(KEY_INTERVAL, DEFAULT_INTERVAL, properties));
+        auditProps.setSampleRate(PropsUtil.getInt(KEY_SAMPLE_RATE, DEFAULT_SAMPLE_RATE, 0, properties));
+
+        tmp = PropsUtil.getOption(KEY_AGGREGATED_EVENTS, properties);
+        if (tmp != null) {
+            auditProps.setAggregatedEvents(parseEvents(KEY_AGGREGATED_EVENTS, tmp));
+            PropsUtil.logValue(KEY_AGGREGATED_EVENTS, tmp);
+        } else {
+            auditProps.setAggregatedEvents(parseEvents(KEY_AGGREGATED_EVENTS, DEFAULT_AGGREGATED_EVENTS));
+            PropsUtil.logDefault(KEY_AGGREGATED_EVENTS, DEFAULT_AGGREGATED_EVENTS);
+        }
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        auditProps.setAdditionalProperties(tempMap);
+
+        return auditProps;
+    }
+
+    /**
+     * Parse a comma separated list of {@link Events} names, ignoring unknown names.
+     *
+     * @param key   The configuration key (for logging)
+     * @param value The comma separated list
+     * @return The events
+     */
+    private static Set<Events> parseEvents(final String key, final String value) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+        assert value != null : "The value cannot be null";
+
+        final Set<Events> events = EnumSet.noneOf(Events.class);
+        for (final String name : StringUtils.split(value, ',')) {
+            final String trimmed = name.trim();
+            if (!trimmed.isEmpty()) {
+                try {
+                    events.add(Events.valueOf(trimmed));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Key '" + key + "' contains an unknown event ('" + trimmed + "'), ignoring the event", e);
+                }
+            }
+        }
+
+        return events;
+    }
+}
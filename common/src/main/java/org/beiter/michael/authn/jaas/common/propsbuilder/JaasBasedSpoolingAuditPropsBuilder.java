@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.audit.SpoolingAuditProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link SpoolingAuditProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedSpoolingAuditPropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see SpoolingAuditProperties#setDelegate(String)
+     */
+    public static final String DEFAULT_DELEGATE = null;
+
+    /**
+     * @see SpoolingAuditProperties#setDirectory(String)
+     */
+    public static final String DEFAULT_DIRECTORY = null;
+
+    /**
+     * @see SpoolingAuditProperties#setSegmentSize(int)
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * @see SpoolingAuditProperties#setRetryInterval(long)
+     */
+    public static final long DEFAULT_RETRY_INTERVAL = 5000L;
+
+    /**
+     * @see SpoolingAuditProperties#setBatchSize(int)
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * The smallest accepted segment size
+     */
+    public static final int MIN_SEGMENT_SIZE = 4096;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see SpoolingAuditProperties#setDelegate(String)
+     */
+    public static final String KEY_DELEGATE = "jaas.audit.spooling.delegate";
+
+    /**
+     * @see SpoolingAuditProperties#setDirectory(String)
+     */
+    public static final String KEY_DIRECTORY = "jaas.audit.spooling.directory";
+
+    /**
+     * @see SpoolingAuditProperties#setSegmentSize(int)
+     */
+    public static final String KEY_SEGMENT_SIZE = "jaas.audit.spooling.segmentSize";
+
+    /**
+     * @see SpoolingAuditProperties#setRetryInterval(long)
+     */
+    public static final String KEY_RETRY_INTERVAL = "jaas.audit.spooling.retryInterval";
+
+    /**
+     * @see SpoolingAuditProperties#setBatchSize(int)
+     */
+    public static final String KEY_BATCH_SIZE = "jaas.audit.spooling.batchSize";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedSpoolingAuditPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of spooling audit properties that use the defaults as specified in this class.
+     *
+     * @return A set of spooling audit properties with (reasonable) defaults
+     * @see JaasBasedSpoolingAuditPropsBuilder
+     */
+    public static SpoolingAuditProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of spooling audit properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Numbers that cannot be parsed or are out of range are ignored, and the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>SpoolingAuditProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static SpoolingAuditProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final SpoolingAuditProperties spoolProps = new SpoolingAuditProperties();
+
+        String tmp = PropsUtil.getOption(KEY_DELEGATE, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            spoolProps.setDelegate(tmp);
+            PropsUtil.logValue(KEY_DELEGATE, tmp);
+        } else {
+            spoolProps.setDelegate(DEFAULT_DELEGATE);
+            PropsUtil.logDefault(KEY_DELEGATE, DEFAULT_DELEGATE);
+        }
+
+        tmp = PropsUtil.getOption(KEY_DIRECTORY, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            spoolProps.setDirectory(tmp);
+            PropsUtil.logValue(KEY_DIRECTORY, tmp);
+        } else {
+            spoolProps.setDirectory(DEFAULT_DIRECTORY);
+            PropsUtil.logDefault(KEY_DIRECTORY, DEFAULT_DIRECTORY);
+        }
+
+        spoolProps.setSegmentSize(PropsUtil.getInt(KEY_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE, MIN_SEGMENT_SIZE,
+                properties));
+        spoolProps.setRetryInterval(PropsUtil.getPositiveLong(KEY_RETRY_INTERVAL, DEFAULT_RETRY_INTERVAL, properties));
+        spoolProps.setBatchSize(PropsUtil.getInt(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE, 1, properties));
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        spoolProps.setAdditionalProperties(tempMap);
+
+        return spoolProps;
+    }
+}
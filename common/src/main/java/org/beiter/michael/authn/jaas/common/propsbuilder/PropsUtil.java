@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Helper methods for the properties builders, which read typed values from a JAAS Properties Map, fall back to a
+ * default if a value is not configured or invalid, and log which of the two is used.
+ * <p>
+ * Configured values are only disclosed in the log at DEBUG level, because they may be confidential.
+ */
+public final class PropsUtil {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PropsUtil.class);
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private PropsUtil() {
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter as a string, falling back to the default if the parameter is
+     * not configured or empty.
+     *
+     * @param key          The key to retrieve from the options
+     * @param defaultValue The default value to use if the key is not configured or empty
+     * @param properties   The properties to retrieve values from
+     * @return The configuration value for the provided key
+     * @throws NullPointerException When {@code key} or {@code properties} are {@code null}
+     */
+    public static String getString(final String key, final String defaultValue, final Map<String, ?> properties) {
+
+        final String tmp = getOption(key, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            logValue(key, tmp);
+            return tmp;
+        }
+
+        logDefault(key, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter as a positive integer, falling back to the default if the
+     * parameter is not configured or invalid.
+     *
+     * @param key          The key to retrieve from the options
+     * @param defaultValue The default value to use if the key is not configured or invalid
+     * @param properties   The properties to retrieve values from
+     * @return The configuration value for the provided key
+     * @throws NullPointerException When {@code key} or {@code properties} are {@code null}
+     */
+    public static int getPositiveInt(final String key, final int defaultValue, final Map<String, ?> properties) {
+
+        return getInt(key, defaultValue, 1, properties);
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter as a positive long, falling back to the default if the
+     * parameter is not configured or invalid.
+     *
+     * @param key          The key to retrieve from the options
+     * @param defaultValue The default value to use if the key is not configured or invalid
+     * @param properties   The properties to retrieve values from
+     * @return The configuration value for the provided key
+     * @throws NullPointerException When {@code key} or {@code properties} are {@code null}
+     */
+    public static long getPositiveLong(final String key, final long defaultValue, final Map<String, ?> properties) {
+
+        final String tmp = getOption(key, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            try {
+                final long value = Long.parseLong(tmp.trim());
+                if (value > 0) {
+                    logValue(key, tmp);
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Key '" + key + "' is not a valid long, ignoring the configured value", e);
+            }
+        }
+
+        logDefault(key, String.valueOf(defaultValue));
+        return defaultValue;
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter as an integer with a minimum value, falling back to the
+     * default if the parameter is not configured or invalid.
+     *
+     * @param key          The key to retrieve from the options
+     * @param defaultValue The default value to use if the key is not configured or invalid
+     * @param minValue     The smallest valid value
+     * @param properties   The properties to retrieve values from
+     * @return The configuration value for the provided key
+     * @throws NullPointerException When {@code key} or {@code properties} are {@code null}
+     */
+    public static int getInt(final String key, final int defaultValue, final int minValue,
+                              final Map<String, ?> properties) {
+
+        final String tmp = getOption(key, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            try {
+                final int value = Integer.parseInt(tmp.trim());
+                if (value >= minValue) {
+                    logValue(key, tmp);
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Key '" + key + "' is not a valid integer, ignoring the configured value", e);
+            }
+        }
+
+        logDefault(key, String.valueOf(defaultValue));
+        return defaultValue;
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter as a finite number with a minimum value, falling back to the
+     * default if the parameter is not configured or invalid.
+     *
+     * @param key          The key to retrieve from the options
+     * @param defaultValue The default value to use if the key is not configured or invalid
+     * @param minValue     The smallest valid value
+     * @param properties   The properties to retrieve values from
+     * @return The configuration value for the provided key
+     * @throws NullPointerException When {@code key} or {@code properties} are {@code null}
+     */
+    public static double getDouble(final String key, final double defaultValue, final double minValue,
+                                   final Map<String, ?> properties) {
+
+        final String tmp = getOption(key, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            try {
+                final double value = Double.parseDouble(tmp.trim());
+                if (value >= minValue && !Double.isInfinite(value)) {
+                    logValue(key, tmp);
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Key '" + key + "' is not a valid number, ignoring the configured value", e);
+            }
+        }
+
+        logDefault(key, String.valueOf(defaultValue));
+        return defaultValue;
+    }
+
+    /**
+     * Return the value of a JAAS configuration parameter.
+     *
+     * @param <T>        The type of the element
+     * @param key        The key to retrieve from the options
+     * @param properties The properties to retrieve values from
+     * @return The configuration value for the provided key
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getOption(final String key, final Map<String, ?> properties) {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        return (T) properties.get(key);
+    }
+
+    /**
+     * Create a log entry when a value has been successfully configured.
+     *
+     * @param key   The configuration key
+     * @param value The value that is being used
+     */
+    public static void logValue(final String key, final String value) {
+
+        // Fortify will report a violation here because of disclosure of potentially confidential information.
+        // However, the configuration keys are not confidential, which makes this a non-issue / false positive.
+        if (LOG.isInfoEnabled()) {
+            final StringBuilder msg = new StringBuilder("Key found in configuration ('")
+                    .append(key)
+                    .append("'), using configured value (not disclosed here for security reasons)");
+            LOG.info(msg.toString());
+        }
+
+        // Fortify will report a violation here because of disclosure of potentially confidential information.
+        // The configuration VALUES are confidential. DO NOT activate DEBUG logging in production.
+        if (LOG.isDebugEnabled()) {
+            final StringBuilder msg = new StringBuilder("Key found in configuration ('")
+                    .append(key)
+                    .append("'), using configured value ('");
+            if (value == null) {
+                msg.append("null')");
+            } else {
+                msg.append(value).append("')");
+            }
+            LOG.debug(msg.toString());
+        }
+    }
+
+    /**
+     * Create a log entry when a default value is being used in case the propsbuilder key has not been provided in the
+     * configuration.
+     *
+     * @param key          The configuration key
+     * @param defaultValue The default value that is being used
+     */
+    public static void logDefault(final String key, final String defaultValue) {
+
+        // Fortify will report a violation here because of disclosure of potentially confidential information.
+        // However, neither the configuration keys nor the default propsbuilder values are confidential, which makes
+        // this a non-issue / false positive.
+        if (LOG.isInfoEnabled()) {
+            final StringBuilder msg = new StringBuilder("Key is not configured ('")
+                    .append(key)
+                    .append("'), using default value ('");
+            if (defaultValue == null) {
+                msg.append("null')");
+            } else {
+                msg.append(defaultValue).append("')");
+            }
+            LOG.info(msg.toString());
+        }
+    }
+}
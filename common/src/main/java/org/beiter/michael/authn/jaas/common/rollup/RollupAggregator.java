@@ -0,0 +1,674 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.rollup;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.audit.Audit;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditException;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.audit.AuditSummary;
+import org.beiter.michael.authn.jaas.common.audit.SummaryAudit;
+import org.beiter.michael.authn.jaas.common.listener.DeliveryMode;
+import org.beiter.michael.authn.jaas.common.listener.EventListener;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An incremental aggregation stage that counts the login lifecycle events per event and domain, in tumbling windows
+ * of a fixed interval and in a sliding window spanning the last N intervals.
+ * <p>
+ * The aggregator is an {@link EventListener} that is subscribed synchronously to all events, and there is one
+ * aggregator per JVM, which counts the events of all login modules (see
+ * {@link #getInstance(RollupProperties, CommonProperties)}). Counting an event is a handful of atomic increments on
+ * the login thread: the counters of a domain are striped by thread, so that concurrent logins in the same domain do
+ * not contend on the same cache line. A background thread closes every interval shortly after it ends, and passes one
+ * {@link AuditSummary} per event and domain with a non-zero count on to the configured sink, followed by the
+ * summaries of the sliding window ending with that interval. Sinks that do not implement {@link SummaryAudit} cannot
+ * store summaries, and the summaries are logged instead. Without a sink, the rollups are only available through
+ * {@link #getRollups(int)} and {@link #getCount(Events, String, int)}.
+ * <p>
+ * Events are assigned to an interval by their time. Events that arrive after their interval has been closed, or that
+ * are too far in the future, are not counted (see {@link #getDroppedCount()}).
+ * <p>
+ * This class is thread safe.
+ */
+public final class RollupAggregator
+        implements EventListener, Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(RollupAggregator.class);
+
+    /**
+     * The lock guarding the aggregator of this JVM
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The configurations that have been ignored because the aggregator of this JVM had already been created with
+     * another configuration, used to warn only once per configuration (guarded by the lock)
+     */
+    private static final Set<String> IGNORED_KEYS = new HashSet<>();
+
+    /**
+     * The aggregator of this JVM, {@code null} if it has not been created (guarded by the lock)
+     */
+    private static RollupAggregator instance;
+
+    /**
+     * The configuration of the aggregator of this JVM (guarded by the lock)
+     */
+    private static String instanceKey;
+
+    /**
+     * The key of the counters of events without a domain
+     */
+    private static final String NO_DOMAIN = "";
+
+    /**
+     * The time the background thread waits after the end of an interval before closing it, in milliseconds, so that
+     * events created just before the end of the interval can still be counted
+     */
+    private static final long EMIT_GRACE = 50L;
+
+    /**
+     * The number of counters in a cache line
+     */
+    private static final int LONGS_PER_CACHE_LINE = 8;
+
+    /**
+     * The maximum number of stripes of the counters of a domain
+     */
+    private static final int MAX_STRIPES = 8;
+
+    /**
+     * The number of counters of one stripe, padded to a multiple of the cache line size
+     */
+    private static final int STRIDE = (Events.values().length + LONGS_PER_CACHE_LINE - 1)
+            / LONGS_PER_CACHE_LINE * LONGS_PER_CACHE_LINE;
+
+    /**
+     * The number of stripes of the counters of a domain (a power of two)
+     */
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of intervals that are kept in addition to the sliding window: the current interval, and an interval
+     * that has ended, but has not been closed yet
+     */
+    private static final int RING_SLACK = 2;
+
+    /**
+     * The length of an interval in milliseconds
+     */
+    private final long interval;
+
+    /**
+     * The number of intervals in the sliding window
+     */
+    private final int windowCount;
+
+    /**
+     * The sink the rollups are passed on to, may be {@code null}
+     */
+    private final Audit sink;
+
+    /**
+     * The counters of the recent intervals, indexed by the interval number modulo the size of the ring
+     */
+    private final AtomicReferenceArray<Bucket> ring;
+
+    /**
+     * The start of the earliest interval that has not been closed yet, in milliseconds since the epoch
+     */
+    private volatile long nextEmit;
+
+    /**
+     * The number of events that have not been counted
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The lock the background thread waits on between intervals
+     */
+    private final Object wakeup = new Object();
+
+    /**
+     * {@code true} when the aggregator has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Create an aggregator without a background thread. The intervals are closed with {@link #emit(long)}.
+     *
+     * @param interval    The length of an interval in milliseconds
+     * @param windowCount The number of intervals in the sliding window
+     * @param sink        The sink the rollups are passed on to, may be {@code null}
+     * @param start       The time of the first interval, in milliseconds since the epoch
+     * @throws IllegalArgumentException When {@code interval} or {@code windowCount} are not positive
+     */
+    RollupAggregator(final long interval, final int windowCount, final Audit sink, final long start) {
+
+        Validate.isTrue(interval > 0, "The interval must be positive");
+        Validate.isTrue(windowCount > 0, "The window count must be positive");
+
+        this.interval = interval;
+        this.windowCount = windowCount;
+        this.sink = sink;
+        this.ring = new AtomicReferenceArray<>(windowCount + RING_SLACK);
+        this.nextEmit = windowStart(start);
+    }
+
+    /**
+     * Return the aggregator of this JVM, creating it (and subscribing it to all events) if it does not exist.
+     * <p>
+     * The in-process event listeners are JVM wide, so a second aggregator would count every event again. The
+     * aggregator is hence created with the configuration of the first login module that enables the rollups, and
+     * counts the events of all login modules in the JVM. A different configuration of another login module is ignored,
+     * with a warning. If the sink cannot be created, the aggregator is created without a sink.
+     *
+     * @param rollupProps The configuration of the aggregator
+     * @param properties  The properties to initialize the sink with
+     * @return The aggregator
+     * @throws NullPointerException     When {@code rollupProps} or {@code properties} are {@code null}
+     * @throws IllegalArgumentException When the interval or the window count are not positive
+     */
+    public static RollupAggregator getInstance(final RollupProperties rollupProps, final CommonProperties properties) {
+
+        Validate.notNull(rollupProps, "The validated object 'rollupProps' is null");
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final String key = rollupProps.getInterval() + "/" + rollupProps.getWindowCount() + "/"
+                + rollupProps.getSink();
+        synchronized (LOCK) {
+            if (instance == null) {
+                instance = new RollupAggregator(rollupProps.getInterval(), rollupProps.getWindowCount(),
+                        createSink(rollupProps.getSink(), properties), System.currentTimeMillis());
+                instance.start();
+                for (final Events event : Events.values()) {
+                    EventListeners.subscribe(event, instance, DeliveryMode.SYNCHRONOUS);
+                }
+                instanceKey = key;
+            } else if (!instanceKey.equals(key) && IGNORED_KEYS.add(key)) {
+                LOG.warn("The rollups of this JVM have already been configured differently by another login module, "
+                        + "ignoring this configuration");
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * Close the aggregator of this JVM, so that the next call to {@code getInstance()} creates a new one.
+     */
+    static void closeInstance() {
+
+        synchronized (LOCK) {
+            if (instance != null) {
+                instance.close();
+                instance = null;
+                instanceKey = null;
+            }
+            IGNORED_KEYS.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts the event in the interval of its time.
+     *
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    @Override
+    public void onEvent(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        final long start = windowStart(event.getTime());
+        final Bucket bucket = getOrCreateBucket(start);
+        if (bucket == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        String domain = event.getDomain();
+        if (domain == null) {
+            domain = NO_DOMAIN;
+        }
+        Counters counters = bucket.domains.get(domain);
+        if (counters == null) {
+            final Counters newCounters = new Counters();
+            counters = bucket.domains.putIfAbsent(domain, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+        counters.increment(event.getEvent());
+    }
+
+    /**
+     * Return the rollups of the last closed intervals, one per event and domain with a non-zero count.
+     *
+     * @param intervals The number of intervals to roll up, between 1 and the window count
+     * @return The rollups
+     * @throws IllegalArgumentException When {@code intervals} is out of range
+     */
+    public List<AuditSummary> getRollups(final int intervals) {
+
+        Validate.inclusiveBetween(1, windowCount, intervals, "The number of intervals is out of range");
+
+        final long end = nextEmit;
+        return toSummaries(aggregate(end - intervals * interval, end), end - intervals * interval, end);
+    }
+
+    /**
+     * Return the number of times an event happened in a domain during the last closed intervals.
+     *
+     * @param event     The event
+     * @param domain    The domain, may be {@code null} for events without a domain
+     * @param intervals The number of intervals to count, between 1 and the window count
+     * @return The number of events
+     * @throws NullPointerException     When {@code event} is {@code null}
+     * @throws IllegalArgumentException When {@code intervals} is out of range
+     */
+    public long getCount(final Events event, final String domain, final int intervals) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.inclusiveBetween(1, windowCount, intervals, "The number of intervals is out of range");
+
+        final long end = nextEmit;
+        final long[] counts = aggregate(end - intervals * interval, end).get(StringUtils.defaultString(domain));
+        if (counts == null) {
+            return 0;
+        }
+
+        return counts[event.ordinal()];
+    }
+
+    /**
+     * @return The number of events that have not been counted because their interval had already been closed, or was
+     * too far in the future
+     */
+    public long getDroppedCount() {
+
+        return dropped.get();
+    }
+
+    /**
+     * Unsubscribe the aggregator from all events, stop the background thread, and close the intervals that have
+     * ended.
+     */
+    @Override
+    public void close() {
+
+        for (final Events event : Events.values()) {
+            EventListeners.unsubscribe(event, this);
+        }
+
+        // the thread is woken up rather than interrupted, so that an interrupt cannot hit the sink's I/O
+        synchronized (wakeup) {
+            closed = true;
+            wakeup.notifyAll();
+        }
+        emit(System.currentTimeMillis());
+    }
+
+    /**
+     * Close all intervals that have ended at the given time, and pass their rollups on to the sink.
+     *
+     * @param now The current time, in milliseconds since the epoch
+     */
+    synchronized void emit(final long now) {
+
+        // skip the intervals that have already been recycled when the aggregator has not been closing intervals for
+        // a while (e.g. when the host has been suspended)
+        final long oldest = windowStart(now) - ring.length() * interval;
+        if (nextEmit < oldest) {
+            nextEmit = oldest;
+        }
+
+        while (nextEmit + interval <= now) {
+            final long start = nextEmit;
+            final long end = start + interval;
+            // an event counted concurrently with closing its interval is included in the queries, but may be missing
+            // from the rollup passed on to the sink
+            nextEmit = end;
+
+            if (sink != null) {
+                for (final AuditSummary summary : toSummaries(aggregate(start, end), start, end)) {
+                    emit(summary);
+                }
+                if (windowCount > 1) {
+                    final long windowStart = end - windowCount * interval;
+                    for (final AuditSummary summary : toSummaries(aggregate(windowStart, end), windowStart, end)) {
+                        emit(summary);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the background thread that closes the intervals.
+     */
+    private void start() {
+
+        final Thread emitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                runEmits();
+            }
+        }, "jaas-rollup-emit");
+        emitter.setDaemon(true);
+        emitter.start();
+    }
+
+    /**
+     * Close every interval shortly after it ends, until the aggregator is closed.
+     */
+    private void runEmits() {
+
+        while (true) {
+            final long deadline = nextEmit + interval + EMIT_GRACE;
+            synchronized (wakeup) {
+                long remaining = deadline - System.currentTimeMillis();
+                while (!closed && remaining > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.timedWait(wakeup, remaining);
+                    } catch (InterruptedException e) {
+                        // closing the aggregator closes the intervals that have ended
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            emit(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Return the counters of an interval, recycling the slot of an interval that is no longer needed.
+     *
+     * @param start The start of the interval
+     * @return The counters, or {@code null} if the interval has already been closed, or is too far in the future
+     */
+    private Bucket getOrCreateBucket(final long start) {
+
+        final long first = nextEmit;
+        if (start < first || start > first + interval) {
+            return null;
+        }
+
+        final int slot = slot(start);
+        while (true) {
+            final Bucket bucket = ring.get(slot);
+            if (bucket != null && bucket.start == start) {
+                return bucket;
+            }
+            if (bucket != null && bucket.start > start) {
+                return null;
+            }
+            final Bucket newBucket = new Bucket(start);
+            if (ring.compareAndSet(slot, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    /**
+     * Sum up the counters of the intervals in a time range, per domain.
+     *
+     * @param from The start of the first interval
+     * @param to   The end of the last interval
+     * @return The counts per domain, indexed by the ordinal of the event
+     */
+    private Map<String, long[]> aggregate(final long from, final long to) {
+
+        final Map<String, long[]> result = new HashMap<>();
+        for (long start = from; start < to; start += interval) {
+            final Bucket bucket = ring.get(slot(start));
+            if (bucket == null || bucket.start != start) {
+                continue;
+            }
+            for (final Map.Entry<String, Counters> entry : bucket.domains.entrySet()) {
+                long[] counts = result.get(entry.getKey());
+                if (counts == null) {
+                    counts = new long[Events.values().length];
+                    result.put(entry.getKey(), counts);
+                }
+                entry.getValue().addTo(counts);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Pass a rollup on to the sink, or log it if the sink cannot store summaries.
+     *
+     * @param summary The rollup
+     */
+    // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit with PMD.
+    @SuppressWarnings("PMD.GuardLogStatementJavaUtil")
+    private void emit(final AuditSummary summary) {
+
+        // private method asserts
+        assert summary != null : "The summary cannot be null";
+
+        if (sink instanceof SummaryAudit) {
+            try {
+                ((SummaryAudit) sink).audit(summary);
+            } catch (AuditException | RuntimeException e) {
+                LOG.warn("The rollup of " + summary.getCount() + " events '" + summary.getEvent().getValue()
+                        + "' has not been accepted by the sink", e);
+            }
+        } else if (LOG.isInfoEnabled()) {
+            // PMD does not recognize the guarded log statement
+            LOG.info("[AUDIT ROLLUP] " + summary.getEvent().getValue() + ". Count " + summary.getCount()
+                    + ", domain '" + summary.getDomain() + "', interval " + summary.getIntervalStart() + " - "
+                    + summary.getIntervalEnd());
+        }
+    }
+
+    /**
+     * @param time A time, in milliseconds since the epoch
+     * @return The start of the interval the time belongs to
+     */
+    private long windowStart(final long time) {
+
+        return time - ((time % interval) + interval) % interval;
+    }
+
+    /**
+     * @param start The start of an interval
+     * @return The slot of the interval in the ring
+     */
+    private int slot(final long start) {
+
+        final long size = ring.length();
+        return (int) (((start / interval) % size + size) % size);
+    }
+
+    /**
+     * Convert counts per domain to summaries, one per event and domain with a non-zero count.
+     *
+     * @param counts The counts per domain
+     * @param from   The start of the time range
+     * @param to     The end of the time range
+     * @return The summaries
+     */
+    private static List<AuditSummary> toSummaries(final Map<String, long[]> counts, final long from, final long to) {
+
+        // private method asserts
+        assert counts != null : "The counts cannot be null";
+
+        final List<AuditSummary> summaries = new ArrayList<>();
+        for (final Map.Entry<String, long[]> entry : counts.entrySet()) {
+            final String domain = StringUtils.defaultIfEmpty(entry.getKey(), null);
+            for (final Events event : Events.values()) {
+                final long count = entry.getValue()[event.ordinal()];
+                if (count > 0) {
+                    summaries.add(new AuditSummary(event, domain, count, from, to));
+                }
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Create the sink.
+     *
+     * @param className  The class name of the sink, may be {@code null}
+     * @param properties The properties to initialize the sink with
+     * @return The sink, or {@code null} if no sink has been configured or the sink cannot be created
+     */
+    private static Audit createSink(final String className, final CommonProperties properties) {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (StringUtils.isBlank(className)) {
+            return null;
+        }
+
+        try {
+            return AuditFactory.getInstance(className, properties);
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the rollup sink, the rollups are only available through queries", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param processors The number of processors
+     * @return The smallest power of two that is not less than the number of processors, limited to the maximum number
+     * of stripes
+     */
+    private static int stripes(final int processors) {
+
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
+
+    /**
+     * The counters of one interval.
+     */
+    private static final class Bucket {
+
+        /**
+         * The start of the interval
+         */
+        private final long start;
+
+        /**
+         * The counters per domain
+         */
+        private final ConcurrentMap<String, Counters> domains = new ConcurrentHashMap<>();
+
+        /**
+         * @param start The start of the interval
+         */
+        Bucket(final long start) {
+
+            this.start = start;
+        }
+    }
+
+    /**
+     * The counters of the events of one domain in one interval, striped by thread.
+     */
+    private static final class Counters {
+
+        /**
+         * The counters, one stripe after the other
+         */
+        private final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIDE);
+
+        /**
+         * Count an event in the stripe of the current thread.
+         *
+         * @param event The event
+         */
+        void increment(final Events event) {
+
+            final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            values.incrementAndGet(stripe * STRIDE + event.ordinal());
+        }
+
+        /**
+         * Add the counts of all stripes.
+         *
+         * @param counts The counts to add to, indexed by the ordinal of the event
+         */
+        void addTo(final long[] counts) {
+
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += values.get(stripe * STRIDE + i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AuditEventCodecTest {
+
+    /**
+     * Test that an encoded event decodes to the same event
+     */
+    @Test
+    public void roundTripTest() {
+
+        AuditEvent event = new AuditEvent(42L, 1400000000000L, -5000L, Events.AUTHN_COMMIT_FAILURE, "domain_1",
+                "userName_1", "userId_1", 123456789L, "module_1");
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+
+        String error = "The encoded length does not match the predicted length";
+        assertThat(error, length, is(equalTo(AuditEventCodec.encodedLength(event))));
+        assertThat(error, buffer.position(), is(equalTo(length)));
+
+        buffer.flip();
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+        error = "The decoded event does not match the encoded event";
+        assertThat(error, decoded.getSequence(), is(equalTo(42L)));
+        assertThat(error, decoded.getTime(), is(equalTo(1400000000000L)));
+        assertThat(error, decoded.getMonotonicTime(), is(equalTo(-5000L)));
+        assertThat(error, decoded.getEvent(), is(equalTo(Events.AUTHN_COMMIT_FAILURE)));
+        assertThat(error, decoded.getDomain(), is(equalTo("domain_1")));
+        assertThat(error, decoded.getUsername(), is(equalTo("userName_1")));
+        assertThat(error, decoded.getUserId(), is(equalTo("userId_1")));
+        assertThat(error, decoded.getDuration(), is(equalTo(123456789L)));
+        assertThat(error, decoded.getModuleInstanceId(), is(equalTo("module_1")));
+        assertThat(error, buffer.hasRemaining(), is(equalTo(false)));
+    }
+
+    /**
+     * Test that the principals of an event are encoded in their order
+     */
+    @Test
+    public void principalsTest() {
+
+        Set<String> principals = new LinkedHashSet<>(Arrays.asList("principal_2", "principal_1", "principal_3"));
+        AuditEvent event = AuditEvent.create(Events.AUTHN_LOGOUT, "domain_1", "userName_1", "userId_1", 0L, null,
+                principals, "correlation_1");
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.flip();
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The encoded length does not match the predicted length";
+        assertThat(error, length, is(equalTo(AuditEventCodec.encodedLength(event))));
+        error = "The decoded principals do not match the encoded principals";
+        assertThat(error, decoded.getPrincipals(), contains("principal_2", "principal_1", "principal_3"));
+        assertThat(error, buffer.hasRemaining(), is(equalTo(false)));
+        error = "The decoded ID does not match the encoded ID";
+        assertThat(error, decoded.getId(), is(equalTo(event.getId())));
+        error = "The decoded correlation and node IDs do not match the encoded IDs";
+        assertThat(error, decoded.getCorrelationId(), is(equalTo("correlation_1")));
+        assertThat(error, decoded.getNodeId(), is(equalTo(event.getNodeId())));
+        assertThat(error, decoded.getNodeId(), is(notNullValue()));
+    }
+
+    /**
+     * Test that an encoding of format version 3 (without correlation and node ID) can still be decoded
+     */
+    @Test
+    public void formatVersion3Test() {
+
+        AuditEvent event = new AuditEvent(1L, 0L, 0L, Events.AUTHN_LOGOUT, "domain_1", "userName_1", "userId_1", 0L,
+                null, new LinkedHashSet<>(Arrays.asList("principal_1")), "id_1");
+
+        // a version 3 encoding is a version 4 encoding without the correlation and node ID, which are a single 0 byte
+        // each here
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.put(0, (byte) 3);
+        buffer.flip();
+        buffer.limit(length - 2);
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The version 3 encoding should decode to an event without correlation and node ID";
+        assertThat(error, decoded.getId(), is(equalTo("id_1")));
+        assertThat(error, decoded.getCorrelationId(), is(nullValue()));
+        assertThat(error, decoded.getNodeId(), is(nullValue()));
+        assertThat(error, buffer.hasRemaining(), is(equalTo(false)));
+    }
+
+    /**
+     * Test that an encoding of format version 2 (without ID) can still be decoded
+     */
+    @Test
+    public void formatVersion2Test() {
+
+        AuditEvent event = new AuditEvent(1L, 0L, 0L, Events.AUTHN_LOGOUT, "domain_1", "userName_1", "userId_1", 0L,
+                null, new LinkedHashSet<>(Arrays.asList("principal_1")));
+
+        // a version 2 encoding is a version 4 encoding without the IDs, which are a single 0 byte each here
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.put(0, (byte) 2);
+        buffer.flip();
+        buffer.limit(length - 3);
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The version 2 encoding should decode to an event without ID";
+        assertThat(error, decoded.getPrincipals(), contains("principal_1"));
+        assertThat(error, decoded.getId(), is(nullValue()));
+        assertThat(error, buffer.hasRemaining(), is(equalTo(false)));
+    }
+
+    /**
+     * Test that an encoding of format version 1 (without principals) can still be decoded
+     */
+    @Test
+    public void formatVersion1Test() {
+
+        AuditEvent event = new AuditEvent(1L, 0L, 0L, Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1", 0L,
+                null);
+
+        // a version 1 encoding is a version 4 encoding without the principal count and the IDs, which are a single 0
+        // byte each here
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.put(0, (byte) 1);
+        buffer.flip();
+        buffer.limit(length - 4);
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The version 1 encoding should decode to an event without principals";
+        assertThat(error, decoded.getUsername(), is(equalTo("userName_1")));
+        assertThat(error, decoded.getPrincipals(), is(empty()));
+        assertThat(error, buffer.hasRemaining(), is(equalTo(false)));
+    }
+
+    /**
+     * Test that missing details are encoded as {@code null}
+     */
+    @Test
+    public void nullFieldsTest() {
+
+        AuditEvent event = new AuditEvent(1L, 0L, 0L, Events.AUTHN_LOGOUT, null, null, null, 0L, null);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        AuditEventCodec.encode(event, buffer);
+        buffer.flip();
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The missing details should be decoded as null";
+        assertThat(error, decoded.getDomain(), is(nullValue()));
+        assertThat(error, decoded.getUsername(), is(nullValue()));
+        assertThat(error, decoded.getUserId(), is(nullValue()));
+        assertThat(error, decoded.getModuleInstanceId(), is(nullValue()));
+        assertThat(error, decoded.getEvent(), is(equalTo(Events.AUTHN_LOGOUT)));
+    }
+
+    /**
+     * Test that non-ASCII strings are encoded as UTF-8, and unpaired surrogates are replaced
+     */
+    @Test
+    public void unicodeTest() {
+
+        String username = "Jürgen 中文 😀";
+        AuditEvent event = new AuditEvent(1L, 0L, 0L, Events.AUTHN_ATTEMPT, "domain_1", username, "a\ud800b", 0L,
+                null);
+
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.flip();
+        AuditEvent decoded = AuditEventCodec.decode(buffer);
+
+        String error = "The encoded length does not match the predicted length";
+        assertThat(error, length, is(equalTo(AuditEventCodec.encodedLength(event))));
+        error = "The non-ASCII characters should survive the round trip";
+        assertThat(error, decoded.getUsername(), is(equalTo(username)));
+        error = "The unpaired surrogate should have been replaced";
+        assertThat(error, decoded.getUserId(), is(equalTo("a?b")));
+    }
+
+    /**
+     * Test that several events can be encoded into the same buffer, one after the other
+     */
+    @Test
+    public void bufferReuseTest() {
+
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        for (int i = 0; i < 3; i++) {
+            AuditEventCodec.encode(AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_" + i, null, i,
+                    null), buffer);
+        }
+
+        buffer.flip();
+        for (int i = 0; i < 3; i++) {
+            String error = "The events should be decoded in the order they have been encoded";
+            assertThat(error, AuditEventCodec.decode(buffer).getUsername(), is(equalTo("userName_" + i)));
+        }
+    }
+
+    /**
+     * Test that encoding into a buffer that is too small fails without modifying the buffer
+     */
+    @Test
+    public void overflowTest() {
+
+        AuditEvent event = AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1", 0L, null);
+        ByteBuffer buffer = ByteBuffer.allocate(AuditEventCodec.encodedLength(event) - 1);
+
+        try {
+            AuditEventCodec.encode(event, buffer);
+            throw new AssertionError("The encoding should have failed");
+        } catch (BufferOverflowException e) {
+            String error = "The buffer should not have been modified";
+            assertThat(error, buffer.position(), is(equalTo(0)));
+        }
+    }
+
+    /**
+     * Test that a truncated encoding is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedTest() {
+
+        AuditEvent event = AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1", 0L, null);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = AuditEventCodec.encode(event, buffer);
+        buffer.flip();
+        buffer.limit(length - 3);
+
+        AuditEventCodec.decode(buffer);
+    }
+}
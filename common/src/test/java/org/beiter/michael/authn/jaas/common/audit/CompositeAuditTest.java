@@ -0,0 +1,266 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CompositeAuditTest {
+
+    /**
+     * The prefix of the configuration keys
+     */
+    private static final String PREFIX = "jaas.audit.composite.";
+
+    /**
+     * The events received by the recording sinks
+     */
+    private static final Queue<String> RECEIVED = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Clear the received events
+     */
+    @Before
+    public void clear() {
+
+        RECEIVED.clear();
+    }
+
+    /**
+     * Test that an event is delivered to all sinks, and that structured events are passed on as they are to sinks that
+     * support them
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void fanOutTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sinks", "structured, plain");
+        map.put(PREFIX + "structured.class", StructuredRecordingAudit.class.getName());
+        map.put(PREFIX + "plain.class", RecordingAudit.class.getName());
+        CompositeAudit audit = buildAudit(map);
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+        audit.audit(AuditEvent.create(Events.AUTHN_FAILURE, "domain", "user", null, 0, null));
+
+        String error = "Every sink should have received both events";
+        assertThat(error, RECEIVED, containsInAnyOrder("structured:AUTHN_SUCCESS:user", "plain:AUTHN_SUCCESS:user",
+                "structured:event:AUTHN_FAILURE:user", "plain:AUTHN_FAILURE:user"));
+    }
+
+    /**
+     * Test that a failing required sink fails the audit operation
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void requiredFailureTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sinks", "plain, failing");
+        map.put(PREFIX + "plain.class", RecordingAudit.class.getName());
+        map.put(PREFIX + "failing.class", FailingAudit.class.getName());
+        CompositeAudit audit = buildAudit(map);
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+    }
+
+    /**
+     * Test that a failing best-effort sink does not fail the audit operation
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void bestEffortFailureTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sinks", "plain, failing");
+        map.put(PREFIX + "plain.class", RecordingAudit.class.getName());
+        map.put(PREFIX + "failing.class", FailingAudit.class.getName());
+        map.put(PREFIX + "failing.policy", "bestEffort");
+        CompositeAudit audit = buildAudit(map);
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+
+        String error = "The required sink should have received the event";
+        assertThat(error, RECEIVED, contains("plain:AUTHN_SUCCESS:user"));
+    }
+
+    /**
+     * Test that the audit fails when a required sink cannot be created
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void missingSinkTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sinks", "plain, missing");
+        map.put(PREFIX + "plain.class", RecordingAudit.class.getName());
+        map.put(PREFIX + "missing.class", "org.example.DoesNotExist");
+        CompositeAudit audit = buildAudit(map);
+
+        String error = "The sinks should not be available";
+        assertThat(error, audit.getDispatcher(), is(nullValue()));
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+    }
+
+    /**
+     * Test that the composite audit cannot be its own sink
+     */
+    @Test
+    public void selfTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sinks", "self");
+        map.put(PREFIX + "self.class", CompositeAudit.class.getName());
+        CompositeAudit audit = buildAudit(map);
+
+        String error = "The composite audit should not accept itself as a sink";
+        assertThat(error, audit.getDispatcher(), is(nullValue()));
+    }
+
+    /**
+     * Build a composite audit
+     *
+     * @param map The configuration
+     * @return The composite audit
+     */
+    private static CompositeAudit buildAudit(final Map<String, String> map) {
+
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+        CompositeAudit audit = new CompositeAudit();
+        audit.init(commonProps);
+        return audit;
+    }
+
+    /**
+     * An audit sink that records the events it receives
+     */
+    public static class RecordingAudit
+            implements Audit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId) {
+
+            RECEIVED.add("plain:" + event + ":" + userId);
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username) {
+
+            RECEIVED.add("plain:" + event + ":" + username);
+        }
+    }
+
+    /**
+     * An audit sink that records the events it receives, including structured events
+     */
+    public static class StructuredRecordingAudit
+            implements StructuredAudit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId) {
+
+            RECEIVED.add("structured:" + event + ":" + userId);
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username) {
+
+            RECEIVED.add("structured:" + event + ":" + username);
+        }
+
+        @Override
+        public void audit(final AuditEvent event) {
+
+            RECEIVED.add("structured:event:" + event.getEvent() + ":" + event.getUsername());
+        }
+    }
+
+    /**
+     * An audit sink that always fails
+     */
+    public static class FailingAudit
+            implements Audit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId)
+                throws AuditException {
+
+            throw new AuditException("failed");
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username)
+                throws AuditException {
+
+            throw new AuditException("failed");
+        }
+    }
+}
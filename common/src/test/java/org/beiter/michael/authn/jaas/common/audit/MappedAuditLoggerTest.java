@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.journal.Durability;
+import org.beiter.michael.authn.jaas.common.journal.RecordHandler;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedMappedAuditPropsBuilder;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MappedAuditLoggerTest {
+
+    /**
+     * The directory for the audit log
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Close the audit logs opened by the tests
+     *
+     * @throws IOException When a log cannot be closed
+     */
+    @After
+    public void closeLogs()
+            throws IOException {
+
+        MappedAuditLogger.closeAll();
+    }
+
+    /**
+     * Test that audit events are written to the log
+     *
+     * @throws AuditException When the audit operation fails
+     * @throws IOException    When the log cannot be read
+     */
+    @Test
+    public void auditTest()
+            throws AuditException, IOException {
+
+        MappedAuditLogger audit = buildLogger(folder.getRoot().getPath());
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+        audit.audit(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+
+        List<String> records = readAll(audit);
+        String error = "The audit records do not match the audited events";
+        assertThat(error, records, contains(
+                Arrays.asList("AUTHN_SUCCESS", null, null, "userId_1").toString(),
+                Arrays.asList("AUTHN_FAILURE", "domain_1", "userName_1", null).toString()));
+    }
+
+    /**
+     * Test that structured audit events are written to the log with all their details
+     *
+     * @throws AuditException When the audit operation fails
+     * @throws IOException    When the log cannot be read
+     */
+    @Test
+    public void structuredAuditTest()
+            throws AuditException, IOException {
+
+        MappedAuditLogger audit = buildLogger(folder.getRoot().getPath());
+        final AuditEvent event = AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1",
+                12345L, "module_1");
+        audit.audit(event);
+
+        final List<AuditEvent> events = new ArrayList<>();
+        audit.getJournal().read(1, new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                events.add(MappedAuditLogger.decode(payload));
+                return true;
+            }
+        });
+
+        String error = "The log should contain the audited event";
+        assertThat(error, events.size(), is(equalTo(1)));
+        AuditEvent decoded = events.get(0);
+        error = "The decoded event does not match the audited event";
+        assertThat(error, decoded.getSequence(), is(equalTo(event.getSequence())));
+        assertThat(error, decoded.getMonotonicTime(), is(equalTo(event.getMonotonicTime())));
+        assertThat(error, decoded.getUserId(), is(equalTo("userId_1")));
+        assertThat(error, decoded.getDuration(), is(equalTo(12345L)));
+        assertThat(error, decoded.getModuleInstanceId(), is(equalTo("module_1")));
+    }
+
+    /**
+     * Test that all instances configured with the same directory write to the same log
+     *
+     * @throws AuditException When the audit operation fails
+     * @throws IOException    When the log cannot be read
+     */
+    @Test
+    public void sharedLogTest()
+            throws AuditException, IOException {
+
+        MappedAuditLogger audit1 = buildLogger(folder.getRoot().getPath());
+        MappedAuditLogger audit2 = buildLogger(folder.getRoot().getPath());
+        audit1.audit(Events.AUTHN_ATTEMPT, "domain_1", "userName_1");
+        audit2.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
+
+        String error = "Both instances should write to the same log";
+        assertThat(error, audit1.getJournal(), is(sameInstance(audit2.getJournal())));
+        assertThat(error, readAll(audit1).size(), is(equalTo(2)));
+    }
+
+    /**
+     * Test that the log is recovered when it is opened again
+     *
+     * @throws AuditException When the audit operation fails
+     * @throws IOException    When the log cannot be read
+     */
+    @Test
+    public void reopenTest()
+            throws AuditException, IOException {
+
+        buildLogger(folder.getRoot().getPath()).audit(Events.AUTHN_ATTEMPT, "domain_1", "userName_1");
+        MappedAuditLogger.closeAll();
+
+        MappedAuditLogger audit = buildLogger(folder.getRoot().getPath());
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
+
+        String error = "The reopened log should contain the records from before";
+        assertThat(error, readAll(audit).size(), is(equalTo(2)));
+        assertThat(error, audit.getJournal().getNextSequence(), is(equalTo(3L)));
+    }
+
+    /**
+     * Test that the log is flushed as configured
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void durabilityTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedMappedAuditPropsBuilder.KEY_DURABILITY, MappedAuditProperties.DURABILITY_SYNC);
+        MappedAuditLogger audit = buildLogger(folder.getRoot().getPath(), map);
+        audit.audit(Events.AUTHN_ATTEMPT, "domain_1", "userName_1");
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
+
+        String error = "The log should use the configured durability";
+        assertThat(error, audit.getWriter().getDurability(), is(equalTo(Durability.SYNC)));
+        error = "Every audit record should have been flushed";
+        assertThat(error, audit.getWriter().getFlushCount(), is(equalTo(2L)));
+    }
+
+    /**
+     * Test that auditing fails if no directory has been configured
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void noDirectoryTest()
+            throws AuditException {
+
+        MappedAuditLogger audit = buildLogger(null);
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+    }
+
+    /**
+     * Test the default values of the mapped audit properties
+     */
+    @Test
+    public void defaultPropertiesTest() {
+
+        MappedAuditProperties auditProps = JaasBasedMappedAuditPropsBuilder.buildDefault();
+
+        String error = "directory does not match expected default value";
+        assertThat(error, auditProps.getDirectory(), is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_DIRECTORY)));
+        error = "segment size does not match expected default value";
+        assertThat(error, auditProps.getSegmentSize(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_SEGMENT_SIZE)));
+        error = "roll interval does not match expected default value";
+        assertThat(error, auditProps.getRollInterval(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_ROLL_INTERVAL)));
+        error = "durability does not match expected default value";
+        assertThat(error, auditProps.getDurability(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_DURABILITY)));
+        error = "group size does not match expected default value";
+        assertThat(error, auditProps.getGroupSize(), is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_GROUP_SIZE)));
+        error = "group delay does not match expected default value";
+        assertThat(error, auditProps.getGroupDelay(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_GROUP_DELAY)));
+        error = "force interval does not match expected default value";
+        assertThat(error, auditProps.getForceInterval(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_FORCE_INTERVAL)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedMappedAuditPropsBuilder.KEY_SEGMENT_SIZE, "100");
+        map.put(JaasBasedMappedAuditPropsBuilder.KEY_ROLL_INTERVAL, "never");
+        map.put(JaasBasedMappedAuditPropsBuilder.KEY_DURABILITY, "always");
+        auditProps = new MappedAuditProperties(JaasBasedMappedAuditPropsBuilder.build(map));
+        error = "a segment size below the minimum should fall back to the default value";
+        assertThat(error, auditProps.getSegmentSize(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_SEGMENT_SIZE)));
+        error = "invalid roll interval should fall back to the default value";
+        assertThat(error, auditProps.getRollInterval(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_ROLL_INTERVAL)));
+        error = "an unsupported durability should fall back to the default value";
+        assertThat(error, auditProps.getDurability(),
+                is(equalTo(JaasBasedMappedAuditPropsBuilder.DEFAULT_DURABILITY)));
+    }
+
+    /**
+     * Build an audit logger
+     *
+     * @param directory The directory of the log
+     * @return The initialized logger
+     */
+    private static MappedAuditLogger buildLogger(final String directory) {
+
+        return buildLogger(directory, new HashMap<String, String>());
+    }
+
+    /**
+     * Build an audit logger
+     *
+     * @param directory The directory of the log
+     * @param settings  Additional settings
+     * @return The initialized logger
+     */
+    private static MappedAuditLogger buildLogger(final String directory, final Map<String, String> settings) {
+
+        Map<String, String> map = new HashMap<>(settings);
+        if (directory != null) {
+            map.put(JaasBasedMappedAuditPropsBuilder.KEY_DIRECTORY, directory);
+        }
+        map.put(JaasBasedMappedAuditPropsBuilder.KEY_SEGMENT_SIZE, "65536");
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        MappedAuditLogger audit = new MappedAuditLogger();
+        audit.init(commonProps);
+        return audit;
+    }
+
+    /**
+     * Read the decoded records of an audit log
+     *
+     * @param audit The audit logger
+     * @return The records, every record formatted as a list of its event, domain, username, and user ID
+     * @throws IOException When the log cannot be read
+     */
+    private static List<String> readAll(final MappedAuditLogger audit)
+            throws IOException {
+
+        final List<String> records = new ArrayList<>();
+        audit.getJournal().read(1, new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                final AuditEvent event = MappedAuditLogger.decode(payload);
+                records.add(Arrays.asList(event.getEvent().name(), event.getDomain(), event.getUsername(),
+                        event.getUserId()).toString());
+                return true;
+            }
+        });
+
+        return records;
+    }
+}
@@ -80,4 +80,19 @@ public class SampleAuditLoggerTest {
         audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
         audit.audit(Events.AUTHN_FAILURE, "domain_2", "userName_2");
     }
+
+    /**
+     * Tests auditing a structured event
+     */
+    @Test
+    public void structuredAuditTest() {
+
+        Map<String, Object> config = new ConcurrentHashMap<String, Object>();
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(config);
+
+        SampleAuditLogger audit = new SampleAuditLogger();
+
+        audit.init(commonProps);
+        audit.audit(AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1", 1000L, "module_1"));
+    }
 }
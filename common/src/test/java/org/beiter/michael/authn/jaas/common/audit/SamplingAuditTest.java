@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SamplingAuditTest {
+
+    /**
+     * The prefix of the configuration keys
+     */
+    private static final String PREFIX = "jaas.audit.sampling.";
+
+    /**
+     * The events and summaries received by the recording delegate
+     */
+    private static final Queue<String> RECEIVED = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Clear the received events
+     */
+    @Before
+    public void clear() {
+
+        RECEIVED.clear();
+    }
+
+    /**
+     * Test that failures are passed on in full, while successes are only counted per event and domain
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void aggregationTest()
+            throws AuditException {
+
+        SamplingAudit audit = buildAudit(new HashMap<String, String>());
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain1", "user1");
+        audit.audit(Events.AUTHN_SUCCESS, "domain1", "user2");
+        audit.audit(AuditEvent.create(Events.AUTHN_SUCCESS, "domain2", "user3", "id3", 0, null));
+        audit.audit(Events.AUTHN_LOGOUT, "id1");
+        audit.audit(Events.AUTHN_FAILURE, "domain1", "user1");
+        audit.audit(AuditEvent.create(Events.AUTHN_ERROR, "domain2", "user3", null, 0, null));
+
+        String error = "Only the failure and the error should have been passed on";
+        assertThat(error, RECEIVED, contains("AUTHN_FAILURE:user1", "event:AUTHN_ERROR:user3"));
+
+        RECEIVED.clear();
+        audit.flush();
+        error = "The successes should have been passed on as summaries per event and domain";
+        assertThat(error, RECEIVED, containsInAnyOrder("summary:AUTHN_SUCCESS:domain1:2",
+                "summary:AUTHN_SUCCESS:domain2:1", "summary:AUTHN_LOGOUT:null:1"));
+
+        RECEIVED.clear();
+        audit.flush();
+        error = "An interval without events should not produce summaries";
+        assertThat(error, RECEIVED, is(empty()));
+    }
+
+    /**
+     * Test that every Nth aggregated event is passed on in full, and still counted
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void sampleTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "sampleRate", "3");
+        SamplingAudit audit = buildAudit(map);
+
+        for (int i = 0; i < 7; i++) {
+            audit.audit(Events.AUTHN_SUCCESS, "domain", "user" + i);
+        }
+
+        String error = "Every third success should have been passed on as a sample";
+        assertThat(error, RECEIVED, contains("AUTHN_SUCCESS:user2", "AUTHN_SUCCESS:user5"));
+
+        RECEIVED.clear();
+        audit.flush();
+        error = "The samples should have been counted as well";
+        assertThat(error, RECEIVED, contains("summary:AUTHN_SUCCESS:domain:7"));
+    }
+
+    /**
+     * Test that the aggregated events can be configured
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void aggregatedEventsTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "aggregatedEvents", "AUTHN_FAILURE, NO_SUCH_EVENT");
+        SamplingAudit audit = buildAudit(map);
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+        audit.audit(Events.AUTHN_FAILURE, "domain", "user");
+        audit.flush();
+
+        String error = "Only the configured event should have been aggregated";
+        assertThat(error, RECEIVED, contains("AUTHN_SUCCESS:user", "summary:AUTHN_FAILURE:domain:1"));
+    }
+
+    /**
+     * Test that reconfiguring the audit passes the pending summaries on to the previous delegate
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void reinitTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "delegate", RecordingAudit.class.getName());
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+        SamplingAudit audit = new SamplingAudit();
+        audit.init(commonProps);
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain", "user");
+        audit.init(commonProps);
+
+        String error = "The pending summary should have been passed on when the audit was reconfigured";
+        assertThat(error, RECEIVED, contains("summary:AUTHN_SUCCESS:domain:1"));
+    }
+
+    /**
+     * Test that the audit fails when no delegate has been configured
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void missingDelegateTest()
+            throws AuditException {
+
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(new HashMap<String, String>());
+        SamplingAudit audit = new SamplingAudit();
+        audit.init(commonProps);
+
+        audit.audit(Events.AUTHN_FAILURE, "domain", "user");
+    }
+
+    /**
+     * Build a sampling audit with the recording delegate
+     *
+     * @param map The configuration
+     * @return The sampling audit
+     */
+    private static SamplingAudit buildAudit(final Map<String, String> map) {
+
+        map.put(PREFIX + "delegate", RecordingAudit.class.getName());
+        // a long interval, so that the background thread does not interfere with the explicit flushes
+        map.put(PREFIX + "interval", "3600000");
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+        SamplingAudit audit = new SamplingAudit();
+        audit.init(commonProps);
+        return audit;
+    }
+
+    /**
+     * An audit delegate that records the events and summaries it receives
+     */
+    public static class RecordingAudit
+            implements StructuredAudit, SummaryAudit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId) {
+
+            RECEIVED.add(event + ":" + userId);
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username) {
+
+            RECEIVED.add(event + ":" + username);
+        }
+
+        @Override
+        public void audit(final AuditEvent event) {
+
+            RECEIVED.add("event:" + event.getEvent() + ":" + event.getUsername());
+        }
+
+        @Override
+        public void audit(final AuditSummary summary) {
+
+            RECEIVED.add("summary:" + summary.getEvent() + ":" + summary.getDomain() + ":" + summary.getCount());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.audit;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SpoolingAuditTest {
+
+    /**
+     * The prefix of the configuration keys
+     */
+    private static final String PREFIX = "jaas.audit.spooling.";
+
+    /**
+     * The events received by the delegate
+     */
+    private static final Queue<AuditEvent> RECEIVED = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the delegate is available
+     */
+    private static volatile boolean available;
+
+    /**
+     * The directory for the spool
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reset the delegate
+     */
+    @Before
+    public void reset() {
+
+        RECEIVED.clear();
+        available = true;
+    }
+
+    /**
+     * Close the spools opened by the tests
+     *
+     * @throws IOException When a spool cannot be closed
+     */
+    @After
+    public void closeSpools()
+            throws IOException {
+
+        SpoolingAudit.closeAll();
+    }
+
+    /**
+     * Test that events are passed on directly while the delegate is available
+     *
+     * @throws AuditException When the audit operation fails
+     */
+    @Test
+    public void directTest()
+            throws AuditException {
+
+        SpoolingAudit audit = buildAudit();
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
+
+        String error = "The event should have been passed on with an idempotency ID";
+        assertThat(error, usernames(), contains("userName_1"));
+        assertThat(error, RECEIVED.peek().getId(), is(notNullValue()));
+        error = "The event should not have been spooled";
+        assertThat(error, audit.getSpool().isSpooling(), is(equalTo(false)));
+    }
+
+    /**
+     * Test that events are spooled while the delegate is not available, and replayed in order with their IDs
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void spoolTest()
+            throws Exception {
+
+        SpoolingAudit audit = buildAudit();
+        available = false;
+        AuditEvent first = AuditEvent.create(Events.AUTHN_FAILURE, "domain_1", "userName_1", null, 0, null);
+        audit.audit(first);
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_2");
+
+        String error = "The events should have been spooled instead of failing the audit";
+        assertThat(error, RECEIVED, is(empty()));
+        assertThat(error, audit.getSpool().getPending(), is(equalTo(2L)));
+
+        available = true;
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_3");
+        error = "New events should be spooled behind the spooled events";
+        assertThat(error, RECEIVED, is(empty()));
+
+        audit.getSpool().replay();
+        error = "The spooled events should have been replayed in order";
+        assertThat(error, usernames(), contains("userName_1", "userName_2", "userName_3"));
+        error = "The replayed event should have kept its ID";
+        assertThat(error, RECEIVED.peek().getId(), is(equalTo(first.getId())));
+
+        audit.audit(Events.AUTHN_SUCCESS, "domain_1", "userName_4");
+        error = "Events should be passed on directly again after the replay";
+        assertThat(error, usernames(), hasItem("userName_4"));
+    }
+
+    /**
+     * Test that spooled events are replayed by an audit that is created after a restart
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void restartTest()
+            throws Exception {
+
+        available = false;
+        buildAudit().audit(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+        SpoolingAudit.closeAll();
+
+        available = true;
+        SpoolingAudit audit = buildAudit();
+        String error = "The spool should still contain the event";
+        assertThat(error, audit.getSpool().isSpooling(), is(equalTo(true)));
+
+        audit.getSpool().replay();
+        error = "The event should have been replayed after the restart";
+        assertThat(error, usernames(), contains("userName_1"));
+    }
+
+    /**
+     * Test that the audit fails when no spool directory has been configured
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void missingDirectoryTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "delegate", FlakyAudit.class.getName());
+        SpoolingAudit audit = new SpoolingAudit();
+        audit.init(JaasBasedCommonPropsBuilder.build(map));
+
+        audit.audit(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+    }
+
+    /**
+     * Build a spooling audit with the flaky delegate
+     *
+     * @return The spooling audit
+     */
+    private SpoolingAudit buildAudit() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "delegate", FlakyAudit.class.getName());
+        map.put(PREFIX + "directory", folder.getRoot().getPath());
+        map.put(PREFIX + "segmentSize", "65536");
+        // a long interval, so that the background thread does not interfere with the explicit replays
+        map.put(PREFIX + "retryInterval", "3600000");
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        SpoolingAudit audit = new SpoolingAudit();
+        audit.init(commonProps);
+        return audit;
+    }
+
+    /**
+     * @return The usernames of the received events
+     */
+    private static List<String> usernames() {
+
+        List<String> usernames = new ArrayList<>();
+        for (AuditEvent event : RECEIVED) {
+            usernames.add(event.getUsername());
+        }
+        return usernames;
+    }
+
+    /**
+     * An audit delegate that fails while it is not available
+     */
+    public static class FlakyAudit
+            implements StructuredAudit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId)
+                throws AuditException {
+
+            audit(AuditEvent.create(event, null, null, userId, 0, null));
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username)
+                throws AuditException {
+
+            audit(AuditEvent.create(event, domain, username, null, 0, null));
+        }
+
+        @Override
+        public void audit(final AuditEvent event)
+                throws AuditException {
+
+            if (!available) {
+                throw new AuditException("The delegate is not available");
+            }
+            RECEIVED.add(event);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.auditstore;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditEventCodec;
+import org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger;
+import org.beiter.michael.authn.jaas.common.journal.SegmentedJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AuditStoreTest {
+
+    /**
+     * The directory for the audit log
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The journal the test events are written to
+     */
+    private SegmentedJournal journal;
+
+    /**
+     * Open the journal, with small segments so that the events span several segments
+     *
+     * @throws IOException When the journal cannot be opened
+     */
+    @Before
+    public void open()
+            throws IOException {
+
+        journal = SegmentedJournal.open(folder.getRoot(), MappedAuditLogger.PREFIX, 4096, 0);
+    }
+
+    /**
+     * Close the journal
+     *
+     * @throws IOException When the journal cannot be closed
+     */
+    @After
+    public void close()
+            throws IOException {
+
+        journal.close();
+    }
+
+    /**
+     * Test that the events of a user are found in all segments, including the segment that is being written to
+     *
+     * @throws IOException When the log cannot be read
+     */
+    @Test
+    public void findByUserTest()
+            throws IOException {
+
+        appendEvents(0, 300);
+
+        AuditStore store = buildStore();
+        List<AuditEvent> events = store.findByUser("domain", "user3", Long.MIN_VALUE, Long.MAX_VALUE, 1000);
+
+        String error = "The log should span several segments";
+        assertThat(error, journal.getSegments().size(), is(greaterThan(2)));
+        error = "All events of the user should have been found";
+        assertThat(error, events.size(), is(equalTo(30)));
+        long previous = 0;
+        for (final AuditEvent event : events) {
+            error = "Only events of the user should have been found";
+            assertThat(error, event.getUsername(), is(equalTo("user3")));
+            error = "The events should be in the order in which they have been logged";
+            assertThat(error, event.getSequence(), is(greaterThan(previous)));
+            previous = event.getSequence();
+        }
+
+        final List<File> segments = journal.getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            final File index = SegmentIndex.indexFile(segments.get(i));
+            error = "Only the sealed segments should have been indexed";
+            assertThat(error, index.isFile(), is(equalTo(i < segments.size() - 1)));
+        }
+    }
+
+    /**
+     * Test that the events of a user are found by user ID
+     *
+     * @throws IOException When the log cannot be read
+     */
+    @Test
+    public void findByUserIdTest()
+            throws IOException {
+
+        appendEvents(0, 300);
+
+        AuditStore store = buildStore();
+        List<AuditEvent> events = store.findByUserId("id-user7", Long.MIN_VALUE, Long.MAX_VALUE, 1000);
+
+        String error = "The events with the user ID should have been found";
+        assertThat(error, events.size(), is(equalTo(30)));
+        for (final AuditEvent event : events) {
+            assertThat(error, event.getUserId(), is(equalTo("id-user7")));
+        }
+
+        events = store.findByUserId("unknown", Long.MIN_VALUE, Long.MAX_VALUE, 1000);
+        error = "No events should have been found for an unknown user";
+        assertThat(error, events, is(empty()));
+    }
+
+    /**
+     * Test that the events of a time range are found, and that user queries are restricted to the time range
+     *
+     * @throws IOException          When the log cannot be read
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void findByTimeTest()
+            throws IOException, InterruptedException {
+
+        appendEvents(0, 200);
+        Thread.sleep(20);
+        final long from = System.currentTimeMillis();
+        Thread.sleep(5);
+        appendEvents(200, 100);
+
+        AuditStore store = buildStore();
+        store.index();
+        List<AuditEvent> events = store.findByTime(from, Long.MAX_VALUE, 1000);
+
+        String error = "The events of the time range should have been found";
+        assertThat(error, events.size(), is(equalTo(100)));
+        assertThat(error, events.get(0).getDuration(), is(equalTo(200L)));
+
+        events = store.findByUser("domain", "user3", from, Long.MAX_VALUE, 1000);
+        error = "Only the events of the user in the time range should have been found";
+        assertThat(error, events.size(), is(equalTo(10)));
+
+        events = store.findByTime(Long.MIN_VALUE, from - 1, 1000);
+        error = "The events before the time range should have been found";
+        assertThat(error, events.size(), is(equalTo(200)));
+    }
+
+    /**
+     * Test that a query stops at the limit
+     *
+     * @throws IOException When the log cannot be read
+     */
+    @Test
+    public void limitTest()
+            throws IOException {
+
+        appendEvents(0, 300);
+
+        AuditStore store = buildStore();
+        List<AuditEvent> events = store.findByUser("domain", "user3", Long.MIN_VALUE, Long.MAX_VALUE, 5);
+
+        String error = "The query should have stopped at the limit";
+        assertThat(error, events.size(), is(equalTo(5)));
+        error = "The first events should have been returned";
+        assertThat(error, events.get(0).getDuration(), is(equalTo(3L)));
+    }
+
+    /**
+     * Test that an invalid index is rebuilt
+     *
+     * @throws IOException When the log cannot be read
+     */
+    @Test
+    public void invalidIndexTest()
+            throws IOException {
+
+        appendEvents(0, 300);
+
+        String error = "The indexes should have been built";
+        assertThat(error, buildStore().index(), is(greaterThan(1)));
+
+        final File index = SegmentIndex.indexFile(journal.getSegments().get(0));
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - 8);
+        }
+
+        AuditStore store = buildStore();
+        List<AuditEvent> events = store.findByUser("domain", "user3", Long.MIN_VALUE, Long.MAX_VALUE, 1000);
+
+        error = "All events of the user should have been found";
+        assertThat(error, events.size(), is(equalTo(30)));
+        error = "The invalid index should have been rebuilt";
+        assertThat(error, buildStore().index(), is(equalTo(0)));
+    }
+
+    /**
+     * @return A store for the test log
+     */
+    private AuditStore buildStore() {
+
+        return new AuditStore(folder.getRoot(), MappedAuditLogger.PREFIX, 1000);
+    }
+
+    /**
+     * Append events for ten users. The events with an odd number (i.e. all events of every other user) have a user
+     * ID, and the duration of an event is its number.
+     *
+     * @param first The number of the first event
+     * @param count The number of events
+     * @throws IOException When the events cannot be appended
+     */
+    private void appendEvents(final int first, final int count)
+            throws IOException {
+
+        for (int i = first; i < first + count; i++) {
+            final String username = "user" + (i % 10);
+            String userId = null;
+            if (i % 2 == 1) {
+                userId = "id-" + username;
+            }
+            final AuditEvent event = AuditEvent.create(Events.AUTHN_SUCCESS, "domain", username, userId, i, "test");
+            final ByteBuffer buffer = ByteBuffer.allocate(AuditEventCodec.encodedLength(event));
+            AuditEventCodec.encode(event, buffer);
+            journal.append(buffer.array());
+        }
+    }
+}
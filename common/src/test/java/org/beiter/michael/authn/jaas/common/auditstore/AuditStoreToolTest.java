@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.auditstore;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditEventCodec;
+import org.beiter.michael.authn.jaas.common.audit.MappedAuditLogger;
+import org.beiter.michael.authn.jaas.common.journal.SegmentedJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AuditStoreToolTest {
+
+    /**
+     * The directory for the audit log
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the tool prints the events of a user
+     *
+     * @throws IOException When the log cannot be written
+     */
+    @Test
+    public void userQueryTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), MappedAuditLogger.PREFIX, 4096, 0)) {
+            for (int i = 0; i < 100; i++) {
+                final AuditEvent event = AuditEvent.create(Events.AUTHN_FAILURE, "domain", "user" + (i % 4), null,
+                        0, "test");
+                final ByteBuffer buffer = ByteBuffer.allocate(AuditEventCodec.encodedLength(event));
+                AuditEventCodec.encode(event, buffer);
+                journal.append(buffer.array());
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final int status = AuditStoreTool.run(new String[]{"--directory=" + folder.getRoot(), "--index",
+                "--domain=domain", "--username=user1", "--last=1h"}, new PrintStream(bytes, true, "UTF-8"));
+        final String output = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+        String error = "The tool should have succeeded";
+        assertThat(error, status, is(equalTo(0)));
+        error = "The tool should have printed the events of the user";
+        assertThat(error, output, containsString("25 event(s)"));
+        assertThat(error, output, containsString("AUTHN_FAILURE\tdomain\tuser1\t"));
+        assertThat(error, output, not(containsString("user2")));
+    }
+
+    /**
+     * Test that the tool rejects invalid arguments
+     *
+     * @throws IOException When the output cannot be written
+     */
+    @Test
+    public void invalidArgumentsTest()
+            throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(bytes, true, "UTF-8");
+
+        String error = "The tool should require a directory";
+        assertThat(error, AuditStoreTool.run(new String[]{"--userId=user"}, out), is(equalTo(1)));
+        error = "The tool should require a username with a domain";
+        assertThat(error, AuditStoreTool.run(new String[]{"--directory=" + folder.getRoot(), "--domain=domain"}, out),
+                is(equalTo(1)));
+        error = "The tool should reject an invalid duration";
+        assertThat(error, AuditStoreTool.run(new String[]{"--directory=" + folder.getRoot(), "--last=6y"}, out),
+                is(equalTo(1)));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedDistinctUserPropsBuilder;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DistinctUserCounterTest {
+
+    /**
+     * The length of a window in the tests
+     */
+    private static final long INTERVAL = 1000L;
+
+    /**
+     * The start of the first window in the tests
+     */
+    private static final long START = 1000000L;
+
+    /**
+     * The directory for the exported sketches
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Close the counter created by the tests
+     */
+    @After
+    public void closeInstance() {
+
+        DistinctUserCounter.closeInstance();
+    }
+
+    /**
+     * Test that the distinct users of successful logins are counted per domain and window
+     */
+    @Test
+    public void countTest() {
+
+        DistinctUserCounter counter = new DistinctUserCounter(12, INTERVAL, 2, null, START);
+        for (int i = 0; i < 100; i++) {
+            counter.onEvent(event(START + i, Events.AUTHN_SUCCESS, "user_" + (i % 10), "domain1"));
+            counter.onEvent(event(START + i, Events.AUTHN_SUCCESS, "user_" + i, "domain2"));
+            counter.onEvent(event(START + i, Events.AUTHN_FAILURE, "other_" + i, "domain1"));
+        }
+        counter.onEvent(event(START + INTERVAL, Events.AUTHN_SUCCESS, "user_100", "domain1"));
+
+        String error = "The distinct users of the window should have been counted per domain";
+        assertThat(error, counter.getSketches(START).get("domain1").estimate(), is(equalTo(10L)));
+        assertThat(error, (double) counter.getSketches(START).get("domain2").estimate(), is(closeTo(100, 3)));
+        error = "The next window should have been counted separately";
+        assertThat(error, counter.getSketches(START + INTERVAL).get("domain1").estimate(), is(equalTo(1L)));
+    }
+
+    /**
+     * Test that completed windows are exported, late events are dropped, and old windows are discarded
+     *
+     * @throws IOException When the exported sketches cannot be read
+     */
+    @Test
+    public void exportTest()
+            throws IOException {
+
+        DistinctUserCounter counter = new DistinctUserCounter(12, INTERVAL, 2, folder.getRoot(), START);
+        counter.onEvent(event(START, Events.AUTHN_SUCCESS, "user_1", "domain1"));
+        counter.onEvent(event(START, Events.AUTHN_SUCCESS, "user_2", "domain1"));
+        counter.export(START + INTERVAL);
+
+        File[] files = folder.getRoot().listFiles();
+        String error = "The completed window should have been exported";
+        assertThat(error, files.length, is(equalTo(1)));
+        SketchFile sketchFile = SketchFile.read(files[0]);
+        assertThat(error, sketchFile.getWindowStart(), is(equalTo(START)));
+        assertThat(error, sketchFile.getInterval(), is(equalTo(INTERVAL)));
+        assertThat(error, sketchFile.getSketches().get("domain1").estimate(), is(equalTo(2L)));
+
+        counter.onEvent(event(START, Events.AUTHN_SUCCESS, "user_3", "domain1"));
+        error = "The event of the exported window should have been dropped";
+        assertThat(error, counter.getDroppedCount(), is(equalTo(1L)));
+
+        counter.export(START + 3 * INTERVAL);
+        error = "The windows that are no longer kept should have been discarded";
+        assertThat(error, counter.getSketches(START).size(), is(equalTo(0)));
+    }
+
+    /**
+     * Test that the tool combines the sketches exported by several nodes without double counting users
+     *
+     * @throws IOException When the sketches cannot be written
+     */
+    @Test
+    public void toolTest()
+            throws IOException {
+
+        HyperLogLog node1 = new HyperLogLog(12);
+        HyperLogLog node2 = new HyperLogLog(12);
+        for (int i = 0; i < 100; i++) {
+            node1.add("user_" + i);
+            node2.add("user_" + (i + 50));
+        }
+        write("node1", START, node1);
+        write("node2", START, node2);
+        write("node1", START + INTERVAL, node1);
+        final HyperLogLog union = node1.copy();
+        union.merge(node2);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final int status = DistinctUserTool.run(new String[]{"--directory=" + folder.getRoot(), "--domain=domain1"},
+                new PrintStream(bytes, true, "UTF-8"));
+        final String output = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+        String error = "The tool should have succeeded";
+        assertThat(error, status, is(equalTo(0)));
+        error = "The tool should have merged the sketches of all nodes per window, and of all windows in total";
+        assertThat(error, output, containsString("\tdomain1\t" + union.estimate() + "\t2 node(s)"));
+        assertThat(error, output, containsString("\tdomain1\t" + node1.estimate() + "\t1 node(s)"));
+        assertThat(error, output, containsString("total\tdomain1\t" + union.estimate() + "\t2 window(s)"));
+
+        error = "The tool should require a directory";
+        assertThat(error, DistinctUserTool.run(new String[]{"--domain=domain1"}, new PrintStream(bytes)),
+                is(equalTo(1)));
+    }
+
+    /**
+     * Test that the shared counter receives the dispatched successful logins
+     */
+    @Test
+    public void getInstanceTest() {
+
+        DistinctUserProperties distinctProps = JaasBasedDistinctUserPropsBuilder.buildDefault();
+        DistinctUserCounter counter = DistinctUserCounter.getInstance(distinctProps);
+        String error = "The counter should be shared by equal configurations";
+        assertThat(error, DistinctUserCounter.getInstance(new DistinctUserProperties(distinctProps)),
+                is(sameInstance(counter)));
+
+        EventListeners.dispatch(AuditEvent.create(Events.AUTHN_SUCCESS, "domain", "userName", null, 0, "module"));
+        EventListeners.dispatch(AuditEvent.create(Events.AUTHN_SUCCESS, null, null, "userId", 0, "module"));
+
+        error = "The dispatched logins should have been counted";
+        assertThat(error, counter.estimate("domain", 2), is(equalTo(1L)));
+        assertThat(error, counter.estimate(null, 2), is(equalTo(1L)));
+
+        DistinctUserCounter.closeInstance();
+        error = "The closed counter should have been unsubscribed";
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_SUCCESS), is(equalTo(false)));
+    }
+
+    /**
+     * Test that there is one counter per JVM, so that a login dispatched to login modules with different
+     * configurations is not counted by two counters
+     */
+    @Test
+    public void differentConfigurationTest() {
+
+        DistinctUserProperties distinctProps = JaasBasedDistinctUserPropsBuilder.buildDefault();
+        DistinctUserProperties otherProps = new DistinctUserProperties(distinctProps);
+        otherProps.setInterval(distinctProps.getInterval() + 1);
+
+        DistinctUserCounter counter = DistinctUserCounter.getInstance(distinctProps);
+        String error = "The counter should be shared by all configurations";
+        assertThat(error, DistinctUserCounter.getInstance(otherProps), is(sameInstance(counter)));
+
+        EventListeners.dispatch(AuditEvent.create(Events.AUTHN_SUCCESS, "domain", "userName", null, 0, "module"));
+
+        error = "The dispatched login should have been counted";
+        assertThat(error, counter.estimate("domain", 2), is(equalTo(1L)));
+    }
+
+    /**
+     * Write the sketch of a node
+     *
+     * @param nodeId The node ID
+     * @param start  The start of the window
+     * @param sketch The sketch of domain1
+     * @throws IOException When the sketch cannot be written
+     */
+    private void write(final String nodeId, final long start, final HyperLogLog sketch)
+            throws IOException {
+
+        new SketchFile(start, INTERVAL, nodeId, Collections.singletonMap("domain1", sketch)).write(
+                new File(folder.getRoot(), DistinctUserCounter.PREFIX + "-" + start + "-" + nodeId
+                        + SketchFile.EXTENSION));
+    }
+
+    /**
+     * Create an audit event
+     *
+     * @param time     The time of the event
+     * @param type     The type of the event
+     * @param username The username of the event
+     * @param domain   The domain of the event
+     * @return The event
+     */
+    private static AuditEvent event(final long time, final Events type, final String username, final String domain) {
+
+        return new AuditEvent(0, time, 0, type, domain, username, null, 0, "module");
+    }
+}
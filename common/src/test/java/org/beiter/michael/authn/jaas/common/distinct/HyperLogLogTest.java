@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.distinct;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class HyperLogLogTest {
+
+    /**
+     * Test that the estimate is within the expected error, and repeated values are not counted twice
+     */
+    @Test
+    public void estimateTest() {
+
+        HyperLogLog sketch = new HyperLogLog(12);
+        String error = "An empty sketch should estimate no values";
+        assertThat(error, sketch.estimate(), is(equalTo(0L)));
+
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("user_" + i);
+            sketch.add("user_" + i);
+        }
+
+        error = "The estimate should be within 5% of the number of distinct values";
+        assertThat(error, (double) sketch.estimate(), is(closeTo(100000, 5000)));
+    }
+
+    /**
+     * Test that small cardinalities are estimated almost exactly
+     */
+    @Test
+    public void smallRangeTest() {
+
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 100; i++) {
+            sketch.add("user_" + i);
+        }
+
+        String error = "A small number of distinct values should be estimated almost exactly";
+        assertThat(error, (double) sketch.estimate(), is(closeTo(100, 3)));
+    }
+
+    /**
+     * Test that a merged sketch estimates the union of the values of both sketches
+     */
+    @Test
+    public void mergeTest() {
+
+        HyperLogLog sketch1 = new HyperLogLog(12);
+        HyperLogLog sketch2 = new HyperLogLog(12);
+        HyperLogLog union = new HyperLogLog(12);
+        for (int i = 0; i < 30000; i++) {
+            sketch1.add("user_" + i);
+            sketch2.add("user_" + (i + 20000));
+            union.add("user_" + i);
+            union.add("user_" + (i + 20000));
+        }
+
+        sketch1.merge(sketch2);
+        String error = "The merged sketch should be identical to the sketch of the union";
+        assertThat(error, sketch1.toBytes(), is(equalTo(union.toBytes())));
+        assertThat(error, (double) sketch1.estimate(), is(closeTo(50000, 2500)));
+    }
+
+    /**
+     * Test that a sketch survives serialization
+     */
+    @Test
+    public void bytesTest() {
+
+        HyperLogLog sketch = new HyperLogLog(8);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("user_" + i);
+        }
+
+        byte[] bytes = sketch.toBytes();
+        String error = "The serialized form should have a header and one byte per register";
+        assertThat(error, bytes.length, is(equalTo(5 + 256)));
+
+        HyperLogLog copy = HyperLogLog.fromBytes(bytes);
+        error = "The deserialized sketch should be identical to the original";
+        assertThat(error, copy.getPrecision(), is(equalTo(8)));
+        assertThat(error, copy.estimate(), is(equalTo(sketch.estimate())));
+    }
+
+    /**
+     * Test that a sketch of another precision cannot be merged
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void mergePrecisionTest() {
+
+        new HyperLogLog(12).merge(new HyperLogLog(10));
+    }
+
+    /**
+     * Test that invalid bytes are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBytesTest() {
+
+        byte[] bytes = new HyperLogLog(8).toBytes();
+        HyperLogLog.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}
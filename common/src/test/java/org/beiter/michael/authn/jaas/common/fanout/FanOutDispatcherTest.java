@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.fanout;
+
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.fanout.FanOutDispatcher.Sink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FanOutDispatcherTest {
+
+    /**
+     * Test that an event is delivered to all sinks, and that the sinks work in parallel
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void parallelTest()
+            throws Exception {
+
+        final List<Sink<AtomicInteger>> sinks = new ArrayList<>();
+        final List<AtomicInteger> targets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final AtomicInteger target = new AtomicInteger();
+            targets.add(target);
+            sinks.add(new Sink<>("sink" + i, target, SinkPolicy.REQUIRED, 5000, 1, 10));
+        }
+
+        // every sink waits for all other sinks, which only works if they are called in parallel
+        final CountDownLatch latch = new CountDownLatch(sinks.size());
+        try (FanOutDispatcher<AtomicInteger> dispatcher = new FanOutDispatcher<>(sinks)) {
+            dispatcher.dispatch(new Delivery<AtomicInteger>() {
+                @Override
+                public void deliver(final AtomicInteger sink)
+                        throws InterruptedException {
+
+                    latch.countDown();
+                    if (!latch.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("The sinks have not been called in parallel");
+                    }
+                    sink.incrementAndGet();
+                }
+            });
+        }
+
+        for (final AtomicInteger target : targets) {
+            String error = "The event should have been delivered to every sink";
+            assertThat(error, target.get(), is(equalTo(1)));
+        }
+    }
+
+    /**
+     * Test that a failing required sink fails the dispatch
+     */
+    @Test
+    public void requiredFailureTest() {
+
+        final Sink<String> sink = new Sink<>("required", "target", SinkPolicy.REQUIRED, 5000, 1, 10);
+        try (FanOutDispatcher<String> dispatcher = new FanOutDispatcher<>(Collections.singletonList(sink))) {
+            dispatcher.dispatch(new FailingDelivery());
+            fail("The dispatch should have failed");
+        } catch (FanOutException e) {
+            String error = "The exception should carry the failure of the sink";
+            assertThat(error, e.getCause(), is(instanceOf(IllegalStateException.class)));
+            error = "The failure should have been counted";
+            assertThat(error, sink.getFailureCount(), is(equalTo(1L)));
+        }
+    }
+
+    /**
+     * Test that a failing best-effort sink does not fail the dispatch
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void bestEffortFailureTest()
+            throws Exception {
+
+        final Sink<String> sink = new Sink<>("bestEffort", "target", SinkPolicy.BEST_EFFORT, 5000, 1, 10);
+        try (FanOutDispatcher<String> dispatcher = new FanOutDispatcher<>(Collections.singletonList(sink))) {
+            dispatcher.dispatch(new FailingDelivery());
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sink.getFailureCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            String error = "The failure should have been counted";
+            assertThat(error, sink.getFailureCount(), is(equalTo(1L)));
+        }
+    }
+
+    /**
+     * Test that a slow required sink fails the dispatch when its timeout has passed, and that a slow best-effort sink
+     * does not delay the dispatch
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void timeoutTest()
+            throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Delivery<String> blocking = new Delivery<String>() {
+            @Override
+            public void deliver(final String sink)
+                    throws InterruptedException {
+
+                release.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        final Sink<String> bestEffort = new Sink<>("bestEffort", "target", SinkPolicy.BEST_EFFORT, 5000, 1, 10);
+        try (FanOutDispatcher<String> dispatcher = new FanOutDispatcher<>(Collections.singletonList(bestEffort))) {
+            final long start = System.nanoTime();
+            dispatcher.dispatch(blocking);
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            String error = "The dispatch should not have waited for the best-effort sink";
+            assertThat(error, elapsed, is(lessThan(1000L)));
+        }
+
+        final Sink<String> required = new Sink<>("required", "target", SinkPolicy.REQUIRED, 50, 1, 10);
+        try (FanOutDispatcher<String> dispatcher = new FanOutDispatcher<>(Collections.singletonList(required))) {
+            final long start = System.nanoTime();
+            try {
+                dispatcher.dispatch(blocking);
+                fail("The dispatch should have timed out");
+            } catch (FanOutException e) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                String error = "The dispatch should have waited for the timeout of the required sink";
+                assertThat(error, elapsed, is(both(greaterThanOrEqualTo(40L)).and(lessThan(4000L))));
+                error = "The timeout should have been counted";
+                assertThat(error, required.getFailureCount(), is(equalTo(1L)));
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Test that events are dropped when the queue of a sink is full
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void queueFullTest()
+            throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Delivery<String> blocking = new Delivery<String>() {
+            @Override
+            public void deliver(final String sink)
+                    throws InterruptedException {
+
+                release.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        final Sink<String> sink = new Sink<>("bestEffort", "target", SinkPolicy.BEST_EFFORT, 5000, 1, 1);
+        try (FanOutDispatcher<String> dispatcher = new FanOutDispatcher<>(Collections.singletonList(sink))) {
+            // one delivery occupies the thread, one waits in the queue, and the last one is dropped
+            dispatcher.dispatch(blocking);
+            dispatcher.dispatch(blocking);
+            dispatcher.dispatch(blocking);
+
+            String error = "The event should have been dropped";
+            assertThat(error, sink.getDropCount(), is(greaterThanOrEqualTo(1L)));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Test that a required sink that cannot be created fails the creation of the dispatcher, while a best-effort sink
+     * is left out
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void createTest()
+            throws Exception {
+
+        final SinkFactory<String> factory = new SinkFactory<String>() {
+            @Override
+            public String getInstance(final String className)
+                    throws FactoryException {
+
+                if ("broken".equals(className)) {
+                    throw new FactoryException("broken");
+                }
+                return className;
+            }
+        };
+
+        final FanOutProperties properties = new FanOutProperties();
+        properties.setSinks(Collections.singletonList(buildSinkProperties("good", "good", "required")));
+        final List<SinkProperties> sinks = properties.getSinks();
+        sinks.add(buildSinkProperties("broken", "broken", SinkProperties.POLICY_BEST_EFFORT));
+        properties.setSinks(sinks);
+
+        try (FanOutDispatcher<String> dispatcher = FanOutDispatcher.create(properties, factory)) {
+            String error = "The broken best-effort sink should have been left out";
+            assertThat(error, dispatcher.getSinks().size(), is(equalTo(1)));
+            assertThat(error, dispatcher.getSinks().get(0).getTarget(), is(equalTo("good")));
+        }
+
+        sinks.add(buildSinkProperties("broken2", "broken", SinkProperties.POLICY_REQUIRED));
+        properties.setSinks(sinks);
+        try {
+            FanOutDispatcher.create(properties, factory);
+            fail("The broken required sink should have failed the creation of the dispatcher");
+        } catch (FanOutException e) {
+            String error = "The exception should carry the failure of the factory";
+            assertThat(error, e.getCause(), is(instanceOf(FactoryException.class)));
+        }
+    }
+
+    /**
+     * @param name      The name
+     * @param className The class name
+     * @param policy    The policy
+     * @return The sink properties
+     */
+    private static SinkProperties buildSinkProperties(final String name, final String className, final String policy) {
+
+        final SinkProperties sink = new SinkProperties();
+        sink.setName(name);
+        sink.setClassName(className);
+        sink.setPolicy(policy);
+        sink.setTimeout(1000);
+        sink.setThreads(1);
+        sink.setQueueCapacity(10);
+        return sink;
+    }
+
+    /**
+     * A delivery that always fails
+     */
+    private static class FailingDelivery
+            implements Delivery<String> {
+
+        @Override
+        public void deliver(final String sink) {
+
+            throw new IllegalStateException("failed");
+        }
+    }
+}
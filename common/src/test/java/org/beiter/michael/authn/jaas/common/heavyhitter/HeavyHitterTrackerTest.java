@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedHeavyHitterPropsBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class HeavyHitterTrackerTest {
+
+    /**
+     * Close the tracker created by the tests
+     */
+    @After
+    public void closeInstance() {
+
+        HeavyHitterTracker.closeInstance();
+    }
+
+    /**
+     * Test that the usernames and domains with the most failures are tracked, and other events are ignored
+     */
+    @Test
+    public void trackTest() {
+
+        HeavyHitterTracker tracker = new HeavyHitterTracker(100, 10, 60000);
+        for (int i = 0; i < 1000; i++) {
+            tracker.onEvent(event(Events.AUTHN_FAILURE, "userName_" + i, "domain1"));
+            if (i % 4 == 0) {
+                tracker.onEvent(event(Events.AUTHN_FAILURE, "victim", "domain2"));
+            }
+            tracker.onEvent(event(Events.AUTHN_SUCCESS, "victim", "domain2"));
+        }
+
+        List<HeavyHitter> users = tracker.getTopUsers(1);
+        String error = "The username with the most failures should have been found";
+        assertThat(error, users.get(0).getKey(), is(equalTo("victim@domain2")));
+        assertThat(error, users.get(0).getCount(), is(greaterThanOrEqualTo(250L)));
+
+        List<HeavyHitter> domains = tracker.getTopDomains(10);
+        error = "The domains should have been counted exactly";
+        assertThat(error, domains.size(), is(equalTo(2)));
+        assertThat(error, domains.get(0).getKey(), is(equalTo("domain1")));
+        assertThat(error, domains.get(0).getCount(), is(equalTo(1000L)));
+        assertThat(error, domains.get(1).getCount(), is(equalTo(250L)));
+
+        error = "The failures of any username should be estimated without underestimating";
+        assertThat(error, tracker.estimateFailures("victim", "domain2", null), is(greaterThanOrEqualTo(250L)));
+        assertThat(error, tracker.estimateFailures("userName_7", "domain1", null), is(greaterThanOrEqualTo(1L)));
+        assertThat(error, tracker.estimateFailures("userName_7", "domain1", null), is(lessThan(250L)));
+    }
+
+    /**
+     * Test that completing an interval resets the counters, and keeps the heavy hitters of the completed interval
+     */
+    @Test
+    public void exportTest() {
+
+        HeavyHitterTracker tracker = new HeavyHitterTracker(100, 10, 60000);
+        String error = "No interval should have been completed yet";
+        assertThat(error, tracker.getCompletedTopUsers(10), is(empty()));
+
+        tracker.onEvent(event(Events.AUTHN_FAILURE, "userName", "domain"));
+        tracker.export();
+
+        error = "The heavy hitters of the completed interval should have been kept";
+        assertThat(error, tracker.getCompletedTopUsers(10).get(0).getKey(), is(equalTo("userName@domain")));
+        assertThat(error, tracker.getCompletedTopDomains(10).get(0).getKey(), is(equalTo("domain")));
+        error = "The counters of the current interval should have been reset";
+        assertThat(error, tracker.getTopUsers(10), is(empty()));
+        assertThat(error, tracker.estimateFailures("userName", "domain", null), is(equalTo(0L)));
+    }
+
+    /**
+     * Test that the shared tracker receives the dispatched failures
+     */
+    @Test
+    public void getInstanceTest() {
+
+        HeavyHitterProperties hitterProps = JaasBasedHeavyHitterPropsBuilder.buildDefault();
+        HeavyHitterTracker tracker = HeavyHitterTracker.getInstance(hitterProps);
+        String error = "The tracker should be shared by equal configurations";
+        assertThat(error, HeavyHitterTracker.getInstance(new HeavyHitterProperties(hitterProps)),
+                is(sameInstance(tracker)));
+
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, null, null));
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName", "domain"));
+
+        error = "The dispatched failure should have been tracked";
+        assertThat(error, tracker.getTopUsers(10).size(), is(equalTo(1)));
+        assertThat(error, tracker.estimateFailures(null, null, "userId"), is(equalTo(0L)));
+
+        HeavyHitterTracker.closeInstance();
+        error = "The closed tracker should have been unsubscribed";
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_FAILURE), is(equalTo(false)));
+    }
+
+    /**
+     * Test that there is one tracker per JVM, so that a failure dispatched to login modules with different
+     * configurations is not counted twice
+     */
+    @Test
+    public void differentConfigurationTest() {
+
+        HeavyHitterProperties hitterProps = JaasBasedHeavyHitterPropsBuilder.buildDefault();
+        HeavyHitterProperties otherProps = new HeavyHitterProperties(hitterProps);
+        otherProps.setCapacity(hitterProps.getCapacity() + 1);
+
+        HeavyHitterTracker tracker = HeavyHitterTracker.getInstance(hitterProps);
+        String error = "The tracker should be shared by all configurations";
+        assertThat(error, HeavyHitterTracker.getInstance(otherProps), is(sameInstance(tracker)));
+
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName", "domain"));
+
+        error = "The dispatched failure should have been tracked once";
+        assertThat(error, tracker.getTopDomains(10).get(0).getCount(), is(equalTo(1L)));
+    }
+
+    /**
+     * Create an audit event
+     *
+     * @param type     The type of the event
+     * @param username The username of the event
+     * @param domain   The domain of the event
+     * @return The event
+     */
+    private static AuditEvent event(final Events type, final String username, final String domain) {
+
+        return AuditEvent.create(type, domain, username, null, 0, "module");
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.heavyhitter;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SpaceSavingTest {
+
+    /**
+     * Test that the most frequent keys are found in a stream with many more keys than counters
+     */
+    @Test
+    public void heavyHittersTest() {
+
+        SpaceSaving summary = new SpaceSaving(50);
+        for (int i = 0; i < 10000; i++) {
+            summary.offer("noise_" + i);
+            if (i % 10 == 0) {
+                summary.offer("heavy_1");
+            }
+            if (i % 20 == 0) {
+                summary.offer("heavy_2");
+            }
+        }
+
+        List<HeavyHitter> top = summary.top(2);
+        String error = "The most frequent keys should have been found, in order";
+        assertThat(error, top.size(), is(equalTo(2)));
+        assertThat(error, top.get(0).getKey(), is(equalTo("heavy_1")));
+        assertThat(error, top.get(1).getKey(), is(equalTo("heavy_2")));
+
+        error = "The counts should not be underestimated, and the error should bound the overestimation";
+        assertThat(error, top.get(0).getCount(), is(greaterThanOrEqualTo(1000L)));
+        assertThat(error, top.get(0).getGuaranteedCount(), is(lessThanOrEqualTo(1000L)));
+        assertThat(error, top.get(1).getCount(), is(greaterThanOrEqualTo(500L)));
+        assertThat(error, top.get(1).getGuaranteedCount(), is(lessThanOrEqualTo(500L)));
+    }
+
+    /**
+     * Test that the counts are exact while there are fewer keys than counters
+     */
+    @Test
+    public void exactTest() {
+
+        SpaceSaving summary = new SpaceSaving(10);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                summary.offer("key_" + i);
+            }
+        }
+
+        List<HeavyHitter> top = summary.top(100);
+        String error = "All keys should have been counted exactly";
+        assertThat(error, top.size(), is(equalTo(5)));
+        for (int i = 0; i < 5; i++) {
+            assertThat(error, top.get(i).getKey(), is(equalTo("key_" + (4 - i))));
+            assertThat(error, top.get(i).getCount(), is(equalTo(5L - i)));
+            assertThat(error, top.get(i).getError(), is(equalTo(0L)));
+        }
+    }
+
+    /**
+     * Test that a new key takes over the counter with the lowest count when all counters are in use
+     */
+    @Test
+    public void takeOverTest() {
+
+        SpaceSaving summary = new SpaceSaving(2);
+        summary.offer("key_1");
+        summary.offer("key_1");
+        summary.offer("key_1");
+        summary.offer("key_2");
+        summary.offer("key_3");
+
+        List<HeavyHitter> top = summary.top(2);
+        String error = "The new key should have taken over the lowest counter, inheriting its count as the error";
+        assertThat(error, top.get(0).getKey(), is(equalTo("key_1")));
+        assertThat(error, top.get(1).getKey(), is(equalTo("key_3")));
+        assertThat(error, top.get(1).getCount(), is(equalTo(2L)));
+        assertThat(error, top.get(1).getError(), is(equalTo(1L)));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JournalSpoolTest {
+
+    /**
+     * The directory for the spool files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that a replay stops at the first record that cannot be delivered, and continues with this record
+     *
+     * @throws IOException When the spool cannot be written
+     */
+    @Test
+    public void replayTest()
+            throws IOException {
+
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 65536, 3600000, 10)) {
+            String error = "An empty spool should not be spooling";
+            assertThat(error, spool.isSpooling(), is(equalTo(false)));
+
+            append(spool, "one", "two", "three");
+            error = "The spool should be spooling after an append";
+            assertThat(error, spool.isSpooling(), is(equalTo(true)));
+            assertThat(error, spool.getPending(), is(equalTo(3L)));
+
+            final Replayer replayer = new Replayer(2);
+            spool.setReplayer(replayer);
+            error = "The replay should have stopped at the record that could not be delivered";
+            assertThat(error, spool.replay(), is(equalTo(2)));
+            assertThat(error, replayer.delivered, contains("one", "two"));
+            assertThat(error, spool.isSpooling(), is(equalTo(true)));
+            assertThat(error, spool.getPending(), is(equalTo(1L)));
+
+            replayer.capacity = Integer.MAX_VALUE;
+            append(spool, "four");
+            error = "The next replay should have continued with the record that could not be delivered";
+            assertThat(error, spool.replay(), is(equalTo(2)));
+            assertThat(error, replayer.delivered, contains("one", "two", "three", "four"));
+            error = "The spool should have stopped spooling after all records have been replayed";
+            assertThat(error, spool.isSpooling(), is(equalTo(false)));
+            assertThat(error, spool.getPending(), is(equalTo(0L)));
+        }
+    }
+
+    /**
+     * Test that a spool that is opened again continues to replay the records that have not been replayed
+     *
+     * @throws IOException When the spool cannot be written
+     */
+    @Test
+    public void reopenTest()
+            throws IOException {
+
+        final Replayer replayer = new Replayer(1);
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 65536, 3600000, 10)) {
+            append(spool, "one", "two");
+            spool.setReplayer(replayer);
+            spool.replay();
+        }
+
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 65536, 3600000, 10)) {
+            String error = "The reopened spool should still be spooling";
+            assertThat(error, spool.isSpooling(), is(equalTo(true)));
+
+            replayer.capacity = Integer.MAX_VALUE;
+            spool.setReplayer(replayer);
+            spool.replay();
+            error = "The reopened spool should have replayed the remaining record only";
+            assertThat(error, replayer.delivered, contains("one", "two"));
+        }
+    }
+
+    /**
+     * Test that the segments that have been replayed completely are deleted
+     *
+     * @throws IOException When the spool cannot be written
+     */
+    @Test
+    public void purgeTest()
+            throws IOException {
+
+        final Replayer replayer = new Replayer(Integer.MAX_VALUE);
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 4096, 3600000, 7)) {
+            for (int i = 0; i < 300; i++) {
+                append(spool, "record_" + i);
+            }
+            spool.setReplayer(replayer);
+
+            String error = "All records should have been replayed in order";
+            assertThat(error, spool.replay(), is(equalTo(300)));
+            for (int i = 0; i < 300; i++) {
+                assertThat(error, replayer.delivered.get(i), is(equalTo("record_" + i)));
+            }
+
+            error = "Only the current segment should have been kept";
+            assertThat(error, SegmentedJournal.listSegments(folder.getRoot(), "test").size(), is(equalTo(1)));
+        }
+
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 4096, 3600000, 7)) {
+            append(spool, "record_300");
+            spool.setReplayer(replayer);
+            spool.replay();
+
+            String error = "The spool should continue after the purged segments";
+            assertThat(error, replayer.delivered.size(), is(equalTo(301)));
+            assertThat(error, replayer.delivered.get(300), is(equalTo("record_300")));
+        }
+    }
+
+    /**
+     * Test that records are replayed by the background thread
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void backgroundTest()
+            throws Exception {
+
+        final Replayer replayer = new Replayer(Integer.MAX_VALUE);
+        try (JournalSpool spool = JournalSpool.open(folder.getRoot(), "test", 65536, 20, 10)) {
+            spool.setReplayer(replayer);
+            append(spool, "one");
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (spool.isSpooling() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            String error = "The background thread should have replayed the record";
+            assertThat(error, spool.isSpooling(), is(equalTo(false)));
+            assertThat(error, replayer.delivered, contains("one"));
+        }
+    }
+
+    /**
+     * Append records to a spool
+     *
+     * @param spool   The spool
+     * @param records The records
+     * @throws IOException When the spool cannot be written
+     */
+    private static void append(final JournalSpool spool, final String... records)
+            throws IOException {
+
+        for (final String record : records) {
+            final byte[] payload = record.getBytes(StandardCharsets.UTF_8);
+            spool.append(payload, 0, payload.length);
+        }
+    }
+
+    /**
+     * A replayer that delivers a limited number of records
+     */
+    private static final class Replayer
+            implements RecordHandler {
+
+        /**
+         * The records that have been delivered
+         */
+        private final List<String> delivered = new ArrayList<>();
+
+        /**
+         * The number of records that can be delivered in total
+         */
+        private volatile int capacity;
+
+        /**
+         * @param capacity The number of records that can be delivered in total
+         */
+        Replayer(final int capacity) {
+
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+            if (delivered.size() >= capacity) {
+                return false;
+            }
+
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            delivered.add(new String(bytes, StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+}
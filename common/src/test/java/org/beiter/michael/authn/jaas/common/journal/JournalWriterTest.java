@@ -0,0 +1,216 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JournalWriterTest {
+
+    /**
+     * The directory for the journal files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the sync durability flushes the journal with every record
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void syncTest()
+            throws IOException {
+
+        try (JournalWriter writer = buildWriter(Durability.SYNC, 10, 1000000, 60000)) {
+            writer.append(bytes("one"));
+            writer.append(bytes("two"));
+            writer.append(bytes("three"));
+
+            String error = "Every record should have been flushed";
+            assertThat(error, writer.getFlushCount(), is(equalTo(3L)));
+        }
+    }
+
+    /**
+     * Test that the none durability never flushes the journal explicitly
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void noneTest()
+            throws IOException {
+
+        try (JournalWriter writer = buildWriter(Durability.NONE, 10, 1000000, 60000)) {
+            String error = "The record should have been appended";
+            assertThat(error, writer.append(bytes("one")), is(equalTo(1L)));
+            error = "The journal should not have been flushed";
+            assertThat(error, writer.getFlushCount(), is(equalTo(0L)));
+        }
+    }
+
+    /**
+     * Test that concurrent appends are released together by a group commit when the group is complete
+     *
+     * @throws Exception When the journal cannot be written
+     */
+    @Test
+    public void groupCommitTest()
+            throws Exception {
+
+        final int threads = 8;
+        try (final JournalWriter writer = buildWriter(Durability.GROUP, threads, 10000000, 60000)) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Future<Long>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    results.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call()
+                                throws IOException {
+
+                            return writer.append(bytes("record"));
+                        }
+                    }));
+                }
+
+                for (final Future<Long> result : results) {
+                    String error = "The append should have been released by the group commit";
+                    assertThat(error, result.get(5, TimeUnit.SECONDS), is(greaterThan(0L)));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            String error = "The complete group should have been flushed at once";
+            assertThat(error, writer.getFlushCount(), is(equalTo(1L)));
+        }
+    }
+
+    /**
+     * Test that an incomplete group is committed when the group delay has passed
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void groupDelayTest()
+            throws IOException {
+
+        try (JournalWriter writer = buildWriter(Durability.GROUP, 100, 20000, 60000)) {
+            final long start = System.nanoTime();
+            writer.append(bytes("one"));
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            String error = "The incomplete group should have been flushed after the group delay";
+            assertThat(error, writer.getFlushCount(), is(equalTo(1L)));
+            assertThat(error, elapsed, is(both(greaterThanOrEqualTo(15L)).and(lessThan(5000L))));
+        }
+    }
+
+    /**
+     * Test that the periodic durability flushes the journal in the background
+     *
+     * @throws IOException          When the journal cannot be written
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void periodicTest()
+            throws IOException, InterruptedException {
+
+        try (JournalWriter writer = buildWriter(Durability.PERIODIC, 10, 1000000, 20)) {
+            writer.append(bytes("one"));
+
+            String error = "The append should not have flushed the journal";
+            assertThat(error, writer.getFlushCount(), is(lessThan(5L)));
+
+            Thread.sleep(200);
+            error = "The journal should have been flushed in the background";
+            assertThat(error, writer.getFlushCount(), is(greaterThan(0L)));
+        }
+    }
+
+    /**
+     * Test that appending to a closed writer fails
+     *
+     * @throws IOException When the journal cannot be written (expected)
+     */
+    @Test(expected = IOException.class)
+    public void closedTest()
+            throws IOException {
+
+        JournalWriter writer = buildWriter(Durability.GROUP, 10, 1000000, 60000);
+        writer.close();
+        writer.append(bytes("one"));
+    }
+
+    /**
+     * Build a journal writer
+     *
+     * @param durability       The durability
+     * @param groupSize        The group size
+     * @param groupDelayMicros The group delay in microseconds
+     * @param forceInterval    The force interval in milliseconds
+     * @return The writer
+     * @throws IOException When the journal cannot be opened
+     */
+    private JournalWriter buildWriter(final Durability durability, final int groupSize, final long groupDelayMicros,
+                                      final long forceInterval)
+            throws IOException {
+
+        return new JournalWriter(SegmentedJournal.open(folder.getRoot(), "test", 65536, 0), durability, groupSize,
+                groupDelayMicros, forceInterval);
+    }
+
+    /**
+     * @param value A string
+     * @return The UTF-8 bytes of the string
+     */
+    private static byte[] bytes(final String value) {
+
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
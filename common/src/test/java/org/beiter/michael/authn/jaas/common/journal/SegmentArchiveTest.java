@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SegmentArchiveTest {
+
+    /**
+     * The directory for the journal files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the records of an archived segment can be scanned and read by their original offsets
+     *
+     * @throws IOException When the journal cannot be read or written
+     */
+    @Test
+    public void archiveTest()
+            throws IOException {
+
+        final File segment;
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(bytes("record " + i));
+            }
+            segment = journal.getSegments().get(0);
+        }
+
+        final List<Integer> offsets = new ArrayList<>();
+        final List<String> payloads = new ArrayList<>();
+        scan(SegmentReader.open(segment), offsets, payloads);
+
+        final File archive = SegmentArchive.archive(segment, 128, Deflater.DEFAULT_COMPRESSION);
+
+        String error = "The segment should have been replaced by the archive";
+        assertThat(error, segment.exists(), is(equalTo(false)));
+        assertThat(error, archive, is(equalTo(SegmentArchive.archiveFile(segment))));
+        error = "The segment should have been split into several blocks";
+        assertThat(error, SegmentArchive.open(archive).getBlockCount(), is(greaterThan(1)));
+
+        final SegmentReader reader = SegmentReader.open(segment);
+        error = "The reader should read the archive in place of the segment";
+        assertThat(error, reader.isArchived(), is(equalTo(true)));
+        assertThat(error, reader.getFile(), is(equalTo(segment)));
+        assertThat(error, reader.getBaseSequence(), is(equalTo(1L)));
+
+        final List<Integer> archivedOffsets = new ArrayList<>();
+        final List<String> archivedPayloads = new ArrayList<>();
+        scan(reader, archivedOffsets, archivedPayloads);
+        error = "The archive should contain the records of the segment at their original offsets";
+        assertThat(error, archivedOffsets, is(equalTo(offsets)));
+        assertThat(error, archivedPayloads, is(equalTo(payloads)));
+
+        final List<String> read = new ArrayList<>();
+        final RecordHandler handler = new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                read.add(sequence + ":" + string(payload));
+                return true;
+            }
+        };
+        error = "The records should have been read by their offsets, in any order";
+        assertThat(error, reader.read(offsets.get(40), handler), is(equalTo(true)));
+        assertThat(error, reader.read(offsets.get(3), handler), is(equalTo(true)));
+        assertThat(error, read, contains("41:record 40", "4:record 3"));
+        error = "An offset that is not the start of a record should be rejected";
+        assertThat(error, reader.read(offsets.get(3) + 8, handler), is(equalTo(false)));
+    }
+
+    /**
+     * Test that the archiver archives all segments but the last one, and that the journal still reads all records
+     *
+     * @throws IOException When the journal cannot be read or written
+     */
+    @Test
+    public void archiverTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 512, 0)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(bytes("record " + i));
+            }
+            final List<File> segments = journal.getSegments();
+
+            try (SegmentArchiver archiver = new SegmentArchiver(folder.getRoot(), "test", 256, 60000)) {
+                String error = "All sealed segments should have been archived";
+                assertThat(error, archiver.archiveSealed(), is(equalTo(segments.size() - 1)));
+                error = "Archived segments should not be archived again";
+                assertThat(error, archiver.archiveSealed(), is(equalTo(0)));
+            }
+
+            String error = "The last segment should not have been archived";
+            assertThat(error, segments.get(segments.size() - 1).exists(), is(equalTo(true)));
+            assertThat(error, segments.get(0).exists(), is(equalTo(false)));
+            error = "The archived segments should still be listed by their names";
+            assertThat(error, SegmentArchive.listSegments(folder.getRoot(), "test"), is(equalTo(segments)));
+
+            final List<Long> sequences = new ArrayList<>();
+            journal.read(10, new RecordHandler() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                    sequences.add(sequence);
+                    return true;
+                }
+            });
+            error = "The journal should read the archived and the live segments";
+            assertThat(error, sequences.size(), is(equalTo(41)));
+            assertThat(error, sequences.get(0), is(equalTo(10L)));
+            assertThat(error, sequences.get(40), is(equalTo(50L)));
+        }
+    }
+
+    /**
+     * Test that a damaged archive is rejected
+     *
+     * @throws IOException When the archive is damaged (expected)
+     */
+    @Test(expected = IOException.class)
+    public void invalidArchiveTest()
+            throws IOException {
+
+        final File segment;
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            journal.append(bytes("one"));
+            segment = journal.getSegments().get(0);
+        }
+
+        final File archive = SegmentArchive.archive(segment, 128, Deflater.DEFAULT_COMPRESSION);
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.writeInt(0);
+        }
+
+        SegmentArchive.open(archive);
+    }
+
+    /**
+     * Scan all records of a segment
+     *
+     * @param reader   The reader of the segment
+     * @param offsets  The list to add the offsets of the records to
+     * @param payloads The list to add the payloads of the records to
+     */
+    private static void scan(final SegmentReader reader, final List<Integer> offsets, final List<String> payloads) {
+
+        reader.scan(SegmentReader.getFirstOffset(), Integer.MAX_VALUE, new RecordLocator() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                    final ByteBuffer payload) {
+
+                offsets.add(offset);
+                payloads.add(string(payload));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @param value A string
+     * @return The UTF-8 bytes of the string
+     */
+    private static byte[] bytes(final String value) {
+
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param payload A payload buffer
+     * @return The payload as UTF-8 string
+     */
+    private static String string(final ByteBuffer payload) {
+
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
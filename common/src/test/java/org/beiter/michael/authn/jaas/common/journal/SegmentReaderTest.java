@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SegmentReaderTest {
+
+    /**
+     * The directory for the journal files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the records of a segment can be scanned, and read again by their offsets, while the journal is open
+     *
+     * @throws IOException When the journal cannot be read or written
+     */
+    @Test
+    public void scanAndReadTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 65536, 0)) {
+            journal.append(bytes("one"));
+            journal.append(bytes("two"));
+            journal.append(bytes("three"));
+
+            final SegmentReader reader = SegmentReader.open(journal.getSegments().get(0));
+            final List<Integer> offsets = new ArrayList<>();
+            final List<String> payloads = new ArrayList<>();
+            reader.scan(SegmentReader.getFirstOffset(), Integer.MAX_VALUE, new RecordLocator() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                        final ByteBuffer payload) {
+
+                    offsets.add(offset);
+                    payloads.add(string(payload));
+                    return true;
+                }
+            });
+
+            String error = "All records should have been scanned";
+            assertThat(error, payloads, contains("one", "two", "three"));
+            error = "The base sequence should be the sequence of the first record";
+            assertThat(error, reader.getBaseSequence(), is(equalTo(1L)));
+
+            final List<String> read = new ArrayList<>();
+            final RecordHandler handler = new RecordHandler() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                    read.add(sequence + ":" + string(payload));
+                    return true;
+                }
+            };
+            error = "The record should have been read by its offset";
+            assertThat(error, reader.read(offsets.get(1), handler), is(equalTo(true)));
+            assertThat(error, read, contains("2:two"));
+            error = "An offset that is not the start of a record should be rejected";
+            assertThat(error, reader.read(offsets.get(1) + 8, handler), is(equalTo(false)));
+
+            final List<String> partial = new ArrayList<>();
+            reader.scan(offsets.get(1), offsets.get(2), new RecordLocator() {
+                @Override
+                public boolean onRecord(final long sequence, final long timestamp, final int offset,
+                                        final ByteBuffer payload) {
+
+                    partial.add(string(payload));
+                    return true;
+                }
+            });
+            error = "Only the records between the offsets should have been scanned";
+            assertThat(error, partial, contains("two"));
+        }
+    }
+
+    /**
+     * Test that a file that is not a segment is rejected
+     *
+     * @throws IOException When the file is not a segment (expected)
+     */
+    @Test(expected = IOException.class)
+    public void invalidSegmentTest()
+            throws IOException {
+
+        SegmentReader.open(folder.newFile("test-00000000000000000001.seg"));
+    }
+
+    /**
+     * @param value A string
+     * @return The UTF-8 bytes of the string
+     */
+    private static byte[] bytes(final String value) {
+
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param payload A payload
+     * @return The payload as a UTF-8 string
+     */
+    private static String string(final ByteBuffer payload) {
+
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SegmentedJournalTest {
+
+    /**
+     * A segment size that holds two records with an 8 byte payload
+     */
+    private static final int SMALL_SEGMENT = SegmentedJournal.SEGMENT_HEADER_SIZE
+            + 2 * (SegmentedJournal.RECORD_HEADER_SIZE + 8);
+
+    /**
+     * The directory for the journal files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that appended records are read back in order with their sequence numbers
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void appendAndReadTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            String error = "The first record should have sequence number 1";
+            assertThat(error, journal.append(bytes("one")), is(equalTo(1L)));
+            error = "The second record should have sequence number 2";
+            assertThat(error, journal.append(bytes("two")), is(equalTo(2L)));
+            journal.append(bytes("three"));
+
+            List<String> records = readAll(journal, 1);
+            error = "The records do not match the appended records";
+            assertThat(error, records, contains("1:one", "2:two", "3:three"));
+
+            records = readAll(journal, 2);
+            error = "Reading from a sequence number should skip the earlier records";
+            assertThat(error, records, contains("2:two", "3:three"));
+        }
+    }
+
+    /**
+     * Test that a reopened journal continues after the last record
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void recoveryTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(bytes("record" + i));
+            }
+        }
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            String error = "The reopened journal should continue after the last record";
+            assertThat(error, journal.getNextSequence(), is(equalTo(6L)));
+            error = "The records should be readable after reopening the journal";
+            assertThat(error, readAll(journal, 1).size(), is(equalTo(5)));
+            error = "A record appended to the reopened journal should get the next sequence number";
+            assertThat(error, journal.append(bytes("record5")), is(equalTo(6L)));
+            assertThat(error, readAll(journal, 6), contains("6:record5"));
+        }
+    }
+
+    /**
+     * Test that a record with a CRC mismatch (e.g. torn by a crash) is discarded when the journal is reopened
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void tornRecordTest()
+            throws IOException {
+
+        final File segment;
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            journal.append(bytes("aaaaaaaa"));
+            journal.append(bytes("bbbbbbbb"));
+            journal.append(bytes("cccccccc"));
+            segment = journal.getSegments().get(0);
+        }
+
+        // flip a payload byte of the third record
+        final int offset = SegmentedJournal.SEGMENT_HEADER_SIZE + 2 * (SegmentedJournal.RECORD_HEADER_SIZE + 8)
+                + SegmentedJournal.RECORD_HEADER_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(offset);
+            raf.write('x');
+        }
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            String error = "The corrupted record should have been discarded";
+            assertThat(error, readAll(journal, 1), contains("1:aaaaaaaa", "2:bbbbbbbb"));
+            error = "The journal should continue after the last valid record";
+            assertThat(error, journal.append(bytes("dddddddd")), is(equalTo(3L)));
+            assertThat(error, readAll(journal, 1), contains("1:aaaaaaaa", "2:bbbbbbbb", "3:dddddddd"));
+        }
+    }
+
+    /**
+     * Test that a new segment is started when a segment is full, and records are read across segments
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test
+    public void rollBySizeTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", SMALL_SEGMENT, 0)) {
+            for (int i = 1; i <= 5; i++) {
+                journal.append(bytes("record_" + i));
+            }
+
+            String error = "Five records should have filled three segments";
+            assertThat(error, journal.getSegments().size(), is(equalTo(3)));
+            error = "The records should be read across segments";
+            assertThat(error, readAll(journal, 1),
+                    contains("1:record_1", "2:record_2", "3:record_3", "4:record_4", "5:record_5"));
+            error = "Reading from a sequence number should skip the earlier segments";
+            assertThat(error, readAll(journal, 4), contains("4:record_4", "5:record_5"));
+        }
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", SMALL_SEGMENT, 0)) {
+            String error = "The reopened journal should continue after the last record of the last segment";
+            assertThat(error, journal.getNextSequence(), is(equalTo(6L)));
+        }
+    }
+
+    /**
+     * Test that a new segment is started when a segment is older than the roll interval
+     *
+     * @throws IOException          When the journal cannot be written
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void rollByTimeTest()
+            throws IOException, InterruptedException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 50)) {
+            journal.append(bytes("one"));
+            Thread.sleep(100);
+            journal.append(bytes("two"));
+
+            String error = "The expired segment should have been rolled";
+            assertThat(error, journal.getSegments().size(), is(equalTo(2)));
+            error = "The records should be read across segments";
+            assertThat(error, readAll(journal, 1), contains("1:one", "2:two"));
+        }
+    }
+
+    /**
+     * Test that a directory cannot be used by two journals at the same time
+     *
+     * @throws IOException When the journal cannot be opened
+     */
+    @Test(expected = IOException.class)
+    public void lockTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", 4096, 0)) {
+            SegmentedJournal.open(folder.getRoot(), "test", 4096, 0);
+        }
+    }
+
+    /**
+     * Test that a payload larger than a segment is rejected
+     *
+     * @throws IOException When the journal cannot be written
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedRecordTest()
+            throws IOException {
+
+        try (SegmentedJournal journal = SegmentedJournal.open(folder.getRoot(), "test", SMALL_SEGMENT, 0)) {
+            journal.append(new byte[journal.getMaxPayloadLength() + 1]);
+        }
+    }
+
+    /**
+     * @param value A string
+     * @return The UTF-8 bytes of the string
+     */
+    private static byte[] bytes(final String value) {
+
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the records of a journal as "sequence:payload" strings
+     *
+     * @param journal      The journal
+     * @param fromSequence The sequence number of the first record to read
+     * @return The records
+     * @throws IOException When the journal cannot be read
+     */
+    private static List<String> readAll(final SegmentedJournal journal, final long fromSequence)
+            throws IOException {
+
+        final List<String> records = new ArrayList<>();
+        journal.read(fromSequence, new RecordHandler() {
+            @Override
+            public boolean onRecord(final long sequence, final long timestamp, final ByteBuffer payload) {
+
+                final byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                records.add(sequence + ":" + new String(bytes, StandardCharsets.UTF_8));
+                return true;
+            }
+        });
+
+        return records;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.listener;
+
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class EventListenersTest {
+
+    /**
+     * The listeners subscribed by a test
+     */
+    private final List<EventListener> listeners = new ArrayList<>();
+
+    /**
+     * Unsubscribe the listeners of the test from all event types
+     */
+    @After
+    public void unsubscribe() {
+
+        for (EventListener listener : listeners) {
+            for (Events event : Events.values()) {
+                EventListeners.unsubscribe(event, listener);
+            }
+        }
+    }
+
+    /**
+     * Test that synchronous listeners are called on the dispatching thread, for their event type only
+     */
+    @Test
+    public void synchronousTest() {
+
+        RecordingListener listener = new RecordingListener();
+        subscribe(Events.AUTHN_FAILURE, listener, DeliveryMode.SYNCHRONOUS);
+
+        String error = "Only the subscribed event type should have listeners";
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_FAILURE), is(equalTo(true)));
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_SUCCESS), is(equalTo(false)));
+
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName_1"));
+        EventListeners.dispatch(event(Events.AUTHN_SUCCESS, "userName_2"));
+
+        error = "The listener should have been called for the subscribed event type only";
+        assertThat(error, listener.usernames(), contains("userName_1"));
+        error = "The listener should have been called on the dispatching thread";
+        assertThat(error, listener.threads, contains(Thread.currentThread()));
+    }
+
+    /**
+     * Test that asynchronous listeners are called in order on a background thread
+     *
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void asynchronousTest()
+            throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(3);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onEvent(final AuditEvent event) {
+
+                super.onEvent(event);
+                latch.countDown();
+            }
+        };
+        subscribe(Events.AUTHN_FAILURE, listener, DeliveryMode.ASYNCHRONOUS);
+
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName_1"));
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName_2"));
+        EventListeners.dispatch(event(Events.AUTHN_FAILURE, "userName_3"));
+
+        String error = "The events should have been delivered in order";
+        assertThat(error, latch.await(5, TimeUnit.SECONDS), is(equalTo(true)));
+        assertThat(error, listener.usernames(), contains("userName_1", "userName_2", "userName_3"));
+        error = "The listener should have been called on a background thread";
+        assertThat(error, listener.threads.get(0), is(not(equalTo(Thread.currentThread()))));
+    }
+
+    /**
+     * Test that a failing listener does not prevent the delivery to the other listeners
+     */
+    @Test
+    public void failingListenerTest() {
+
+        subscribe(Events.AUTHN_ERROR, new EventListener() {
+            @Override
+            public void onEvent(final AuditEvent event) {
+
+                throw new IllegalStateException("The listener fails");
+            }
+        }, DeliveryMode.SYNCHRONOUS);
+        RecordingListener listener = new RecordingListener();
+        subscribe(Events.AUTHN_ERROR, listener, DeliveryMode.SYNCHRONOUS);
+
+        EventListeners.dispatch(event(Events.AUTHN_ERROR, "userName_1"));
+
+        String error = "The second listener should have been called";
+        assertThat(error, listener.usernames(), contains("userName_1"));
+    }
+
+    /**
+     * Test subscribing a listener twice, and unsubscribing it
+     */
+    @Test
+    public void unsubscribeTest() {
+
+        RecordingListener listener = new RecordingListener();
+        String error = "The listener should only be subscribed once";
+        assertThat(error, subscribe(Events.AUTHN_LOGOUT, listener, DeliveryMode.SYNCHRONOUS), is(equalTo(true)));
+        assertThat(error, subscribe(Events.AUTHN_LOGOUT, listener, DeliveryMode.ASYNCHRONOUS), is(equalTo(false)));
+
+        error = "The listener should have been unsubscribed";
+        assertThat(error, EventListeners.unsubscribe(Events.AUTHN_LOGOUT, listener), is(equalTo(true)));
+        assertThat(error, EventListeners.unsubscribe(Events.AUTHN_LOGOUT, listener), is(equalTo(false)));
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_LOGOUT), is(equalTo(false)));
+
+        EventListeners.dispatch(event(Events.AUTHN_LOGOUT, "userName_1"));
+        error = "An unsubscribed listener should not be called";
+        assertThat(error, listener.usernames(), is(empty()));
+    }
+
+    /**
+     * Subscribe a listener, and remember it for the clean up
+     *
+     * @param event    The event type
+     * @param listener The listener
+     * @param mode     The delivery mode
+     * @return The result of the subscription
+     */
+    private boolean subscribe(final Events event, final EventListener listener, final DeliveryMode mode) {
+
+        listeners.add(listener);
+        return EventListeners.subscribe(event, listener, mode);
+    }
+
+    /**
+     * @param event    The event type
+     * @param username The username
+     * @return An audit event
+     */
+    private static AuditEvent event(final Events event, final String username) {
+
+        return AuditEvent.create(event, "domain_1", username, null, 0, null);
+    }
+
+    /**
+     * A listener that records the events it receives, and the threads it is called on
+     */
+    private static class RecordingListener
+            implements EventListener {
+
+        /**
+         * The received events
+         */
+        private final List<AuditEvent> events = new CopyOnWriteArrayList<>();
+
+        /**
+         * The threads the listener has been called on
+         */
+        private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onEvent(final AuditEvent event) {
+
+            events.add(event);
+            threads.add(Thread.currentThread());
+        }
+
+        /**
+         * @return The usernames of the received events
+         */
+        private List<String> usernames() {
+
+            List<String> usernames = new ArrayList<>();
+            for (AuditEvent event : events) {
+                usernames.add(event.getUsername());
+            }
+            return usernames;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedInProcessMessageQPropsBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class InProcessMessageQTest {
+
+    /**
+     * The messages received by the configured consumer
+     */
+    private static final List<String> CONFIGURED = new CopyOnWriteArrayList<>();
+
+    /**
+     * Close the queues opened by the tests
+     */
+    @After
+    public void closeQueues() {
+
+        InProcessMessageQ.closeAll();
+        CONFIGURED.clear();
+    }
+
+    /**
+     * Test that messages are delivered in order to the subscribed consumers, also if another consumer fails
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void deliveryTest()
+            throws MessageQException, InterruptedException {
+
+        final RecordingConsumer consumer = new RecordingConsumer(null, null);
+        final MessageConsumer failing = new MessageConsumer() {
+            @Override
+            public void consume(final List<Message> messages) {
+
+                throw new IllegalStateException("test");
+            }
+        };
+        InProcessMessageQ.subscribe("delivery", failing);
+        InProcessMessageQ.subscribe("delivery", consumer);
+        try {
+            final InProcessMessageQ messageQ = buildMessageQ("delivery", new HashMap<String, String>());
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+            messageQ.create(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+            messageQ.create(Events.AUTHN_LOGOUT, "domain_1", "userName_1",
+                    new LinkedHashSet<>(Arrays.asList("principal_1", "principal_2")));
+
+            String error = "The messages should have been delivered in order";
+            assertThat(error, consumer.await(3), contains("AUTHN_SUCCESS null userId_1 []",
+                    "AUTHN_FAILURE userName_1 null []", "AUTHN_LOGOUT userName_1 null [principal_1, principal_2]"));
+            error = "The failing consumer should have been counted";
+            assertThat(error, messageQ.getDispatcher().getFailedCount(), is(greaterThan(0L)));
+            error = "An unsubscribed consumer should have been unsubscribed";
+            assertThat(error, InProcessMessageQ.unsubscribe("delivery", consumer), is(equalTo(true)));
+        } finally {
+            InProcessMessageQ.unsubscribe("delivery", failing);
+            InProcessMessageQ.unsubscribe("delivery", consumer);
+        }
+    }
+
+    /**
+     * Test that consumers are created from their configured class names, leaving out the ones that cannot be created
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void configuredConsumerTest()
+            throws MessageQException, InterruptedException {
+
+        final Map<String, String> settings = new HashMap<>();
+        settings.put(JaasBasedInProcessMessageQPropsBuilder.KEY_CONSUMERS,
+                "org.beiter.michael.authn.jaas.common.messageq.NoSuchConsumer, " + ConfiguredConsumer.class.getName());
+        final InProcessMessageQ messageQ = buildMessageQ("configured", settings);
+        messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+        messageQ.getDispatcher().close();
+
+        String error = "The configured consumer should have received the message";
+        assertThat(error, CONFIGURED, contains("userId_1"));
+    }
+
+    /**
+     * Test that a message is rejected when the queue is full and the backpressure is "fail"
+     *
+     * @throws MessageQException When the queue is full (expected)
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test(expected = MessageQException.class)
+    public void failBackpressureTest()
+            throws MessageQException, InterruptedException {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingConsumer consumer = new RecordingConsumer(new CountDownLatch(1), release);
+        InProcessMessageQ.subscribe("fail", consumer);
+        try {
+            final InProcessMessageQ messageQ = buildMessageQ("fail", fullQueueSettings(
+                    InProcessMessageQProperties.BACKPRESSURE_FAIL));
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+            consumer.awaitBlocked();
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_2");
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_3");
+        } finally {
+            release.countDown();
+            InProcessMessageQ.unsubscribe("fail", consumer);
+        }
+    }
+
+    /**
+     * Test that the oldest queued messages are dropped when the queue is full and the backpressure is "dropOldest"
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void dropOldestBackpressureTest()
+            throws MessageQException, InterruptedException {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingConsumer consumer = new RecordingConsumer(new CountDownLatch(1), release);
+        InProcessMessageQ.subscribe("dropOldest", consumer);
+        try {
+            final InProcessMessageQ messageQ = buildMessageQ("dropOldest", fullQueueSettings(
+                    InProcessMessageQProperties.BACKPRESSURE_DROP_OLDEST));
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+            consumer.awaitBlocked();
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_2");
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_3");
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_4");
+            release.countDown();
+
+            String error = "The oldest queued messages should have been dropped";
+            assertThat(error, consumer.await(2), contains("AUTHN_SUCCESS null userId_1 []",
+                    "AUTHN_SUCCESS null userId_4 []"));
+            assertThat(error, messageQ.getDispatcher().getDroppedCount(), is(equalTo(2L)));
+        } finally {
+            release.countDown();
+            InProcessMessageQ.unsubscribe("dropOldest", consumer);
+        }
+    }
+
+    /**
+     * @param backpressure The backpressure
+     * @return The settings of a queue with room for one message
+     */
+    private static Map<String, String> fullQueueSettings(final String backpressure) {
+
+        final Map<String, String> settings = new HashMap<>();
+        settings.put(JaasBasedInProcessMessageQPropsBuilder.KEY_CAPACITY, "1");
+        settings.put(JaasBasedInProcessMessageQPropsBuilder.KEY_BACKPRESSURE, backpressure);
+        return settings;
+    }
+
+    /**
+     * Build a message queue
+     *
+     * @param name     The name of the queue
+     * @param settings Additional settings
+     * @return The initialized message queue
+     */
+    private static InProcessMessageQ buildMessageQ(final String name, final Map<String, String> settings) {
+
+        Map<String, String> map = new HashMap<>(settings);
+        map.put(JaasBasedInProcessMessageQPropsBuilder.KEY_NAME, name);
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        InProcessMessageQ messageQ = new InProcessMessageQ();
+        messageQ.init(commonProps);
+        return messageQ;
+    }
+
+    /**
+     * A consumer configured by class name, recording the user IDs of the messages
+     */
+    public static final class ConfiguredConsumer
+            implements MessageConsumer {
+
+        @Override
+        public void consume(final List<Message> messages) {
+
+            for (final Message message : messages) {
+                CONFIGURED.add(message.getUserId());
+            }
+        }
+    }
+
+    /**
+     * A consumer recording the messages, which can block in the first batch until it is released
+     */
+    private static final class RecordingConsumer
+            implements MessageConsumer {
+
+        /**
+         * The recorded messages
+         */
+        private final List<String> received = new CopyOnWriteArrayList<>();
+
+        /**
+         * Counted down when the consumer blocks, or {@code null} to not block
+         */
+        private final CountDownLatch blocked;
+
+        /**
+         * Releases the blocked consumer
+         */
+        private final CountDownLatch release;
+
+        /**
+         * @param blocked Counted down when the consumer blocks, or {@code null} to not block
+         * @param release Releases the blocked consumer
+         */
+        RecordingConsumer(final CountDownLatch blocked, final CountDownLatch release) {
+
+            this.blocked = blocked;
+            this.release = release;
+        }
+
+        @Override
+        public void consume(final List<Message> messages) {
+
+            for (final Message message : messages) {
+                received.add(message.getEvent().name() + " " + message.getUsername() + " " + message.getUserId()
+                        + " " + message.getPrincipals());
+            }
+            if (blocked != null && blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Wait until the consumer blocks
+         *
+         * @throws InterruptedException When the test is interrupted
+         */
+        void awaitBlocked()
+                throws InterruptedException {
+
+            blocked.await(5, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Wait for a number of messages
+         *
+         * @param count The number of messages
+         * @return The recorded messages
+         * @throws InterruptedException When the test is interrupted
+         */
+        List<String> await(final int count)
+                throws InterruptedException {
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            return received;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedJournalMessageQPropsBuilder;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JournalMessageQTest {
+
+    /**
+     * The directory for the journal
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Close the journals opened by the tests
+     *
+     * @throws IOException When a journal cannot be closed
+     */
+    @After
+    public void closeJournals()
+            throws IOException {
+
+        JournalMessageQ.closeAll();
+    }
+
+    /**
+     * Test that messages are read by a consumer with all their details
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws IOException       When the journal cannot be read
+     */
+    @Test
+    public void pollTest()
+            throws MessageQException, IOException {
+
+        final JournalMessageQ messageQ = buildMessageQ(new HashMap<String, String>());
+        messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+        messageQ.create(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+        messageQ.create(Events.AUTHN_LOGOUT, "domain_1", "userName_1",
+                new LinkedHashSet<>(Arrays.asList("principal_1", "principal_2")));
+
+        final JournalConsumer consumer = new JournalConsumer(folder.getRoot(), "test");
+        String error = "The messages should have been read in order";
+        assertThat(error, toStrings(consumer.poll(10)), contains("AUTHN_SUCCESS null null userId_1 []",
+                "AUTHN_FAILURE domain_1 userName_1 null []",
+                "AUTHN_LOGOUT domain_1 userName_1 null [principal_1, principal_2]"));
+        error = "The consumer should be positioned behind the messages";
+        assertThat(error, consumer.getPosition(), is(equalTo(4L)));
+        assertThat(error, consumer.poll(10), is(empty()));
+    }
+
+    /**
+     * Test that a consumer continues at its committed position, and can read messages again
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws IOException       When the journal cannot be read
+     */
+    @Test
+    public void commitAndReplayTest()
+            throws MessageQException, IOException {
+
+        final JournalMessageQ messageQ = buildMessageQ(new HashMap<String, String>());
+        for (int i = 1; i <= 5; i++) {
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_" + i);
+        }
+
+        JournalConsumer consumer = new JournalConsumer(folder.getRoot(), "test");
+        consumer.poll(2);
+        consumer.commit();
+        consumer.poll(2);
+
+        consumer = new JournalConsumer(folder.getRoot(), "test");
+        String error = "The consumer should continue at its committed position";
+        assertThat(error, consumer.getCommittedPosition(), is(equalTo(3L)));
+        assertThat(error, toStrings(consumer.poll(10)), contains("AUTHN_SUCCESS null null userId_3 []",
+                "AUTHN_SUCCESS null null userId_4 []", "AUTHN_SUCCESS null null userId_5 []"));
+
+        consumer.seek(4);
+        error = "The consumer should read the messages again from the requested position";
+        assertThat(error, toStrings(consumer.poll(10)), contains("AUTHN_SUCCESS null null userId_4 []",
+                "AUTHN_SUCCESS null null userId_5 []"));
+    }
+
+    /**
+     * Test that a consumer reads the messages of all segments in order, in small batches
+     *
+     * @throws MessageQException When a message cannot be created
+     * @throws IOException       When the journal cannot be read
+     */
+    @Test
+    public void segmentsTest()
+            throws MessageQException, IOException {
+
+        final Map<String, String> settings = new HashMap<>();
+        settings.put(JaasBasedJournalMessageQPropsBuilder.KEY_SEGMENT_SIZE, "4096");
+        final JournalMessageQ messageQ = buildMessageQ(settings);
+        final JournalConsumer consumer = new JournalConsumer(folder.getRoot(), "test");
+
+        final List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_" + i);
+            if (i % 50 == 0) {
+                // read while the journal is being written
+                for (final Message message : consumer.poll(7)) {
+                    userIds.add(message.getUserId());
+                }
+            }
+        }
+        List<Message> batch = consumer.poll(7);
+        while (!batch.isEmpty()) {
+            for (final Message message : batch) {
+                userIds.add(message.getUserId());
+            }
+            batch = consumer.poll(7);
+        }
+
+        String error = "The journal should have been split into several segments";
+        assertThat(error, messageQ.getWriter().getJournal().getSegments().size(), is(greaterThan(2)));
+        error = "All messages should have been read once, in order";
+        assertThat(error, userIds.size(), is(equalTo(300)));
+        for (int i = 0; i < 300; i++) {
+            assertThat(error, userIds.get(i), is(equalTo("userId_" + i)));
+        }
+    }
+
+    /**
+     * Test that a consumer waits for new messages
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void tailTest()
+            throws Exception {
+
+        final JournalMessageQ messageQ = buildMessageQ(new HashMap<String, String>());
+        final JournalConsumer consumer = new JournalConsumer(folder.getRoot(), "test");
+
+        String error = "A poll without messages should return after the timeout";
+        assertThat(error, consumer.poll(10, 20), is(empty()));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<List<Message>> result = executor.submit(new Callable<List<Message>>() {
+                @Override
+                public List<Message> call()
+                        throws IOException, InterruptedException {
+
+                    return consumer.poll(10, 5000);
+                }
+            });
+            Thread.sleep(50);
+            messageQ.create(Events.AUTHN_SUCCESS, "userId_1");
+
+            error = "The waiting poll should have returned the new message";
+            assertThat(error, toStrings(result.get(5, TimeUnit.SECONDS)),
+                    contains("AUTHN_SUCCESS null null userId_1 []"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Build a message queue
+     *
+     * @param settings Additional settings
+     * @return The initialized message queue
+     */
+    private JournalMessageQ buildMessageQ(final Map<String, String> settings) {
+
+        Map<String, String> map = new HashMap<>(settings);
+        map.put(JaasBasedJournalMessageQPropsBuilder.KEY_DIRECTORY, folder.getRoot().getPath());
+        if (!map.containsKey(JaasBasedJournalMessageQPropsBuilder.KEY_SEGMENT_SIZE)) {
+            map.put(JaasBasedJournalMessageQPropsBuilder.KEY_SEGMENT_SIZE, "65536");
+        }
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        JournalMessageQ messageQ = new JournalMessageQ();
+        messageQ.init(commonProps);
+        return messageQ;
+    }
+
+    /**
+     * @param messages Messages
+     * @return The details of the messages
+     */
+    private static List<String> toStrings(final List<Message> messages) {
+
+        final List<String> strings = new ArrayList<>();
+        for (final Message message : messages) {
+            strings.add(message.getEvent().name() + " " + message.getDomain() + " " + message.getUsername() + " "
+                    + message.getUserId() + " " + message.getPrincipals());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.messageq;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SpoolingMessageQTest {
+
+    /**
+     * The prefix of the configuration keys
+     */
+    private static final String PREFIX = "jaas.messageq.spooling.";
+
+    /**
+     * The messages received by the delegate
+     */
+    private static final Queue<Message> RECEIVED = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the delegate is available
+     */
+    private static volatile boolean available;
+
+    /**
+     * The directory for the spool
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reset the delegate
+     */
+    @Before
+    public void reset() {
+
+        RECEIVED.clear();
+        available = true;
+    }
+
+    /**
+     * Close the spools opened by the tests
+     *
+     * @throws IOException When a spool cannot be closed
+     */
+    @After
+    public void closeSpools()
+            throws IOException {
+
+        SpoolingMessageQ.closeAll();
+    }
+
+    /**
+     * Test that messages are spooled while the delegate is not available, and replayed in order with all their
+     * details
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void spoolTest()
+            throws Exception {
+
+        SpoolingMessageQ messageQ = buildMessageQ();
+        messageQ.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1");
+
+        available = false;
+        messageQ.create(Events.AUTHN_FAILURE, "userId_2");
+        messageQ.create(Events.AUTHN_LOGOUT, "domain_1", "userName_3",
+                new LinkedHashSet<>(Arrays.asList("principal_1", "principal_2")));
+
+        String error = "Only the first message should have been passed on directly";
+        assertThat(error, RECEIVED.size(), is(equalTo(1)));
+        assertThat(error, messageQ.getSpool().getPending(), is(equalTo(2L)));
+
+        available = true;
+        messageQ.getSpool().replay();
+        error = "The spooled messages should have been replayed in order, with all their details";
+        assertThat(error, toStrings(), contains("AUTHN_SUCCESS null userName_1 []",
+                "AUTHN_FAILURE userId_2 null []", "AUTHN_LOGOUT null userName_3 [principal_1, principal_2]"));
+
+        error = "Every message should have a distinct idempotency ID";
+        Set<String> ids = new LinkedHashSet<>();
+        for (Message message : RECEIVED) {
+            ids.add(message.getId());
+        }
+        assertThat(error, ids, not(hasItem((String) null)));
+        assertThat(error, ids.size(), is(equalTo(3)));
+    }
+
+    /**
+     * Test that a message keeps its IDs and its sequence number when it is replayed
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void idTest()
+            throws Exception {
+
+        SpoolingMessageQ messageQ = buildMessageQ();
+        available = false;
+        Message message = new Message(42L, 1000L, Events.AUTHN_ATTEMPT, "domain_1", "userName_1", null,
+                new LinkedHashSet<String>(), "id_1", "correlation_1", "node_1");
+        messageQ.create(message);
+
+        available = true;
+        messageQ.getSpool().replay();
+        String error = "The replayed message should have kept its ID and time";
+        assertThat(error, RECEIVED.peek().getId(), is(equalTo("id_1")));
+        assertThat(error, RECEIVED.peek().getTime(), is(equalTo(1000L)));
+        error = "The replayed message should have kept its ordering details";
+        assertThat(error, RECEIVED.peek().getSequence(), is(equalTo(42L)));
+        assertThat(error, RECEIVED.peek().getCorrelationId(), is(equalTo("correlation_1")));
+        assertThat(error, RECEIVED.peek().getNodeId(), is(equalTo("node_1")));
+    }
+
+    /**
+     * Build a spooling message queue with the flaky delegate
+     *
+     * @return The spooling message queue
+     */
+    private SpoolingMessageQ buildMessageQ() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(PREFIX + "delegate", FlakyMessageQ.class.getName());
+        map.put(PREFIX + "directory", folder.getRoot().getPath());
+        map.put(PREFIX + "segmentSize", "65536");
+        // a long interval, so that the background thread does not interfere with the explicit replays
+        map.put(PREFIX + "retryInterval", "3600000");
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        SpoolingMessageQ messageQ = new SpoolingMessageQ();
+        messageQ.init(commonProps);
+        return messageQ;
+    }
+
+    /**
+     * @return The details of the received messages
+     */
+    private static List<String> toStrings() {
+
+        List<String> strings = new ArrayList<>();
+        for (Message message : RECEIVED) {
+            strings.add(message.getEvent() + " " + message.getUserId() + " " + message.getUsername() + " "
+                    + message.getPrincipals());
+        }
+        return strings;
+    }
+
+    /**
+     * A message queue delegate that fails while it is not available
+     */
+    public static class FlakyMessageQ
+            implements StructuredMessageQ {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void create(final Events event, final String userId)
+                throws MessageQException {
+
+            create(new Message(0L, event, null, null, userId, new LinkedHashSet<String>()));
+        }
+
+        @Override
+        public void create(final Events event, final String domain, final String username)
+                throws MessageQException {
+
+            create(new Message(0L, event, domain, username, null, new LinkedHashSet<String>()));
+        }
+
+        @Override
+        public void create(final Events event, final String domain, final String username,
+                           final Set<String> principals)
+                throws MessageQException {
+
+            create(new Message(0L, event, domain, username, null, principals));
+        }
+
+        @Override
+        public void create(final Message message)
+                throws MessageQException {
+
+            if (!available) {
+                throw new MessageQException("The delegate is not available");
+            }
+            RECEIVED.add(message);
+        }
+    }
+}
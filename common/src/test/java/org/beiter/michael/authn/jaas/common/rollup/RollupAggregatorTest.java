@@ -0,0 +1,312 @@
+/*
+ * #%L
+ * This file is part of a common library for a set of universal JAAS modules.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.common.rollup;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditSummary;
+import org.beiter.michael.authn.jaas.common.audit.SummaryAudit;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedRollupPropsBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RollupAggregatorTest {
+
+    /**
+     * The length of an interval in the tests
+     */
+    private static final long INTERVAL = 1000L;
+
+    /**
+     * The start of the first interval in the tests
+     */
+    private static final long START = 1000000L;
+
+    /**
+     * Close the aggregator created by the tests
+     */
+    @After
+    public void closeInstance() {
+
+        RollupAggregator.closeInstance();
+    }
+
+    /**
+     * Test that the events are counted per event and domain in tumbling windows
+     */
+    @Test
+    public void tumblingTest() {
+
+        RecordingSummaryAudit sink = new RecordingSummaryAudit();
+        RollupAggregator aggregator = new RollupAggregator(INTERVAL, 1, sink, START);
+
+        aggregator.onEvent(event(START + 10, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.onEvent(event(START + 20, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.onEvent(event(START + 30, Events.AUTHN_FAILURE, "domain2"));
+        aggregator.onEvent(event(START + 40, Events.AUTHN_SUCCESS, null));
+        aggregator.onEvent(event(START + INTERVAL + 10, Events.AUTHN_FAILURE, "domain1"));
+
+        aggregator.emit(START + INTERVAL);
+
+        String error = "One rollup per event and domain should have been passed on to the sink";
+        assertThat(error, sink.summaries.size(), is(equalTo(3)));
+        for (AuditSummary summary : sink.summaries) {
+            error = "The rollup should cover the closed interval";
+            assertThat(error, summary.getIntervalStart(), is(equalTo(START)));
+            assertThat(error, summary.getIntervalEnd(), is(equalTo(START + INTERVAL)));
+        }
+
+        error = "The events of the closed interval should have been counted";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 1), is(equalTo(2L)));
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain2", 1), is(equalTo(1L)));
+        assertThat(error, aggregator.getCount(Events.AUTHN_SUCCESS, null, 1), is(equalTo(1L)));
+        assertThat(error, aggregator.getCount(Events.AUTHN_SUCCESS, "domain1", 1), is(equalTo(0L)));
+
+        aggregator.emit(START + 2 * INTERVAL);
+
+        error = "The events of the next interval should have been counted separately";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 1), is(equalTo(1L)));
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain2", 1), is(equalTo(0L)));
+    }
+
+    /**
+     * Test that the sliding window sums up the last intervals
+     */
+    @Test
+    public void slidingTest() {
+
+        RecordingSummaryAudit sink = new RecordingSummaryAudit();
+        RollupAggregator aggregator = new RollupAggregator(INTERVAL, 3, sink, START);
+
+        for (int i = 0; i < 4; i++) {
+            aggregator.onEvent(event(START + i * INTERVAL, Events.AUTHN_FAILURE, "domain1"));
+            aggregator.emit(START + (i + 1) * INTERVAL);
+        }
+
+        String error = "The sliding window should only cover the last intervals";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 3), is(equalTo(3L)));
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 2), is(equalTo(2L)));
+
+        List<AuditSummary> rollups = aggregator.getRollups(3);
+        error = "The rollup of the sliding window should span the last intervals";
+        assertThat(error, rollups.size(), is(equalTo(1)));
+        assertThat(error, rollups.get(0).getCount(), is(equalTo(3L)));
+        assertThat(error, rollups.get(0).getIntervalStart(), is(equalTo(START + INTERVAL)));
+        assertThat(error, rollups.get(0).getIntervalEnd(), is(equalTo(START + 4 * INTERVAL)));
+
+        AuditSummary last = sink.summaries.get(sink.summaries.size() - 1);
+        error = "The sliding window should have been passed on to the sink after the tumbling window";
+        assertThat(error, last.getCount(), is(equalTo(3L)));
+        assertThat(error, last.getIntervalEnd() - last.getIntervalStart(), is(equalTo(3 * INTERVAL)));
+    }
+
+    /**
+     * Test that events of closed intervals, and events too far in the future, are dropped
+     */
+    @Test
+    public void droppedTest() {
+
+        RollupAggregator aggregator = new RollupAggregator(INTERVAL, 1, null, START);
+        aggregator.emit(START + INTERVAL);
+
+        aggregator.onEvent(event(START + 10, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.onEvent(event(START + 10 * INTERVAL, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.onEvent(event(START + INTERVAL + 10, Events.AUTHN_FAILURE, "domain1"));
+
+        String error = "The late and the early event should have been dropped";
+        assertThat(error, aggregator.getDroppedCount(), is(equalTo(2L)));
+
+        aggregator.emit(START + 2 * INTERVAL);
+        error = "The event of the open interval should have been counted";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 1), is(equalTo(1L)));
+    }
+
+    /**
+     * Test that concurrent events are counted exactly
+     *
+     * @throws Exception When a thread fails
+     */
+    @Test
+    public void concurrencyTest()
+            throws Exception {
+
+        final int threads = 8;
+        final int events = 10000;
+        final RollupAggregator aggregator = new RollupAggregator(INTERVAL, 1, null, START);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+
+                        for (int j = 0; j < events; j++) {
+                            aggregator.onEvent(event(START + j % INTERVAL, Events.AUTHN_SUCCESS, "domain1"));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        aggregator.emit(START + INTERVAL);
+        String error = "All events should have been counted";
+        assertThat(error, aggregator.getCount(Events.AUTHN_SUCCESS, "domain1", 1),
+                is(equalTo((long) threads * events)));
+    }
+
+    /**
+     * Test that the shared aggregator receives the dispatched events
+     */
+    @Test
+    public void getInstanceTest() {
+
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.buildDefault();
+        RollupProperties rollupProps = JaasBasedRollupPropsBuilder.buildDefault();
+        rollupProps.setEnabled(true);
+
+        RollupAggregator aggregator = RollupAggregator.getInstance(rollupProps, commonProps);
+        String error = "The aggregator should be shared by equal configurations";
+        assertThat(error, RollupAggregator.getInstance(new RollupProperties(rollupProps), commonProps),
+                is(sameInstance(aggregator)));
+        error = "The aggregator should have been subscribed to all events";
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_ABORT_CHAIN), is(equalTo(true)));
+
+        long now = System.currentTimeMillis();
+        EventListeners.dispatch(event(now, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.emit(now + rollupProps.getInterval());
+
+        error = "The dispatched event should have been counted";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 1), is(equalTo(1L)));
+
+        RollupAggregator.closeInstance();
+        error = "The closed aggregator should have been unsubscribed";
+        assertThat(error, EventListeners.hasListeners(Events.AUTHN_ABORT_CHAIN), is(equalTo(false)));
+    }
+
+    /**
+     * Test that a login module with a different configuration gets the aggregator of the JVM, so that the events are
+     * not counted twice
+     */
+    @Test
+    public void differentConfigurationTest() {
+
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.buildDefault();
+        RollupProperties rollupProps = JaasBasedRollupPropsBuilder.buildDefault();
+        rollupProps.setEnabled(true);
+        RollupProperties otherProps = new RollupProperties(rollupProps);
+        otherProps.setWindowCount(rollupProps.getWindowCount() + 1);
+
+        RollupAggregator aggregator = RollupAggregator.getInstance(rollupProps, commonProps);
+        String error = "The aggregator should be shared by all configurations";
+        assertThat(error, RollupAggregator.getInstance(otherProps, commonProps), is(sameInstance(aggregator)));
+
+        long now = System.currentTimeMillis();
+        EventListeners.dispatch(event(now, Events.AUTHN_FAILURE, "domain1"));
+        aggregator.emit(now + rollupProps.getInterval());
+
+        error = "The dispatched event should have been counted once";
+        assertThat(error, aggregator.getCount(Events.AUTHN_FAILURE, "domain1", 1), is(equalTo(1L)));
+    }
+
+    /**
+     * Create an audit event
+     *
+     * @param time   The time of the event
+     * @param type   The type of the event
+     * @param domain The domain of the event
+     * @return The event
+     */
+    private static AuditEvent event(final long time, final Events type, final String domain) {
+
+        return new AuditEvent(0, time, 0, type, domain, "userName", "userName", 0, "module");
+    }
+
+    /**
+     * A sink that records the summaries it receives
+     */
+    private static final class RecordingSummaryAudit
+            implements SummaryAudit {
+
+        /**
+         * The summaries received
+         */
+        private final List<AuditSummary> summaries = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to initialize
+        }
+
+        @Override
+        public void audit(final Events event, final String userId) {
+
+            // only summaries are recorded
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username) {
+
+            // only summaries are recorded
+        }
+
+        @Override
+        public void audit(final AuditSummary summary) {
+
+            summaries.add(summary);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.array.Cleanser;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.UpgradeablePasswordValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.login.LoginException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes upgraded credentials back to the database, asynchronously and in batches.
+ * <p>
+ * Re-hashing a password is (by design) expensive, and so is a database round trip. This class takes both off the
+ * login path: the authenticator submits a successfully validated password, and a background thread creates the new
+ * credential and writes it back together with other pending updates in a single JDBC batch.
+ * <p>
+ * The queue is bounded, and updates for a user that already has an update pending are ignored. If the queue is full
+ * or the write fails, the update is dropped - the credential still validates, and will be upgraded on a later login.
+ * <p>
+ * An update only replaces the credential that has been validated: the stored credential is queued with the update,
+ * and the SQL statement compares it to the credential in the database. If the user's credential has been changed
+ * since the login (e.g. because the user has changed the password), the update does not match any row, and the
+ * changed credential is kept.
+ * <p>
+ * Pending updates hold a copy of the user's password in memory until they are processed. The copy is wiped as soon as
+ * the new credential has been created.
+ * <p>
+ * The new credentials of a batch are all created before a connection is taken from the pool that the logins share, so
+ * the connection is only held for the short transaction that writes the batch.
+ */
+final class CredentialUpdater {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialUpdater.class);
+
+    /**
+     * The maximum number of pending updates
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * The name of the background thread
+     */
+    private static final String THREAD_NAME = "jaas-jdbc-credential-updater";
+
+    /**
+     * The pending updates
+     */
+    private final BlockingQueue<Update> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * The users (domain + username) that have an update pending, used to avoid duplicate updates
+     */
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Tracks if the background thread has been started
+     */
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * Submit a credential update. This method does not block.
+     *
+     * @param domain    The domain of the user
+     * @param userName  The username of the user
+     * @param password  The (validated) password to create the new credential from. The caller keeps ownership of the
+     *                  array, this method creates a copy.
+     * @param stored    The stored credential the password has been validated against
+     * @param validator The validator to create the new credential with
+     * @param sql       The SQL update statement
+     * @param batchSize The maximum number of updates to write in one batch
+     * @return {@code true} if the update has been queued, {@code false} if it has been dropped
+     * @throws NullPointerException     When any of the parameters is {@code null}
+     * @throws IllegalArgumentException When {@code sql} is blank
+     */
+    boolean submit(final String domain, final String userName, final char[] password, final String stored,
+                   final UpgradeablePasswordValidator validator, final String sql, final int batchSize) {
+
+        Validate.notNull(domain, "The validated object 'domain' is null");
+        Validate.notNull(userName, "The validated object 'userName' is null");
+        Validate.notNull(password, "The validated object 'password' is null");
+        Validate.notNull(stored, "The validated object 'stored' is null");
+        Validate.notNull(validator, "The validated object 'validator' is null");
+        Validate.notBlank(sql, "The validated character sequence 'sql' is null or empty");
+
+        final String key = domain + '\u0000' + userName;
+        if (!pending.add(key)) {
+            LOG.debug("A credential update is already pending for this user, ignoring the update");
+            return false;
+        }
+
+        final Update update = new Update(key, domain, userName, password.clone(), stored, validator, sql,
+                batchSize);
+        if (!queue.offer(update)) {
+            pending.remove(key);
+            Cleanser.wipe(update.password);
+            LOG.warn("The credential update queue is full, dropping the update");
+            return false;
+        }
+
+        startWorker();
+        return true;
+    }
+
+    /**
+     * @return The number of updates that have been submitted, but not yet processed
+     */
+    int getPendingCount() {
+
+        return pending.size();
+    }
+
+    /**
+     * Start the background thread, if it has not been started yet.
+     */
+    private void startWorker() {
+
+        if (started.compareAndSet(false, true)) {
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processUpdates();
+                }
+            }, THREAD_NAME);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Process updates until the thread is interrupted.
+     */
+    private void processUpdates() {
+
+        final List<Update> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final Update first = queue.take();
+                batch.add(first);
+                queue.drainTo(batch, Math.max(1, first.batchSize) - 1);
+
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                LOG.info("The credential updater has been interrupted, stopping");
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                // do not let a single bad update kill the updater
+                LOG.warn("Unexpected error while writing credential updates", e);
+            } finally {
+                for (final Update update : batch) {
+                    Cleanser.wipe(update.password);
+                    if (update.credential != null) {
+                        Cleanser.wipe(update.credential);
+                    }
+                    pending.remove(update.key);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Create the new credentials for a batch of updates, and write them to the database in a single transaction.
+     * The passwords of the updates are wiped once the credentials have been created.
+     * Updates in the batch that use a different SQL statement than the first update are written in a separate batch.
+     *
+     * @param batch The updates to write
+     */
+    // The SQL statement is retrieved from the configuration, and the admin is trusted
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+    private void writeBatch(final List<Update> batch) {
+
+        // hash first, so that the expensive hashing does not hold a connection of the pool that the logins share
+        final List<Update> remaining = new ArrayList<>(batch.size());
+        for (final Update update : batch) {
+            try {
+                update.credential = update.validator.hash(update.password);
+                remaining.add(update);
+            } catch (RuntimeException e) {
+                LOG.warn("Error creating an upgraded credential, dropping the update", e);
+            } finally {
+                Cleanser.wipe(update.password);
+            }
+        }
+
+        // the SQL statement only changes if the configuration changes, which is rare enough to not optimize for
+        while (!remaining.isEmpty()) {
+
+            final String sql = remaining.get(0).sql;
+            Connection connection = null;
+            PreparedStatement statement = null;
+            int count = 0;
+
+            try {
+                connection = JdbcPasswordAuthenticator.getDatabaseConnection();
+                statement = connection.prepareStatement(sql);
+
+                for (int i = 0; i < remaining.size(); i++) {
+                    final Update update = remaining.get(i);
+                    if (!sql.equals(update.sql)) {
+                        continue;
+                    }
+
+                    statement.setString(1, new String(update.credential));
+                    statement.setString(2, update.domain);
+                    statement.setString(3, update.userName);
+                    statement.setString(4, update.stored);
+                    statement.addBatch();
+
+                    remaining.remove(i--);
+                    count++;
+                }
+
+                final int[] results = statement.executeBatch();
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Wrote " + count + " upgraded credential(s) to the database, "
+                            + countUnchanged(results) + " of them skipped because the credential has changed");
+                }
+            } catch (LoginException | SQLException e) {
+                LOG.warn("Error writing upgraded credentials to the database, dropping the batch", e);
+                DbUtil.rollback(connection);
+                removeAll(remaining, sql);
+            } finally {
+                DbUtil.close(statement);
+                DbUtil.close(connection);
+            }
+        }
+    }
+
+    /**
+     * Count the statements of a batch that have not updated any row.
+     *
+     * @param results The update counts of the batch
+     * @return The number of statements that have not updated any row
+     */
+    private static int countUnchanged(final int[] results) {
+
+        int count = 0;
+        for (final int result : results) {
+            if (result == 0) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Remove all updates using the provided SQL statement from a list.
+     *
+     * @param updates The list to remove the updates from
+     * @param sql     The SQL statement
+     */
+    private static void removeAll(final List<Update> updates, final String sql) {
+
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            if (sql.equals(updates.get(i).sql)) {
+                updates.remove(i);
+            }
+        }
+    }
+
+    /**
+     * A pending credential update.
+     */
+    private static final class Update {
+
+        /**
+         * The key identifying the user
+         */
+        private final String key;
+
+        /**
+         * The domain of the user
+         */
+        private final String domain;
+
+        /**
+         * The username of the user
+         */
+        private final String userName;
+
+        /**
+         * A copy of the validated password
+         */
+        private final char[] password;
+
+        /**
+         * The stored credential the password has been validated against
+         */
+        private final String stored;
+
+        /**
+         * The new credential, {@code null} until it has been created (only accessed by the background thread)
+         */
+        private char[] credential;
+
+        /**
+         * The validator to create the new credential with
+         */
+        private final UpgradeablePasswordValidator validator;
+
+        /**
+         * The SQL update statement
+         */
+        private final String sql;
+
+        /**
+         * The maximum batch size
+         */
+        private final int batchSize;
+
+        /**
+         * Create a pending credential update.
+         *
+         * @param key       The key identifying the user
+         * @param domain    The domain of the user
+         * @param userName  The username of the user
+         * @param password  A copy of the validated password
+         * @param stored    The stored credential the password has been validated against
+         * @param validator The validator to create the new credential with
+         * @param sql       The SQL update statement
+         * @param batchSize The maximum batch size
+         */
+        // the array is owned by this class (the caller passes a copy)
+        @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+        private Update(final String key, final String domain, final String userName, final char[] password,
+                       final String stored, final UpgradeablePasswordValidator validator, final String sql,
+                       final int batchSize) {
+
+            this.key = key;
+            this.domain = domain;
+            this.userName = userName;
+            this.password = password;
+            // no need for defensive copies of String
+            this.stored = stored;
+            this.validator = validator;
+            this.sql = sql;
+            this.batchSize = batchSize;
+        }
+    }
+}
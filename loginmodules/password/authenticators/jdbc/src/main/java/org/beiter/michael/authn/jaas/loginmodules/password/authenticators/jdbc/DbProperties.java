@@ -59,6 +59,16 @@ public class DbProperties {
      */
     private String sqlUserQuery;
 
+    /**
+     * @see DbProperties#setSqlCredentialUpdate(String)
+     */
+    private String sqlCredentialUpdate;
+
+    /**
+     * @see DbProperties#setCredentialUpdateBatchSize(int)
+     */
+    private int credentialUpdateBatchSize;
+
     /**
      * @see DbProperties#setAdditionalProperties(Map <String, String>)
      */
@@ -94,6 +104,8 @@ public class DbProperties {
 
         setJndiConnectionName(properties.getJndiConnectionName());
         setSqlUserQuery(properties.getSqlUserQuery());
+        setSqlCredentialUpdate(properties.getSqlCredentialUpdate());
+        setCredentialUpdateBatchSize(properties.getCredentialUpdateBatchSize());
         setAdditionalProperties(properties.getAdditionalProperties());
     }
 
@@ -148,6 +160,52 @@ public class DbProperties {
         this.sqlUserQuery = sqlUserQuery;
     }
 
+    /**
+     * @return The SQL statement to write back upgraded credentials, or {@code null} if the write-back is disabled
+     * @see DbProperties#setSqlCredentialUpdate(String)
+     */
+    public final String getSqlCredentialUpdate() {
+
+        // no need for defensive copies of String
+
+        return sqlCredentialUpdate;
+    }
+
+    /**
+     * The SQL statement to write back a credential that has been re-hashed after a successful login, according to the
+     * specification in {@link JdbcPasswordAuthenticator}. The write-back is disabled if the statement is {@code null}.
+     *
+     * @param sqlCredentialUpdate A SQL update statement string
+     */
+    public final void setSqlCredentialUpdate(final String sqlCredentialUpdate) {
+
+        // no need for more detailed validation, as we cannot possible validate all SQL dialects
+
+        // no need for defensive copies of String
+
+        this.sqlCredentialUpdate = sqlCredentialUpdate;
+    }
+
+    /**
+     * @return The maximum number of credential updates written to the database in one batch
+     * @see DbProperties#setCredentialUpdateBatchSize(int)
+     */
+    public final int getCredentialUpdateBatchSize() {
+
+        return credentialUpdateBatchSize;
+    }
+
+    /**
+     * The maximum number of credential updates that are written to the database in one JDBC batch. Values smaller
+     * than 1 are treated as 1.
+     *
+     * @param credentialUpdateBatchSize The batch size
+     */
+    public final void setCredentialUpdateBatchSize(final int credentialUpdateBatchSize) {
+
+        this.credentialUpdateBatchSize = credentialUpdateBatchSize;
+    }
+
     /**
      * @return Any additional properties stored in this object that have not explicitly been parsed
      * @see DbProperties#setAdditionalProperties(Map <String, String>)
@@ -104,4 +104,20 @@ public final class DbUtil {
             }
         }
     }
+
+    /**
+     * Roll back the current transaction of a {@code Connection} and log any SQLExceptions that occur.
+     *
+     * @param conn Connection to roll back (may be {@code null})
+     */
+    public static void rollback(final Connection conn) {
+        if (conn != null) {
+            try {
+                conn.rollback();
+            } catch (SQLException e) {
+                final String error = "Error rolling back JDBC transaction.";
+                LOG.warn(error, e);
+            }
+        }
+    }
 }
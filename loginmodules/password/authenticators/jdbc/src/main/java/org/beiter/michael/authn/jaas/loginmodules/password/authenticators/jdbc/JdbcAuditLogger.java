@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditException;
+import org.beiter.michael.authn.jaas.common.audit.StructuredAudit;
+// CHECKSTYLE:OFF
+// the fully qualified class name is longer than the maximum line length
+import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedJdbcAuditPropsBuilder;
+// CHECKSTYLE:ON
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This audit implementation writes audit events to a table in a JDBC database, asynchronously and in batches.
+ * <p>
+ * An audit call queues the event and returns. A background thread writes the queued events when a batch is complete,
+ * or when the flush interval has passed, using a single multi-row {@code INSERT} per complete batch. This keeps the
+ * write load on the database proportional to the number of batches rather than the number of logins. The events are
+ * written through a connection pool of their own, which is separate from the pool that is used by
+ * {@link JdbcPasswordAuthenticator} to authenticate users.
+ * <p>
+ * As the events are written asynchronously, an audit call only fails if the audit database has not been configured,
+ * or if the queue is full (e.g. because the database is slow or unavailable). Batches that cannot be written are
+ * retried with an increasing delay, during which new events stay in the queue, so that audit calls fail once the
+ * database has been unavailable for long enough to fill the queue. Events that still cannot be written after the
+ * configured number of retries are logged and dropped.
+ * <p>
+ * The configured table must have the following columns (names and suggested types):
+ * <pre>
+ *   event_sequence      BIGINT         the sequence number of the event
+ *   event_time          TIMESTAMP      the time of the event
+ *   event_name          VARCHAR(32)    the name of the event (see {@link Events})
+ *   user_domain         VARCHAR(255)   the domain of the user (nullable)
+ *   user_name           VARCHAR(255)   the username of the user (nullable)
+ *   user_id             VARCHAR(255)   the user ID of the user (nullable)
+ *   phase_duration      BIGINT         the duration of the login phase, in nanoseconds
+ *   module_instance_id  VARCHAR(255)   the ID of the login module instance (nullable)
+ * </pre>
+ * <p>
+ * The implementation is configured with the keys in {@link JaasBasedJdbcAuditPropsBuilder}. All instances that are
+ * configured with the same database, user, and table share one queue, one background thread, and one connection
+ * pool, which keep the configuration they have been created with. A configuration with other writer settings (e.g. a
+ * different batch size or pool size) for the same database, user, and table is ignored, with a warning.
+ */
+public class JdbcAuditLogger
+        implements StructuredAudit {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcAuditLogger.class);
+
+    /**
+     * The writers that are currently open, by database, user, and table
+     */
+    private static final Map<String, JdbcAuditWriter> WRITERS = new HashMap<>();
+
+    /**
+     * The database, user, and table of the writers for which different settings have been ignored, used to warn only
+     * once per writer (guarded by the writers)
+     */
+    private static final Set<String> IGNORED_KEYS = new HashSet<>();
+
+    /**
+     * The writer this instance queues events to
+     */
+    private volatile JdbcAuditWriter writer;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the writer for the configured database and table, or attaches to the writer if it already exists.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    @SuppressWarnings("PMD.NullAssignment")
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final JdbcAuditProperties auditProps =
+                JaasBasedJdbcAuditPropsBuilder.build(properties.getAdditionalProperties());
+
+        if (StringUtils.isBlank(auditProps.getDriver()) || StringUtils.isBlank(auditProps.getUrl())) {
+            LOG.warn("No audit database has been configured, all audit operations will fail");
+            writer = null;
+            return;
+        }
+
+        try {
+            writer = getWriter(auditProps);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid audit database configuration, all audit operations will fail", e);
+            writer = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event} or {@code userId} are {@code null}
+     * @throws IllegalArgumentException When {@code userId} is empty
+     */
+    @Override
+    public final void audit(final Events event, final String userId)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(userId, "The validated character sequence 'userId' is null or empty");
+
+        queue(AuditEvent.create(event, null, null, userId, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException     When the {@code event}, {@code domain} or {@code username} are {@code null}
+     * @throws IllegalArgumentException When {@code domain}, {@code username} is empty
+     */
+    @Override
+    public final void audit(final Events event, final String domain, final String username)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+        Validate.notBlank(domain, "The validated character sequence 'domain' is null or empty");
+        Validate.notBlank(username, "The validated character sequence 'username' is null or empty");
+
+        queue(AuditEvent.create(event, domain, username, null, 0, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException When the {@code event} is {@code null}
+     */
+    @Override
+    public final void audit(final AuditEvent event)
+            throws AuditException {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        queue(event);
+    }
+
+    /**
+     * @return The writer this instance queues events to, or {@code null} if the audit database is not available
+     */
+    final JdbcAuditWriter getWriter() {
+
+        return writer;
+    }
+
+    /**
+     * Close all writers, writing the events that are still queued. The instances that have been attached to a closed
+     * writer fail until they are initialized again.
+     */
+    static void closeAll() {
+
+        synchronized (WRITERS) {
+            for (final JdbcAuditWriter myWriter : WRITERS.values()) {
+                myWriter.close();
+            }
+            WRITERS.clear();
+            IGNORED_KEYS.clear();
+        }
+    }
+
+    /**
+     * Return the writer for the configured database, user, and table, or create the writer.
+     *
+     * @param auditProps The configuration of the writer
+     * @return The writer
+     * @throws IllegalArgumentException When the configuration is not valid
+     */
+    private static JdbcAuditWriter getWriter(final JdbcAuditProperties auditProps) {
+
+        // private method asserts
+        assert auditProps != null : "The audit properties cannot be null";
+
+        final String key = auditProps.getUrl() + '\u0000' + auditProps.getUsername() + '\u0000' + auditProps.getTable();
+        synchronized (WRITERS) {
+            JdbcAuditWriter myWriter = WRITERS.get(key);
+            if (myWriter == null) {
+                myWriter = new JdbcAuditWriter(auditProps);
+                WRITERS.put(key, myWriter);
+            } else if (!myWriter.hasSettings(auditProps) && IGNORED_KEYS.add(key)) {
+                LOG.warn("The audit writer for this database, user, and table has already been created with different "
+                        + "settings, ignoring the settings of this configuration");
+            }
+
+            return myWriter;
+        }
+    }
+
+    /**
+     * Queue an event to be written to the database.
+     *
+     * @param event The event
+     * @throws AuditException When the audit database is not available, or the queue is full
+     */
+    private void queue(final AuditEvent event)
+            throws AuditException {
+
+        // private method asserts
+        assert event != null : "The event cannot be null";
+
+        final JdbcAuditWriter myWriter = writer;
+        if (myWriter == null) {
+            final String error = "The audit database is not available";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+
+        if (!myWriter.offer(event)) {
+            final String error = "The audit queue is full or closed, cannot queue the audit event";
+            LOG.warn(error);
+            throw new AuditException(error);
+        }
+    }
+}
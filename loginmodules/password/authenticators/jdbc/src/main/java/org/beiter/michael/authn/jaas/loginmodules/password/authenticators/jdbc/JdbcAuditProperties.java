@@ -0,0 +1,414 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the JDBC audit implementation.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class JdbcAuditProperties {
+
+    /**
+     * @see JdbcAuditProperties#setDriver(String)
+     */
+    private String driver;
+
+    /**
+     * @see JdbcAuditProperties#setUrl(String)
+     */
+    private String url;
+
+    /**
+     * @see JdbcAuditProperties#setUsername(String)
+     */
+    private String username;
+
+    /**
+     * @see JdbcAuditProperties#setPassword(String)
+     */
+    private String password;
+
+    /**
+     * @see JdbcAuditProperties#setMaxTotal(int)
+     */
+    private int maxTotal;
+
+    /**
+     * @see JdbcAuditProperties#setTable(String)
+     */
+    private String table;
+
+    /**
+     * @see JdbcAuditProperties#setBatchSize(int)
+     */
+    private int batchSize;
+
+    /**
+     * @see JdbcAuditProperties#setFlushInterval(long)
+     */
+    private long flushInterval;
+
+    /**
+     * @see JdbcAuditProperties#setQueueCapacity(int)
+     */
+    private int queueCapacity;
+
+    /**
+     * @see JdbcAuditProperties#setMaxRetries(int)
+     */
+    private int maxRetries;
+
+    /**
+     * @see JdbcAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of JDBC audit properties, with most values being set to <code>null</code>, 0, or empty
+     * (depending on the type of the property). Usually this constructor is used if this configuration POJO is populated
+     * in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults), use or
+     * create a properties builder (such as {@code JaasBasedJdbcAuditPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public JdbcAuditProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of JDBC audit properties from an existing set of JDBC audit properties, making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see JdbcAuditProperties()
+     */
+    public JdbcAuditProperties(final JdbcAuditProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setDriver(properties.getDriver());
+        setUrl(properties.getUrl());
+        setUsername(properties.getUsername());
+        setPassword(properties.getPassword());
+        setMaxTotal(properties.getMaxTotal());
+        setTable(properties.getTable());
+        setBatchSize(properties.getBatchSize());
+        setFlushInterval(properties.getFlushInterval());
+        setQueueCapacity(properties.getQueueCapacity());
+        setMaxRetries(properties.getMaxRetries());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The JDBC driver class name of the audit database
+     * @see JdbcAuditProperties#setDriver(String)
+     */
+    public final String getDriver() {
+
+        // no need for defensive copies of String
+
+        return driver;
+    }
+
+    /**
+     * Set the JDBC driver class name of the audit database
+     *
+     * @param driver A JDBC driver class name
+     */
+    public final void setDriver(final String driver) {
+
+        // no need for defensive copies of String
+
+        this.driver = driver;
+    }
+
+    /**
+     * @return The JDBC URL of the audit database
+     * @see JdbcAuditProperties#setUrl(String)
+     */
+    public final String getUrl() {
+
+        // no need for defensive copies of String
+
+        return url;
+    }
+
+    /**
+     * Set the JDBC URL of the audit database
+     *
+     * @param url A JDBC URL
+     */
+    public final void setUrl(final String url) {
+
+        // no need for defensive copies of String
+
+        this.url = url;
+    }
+
+    /**
+     * @return The username to connect to the audit database
+     * @see JdbcAuditProperties#setUsername(String)
+     */
+    public final String getUsername() {
+
+        // no need for defensive copies of String
+
+        return username;
+    }
+
+    /**
+     * Set the username to connect to the audit database
+     *
+     * @param username A username
+     */
+    public final void setUsername(final String username) {
+
+        // no need for defensive copies of String
+
+        this.username = username;
+    }
+
+    /**
+     * @return The password to connect to the audit database
+     * @see JdbcAuditProperties#setPassword(String)
+     */
+    public final String getPassword() {
+
+        // no need for defensive copies of String
+
+        return password;
+    }
+
+    /**
+     * Set the password to connect to the audit database
+     *
+     * @param password A password
+     */
+    public final void setPassword(final String password) {
+
+        // no need for defensive copies of String
+
+        this.password = password;
+    }
+
+    /**
+     * @return The maximum number of connections in the audit connection pool
+     * @see JdbcAuditProperties#setMaxTotal(int)
+     */
+    public final int getMaxTotal() {
+
+        return maxTotal;
+    }
+
+    /**
+     * Set the maximum number of connections in the audit connection pool. This pool is separate from the pool that is
+     * used to authenticate users, so that writing audit events does not compete with logins for connections
+     *
+     * @param maxTotal The maximum number of connections
+     */
+    public final void setMaxTotal(final int maxTotal) {
+
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * @return The name of the table the audit events are written to
+     * @see JdbcAuditProperties#setTable(String)
+     */
+    public final String getTable() {
+
+        // no need for defensive copies of String
+
+        return table;
+    }
+
+    /**
+     * Set the name of the table the audit events are written to. The name may be qualified with a schema name, and
+     * must only contain letters, digits, and underscores (see {@link JdbcAuditLogger} for the columns of the table)
+     *
+     * @param table A table name
+     */
+    public final void setTable(final String table) {
+
+        // no need for defensive copies of String
+
+        this.table = table;
+    }
+
+    /**
+     * @return The maximum number of audit events written to the database in one batch
+     * @see JdbcAuditProperties#setBatchSize(int)
+     */
+    public final int getBatchSize() {
+
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of audit events written to the database in one batch. A batch is written as soon as it is
+     * complete, or when the flush interval has passed
+     *
+     * @param batchSize The maximum number of events in one batch
+     */
+    public final void setBatchSize(final int batchSize) {
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return The maximum time an audit event waits for its batch to complete, in milliseconds
+     * @see JdbcAuditProperties#setFlushInterval(long)
+     */
+    public final long getFlushInterval() {
+
+        return flushInterval;
+    }
+
+    /**
+     * Set the maximum time an audit event waits for its batch to complete before the incomplete batch is written, in
+     * milliseconds
+     *
+     * @param flushInterval The flush interval in milliseconds
+     */
+    public final void setFlushInterval(final long flushInterval) {
+
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @return The maximum number of audit events waiting to be written
+     * @see JdbcAuditProperties#setQueueCapacity(int)
+     */
+    public final int getQueueCapacity() {
+
+        return queueCapacity;
+    }
+
+    /**
+     * Set the maximum number of audit events waiting to be written. Audit operations fail when the queue is full
+     *
+     * @param queueCapacity The capacity of the queue
+     */
+    public final void setQueueCapacity(final int queueCapacity) {
+
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return The maximum number of times a batch that cannot be written is retried before its events are dropped
+     * @see JdbcAuditProperties#setMaxRetries(int)
+     */
+    public final int getMaxRetries() {
+
+        return maxRetries;
+    }
+
+    /**
+     * Set the maximum number of times a batch that cannot be written is retried before its events are dropped. The
+     * delay between two attempts doubles with every retry, up to a fixed maximum
+     *
+     * @param maxRetries The maximum number of retries
+     */
+    public final void setMaxRetries(final int maxRetries) {
+
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see JdbcAuditProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Writes audit events to a database table, asynchronously and in batches.
+ * <p>
+ * Audit events are queued, and a background thread writes them to the database when a batch is complete, or when the
+ * oldest event in an incomplete batch has waited for the flush interval. A complete batch is written with a single
+ * multi-row {@code INSERT} statement, an incomplete batch with a JDBC batch of single-row {@code INSERT} statements.
+ * Every batch is written in its own transaction.
+ * <p>
+ * A batch that cannot be written (e.g. while the database is unavailable) is kept and retried, with a delay that
+ * doubles with every retry up to a fixed maximum, until it has been retried the configured number of times. Only then
+ * are its events dropped. While a batch is retried, new events wait in the queue, so that audit operations start to
+ * fail once the queue is full, rather than losing the events silently.
+ * <p>
+ * The writer uses its own connection pool, which is separate from the pool that is used to authenticate users.
+ */
+final class JdbcAuditWriter
+        implements Closeable {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcAuditWriter.class);
+
+    /**
+     * The name of the background thread
+     */
+    private static final String THREAD_NAME = "jaas-jdbc-audit-writer";
+
+    /**
+     * The columns of the audit table, in the order in which they are bound
+     */
+    private static final String COLUMNS = "event_sequence, event_time, event_name, user_domain, user_name, user_id, "
+            + "phase_duration, module_instance_id";
+
+    /**
+     * The placeholders of a single row
+     */
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The number of columns of the audit table
+     */
+    private static final int COLUMN_COUNT = 8;
+
+    /**
+     * The valid table names: letters, digits and underscores, optionally qualified with a schema name
+     */
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    /**
+     * The delay before the first retry of a batch, in milliseconds
+     */
+    private static final long RETRY_DELAY = 100L;
+
+    /**
+     * The longest delay between two attempts to write a batch, in milliseconds
+     */
+    private static final long MAX_RETRY_DELAY = 10000L;
+
+    /**
+     * The longest time to wait for a connection from the pool, in milliseconds
+     */
+    private static final long MAX_WAIT = 10000L;
+
+    /**
+     * The longest time {@link #close()} waits for the queued events to be written, in milliseconds
+     */
+    private static final long CLOSE_TIMEOUT = 30000L;
+
+    /**
+     * The longest time the background thread waits for events before it checks if the writer has been closed, in
+     * milliseconds
+     */
+    private static final long CLOSE_CHECK_INTERVAL = 100L;
+
+    /**
+     * The connection pool of the audit database
+     */
+    private final BasicDataSource dataSource;
+
+    /**
+     * The audit events waiting to be written
+     */
+    private final BlockingQueue<AuditEvent> queue;
+
+    /**
+     * The maximum number of events in a batch
+     */
+    private final int batchSize;
+
+    /**
+     * The maximum time an event waits for its batch to complete, in milliseconds
+     */
+    private final long flushInterval;
+
+    /**
+     * The maximum number of times a batch is retried before its events are dropped
+     */
+    private final int maxRetries;
+
+    /**
+     * The maximum number of queued events
+     */
+    private final int queueCapacity;
+
+    /**
+     * The statement that inserts a single row
+     */
+    private final String singleRowSql;
+
+    /**
+     * The statement that inserts a complete batch
+     */
+    private final String multiRowSql;
+
+    /**
+     * The background thread
+     */
+    private final Thread worker;
+
+    /**
+     * The number of events that have been written
+     */
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    /**
+     * The number of events that have been dropped because they could not be written
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The number of batches that have been written
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * The number of times a batch has been retried
+     */
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * Tracks if the writer has been closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Create a writer, and start its background thread.
+     *
+     * @param properties The configuration of the writer
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When the driver or URL are blank, or the table name is not valid
+     */
+    JdbcAuditWriter(final JdbcAuditProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+        Validate.notBlank(properties.getDriver(), "The validated character sequence 'driver' is null or empty");
+        Validate.notBlank(properties.getUrl(), "The validated character sequence 'url' is null or empty");
+        Validate.isTrue(properties.getTable() != null && TABLE_NAME.matcher(properties.getTable()).matches(),
+                "The audit table name must only contain letters, digits, and underscores");
+
+        this.batchSize = Math.max(1, properties.getBatchSize());
+        this.flushInterval = Math.max(1, properties.getFlushInterval());
+        this.maxRetries = Math.max(0, properties.getMaxRetries());
+        this.queueCapacity = Math.max(1, properties.getQueueCapacity());
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        final String insert = "INSERT INTO " + properties.getTable() + " (" + COLUMNS + ") VALUES ";
+        this.singleRowSql = insert + ROW;
+        this.multiRowSql = insert + StringUtils.repeat(ROW, ", ", batchSize);
+
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName(properties.getDriver());
+        dataSource.setUrl(properties.getUrl());
+        dataSource.setUsername(properties.getUsername());
+        dataSource.setPassword(properties.getPassword());
+        dataSource.setMaxTotal(Math.max(1, properties.getMaxTotal()));
+        dataSource.setMaxIdle(Math.max(1, properties.getMaxTotal()));
+        dataSource.setMaxWaitMillis(MAX_WAIT);
+        dataSource.setDefaultAutoCommit(false);
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, THREAD_NAME);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue an audit event to be written. This method does not block.
+     *
+     * @param event The audit event
+     * @return {@code true} if the event has been queued, {@code false} if the writer is closed or the queue is full
+     * @throws NullPointerException When {@code event} is {@code null}
+     */
+    boolean offer(final AuditEvent event) {
+
+        Validate.notNull(event, "The validated object 'event' is null");
+
+        return !closed && queue.offer(event);
+    }
+
+    /**
+     * Check if the writer has been created with the same settings as a configuration, apart from the database, user,
+     * and table.
+     *
+     * @param properties The configuration
+     * @return {@code true} if the driver, password, pool size, batch size, flush interval, queue capacity, and maximum
+     * number of retries of the writer are the ones of the configuration
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    boolean hasSettings(final JdbcAuditProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        return StringUtils.equals(dataSource.getDriverClassName(), properties.getDriver())
+                && StringUtils.equals(dataSource.getPassword(), properties.getPassword())
+                && dataSource.getMaxTotal() == Math.max(1, properties.getMaxTotal())
+                && batchSize == Math.max(1, properties.getBatchSize())
+                && flushInterval == Math.max(1, properties.getFlushInterval())
+                && queueCapacity == Math.max(1, properties.getQueueCapacity())
+                && maxRetries == Math.max(0, properties.getMaxRetries());
+    }
+
+    /**
+     * @return The number of events that have been written to the database
+     */
+    long getWrittenCount() {
+
+        return writtenCount.get();
+    }
+
+    /**
+     * @return The number of events that have been dropped because they could not be written to the database
+     */
+    long getDroppedCount() {
+
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of batches that have been written to the database
+     */
+    long getBatchCount() {
+
+        return batchCount.get();
+    }
+
+    /**
+     * @return The number of times a batch that could not be written has been retried
+     */
+    long getRetryCount() {
+
+        return retryCount.get();
+    }
+
+    /**
+     * Stop accepting events, write the events that are still queued, and close the connection pool. Batches that
+     * cannot be written are not retried once the writer is closed.
+     * <p>
+     * This method waits for the queued events to be written for a limited time only, so that an unresponsive
+     * database cannot block the caller. Events that have not been written by then are dropped.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        try {
+            worker.join(CLOSE_TIMEOUT);
+            if (worker.isAlive()) {
+                LOG.warn("The audit writer has not finished within " + CLOSE_TIMEOUT + " ms, dropping the events "
+                        + "that have not been written");
+                worker.interrupt();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the audit writer to finish, queued events may be lost", e);
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            LOG.warn("Error closing the audit connection pool", e);
+        }
+    }
+
+    /**
+     * Write batches of events until the writer is closed and the queue is empty.
+     */
+    private void processEvents() {
+
+        final List<AuditEvent> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+                if (!batch.isEmpty()) {
+                    writeWithRetries(batch);
+                }
+            } catch (InterruptedException e) {
+                LOG.info("The audit writer has been interrupted, stopping");
+                droppedCount.addAndGet(batch.size() + queue.size());
+                return;
+            } catch (RuntimeException e) {
+                // do not let a single bad batch kill the writer
+                LOG.warn("Unexpected error while writing audit events, dropping the batch", e);
+                droppedCount.addAndGet(batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for the first event of a batch, then collect events until the batch is complete, the flush interval has
+     * passed, or the writer has been closed.
+     *
+     * @param batch The list to add the events to
+     * @throws InterruptedException When the thread is interrupted
+     */
+    private void collectBatch(final List<AuditEvent> batch)
+            throws InterruptedException {
+
+        // private method asserts
+        assert batch != null : "The batch cannot be null";
+
+        // the waits are short, so that a closed writer does not wait for the flush interval
+        final long checkInterval = TimeUnit.MILLISECONDS.toNanos(CLOSE_CHECK_INTERVAL);
+        final AuditEvent first = queue.poll(Math.min(flushInterval, CLOSE_CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            final long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0 || closed) {
+                return;
+            }
+
+            final AuditEvent next = queue.poll(Math.min(remaining, checkInterval), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    /**
+     * Write a batch of events, retrying with an increasing delay if it cannot be written, and drop the events once the
+     * batch has been retried the maximum number of times.
+     *
+     * @param batch The events to write
+     * @throws InterruptedException When the thread is interrupted while waiting for a retry
+     */
+    private void writeWithRetries(final List<AuditEvent> batch)
+            throws InterruptedException {
+
+        // private method asserts
+        assert batch != null : "The batch cannot be null";
+
+        long delay = RETRY_DELAY;
+        int retries = 0;
+        while (!writeBatch(batch)) {
+            if (retries >= maxRetries || closed) {
+                LOG.error("Cannot write audit events to the database after " + retries + " retries, dropping "
+                        + batch.size() + " event(s)");
+                droppedCount.addAndGet(batch.size());
+                return;
+            }
+
+            TimeUnit.MILLISECONDS.sleep(delay);
+            delay = Math.min(MAX_RETRY_DELAY, delay * 2);
+            retries++;
+            retryCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write a batch of events to the database in a single transaction.
+     *
+     * @param batch The events to write
+     * @return {@code true} if the batch has been written, {@code false} if it could not be written
+     */
+    // The table name is retrieved from the configuration and validated, and the admin is trusted
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+    private boolean writeBatch(final List<AuditEvent> batch) {
+
+        // private method asserts
+        assert batch != null : "The batch cannot be null";
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = dataSource.getConnection();
+
+            if (batch.size() == batchSize && batchSize > 1) {
+                // a complete batch is written with a single multi-row insert
+                statement = connection.prepareStatement(multiRowSql);
+                for (int i = 0; i < batch.size(); i++) {
+                    bind(statement, i * COLUMN_COUNT, batch.get(i));
+                }
+                statement.executeUpdate();
+            } else {
+                // an incomplete batch is written as a JDBC batch, which many drivers rewrite into a multi-row insert
+                statement = connection.prepareStatement(singleRowSql);
+                for (final AuditEvent event : batch) {
+                    bind(statement, 0, event);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+
+            connection.commit();
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Wrote " + batch.size() + " audit event(s) to the database");
+            }
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("Error writing " + batch.size() + " audit event(s) to the database", e);
+            DbUtil.rollback(connection);
+            return false;
+        } finally {
+            DbUtil.close(statement);
+            DbUtil.close(connection);
+        }
+    }
+
+    /**
+     * Bind the columns of an event to the parameters of a statement.
+     *
+     * @param statement The statement
+     * @param offset    The number of parameters before the first parameter of the event
+     * @param event     The event
+     * @throws SQLException When a parameter cannot be bound
+     */
+    // CHECKSTYLE:OFF
+    // the parameter positions are easier to read with literal numbers
+    private static void bind(final PreparedStatement statement, final int offset, final AuditEvent event)
+            throws SQLException {
+
+        statement.setLong(offset + 1, event.getSequence());
+        statement.setTimestamp(offset + 2, new Timestamp(event.getTime()));
+        statement.setString(offset + 3, event.getEvent().name());
+        setString(statement, offset + 4, event.getDomain());
+        setString(statement, offset + 5, event.getUsername());
+        setString(statement, offset + 6, event.getUserId());
+        statement.setLong(offset + 7, event.getDuration());
+        setString(statement, offset + 8, event.getModuleInstanceId());
+    }
+    // CHECKSTYLE:ON
+
+    /**
+     * Bind a string parameter that may be {@code null}.
+     *
+     * @param statement The statement
+     * @param index     The parameter index
+     * @param value     The value, may be {@code null}
+     * @throws SQLException When the parameter cannot be bound
+     */
+    private static void setString(final PreparedStatement statement, final int index, final String value)
+            throws SQLException {
+
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.beiter.michael.authn.jaas.common.Util;
 import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedConnPropsBuilder;
 import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordAuthenticator;
 import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.UpgradeablePasswordValidator;
 import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedDbPropsBuilder;
 import org.beiter.michael.db.ConnectionProperties;
 import org.beiter.michael.db.ConnectionFactory;
@@ -85,6 +86,11 @@ public class JdbcPasswordAuthenticator
     // and may be useful in the future for compare-and-set operations.
     private static AtomicReference<ConnectionProperties> connProps = new AtomicReference<>();
 
+    /**
+     * Writes upgraded credentials back to the database (if configured)
+     */
+    private static final CredentialUpdater CREDENTIAL_UPDATER = new CredentialUpdater();
+
     /**
      * {@inheritDoc}
      * <p>
@@ -132,6 +138,13 @@ public class JdbcPasswordAuthenticator
      * If the validation fails (i.e. the provided password does not match the credential), a
      * {@link javax.security.auth.login.FailedLoginException} is thrown.
      * <p>
+     * If the validation is successful, the password validator is an {@link UpgradeablePasswordValidator} that reports
+     * the stored credential as below its cost target, and a credential update SQL statement has been configured, the
+     * credential is re-hashed and written back to the database. This happens asynchronously and in batches, and does
+     * not delay the authentication. The configured SQL statement must take four parameters: the new credential, the
+     * domain, the userName, and the credential the password has been validated against (so that a credential that has
+     * been changed since the login is not overwritten).
+     * <p>
      * If the validation is successful, a {@code Subject} is populated with three principals is returned: The
      * user's ID as returned by the database, and both the user provided domain and the user provided principal (i.e.
      * the the identifiers used to authenticate the users).
@@ -193,7 +206,8 @@ public class JdbcPasswordAuthenticator
         }
 
         // The authentication was successful!
-        // Create the subject and clean up confidential data as far as possible.
+        // Upgrade the credential if required, create the subject, and clean up confidential data as far as possible.
+        upgradeCredential(domain, userName, myPassword, myCredential, passwordValidator);
 
         // clear the char representation of the credential
         Cleanser.wipe(myCredential);
@@ -211,6 +225,42 @@ public class JdbcPasswordAuthenticator
         return subject;
     }
 
+    /**
+     * Submit a credential write-back if the credential write-back is configured and the password validator reports
+     * that the stored credential is below its cost target.
+     *
+     * @param domain            The domain in which the {@code userName} is located
+     * @param userName          The username of the authenticated user
+     * @param password          The validated password
+     * @param credential        The stored credential
+     * @param passwordValidator The validator that has been used to validate the password
+     */
+    private void upgradeCredential(final String domain, final String userName, final char[] password,
+                                   final char[] credential, final PasswordValidator passwordValidator) {
+
+        final String sql = dbProps.get().getSqlCredentialUpdate();
+        if (StringUtils.isBlank(sql) || !(passwordValidator instanceof UpgradeablePasswordValidator)) {
+            return;
+        }
+
+        final UpgradeablePasswordValidator validator = (UpgradeablePasswordValidator) passwordValidator;
+        if (validator.needsRehash(credential)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Credential for username '" + userName + "' is below the cost target, submitting re-hash");
+            }
+            CREDENTIAL_UPDATER.submit(domain, userName, password, new String(credential), validator, sql,
+                    dbProps.get().getCredentialUpdateBatchSize());
+        }
+    }
+
+    /**
+     * @return The number of credential write-backs that have been submitted, but not yet written to the database
+     */
+    static int getPendingCredentialUpdates() {
+
+        return CREDENTIAL_UPDATER.getPendingCount();
+    }
+
     /**
      * Retrieve a user record from the database, with the user record being uniquely identified through {@code domain}
      * and {@code userName}.
@@ -272,7 +322,7 @@ public class JdbcPasswordAuthenticator
      * @throws LoginException when the connection cannot be retrieved from JNDI or the connection pool, or the pool
      *                        cannot be created
      */
-    private Connection getDatabaseConnection()
+    static Connection getDatabaseConnection()
             throws LoginException {
 
         Connection connection;
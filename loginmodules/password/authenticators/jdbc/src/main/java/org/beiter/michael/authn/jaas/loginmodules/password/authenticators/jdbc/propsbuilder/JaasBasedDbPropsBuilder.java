@@ -35,6 +35,7 @@ package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.propsbuilder.PropsUtil;
 import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.DbProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +77,16 @@ public final class JaasBasedDbPropsBuilder {
      */
     public static final String DEFAULT_SQL_USER_QUERY = null;
 
+    /**
+     * @see DbProperties#setSqlCredentialUpdate(String)
+     */
+    public static final String DEFAULT_SQL_CREDENTIAL_UPDATE = null;
+
+    /**
+     * @see DbProperties#setCredentialUpdateBatchSize(int)
+     */
+    public static final int DEFAULT_CREDENTIAL_UPDATE_BATCH_SIZE = 32;
+
     // #####################
     // # Configuration Keys
     // #####################
@@ -90,6 +101,16 @@ public final class JaasBasedDbPropsBuilder {
      */
     public static final String KEY_SQL_USER_QUERY = "jaas.jdbc.sql.userQuery";
 
+    /**
+     * @see DbProperties#setSqlCredentialUpdate(String)
+     */
+    public static final String KEY_SQL_CREDENTIAL_UPDATE = "jaas.jdbc.sql.credentialUpdate";
+
+    /**
+     * @see DbProperties#setCredentialUpdateBatchSize(int)
+     */
+    public static final String KEY_CREDENTIAL_UPDATE_BATCH_SIZE = "jaas.jdbc.sql.credentialUpdateBatchSize";
+
 
     /**
      * A private constructor to prevent instantiation of this class
@@ -139,6 +160,18 @@ public final class JaasBasedDbPropsBuilder {
             logDefault(KEY_SQL_USER_QUERY, DEFAULT_SQL_USER_QUERY);
         }
 
+        tmp = getOption(KEY_SQL_CREDENTIAL_UPDATE, properties);
+        if (StringUtils.isNotEmpty(tmp)) { // sql update can be null or empty, which disables the credential write-back
+            dbProps.setSqlCredentialUpdate(tmp);
+            logValue(KEY_SQL_CREDENTIAL_UPDATE, tmp);
+        } else {
+            dbProps.setSqlCredentialUpdate(DEFAULT_SQL_CREDENTIAL_UPDATE);
+            logDefault(KEY_SQL_CREDENTIAL_UPDATE, DEFAULT_SQL_CREDENTIAL_UPDATE);
+        }
+
+        dbProps.setCredentialUpdateBatchSize(PropsUtil.getPositiveInt(KEY_CREDENTIAL_UPDATE_BATCH_SIZE,
+                DEFAULT_CREDENTIAL_UPDATE_BATCH_SIZE, properties));
+
         // set the additional properties, preserving the originally provided properties
         // create a defensive copy of the map and all its properties
         // the code looks a little more complicated than a simple "putAll()", but it catches situations
@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.propsbuilder.PropsUtil;
+import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.JdbcAuditProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link JdbcAuditProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedJdbcAuditPropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see JdbcAuditProperties#setDriver(String)
+     */
+    public static final String DEFAULT_DRIVER = null;
+
+    /**
+     * @see JdbcAuditProperties#setUrl(String)
+     */
+    public static final String DEFAULT_URL = null;
+
+    /**
+     * @see JdbcAuditProperties#setUsername(String)
+     */
+    public static final String DEFAULT_USERNAME = null;
+
+    /**
+     * @see JdbcAuditProperties#setPassword(String)
+     */
+    // Fortify will report a violation here for handling a hardcoded password, which is not the case.
+    // This is a non-issue / false positive.
+    public static final String DEFAULT_PASSWORD = null;
+
+    /**
+     * @see JdbcAuditProperties#setMaxTotal(int)
+     */
+    public static final int DEFAULT_MAX_TOTAL = 2;
+
+    /**
+     * @see JdbcAuditProperties#setTable(String)
+     */
+    public static final String DEFAULT_TABLE = "jaas_audit";
+
+    /**
+     * @see JdbcAuditProperties#setBatchSize(int)
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * @see JdbcAuditProperties#setFlushInterval(long)
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+    /**
+     * @see JdbcAuditProperties#setQueueCapacity(int)
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * @see JdbcAuditProperties#setMaxRetries(int)
+     */
+    public static final int DEFAULT_MAX_RETRIES = 10;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see JdbcAuditProperties#setDriver(String)
+     */
+    public static final String KEY_DRIVER = "jaas.jdbc.audit.driver";
+
+    /**
+     * @see JdbcAuditProperties#setUrl(String)
+     */
+    public static final String KEY_URL = "jaas.jdbc.audit.url";
+
+    /**
+     * @see JdbcAuditProperties#setUsername(String)
+     */
+    public static final String KEY_USERNAME = "jaas.jdbc.audit.username";
+
+    /**
+     * @see JdbcAuditProperties#setPassword(String)
+     */
+    // Fortify will report a violation here for handling a hardcoded password, which is not the case.
+    // This is a non-issue / false positive.
+    public static final String KEY_PASSWORD = "jaas.jdbc.audit.password";
+
+    /**
+     * @see JdbcAuditProperties#setMaxTotal(int)
+     */
+    public static final String KEY_MAX_TOTAL = "jaas.jdbc.audit.maxTotal";
+
+    /**
+     * @see JdbcAuditProperties#setTable(String)
+     */
+    public static final String KEY_TABLE = "jaas.jdbc.audit.table";
+
+    /**
+     * @see JdbcAuditProperties#setBatchSize(int)
+     */
+    public static final String KEY_BATCH_SIZE = "jaas.jdbc.audit.batchSize";
+
+    /**
+     * @see JdbcAuditProperties#setFlushInterval(long)
+     */
+    public static final String KEY_FLUSH_INTERVAL = "jaas.jdbc.audit.flushInterval";
+
+    /**
+     * @see JdbcAuditProperties#setQueueCapacity(int)
+     */
+    public static final String KEY_QUEUE_CAPACITY = "jaas.jdbc.audit.queueCapacity";
+
+    /**
+     * @see JdbcAuditProperties#setMaxRetries(int)
+     */
+    public static final String KEY_MAX_RETRIES = "jaas.jdbc.audit.maxRetries";
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedJdbcAuditPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of JDBC audit properties that use the defaults as specified in this class.
+     *
+     * @return A set of JDBC audit properties with (reasonable) defaults
+     * @see JaasBasedJdbcAuditPropsBuilder
+     */
+    public static JdbcAuditProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of JDBC audit properties based on key / values in a <code>HashMap</code>.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>JdbcAuditProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static JdbcAuditProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final JdbcAuditProperties auditProps = new JdbcAuditProperties();
+
+        auditProps.setDriver(PropsUtil.getString(KEY_DRIVER, DEFAULT_DRIVER, properties));
+        auditProps.setUrl(PropsUtil.getString(KEY_URL, DEFAULT_URL, properties));
+        auditProps.setUsername(PropsUtil.getString(KEY_USERNAME, DEFAULT_USERNAME, properties));
+        auditProps.setPassword(PropsUtil.getString(KEY_PASSWORD, DEFAULT_PASSWORD, properties));
+        auditProps.setMaxTotal(PropsUtil.getInt(KEY_MAX_TOTAL, DEFAULT_MAX_TOTAL, 1, properties));
+        auditProps.setTable(PropsUtil.getString(KEY_TABLE, DEFAULT_TABLE, properties));
+        auditProps.setBatchSize(PropsUtil.getInt(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE, 1, properties));
+        auditProps.setFlushInterval(PropsUtil.getPositiveLong(KEY_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL, properties));
+        auditProps.setQueueCapacity(PropsUtil.getInt(KEY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY, 1, properties));
+        auditProps.setMaxRetries(PropsUtil.getInt(KEY_MAX_RETRIES, DEFAULT_MAX_RETRIES, 0, properties));
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        auditProps.setAdditionalProperties(tempMap);
+
+        return auditProps;
+    }
+}
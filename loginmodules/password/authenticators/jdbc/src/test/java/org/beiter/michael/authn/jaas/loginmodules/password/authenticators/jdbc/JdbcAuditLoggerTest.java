@@ -0,0 +1,370 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditException;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedJdbcAuditPropsBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test the {@link JdbcAuditLogger} against an in-memory database.
+ */
+public class JdbcAuditLoggerTest {
+
+    private static final String URL = "jdbc:h2:mem:audit_test;DB_CLOSE_DELAY=-1";
+
+    /**
+     * Create an empty audit table
+     *
+     * @throws SQLException When the table cannot be created
+     */
+    @Before
+    public void createTable()
+            throws SQLException {
+
+        try (Connection con = DriverManager.getConnection(URL, H2Server.USER, H2Server.PASSWORD)) {
+            con.prepareStatement("DROP TABLE IF EXISTS jaas_audit").execute();
+            con.prepareStatement("CREATE TABLE jaas_audit ("
+                    + " event_sequence BIGINT NOT NULL,"
+                    + " event_time TIMESTAMP NOT NULL,"
+                    + " event_name VARCHAR(32) NOT NULL,"
+                    + " user_domain VARCHAR(255),"
+                    + " user_name VARCHAR(255),"
+                    + " user_id VARCHAR(255),"
+                    + " phase_duration BIGINT NOT NULL,"
+                    + " module_instance_id VARCHAR(255)"
+                    + ")").execute();
+        }
+    }
+
+    /**
+     * Close the writers opened by the tests
+     */
+    @After
+    public void closeWriters() {
+
+        JdbcAuditLogger.closeAll();
+    }
+
+    /**
+     * Test that complete batches are written with one statement each
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void batchTest()
+            throws Exception {
+
+        JdbcAuditLogger audit = buildLogger("jaas_audit", "5", "60000");
+        for (int i = 0; i < 10; i++) {
+            audit.audit(Events.AUTHN_ATTEMPT, "domain_1", "userName_" + i);
+        }
+        audit.audit(AuditEvent.create(Events.AUTHN_SUCCESS, "domain_1", "userName_1", "userId_1", 42L, "module_1"));
+
+        awaitWritten(audit.getWriter(), 10);
+        String error = "The complete batches should have been written one statement each";
+        assertThat(error, audit.getWriter().getBatchCount(), is(equalTo(2L)));
+        assertThat(error, countRows("event_name = 'AUTHN_ATTEMPT'"), is(equalTo(10)));
+
+        // the eleventh event is written when the writer is closed
+        JdbcAuditLogger.closeAll();
+        error = "The queued event should have been written when the writer was closed";
+        assertThat(error, countRows("user_id = 'userId_1' AND phase_duration = 42 AND module_instance_id = 'module_1'"),
+                is(equalTo(1)));
+    }
+
+    /**
+     * Test that an incomplete batch is written when the flush interval has passed
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void flushIntervalTest()
+            throws Exception {
+
+        JdbcAuditLogger audit = buildLogger("jaas_audit", "100", "20");
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+        audit.audit(Events.AUTHN_FAILURE, "domain_1", "userName_1");
+
+        awaitWritten(audit.getWriter(), 2);
+        String error = "The incomplete batch should have been written after the flush interval";
+        assertThat(error, countRows("1 = 1"), is(equalTo(2)));
+        assertThat(error, countRows("user_id = 'userId_1' AND user_domain IS NULL"), is(equalTo(1)));
+    }
+
+    /**
+     * Test that events are dropped when they cannot be written, and retries are disabled
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void writeFailureTest()
+            throws Exception {
+
+        JdbcAuditLogger audit = buildLogger("missing_table", "100", "20", "0");
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (audit.getWriter().getDroppedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        String error = "The event should have been dropped";
+        assertThat(error, audit.getWriter().getDroppedCount(), is(equalTo(1L)));
+        assertThat(error, audit.getWriter().getWrittenCount(), is(equalTo(0L)));
+        error = "The batch should not have been retried";
+        assertThat(error, audit.getWriter().getRetryCount(), is(equalTo(0L)));
+    }
+
+    /**
+     * Test that a batch that cannot be written is retried, and written once the database has recovered
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void retryTest()
+            throws Exception {
+
+        try (Connection con = DriverManager.getConnection(URL, H2Server.USER, H2Server.PASSWORD)) {
+            con.prepareStatement("ALTER TABLE jaas_audit RENAME TO jaas_audit_offline").execute();
+        }
+
+        JdbcAuditLogger audit = buildLogger("jaas_audit", "100", "20", "100");
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (audit.getWriter().getRetryCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        String error = "The batch should have been retried while the table was unavailable";
+        assertThat(error, audit.getWriter().getRetryCount(), is(greaterThan(0L)));
+
+        try (Connection con = DriverManager.getConnection(URL, H2Server.USER, H2Server.PASSWORD)) {
+            con.prepareStatement("ALTER TABLE jaas_audit_offline RENAME TO jaas_audit").execute();
+        }
+
+        awaitWritten(audit.getWriter(), 1);
+        error = "The retried batch should have been written once the table was available again";
+        assertThat(error, countRows("user_id = 'userId_1'"), is(equalTo(1)));
+        assertThat(error, audit.getWriter().getDroppedCount(), is(equalTo(0L)));
+    }
+
+    /**
+     * Test that loggers for the same database, user, and table share a writer, which keeps the settings it has been
+     * created with
+     */
+    @Test
+    public void sharedWriterTest() {
+
+        JdbcAuditLogger audit = buildLogger("jaas_audit", "5", "60000");
+        JdbcAuditLogger sameAudit = buildLogger("jaas_audit", "5", "60000");
+        JdbcAuditLogger otherAudit = buildLogger("jaas_audit", "10", "20");
+
+        String error = "The loggers for the same table should share a writer";
+        assertThat(error, sameAudit.getWriter(), is(sameInstance(audit.getWriter())));
+        assertThat(error, otherAudit.getWriter(), is(sameInstance(audit.getWriter())));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_DRIVER, H2Server.DRIVER);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_PASSWORD, H2Server.PASSWORD);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_BATCH_SIZE, "5");
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_FLUSH_INTERVAL, "60000");
+        error = "The writer should keep the settings it has been created with";
+        assertThat(error, audit.getWriter().hasSettings(JaasBasedJdbcAuditPropsBuilder.build(map)), is(equalTo(true)));
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_BATCH_SIZE, "10");
+        assertThat(error, audit.getWriter().hasSettings(JaasBasedJdbcAuditPropsBuilder.build(map)),
+                is(equalTo(false)));
+    }
+
+    /**
+     * Test that the audit operations fail if no database has been configured
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void noDatabaseTest()
+            throws AuditException {
+
+        Map<String, String> map = new HashMap<>();
+        JdbcAuditLogger audit = new JdbcAuditLogger();
+        audit.init(JaasBasedCommonPropsBuilder.build(map));
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+    }
+
+    /**
+     * Test that the audit operations fail if the table name is not valid
+     *
+     * @throws AuditException When the audit operation fails (expected)
+     */
+    @Test(expected = AuditException.class)
+    public void invalidTableTest()
+            throws AuditException {
+
+        JdbcAuditLogger audit = buildLogger("jaas_audit; DROP TABLE jaas_audit", "100", "20");
+        audit.audit(Events.AUTHN_SUCCESS, "userId_1");
+    }
+
+    /**
+     * Test the values of the JDBC audit properties
+     */
+    @Test
+    public void propertiesTest() {
+
+        JdbcAuditProperties auditProps = JaasBasedJdbcAuditPropsBuilder.buildDefault();
+
+        String error = "url does not match expected default value";
+        assertThat(error, auditProps.getUrl(), is(nullValue()));
+        error = "table does not match expected default value";
+        assertThat(error, auditProps.getTable(), is(equalTo(JaasBasedJdbcAuditPropsBuilder.DEFAULT_TABLE)));
+        error = "batch size does not match expected default value";
+        assertThat(error, auditProps.getBatchSize(), is(equalTo(JaasBasedJdbcAuditPropsBuilder.DEFAULT_BATCH_SIZE)));
+        error = "flush interval does not match expected default value";
+        assertThat(error, auditProps.getFlushInterval(),
+                is(equalTo(JaasBasedJdbcAuditPropsBuilder.DEFAULT_FLUSH_INTERVAL)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_URL, "42");
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_MAX_TOTAL, "43");
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_BATCH_SIZE, "-1");
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_QUEUE_CAPACITY, "44");
+        auditProps = new JdbcAuditProperties(JaasBasedJdbcAuditPropsBuilder.build(map));
+
+        error = "url does not match expected value";
+        assertThat(error, auditProps.getUrl(), is(equalTo("42")));
+        error = "max total does not match expected value";
+        assertThat(error, auditProps.getMaxTotal(), is(equalTo(43)));
+        error = "an invalid batch size should be ignored";
+        assertThat(error, auditProps.getBatchSize(), is(equalTo(JaasBasedJdbcAuditPropsBuilder.DEFAULT_BATCH_SIZE)));
+        error = "queue capacity does not match expected value";
+        assertThat(error, auditProps.getQueueCapacity(), is(equalTo(44)));
+        error = "max retries does not match expected default value";
+        assertThat(error, auditProps.getMaxRetries(), is(equalTo(JaasBasedJdbcAuditPropsBuilder.DEFAULT_MAX_RETRIES)));
+
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_MAX_RETRIES, "0");
+        error = "max retries does not match expected value";
+        assertThat(error, JaasBasedJdbcAuditPropsBuilder.build(map).getMaxRetries(), is(equalTo(0)));
+    }
+
+    /**
+     * Build an initialized JDBC audit logger for the test database, with the default number of retries
+     *
+     * @param table         The audit table
+     * @param batchSize     The batch size
+     * @param flushInterval The flush interval
+     * @return The audit logger
+     */
+    private static JdbcAuditLogger buildLogger(final String table, final String batchSize,
+                                               final String flushInterval) {
+
+        return buildLogger(table, batchSize, flushInterval,
+                String.valueOf(JaasBasedJdbcAuditPropsBuilder.DEFAULT_MAX_RETRIES));
+    }
+
+    /**
+     * Build an initialized JDBC audit logger for the test database
+     *
+     * @param table         The audit table
+     * @param batchSize     The batch size
+     * @param flushInterval The flush interval
+     * @param maxRetries    The maximum number of retries of a batch
+     * @return The audit logger
+     */
+    private static JdbcAuditLogger buildLogger(final String table, final String batchSize,
+                                               final String flushInterval, final String maxRetries) {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_MAX_RETRIES, maxRetries);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_DRIVER, H2Server.DRIVER);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_URL, URL);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_USERNAME, H2Server.USER);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_PASSWORD, H2Server.PASSWORD);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_TABLE, table);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_BATCH_SIZE, batchSize);
+        map.put(JaasBasedJdbcAuditPropsBuilder.KEY_FLUSH_INTERVAL, flushInterval);
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        JdbcAuditLogger audit = new JdbcAuditLogger();
+        audit.init(commonProps);
+        return audit;
+    }
+
+    /**
+     * Wait until a writer has written a number of events
+     *
+     * @param writer The writer
+     * @param count  The number of events
+     * @throws InterruptedException When the test is interrupted
+     */
+    private static void awaitWritten(final JdbcAuditWriter writer, final long count)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Count the rows of the audit table
+     *
+     * @param condition The SQL condition the rows must match
+     * @return The number of rows
+     * @throws SQLException When the table cannot be read
+     */
+    private static int countRows(final String condition)
+            throws SQLException {
+
+        try (Connection con = DriverManager.getConnection(URL, H2Server.USER, H2Server.PASSWORD)) {
+            ResultSet rs = con.prepareStatement("SELECT COUNT(*) FROM jaas_audit WHERE " + condition).executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a universal JDBC
+ * authenticator implementation.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedConnPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.authenticators.jdbc.propsbuilder.JaasBasedDbPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordAuthenticator;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.Pbkdf2PasswordValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder.JaasBasedPbkdf2PropsBuilder;
+import org.beiter.michael.db.ConnectionFactory;
+import org.beiter.michael.db.ConnectionProperties;
+import org.beiter.michael.db.FactoryException;
+import org.beiter.michael.db.propsbuilder.MapBasedConnPropsBuilder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.security.auth.login.LoginException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test the credential write-back of the {@link JdbcPasswordAuthenticator} using a connection pool based connection.
+ */
+public class JdbcPasswordAuthenticatorRehashTest {
+
+    private static final String SQL_USER_QUERY =
+            "SELECT id, password FROM user_plaintext WHERE domain = ? AND username = ?";
+    private static final String SQL_CREDENTIAL_UPDATE =
+            "UPDATE user_plaintext SET password = ? WHERE domain = ? AND username = ? AND password = ?";
+    private static final String SQL_SET_CREDENTIAL =
+            "UPDATE user_plaintext SET password = ? WHERE domain = ? AND username = ?";
+
+    /**
+     * Start the in-memory database server
+     *
+     * @throws java.sql.SQLException When the startup fails
+     */
+    @BeforeClass
+    public static void startDbServer()
+            throws SQLException {
+
+        H2Server.start();
+    }
+
+    /**
+     * Stops the in-memory database server
+     */
+    @AfterClass
+    public static void stopDbServer() {
+
+        H2Server.stop();
+    }
+
+    /**
+     * Initialize the database with a default database schema + values, and store a weak PBKDF2 credential for user1
+     *
+     * @throws FactoryException      When no DB connection can be obtained
+     * @throws java.sql.SQLException When the initialization fails
+     */
+    @Before
+    public void initDatabase()
+            throws FactoryException, SQLException {
+
+        H2Server.init();
+
+        Pbkdf2PasswordValidator weakValidator = new Pbkdf2PasswordValidator();
+        weakValidator.init(buildProps("5", null));
+        setCredential("domain1", "user1", new String(weakValidator.hash("user1".toCharArray())));
+    }
+
+    /**
+     * Test that a credential below the cost target is re-hashed and written back after a successful login
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void credentialIsUpgradedTest()
+            throws Exception {
+
+        CommonProperties commonProps = buildProps("10", SQL_CREDENTIAL_UPDATE);
+
+        Pbkdf2PasswordValidator pwValidator = new Pbkdf2PasswordValidator();
+        pwValidator.init(commonProps);
+        PasswordAuthenticator pwAuthenticator = new JdbcPasswordAuthenticator();
+        pwAuthenticator.init(commonProps);
+
+        pwAuthenticator.authenticate("domain1", "user1", "user1".toCharArray(), pwValidator);
+        awaitCredentialUpdates();
+
+        String credential = getCredential("domain1", "user1");
+        String error = "The credential has not been upgraded to the configured iteration count";
+        assertThat(error, credential, startsWith("pbkdf2-sha256$10$"));
+        error = "The upgraded credential does not validate";
+        assertThat(error, pwValidator.validate("user1".toCharArray(), credential.toCharArray()), is(equalTo(true)));
+
+        // the upgraded credential must still authenticate, and not be upgraded again
+        pwAuthenticator.authenticate("domain1", "user1", "user1".toCharArray(), pwValidator);
+        awaitCredentialUpdates();
+        error = "A credential that meets the cost target has been re-written";
+        assertThat(error, getCredential("domain1", "user1"), is(equalTo(credential)));
+    }
+
+    /**
+     * Test that a credential is also written back if the connection pool does not use auto-commit
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void credentialIsCommittedTest()
+            throws Exception {
+
+        CommonProperties commonProps = buildProps("10", SQL_CREDENTIAL_UPDATE, "false");
+
+        Pbkdf2PasswordValidator pwValidator = new Pbkdf2PasswordValidator();
+        pwValidator.init(commonProps);
+        PasswordAuthenticator pwAuthenticator = new JdbcPasswordAuthenticator();
+        pwAuthenticator.init(commonProps);
+
+        pwAuthenticator.authenticate("domain1", "user1", "user1".toCharArray(), pwValidator);
+        awaitCredentialUpdates();
+
+        String error = "The upgraded credential has not been committed";
+        assertThat(error, getCredential("domain1", "user1"), startsWith("pbkdf2-sha256$10$"));
+    }
+
+    /**
+     * Test that a credential that has been changed since the login is not overwritten by the write-back
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void changedCredentialIsKeptTest()
+            throws Exception {
+
+        String validated = getCredential("domain1", "user1");
+        CommonProperties commonProps = buildProps("10", SQL_CREDENTIAL_UPDATE);
+
+        Pbkdf2PasswordValidator pwValidator = new Pbkdf2PasswordValidator();
+        pwValidator.init(commonProps);
+        PasswordAuthenticator pwAuthenticator = new JdbcPasswordAuthenticator();
+        pwAuthenticator.init(commonProps);
+
+        // the user changes the password after the login has validated the old credential
+        String changed = new String(pwValidator.hash("newPassword".toCharArray()));
+        setCredential("domain1", "user1", changed);
+
+        CredentialUpdater updater = new CredentialUpdater();
+        updater.submit("domain1", "user1", "user1".toCharArray(), validated, pwValidator, SQL_CREDENTIAL_UPDATE, 32);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (updater.getPendingCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Pending credential updates have not been written in time");
+            }
+            Thread.sleep(10);
+        }
+
+        String error = "The changed credential has been overwritten with a hash of the old password";
+        assertThat(error, getCredential("domain1", "user1"), is(equalTo(changed)));
+    }
+
+    /**
+     * Test that no credential is written back if the update statement has not been configured
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void credentialUpdateNotConfiguredTest()
+            throws Exception {
+
+        String original = getCredential("domain1", "user1");
+        CommonProperties commonProps = buildProps("10", null);
+
+        Pbkdf2PasswordValidator pwValidator = new Pbkdf2PasswordValidator();
+        pwValidator.init(commonProps);
+        PasswordAuthenticator pwAuthenticator = new JdbcPasswordAuthenticator();
+        pwAuthenticator.init(commonProps);
+
+        pwAuthenticator.authenticate("domain1", "user1", "user1".toCharArray(), pwValidator);
+
+        String error = "A credential update has been submitted although no update statement is configured";
+        assertThat(error, JdbcPasswordAuthenticator.getPendingCredentialUpdates(), is(equalTo(0)));
+        error = "The credential has been changed although no update statement is configured";
+        assertThat(error, getCredential("domain1", "user1"), is(equalTo(original)));
+    }
+
+    /**
+     * Test that no credential is written back after a failed login
+     *
+     * @throws Exception When the test fails
+     */
+    @Test
+    public void credentialNotUpgradedOnFailureTest()
+            throws Exception {
+
+        String original = getCredential("domain1", "user1");
+        CommonProperties commonProps = buildProps("10", SQL_CREDENTIAL_UPDATE);
+
+        Pbkdf2PasswordValidator pwValidator = new Pbkdf2PasswordValidator();
+        pwValidator.init(commonProps);
+        PasswordAuthenticator pwAuthenticator = new JdbcPasswordAuthenticator();
+        pwAuthenticator.init(commonProps);
+
+        try {
+            pwAuthenticator.authenticate("domain1", "user1", "wrongPassword".toCharArray(), pwValidator);
+            throw new AssertionError("Authentication with a wrong password succeeded");
+        } catch (LoginException e) {
+            // expected
+        }
+        awaitCredentialUpdates();
+
+        String error = "The credential has been changed after a failed login";
+        assertThat(error, getCredential("domain1", "user1"), is(equalTo(original)));
+    }
+
+    /**
+     * Build the common properties for the tests
+     *
+     * @param iterations The PBKDF2 iteration count
+     * @param sqlUpdate  The SQL credential update statement (may be null)
+     * @return The common properties
+     */
+    private static CommonProperties buildProps(final String iterations, final String sqlUpdate) {
+
+        return buildProps(iterations, sqlUpdate, null);
+    }
+
+    /**
+     * Build the common properties for the tests
+     *
+     * @param iterations The PBKDF2 iteration count
+     * @param sqlUpdate  The SQL credential update statement (may be null)
+     * @param autoCommit Whether the connection pool uses auto-commit (may be null for the default)
+     * @return The common properties
+     */
+    private static CommonProperties buildProps(final String iterations, final String sqlUpdate,
+                                               final String autoCommit) {
+
+        Map<String, String> properties = new ConcurrentHashMap<>();
+        properties.put(JaasBasedConnPropsBuilder.KEY_DRIVER, H2Server.DRIVER);
+        properties.put(JaasBasedConnPropsBuilder.KEY_URL, H2Server.URL);
+        properties.put(JaasBasedConnPropsBuilder.KEY_USERNAME, H2Server.USER);
+        properties.put(JaasBasedConnPropsBuilder.KEY_PASSWORD, H2Server.PASSWORD);
+        properties.put(JaasBasedDbPropsBuilder.KEY_SQL_USER_QUERY, SQL_USER_QUERY);
+        properties.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, iterations);
+        if (sqlUpdate != null) {
+            properties.put(JaasBasedDbPropsBuilder.KEY_SQL_CREDENTIAL_UPDATE, sqlUpdate);
+        }
+        if (autoCommit != null) {
+            properties.put(JaasBasedConnPropsBuilder.KEY_AUTO_COMMIT, autoCommit);
+        }
+        return JaasBasedCommonPropsBuilder.build(properties);
+    }
+
+    /**
+     * Wait until all pending credential updates have been written
+     *
+     * @throws InterruptedException When the wait is interrupted
+     */
+    private static void awaitCredentialUpdates()
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (JdbcPasswordAuthenticator.getPendingCredentialUpdates() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Pending credential updates have not been written in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return A connection to the test database
+     * @throws FactoryException When no DB connection can be obtained
+     */
+    private static Connection getConnection()
+            throws FactoryException {
+
+        ConnectionProperties connSpec = MapBasedConnPropsBuilder.buildDefault();
+        connSpec.setDriver(H2Server.DRIVER);
+        connSpec.setUrl(H2Server.URL);
+        connSpec.setUsername(H2Server.USER);
+        connSpec.setPassword(H2Server.PASSWORD);
+        return ConnectionFactory.getConnection(connSpec);
+    }
+
+    /**
+     * Read a user's credential from the test database
+     *
+     * @param domain   The domain
+     * @param username The username
+     * @return The credential
+     * @throws FactoryException When no DB connection can be obtained
+     * @throws SQLException     When the query fails
+     */
+    private static String getCredential(final String domain, final String username)
+            throws FactoryException, SQLException {
+
+        try (Connection con = getConnection(); PreparedStatement stmt = con.prepareStatement(SQL_USER_QUERY)) {
+            stmt.setString(1, domain);
+            stmt.setString(2, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalStateException("User not found: " + domain + "/" + username);
+                }
+                return rs.getString(2);
+            }
+        }
+    }
+
+    /**
+     * Write a user's credential to the test database
+     *
+     * @param domain     The domain
+     * @param username   The username
+     * @param credential The credential
+     * @throws FactoryException When no DB connection can be obtained
+     * @throws SQLException     When the update fails
+     */
+    private static void setCredential(final String domain, final String username, final String credential)
+            throws FactoryException, SQLException {
+
+        try (Connection con = getConnection(); PreparedStatement stmt = con.prepareStatement(SQL_SET_CREDENTIAL)) {
+            stmt.setString(1, credential);
+            stmt.setString(2, domain);
+            stmt.setString(3, username);
+            stmt.executeUpdate();
+        }
+    }
+}
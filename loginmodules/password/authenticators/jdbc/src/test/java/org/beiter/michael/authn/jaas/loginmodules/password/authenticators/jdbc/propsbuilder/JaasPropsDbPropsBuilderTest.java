@@ -120,6 +120,77 @@ public class JaasPropsDbPropsBuilderTest {
         assertThat(error, dbProps2.getSqlUserQuery(), is(equalTo("42")));
     }
 
+    /**
+     * default sql credential update test
+     */
+    @Test
+    public void defaultSqlCredentialUpdateTest() {
+
+        DbProperties dbProps = JaasBasedDbPropsBuilder.buildDefault();
+
+        String error = "sql credential update does not match expected default value";
+        assertThat(error, dbProps.getSqlCredentialUpdate(), is(nullValue()));
+        error = "sql credential update does not match expected value";
+        dbProps.setSqlCredentialUpdate("42");
+        assertThat(error, dbProps.getSqlCredentialUpdate(), is(equalTo("42")));
+    }
+
+    /**
+     * sql credential update test
+     */
+    @Test
+    public void sqlCredentialUpdateTest() {
+
+        Map<String, String> map = new HashMap<>();
+
+        map.put(JaasBasedDbPropsBuilder.KEY_SQL_CREDENTIAL_UPDATE, null);
+        DbProperties dbProps = JaasBasedDbPropsBuilder.build(map);
+        String error = "sql credential update does not match expected default value";
+        assertThat(error, dbProps.getSqlCredentialUpdate(), is(nullValue()));
+
+        map.put(JaasBasedDbPropsBuilder.KEY_SQL_CREDENTIAL_UPDATE, "42");
+        dbProps = JaasBasedDbPropsBuilder.build(map);
+        error = "sql credential update does not match expected value";
+        assertThat(error, dbProps.getSqlCredentialUpdate(), is(equalTo("42")));
+
+        DbProperties dbProps2 = new DbProperties(dbProps);
+        error = "copy constructor does not copy field";
+        assertThat(error, dbProps2.getSqlCredentialUpdate(), is(equalTo("42")));
+    }
+
+    /**
+     * credential update batch size test
+     */
+    @Test
+    public void credentialUpdateBatchSizeTest() {
+
+        Map<String, String> map = new HashMap<>();
+
+        DbProperties dbProps = JaasBasedDbPropsBuilder.build(map);
+        String error = "credential update batch size does not match expected default value";
+        assertThat(error, dbProps.getCredentialUpdateBatchSize(),
+                is(equalTo(JaasBasedDbPropsBuilder.DEFAULT_CREDENTIAL_UPDATE_BATCH_SIZE)));
+
+        map.put(JaasBasedDbPropsBuilder.KEY_CREDENTIAL_UPDATE_BATCH_SIZE, "not a number");
+        dbProps = JaasBasedDbPropsBuilder.build(map);
+        assertThat(error, dbProps.getCredentialUpdateBatchSize(),
+                is(equalTo(JaasBasedDbPropsBuilder.DEFAULT_CREDENTIAL_UPDATE_BATCH_SIZE)));
+
+        map.put(JaasBasedDbPropsBuilder.KEY_CREDENTIAL_UPDATE_BATCH_SIZE, "0");
+        dbProps = JaasBasedDbPropsBuilder.build(map);
+        assertThat(error, dbProps.getCredentialUpdateBatchSize(),
+                is(equalTo(JaasBasedDbPropsBuilder.DEFAULT_CREDENTIAL_UPDATE_BATCH_SIZE)));
+
+        map.put(JaasBasedDbPropsBuilder.KEY_CREDENTIAL_UPDATE_BATCH_SIZE, "42");
+        dbProps = JaasBasedDbPropsBuilder.build(map);
+        error = "credential update batch size does not match expected value";
+        assertThat(error, dbProps.getCredentialUpdateBatchSize(), is(equalTo(42)));
+
+        DbProperties dbProps2 = new DbProperties(dbProps);
+        error = "copy constructor does not copy field";
+        assertThat(error, dbProps2.getCredentialUpdateBatchSize(), is(equalTo(42)));
+    }
+
     /**
      * additionalProperties test: make sure that the additional properties are being set to a new object (i.e. a
      * defensive copy is being made)
@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts login attempts per key in a sliding time window (see {@link LoginThrottle}).
+ * <p>
+ * Keys are keyed hashes of the values that identify them. As the hash key may differ between counters (e.g. a counter
+ * that is shared by the JVMs of a host uses a key that is shared by these JVMs), the counter computes the hashes of
+ * its keys.
+ * <p>
+ * Implementations are thread safe.
+ */
+interface AttemptCounter {
+
+    /**
+     * Compute the key of a sequence of values.
+     *
+     * @param values The values that identify the key, none of which may be {@code null}
+     * @return The key
+     */
+    ByteBuffer key(char[]... values);
+
+    /**
+     * Count an attempt of a key, unless the key has already reached the limit.
+     *
+     * @param key   The key (see {@link #key(char[]...)})
+     * @param limit The maximum number of attempts of the key in the sliding window
+     * @param now   The current time, in milliseconds since the epoch
+     * @return {@code true} if the attempt has been counted, {@code false} if the key is over the limit
+     */
+    boolean tryAcquire(ByteBuffer key, int limit, long now);
+
+    /**
+     * Take back an attempt of a key that has been counted in the current window, e.g. because it should not count
+     * against the limit after all.
+     *
+     * @param key The key (see {@link #key(char[]...)})
+     * @param now The current time, in milliseconds since the epoch
+     */
+    void release(ByteBuffer key, long now);
+
+    /**
+     * Estimate the number of attempts of a key in the sliding window.
+     *
+     * @param key The key (see {@link #key(char[]...)})
+     * @param now The current time, in milliseconds since the epoch
+     * @return The estimated number of attempts
+     */
+    double count(ByteBuffer key, long now);
+}
@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedValidatorCachePropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This password validator caches successful validations of another ("delegate") password validator for a short time.
+ * <p>
+ * Accounts that log in with the same password many times a minute (e.g. service accounts) pay the full cost of a slow
+ * password hash on every login. With this validator, only the first login in every cache period is validated by the
+ * delegate, and repeated logins with the same password against the same stored credential are answered from the
+ * cache.
+ * <p>
+ * The cache does not hold passwords or credentials: an entry is identified by a keyed hash (HMAC-SHA256 with a random
+ * key generated once per JVM) of the stored credential and the provided password. The username is not available to a
+ * password validator, but it is not required either: the result of a validation depends only on the stored credential
+ * and the provided password. Because the stored credential is part of the key, a changed credential (e.g. after a
+ * password change, or after a re-hash) never matches an entry created for the previous credential, which effectively
+ * invalidates the entry. Only successful validations are cached.
+ * <p>
+ * The caches are not owned by a validator instance: all validators with the same delegate class name, time to live,
+ * and maximum number of entries share one cache in the JVM (see {@link SharedInstances}).
+ * <p>
+ * The cache is opt-in: configure this class as the password validator, and the actual validator as the delegate (see
+ * {@link JaasBasedValidatorCachePropsBuilder}). If the delegate is an {@link UpgradeablePasswordValidator}, this
+ * validator passes re-hash requests on to it.
+ */
+public class CachingPasswordValidator
+        implements UpgradeablePasswordValidator {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CachingPasswordValidator.class);
+
+    /**
+     * The shared caches, by delegate class name, time to live, and maximum number of entries
+     */
+    private static final SharedInstances<ExpiringKeySet<ByteBuffer>> CACHES = new SharedInstances<>();
+
+    /**
+     * The validator that performs the actual validation, and the cache of its successful validations
+     */
+    private volatile State state;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The delegate is created and initialized with the same properties, and the validator uses the cache that is shared
+     * by all validators with the same configuration. Initializing this validator again replaces the delegate and, if
+     * the configuration has changed, the cache. If the delegate cannot be created, all validations fail.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final ValidatorCacheProperties cacheProps =
+                JaasBasedValidatorCachePropsBuilder.build(properties.getAdditionalProperties());
+
+        final String className = cacheProps.getDelegateClassName();
+        if (StringUtils.isBlank(className)) {
+            LOG.warn("No delegate password validator has been configured, all validations will fail");
+            state = null;
+            return;
+        }
+        if (CachingPasswordValidator.class.getName().equals(className)) {
+            LOG.warn("The caching password validator cannot delegate to itself, all validations will fail");
+            state = null;
+            return;
+        }
+
+        try {
+            final PasswordValidator delegate = PasswordValidatorFactory.getInstance(className, properties);
+            state = new State(delegate, getCache(className, cacheProps.getTtl(), cacheProps.getMaxEntries()));
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the delegate password validator, all validations will fail", e);
+            state = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the credential...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final boolean validate(final char[] providedPassword, final char[] storedCredential) {
+
+        final State myState = state;
+        if (myState == null) {
+            LOG.warn("The caching password validator has not been initialized with a delegate");
+            return false;
+        }
+
+        if (providedPassword == null || providedPassword.length == 0
+                || storedCredential == null || storedCredential.length == 0) {
+            return myState.delegate.validate(providedPassword, storedCredential);
+        }
+
+        final ByteBuffer key = KeyedHash.of(storedCredential, providedPassword);
+        if (myState.validated.contains(key)) {
+            return true;
+        }
+
+        final boolean valid = myState.delegate.validate(providedPassword, storedCredential);
+        if (valid) {
+            myState.validated.add(key);
+        }
+
+        return valid;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns {@code false} if the delegate is not an {@link UpgradeablePasswordValidator}.
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the credential...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final boolean needsRehash(final char[] storedCredential) {
+
+        final State myState = state;
+        return myState != null && myState.delegate instanceof UpgradeablePasswordValidator
+                && ((UpgradeablePasswordValidator) myState.delegate).needsRehash(storedCredential);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException When the delegate is not an {@link UpgradeablePasswordValidator}
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the password...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final char[] hash(final char[] providedPassword) {
+
+        final State myState = state;
+        if (myState == null || !(myState.delegate instanceof UpgradeablePasswordValidator)) {
+            final String error = "The delegate password validator cannot create credentials";
+            LOG.warn(error);
+            throw new IllegalStateException(error);
+        }
+
+        return ((UpgradeablePasswordValidator) myState.delegate).hash(providedPassword);
+    }
+
+    /**
+     * @return The number of cached validations, including expired validations that have not been purged yet
+     */
+    final int getCacheSize() {
+
+        final State myState = state;
+        if (myState == null) {
+            return 0;
+        }
+
+        return myState.validated.size();
+    }
+
+    /**
+     * Get the cache that is shared by all validators with the given configuration, creating it if required.
+     *
+     * @param className  The class name of the delegate
+     * @param ttl        The time to live of a cached validation
+     * @param maxEntries The maximum number of cached validations
+     * @return The shared cache
+     */
+    private static ExpiringKeySet<ByteBuffer> getCache(final String className, final long ttl, final int maxEntries) {
+
+        return CACHES.get(SharedInstances.key(className, ttl, maxEntries),
+                new SharedInstances.Factory<ExpiringKeySet<ByteBuffer>, RuntimeException>() {
+                    @Override
+                    public ExpiringKeySet<ByteBuffer> create() {
+
+                        return new ExpiringKeySet<>(ttl, maxEntries);
+                    }
+                });
+    }
+
+    /**
+     * Discard all shared caches.
+     * <p>
+     * Validators that have already been initialized keep their cache until they are initialized again.
+     */
+    static void reset() {
+
+        CACHES.clear();
+    }
+
+    /**
+     * The delegate and its cache, which are replaced together when the validator is initialized.
+     */
+    private static final class State {
+
+        /**
+         * The validator that performs the actual validation
+         */
+        private final PasswordValidator delegate;
+
+        /**
+         * The keyed hashes of the successfully validated credential / password combinations
+         */
+        private final ExpiringKeySet<ByteBuffer> validated;
+
+        /**
+         * Create a new state.
+         *
+         * @param delegate  The validator that performs the actual validation
+         * @param validated The cache of successful validations
+         */
+        private State(final PasswordValidator delegate, final ExpiringKeySet<ByteBuffer> validated) {
+
+            this.delegate = delegate;
+            this.validated = validated;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import javax.security.auth.callback.Callback;
+import java.io.Serializable;
+
+/**
+ * Asks the callback handler for a hint identifying the client of a login (e.g. the remote address), which the
+ * {@link PasswordLoginModule} uses to throttle the login attempts per client (see {@link ThrottleProperties}).
+ * <p>
+ * The hint has a callback of its own, so that callback handlers that do not know about it reject it with an
+ * {@link javax.security.auth.callback.UnsupportedCallbackException}, in which case the attempts are throttled per
+ * username only. A generic callback (such as a {@link javax.security.auth.callback.TextInputCallback}) would be
+ * answered by such handlers with an unrelated value (e.g. the domain), which would throttle all clients that send
+ * that value as a single client.
+ */
+public class ClientHintCallback
+        implements Callback, Serializable {
+
+    /**
+     * Serialization
+     */
+    private static final long serialVersionUID = 20161019L;
+
+    /**
+     * The client hint, {@code null} if it has not been provided
+     */
+    private String hint;
+
+    /**
+     * Get the client hint provided by the callback handler.
+     *
+     * @return The client hint, or {@code null} if it has not been provided
+     */
+    public final String getHint() {
+
+        return hint;
+    }
+
+    /**
+     * Provide the client hint.
+     *
+     * @param hint The client hint, may be {@code null} if the client is unknown
+     */
+    public final void setHint(final String hint) {
+
+        this.hint = hint;
+    }
+}
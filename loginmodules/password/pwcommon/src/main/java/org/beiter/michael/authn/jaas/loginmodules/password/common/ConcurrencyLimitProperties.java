@@ -0,0 +1,269 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the adaptive concurrency limiter of the {@link PasswordLoginModule}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class ConcurrencyLimitProperties {
+
+    /**
+     * @see ConcurrencyLimitProperties#setEnabled(boolean)
+     */
+    private boolean enabled;
+
+    /**
+     * @see ConcurrencyLimitProperties#setInitialLimit(int)
+     */
+    private int initialLimit;
+
+    /**
+     * @see ConcurrencyLimitProperties#setMinLimit(int)
+     */
+    private int minLimit;
+
+    /**
+     * @see ConcurrencyLimitProperties#setMaxLimit(int)
+     */
+    private int maxLimit;
+
+    /**
+     * @see ConcurrencyLimitProperties#setTolerance(double)
+     */
+    private double tolerance;
+
+    /**
+     * @see ConcurrencyLimitProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of concurrency limit properties, with most values being set to <code>null</code>, 0, or
+     * empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as the {@code JaasBasedConcurrencyLimitPropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public ConcurrencyLimitProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of concurrency limit properties from an existing set of concurrency limit properties, making a
+     * defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see ConcurrencyLimitProperties()
+     */
+    public ConcurrencyLimitProperties(final ConcurrencyLimitProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setEnabled(properties.isEnabled());
+        setInitialLimit(properties.getInitialLimit());
+        setMinLimit(properties.getMinLimit());
+        setMaxLimit(properties.getMaxLimit());
+        setTolerance(properties.getTolerance());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return Whether the number of concurrent authentications is limited
+     * @see ConcurrencyLimitProperties#setEnabled(boolean)
+     */
+    public final boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Determines whether the login module limits the number of authentications that run concurrently in the JVM, and
+     * rejects the logins over the limit immediately instead of queueing them. The limit adapts to the measured
+     * latency of the authentications.
+     *
+     * @param enabled {@code true} to enable the limiter
+     */
+    public final void setEnabled(final boolean enabled) {
+
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The limit before any latency has been measured
+     * @see ConcurrencyLimitProperties#setInitialLimit(int)
+     */
+    public final int getInitialLimit() {
+
+        return initialLimit;
+    }
+
+    /**
+     * The number of concurrent authentications that are allowed before any latency has been measured.
+     *
+     * @param initialLimit The initial limit
+     */
+    public final void setInitialLimit(final int initialLimit) {
+
+        this.initialLimit = initialLimit;
+    }
+
+    /**
+     * @return The lowest limit
+     * @see ConcurrencyLimitProperties#setMinLimit(int)
+     */
+    public final int getMinLimit() {
+
+        return minLimit;
+    }
+
+    /**
+     * The lowest number of concurrent authentications that is allowed, however high the latency.
+     *
+     * @param minLimit The lowest limit
+     */
+    public final void setMinLimit(final int minLimit) {
+
+        this.minLimit = minLimit;
+    }
+
+    /**
+     * @return The highest limit
+     * @see ConcurrencyLimitProperties#setMaxLimit(int)
+     */
+    public final int getMaxLimit() {
+
+        return maxLimit;
+    }
+
+    /**
+     * The highest number of concurrent authentications that is allowed, however low the latency.
+     *
+     * @param maxLimit The highest limit
+     */
+    public final void setMaxLimit(final int maxLimit) {
+
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @return The tolerated ratio of the recent latency to the long-term latency
+     * @see ConcurrencyLimitProperties#setTolerance(double)
+     */
+    public final double getTolerance() {
+
+        return tolerance;
+    }
+
+    /**
+     * The ratio of the recent latency of the authentications to their long-term latency that is tolerated before the
+     * limit is reduced. E.g. with a tolerance of 2, the limit keeps growing until the recent latency is twice the
+     * long-term latency.
+     *
+     * @param tolerance The tolerance, at least 1
+     */
+    public final void setTolerance(final double tolerance) {
+
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see ConcurrencyLimitProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
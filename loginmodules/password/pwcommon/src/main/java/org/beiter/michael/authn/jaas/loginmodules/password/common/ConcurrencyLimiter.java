@@ -0,0 +1,337 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the number of authentications that run concurrently, and adapts the limit to the measured latency of the
+ * authentications, similar to the congestion control of TCP.
+ * <p>
+ * The limiter compares the recent latency (a short moving average) to the long-term latency (a long moving average).
+ * While the recent latency is within the tolerance of the long-term latency, the limit grows by about the square root
+ * of the limit per completed authentication. When the recent latency exceeds the tolerance, e.g. because the user
+ * store or the CPU are saturated, the limit shrinks in proportion to the excess latency, by at most half, regardless of
+ * how much of it is in use. The limit only grows while at least half of it is in use, so that an idle system does not
+ * build up a limit it has never verified. The long-term latency decays quickly when it is far above the recent
+ * latency, so that the limit recovers once an overload has passed.
+ * <p>
+ * Logins over the limit are rejected immediately, rather than queued: under overload, queueing only adds to the
+ * latency of every login, while rejecting the excess keeps the latency (and hence the number of completed logins) of
+ * the admitted logins stable.
+ * <p>
+ * The latencies are collected in windows of a fixed number of samples, which are accumulated without locking. The
+ * limit is only recomputed (under a lock) at the end of a window, so that releasing a permit does not serialize the
+ * authentications. A sample that races with the end of its window may be dropped, which does not matter for the
+ * moving averages.
+ * <p>
+ * The limiter is shared by all login modules in the JVM with the same configuration (see {@link SharedInstances}).
+ * Acquiring and releasing a permit does not lock. This class is thread safe.
+ */
+final class ConcurrencyLimiter {
+
+    /**
+     * The number of samples per window, i.e. the number of released authentications after which the limit is
+     * recomputed
+     */
+    static final int WINDOW_SAMPLES = 10;
+
+    /**
+     * The weight of a new limit in the smoothed limit
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The number of samples of the short moving average of the latency
+     */
+    private static final int SHORT_WINDOW = 10;
+
+    /**
+     * The number of samples of the long moving average of the latency
+     */
+    private static final int LONG_WINDOW = 600;
+
+    /**
+     * The lowest gradient, i.e. the limit shrinks by at most half per adjustment
+     */
+    private static final double MIN_GRADIENT = 0.5;
+
+    /**
+     * The ratio of the long-term latency to the recent latency over which the long-term latency decays quickly
+     */
+    private static final double DRIFT_RATIO = 2.0;
+
+    /**
+     * The factor by which the long-term latency decays per sample while it is over the drift ratio
+     */
+    private static final double DRIFT_DECAY = 0.95;
+
+    /**
+     * The limiters shared by all login modules, by configuration
+     */
+    private static final SharedInstances<ConcurrencyLimiter> INSTANCES = new SharedInstances<>();
+
+    /**
+     * The configuration of the limiter
+     */
+    private final ConcurrencyLimitProperties properties;
+
+    /**
+     * The number of authentications in progress
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The window that collects the current samples
+     */
+    private final AtomicReference<Window> window = new AtomicReference<>(new Window());
+
+    /**
+     * The current limit, as applied when acquiring a permit
+     */
+    private volatile int limit;
+
+    /**
+     * The current limit, before rounding (guarded by this)
+     */
+    private double estimatedLimit;
+
+    /**
+     * The short moving average of the latency in nanoseconds, 0 before the first sample (guarded by this)
+     */
+    private double shortLatency;
+
+    /**
+     * The long moving average of the latency in nanoseconds, 0 before the first sample (guarded by this)
+     */
+    private double longLatency;
+
+    /**
+     * Create a limiter without any authentications in progress.
+     *
+     * @param properties The configuration of the limiter
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When the minimum limit is not positive, the maximum limit is lower than the
+     *                                  minimum limit, or the tolerance is lower than 1
+     */
+    ConcurrencyLimiter(final ConcurrencyLimitProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+        Validate.isTrue(properties.getMinLimit() > 0, "The minimum limit must be positive");
+        Validate.isTrue(properties.getMaxLimit() >= properties.getMinLimit(),
+                "The maximum limit must not be lower than the minimum limit");
+        Validate.isTrue(properties.getTolerance() >= 1, "The tolerance must be at least 1");
+
+        this.properties = new ConcurrencyLimitProperties(properties);
+        this.estimatedLimit = clamp(properties.getInitialLimit());
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Return the limiter shared by all login modules with the given configuration, creating a limiter without any
+     * authentications in progress if there is none yet.
+     *
+     * @param properties The configuration of the limiter
+     * @return The shared limiter
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When the minimum limit is not positive, the maximum limit is lower than the
+     *                                  minimum limit, or the tolerance is lower than 1
+     */
+    static ConcurrencyLimiter getInstance(final ConcurrencyLimitProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final String key = SharedInstances.key(properties.getInitialLimit(), properties.getMinLimit(),
+                properties.getMaxLimit(), properties.getTolerance());
+        return INSTANCES.get(key, new SharedInstances.Factory<ConcurrencyLimiter, RuntimeException>() {
+            @Override
+            public ConcurrencyLimiter create() {
+
+                return new ConcurrencyLimiter(properties);
+            }
+        });
+    }
+
+    /**
+     * Admit an authentication, unless the limit has been reached. Every admitted authentication must be released
+     * with {@link #release(long)} when it completes.
+     *
+     * @return {@code true} if the authentication has been admitted, {@code false} if it must be rejected
+     */
+    boolean tryAcquire() {
+
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release an admitted authentication, and adapt the limit to its latency.
+     *
+     * @param latency The latency of the authentication, in nanoseconds
+     */
+    void release(final long latency) {
+
+        final int current = inFlight.getAndDecrement();
+        update(latency, current);
+    }
+
+    /**
+     * @return The current limit
+     */
+    int getLimit() {
+
+        return limit;
+    }
+
+    /**
+     * @return The number of authentications in progress
+     */
+    int getInFlight() {
+
+        return inFlight.get();
+    }
+
+    /**
+     * Record the latency of a completed authentication, and adapt the limit if it completes a window.
+     *
+     * @param latency The latency of the authentication, in nanoseconds
+     * @param current The number of authentications that were in progress when it completed, including itself
+     */
+    void update(final long latency, final int current) {
+
+        // a clock with a coarse resolution may report no latency at all
+        final Window myWindow = window.get();
+        if (myWindow.add(Math.max(1L, latency), current) == WINDOW_SAMPLES) {
+            // only the sample that completes the window gets here, later samples of the window are dropped
+            window.set(new Window());
+            adjust((double) myWindow.latencySum.get() / Math.max(WINDOW_SAMPLES, myWindow.count.get()),
+                    myWindow.maxInFlight.get());
+        }
+    }
+
+    /**
+     * Adapt the limit to a completed window. The moving averages and the limit are advanced once per sample, as if
+     * every sample of the window had the average latency of the window, so that the limit adapts at the same rate as
+     * if it was recomputed after every authentication.
+     *
+     * @param latency The average latency of the window, in nanoseconds
+     * @param current The highest number of authentications that were in progress during the window
+     */
+    private synchronized void adjust(final double latency, final int current) {
+
+        for (int i = 0; i < WINDOW_SAMPLES; i++) {
+            if (longLatency == 0) {
+                shortLatency = latency;
+                longLatency = latency;
+            } else {
+                shortLatency += (latency - shortLatency) * 2 / (SHORT_WINDOW + 1);
+                longLatency += (latency - longLatency) * 2 / (LONG_WINDOW + 1);
+            }
+
+            // let the long-term latency follow quickly when the latency drops, e.g. after an overload has passed
+            if (longLatency > shortLatency * DRIFT_RATIO) {
+                longLatency *= DRIFT_DECAY;
+            }
+
+            // shrink on rising latency regardless of the load, but do not grow a limit that is not used
+            final double gradient = Math.max(MIN_GRADIENT,
+                    Math.min(1.0, properties.getTolerance() * longLatency / shortLatency));
+            double newLimit = estimatedLimit * gradient;
+            if (current >= estimatedLimit / 2) {
+                newLimit += Math.sqrt(estimatedLimit);
+            }
+            estimatedLimit = clamp(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        }
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @param value A limit
+     * @return The limit, within the configured minimum and maximum limits
+     */
+    private double clamp(final double value) {
+
+        return Math.max(properties.getMinLimit(), Math.min(properties.getMaxLimit(), value));
+    }
+
+    /**
+     * The samples of a window, which are accumulated without locking.
+     */
+    private static final class Window {
+
+        /**
+         * The sum of the latencies of the samples, in nanoseconds
+         */
+        private final AtomicLong latencySum = new AtomicLong();
+
+        /**
+         * The number of samples
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * The highest number of authentications in progress of the samples
+         */
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        /**
+         * Add a sample to the window.
+         *
+         * @param latency The latency of the authentication, in nanoseconds
+         * @param current The number of authentications that were in progress when it completed, including itself
+         * @return The number of samples in the window, including this sample
+         */
+        int add(final long latency, final int current) {
+
+            latencySum.addAndGet(latency);
+            int max = maxInFlight.get();
+            while (current > max && !maxInFlight.compareAndSet(max, current)) {
+                max = maxInFlight.get();
+            }
+
+            return count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A size bounded set of keys, each of which expires a fixed time after it has been added.
+ * <p>
+ * The keys are kept in the order in which they were added, which is also the order in which they expire. This makes
+ * the eviction policy simple: expired keys are removed from the head when new keys are added, and if the set is full
+ * nevertheless, the oldest key (i.e. the one that would expire next) is evicted. Looking up a key does not extend its
+ * lifetime, and adding a key that is already present restarts its lifetime.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <K> The type of the keys
+ */
+final class ExpiringKeySet<K> {
+
+    /**
+     * The keys, mapped to their expiry time (in {@link System#nanoTime()} terms), in insertion order
+     */
+    private final LinkedHashMap<K, Long> entries = new LinkedHashMap<>();
+
+    /**
+     * The time to live of a key in nanoseconds
+     */
+    private final long ttlNanos;
+
+    /**
+     * The maximum number of keys
+     */
+    private final int maxSize;
+
+    /**
+     * Create an empty set.
+     *
+     * @param ttlMillis The time to live of a key in milliseconds
+     * @param maxSize   The maximum number of keys
+     * @throws IllegalArgumentException When {@code ttlMillis} or {@code maxSize} are not positive
+     */
+    ExpiringKeySet(final long ttlMillis, final int maxSize) {
+
+        Validate.isTrue(ttlMillis > 0, "The validated value 'ttlMillis' is not positive");
+        Validate.isTrue(maxSize > 0, "The validated value 'maxSize' is not positive");
+
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Check if a key is present and has not expired.
+     *
+     * @param key The key to look up
+     * @return {@code true} if the key is present and has not expired, {@code false} otherwise
+     */
+    synchronized boolean contains(final K key) {
+
+        final Long expiry = entries.get(key);
+        if (expiry == null) {
+            return false;
+        }
+
+        if (System.nanoTime() - expiry >= 0) {
+            entries.remove(key);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Add a key, or restart its lifetime if it is already present. Expired keys are purged, and the oldest key is
+     * evicted if the set is full.
+     *
+     * @param key The key to add
+     */
+    synchronized void add(final K key) {
+
+        final long now = System.nanoTime();
+
+        // remove first, so that the key moves to the end of the insertion order
+        entries.remove(key);
+        purge(now);
+        if (entries.size() >= maxSize) {
+            final Iterator<K> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+
+        entries.put(key, now + ttlNanos);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key The key to remove
+     */
+    synchronized void remove(final K key) {
+
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all keys.
+     */
+    synchronized void clear() {
+
+        entries.clear();
+    }
+
+    /**
+     * @return The number of keys, including keys that have expired but have not been purged yet
+     */
+    synchronized int size() {
+
+        return entries.size();
+    }
+
+    /**
+     * Remove the expired keys from the head of the insertion order.
+     *
+     * @param now The current time in {@link System#nanoTime()} terms
+     */
+    private void purge(final long now) {
+
+        final Iterator<Map.Entry<K, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && now - iterator.next().getValue() >= 0) {
+            iterator.remove();
+        }
+    }
+}
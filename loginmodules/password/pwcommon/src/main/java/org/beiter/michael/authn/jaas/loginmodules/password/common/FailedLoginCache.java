@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers recently failed credentials (domain, username, and password), so that a repeated attempt with the same
+ * credentials can be rejected before the authenticator looks up the user and hashes the password.
+ * <p>
+ * Credentials are identified by a keyed hash (see {@link KeyedHash}), the cache does not hold usernames or passwords.
+ * A failure is remembered for a fixed time window starting with the failed attempt. Memory is bounded by a maximum
+ * number of entries: when the cache is full, the oldest failure is evicted.
+ * <p>
+ * The cache is shared by all login modules in the JVM with the same configuration (see {@link SharedInstances}).
+ * This class is thread safe.
+ */
+final class FailedLoginCache {
+
+    /**
+     * The caches shared by all login modules, by window and maximum number of entries
+     */
+    private static final SharedInstances<FailedLoginCache> INSTANCES = new SharedInstances<>();
+
+    /**
+     * The keyed hashes of the recently failed credentials
+     */
+    private final ExpiringKeySet<ByteBuffer> failures;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param window     The time in milliseconds for which a failure is remembered
+     * @param maxEntries The maximum number of remembered failures
+     */
+    private FailedLoginCache(final long window, final int maxEntries) {
+
+        this.failures = new ExpiringKeySet<>(window, maxEntries);
+    }
+
+    /**
+     * Return the cache shared by all login modules with the given configuration, creating an empty cache if there is
+     * none yet.
+     *
+     * @param properties The configuration of the cache
+     * @return The shared cache
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When the window or the maximum number of entries are not positive
+     */
+    static FailedLoginCache getInstance(final FailureCacheProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final long window = properties.getWindow();
+        final int maxEntries = properties.getMaxEntries();
+        return INSTANCES.get(SharedInstances.key(window, maxEntries),
+                new SharedInstances.Factory<FailedLoginCache, RuntimeException>() {
+                    @Override
+                    public FailedLoginCache create() {
+
+                        return new FailedLoginCache(window, maxEntries);
+                    }
+                });
+    }
+
+    /**
+     * Check if a set of credentials has recently failed.
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param password The password
+     * @return {@code true} if the credentials have failed within the time window, {@code false} otherwise
+     */
+    boolean contains(final String domain, final String userName, final char[] password) {
+
+        return failures.contains(key(domain, userName, password));
+    }
+
+    /**
+     * Remember a failed set of credentials.
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param password The password
+     */
+    void add(final String domain, final String userName, final char[] password) {
+
+        failures.add(key(domain, userName, password));
+    }
+
+    /**
+     * @return The number of remembered failures, including expired failures that have not been purged yet
+     */
+    int size() {
+
+        return failures.size();
+    }
+
+    /**
+     * Compute the cache key for a set of credentials.
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param password The password
+     * @return The cache key
+     */
+    private static ByteBuffer key(final String domain, final String userName, final char[] password) {
+
+        // private method asserts
+        assert password != null : "The password cannot be null";
+
+        // the domain and the username may legitimately be null (they are whatever the callback handler returned)
+        final char[] myDomain;
+        if (domain == null) {
+            myDomain = new char[0];
+        } else {
+            myDomain = domain.toCharArray();
+        }
+        final char[] myUserName;
+        if (userName == null) {
+            myUserName = new char[0];
+        } else {
+            myUserName = userName.toCharArray();
+        }
+
+        return KeyedHash.of(myDomain, myUserName, password);
+    }
+}
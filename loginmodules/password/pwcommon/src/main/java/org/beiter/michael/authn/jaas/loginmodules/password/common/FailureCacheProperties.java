@@ -0,0 +1,219 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the recently failed credentials cache of the {@link PasswordLoginModule}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class FailureCacheProperties {
+
+    /**
+     * @see FailureCacheProperties#setEnabled(boolean)
+     */
+    private boolean enabled;
+
+    /**
+     * @see FailureCacheProperties#setWindow(long)
+     */
+    private long window;
+
+    /**
+     * @see FailureCacheProperties#setMaxEntries(int)
+     */
+    private int maxEntries;
+
+    /**
+     * @see FailureCacheProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of failure cache properties, with most values being set to <code>null</code>, 0, or
+     * empty (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as the {@code JaasBasedFailureCachePropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public FailureCacheProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of failure cache properties from an existing set of failure cache properties, making a defensive
+     * copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see FailureCacheProperties()
+     */
+    public FailureCacheProperties(final FailureCacheProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setEnabled(properties.isEnabled());
+        setWindow(properties.getWindow());
+        setMaxEntries(properties.getMaxEntries());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return Whether recently failed credentials are rejected without contacting the authenticator
+     * @see FailureCacheProperties#setEnabled(boolean)
+     */
+    public final boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Determines whether the login module remembers recently failed credentials, and rejects a repeated attempt with
+     * the same credentials without contacting the authenticator (and hence without a user store lookup and without
+     * a password hash).
+     *
+     * @param enabled {@code true} to enable the cache
+     */
+    public final void setEnabled(final boolean enabled) {
+
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The time in milliseconds for which a failed credential is remembered
+     * @see FailureCacheProperties#setWindow(long)
+     */
+    public final long getWindow() {
+
+        return window;
+    }
+
+    /**
+     * The time in milliseconds for which a failed credential is remembered. The time starts when the authenticator
+     * rejects the credential, and is not extended by repeated attempts: the authenticator sees a repeatedly failing
+     * credential at most once per this period.
+     *
+     * @param window The time window in milliseconds
+     */
+    public final void setWindow(final long window) {
+
+        this.window = window;
+    }
+
+    /**
+     * @return The maximum number of remembered failed credentials
+     * @see FailureCacheProperties#setMaxEntries(int)
+     */
+    public final int getMaxEntries() {
+
+        return maxEntries;
+    }
+
+    /**
+     * The maximum number of remembered failed credentials. When the cache is full, the oldest failure is evicted.
+     *
+     * @param maxEntries The maximum number of entries
+     */
+    public final void setMaxEntries(final int maxEntries) {
+
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see FailureCacheProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
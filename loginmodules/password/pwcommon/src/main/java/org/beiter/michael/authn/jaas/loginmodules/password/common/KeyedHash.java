@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.array.Cleanser;
+import org.beiter.michael.array.Converter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Computes an HMAC-SHA256 over a sequence of values with a random key that is generated once per JVM.
+ * <p>
+ * The hashes are meant to be used as keys in in-memory caches that must not hold passwords: they are fast to compute,
+ * but cannot be reversed or brute forced without the key, which never leaves the process. Hashes from different JVMs
+ * (or from before a restart) never match, unless they are computed with a key that is explicitly shared (see
+ * {@link #newMac(byte[])}).
+ */
+final class KeyedHash {
+
+    /**
+     * The HMAC algorithm
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * The length of the random key in bytes
+     */
+    static final int KEY_LENGTH = 32;
+
+    /**
+     * The character encoding used to convert values to bytes
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The per-process random key
+     */
+    private static final SecretKeySpec KEY;
+
+    static {
+        final byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        KEY = new SecretKeySpec(key, ALGORITHM);
+        Cleanser.wipe(key);
+    }
+
+    /**
+     * One MAC instance per thread, as {@link Mac} is not thread safe
+     */
+    private static final ThreadLocal<Mac> MAC = newMac(KEY);
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private KeyedHash() {
+    }
+
+    /**
+     * Compute the keyed hash of a sequence of values. Every value is prefixed with its length, so that different
+     * sequences never produce the same input (e.g. {@code "ab", "c"} vs {@code "a", "bc"}).
+     * <p>
+     * The intermediate byte representations of the values are wiped before this method returns.
+     *
+     * @param values The values to hash, none of which may be {@code null}
+     * @return The hash, wrapped in a buffer that implements {@code equals()} and {@code hashCode()} on its content
+     * @throws IllegalStateException When the JVM does not provide the HMAC-SHA256 algorithm
+     */
+    static ByteBuffer of(final char[]... values) {
+
+        return of(MAC, values);
+    }
+
+    /**
+     * Create the per-thread MAC instances for a key that is shared with other processes, e.g. to compute hashes that
+     * match across the JVMs of a host.
+     *
+     * @param key The key, which is copied
+     * @return The per-thread MAC instances
+     */
+    static ThreadLocal<Mac> newMac(final byte[] key) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        return newMac(new SecretKeySpec(key, ALGORITHM));
+    }
+
+    /**
+     * Compute the keyed hash of a sequence of values with the key of the provided MAC instances.
+     *
+     * @param macs   The per-thread MAC instances (see {@link #newMac(byte[])})
+     * @param values The values to hash, none of which may be {@code null}
+     * @return The hash, wrapped in a buffer that implements {@code equals()} and {@code hashCode()} on its content
+     * @throws IllegalStateException When the JVM does not provide the HMAC-SHA256 algorithm
+     * @see #of(char[]...)
+     */
+    static ByteBuffer of(final ThreadLocal<Mac> macs, final char[]... values) {
+
+        // private method asserts
+        assert macs != null : "The MAC instances cannot be null";
+        assert values != null : "The values cannot be null";
+
+        final Mac mac = macs.get();
+        final byte[] length = new byte[Integer.SIZE / Byte.SIZE];
+        for (final char[] value : values) {
+            assert value != null : "The value cannot be null";
+
+            final byte[] bytes = Converter.toBytes(value, ENCODING);
+            try {
+                ByteBuffer.wrap(length).putInt(0, bytes.length);
+                mac.update(length);
+                mac.update(bytes);
+            } finally {
+                Cleanser.wipe(bytes);
+            }
+        }
+
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    /**
+     * Create the per-thread MAC instances for a key.
+     *
+     * @param key The key
+     * @return The per-thread MAC instances
+     */
+    private static ThreadLocal<Mac> newMac(final SecretKeySpec key) {
+
+        return new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+
+                try {
+                    final Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(key);
+                    return mac;
+                } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                    throw new IllegalStateException("The JVM does not support " + ALGORITHM, e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Throttles brute force attacks: counts the login attempts per username and domain (and per client, if configured) in
+ * a sliding window, and rejects further attempts over the limit before the authenticator looks up the user and hashes
+ * the password.
+ * <p>
+ * An attempt is counted when it starts, so that a burst of concurrent attempts cannot pass the limit before the first
+ * of them fails. Attempts that do not fail because of the credentials (i.e. successful logins, and failures for other
+ * reasons, such as an unavailable user store) are released again, so that only failed attempts count against the
+ * limit in the long run, and an outage of the user store does not throttle users.
+ * <p>
+ * Keys are identified by a keyed hash (see {@link KeyedHash}), the throttle does not hold usernames or client hints.
+ * Memory is bounded by the number of slots of the counters. By default, the attempts are counted in the memory of the
+ * JVM (see {@link SlidingWindowCounter}). If a shared file is configured, the attempts are counted in a memory-mapped
+ * file instead, which is shared by all JVMs on the host that use the same file (see {@link MappedAttemptCounter}), so
+ * that an attacker cannot multiply the limit by spreading the attempts over the JVMs. If the file cannot be used, the
+ * throttle falls back to counting in the memory of the JVM.
+ * <p>
+ * The throttle is shared by all login modules in the JVM with the same configuration (see {@link SharedInstances}).
+ * This class is thread safe.
+ */
+final class LoginThrottle {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LoginThrottle.class);
+
+    /**
+     * The type of the keys of usernames
+     */
+    private static final char[] USER = {'u'};
+
+    /**
+     * The type of the keys of clients
+     */
+    private static final char[] CLIENT = {'c'};
+
+    /**
+     * The throttles shared by all login modules, by configuration
+     */
+    private static final SharedInstances<LoginThrottle> INSTANCES = new SharedInstances<>();
+
+    /**
+     * The configuration of the throttle
+     */
+    private final ThrottleProperties properties;
+
+    /**
+     * The attempts per username and domain
+     */
+    private final AttemptCounter users;
+
+    /**
+     * The attempts per client, {@code null} if clients are not throttled
+     */
+    private final AttemptCounter clients;
+
+    /**
+     * Create a throttle without any attempts.
+     *
+     * @param properties The configuration of the throttle
+     */
+    private LoginThrottle(final ThrottleProperties properties) {
+
+        this.properties = new ThrottleProperties(properties);
+
+        // the shared file holds the keys of the usernames and of the clients in one table
+        final AttemptCounter shared = openSharedCounter(properties);
+        if (shared == null) {
+            this.users = new SlidingWindowCounter(properties.getSlots(), properties.getWindow());
+        } else {
+            this.users = shared;
+        }
+        if (properties.getMaxClientAttempts() <= 0) {
+            this.clients = null;
+        } else if (shared == null) {
+            this.clients = new SlidingWindowCounter(properties.getSlots(), properties.getWindow());
+        } else {
+            this.clients = shared;
+        }
+    }
+
+    /**
+     * Return the throttle shared by all login modules with the given configuration, creating a throttle without any
+     * attempts if there is none yet.
+     *
+     * @param properties The configuration of the throttle
+     * @return The shared throttle
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When the window, the maximum number of attempts, or the number of slots are not
+     *                                  positive, or the maximum number of attempts per client is negative
+     */
+    static LoginThrottle getInstance(final ThrottleProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+        Validate.isTrue(properties.getMaxAttempts() > 0, "The maximum number of attempts must be positive");
+        Validate.isTrue(properties.getMaxClientAttempts() >= 0,
+                "The maximum number of attempts per client must not be negative");
+
+        final String key = SharedInstances.key(properties.getWindow(), properties.getMaxAttempts(),
+                properties.getMaxClientAttempts(), properties.getSlots(), properties.getSharedFile());
+        return INSTANCES.get(key, new SharedInstances.Factory<LoginThrottle, RuntimeException>() {
+            @Override
+            public LoginThrottle create() {
+
+                return new LoginThrottle(properties);
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if the attempts are also throttled per client
+     */
+    boolean isClientThrottled() {
+
+        return clients != null;
+    }
+
+    /**
+     * @return {@code true} if the attempts are counted in a file that is shared with other JVMs
+     */
+    boolean isShared() {
+
+        return users instanceof MappedAttemptCounter;
+    }
+
+    /**
+     * Count a login attempt, unless the username or the client have already reached their limit.
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param client   The client hint, may be {@code null} if the client is unknown
+     * @return {@code true} if the attempt may proceed, {@code false} if it is to be rejected
+     */
+    boolean tryAcquire(final String domain, final String userName, final String client) {
+
+        final long now = System.currentTimeMillis();
+        final ByteBuffer userKey = userKey(users, domain, userName);
+        if (!users.tryAcquire(userKey, properties.getMaxAttempts(), now)) {
+            return false;
+        }
+
+        if (clients != null && client != null
+                && !clients.tryAcquire(clientKey(clients, client), properties.getMaxClientAttempts(), now)) {
+            users.release(userKey, now);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Release a login attempt that has been counted by {@link #tryAcquire(String, String, String)}, because it has
+     * not failed because of the credentials.
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param client   The client hint, may be {@code null} if the client is unknown
+     */
+    void release(final String domain, final String userName, final String client) {
+
+        final long now = System.currentTimeMillis();
+        users.release(userKey(users, domain, userName), now);
+        if (clients != null && client != null) {
+            clients.release(clientKey(clients, client), now);
+        }
+    }
+
+    /**
+     * Open the counter in the shared file, if a shared file is configured.
+     *
+     * @param properties The configuration of the throttle
+     * @return The counter, or {@code null} if no shared file is configured, or the file cannot be used
+     */
+    private static AttemptCounter openSharedCounter(final ThrottleProperties properties) {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (StringUtils.isBlank(properties.getSharedFile())) {
+            return null;
+        }
+
+        try {
+            return MappedAttemptCounter.getInstance(new File(properties.getSharedFile()), properties.getSlots(),
+                    properties.getWindow());
+        } catch (IOException e) {
+            LOG.error("Cannot use the shared attempt counter file, counting the attempts in this JVM only", e);
+            return null;
+        }
+    }
+
+    /**
+     * Compute the key of a username.
+     *
+     * @param counter  The counter that computes the key
+     * @param domain   The domain
+     * @param userName The username
+     * @return The key
+     */
+    private static ByteBuffer userKey(final AttemptCounter counter, final String domain, final String userName) {
+
+        // the domain and the username may legitimately be null (they are whatever the callback handler returned)
+        final char[] myDomain;
+        if (domain == null) {
+            myDomain = new char[0];
+        } else {
+            myDomain = domain.toCharArray();
+        }
+        final char[] myUserName;
+        if (userName == null) {
+            myUserName = new char[0];
+        } else {
+            myUserName = userName.toCharArray();
+        }
+
+        return counter.key(USER, myDomain, myUserName);
+    }
+
+    /**
+     * Compute the key of a client.
+     *
+     * @param counter The counter that computes the key
+     * @param client  The client hint
+     * @return The key
+     */
+    private static ByteBuffer clientKey(final AttemptCounter counter, final String client) {
+
+        // private method asserts
+        assert client != null : "The client cannot be null";
+
+        return counter.key(CLIENT, client.toCharArray());
+    }
+}
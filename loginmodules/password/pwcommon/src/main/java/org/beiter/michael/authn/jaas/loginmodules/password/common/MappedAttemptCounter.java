@@ -0,0 +1,484 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts login attempts per key in a sliding time window in a memory-mapped file, so that all JVMs on a host that map
+ * the same file share the counters at memory speed, without an external service.
+ * <p>
+ * The file starts with a header (the magic number "JLCK", the format version, the number of slots, the length of a
+ * window, and a random hash key that is generated by the process that creates the file), followed by a table of
+ * slots. Every slot holds the fingerprint of its key and the counts of the key (see
+ * {@link SlidingWindowCounter#next(long, long, int)}), 8 bytes each. The slots are an open addressing hash table with
+ * linear probing: a key claims the first free slot of its probe sequence, and a slot is free if it has never been
+ * claimed, or if its counts have expired. Both the fingerprint and the counts are updated with compare-and-set
+ * instructions on the shared memory, so processes never block each other. Slots are never removed, so lookups do not
+ * need tombstones.
+ * <p>
+ * As {@link MappedByteBuffer} does not provide atomic operations, the slots are accessed through {@link SharedMemory}.
+ * If it is not available, the counter cannot be created.
+ * <p>
+ * Keys are keyed hashes with the key from the header (see {@link KeyedHash#newMac(byte[])}), so that the JVMs that
+ * share the file compute the same keys, but an attacker without access to the file cannot choose keys that collide.
+ * The file is created readable by its owner only (where the file system supports POSIX permissions). Keys that do not
+ * find a free slot in their probe sequence (i.e. when the table is full) are counted in the memory of the JVM instead.
+ * <p>
+ * The file of a counter is opened once per JVM (see {@link #getInstance(File, int, long)}), and remains mapped until
+ * the JVM exits. This class is thread safe.
+ */
+final class MappedAttemptCounter
+        implements AttemptCounter {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(MappedAttemptCounter.class);
+
+    /**
+     * The counters, by canonical file path, window, and table size
+     */
+    private static final SharedInstances<MappedAttemptCounter> INSTANCES = new SharedInstances<>();
+
+    /**
+     * The magic number of the file ("JLCK")
+     */
+    private static final int MAGIC = 0x4A4C434B;
+
+    /**
+     * The version of the file format
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The offset of the number of slots in the header
+     */
+    private static final int SLOTS_OFFSET = 8;
+
+    /**
+     * The offset of the length of a window in the header
+     */
+    private static final int WINDOW_OFFSET = 16;
+
+    /**
+     * The offset of the hash key in the header
+     */
+    private static final int KEY_OFFSET = 32;
+
+    /**
+     * The length of the header, which keeps the slots aligned to 8 bytes
+     */
+    private static final int HEADER_LENGTH = KEY_OFFSET + KeyedHash.KEY_LENGTH;
+
+    /**
+     * The length of a slot: the fingerprint and the counts
+     */
+    private static final int SLOT_LENGTH = 2 * Long.SIZE / Byte.SIZE;
+
+    /**
+     * The offset of the counts in a slot
+     */
+    private static final int COUNTS_OFFSET = Long.SIZE / Byte.SIZE;
+
+    /**
+     * The offset of the fingerprint in a key
+     */
+    private static final int FINGERPRINT_OFFSET = Long.SIZE / Byte.SIZE;
+
+    /**
+     * The number of slots that are probed for a key
+     */
+    private static final int MAX_PROBES = 16;
+
+    /**
+     * The number of slots of the counter for the keys that do not find a free slot
+     */
+    private static final int OVERFLOW_SLOTS = 4096;
+
+    /**
+     * The maximum number of slots
+     */
+    private static final int MAX_SLOTS = 0x4000000;
+
+    /**
+     * The mapped file, which is referenced to keep the mapping alive
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The address of the first slot
+     */
+    private final long base;
+
+    /**
+     * The mask that maps a hash to a slot
+     */
+    private final int mask;
+
+    /**
+     * The length of a window in milliseconds
+     */
+    private final long window;
+
+    /**
+     * The per-thread MAC instances with the key from the header
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * The counter for the keys that do not find a free slot
+     */
+    private final SlidingWindowCounter overflow;
+
+    /**
+     * {@code true} when the table has been reported to be full
+     */
+    private final AtomicBoolean full = new AtomicBoolean();
+
+    /**
+     * Open the file of a counter, creating it if it does not exist. The file is mapped independently of any other
+     * counter of this JVM that uses the same file (which is what another JVM would do).
+     *
+     * @param file   The file
+     * @param slots  The number of slots, rounded up to a power of two
+     * @param window The length of a window in milliseconds
+     * @throws IllegalArgumentException When {@code slots} or {@code window} are not positive
+     * @throws IOException              When the file cannot be created or mapped, has been created with a different
+     *                                  number of slots or window, or atomic access to shared memory is not available
+     */
+    MappedAttemptCounter(final File file, final int slots, final long window)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+        Validate.isTrue(slots > 0, "The number of slots must be positive");
+        Validate.isTrue(window > 0, "The window must be positive");
+
+        if (!SharedMemory.isAvailable()) {
+            throw new IOException("Atomic access to shared memory is not available in this JVM");
+        }
+
+        final int size = tableSize(slots);
+        final long length = HEADER_LENGTH + (long) size * SLOT_LENGTH;
+        createFile(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+
+            // the process that finds an empty file initializes the header, all others verify it
+            final byte[] key = new byte[KeyedHash.KEY_LENGTH];
+            try (FileLock lock = channel.lock()) {
+                if (channel.size() == 0) {
+                    new SecureRandom().nextBytes(key);
+                    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                    header.putInt(0, MAGIC).putInt(Integer.SIZE / Byte.SIZE, FORMAT_VERSION)
+                            .putInt(SLOTS_OFFSET, size).putLong(WINDOW_OFFSET, window);
+                    header.position(KEY_OFFSET);
+                    header.put(key);
+                    header.rewind();
+                    raf.setLength(length);
+                    channel.write(header, 0);
+                } else {
+                    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                    channel.read(header, 0);
+                    if (header.position() < HEADER_LENGTH || header.getInt(0) != MAGIC
+                            || header.getInt(Integer.SIZE / Byte.SIZE) != FORMAT_VERSION) {
+                        throw new IOException("Not an attempt counter file of a supported version: " + file);
+                    }
+                    if (header.getInt(SLOTS_OFFSET) != size || header.getLong(WINDOW_OFFSET) != window
+                            || channel.size() != length) {
+                        throw new IOException("The attempt counter file has been created with "
+                                + header.getInt(SLOTS_OFFSET) + " slots and a window of "
+                                + header.getLong(WINDOW_OFFSET) + " ms: " + file);
+                    }
+                    header.position(KEY_OFFSET);
+                    header.get(key);
+                }
+            }
+
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            this.macs = KeyedHash.newMac(key);
+        }
+
+        this.base = SharedMemory.address(buffer) + HEADER_LENGTH;
+        this.mask = size - 1;
+        this.window = window;
+        this.overflow = new SlidingWindowCounter(OVERFLOW_SLOTS, window);
+    }
+
+    /**
+     * Return the counter of a file, opening the file (and creating it, if it does not exist) if it has not been opened
+     * by this JVM yet.
+     *
+     * @param file   The file
+     * @param slots  The number of slots, rounded up to a power of two
+     * @param window The length of a window in milliseconds
+     * @return The counter
+     * @throws NullPointerException     When {@code file} is {@code null}
+     * @throws IllegalArgumentException When {@code slots} or {@code window} are not positive
+     * @throws IOException              When the file cannot be created or mapped, has been created with a different
+     *                                  number of slots or window, or atomic access to shared memory is not available
+     */
+    static MappedAttemptCounter getInstance(final File file, final int slots, final long window)
+            throws IOException {
+
+        Validate.notNull(file, "The validated object 'file' is null");
+
+        final String key = SharedInstances.key(file.getCanonicalPath(), window, tableSize(slots));
+        return INSTANCES.get(key, new SharedInstances.Factory<MappedAttemptCounter, IOException>() {
+            @Override
+            public MappedAttemptCounter create()
+                    throws IOException {
+
+                return new MappedAttemptCounter(file, slots, window);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The key is a keyed hash with the key from the header of the file.
+     */
+    @Override
+    public ByteBuffer key(final char[]... values) {
+
+        return KeyedHash.of(macs, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAcquire(final ByteBuffer key, final int limit, final long now) {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+
+        final long windowNumber = now / window;
+        final long slot = findSlot(key, windowNumber, true);
+        if (slot < 0) {
+            return overflow.tryAcquire(key, limit, now);
+        }
+
+        // count first, and check afterwards, so that concurrent attempts cannot all pass the check
+        final long remaining = window - now % window;
+        final double count = SlidingWindowCounter.estimate(add(slot, windowNumber, 1), windowNumber, remaining,
+                window);
+        if (count > limit) {
+            add(slot, windowNumber, -1);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(final ByteBuffer key, final long now) {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+
+        final long windowNumber = now / window;
+        final long slot = findSlot(key, windowNumber, false);
+        if (slot < 0) {
+            overflow.release(key, now);
+        } else {
+            add(slot, windowNumber, -1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double count(final ByteBuffer key, final long now) {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+
+        final long windowNumber = now / window;
+        final long slot = findSlot(key, windowNumber, false);
+        if (slot < 0) {
+            return overflow.count(key, now);
+        }
+
+        return SlidingWindowCounter.estimate(SharedMemory.getLongVolatile(slot + COUNTS_OFFSET), windowNumber,
+                window - now % window, window);
+    }
+
+    /**
+     * Find the slot of a key, optionally claiming a free slot if the key does not have a slot yet.
+     * <p>
+     * Two processes that claim a slot for the same key at the same time race for the same free slot, so a key does not
+     * end up with two slots, unless a slot earlier in its probe sequence expires during the claim.
+     *
+     * @param key          The key
+     * @param windowNumber The number of the current window
+     * @param claim        {@code true} to claim a free slot if the key does not have a slot
+     * @return The address of the slot, or -1 if the key does not have a slot, and none could be claimed
+     */
+    private long findSlot(final ByteBuffer key, final long windowNumber, final boolean claim) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        long fingerprint = key.getLong(FINGERPRINT_OFFSET);
+        if (fingerprint == 0) {
+            // zero marks a slot that has never been claimed
+            fingerprint = 1;
+        }
+        final int start = key.getInt(0) & mask;
+
+        while (true) {
+            long free = -1;
+            long freeFingerprint = 0;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                final long slot = base + (long) ((start + probe) & mask) * SLOT_LENGTH;
+                final long slotFingerprint = SharedMemory.getLongVolatile(slot);
+                if (slotFingerprint == fingerprint) {
+                    return slot;
+                }
+                if (slotFingerprint == 0) {
+                    // a key claims the first free slot of its probe sequence, so it cannot be found after this slot
+                    if (free < 0) {
+                        free = slot;
+                        freeFingerprint = 0;
+                    }
+                    break;
+                }
+                if (free < 0
+                        && SlidingWindowCounter.isExpired(SharedMemory.getLongVolatile(slot + COUNTS_OFFSET),
+                        windowNumber)) {
+                    free = slot;
+                    freeFingerprint = slotFingerprint;
+                }
+            }
+
+            if (!claim) {
+                return -1;
+            }
+            if (free < 0) {
+                if (full.compareAndSet(false, true)) {
+                    LOG.warn("The shared attempt counter table is full, counting the attempts that do not find a free "
+                            + "slot in this JVM only. Consider configuring more slots.");
+                }
+                return -1;
+            }
+            if (SharedMemory.compareAndSwapLong(free, freeFingerprint, fingerprint)) {
+                return free;
+            }
+            // another process or thread has claimed the slot, look again
+        }
+    }
+
+    /**
+     * Add to the count of the current window in a slot.
+     *
+     * @param slot         The address of the slot
+     * @param windowNumber The number of the current window
+     * @param delta        The value to add, 1 or -1
+     * @return The new counts of the slot
+     */
+    private long add(final long slot, final long windowNumber, final int delta) {
+
+        final long address = slot + COUNTS_OFFSET;
+        while (true) {
+            final long packed = SharedMemory.getLongVolatile(address);
+            final long updated = SlidingWindowCounter.next(packed, windowNumber, delta);
+            if (packed == updated || SharedMemory.compareAndSwapLong(address, packed, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * @param slots The configured number of slots
+     * @return The number of slots of the table: a power of two, and at least the number of probes
+     */
+    private static int tableSize(final int slots) {
+
+        return Math.max(MAX_PROBES, Integer.highestOneBit(Math.min(slots - 1, MAX_SLOTS - 1)) << 1);
+    }
+
+    /**
+     * Create a file that is readable by its owner only, if it does not exist.
+     *
+     * @param file The file
+     * @throws IOException When the file cannot be created
+     */
+    private static void createFile(final File file)
+            throws IOException {
+
+        // private method asserts
+        assert file != null : "The file cannot be null";
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create the directory " + parent);
+        }
+        if (file.exists()) {
+            return;
+        }
+
+        try {
+            Files.createFile(file.toPath(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // the file system does not support POSIX permissions
+            LOG.debug("Cannot restrict the permissions of " + file, e);
+            if (!file.createNewFile() && !file.exists()) {
+                throw new IOException("Cannot create the file " + file, e);
+            }
+        } catch (java.nio.file.FileAlreadyExistsException e) {
+            // another process has created the file
+            LOG.debug("The file has been created by another process: " + file, e);
+        }
+    }
+}
@@ -68,6 +68,10 @@ public class PasswordCallbackHandler
      * The password as provided during the login process
      */
     private final char[] password;
+    /**
+     * The client hint (e.g. the remote address) as provided during the login process
+     */
+    private final String clientHint;
 
     /**
      * Create an instance of the PasswordCallbackHandler.
@@ -78,17 +82,37 @@ public class PasswordCallbackHandler
      * @param username The username
      * @param password The password
      */
+    // It would be pretty dumb to use varargs for the password...
+    @SuppressWarnings("PMD.UseVarargs")
+    public PasswordCallbackHandler(final String domain, final String username, final char[] password) {
+
+        this(domain, username, password, null);
+    }
+
+    /**
+     * Create an instance of the PasswordCallbackHandler that also provides a hint identifying the client (e.g. the
+     * remote address) for the {@link ClientHintCallback}.
+     * <p>
+     * Note that {@code domain}, {@code username}, {@code password}, and {@code clientHint} may be {@code null}.
+     *
+     * @param domain     The white label domain
+     * @param username   The username
+     * @param password   The password
+     * @param clientHint The client hint
+     */
     // CHECKSTYLE:OFF
     // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
     // The null assignment allows to make password final
     // It would be pretty dumb to use varargs for the password...
     @SuppressWarnings({"PMD.NullAssignment", "PMD.UseVarargs"})
     // CHECKSTYLE:ON
-    public PasswordCallbackHandler(final String domain, final String username, final char[] password) {
+    public PasswordCallbackHandler(final String domain, final String username, final char[] password,
+                                   final String clientHint) {
 
         // no need for defensive copies of Strings, but create a defensive copy of the password
         this.domain = domain;
         this.username = username;
+        this.clientHint = clientHint;
         if (password == null) {
             this.password = null;
         } else {
@@ -129,12 +153,16 @@ public class PasswordCallbackHandler
             } else if (callback instanceof TextInputCallback) {
                 final TextInputCallback textInputCallback = (TextInputCallback) callback;
                 textInputCallback.setText(domain);
+            } else if (callback instanceof ClientHintCallback) {
+                final ClientHintCallback clientHintCallback = (ClientHintCallback) callback;
+                clientHintCallback.setHint(clientHint);
             } else {
                 final String error = "Unsupported callback: "
                         + callback.getClass().getCanonicalName() + " Allowed callbacks are: "
                         + NameCallback.class.getCanonicalName() + " OR "
                         + PasswordCallback.class.getCanonicalName() + " OR "
-                        + TextInputCallback.class.getCanonicalName();
+                        + TextInputCallback.class.getCanonicalName() + " OR "
+                        + ClientHintCallback.class.getCanonicalName();
                 LOG.warn(error);
                 throw new UnsupportedCallbackException(callback, error);
             }
@@ -38,14 +38,30 @@ import org.beiter.michael.array.Cleanser;
 import org.beiter.michael.authn.jaas.common.CommonProperties;
 import org.beiter.michael.authn.jaas.common.Events;
 import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.common.UserPrincipal;
 import org.beiter.michael.authn.jaas.common.Util;
 import org.beiter.michael.authn.jaas.common.audit.Audit;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
 import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
 import org.beiter.michael.authn.jaas.common.audit.AuditHelper;
+import org.beiter.michael.authn.jaas.common.distinct.DistinctUserCounter;
+import org.beiter.michael.authn.jaas.common.distinct.DistinctUserProperties;
+import org.beiter.michael.authn.jaas.common.heavyhitter.HeavyHitterProperties;
+import org.beiter.michael.authn.jaas.common.heavyhitter.HeavyHitterTracker;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.beiter.michael.authn.jaas.common.messageq.Message;
 import org.beiter.michael.authn.jaas.common.messageq.MessageHelper;
 import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
 import org.beiter.michael.authn.jaas.common.messageq.MessageQ;
 import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedDistinctUserPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedHeavyHitterPropsBuilder;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedRollupPropsBuilder;
+import org.beiter.michael.authn.jaas.common.rollup.RollupAggregator;
+import org.beiter.michael.authn.jaas.common.rollup.RollupProperties;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedConcurrencyLimitPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedFailureCachePropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedThrottlePropsBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,10 +72,17 @@ import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.PasswordCallback;
 import javax.security.auth.callback.TextInputCallback;
 import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.AccountLockedException;
+import javax.security.auth.login.FailedLoginException;
 import javax.security.auth.login.LoginException;
 import javax.security.auth.spi.LoginModule;
 import java.security.Principal;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class implements a JAAS login module for username / password based authentication.
@@ -76,6 +99,30 @@ public class PasswordLoginModule
      */
     private static final Logger LOG = LoggerFactory.getLogger(PasswordLoginModule.class);
 
+    /**
+     * The number of login module instances created in this JVM, used to create the module instance IDs
+     */
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    /**
+     * The ID of this login module instance, which is recorded in the audit events of this instance
+     */
+    private final String moduleInstanceId = PasswordLoginModule.class.getSimpleName() + "-"
+            + INSTANCES.incrementAndGet();
+
+    /**
+     * The correlation ID of the login workflow of this login module instance, which is recorded in all its audit events
+     * and messages (of the login, commit, abort, and logout), so that consumers can reconstruct the lifecycle of the
+     * login from their streams of events
+     */
+    private final String correlationId = Util.newId();
+
+    /**
+     * The monotonic timestamp at which the current phase of the login workflow (login, commit, abort, or logout)
+     * started, used to record the phase duration in the audit events
+     */
+    private long phaseStart;
+
     /**
      * The JAAS pSubject, which is part of the initial state and one of the provided arguments when the module is called
      */
@@ -103,6 +150,12 @@ public class PasswordLoginModule
      */
     private String domain;
 
+    /**
+     * The client hint is provided during the login process if the login attempts are throttled per client (this is
+     * {@code null} if the callback handler does not provide a client hint)
+     */
+    private String clientHint;
+
     /**
      * The uncommitted principals (this is != null once the login succeeded)
      */
@@ -132,6 +185,24 @@ public class PasswordLoginModule
      */
     private PasswordAuthenticator pwAuthenticator;
 
+    /**
+     * The cache of recently failed credentials is initialized based on the JAAS module configuration
+     * (this is {@code null} if the cache is disabled)
+     */
+    private FailedLoginCache failedLoginCache;
+
+    /**
+     * The brute force throttle is initialized based on the JAAS module configuration
+     * (this is {@code null} if the throttle is disabled)
+     */
+    private LoginThrottle throttle;
+
+    /**
+     * The concurrency limiter is initialized based on the JAAS module configuration
+     * (this is {@code null} if the limiter is disabled)
+     */
+    private ConcurrencyLimiter concurrencyLimiter;
+
     /**
      * {@inheritDoc}
      *
@@ -171,6 +242,24 @@ public class PasswordLoginModule
         // initialize the authenticator object
         initPwAuthenticator(commonProps);
 
+        // initialize the cache of recently failed credentials
+        initFailedLoginCache(commonProps);
+
+        // initialize the brute force throttle
+        initThrottle(commonProps);
+
+        // initialize the concurrency limiter
+        initConcurrencyLimiter(commonProps);
+
+        // initialize the rollups of the login lifecycle events
+        initRollups(commonProps);
+
+        // initialize the tracking of the most frequently failing usernames and domains
+        initHeavyHitters(commonProps);
+
+        // initialize the counting of the distinct users per domain
+        initDistinctUsers(commonProps);
+
         LOG.info("Initialization complete");
     }
 
@@ -180,7 +269,11 @@ public class PasswordLoginModule
      * @return {@code true} if authentication succeeds
      * @throws LoginException if this {@code LoginModule} is unable to perform the authentication. Catch a
      *                        {@link javax.security.auth.login.FailedLoginException} to determine if the authentication
-     *                        failed (wrong username or password)
+     *                        failed (wrong username or password), and a
+     *                        {@link javax.security.auth.login.AccountLockedException} to determine if the attempt
+     *                        has been throttled (too many failed attempts for the username or the client), and a
+     *                        {@link LoginOverloadedException} to determine if the attempt has been rejected without
+     *                        checking the credentials because too many logins are in progress
      */
     @Override
     // Check is broken [LOG.info()]: PMD reports issues although log stmt is guarded. @todo revisit when upgrading PMD.
@@ -188,6 +281,7 @@ public class PasswordLoginModule
     public final boolean login()
             throws LoginException {
 
+        phaseStart = System.nanoTime();
         LOG.debug("Attempting login");
 
         if (pCallbackHandler == null) {
@@ -230,24 +324,57 @@ public class PasswordLoginModule
 
         LOG.debug("Attempting login - discovered user '" + username + "@" + domain + "'");
 
+        // ask for the client hint only if it is used, as a callback handler may not support the callback
+        if (throttle != null && throttle.isClientThrottled()) {
+            clientHint = getClientHint();
+        }
+
+        // tracks if the login has been rejected because the credentials have recently failed
+        boolean recentlyFailed = false;
+
+        // tracks if the login attempt has been counted by the throttle
+        boolean throttleAcquired = false;
+
         // Using a try/catch construct for managing control flows is really a bad idea.
         // Unfortunately, this is how JAAS works :-(
         try {
+            // reject attempts over the limit of the username or the client without contacting the authenticator
+            if (throttle != null) {
+                if (!throttle.tryAcquire(domain, username, clientHint)) {
+                    throw new AccountLockedException("Too many failed login attempts for '" + username + "@"
+                            + domain + "', not attempting to authenticate");
+                }
+                throttleAcquired = true;
+            }
+
+            // reject credentials that have recently failed without contacting the authenticator
+            if (failedLoginCache != null && failedLoginCache.contains(domain, username, password)) {
+                recentlyFailed = true;
+                throw new FailedLoginException("The credentials for '" + username + "@" + domain
+                        + "' have recently failed, not attempting to authenticate again");
+            }
+
             // authenticate, and update state and pending subject if successful
-            pendingSubject = pwAuthenticator.authenticate(domain, username, password, pwValidator);
+            pendingSubject = authenticate();
 
             // then clear the password
             Cleanser.wipe(password);
 
+            // a successful attempt does not count against the limit (and is not released again if auditing fails)
+            if (throttleAcquired) {
+                throttle.release(domain, username, clientHint);
+                throttleAcquired = false;
+            }
+
             final String baseError = new StringBuilder().
                     append("Login successful for '").
                     append(username).
                     append("@").
                     append(domain).
                     toString();
-            AuditHelper.auditEvent(audit, domain, username, Events.AUTHN_ATTEMPT,
+            auditEvent(domain, username, pendingSubject, Events.AUTHN_ATTEMPT,
                     baseError + "', but cannot audit login attempt, and hence fail the operation");
-            MessageHelper.postMessage(messageQ, domain, username, Events.AUTHN_ATTEMPT,
+            postMessage(domain, username, Events.AUTHN_ATTEMPT,
                     baseError + "', but cannot post MQ login attempt event, and hence fail the operation");
 
             // string concatenation is only executed if log level is actually enabled
@@ -258,6 +385,17 @@ public class PasswordLoginModule
         } catch (LoginException e) {
             // the login failed
 
+            // remember credentials that have been rejected by the authenticator (but not failures for other reasons,
+            // such as an unavailable user store), before the password is purged by "cleanState()"
+            if (failedLoginCache != null && !recentlyFailed && e instanceof FailedLoginException) {
+                failedLoginCache.add(domain, username, password);
+            }
+
+            // only attempts that have been rejected because of the credentials count against the limit
+            if (throttleAcquired && !(e instanceof FailedLoginException)) {
+                throttle.release(domain, username, clientHint);
+            }
+
             // cache the username and domain, for they will be purged by "cleanState()"
             final String tempUsername = username;
             final String tempDomain = domain;
@@ -270,9 +408,9 @@ public class PasswordLoginModule
                     append("@").
                     append(tempDomain).
                     toString();
-            AuditHelper.auditEvent(audit, tempDomain, tempUsername, Events.AUTHN_FAILURE,
+            auditEvent(tempDomain, tempUsername, null, Events.AUTHN_FAILURE,
                     baseError + "', but cannot audit login attempt");
-            MessageHelper.postMessage(messageQ, tempDomain, tempUsername, Events.AUTHN_FAILURE,
+            postMessage(tempDomain, tempUsername, Events.AUTHN_FAILURE,
                     baseError + "', but cannot post MQ login attempt event");
 
             final String error = "Login failed for '" + tempUsername + "@" + tempDomain + "'";
@@ -291,6 +429,7 @@ public class PasswordLoginModule
     public final boolean commit()
             throws LoginException {
 
+        phaseStart = System.nanoTime();
         LOG.debug("Committing authentication");
 
         if (pendingSubject == null) {
@@ -326,9 +465,9 @@ public class PasswordLoginModule
                         append("@").
                         append(tempDomain).
                         toString();
-                AuditHelper.auditEvent(audit, tempDomain, tempUsername, Events.AUTHN_ERROR,
+                auditEvent(tempDomain, tempUsername, null, Events.AUTHN_ERROR,
                         baseError + "', but cannot audit login attempt");
-                MessageHelper.postMessage(messageQ, tempDomain, tempUsername, Events.AUTHN_ERROR,
+                postMessage(tempDomain, tempUsername, Events.AUTHN_ERROR,
                         baseError + "', but cannot post MQ login attempt event");
 
                 final String error = "Expected the committed subject to be 'null' (yes, really <null>), but this was "
@@ -358,9 +497,9 @@ public class PasswordLoginModule
                     append("@").
                     append(domain).
                     toString();
-            AuditHelper.auditEvent(audit, domain, username, Events.AUTHN_SUCCESS,
+            auditEvent(domain, username, committedSubject, Events.AUTHN_SUCCESS,
                     baseError + "', but cannot audit login success, and hence fail the operation");
-            MessageHelper.postMessage(messageQ, domain, username, Events.AUTHN_SUCCESS,
+            postMessage(domain, username, Events.AUTHN_SUCCESS,
                     baseError + "', but cannot post MQ login success event, and hence fail the operation");
 
             // string concatenation is only executed if log level is actually enabled
@@ -382,6 +521,8 @@ public class PasswordLoginModule
     public final boolean abort()
             throws LoginException {
 
+        phaseStart = System.nanoTime();
+
         if (pendingSubject == null) {
             // the login method of this module has failed earlier, hence we do not need to clean up anything
             // return 'false' to indicate that this module's login and/or commit method failed
@@ -399,9 +540,10 @@ public class PasswordLoginModule
                 LOG.debug("Aborting authentication: '" + username + "@" + domain + "'");
             }
 
-            // cache the username and domain, for they will be purged by "cleanState()"
+            // cache the username, domain, and subject, for they will be purged by "cleanState()"
             final String tempUsername = username;
             final String tempDomain = domain;
+            final Subject tempSubject = pendingSubject;
 
             cleanState();
 
@@ -411,9 +553,9 @@ public class PasswordLoginModule
                     append("@").
                     append(tempDomain).
                     toString();
-            AuditHelper.auditEvent(audit, tempDomain, tempUsername, Events.AUTHN_ABORT_COMMIT,
+            auditEvent(tempDomain, tempUsername, tempSubject, Events.AUTHN_ABORT_COMMIT,
                     baseError + "', but cannot audit login attempt");
-            MessageHelper.postMessage(messageQ, tempDomain, tempUsername, Events.AUTHN_ABORT_COMMIT,
+            postMessage(tempDomain, tempUsername, Events.AUTHN_ABORT_COMMIT,
                     baseError + "', but cannot post MQ login attempt event");
 
             // string concatenation is only executed if log level is actually enabled
@@ -430,9 +572,9 @@ public class PasswordLoginModule
                     append("@").
                     append(domain).
                     toString();
-            AuditHelper.auditEvent(audit, domain, username, Events.AUTHN_ABORT_CHAIN,
+            auditEvent(domain, username, committedSubject, Events.AUTHN_ABORT_CHAIN,
                     baseError + "', but cannot audit login attempt");
-            MessageHelper.postMessage(messageQ, domain, username, Events.AUTHN_ABORT_CHAIN,
+            postMessage(domain, username, Events.AUTHN_ABORT_CHAIN,
                     baseError + "', but cannot post MQ login attempt event");
 
             // cache the username and domain, for they will be purged by "logout()"
@@ -458,12 +600,15 @@ public class PasswordLoginModule
     public final boolean logout()
             throws LoginException {
 
+        phaseStart = System.nanoTime();
+
         final StringBuilder principals = new StringBuilder(":");
 
         // remove all the principals that we added in the commit() method from the 'subject' object
         // (that's why we stored our principals in the 'committedSubject' object...)
-        if (committedSubject != null && committedSubject.getPrincipals() != null) {
-            final StringBuilder stringBuilder = new StringBuilder();
+        if (committedSubject != null && committedSubject.getPrincipals() != null
+                && !committedSubject.getPrincipals().isEmpty()) {
+            final Set<String> principalNames = new LinkedHashSet<>();
             for (final Principal p : committedSubject.getPrincipals()) {
                 pSubject.getPrincipals().remove(p);
 
@@ -473,19 +618,15 @@ public class PasswordLoginModule
                 }
 
                 principals.append(p.getName()).append(':');
-
-                stringBuilder.delete(0, stringBuilder.length());
-                final String baseError = stringBuilder.
-                        append("Logout successful for '").
-                        append(username).
-                        append("@").
-                        append(domain).
-                        toString();
-                AuditHelper.auditEvent(audit, domain, username, Events.AUTHN_LOGOUT,
-                        baseError + "', but cannot audit logout attempt");
-                MessageHelper.postMessage(messageQ, domain, username, Events.AUTHN_LOGOUT,
-                        baseError + "', but cannot post MQ logout attempt event");
+                principalNames.add(p.getName());
             }
+
+            // one event for all principals, rather than one identical event (and sink call) per principal
+            final String baseError = "Logout successful for '" + username + "@" + domain;
+            auditEvent(domain, username, committedSubject, principalNames, Events.AUTHN_LOGOUT,
+                    baseError + "', but cannot audit logout attempt");
+            postMessage(domain, username, principalNames, Events.AUTHN_LOGOUT,
+                    baseError + "', but cannot post MQ logout attempt event");
         }
 
         cleanState();
@@ -498,6 +639,132 @@ public class PasswordLoginModule
         return true;
     }
 
+    /**
+     * Audit an event of the current phase of the login workflow.
+     * <p>
+     * The audit event records the user ID the user has been resolved to (if any), the duration of the current phase,
+     * and the ID of this module instance. The audit event is only created if auditing is enabled.
+     *
+     * @param eventDomain   The user's domain
+     * @param eventUsername The user's username
+     * @param subject       The subject the user has been resolved to, or {@code null} if the user has not been resolved
+     * @param event         The event to audit
+     * @param error         The error message to be logged in the application log if auditing fails
+     * @throws LoginException If auditing fails
+     */
+    private void auditEvent(final String eventDomain, final String eventUsername, final Subject subject,
+                            final Events event, final String error)
+            throws LoginException {
+
+        auditEvent(eventDomain, eventUsername, subject, Collections.<String>emptySet(), event, error);
+    }
+
+    /**
+     * Audit an event of the current phase of the login workflow that concerns a set of principals.
+     * <p>
+     * The audit event records the user ID the user has been resolved to (if any), the principals, the duration of the
+     * current phase, the ID of this module instance, and the correlation ID of the login workflow. The audit event is
+     * only created if auditing is enabled, or if in-process listeners are subscribed to the event (see
+     * {@link EventListeners}), which are notified before the event is audited.
+     *
+     * @param eventDomain   The user's domain
+     * @param eventUsername The user's username
+     * @param subject       The subject the user has been resolved to, or {@code null} if the user has not been resolved
+     * @param principals    The names of the principals the event concerns
+     * @param event         The event to audit
+     * @param error         The error message to be logged in the application log if auditing fails
+     * @throws LoginException If auditing fails
+     */
+    private void auditEvent(final String eventDomain, final String eventUsername, final Subject subject,
+                            final Set<String> principals, final Events event, final String error)
+            throws LoginException {
+
+        final boolean listening = EventListeners.hasListeners(event);
+        if (audit == null && !listening) {
+            // let the helper validate the arguments and log that auditing is disabled
+            AuditHelper.auditEvent(audit, eventDomain, eventUsername, event, error);
+            return;
+        }
+
+        final AuditEvent auditEvent = AuditEvent.create(event, eventDomain, eventUsername, getUserId(subject),
+                System.nanoTime() - phaseStart, moduleInstanceId, principals, correlationId);
+
+        // notify the listeners first, so that a failing audit does not hide the event from them
+        if (listening) {
+            EventListeners.dispatch(auditEvent);
+        }
+
+        if (audit == null) {
+            AuditHelper.auditEvent(audit, eventDomain, eventUsername, event, error);
+        } else {
+            AuditHelper.auditEvent(audit, auditEvent, error);
+        }
+    }
+
+    /**
+     * Post a message about an event of the current phase of the login workflow.
+     *
+     * @param eventDomain   The user's domain
+     * @param eventUsername The user's username
+     * @param event         The event to post
+     * @param error         The error message to be logged in the application log if the message queue post fails
+     * @throws LoginException If posting to the message queue fails
+     */
+    private void postMessage(final String eventDomain, final String eventUsername, final Events event,
+                             final String error)
+            throws LoginException {
+
+        postMessage(eventDomain, eventUsername, Collections.<String>emptySet(), event, error);
+    }
+
+    /**
+     * Post a message about an event of the current phase of the login workflow that concerns a set of principals.
+     * <p>
+     * The message carries the correlation ID of the login workflow. The message is only created if message queues are
+     * enabled.
+     *
+     * @param eventDomain   The user's domain
+     * @param eventUsername The user's username
+     * @param principals    The names of the principals the event concerns
+     * @param event         The event to post
+     * @param error         The error message to be logged in the application log if the message queue post fails
+     * @throws LoginException If posting to the message queue fails
+     */
+    private void postMessage(final String eventDomain, final String eventUsername, final Set<String> principals,
+                             final Events event, final String error)
+            throws LoginException {
+
+        if (messageQ == null) {
+            // let the helper validate the arguments and log that message queues are disabled
+            MessageHelper.postMessage(messageQ, eventDomain, eventUsername, principals, event, error);
+        } else {
+            final Message message = Message.create(event, eventDomain, eventUsername, null, principals,
+                    correlationId);
+            MessageHelper.postMessage(messageQ, message, error);
+        }
+    }
+
+    /**
+     * Resolve the user ID of a subject.
+     *
+     * @param subject The subject, may be {@code null}
+     * @return The name of the first {@link UserPrincipal} of the subject, or {@code null} if the subject is
+     * {@code null} or does not have a {@link UserPrincipal}
+     */
+    private static String getUserId(final Subject subject) {
+
+        if (subject == null) {
+            return null;
+        }
+
+        final Iterator<UserPrincipal> principals = subject.getPrincipals(UserPrincipal.class).iterator();
+        if (principals.hasNext()) {
+            return principals.next().getName();
+        }
+
+        return null;
+    }
+
     /**
      * Clean up any state associated with the current login attempt.
      */
@@ -507,6 +774,7 @@ public class PasswordLoginModule
         // null-assignments for de-referencing objects are okay
         domain = null;
         username = null;
+        clientHint = null;
         Cleanser.wipe(password);
         pendingSubject = null;
         committedSubject = null;
@@ -662,4 +930,166 @@ public class PasswordLoginModule
         }
     }
 
+    /**
+     * Initialize the instance-global cache of recently failed credentials
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    @SuppressWarnings("PMD.NullAssignment")
+    private void initFailedLoginCache(final CommonProperties commonProps) {
+
+        final FailureCacheProperties cacheProps =
+                JaasBasedFailureCachePropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (cacheProps.isEnabled()) {
+            LOG.debug("Recently failed credentials are rejected without contacting the authenticator");
+            this.failedLoginCache = FailedLoginCache.getInstance(cacheProps);
+        } else {
+            LOG.debug("The cache of recently failed credentials is disabled");
+            this.failedLoginCache = null;
+        }
+    }
+
+    /**
+     * Initialize the rollups of the login lifecycle events. The aggregator is shared by all login modules in the JVM,
+     * and receives the events through the in-process event listeners.
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    private void initRollups(final CommonProperties commonProps) {
+
+        final RollupProperties rollupProps =
+                JaasBasedRollupPropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (rollupProps.isEnabled()) {
+            LOG.debug("The login lifecycle events are rolled up every " + rollupProps.getInterval() + " ms");
+            RollupAggregator.getInstance(rollupProps, commonProps);
+        } else {
+            LOG.debug("The rollups of the login lifecycle events are disabled");
+        }
+    }
+
+    /**
+     * Initialize the tracking of the usernames and domains with the most failures. The tracker is shared by all
+     * login modules in the JVM, and receives the failures through the in-process event listeners.
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    private void initHeavyHitters(final CommonProperties commonProps) {
+
+        final HeavyHitterProperties hitterProps =
+                JaasBasedHeavyHitterPropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (hitterProps.isEnabled()) {
+            LOG.debug("The usernames and domains with the most failures are tracked");
+            HeavyHitterTracker.getInstance(hitterProps);
+        } else {
+            LOG.debug("The tracking of the usernames and domains with the most failures is disabled");
+        }
+    }
+
+    /**
+     * Initialize the counting of the distinct users that authenticated per domain. The counter is shared by all
+     * login modules in the JVM, and receives the successful logins through the in-process event listeners.
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    private void initDistinctUsers(final CommonProperties commonProps) {
+
+        final DistinctUserProperties distinctProps =
+                JaasBasedDistinctUserPropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (distinctProps.isEnabled()) {
+            LOG.debug("The distinct users per domain are counted every " + distinctProps.getInterval() + " ms");
+            DistinctUserCounter.getInstance(distinctProps);
+        } else {
+            LOG.debug("The counting of the distinct users per domain is disabled");
+        }
+    }
+
+    /**
+     * Ask the callback handler for a hint identifying the client (e.g. the remote address).
+     *
+     * @return The client hint, or {@code null} if the callback handler does not provide a client hint
+     */
+    private String getClientHint() {
+
+        final ClientHintCallback callback = new ClientHintCallback();
+        try {
+            pCallbackHandler.handle(new Callback[]{callback});
+        } catch (java.io.IOException | UnsupportedCallbackException e) {
+            LOG.debug("The callback handler does not provide a client hint, throttling the username only", e);
+            return null;
+        }
+
+        return callback.getHint();
+    }
+
+    /**
+     * Initialize the instance-global brute force throttle
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    @SuppressWarnings("PMD.NullAssignment")
+    private void initThrottle(final CommonProperties commonProps) {
+
+        final ThrottleProperties throttleProps =
+                JaasBasedThrottlePropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (throttleProps.isEnabled()) {
+            LOG.debug("Login attempts over the limit are rejected without contacting the authenticator");
+            this.throttle = LoginThrottle.getInstance(throttleProps);
+        } else {
+            LOG.debug("The brute force throttle is disabled");
+            this.throttle = null;
+        }
+    }
+
+    /**
+     * Authenticate the user with the authenticator, within the concurrency limit (if the limiter is enabled). Logins
+     * over the limit are rejected immediately, rather than letting the latency of all logins collapse.
+     *
+     * @return The authenticated subject
+     * @throws LoginException When the authentication fails, or a {@link LoginOverloadedException} when the concurrency
+     *                        limit has been reached
+     */
+    private Subject authenticate()
+            throws LoginException {
+
+        if (concurrencyLimiter == null) {
+            return pwAuthenticator.authenticate(domain, username, password, pwValidator);
+        }
+
+        if (!concurrencyLimiter.tryAcquire()) {
+            throw new LoginOverloadedException("Too many concurrent logins, not attempting to authenticate '"
+                    + username + "@" + domain + "'");
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return pwAuthenticator.authenticate(domain, username, password, pwValidator);
+        } finally {
+            concurrencyLimiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Initialize the instance-global concurrency limiter
+     *
+     * @param commonProps The parsed JAAS configuration, plus additional raw values
+     */
+    @SuppressWarnings("PMD.NullAssignment")
+    private void initConcurrencyLimiter(final CommonProperties commonProps) {
+
+        final ConcurrencyLimitProperties limitProps =
+                JaasBasedConcurrencyLimitPropsBuilder.build(commonProps.getAdditionalProperties());
+
+        if (limitProps.isEnabled()) {
+            LOG.debug("Logins over the adaptive concurrency limit are rejected without contacting the authenticator");
+            this.concurrencyLimiter = ConcurrencyLimiter.getInstance(limitProps);
+        } else {
+            LOG.debug("The concurrency limiter is disabled");
+            this.concurrencyLimiter = null;
+        }
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A registry of the objects that are shared by all login modules in the JVM with the same configuration.
+ * <p>
+ * JAAS creates a new login module instance for every login, and the login module creates a new password validator for
+ * every login (unless the validator is configured as a singleton). State that must outlive a single login (e.g. a
+ * cache, a throttle, or a concurrency limit) can hence not be owned by these instances. Instead, every class that keeps
+ * such state holds a registry, and looks up its objects by a key built from their configuration: all login modules
+ * with the same configuration share one object, and a login module with a different configuration gets its own
+ * object, so that one configuration never sees the state of another. An object is created while the registry is
+ * locked, so that concurrent logins never create (and, e.g., open a file for) the same object twice. Objects are kept
+ * for the lifetime of the JVM unless the registry is cleared, as there are only a few configurations in a JVM.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <V> The type of the shared objects
+ */
+final class SharedInstances<V> {
+
+    /**
+     * The shared objects, by the key of their configuration
+     */
+    private final Map<String, V> instances = new HashMap<>();
+
+    /**
+     * Build the key of a configuration from its values.
+     *
+     * @param values The values of the configuration that make a difference to the shared object
+     * @return The key
+     * @throws NullPointerException When {@code values} is {@code null}
+     */
+    static String key(final Object... values) {
+
+        Validate.notNull(values, "The validated object 'values' is null");
+
+        return StringUtils.join(values, '/');
+    }
+
+    /**
+     * Return the object shared under a key, creating it if there is none yet.
+     *
+     * @param key     The key of the configuration of the object
+     * @param factory The factory that creates the object if there is none yet
+     * @param <X>     The type of the exception thrown when the object cannot be created
+     * @return The shared object
+     * @throws NullPointerException When {@code key} or {@code factory} is {@code null}, or the factory creates
+     *                              {@code null}
+     * @throws X                    When the object cannot be created
+     */
+    <X extends Exception> V get(final String key, final Factory<? extends V, X> factory)
+            throws X {
+
+        Validate.notNull(key, "The validated object 'key' is null");
+        Validate.notNull(factory, "The validated object 'factory' is null");
+
+        synchronized (instances) {
+            V instance = instances.get(key);
+            if (instance == null) {
+                instance = Validate.notNull(factory.create(), "The validated object 'instance' is null");
+                instances.put(key, instance);
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * Discard all shared objects.
+     * <p>
+     * Objects that have already been handed out remain usable, but are not shared with later lookups.
+     */
+    void clear() {
+
+        synchronized (instances) {
+            instances.clear();
+        }
+    }
+
+    /**
+     * Creates a shared object when it is looked up for the first time.
+     *
+     * @param <V> The type of the shared object
+     * @param <X> The type of the exception thrown when the object cannot be created
+     */
+    interface Factory<V, X extends Exception> {
+
+        /**
+         * Create the shared object.
+         *
+         * @return The shared object
+         * @throws X When the object cannot be created
+         */
+        V create()
+                throws X;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+
+/**
+ * Atomic access to memory outside of the Java heap, e.g. to a memory-mapped file that is shared between processes.
+ * <p>
+ * The JDK does not provide atomic operations on a {@link java.nio.MappedByteBuffer}, so this class uses
+ * {@code sun.misc.Unsafe}. As that is an internal API of the JDK, which may not be available in every JVM (and which
+ * the compiler warns about), it is looked up reflectively when this class is loaded, and called through method
+ * handles, which the JIT compiler inlines like a direct call. If it is not available, {@link #isAvailable()} returns
+ * {@code false}, and the other methods must not be called.
+ */
+final class SharedMemory {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMemory.class);
+
+    /**
+     * {@code Unsafe.getLongVolatile(Object, long)}, bound to the Unsafe instance, {@code null} if not available
+     */
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    /**
+     * {@code Unsafe.compareAndSwapLong(Object, long, long, long)}, bound to the Unsafe instance, {@code null} if not
+     * available
+     */
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+
+    /**
+     * {@code Unsafe.getLong(Object, long)}, bound to the Unsafe instance, {@code null} if not available
+     */
+    private static final MethodHandle GET_LONG;
+
+    /**
+     * The offset of the address field in a direct buffer, as returned by {@code Unsafe.objectFieldOffset(Field)}
+     */
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        MethodHandle getLongVolatile;
+        MethodHandle compareAndSwapLong;
+        MethodHandle getLong;
+        long addressOffset;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            compareAndSwapLong = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                    MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class))
+                    .bindTo(unsafe);
+
+            getLong = lookup.findVirtual(unsafeClass, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+
+            // the offset is read through Unsafe, as the JDK does not allow making the field accessible since Java 9
+            final MethodHandle objectFieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+            addressOffset = objectFieldOffset(objectFieldOffset, Buffer.class.getDeclaredField("address"));
+        } catch (ClassNotFoundException | NoSuchFieldException | NoSuchMethodException | IllegalAccessException
+                | RuntimeException | LinkageError e) {
+            LOG.warn("Atomic access to shared memory is not available in this JVM", e);
+            getLongVolatile = null;
+            compareAndSwapLong = null;
+            getLong = null;
+            addressOffset = -1;
+        }
+        GET_LONG_VOLATILE = getLongVolatile;
+        COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+        GET_LONG = getLong;
+        ADDRESS_OFFSET = addressOffset;
+    }
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private SharedMemory() {
+    }
+
+    /**
+     * @return {@code true} if atomic access to shared memory is available in this JVM
+     */
+    static boolean isAvailable() {
+
+        return GET_LONG != null;
+    }
+
+    /**
+     * Return the offset of a field in the objects of its class.
+     *
+     * @param objectFieldOffset {@code Unsafe.objectFieldOffset(Field)}, bound to the Unsafe instance
+     * @param field             The field
+     * @return The offset of the field
+     */
+    // the method handle declares Throwable, but the target does not throw any checked exceptions
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    private static long objectFieldOffset(final MethodHandle objectFieldOffset, final Field field) {
+
+        // private method asserts
+        assert objectFieldOffset != null : "The method handle cannot be null";
+        assert field != null : "The field cannot be null";
+
+        try {
+            return (long) objectFieldOffset.invokeExact(field);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read the offset of the field", e);
+        }
+    }
+
+    /**
+     * Return the address of the memory of a direct buffer. The address is valid as long as the buffer is reachable.
+     *
+     * @param buffer The direct buffer
+     * @return The address of the first byte of the buffer
+     */
+    // the method handle declares Throwable, but the target does not throw any checked exceptions
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    static long address(final Buffer buffer) {
+
+        // private method asserts
+        assert buffer != null : "The buffer cannot be null";
+        assert buffer.isDirect() : "The buffer must be direct";
+
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read the address of the buffer", e);
+        }
+    }
+
+    /**
+     * Read a long with volatile semantics.
+     *
+     * @param address The address of the long
+     * @return The value of the long
+     */
+    // the method handle declares Throwable, but the target does not throw any checked exceptions
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    static long getLongVolatile(final long address) {
+
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read from shared memory", e);
+        }
+    }
+
+    /**
+     * Atomically set a long to a new value if it holds the expected value.
+     *
+     * @param address  The address of the long
+     * @param expected The expected value
+     * @param value    The new value
+     * @return {@code true} if the long has been updated, {@code false} if it did not hold the expected value
+     */
+    // the method handle declares Throwable, but the target does not throw any checked exceptions
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    static boolean compareAndSwapLong(final long address, final long expected, final long value) {
+
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot update shared memory", e);
+        }
+    }
+}
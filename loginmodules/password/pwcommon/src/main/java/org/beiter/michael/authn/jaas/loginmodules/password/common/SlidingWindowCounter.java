@@ -0,0 +1,303 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per key in a sliding time window, in a fixed amount of memory and without locking, in the memory of
+ * the JVM.
+ * <p>
+ * The counters are kept in a table of a fixed number of slots. A key is counted in two slots, chosen by its keyed
+ * hash (see {@link KeyedHash}), and its count is the lower of the two counts (as in a Count-Min sketch): keys that
+ * share a slot may overestimate each other's counts, but a count is never underestimated, and a key is only
+ * overestimated if both of its slots are shared. As the hash is keyed with a per-JVM secret, an attacker cannot choose
+ * keys that share the slots of a victim.
+ * <p>
+ * Every slot is a single {@code long} that holds the number of the current window, and the counts of the current and
+ * the previous window (see {@link #next(long, long, int)}), and is updated with compare-and-set, so concurrent logins
+ * never block each other. The count in the sliding window is approximated as the count of the current window plus the
+ * count of the previous window, weighted by the part of the previous window that still overlaps the sliding window
+ * (see {@link #estimate(long, long, long, long)}).
+ * <p>
+ * This class is thread safe.
+ */
+final class SlidingWindowCounter
+        implements AttemptCounter {
+
+    /**
+     * The maximum count of a window in a slot; higher counts saturate
+     */
+    static final int MAX_COUNT = 0xFFFF;
+
+    /**
+     * The number of bits of a count in a slot
+     */
+    private static final int COUNT_BITS = 16;
+
+    /**
+     * The shift of the window number in a slot
+     */
+    private static final int WINDOW_SHIFT = 2 * COUNT_BITS;
+
+    /**
+     * The mask of the window number in a slot
+     */
+    private static final long WINDOW_MASK = 0xFFFFFFFFL;
+
+    /**
+     * The maximum number of slots
+     */
+    private static final int MAX_SLOTS = 1 << 30;
+
+    /**
+     * The slots (see {@link #next(long, long, int)})
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * The mask that maps a hash to a slot
+     */
+    private final int mask;
+
+    /**
+     * The length of a window in milliseconds
+     */
+    private final long window;
+
+    /**
+     * Create a counter.
+     *
+     * @param slots  The number of slots, rounded up to a power of two
+     * @param window The length of a window in milliseconds
+     * @throws IllegalArgumentException When {@code slots} or {@code window} are not positive
+     */
+    SlidingWindowCounter(final int slots, final long window) {
+
+        Validate.isTrue(slots > 0, "The number of slots must be positive");
+        Validate.isTrue(window > 0, "The window must be positive");
+
+        final int size = Math.max(2, Integer.highestOneBit(Math.min(slots - 1, MAX_SLOTS - 1)) << 1);
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.window = window;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The key is a keyed hash with the key of this JVM (see {@link KeyedHash#of(char[]...)}).
+     */
+    @Override
+    public ByteBuffer key(final char[]... values) {
+
+        return KeyedHash.of(values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAcquire(final ByteBuffer key, final int limit, final long now) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        final int first = first(key);
+        final int second = second(key);
+
+        // count first, and check afterwards, so that concurrent attempts cannot all pass the check
+        final long windowNumber = now / window;
+        final long remaining = window - now % window;
+        final double count = Math.min(estimate(add(first, windowNumber, 1), windowNumber, remaining, window),
+                estimate(add(second, windowNumber, 1), windowNumber, remaining, window));
+        if (count > limit) {
+            add(first, windowNumber, -1);
+            add(second, windowNumber, -1);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(final ByteBuffer key, final long now) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        final long windowNumber = now / window;
+        add(first(key), windowNumber, -1);
+        add(second(key), windowNumber, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The estimate is never lower than the actual number of events.
+     */
+    @Override
+    public double count(final ByteBuffer key, final long now) {
+
+        // private method asserts
+        assert key != null : "The key cannot be null";
+
+        final long windowNumber = now / window;
+        final long remaining = window - now % window;
+        return Math.min(estimate(slots.get(first(key)), windowNumber, remaining, window),
+                estimate(slots.get(second(key)), windowNumber, remaining, window));
+    }
+
+    /**
+     * Add to the count of the current window in a slot.
+     *
+     * @param index        The index of the slot
+     * @param windowNumber The number of the current window
+     * @param delta        The value to add, 1 or -1
+     * @return The new value of the slot
+     */
+    private long add(final int index, final long windowNumber, final int delta) {
+
+        while (true) {
+            final long packed = slots.get(index);
+            final long updated = next(packed, windowNumber, delta);
+            if (packed == updated || slots.compareAndSet(index, packed, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Compute the value of a slot after adding to the count of the current window, moving to a new window if the
+     * window has changed. Counts do not drop below zero, and saturate at {@link #MAX_COUNT}. A decrement of a slot that
+     * has moved to a new window is ignored.
+     * <p>
+     * A slot holds the number of its window in the upper 32 bits, the count of the previous window in the next 16 bits,
+     * and the count of its window in the lower 16 bits.
+     *
+     * @param packed       The value of the slot
+     * @param windowNumber The number of the current window
+     * @param delta        The value to add, 1 or -1
+     * @return The new value of the slot
+     */
+    static long next(final long packed, final long windowNumber, final int delta) {
+
+        final long current = windowNumber & WINDOW_MASK;
+        final long slotWindow = packed >>> WINDOW_SHIFT;
+        long previousCount = (packed >>> COUNT_BITS) & MAX_COUNT;
+        long count = packed & MAX_COUNT;
+        if (slotWindow != current) {
+            if (delta < 0) {
+                return packed;
+            }
+            if (slotWindow == ((current - 1) & WINDOW_MASK)) {
+                previousCount = count;
+            } else {
+                previousCount = 0;
+            }
+            count = 0;
+        }
+        count = Math.max(0, Math.min(MAX_COUNT, count + delta));
+
+        return (current << WINDOW_SHIFT) | (previousCount << COUNT_BITS) | count;
+    }
+
+    /**
+     * Estimate the count of a slot in the sliding window that ends now.
+     *
+     * @param packed       The value of the slot (see {@link #next(long, long, int)})
+     * @param windowNumber The number of the current window
+     * @param remaining    The time until the end of the current window, in milliseconds
+     * @param window       The length of a window, in milliseconds
+     * @return The estimated count
+     */
+    static double estimate(final long packed, final long windowNumber, final long remaining, final long window) {
+
+        final long current = windowNumber & WINDOW_MASK;
+        final long slotWindow = packed >>> WINDOW_SHIFT;
+        final long previousCount = (packed >>> COUNT_BITS) & MAX_COUNT;
+        final long count = packed & MAX_COUNT;
+        final double weight = (double) remaining / window;
+
+        if (slotWindow == current) {
+            return count + previousCount * weight;
+        } else if (slotWindow == ((current - 1) & WINDOW_MASK)) {
+            return count * weight;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * @param packed       The value of a slot (see {@link #next(long, long, int)})
+     * @param windowNumber The number of the current window
+     * @return {@code true} if the slot holds no count of the current or the previous window
+     */
+    static boolean isExpired(final long packed, final long windowNumber) {
+
+        final long current = windowNumber & WINDOW_MASK;
+        final long slotWindow = packed >>> WINDOW_SHIFT;
+        return slotWindow != current && slotWindow != ((current - 1) & WINDOW_MASK);
+    }
+
+    /**
+     * @param key The keyed hash of a key
+     * @return The index of the first slot of the key
+     */
+    private int first(final ByteBuffer key) {
+
+        return key.getInt(0) & mask;
+    }
+
+    /**
+     * @param key The keyed hash of a key
+     * @return The index of the second slot of the key
+     */
+    private int second(final ByteBuffer key) {
+
+        // make sure the second slot differs from the first slot
+        final int first = first(key);
+        final int second = key.getInt(Integer.SIZE / Byte.SIZE) & mask;
+        if (second == first) {
+            return (second + 1) & mask;
+        }
+        return second;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies the properties of the brute force throttle of the {@link PasswordLoginModule}.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class ThrottleProperties {
+
+    /**
+     * @see ThrottleProperties#setEnabled(boolean)
+     */
+    private boolean enabled;
+
+    /**
+     * @see ThrottleProperties#setWindow(long)
+     */
+    private long window;
+
+    /**
+     * @see ThrottleProperties#setMaxAttempts(int)
+     */
+    private int maxAttempts;
+
+    /**
+     * @see ThrottleProperties#setMaxClientAttempts(int)
+     */
+    private int maxClientAttempts;
+
+    /**
+     * @see ThrottleProperties#setSlots(int)
+     */
+    private int slots;
+
+    /**
+     * @see ThrottleProperties#setSharedFile(String)
+     */
+    private String sharedFile;
+
+    /**
+     * @see ThrottleProperties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of throttle properties, with most values being set to <code>null</code>, 0, or empty
+     * (depending on the type of the property). Usually this constructor is used if this configuration POJO is
+     * populated in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults),
+     * use or create a properties builder (such as the {@code JaasBasedThrottlePropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public ThrottleProperties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of throttle properties from an existing set of throttle properties, making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see ThrottleProperties()
+     */
+    public ThrottleProperties(final ThrottleProperties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setEnabled(properties.isEnabled());
+        setWindow(properties.getWindow());
+        setMaxAttempts(properties.getMaxAttempts());
+        setMaxClientAttempts(properties.getMaxClientAttempts());
+        setSlots(properties.getSlots());
+        setSharedFile(properties.getSharedFile());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return Whether login attempts are throttled before contacting the authenticator
+     * @see ThrottleProperties#setEnabled(boolean)
+     */
+    public final boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Determines whether the login module counts the failed login attempts per username (and per client, if
+     * configured), and rejects further attempts over the limit without contacting the authenticator (and hence
+     * without a user store lookup and without a password hash).
+     *
+     * @param enabled {@code true} to enable the throttle
+     */
+    public final void setEnabled(final boolean enabled) {
+
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The length of the sliding window in milliseconds
+     * @see ThrottleProperties#setWindow(long)
+     */
+    public final long getWindow() {
+
+        return window;
+    }
+
+    /**
+     * The length of the sliding window in milliseconds in which the attempts are counted. Attempts age out of the
+     * window gradually, so a throttled username can try again once enough of its earlier attempts have aged out.
+     *
+     * @param window The length of the window in milliseconds
+     */
+    public final void setWindow(final long window) {
+
+        this.window = window;
+    }
+
+    /**
+     * @return The maximum number of failed attempts per username in the window
+     * @see ThrottleProperties#setMaxAttempts(int)
+     */
+    public final int getMaxAttempts() {
+
+        return maxAttempts;
+    }
+
+    /**
+     * The maximum number of failed (or concurrently running) login attempts per username and domain in the window.
+     * Further attempts are rejected until earlier attempts have aged out of the window.
+     *
+     * @param maxAttempts The maximum number of attempts
+     */
+    public final void setMaxAttempts(final int maxAttempts) {
+
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return The maximum number of failed attempts per client in the window, 0 if clients are not throttled
+     * @see ThrottleProperties#setMaxClientAttempts(int)
+     */
+    public final int getMaxClientAttempts() {
+
+        return maxClientAttempts;
+    }
+
+    /**
+     * The maximum number of failed (or concurrently running) login attempts per client in the window, regardless of
+     * the username. The client is identified by the hint that the callback handler provides for the
+     * {@link ClientHintCallback} (e.g. the remote address). Set to 0 to not throttle clients, in which case the login
+     * module does not ask the callback handler for the client hint.
+     *
+     * @param maxClientAttempts The maximum number of attempts, or 0
+     */
+    public final void setMaxClientAttempts(final int maxClientAttempts) {
+
+        this.maxClientAttempts = maxClientAttempts;
+    }
+
+    /**
+     * @return The number of counters per table
+     * @see ThrottleProperties#setSlots(int)
+     */
+    public final int getSlots() {
+
+        return slots;
+    }
+
+    /**
+     * The number of counters of the table that counts the attempts per username (and of the table that counts the
+     * attempts per client), rounded up to a power of two. The memory used by the throttle does not depend on the
+     * number of usernames or clients, but if much fewer counters are configured than usernames attempt to log in
+     * during a window, an attempt may be throttled because of the attempts of other usernames.
+     *
+     * @param slots The number of counters
+     */
+    public final void setSlots(final int slots) {
+
+        this.slots = slots;
+    }
+
+    /**
+     * @return The file in which the attempts are counted, shared by the JVMs of a host, or {@code null}
+     * @see ThrottleProperties#setSharedFile(String)
+     */
+    public final String getSharedFile() {
+
+        // no need for defensive copies of String
+        return sharedFile;
+    }
+
+    /**
+     * The file in which the attempts are counted, which is memory-mapped and shared by all JVMs on the host that are
+     * configured with the same file, the same window, and the same number of slots. If not set (or if the file cannot
+     * be used), the attempts are counted in the memory of the JVM.
+     *
+     * @param sharedFile The path of the file, or {@code null}
+     */
+    public final void setSharedFile(final String sharedFile) {
+
+        // no need for defensive copies of String
+        this.sharedFile = sharedFile;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see ThrottleProperties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+/**
+ * An extension of the {@link PasswordValidator} interface for validators that can tell whether a stored credential
+ * meets the currently configured cost target (e.g. the number of hash iterations), and that can create a new
+ * credential for a password that is known to be correct.
+ * <p>
+ * Authenticators may use this interface to transparently upgrade credentials while users log in: after a successful
+ * validation, the authenticator asks the validator if the stored credential needs to be re-hashed, and if so, asks
+ * the validator for a new credential and writes it back to the user store.
+ * <p>
+ * Classes implementing this interface <b>must</b> be thread safe.
+ */
+public interface UpgradeablePasswordValidator
+        extends PasswordValidator {
+
+    /**
+     * Determine whether a stored credential is below the cost target of this validator, and should be replaced with a
+     * credential created by {@link UpgradeablePasswordValidator#hash(char[])}.
+     * <p>
+     * This method is only meaningful for credentials that have been successfully validated with this validator.
+     *
+     * @param storedCredential The record to check (commonly a credential record retrieved from a data store)
+     * @return {@code true} if the credential should be re-hashed, {@code false} otherwise
+     */
+    // It would be pretty dumb to use varargs for the credential...
+    @SuppressWarnings("PMD.UseVarargs")
+    boolean needsRehash(final char[] storedCredential);
+
+    /**
+     * Create a new credential record for the provided password, using the currently configured cost target.
+     * <p>
+     * The returned credential must be accepted by {@link PasswordValidator#validate(char[], char[])} for the same
+     * password, and must not be reported by {@link UpgradeablePasswordValidator#needsRehash(char[])} with the current
+     * configuration.
+     *
+     * @param providedPassword The password to create a credential record for
+     * @return A new credential record. The caller is responsible to wipe the array after use.
+     * @throws NullPointerException     When {@code providedPassword} is {@code null}
+     * @throws IllegalArgumentException When {@code providedPassword} is empty
+     */
+    // It would be pretty dumb to use varargs for the password...
+    @SuppressWarnings("PMD.UseVarargs")
+    char[] hash(final char[] providedPassword);
+}
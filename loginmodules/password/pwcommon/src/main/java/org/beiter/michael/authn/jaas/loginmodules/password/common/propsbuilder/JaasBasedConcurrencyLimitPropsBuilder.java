@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.propsbuilder.PropsUtil;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.ConcurrencyLimitProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link ConcurrencyLimitProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedConcurrencyLimitPropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see ConcurrencyLimitProperties#setEnabled(boolean)
+     */
+    public static final boolean DEFAULT_IS_ENABLED = false;
+
+    /**
+     * @see ConcurrencyLimitProperties#setInitialLimit(int)
+     */
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+    /**
+     * @see ConcurrencyLimitProperties#setMinLimit(int)
+     */
+    public static final int DEFAULT_MIN_LIMIT = 4;
+
+    /**
+     * @see ConcurrencyLimitProperties#setMaxLimit(int)
+     */
+    public static final int DEFAULT_MAX_LIMIT = 200;
+
+    /**
+     * @see ConcurrencyLimitProperties#setTolerance(double)
+     */
+    public static final double DEFAULT_TOLERANCE = 2.0;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see ConcurrencyLimitProperties#setEnabled(boolean)
+     */
+    public static final String KEY_IS_ENABLED = "jaas.password.concurrencyLimit.isEnabled";
+
+    /**
+     * @see ConcurrencyLimitProperties#setInitialLimit(int)
+     */
+    public static final String KEY_INITIAL_LIMIT = "jaas.password.concurrencyLimit.initialLimit";
+
+    /**
+     * @see ConcurrencyLimitProperties#setMinLimit(int)
+     */
+    public static final String KEY_MIN_LIMIT = "jaas.password.concurrencyLimit.minLimit";
+
+    /**
+     * @see ConcurrencyLimitProperties#setMaxLimit(int)
+     */
+    public static final String KEY_MAX_LIMIT = "jaas.password.concurrencyLimit.maxLimit";
+
+    /**
+     * @see ConcurrencyLimitProperties#setTolerance(double)
+     */
+    public static final String KEY_TOLERANCE = "jaas.password.concurrencyLimit.tolerance";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedConcurrencyLimitPropsBuilder() {
+    }
+
+    /**
+     * Creates a set of concurrency limit properties that use the defaults as specified in this class.
+     *
+     * @return A set of concurrency limit properties with (reasonable) defaults
+     * @see JaasBasedConcurrencyLimitPropsBuilder
+     */
+    public static ConcurrencyLimitProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of concurrency limit properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Values that cannot be parsed as a positive number (or a number of at least 1, for the tolerance) are ignored, and
+     * the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>ConcurrencyLimitProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static ConcurrencyLimitProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final ConcurrencyLimitProperties limitProps = new ConcurrencyLimitProperties();
+
+        final String tmp = PropsUtil.getOption(KEY_IS_ENABLED, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            limitProps.setEnabled(Boolean.parseBoolean(tmp));
+            PropsUtil.logValue(KEY_IS_ENABLED, tmp);
+        } else {
+            limitProps.setEnabled(DEFAULT_IS_ENABLED);
+            PropsUtil.logDefault(KEY_IS_ENABLED, String.valueOf(DEFAULT_IS_ENABLED));
+        }
+
+        limitProps.setInitialLimit(PropsUtil.getPositiveInt(KEY_INITIAL_LIMIT, DEFAULT_INITIAL_LIMIT, properties));
+        limitProps.setMinLimit(PropsUtil.getPositiveInt(KEY_MIN_LIMIT, DEFAULT_MIN_LIMIT, properties));
+        limitProps.setMaxLimit(PropsUtil.getPositiveInt(KEY_MAX_LIMIT, DEFAULT_MAX_LIMIT, properties));
+        limitProps.setTolerance(PropsUtil.getDouble(KEY_TOLERANCE, DEFAULT_TOLERANCE, 1, properties));
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        limitProps.setAdditionalProperties(tempMap);
+
+        return limitProps;
+    }
+}
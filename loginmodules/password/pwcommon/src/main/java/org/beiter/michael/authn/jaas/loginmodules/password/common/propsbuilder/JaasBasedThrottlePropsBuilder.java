@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.propsbuilder.PropsUtil;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.ThrottleProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link ThrottleProperties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedThrottlePropsBuilder {
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see ThrottleProperties#setEnabled(boolean)
+     */
+    public static final boolean DEFAULT_IS_ENABLED = false;
+
+    /**
+     * @see ThrottleProperties#setWindow(long)
+     */
+    public static final long DEFAULT_WINDOW = 60000L;
+
+    /**
+     * @see ThrottleProperties#setMaxAttempts(int)
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /**
+     * @see ThrottleProperties#setMaxClientAttempts(int)
+     */
+    public static final int DEFAULT_MAX_CLIENT_ATTEMPTS = 0;
+
+    /**
+     * @see ThrottleProperties#setSlots(int)
+     */
+    public static final int DEFAULT_SLOTS = 65536;
+
+    /**
+     * @see ThrottleProperties#setSharedFile(String)
+     */
+    public static final String DEFAULT_SHARED_FILE = null;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see ThrottleProperties#setEnabled(boolean)
+     */
+    public static final String KEY_IS_ENABLED = "jaas.password.throttle.isEnabled";
+
+    /**
+     * @see ThrottleProperties#setWindow(long)
+     */
+    public static final String KEY_WINDOW = "jaas.password.throttle.window";
+
+    /**
+     * @see ThrottleProperties#setMaxAttempts(int)
+     */
+    public static final String KEY_MAX_ATTEMPTS = "jaas.password.throttle.maxAttempts";
+
+    /**
+     * @see ThrottleProperties#setMaxClientAttempts(int)
+     */
+    public static final String KEY_MAX_CLIENT_ATTEMPTS = "jaas.password.throttle.maxClientAttempts";
+
+    /**
+     * @see ThrottleProperties#setSlots(int)
+     */
+    public static final String KEY_SLOTS = "jaas.password.throttle.slots";
+
+    /**
+     * @see ThrottleProperties#setSharedFile(String)
+     */
+    public static final String KEY_SHARED_FILE = "jaas.password.throttle.sharedFile";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedThrottlePropsBuilder() {
+    }
+
+    /**
+     * Creates a set of throttle properties that use the defaults as specified in this class.
+     *
+     * @return A set of throttle properties with (reasonable) defaults
+     * @see JaasBasedThrottlePropsBuilder
+     */
+    public static ThrottleProperties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of throttle properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Values that cannot be parsed as a positive number (or a non-negative number, for the maximum number of attempts
+     * per client) are ignored, and the default is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>ThrottleProperties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static ThrottleProperties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final ThrottleProperties throttleProps = new ThrottleProperties();
+
+        final String tmp = PropsUtil.getOption(KEY_IS_ENABLED, properties);
+        if (StringUtils.isNotEmpty(tmp)) {
+            throttleProps.setEnabled(Boolean.parseBoolean(tmp));
+            PropsUtil.logValue(KEY_IS_ENABLED, tmp);
+        } else {
+            throttleProps.setEnabled(DEFAULT_IS_ENABLED);
+            PropsUtil.logDefault(KEY_IS_ENABLED, String.valueOf(DEFAULT_IS_ENABLED));
+        }
+
+        throttleProps.setWindow(PropsUtil.getPositiveLong(KEY_WINDOW, DEFAULT_WINDOW, properties));
+        throttleProps.setMaxAttempts(PropsUtil.getPositiveInt(KEY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS, properties));
+        throttleProps.setMaxClientAttempts(PropsUtil.getInt(KEY_MAX_CLIENT_ATTEMPTS, DEFAULT_MAX_CLIENT_ATTEMPTS, 0,
+                properties));
+        throttleProps.setSlots(PropsUtil.getPositiveInt(KEY_SLOTS, DEFAULT_SLOTS, properties));
+
+        final String sharedFile = PropsUtil.getOption(KEY_SHARED_FILE, properties);
+        if (StringUtils.isNotEmpty(sharedFile)) {
+            throttleProps.setSharedFile(sharedFile);
+            PropsUtil.logValue(KEY_SHARED_FILE, sharedFile);
+        } else {
+            throttleProps.setSharedFile(DEFAULT_SHARED_FILE);
+            PropsUtil.logDefault(KEY_SHARED_FILE, DEFAULT_SHARED_FILE);
+        }
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        throttleProps.setAdditionalProperties(tempMap);
+
+        return throttleProps;
+    }
+}
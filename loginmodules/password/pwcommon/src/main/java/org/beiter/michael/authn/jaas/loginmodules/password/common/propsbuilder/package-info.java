@@ -0,0 +1,4 @@
+/**
+ * Provides classes to build the properties required for the username / password login module components.
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder;
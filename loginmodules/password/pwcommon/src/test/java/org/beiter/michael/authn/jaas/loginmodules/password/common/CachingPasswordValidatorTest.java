@@ -0,0 +1,354 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedValidatorCachePropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.TextInputCallback;
+import javax.security.auth.login.LoginException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CachingPasswordValidatorTest {
+
+    /**
+     * Reset the shared caches, the factories, and the call counters
+     */
+    @Before
+    public void reset() {
+
+        CachingPasswordValidator.reset();
+        AuditFactory.reset();
+        MessageQFactory.reset();
+        PasswordValidatorFactory.reset();
+        PasswordAuthenticatorFactory.reset();
+        CountingValidator.CALLS.set(0);
+        PasswordLoginModuleFailureCacheTest.CountingAuthenticator.CALLS.set(0);
+    }
+
+    /**
+     * Test that a repeated successful validation is answered from the cache
+     */
+    @Test
+    public void cacheHitTest() {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "10");
+
+        String error = "The first validation should succeed";
+        assertThat(error, validator.validate("secret".toCharArray(), "secret".toCharArray()), is(equalTo(true)));
+        error = "The repeated validation should succeed";
+        assertThat(error, validator.validate("secret".toCharArray(), "secret".toCharArray()), is(equalTo(true)));
+        error = "The repeated validation should have been answered from the cache";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(1)));
+    }
+
+    /**
+     * Test that validators with the same configuration share their cache, and validators with a different
+     * configuration do not
+     */
+    @Test
+    public void sharedCacheTest() {
+
+        buildValidator(CountingValidator.class.getName(), "60000", "10")
+                .validate("secret".toCharArray(), "secret".toCharArray());
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "10");
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+        String error = "A validator with the same configuration should have used the shared cache";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(1)));
+
+        validator = buildValidator(CountingValidator.class.getName(), "60000", "11");
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+        error = "A validator with a different configuration should not have used the shared cache";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(2)));
+    }
+
+    /**
+     * Test that a repeated login through the login module is answered from the cache, although the login module
+     * creates a new validator for every login
+     *
+     * @throws LoginException When a login fails
+     */
+    @Test
+    public void loginModuleCacheHitTest()
+            throws LoginException {
+
+        Map<String, String> options = new HashMap<>();
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_MESSAGEQ_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_AUTHENTICATOR_CLASS_NAME,
+                PasswordLoginModuleFailureCacheTest.CountingAuthenticator.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_VALIDATOR_CLASS_NAME,
+                CachingPasswordValidator.class.getName());
+        options.put(JaasBasedValidatorCachePropsBuilder.KEY_DELEGATE_CLASS_NAME, CountingValidator.class.getName());
+
+        for (int i = 0; i < 2; i++) {
+            PasswordLoginModule loginModule = new PasswordLoginModule();
+            loginModule.initialize(new Subject(), createCallbackHandler("user", "correct"),
+                    new HashMap<String, String>(), options);
+
+            String error = "The login should succeed";
+            assertThat(error, loginModule.login(), is(equalTo(true)));
+        }
+
+        String error = "Both logins should have been passed to the authenticator";
+        assertThat(error, PasswordLoginModuleFailureCacheTest.CountingAuthenticator.CALLS.get(), is(equalTo(2)));
+        error = "The second login should have been answered from the cache";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(1)));
+    }
+
+    /**
+     * Test that failed validations are not cached, and a wrong password does not match a cached validation
+     */
+    @Test
+    public void failureNotCachedTest() {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "10");
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+
+        String error = "A wrong password should not validate";
+        assertThat(error, validator.validate("wrong".toCharArray(), "secret".toCharArray()), is(equalTo(false)));
+        assertThat(error, validator.validate("wrong".toCharArray(), "secret".toCharArray()), is(equalTo(false)));
+        error = "Failed validations should always be passed to the delegate";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(3)));
+        error = "Failed validations should not be cached";
+        assertThat(error, validator.getCacheSize(), is(equalTo(1)));
+    }
+
+    /**
+     * Test that a changed stored credential does not match a validation cached for the previous credential
+     */
+    @Test
+    public void changedCredentialTest() {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "10");
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+
+        String error = "The old password should not validate against the changed credential";
+        assertThat(error, validator.validate("secret".toCharArray(), "changed".toCharArray()), is(equalTo(false)));
+        error = "The validation against the changed credential should have been passed to the delegate";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(2)));
+    }
+
+    /**
+     * Test that cached validations expire
+     *
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void expiryTest()
+            throws InterruptedException {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "50", "10");
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+        Thread.sleep(100);
+        validator.validate("secret".toCharArray(), "secret".toCharArray());
+
+        String error = "The expired validation should have been passed to the delegate";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(2)));
+    }
+
+    /**
+     * Test that the cache does not grow beyond its maximum size, evicting the oldest validation
+     */
+    @Test
+    public void maxEntriesTest() {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "2");
+        validator.validate("one".toCharArray(), "one".toCharArray());
+        validator.validate("two".toCharArray(), "two".toCharArray());
+        validator.validate("three".toCharArray(), "three".toCharArray());
+
+        String error = "The cache has grown beyond its maximum size";
+        assertThat(error, validator.getCacheSize(), is(equalTo(2)));
+
+        validator.validate("three".toCharArray(), "three".toCharArray());
+        error = "The newest validation should still be cached";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(3)));
+
+        validator.validate("one".toCharArray(), "one".toCharArray());
+        error = "The oldest validation should have been evicted";
+        assertThat(error, CountingValidator.CALLS.get(), is(equalTo(4)));
+    }
+
+    /**
+     * Test that all validations fail if the delegate is missing or invalid
+     */
+    @Test
+    public void invalidDelegateTest() {
+
+        String error = "A validator without a delegate should not validate";
+        assertThat(error, buildValidator(null, "60000", "10").validate("a".toCharArray(), "a".toCharArray()),
+                is(equalTo(false)));
+        error = "A validator with a non-existing delegate should not validate";
+        assertThat(error, buildValidator("someGarbageName", "60000", "10").validate("a".toCharArray(),
+                "a".toCharArray()), is(equalTo(false)));
+        error = "A validator delegating to itself should not validate";
+        assertThat(error, buildValidator(CachingPasswordValidator.class.getName(), "60000", "10")
+                .validate("a".toCharArray(), "a".toCharArray()), is(equalTo(false)));
+    }
+
+    /**
+     * Test that re-hash requests are only supported with an upgradeable delegate
+     */
+    @Test(expected = IllegalStateException.class)
+    public void hashWithoutUpgradeableDelegateTest() {
+
+        CachingPasswordValidator validator = buildValidator(CountingValidator.class.getName(), "60000", "10");
+
+        String error = "A credential should not require a re-hash without an upgradeable delegate";
+        assertThat(error, validator.needsRehash("secret".toCharArray()), is(equalTo(false)));
+
+        validator.hash("secret".toCharArray());
+    }
+
+    /**
+     * Test the default values of the validator cache properties
+     */
+    @Test
+    public void defaultPropertiesTest() {
+
+        ValidatorCacheProperties cacheProps = JaasBasedValidatorCachePropsBuilder.buildDefault();
+
+        String error = "delegate class name does not match expected default value";
+        assertThat(error, cacheProps.getDelegateClassName(),
+                is(equalTo(JaasBasedValidatorCachePropsBuilder.DEFAULT_DELEGATE_CLASS_NAME)));
+        error = "ttl does not match expected default value";
+        assertThat(error, cacheProps.getTtl(), is(equalTo(JaasBasedValidatorCachePropsBuilder.DEFAULT_TTL)));
+        error = "max entries does not match expected default value";
+        assertThat(error, cacheProps.getMaxEntries(),
+                is(equalTo(JaasBasedValidatorCachePropsBuilder.DEFAULT_MAX_ENTRIES)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedValidatorCachePropsBuilder.KEY_TTL, "-5");
+        map.put(JaasBasedValidatorCachePropsBuilder.KEY_MAX_ENTRIES, "many");
+        cacheProps = new ValidatorCacheProperties(JaasBasedValidatorCachePropsBuilder.build(map));
+        error = "invalid ttl should fall back to the default value";
+        assertThat(error, cacheProps.getTtl(), is(equalTo(JaasBasedValidatorCachePropsBuilder.DEFAULT_TTL)));
+        error = "invalid max entries should fall back to the default value";
+        assertThat(error, cacheProps.getMaxEntries(),
+                is(equalTo(JaasBasedValidatorCachePropsBuilder.DEFAULT_MAX_ENTRIES)));
+    }
+
+    /**
+     * Build a caching validator
+     *
+     * @param delegate   The class name of the delegate
+     * @param ttl        The time to live of a cached validation
+     * @param maxEntries The maximum number of cached validations
+     * @return The initialized validator
+     */
+    private static CachingPasswordValidator buildValidator(final String delegate, final String ttl,
+                                                           final String maxEntries) {
+
+        Map<String, String> map = new HashMap<>();
+        if (delegate != null) {
+            map.put(JaasBasedValidatorCachePropsBuilder.KEY_DELEGATE_CLASS_NAME, delegate);
+        }
+        map.put(JaasBasedValidatorCachePropsBuilder.KEY_TTL, ttl);
+        map.put(JaasBasedValidatorCachePropsBuilder.KEY_MAX_ENTRIES, maxEntries);
+        CommonProperties commonProps = JaasBasedCommonPropsBuilder.build(map);
+
+        CachingPasswordValidator validator = new CachingPasswordValidator();
+        validator.init(commonProps);
+        return validator;
+    }
+
+    /**
+     * Create a callback handler that provides the given credentials
+     *
+     * @param userName The username
+     * @param password The password
+     * @return The callback handler
+     */
+    private static CallbackHandler createCallbackHandler(final String userName, final String password) {
+
+        return new CallbackHandler() {
+            @Override
+            public void handle(final Callback[] callbacks) {
+
+                for (Callback callback : callbacks) {
+                    if (callback instanceof TextInputCallback) {
+                        ((TextInputCallback) callback).setText("domain");
+                    } else if (callback instanceof NameCallback) {
+                        ((NameCallback) callback).setName(userName);
+                    } else if (callback instanceof PasswordCallback) {
+                        ((PasswordCallback) callback).setPassword(password.toCharArray());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * A plain text password validator that counts its validations
+     */
+    public static class CountingValidator
+            implements PasswordValidator {
+
+        /**
+         * The number of validations
+         */
+        static final AtomicInteger CALLS = new AtomicInteger();
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public boolean validate(final char[] providedPassword, final char[] storedCredential) {
+
+            CALLS.incrementAndGet();
+            return providedPassword != null && Arrays.equals(providedPassword, storedCredential);
+        }
+    }
+}
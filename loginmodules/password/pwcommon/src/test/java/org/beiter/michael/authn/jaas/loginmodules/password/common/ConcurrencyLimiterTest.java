@@ -0,0 +1,209 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    /**
+     * A latency of one millisecond, in nanoseconds
+     */
+    private static final long MILLISECOND = 1000000L;
+
+    /**
+     * Test that authentications over the limit are rejected until an authentication is released
+     */
+    @Test
+    public void limitTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(buildProperties(3, 1, 10));
+
+        String error = "The authentications below the limit should be admitted";
+        for (int i = 0; i < 3; i++) {
+            assertThat(error, limiter.tryAcquire(), is(equalTo(true)));
+        }
+        assertThat(error, limiter.getInFlight(), is(equalTo(3)));
+
+        error = "The authentication over the limit should be rejected";
+        assertThat(error, limiter.tryAcquire(), is(equalTo(false)));
+        assertThat(error, limiter.getInFlight(), is(equalTo(3)));
+
+        limiter.release(MILLISECOND);
+        error = "An authentication should be admitted after another one has been released";
+        assertThat(error, limiter.tryAcquire(), is(equalTo(true)));
+    }
+
+    /**
+     * Test that the limit grows up to the maximum while the latency is stable, and only while it is used
+     */
+    @Test
+    public void growTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(buildProperties(10, 1, 50));
+
+        String error = "The limit should not grow while less than half of it is used";
+        for (int i = 0; i < 100; i++) {
+            limiter.update(MILLISECOND, 2);
+        }
+        assertThat(error, limiter.getLimit(), is(equalTo(10)));
+
+        error = "The limit should grow to the maximum while it is used and the latency is stable";
+        for (int i = 0; i < 100; i++) {
+            limiter.update(MILLISECOND, limiter.getLimit());
+        }
+        assertThat(error, limiter.getLimit(), is(equalTo(50)));
+    }
+
+    /**
+     * Test that the limit shrinks when the latency rises, and recovers when it drops again
+     */
+    @Test
+    public void shrinkTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(buildProperties(50, 6, 50));
+        for (int i = 0; i < 100; i++) {
+            limiter.update(MILLISECOND, limiter.getLimit());
+        }
+
+        String error = "The limit should shrink when the latency exceeds the tolerance";
+        for (int i = 0; i < 50; i++) {
+            limiter.update(10 * MILLISECOND, limiter.getLimit());
+        }
+        assertThat(error, limiter.getLimit(), is(lessThan(10)));
+
+        error = "The limit should not shrink below the minimum";
+        for (int i = 0; i < 50; i++) {
+            limiter.update(100 * MILLISECOND, limiter.getLimit());
+        }
+        assertThat(error, limiter.getLimit(), is(equalTo(6)));
+
+        error = "The limit should recover when the latency drops again";
+        for (int i = 0; i < 200; i++) {
+            limiter.update(MILLISECOND, limiter.getLimit());
+        }
+        assertThat(error, limiter.getLimit(), is(equalTo(50)));
+    }
+
+    /**
+     * Test that the limit shrinks when the latency rises, even while less than half of it is used
+     */
+    @Test
+    public void shrinkUnusedTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(buildProperties(20, 1, 50));
+        for (int i = 0; i < 100; i++) {
+            limiter.update(MILLISECOND, 2);
+        }
+
+        String error = "The limit should shrink when the latency exceeds the tolerance at a low concurrency";
+        for (int i = 0; i < 50; i++) {
+            limiter.update(10 * MILLISECOND, 2);
+        }
+        assertThat(error, limiter.getLimit(), is(lessThan(10)));
+    }
+
+    /**
+     * Test that the limit is only recomputed when a window of samples is complete
+     */
+    @Test
+    public void windowTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(buildProperties(10, 1, 50));
+
+        String error = "The limit should not change before the window is complete";
+        for (int i = 1; i < ConcurrencyLimiter.WINDOW_SAMPLES; i++) {
+            limiter.update(MILLISECOND, 10);
+        }
+        assertThat(error, limiter.getLimit(), is(equalTo(10)));
+
+        error = "The limit should grow when the window is complete";
+        limiter.update(MILLISECOND, 10);
+        assertThat(error, limiter.getLimit(), is(greaterThan(10)));
+    }
+
+    /**
+     * Test that login modules with the same configuration share a limiter, and login modules with a different
+     * configuration do not replace it
+     */
+    @Test
+    public void sharedLimiterTest() {
+
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance(buildProperties(7, 1, 8));
+        limiter.tryAcquire();
+
+        String error = "The shared limiter should be reused with the same configuration";
+        assertThat(error, ConcurrencyLimiter.getInstance(buildProperties(7, 1, 8)), is(sameInstance(limiter)));
+
+        error = "A different configuration should use a different limiter";
+        assertThat(error, ConcurrencyLimiter.getInstance(buildProperties(7, 1, 9)), is(not(sameInstance(limiter))));
+
+        error = "A different configuration should not replace the shared limiter";
+        assertThat(error, ConcurrencyLimiter.getInstance(buildProperties(7, 1, 8)), is(sameInstance(limiter)));
+        assertThat(error, limiter.getInFlight(), is(equalTo(1)));
+        limiter.release(MILLISECOND);
+    }
+
+    /**
+     * Test that invalid limits are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimitsTest() {
+
+        new ConcurrencyLimiter(buildProperties(10, 20, 10));
+    }
+
+    /**
+     * Build the limiter properties
+     *
+     * @param initialLimit The initial limit
+     * @param minLimit     The lowest limit
+     * @param maxLimit     The highest limit
+     * @return The properties
+     */
+    private static ConcurrencyLimitProperties buildProperties(final int initialLimit, final int minLimit,
+                                                              final int maxLimit) {
+
+        ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+        properties.setEnabled(true);
+        properties.setInitialLimit(initialLimit);
+        properties.setMinLimit(minLimit);
+        properties.setMaxLimit(maxLimit);
+        properties.setTolerance(2.0);
+        return properties;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MappedAttemptCounterTest {
+
+    /**
+     * The length of a window in the tests
+     */
+    private static final long WINDOW = 1000L;
+
+    /**
+     * The directory for the counter files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that two counters that map the same file (as two JVMs would) share the keys and the counts
+     *
+     * @throws IOException When the file cannot be mapped
+     */
+    @Test
+    public void sharedTest()
+            throws IOException {
+
+        // the shared counter needs atomic access to shared memory, which is not available in every JVM
+        Assume.assumeTrue(SharedMemory.isAvailable());
+
+        File file = new File(folder.getRoot(), "attempts");
+        MappedAttemptCounter counter1 = new MappedAttemptCounter(file, 1024, WINDOW);
+        MappedAttemptCounter counter2 = new MappedAttemptCounter(file, 1024, WINDOW);
+
+        ByteBuffer key = counter1.key("key".toCharArray());
+        String error = "Both counters should compute the same keys";
+        assertThat(error, counter2.key("key".toCharArray()), is(equalTo(key)));
+
+        error = "The attempts below the limit should have been counted";
+        assertThat(error, counter1.tryAcquire(key, 2, 10 * WINDOW), is(equalTo(true)));
+        assertThat(error, counter2.tryAcquire(key, 2, 10 * WINDOW), is(equalTo(true)));
+        error = "The attempt over the limit should have been rejected by either counter";
+        assertThat(error, counter1.tryAcquire(key, 2, 10 * WINDOW), is(equalTo(false)));
+        assertThat(error, counter2.tryAcquire(key, 2, 10 * WINDOW), is(equalTo(false)));
+
+        counter2.release(key, 10 * WINDOW);
+        error = "The released attempt should not count in either counter";
+        assertThat(error, counter1.count(key, 10 * WINDOW), is(closeTo(1, 0.01)));
+
+        error = "The attempts of the previous window should age out";
+        assertThat(error, counter2.count(key, 11 * WINDOW + WINDOW / 2), is(closeTo(0.5, 0.01)));
+        assertThat(error, counter2.count(key, 12 * WINDOW), is(closeTo(0, 0.01)));
+
+        error = "Other keys should not be counted";
+        assertThat(error, counter1.count(counter1.key("other".toCharArray()), 10 * WINDOW), is(closeTo(0, 0.01)));
+
+        error = "The counters of a file should have been shared by this JVM";
+        assertThat(error, MappedAttemptCounter.getInstance(file, 1024, WINDOW),
+                is(sameInstance(MappedAttemptCounter.getInstance(file, 1024, WINDOW))));
+    }
+
+    /**
+     * Test that a full table counts the keys that do not find a slot in the memory of the JVM, and that expired slots
+     * are reused
+     *
+     * @throws IOException When the file cannot be mapped
+     */
+    @Test
+    public void fullTableTest()
+            throws IOException {
+
+        // the shared counter needs atomic access to shared memory, which is not available in every JVM
+        Assume.assumeTrue(SharedMemory.isAvailable());
+
+        // the smallest table has one slot per probe
+        MappedAttemptCounter counter = new MappedAttemptCounter(new File(folder.getRoot(), "full"), 1, WINDOW);
+
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer key = counter.key(("key_" + i).toCharArray());
+            String error = "Every key should have been counted, with or without a slot";
+            assertThat(error, counter.tryAcquire(key, 1, 10 * WINDOW), is(equalTo(true)));
+            assertThat(error, counter.tryAcquire(key, 1, 10 * WINDOW), is(equalTo(false)));
+        }
+
+        ByteBuffer key = counter.key("later".toCharArray());
+        counter.tryAcquire(key, 1, 20 * WINDOW);
+        String error = "A new key should have claimed an expired slot";
+        assertThat(error, counter.tryAcquire(key, 1, 20 * WINDOW), is(equalTo(false)));
+        assertThat(error, counter.count(key, 20 * WINDOW), is(closeTo(1, 0.01)));
+    }
+
+    /**
+     * Test that a file that has been created with a different configuration is rejected
+     *
+     * @throws IOException When the file cannot be mapped
+     */
+    @Test(expected = IOException.class)
+    public void configurationMismatchTest()
+            throws IOException {
+
+        File file = new File(folder.getRoot(), "mismatch");
+        new MappedAttemptCounter(file, 1024, WINDOW);
+        new MappedAttemptCounter(file, 1024, 2 * WINDOW);
+    }
+
+    /**
+     * Test that a file that is not a counter file is rejected
+     *
+     * @throws IOException When the file cannot be mapped
+     */
+    @Test(expected = IOException.class)
+    public void invalidFileTest()
+            throws IOException {
+
+        File file = folder.newFile("invalid");
+        java.nio.file.Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        new MappedAttemptCounter(file, 1024, WINDOW);
+    }
+}
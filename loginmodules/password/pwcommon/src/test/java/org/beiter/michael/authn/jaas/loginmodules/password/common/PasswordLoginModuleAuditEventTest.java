@@ -0,0 +1,281 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.AuditEvent;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.audit.StructuredAudit;
+import org.beiter.michael.authn.jaas.common.listener.DeliveryMode;
+import org.beiter.michael.authn.jaas.common.listener.EventListener;
+import org.beiter.michael.authn.jaas.common.listener.EventListeners;
+import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.TextInputCallback;
+import javax.security.auth.login.LoginException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PasswordLoginModuleAuditEventTest {
+
+    /**
+     * Reset the factories and the recorded events
+     */
+    @Before
+    public void reset() {
+
+        AuditFactory.reset();
+        MessageQFactory.reset();
+        PasswordValidatorFactory.reset();
+        PasswordAuthenticatorFactory.reset();
+        RecordingAudit.EVENTS.clear();
+    }
+
+    /**
+     * Test that a successful login workflow creates structured audit events with all details
+     *
+     * @throws LoginException When the login fails
+     */
+    @Test
+    public void successfulLoginTest()
+            throws LoginException {
+
+        PasswordLoginModule loginModule = buildLoginModule("user_1", "correct");
+        loginModule.login();
+        loginModule.commit();
+        loginModule.logout();
+
+        List<AuditEvent> events = RecordingAudit.EVENTS;
+        String error = "The login workflow should have created structured audit events";
+        assertThat(error, events.size(), is(equalTo(3)));
+        assertThat(error, events.get(0).getEvent(), is(equalTo(Events.AUTHN_ATTEMPT)));
+        assertThat(error, events.get(1).getEvent(), is(equalTo(Events.AUTHN_SUCCESS)));
+        assertThat(error, events.get(2).getEvent(), is(equalTo(Events.AUTHN_LOGOUT)));
+
+        for (int i = 0; i < events.size(); i++) {
+            AuditEvent event = events.get(i);
+            error = "The audit event does not have the expected details";
+            assertThat(error, event.getDomain(), is(equalTo("domain")));
+            assertThat(error, event.getUsername(), is(equalTo("user_1")));
+            assertThat(error, event.getUserId(), is(equalTo("ID:user_1")));
+            assertThat(error, event.getDuration(), is(greaterThanOrEqualTo(0L)));
+            assertThat(error, event.getModuleInstanceId(), is(equalTo(events.get(0).getModuleInstanceId())));
+            error = "The audit events of the login workflow should be correlated";
+            assertThat(error, event.getCorrelationId(), is(notNullValue()));
+            assertThat(error, event.getCorrelationId(), is(equalTo(events.get(0).getCorrelationId())));
+            assertThat(error, event.getNodeId(), is(notNullValue()));
+            if (i > 0) {
+                error = "The audit events should be in sequence";
+                assertThat(error, event.getSequence(), is(greaterThan(events.get(i - 1).getSequence())));
+            }
+        }
+    }
+
+    /**
+     * Test that a logout creates a single audit event carrying all committed principals
+     *
+     * @throws LoginException When the login fails
+     */
+    @Test
+    public void logoutTest()
+            throws LoginException {
+
+        PasswordLoginModule loginModule = buildLoginModule("user_1", "correct");
+        loginModule.login();
+        loginModule.commit();
+        RecordingAudit.EVENTS.clear();
+        loginModule.logout();
+
+        List<AuditEvent> events = RecordingAudit.EVENTS;
+        String error = "The logout should have created a single audit event";
+        assertThat(error, events.size(), is(equalTo(1)));
+        assertThat(error, events.get(0).getEvent(), is(equalTo(Events.AUTHN_LOGOUT)));
+        error = "The logout event should carry the committed principals";
+        assertThat(error, events.get(0).getPrincipals(), contains("ID:user_1"));
+    }
+
+    /**
+     * Test that a failed login creates a structured audit event without a user ID
+     */
+    @Test
+    public void failedLoginTest() {
+
+        PasswordLoginModule loginModule1 = buildLoginModule("user_1", "wrong");
+        PasswordLoginModule loginModule2 = buildLoginModule("user_1", "wrong");
+        try {
+            loginModule1.login();
+            throw new AssertionError("The login should have failed");
+        } catch (LoginException e) {
+            // expected
+        }
+        try {
+            loginModule2.login();
+            throw new AssertionError("The login should have failed");
+        } catch (LoginException e) {
+            // expected
+        }
+
+        List<AuditEvent> events = RecordingAudit.EVENTS;
+        String error = "The failed logins should have been audited";
+        assertThat(error, events.size(), is(equalTo(2)));
+        assertThat(error, events.get(0).getEvent(), is(equalTo(Events.AUTHN_FAILURE)));
+        error = "A failed login should not resolve a user ID";
+        assertThat(error, events.get(0).getUserId(), is(nullValue()));
+        error = "Different module instances should have different IDs";
+        assertThat(error, events.get(0).getModuleInstanceId(),
+                is(not(equalTo(events.get(1).getModuleInstanceId()))));
+        error = "Different login workflows should have different correlation IDs";
+        assertThat(error, events.get(0).getCorrelationId(), is(not(equalTo(events.get(1).getCorrelationId()))));
+    }
+
+    /**
+     * Test that the listeners subscribed to an event are notified of the same event that is audited
+     */
+    @Test
+    public void listenerTest() {
+
+        final List<AuditEvent> notified = new CopyOnWriteArrayList<>();
+        EventListener listener = new EventListener() {
+            @Override
+            public void onEvent(final AuditEvent event) {
+
+                notified.add(event);
+            }
+        };
+        EventListeners.subscribe(Events.AUTHN_FAILURE, listener, DeliveryMode.SYNCHRONOUS);
+        try {
+            PasswordLoginModule loginModule = buildLoginModule("user_1", "wrong");
+            try {
+                loginModule.login();
+                throw new AssertionError("The login should have failed");
+            } catch (LoginException e) {
+                // expected
+            }
+        } finally {
+            EventListeners.unsubscribe(Events.AUTHN_FAILURE, listener);
+        }
+
+        String error = "The listener should have been notified of the audited event";
+        assertThat(error, notified, contains(RecordingAudit.EVENTS.get(0)));
+    }
+
+    /**
+     * Build an initialized login module that audits into a {@link RecordingAudit}
+     *
+     * @param userName The username
+     * @param password The password
+     * @return The login module
+     */
+    private static PasswordLoginModule buildLoginModule(final String userName, final String password) {
+
+        Map<String, String> options = new HashMap<>();
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "true");
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_SINGLETON, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_CLASS_NAME, RecordingAudit.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_MESSAGEQ_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_AUTHENTICATOR_CLASS_NAME,
+                PasswordLoginModuleFailureCacheTest.CountingAuthenticator.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_VALIDATOR_CLASS_NAME,
+                PasswordLoginModuleFailureCacheTest.EqualsValidator.class.getName());
+
+        PasswordLoginModule loginModule = new PasswordLoginModule();
+        loginModule.initialize(new Subject(), new CallbackHandler() {
+            @Override
+            public void handle(final Callback[] callbacks) {
+
+                for (Callback callback : callbacks) {
+                    if (callback instanceof TextInputCallback) {
+                        ((TextInputCallback) callback).setText("domain");
+                    } else if (callback instanceof NameCallback) {
+                        ((NameCallback) callback).setName(userName);
+                    } else if (callback instanceof PasswordCallback) {
+                        ((PasswordCallback) callback).setPassword(password.toCharArray());
+                    }
+                }
+            }
+        }, new HashMap<String, String>(), options);
+
+        return loginModule;
+    }
+
+    /**
+     * A structured audit implementation that records the audited events
+     */
+    public static class RecordingAudit
+            implements StructuredAudit {
+
+        /**
+         * The audited events
+         */
+        static final List<AuditEvent> EVENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public void audit(final Events event, final String userId) {
+
+            throw new AssertionError("The structured audit method should have been used");
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username) {
+
+            throw new AssertionError("The structured audit method should have been used");
+        }
+
+        @Override
+        public void audit(final AuditEvent event) {
+
+            EVENTS.add(event);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.UserPrincipal;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordLoginModuleFailureCacheTest.EqualsValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedConcurrencyLimitPropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PasswordLoginModuleConcurrencyLimitTest {
+
+    /**
+     * The correct password for all users of the test authenticator
+     */
+    private static final String PASSWORD = "correct";
+
+    /**
+     * Reset the factories and the blocking authenticator
+     */
+    @Before
+    public void reset() {
+
+        AuditFactory.reset();
+        MessageQFactory.reset();
+        PasswordValidatorFactory.reset();
+        PasswordAuthenticatorFactory.reset();
+        BlockingAuthenticator.entered = new CountDownLatch(1);
+        BlockingAuthenticator.proceed = new CountDownLatch(1);
+    }
+
+    /**
+     * Test that logins over the limit are rejected immediately with a distinguishable exception
+     *
+     * @throws Exception When the test fails unexpectedly
+     */
+    @Test
+    public void overloadTest()
+            throws Exception {
+
+        final Map<String, String> options = buildOptions("true");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Class<?>> blocked = executor.submit(new Callable<Class<?>>() {
+                @Override
+                public Class<?> call() {
+
+                    return login(options, BlockingAuthenticator.BLOCKING, PASSWORD);
+                }
+            });
+
+            String error = "The first login should have reached the authenticator";
+            assertThat(error, BlockingAuthenticator.entered.await(10, TimeUnit.SECONDS), is(equalTo(true)));
+
+            error = "The login over the limit should be rejected as overloaded, even with the correct password";
+            assertThat(error, login(options, "other", PASSWORD),
+                    is(equalTo((Class) LoginOverloadedException.class)));
+
+            BlockingAuthenticator.proceed.countDown();
+            error = "The login within the limit should succeed";
+            assertThat(error, blocked.get(10, TimeUnit.SECONDS), is(nullValue()));
+        } finally {
+            BlockingAuthenticator.proceed.countDown();
+            executor.shutdownNow();
+        }
+
+        String error = "Logins should be admitted again once the authentication in progress has completed";
+        assertThat(error, login(options, "other", PASSWORD), is(nullValue()));
+        error = "Failed authentications should release the limit as well";
+        assertThat(error, login(options, "other", "wrong"), is(equalTo((Class) FailedLoginException.class)));
+        assertThat(error, login(options, "other", PASSWORD), is(nullValue()));
+    }
+
+    /**
+     * Test the values of the concurrency limit properties
+     */
+    @Test
+    public void propertiesTest() {
+
+        ConcurrencyLimitProperties limitProps = JaasBasedConcurrencyLimitPropsBuilder.buildDefault();
+
+        String error = "is enabled does not match expected default value";
+        assertThat(error, limitProps.isEnabled(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_IS_ENABLED)));
+        error = "initial limit does not match expected default value";
+        assertThat(error, limitProps.getInitialLimit(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_INITIAL_LIMIT)));
+        error = "min limit does not match expected default value";
+        assertThat(error, limitProps.getMinLimit(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_MIN_LIMIT)));
+        error = "max limit does not match expected default value";
+        assertThat(error, limitProps.getMaxLimit(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_MAX_LIMIT)));
+        error = "tolerance does not match expected default value";
+        assertThat(error, limitProps.getTolerance(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_TOLERANCE)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_IS_ENABLED, "true");
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_INITIAL_LIMIT, "42");
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_MIN_LIMIT, "43");
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_MAX_LIMIT, "44");
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_TOLERANCE, "1.5");
+        limitProps = new ConcurrencyLimitProperties(JaasBasedConcurrencyLimitPropsBuilder.build(map));
+
+        error = "is enabled does not match expected value";
+        assertThat(error, limitProps.isEnabled(), is(equalTo(true)));
+        error = "initial limit does not match expected value";
+        assertThat(error, limitProps.getInitialLimit(), is(equalTo(42)));
+        error = "min limit does not match expected value";
+        assertThat(error, limitProps.getMinLimit(), is(equalTo(43)));
+        error = "max limit does not match expected value";
+        assertThat(error, limitProps.getMaxLimit(), is(equalTo(44)));
+        error = "tolerance does not match expected value";
+        assertThat(error, limitProps.getTolerance(), is(equalTo(1.5)));
+
+        map.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_TOLERANCE, "0.5");
+        error = "a tolerance lower than 1 should be ignored";
+        assertThat(error, JaasBasedConcurrencyLimitPropsBuilder.build(map).getTolerance(),
+                is(equalTo(JaasBasedConcurrencyLimitPropsBuilder.DEFAULT_TOLERANCE)));
+    }
+
+    /**
+     * Build the login module options, with a limit of one concurrent login
+     *
+     * @param enabled Whether the limiter is enabled
+     * @return The options
+     */
+    private static Map<String, String> buildOptions(final String enabled) {
+
+        Map<String, String> options = new HashMap<>();
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_MESSAGEQ_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_AUTHENTICATOR_CLASS_NAME,
+                BlockingAuthenticator.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_VALIDATOR_CLASS_NAME,
+                EqualsValidator.class.getName());
+        options.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_IS_ENABLED, enabled);
+        options.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_INITIAL_LIMIT, "1");
+        options.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_MIN_LIMIT, "1");
+        options.put(JaasBasedConcurrencyLimitPropsBuilder.KEY_MAX_LIMIT, "1");
+        return options;
+    }
+
+    /**
+     * Log in with a new login module instance
+     *
+     * @param options  The login module options
+     * @param userName The username
+     * @param password The password
+     * @return {@code null} if the login succeeded, or the class of the exception if it failed
+     */
+    private static Class<?> login(final Map<String, String> options, final String userName, final String password) {
+
+        PasswordLoginModule loginModule = new PasswordLoginModule();
+        loginModule.initialize(new Subject(),
+                new PasswordCallbackHandler("domain", userName, password.toCharArray()),
+                new HashMap<String, String>(), options);
+        try {
+            loginModule.login();
+            return null;
+        } catch (LoginException e) {
+            return e.getClass();
+        }
+    }
+
+    /**
+     * An authenticator that blocks the authentication of one username until it is told to proceed
+     */
+    public static class BlockingAuthenticator
+            implements PasswordAuthenticator {
+
+        /**
+         * The username of which the authentication blocks
+         */
+        static final String BLOCKING = "blocking";
+
+        /**
+         * Released when the blocking authentication has started
+         */
+        static volatile CountDownLatch entered;
+
+        /**
+         * Released to let the blocking authentication proceed
+         */
+        static volatile CountDownLatch proceed;
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public Subject authenticate(final String domain, final String userName, final char[] password,
+                                    final PasswordValidator passwordValidator)
+                throws LoginException {
+
+            if (BLOCKING.equals(userName)) {
+                entered.countDown();
+                try {
+                    proceed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (!passwordValidator.validate(password, PASSWORD.toCharArray())) {
+                throw new FailedLoginException("Invalid password");
+            }
+
+            Subject subject = new Subject();
+            subject.getPrincipals().add(new UserPrincipal("ID:" + userName, domain, userName));
+            return subject;
+        }
+    }
+}
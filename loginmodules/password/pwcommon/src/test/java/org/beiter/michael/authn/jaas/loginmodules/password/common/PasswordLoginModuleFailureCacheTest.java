@@ -0,0 +1,329 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.UserPrincipal;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedFailureCachePropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.TextInputCallback;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PasswordLoginModuleFailureCacheTest {
+
+    /**
+     * The correct password for all users of the test authenticator
+     */
+    private static final String PASSWORD = "correct";
+
+    /**
+     * Reset the factories and the authenticator's call counter
+     */
+    @Before
+    public void reset() {
+
+        AuditFactory.reset();
+        MessageQFactory.reset();
+        PasswordValidatorFactory.reset();
+        PasswordAuthenticatorFactory.reset();
+        CountingAuthenticator.CALLS.set(0);
+    }
+
+    /**
+     * Test that a repeated wrong password is rejected without contacting the authenticator
+     */
+    @Test
+    public void repeatedFailureRejectedTest() {
+
+        Map<String, String> options = buildOptions("true");
+
+        String error = "The first attempt with a wrong password should fail";
+        assertThat(error, login(options, "repeated", "wrong"), is(equalTo(false)));
+        error = "The repeated attempt with a wrong password should fail";
+        assertThat(error, login(options, "repeated", "wrong"), is(equalTo(false)));
+        error = "The repeated attempt should have been rejected without contacting the authenticator";
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(1)));
+
+        error = "A different wrong password should be passed to the authenticator";
+        assertThat(error, login(options, "repeated", "other"), is(equalTo(false)));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(2)));
+
+        error = "The correct password should not be affected by recent failures";
+        assertThat(error, login(options, "repeated", PASSWORD), is(equalTo(true)));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+    }
+
+    /**
+     * Test that failures for other reasons than a wrong password are not remembered
+     */
+    @Test
+    public void otherFailureNotRememberedTest() {
+
+        Map<String, String> options = buildOptions("true");
+
+        login(options, CountingAuthenticator.UNAVAILABLE, "wrong");
+        login(options, CountingAuthenticator.UNAVAILABLE, "wrong");
+
+        String error = "A failure because of an unavailable user store should not be remembered";
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(2)));
+    }
+
+    /**
+     * Test that failures are not remembered if the cache is disabled
+     */
+    @Test
+    public void disabledTest() {
+
+        Map<String, String> options = buildOptions("false");
+
+        login(options, "disabled", "wrong");
+        login(options, "disabled", "wrong");
+
+        String error = "All attempts should be passed to the authenticator if the cache is disabled";
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(2)));
+    }
+
+    /**
+     * Test the values of the failure cache properties
+     */
+    @Test
+    public void propertiesTest() {
+
+        FailureCacheProperties cacheProps = JaasBasedFailureCachePropsBuilder.buildDefault();
+
+        String error = "is enabled does not match expected default value";
+        assertThat(error, cacheProps.isEnabled(), is(equalTo(JaasBasedFailureCachePropsBuilder.DEFAULT_IS_ENABLED)));
+        error = "window does not match expected default value";
+        assertThat(error, cacheProps.getWindow(), is(equalTo(JaasBasedFailureCachePropsBuilder.DEFAULT_WINDOW)));
+        error = "max entries does not match expected default value";
+        assertThat(error, cacheProps.getMaxEntries(),
+                is(equalTo(JaasBasedFailureCachePropsBuilder.DEFAULT_MAX_ENTRIES)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedFailureCachePropsBuilder.KEY_IS_ENABLED, "true");
+        map.put(JaasBasedFailureCachePropsBuilder.KEY_WINDOW, "42");
+        map.put(JaasBasedFailureCachePropsBuilder.KEY_MAX_ENTRIES, "43");
+        cacheProps = new FailureCacheProperties(JaasBasedFailureCachePropsBuilder.build(map));
+
+        error = "is enabled does not match expected value";
+        assertThat(error, cacheProps.isEnabled(), is(equalTo(true)));
+        error = "window does not match expected value";
+        assertThat(error, cacheProps.getWindow(), is(equalTo(42L)));
+        error = "max entries does not match expected value";
+        assertThat(error, cacheProps.getMaxEntries(), is(equalTo(43)));
+    }
+
+    /**
+     * Test that the shared cache is bounded, and that login modules with different configurations use different caches
+     */
+    @Test
+    public void sharedCacheTest() {
+
+        FailureCacheProperties cacheProps = new FailureCacheProperties();
+        cacheProps.setWindow(60000L);
+        cacheProps.setMaxEntries(2);
+
+        FailedLoginCache cache = FailedLoginCache.getInstance(cacheProps);
+        cache.add("domain", "one", "wrong".toCharArray());
+        cache.add("domain", "two", "wrong".toCharArray());
+        cache.add("domain", "three", "wrong".toCharArray());
+
+        String error = "The cache has grown beyond its maximum size";
+        assertThat(error, cache.size(), is(equalTo(2)));
+        error = "The oldest failure should have been evicted";
+        assertThat(error, cache.contains("domain", "one", "wrong".toCharArray()), is(equalTo(false)));
+        error = "The newest failure should be remembered";
+        assertThat(error, cache.contains("domain", "three", "wrong".toCharArray()), is(equalTo(true)));
+        error = "A failure should only match the same domain";
+        assertThat(error, cache.contains("other", "three", "wrong".toCharArray()), is(equalTo(false)));
+
+        error = "The shared cache should be reused with the same configuration";
+        assertThat(error, FailedLoginCache.getInstance(new FailureCacheProperties(cacheProps)),
+                is(sameInstance(cache)));
+
+        FailureCacheProperties otherProps = new FailureCacheProperties(cacheProps);
+        otherProps.setMaxEntries(3);
+        error = "A different configuration should use a different cache";
+        assertThat(error, FailedLoginCache.getInstance(otherProps), is(not(sameInstance(cache))));
+        error = "A different configuration should not replace the shared cache";
+        assertThat(error, FailedLoginCache.getInstance(cacheProps), is(sameInstance(cache)));
+        assertThat(error, cache.contains("domain", "three", "wrong".toCharArray()), is(equalTo(true)));
+    }
+
+    /**
+     * Build the login module options
+     *
+     * @param enabled Whether the failure cache is enabled
+     * @return The options
+     */
+    private static Map<String, String> buildOptions(final String enabled) {
+
+        Map<String, String> options = new HashMap<>();
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_MESSAGEQ_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_AUTHENTICATOR_CLASS_NAME,
+                CountingAuthenticator.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_VALIDATOR_CLASS_NAME,
+                EqualsValidator.class.getName());
+        options.put(JaasBasedFailureCachePropsBuilder.KEY_IS_ENABLED, enabled);
+        options.put(JaasBasedFailureCachePropsBuilder.KEY_WINDOW, "60000");
+        return options;
+    }
+
+    /**
+     * Log in with a new login module instance
+     *
+     * @param options  The login module options
+     * @param userName The username
+     * @param password The password
+     * @return {@code true} if the login succeeded, {@code false} if it failed
+     */
+    private static boolean login(final Map<String, String> options, final String userName, final String password) {
+
+        PasswordLoginModule loginModule = new PasswordLoginModule();
+        loginModule.initialize(new Subject(), createCallbackHandler("domain", userName, password),
+                new HashMap<String, String>(), options);
+        try {
+            return loginModule.login();
+        } catch (LoginException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a callback handler that provides the given credentials
+     *
+     * @param domain   The domain
+     * @param userName The username
+     * @param password The password
+     * @return The callback handler
+     */
+    private static CallbackHandler createCallbackHandler(final String domain, final String userName,
+                                                         final String password) {
+
+        return new CallbackHandler() {
+            @Override
+            public void handle(final Callback[] callbacks) {
+
+                for (Callback callback : callbacks) {
+                    if (callback instanceof TextInputCallback) {
+                        ((TextInputCallback) callback).setText(domain);
+                    } else if (callback instanceof NameCallback) {
+                        ((NameCallback) callback).setName(userName);
+                    } else if (callback instanceof PasswordCallback) {
+                        ((PasswordCallback) callback).setPassword(password.toCharArray());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * An authenticator that counts its calls, and accepts the same password for all users
+     */
+    public static class CountingAuthenticator
+            implements PasswordAuthenticator {
+
+        /**
+         * The username for which the user store is unavailable
+         */
+        static final String UNAVAILABLE = "unavailable";
+
+        /**
+         * The number of authentications
+         */
+        static final AtomicInteger CALLS = new AtomicInteger();
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public Subject authenticate(final String domain, final String userName, final char[] password,
+                                    final PasswordValidator passwordValidator)
+                throws LoginException {
+
+            CALLS.incrementAndGet();
+            if (UNAVAILABLE.equals(userName)) {
+                throw new LoginException("The user store is unavailable");
+            }
+            if (!passwordValidator.validate(password, PASSWORD.toCharArray())) {
+                throw new FailedLoginException("Invalid password");
+            }
+
+            Subject subject = new Subject();
+            subject.getPrincipals().add(new UserPrincipal("ID:" + userName, domain, userName));
+            return subject;
+        }
+    }
+
+    /**
+     * A plain text password validator
+     */
+    public static class EqualsValidator
+            implements PasswordValidator {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public boolean validate(final char[] providedPassword, final char[] storedCredential) {
+
+            return providedPassword != null && Arrays.equals(providedPassword, storedCredential);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.Events;
+import org.beiter.michael.authn.jaas.common.audit.Audit;
+import org.beiter.michael.authn.jaas.common.audit.AuditException;
+import org.beiter.michael.authn.jaas.common.audit.AuditFactory;
+import org.beiter.michael.authn.jaas.common.messageq.MessageQFactory;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordLoginModuleFailureCacheTest.CountingAuthenticator;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordLoginModuleFailureCacheTest.EqualsValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.propsbuilder.JaasBasedThrottlePropsBuilder;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.TextInputCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.AccountLockedException;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PasswordLoginModuleThrottleTest {
+
+    /**
+     * The correct password for all users of the test authenticator
+     */
+    private static final String PASSWORD = "correct";
+
+    /**
+     * The directory for the shared files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reset the factories and the authenticator's call counter
+     */
+    @Before
+    public void reset() {
+
+        AuditFactory.reset();
+        MessageQFactory.reset();
+        PasswordValidatorFactory.reset();
+        PasswordAuthenticatorFactory.reset();
+        CountingAuthenticator.CALLS.set(0);
+    }
+
+    /**
+     * Test that attempts over the limit of a username are rejected without contacting the authenticator
+     */
+    @Test
+    public void userThrottledTest() {
+
+        Map<String, String> options = buildOptions("true", "3", "0");
+
+        String error = "The attempts below the limit should be passed to the authenticator";
+        for (int i = 0; i < 3; i++) {
+            assertThat(error, login(options, "throttled", "wrong_" + i, null),
+                    is(equalTo((Class) FailedLoginException.class)));
+        }
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+
+        error = "The attempt over the limit should have been throttled, even with the correct password";
+        assertThat(error, login(options, "throttled", PASSWORD, null),
+                is(equalTo((Class) AccountLockedException.class)));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+
+        error = "Other usernames should not be throttled";
+        assertThat(error, login(options, "other", PASSWORD, null), is(nullValue()));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(4)));
+    }
+
+    /**
+     * Test that successful logins and failures for other reasons than the credentials do not count against the limit
+     */
+    @Test
+    public void onlyFailuresCountedTest() {
+
+        Map<String, String> options = buildOptions("true", "2", "0");
+
+        String error = "Successful logins should not count against the limit";
+        for (int i = 0; i < 5; i++) {
+            assertThat(error, login(options, "successful", PASSWORD, null), is(nullValue()));
+        }
+
+        error = "Failures because of an unavailable user store should not count against the limit";
+        for (int i = 0; i < 5; i++) {
+            assertThat(error, login(options, CountingAuthenticator.UNAVAILABLE, PASSWORD, null),
+                    is(equalTo((Class) LoginException.class)));
+        }
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(10)));
+    }
+
+    /**
+     * Test that a successful attempt is released exactly once, even if auditing the successful login fails
+     */
+    @Test
+    public void failedAuditReleasedOnceTest() {
+
+        Map<String, String> options = buildOptions("true", "2", "0");
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "true");
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_SINGLETON, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_CLASS_NAME, FailingSuccessAudit.class.getName());
+
+        login(options, "audited", "wrong_1", null);
+
+        String error = "The login should fail if the successful login cannot be audited";
+        assertThat(error, login(options, "audited", PASSWORD, null), is(equalTo((Class) LoginException.class)));
+
+        login(options, "audited", "wrong_2", null);
+        error = "The attempt over the limit should have been throttled, the successful attempt was released twice";
+        assertThat(error, login(options, "audited", "wrong_3", null),
+                is(equalTo((Class) AccountLockedException.class)));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+    }
+
+    /**
+     * Test that attempts over the limit of a client are rejected, regardless of the username
+     */
+    @Test
+    public void clientThrottledTest() {
+
+        Map<String, String> options = buildOptions("true", "10", "2");
+
+        login(options, "client_1", "wrong", "192.0.2.1");
+        login(options, "client_2", "wrong", "192.0.2.1");
+
+        String error = "The attempt over the limit of the client should have been throttled";
+        assertThat(error, login(options, "client_3", PASSWORD, "192.0.2.1"),
+                is(equalTo((Class) AccountLockedException.class)));
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(2)));
+
+        error = "Other clients should not be throttled";
+        assertThat(error, login(options, "client_3", PASSWORD, "192.0.2.2"), is(nullValue()));
+        error = "Attempts without a client hint should only be throttled per username";
+        assertThat(error, login(options, "client_3", PASSWORD, null), is(nullValue()));
+    }
+
+    /**
+     * Test that the attempts are throttled per username only if the callback handler does not support the client
+     * hint, even if it answers every text input callback
+     */
+    @Test
+    public void clientHintUnsupportedTest() {
+
+        Map<String, String> options = buildOptions("true", "10", "2");
+
+        login(options, createCallbackHandler("unsupported_1", "wrong"));
+        login(options, createCallbackHandler("unsupported_2", "wrong"));
+        login(options, createCallbackHandler("unsupported_3", "wrong"));
+
+        String error = "The attempts should not have been throttled per client";
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+        assertThat(error, login(options, createCallbackHandler("unsupported_4", PASSWORD)), is(nullValue()));
+    }
+
+    /**
+     * Test that the attempts are counted in the shared file if one is configured
+     *
+     * @throws IOException When the temporary folder cannot be created
+     */
+    @Test
+    public void sharedFileTest()
+            throws IOException {
+
+        // the shared counter needs atomic access to shared memory, which is not available in every JVM
+        Assume.assumeTrue(SharedMemory.isAvailable());
+
+        Map<String, String> options = buildOptions("true", "2", "0");
+        options.put(JaasBasedThrottlePropsBuilder.KEY_SHARED_FILE, folder.newFolder().getPath() + "/attempts");
+
+        ThrottleProperties throttleProps = JaasBasedThrottlePropsBuilder.build(options);
+        String error = "The throttle should count in the shared file";
+        assertThat(error, LoginThrottle.getInstance(throttleProps).isShared(), is(equalTo(true)));
+
+        login(options, "shared", "wrong_1", null);
+        login(options, "shared", "wrong_2", null);
+        error = "The attempt over the limit should have been throttled";
+        assertThat(error, login(options, "shared", PASSWORD, null), is(equalTo((Class) AccountLockedException.class)));
+
+        File invalid = folder.newFile();
+        Files.write(invalid.toPath(), new byte[]{1, 2, 3});
+        options.put(JaasBasedThrottlePropsBuilder.KEY_SHARED_FILE, invalid.getPath());
+        error = "The throttle should fall back to counting in the JVM if the shared file cannot be used";
+        assertThat(error, LoginThrottle.getInstance(JaasBasedThrottlePropsBuilder.build(options)).isShared(),
+                is(equalTo(false)));
+    }
+
+    /**
+     * Test that login modules with the same configuration share a throttle, and login modules with a different
+     * configuration do not replace it
+     */
+    @Test
+    public void sharedThrottleTest() {
+
+        Map<String, String> options = buildOptions("true", "2", "0");
+        LoginThrottle throttle = LoginThrottle.getInstance(JaasBasedThrottlePropsBuilder.build(options));
+        login(options, "config", "wrong_1", null);
+        login(options, "config", "wrong_2", null);
+
+        Map<String, String> otherOptions = buildOptions("true", "5", "0");
+        String error = "A different configuration should use a different throttle";
+        assertThat(error, LoginThrottle.getInstance(JaasBasedThrottlePropsBuilder.build(otherOptions)),
+                is(not(sameInstance(throttle))));
+        login(otherOptions, "config", "wrong_3", null);
+
+        error = "A different configuration should not replace the shared throttle";
+        assertThat(error, LoginThrottle.getInstance(JaasBasedThrottlePropsBuilder.build(options)),
+                is(sameInstance(throttle)));
+        error = "The attempts counted by the shared throttle should have been kept";
+        assertThat(error, login(options, "config", PASSWORD, null), is(equalTo((Class) AccountLockedException.class)));
+    }
+
+    /**
+     * Test that no attempts are throttled if the throttle is disabled
+     */
+    @Test
+    public void disabledTest() {
+
+        Map<String, String> options = buildOptions("false", "1", "1");
+
+        login(options, "disabled", "wrong", "192.0.2.3");
+        login(options, "disabled", "wrong", "192.0.2.3");
+        login(options, "disabled", "wrong", "192.0.2.3");
+
+        String error = "All attempts should be passed to the authenticator if the throttle is disabled";
+        assertThat(error, CountingAuthenticator.CALLS.get(), is(equalTo(3)));
+    }
+
+    /**
+     * Test the values of the throttle properties
+     */
+    @Test
+    public void propertiesTest() {
+
+        ThrottleProperties throttleProps = JaasBasedThrottlePropsBuilder.buildDefault();
+
+        String error = "is enabled does not match expected default value";
+        assertThat(error, throttleProps.isEnabled(), is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_IS_ENABLED)));
+        error = "window does not match expected default value";
+        assertThat(error, throttleProps.getWindow(), is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_WINDOW)));
+        error = "max attempts does not match expected default value";
+        assertThat(error, throttleProps.getMaxAttempts(),
+                is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_MAX_ATTEMPTS)));
+        error = "max client attempts does not match expected default value";
+        assertThat(error, throttleProps.getMaxClientAttempts(),
+                is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_MAX_CLIENT_ATTEMPTS)));
+        error = "slots does not match expected default value";
+        assertThat(error, throttleProps.getSlots(), is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_SLOTS)));
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedThrottlePropsBuilder.KEY_IS_ENABLED, "true");
+        map.put(JaasBasedThrottlePropsBuilder.KEY_WINDOW, "42");
+        map.put(JaasBasedThrottlePropsBuilder.KEY_MAX_ATTEMPTS, "43");
+        map.put(JaasBasedThrottlePropsBuilder.KEY_MAX_CLIENT_ATTEMPTS, "44");
+        map.put(JaasBasedThrottlePropsBuilder.KEY_SLOTS, "45");
+        throttleProps = new ThrottleProperties(JaasBasedThrottlePropsBuilder.build(map));
+
+        error = "is enabled does not match expected value";
+        assertThat(error, throttleProps.isEnabled(), is(equalTo(true)));
+        error = "window does not match expected value";
+        assertThat(error, throttleProps.getWindow(), is(equalTo(42L)));
+        error = "max attempts does not match expected value";
+        assertThat(error, throttleProps.getMaxAttempts(), is(equalTo(43)));
+        error = "max client attempts does not match expected value";
+        assertThat(error, throttleProps.getMaxClientAttempts(), is(equalTo(44)));
+        error = "slots does not match expected value";
+        assertThat(error, throttleProps.getSlots(), is(equalTo(45)));
+
+        map.put(JaasBasedThrottlePropsBuilder.KEY_MAX_CLIENT_ATTEMPTS, "-1");
+        error = "a negative max client attempts should be ignored";
+        assertThat(error, JaasBasedThrottlePropsBuilder.build(map).getMaxClientAttempts(),
+                is(equalTo(JaasBasedThrottlePropsBuilder.DEFAULT_MAX_CLIENT_ATTEMPTS)));
+    }
+
+    /**
+     * Build the login module options
+     *
+     * @param enabled           Whether the throttle is enabled
+     * @param maxAttempts       The maximum number of attempts per username
+     * @param maxClientAttempts The maximum number of attempts per client
+     * @return The options
+     */
+    private static Map<String, String> buildOptions(final String enabled, final String maxAttempts,
+                                                    final String maxClientAttempts) {
+
+        Map<String, String> options = new HashMap<>();
+        options.put(JaasBasedCommonPropsBuilder.KEY_AUDIT_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_MESSAGEQ_IS_ENABLED, "false");
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_AUTHENTICATOR_CLASS_NAME,
+                CountingAuthenticator.class.getName());
+        options.put(JaasBasedCommonPropsBuilder.KEY_PASSWORD_VALIDATOR_CLASS_NAME,
+                EqualsValidator.class.getName());
+        options.put(JaasBasedThrottlePropsBuilder.KEY_IS_ENABLED, enabled);
+        options.put(JaasBasedThrottlePropsBuilder.KEY_WINDOW, "60000");
+        options.put(JaasBasedThrottlePropsBuilder.KEY_MAX_ATTEMPTS, maxAttempts);
+        options.put(JaasBasedThrottlePropsBuilder.KEY_MAX_CLIENT_ATTEMPTS, maxClientAttempts);
+        return options;
+    }
+
+    /**
+     * Log in with a new login module instance
+     *
+     * @param options    The login module options
+     * @param userName   The username
+     * @param password   The password
+     * @param clientHint The client hint, may be {@code null}
+     * @return {@code null} if the login succeeded, or the class of the exception if it failed
+     */
+    private static Class<?> login(final Map<String, String> options, final String userName, final String password,
+                                  final String clientHint) {
+
+        return login(options, new PasswordCallbackHandler("domain", userName, password.toCharArray(), clientHint));
+    }
+
+    /**
+     * Log in with a new login module instance
+     *
+     * @param options         The login module options
+     * @param callbackHandler The callback handler
+     * @return {@code null} if the login succeeded, or the class of the exception if it failed
+     */
+    private static Class<?> login(final Map<String, String> options, final CallbackHandler callbackHandler) {
+
+        PasswordLoginModule loginModule = new PasswordLoginModule();
+        loginModule.initialize(new Subject(), callbackHandler, new HashMap<String, String>(), options);
+        try {
+            loginModule.login();
+            return null;
+        } catch (LoginException e) {
+            return e.getClass();
+        }
+    }
+
+    /**
+     * Create a callback handler that answers every text input callback with the domain, and does not support any
+     * callbacks other than the standard ones
+     *
+     * @param userName The username
+     * @param password The password
+     * @return The callback handler
+     */
+    private static CallbackHandler createCallbackHandler(final String userName, final String password) {
+
+        return new CallbackHandler() {
+            @Override
+            public void handle(final Callback[] callbacks)
+                    throws UnsupportedCallbackException {
+
+                for (Callback callback : callbacks) {
+                    if (callback instanceof TextInputCallback) {
+                        ((TextInputCallback) callback).setText("domain");
+                    } else if (callback instanceof NameCallback) {
+                        ((NameCallback) callback).setName(userName);
+                    } else if (callback instanceof PasswordCallback) {
+                        ((PasswordCallback) callback).setPassword(password.toCharArray());
+                    } else {
+                        throw new UnsupportedCallbackException(callback);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * An audit implementation that fails to audit successful logins
+     */
+    public static class FailingSuccessAudit
+            implements Audit {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public void audit(final Events event, final String userId)
+                throws AuditException {
+
+            audit(event, null, userId);
+        }
+
+        @Override
+        public void audit(final Events event, final String domain, final String username)
+                throws AuditException {
+
+            if (event == Events.AUTHN_ATTEMPT) {
+                throw new AuditException("Cannot audit successful logins");
+            }
+        }
+    }
+}
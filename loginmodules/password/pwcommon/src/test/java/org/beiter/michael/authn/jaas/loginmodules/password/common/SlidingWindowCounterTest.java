@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing common functionality
+ * for a username / password style JAAS module.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SlidingWindowCounterTest {
+
+    /**
+     * The length of a window in the tests
+     */
+    private static final long WINDOW = 1000L;
+
+    /**
+     * Test that events over the limit are rejected, and age out of the sliding window
+     */
+    @Test
+    public void slidingWindowTest() {
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(1024, WINDOW);
+        ByteBuffer key = KeyedHash.of("key".toCharArray());
+
+        String error = "The events below the limit should have been counted";
+        assertThat(error, counter.tryAcquire(key, 2, 10 * WINDOW), is(equalTo(true)));
+        assertThat(error, counter.tryAcquire(key, 2, 10 * WINDOW + 1), is(equalTo(true)));
+        error = "The event over the limit should have been rejected";
+        assertThat(error, counter.tryAcquire(key, 2, 10 * WINDOW + 2), is(equalTo(false)));
+        error = "The rejected event should not have been counted";
+        assertThat(error, counter.count(key, 10 * WINDOW + 2), is(closeTo(2, 0.01)));
+
+        error = "Half of the events of the previous window should have aged out";
+        assertThat(error, counter.count(key, 11 * WINDOW + WINDOW / 2), is(closeTo(1, 0.01)));
+        assertThat(error, counter.tryAcquire(key, 2, 11 * WINDOW + WINDOW / 2), is(equalTo(true)));
+        assertThat(error, counter.tryAcquire(key, 2, 11 * WINDOW + WINDOW / 2), is(equalTo(false)));
+
+        error = "All events should have aged out after two windows";
+        assertThat(error, counter.count(key, 13 * WINDOW), is(closeTo(0, 0.01)));
+    }
+
+    /**
+     * Test that released events do not count
+     */
+    @Test
+    public void releaseTest() {
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(1024, WINDOW);
+        ByteBuffer key = KeyedHash.of("key".toCharArray());
+
+        for (int i = 0; i < 5; i++) {
+            counter.tryAcquire(key, 1, WINDOW);
+            counter.release(key, WINDOW);
+        }
+        counter.release(key, WINDOW);
+
+        String error = "Released events should not count, and the count should not drop below zero";
+        assertThat(error, counter.count(key, WINDOW), is(closeTo(0, 0.01)));
+        assertThat(error, counter.tryAcquire(key, 1, WINDOW), is(equalTo(true)));
+        assertThat(error, counter.count(key, WINDOW), is(closeTo(1, 0.01)));
+
+        error = "Other keys should not be counted";
+        assertThat(error, counter.count(KeyedHash.of("other".toCharArray()), WINDOW), is(closeTo(0, 0.01)));
+    }
+}
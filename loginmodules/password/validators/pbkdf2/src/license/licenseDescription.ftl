@@ -0,0 +1,2 @@
+This file is part of a universal JAAS library, providing a PBKDF2 password
+validator.
\ No newline at end of file
@@ -0,0 +1,395 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe front end for {@link MultiBufferPbkdf2} that funnels concurrent key derivations into batches.
+ * <p>
+ * Callers enqueue their derivation and then either become one of the "combiners" (if not all of them are taken), or
+ * wait. A combiner takes up to {@code lanes} queued derivations with the same iteration count and key length, runs
+ * them through its multi buffer engine, and hands the results back to the waiting threads. There is one combiner per
+ * CPU by default, so that concurrent batches are computed on all cores rather than on one. No additional threads are
+ * involved: the work is always done by the calling threads, and a single caller without any concurrency runs on a
+ * one lane engine without waiting for a batch to fill up.
+ */
+public final class BatchingPbkdf2 {
+
+    /**
+     * The maximum time a waiting thread parks before checking if it should take over as the combiner
+     */
+    private static final long PARK_NANOS = 100000L;
+
+    /**
+     * The pending derivations
+     */
+    private final ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The combiners, each of which runs one batch at a time
+     */
+    private final Combiner[] combiners;
+
+    /**
+     * The maximum number of derivations in one batch
+     */
+    private final int lanes;
+
+    /**
+     * Create a batching PBKDF2 front end with one combiner per CPU.
+     *
+     * @param lanes The maximum number of derivations in one batch
+     * @throws IllegalArgumentException When {@code lanes} is not positive
+     */
+    public BatchingPbkdf2(final int lanes) {
+
+        this(lanes, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a batching PBKDF2 front end.
+     *
+     * @param lanes     The maximum number of derivations in one batch
+     * @param combiners The maximum number of batches that are computed at the same time
+     * @throws IllegalArgumentException When {@code lanes} or {@code combiners} are not positive
+     */
+    public BatchingPbkdf2(final int lanes, final int combiners) {
+
+        Validate.isTrue(lanes > 0, "The validated value 'lanes' is not positive");
+        Validate.isTrue(combiners > 0, "The validated value 'combiners' is not positive");
+
+        this.lanes = lanes;
+        this.combiners = new Combiner[combiners];
+        for (int i = 0; i < combiners; i++) {
+            this.combiners[i] = new Combiner(lanes);
+        }
+    }
+
+    /**
+     * @return The maximum number of derivations in one batch
+     */
+    public int getLanes() {
+
+        return lanes;
+    }
+
+    /**
+     * @return The maximum number of batches that are computed at the same time
+     */
+    public int getCombiners() {
+
+        return combiners.length;
+    }
+
+    /**
+     * Derive a key from a password, possibly together with derivations requested by other threads at the same time.
+     * The result is identical to {@link Pbkdf2#derive(byte[], byte[], int, int)}.
+     *
+     * @param password   The password bytes. The array must not be modified until this method returns.
+     * @param salt       The salt. The array must not be modified until this method returns.
+     * @param iterations The iteration count
+     * @param keyLength  The length of the derived key in bytes
+     * @return The derived key
+     * @throws NullPointerException     When {@code password} or {@code salt} are {@code null}
+     * @throws IllegalArgumentException When {@code password} is empty, or {@code iterations} or {@code keyLength} are
+     *                                  not positive
+     * @throws IllegalStateException    When the JVM does not provide the HMAC-SHA256 algorithm
+     */
+    public byte[] derive(final byte[] password, final byte[] salt, final int iterations, final int keyLength) {
+
+        Validate.notNull(password, "The validated object 'password' is null");
+        Validate.notNull(salt, "The validated object 'salt' is null");
+        Validate.isTrue(password.length > 0, "The validated array 'password' is empty");
+        Validate.isTrue(iterations > 0, "The validated value 'iterations' is not positive");
+        Validate.isTrue(keyLength > 0, "The validated value 'keyLength' is not positive");
+
+        final Job job = new Job(password, salt, iterations, keyLength);
+        queue.add(job);
+
+        // parking returns immediately while the interrupt flag is set, so the flag is cleared while waiting (rather
+        // than spinning until the batch completes), and restored before returning
+        boolean interrupted = false;
+        while (!job.done) {
+            final Combiner combiner = tryAcquireCombiner();
+            if (combiner != null) {
+                try {
+                    // stop combining when the own derivation is in a batch of another combiner
+                    boolean ran = true;
+                    while (ran && !job.done) {
+                        ran = runBatch(combiner);
+                    }
+                } finally {
+                    combiner.lock.unlock();
+                }
+
+                // hand over to one of the waiting threads, rather than letting it sleep until its park times out
+                final Job next = queue.peek();
+                if (next != null) {
+                    LockSupport.unpark(next.thread);
+                }
+            }
+
+            if (!job.done) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                interrupted |= Thread.interrupted();
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (job.error != null) {
+            throw job.error;
+        }
+        return job.result;
+    }
+
+    /**
+     * @return A combiner that has been locked by the calling thread, or {@code null} if all combiners are taken
+     */
+    private Combiner tryAcquireCombiner() {
+
+        // start at a different combiner for every thread, so that the threads do not all contend for the first one
+        final int start = (int) (Thread.currentThread().getId() % combiners.length);
+        for (int i = 0; i < combiners.length; i++) {
+            final Combiner combiner = combiners[(start + i) % combiners.length];
+            if (combiner.lock.tryLock()) {
+                return combiner;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Take the next batch of compatible derivations from the queue, run it, and complete the derivations.
+     * Must be called while holding the lock of the combiner.
+     *
+     * @param combiner The combiner that runs the batch
+     * @return {@code true} if a batch has been run, {@code false} if the queue did not hold any unclaimed derivation
+     */
+    private boolean runBatch(final Combiner combiner) {
+
+        // private method asserts
+        assert combiner != null : "The combiner cannot be null";
+        assert combiner.lock.isHeldByCurrentThread() : "The combiner must be locked by the calling thread";
+
+        Job first = queue.poll();
+        while (first != null && !first.claim()) {
+            first = queue.poll();
+        }
+        if (first == null) {
+            return false;
+        }
+
+        final Job[] batch = new Job[lanes];
+        batch[0] = first;
+        int count = 1;
+
+        // several combiners may see the same derivation, but only the one that claims it removes it from the queue
+        final Iterator<Job> iterator = queue.iterator();
+        while (count < lanes && iterator.hasNext()) {
+            final Job job = iterator.next();
+            if (job.iterations == first.iterations && job.keyLength == first.keyLength && job.claim()) {
+                iterator.remove();
+                batch[count++] = job;
+            }
+        }
+
+        final byte[][] passwords = new byte[count][];
+        final byte[][] salts = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            passwords[i] = batch[i].password;
+            salts[i] = batch[i].salt;
+        }
+
+        byte[][] results = null;
+        RuntimeException error = null;
+        try {
+            results = combiner.engineFor(count).derive(passwords, salts, count, first.iterations, first.keyLength);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+
+        for (int i = 0; i < count; i++) {
+            final Job job = batch[i];
+            if (results == null) {
+                job.error = error;
+            } else {
+                job.result = results[i];
+            }
+            job.done = true;
+            LockSupport.unpark(job.thread);
+        }
+
+        return true;
+    }
+
+    /**
+     * A combiner, which computes one batch at a time on the thread that holds its lock.
+     */
+    private static final class Combiner {
+
+        /**
+         * The lock that determines the thread running the batches of this combiner
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * The engines, with 1, 2, 4, ... lanes up to the configured number of lanes (guarded by the lock)
+         */
+        private final MultiBufferPbkdf2[] engines;
+
+        /**
+         * Create a combiner.
+         *
+         * @param lanes The maximum number of derivations in one batch
+         */
+        private Combiner(final int lanes) {
+
+            int count = 1;
+            while ((1 << (count - 1)) < lanes) {
+                count++;
+            }
+            engines = new MultiBufferPbkdf2[count];
+            for (int i = 0; i < count; i++) {
+                engines[i] = new MultiBufferPbkdf2(Math.min(1 << i, lanes));
+            }
+        }
+
+        /**
+         * @param count The number of derivations in a batch
+         * @return The engine with the smallest number of lanes that can run the batch
+         */
+        private MultiBufferPbkdf2 engineFor(final int count) {
+
+            for (final MultiBufferPbkdf2 engine : engines) {
+                if (engine.getLanes() >= count) {
+                    return engine;
+                }
+            }
+
+            // cannot happen, the last engine has the maximum number of lanes
+            return engines[engines.length - 1];
+        }
+    }
+
+    /**
+     * A pending key derivation.
+     */
+    private static final class Job {
+
+        /**
+         * The thread waiting for the result
+         */
+        private final Thread thread = Thread.currentThread();
+
+        /**
+         * The password bytes
+         */
+        private final byte[] password;
+
+        /**
+         * The salt
+         */
+        private final byte[] salt;
+
+        /**
+         * The iteration count
+         */
+        private final int iterations;
+
+        /**
+         * The length of the derived key in bytes
+         */
+        private final int keyLength;
+
+        /**
+         * The derived key (written by the combiner before {@code done} is set)
+         */
+        private byte[] result;
+
+        /**
+         * The error (written by the combiner before {@code done} is set)
+         */
+        private RuntimeException error;
+
+        /**
+         * Tracks if a combiner has taken the derivation into one of its batches
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /**
+         * Tracks if the derivation has been completed
+         */
+        private volatile boolean done;
+
+        /**
+         * Create a pending key derivation for the calling thread.
+         *
+         * @param password   The password bytes
+         * @param salt       The salt
+         * @param iterations The iteration count
+         * @param keyLength  The length of the derived key in bytes
+         */
+        // the arrays are only read while the caller waits for the result
+        @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+        private Job(final byte[] password, final byte[] salt, final int iterations, final int keyLength) {
+
+            this.password = password;
+            this.salt = salt;
+            this.iterations = iterations;
+            this.keyLength = keyLength;
+        }
+
+        /**
+         * Take the derivation into a batch.
+         *
+         * @return {@code true} if the calling combiner has claimed the derivation, {@code false} if another combiner
+         * already has
+         */
+        private boolean claim() {
+
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
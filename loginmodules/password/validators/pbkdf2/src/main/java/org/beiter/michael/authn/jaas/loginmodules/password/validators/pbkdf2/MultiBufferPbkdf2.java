@@ -0,0 +1,367 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.array.Cleanser;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A PBKDF2-HMAC-SHA256 implementation that derives keys for several independent passwords at once.
+ * <p>
+ * The result is identical to {@link Pbkdf2#derive(byte[], byte[], int, int)}. The iterated part of PBKDF2 (which is
+ * where the time goes) runs on {@link Sha256Lanes}, with one lane per password, and uses the HMAC inner and outer
+ * states that are computed once per password instead of once per iteration. This halves the number of SHA-256
+ * compressions per iteration compared to a generic HMAC, and lets the JIT compiler process the lanes with SIMD
+ * instructions where the CPU supports them.
+ * <p>
+ * All passwords in one call share the same iteration count and key length. Instances hold scratch buffers and are
+ * <b>not</b> thread safe; see {@link BatchingPbkdf2} for a thread safe front end.
+ */
+public final class MultiBufferPbkdf2 {
+
+    /**
+     * The default number of lanes (eight 32 bit lanes fill a 256 bit vector register)
+     */
+    public static final int DEFAULT_LANES = 8;
+
+    /**
+     * The SHA-256 block size in bytes
+     */
+    private static final int BLOCK_BYTES = 64;
+
+    /**
+     * The HMAC inner padding, repeated for a full word
+     */
+    private static final int IPAD = 0x36363636;
+
+    /**
+     * The HMAC outer padding, repeated for a full word
+     */
+    private static final int OPAD = 0x5c5c5c5c;
+
+    /**
+     * The first padding word of a message that ends after 8 words
+     */
+    private static final int PADDING_START = 0x80000000;
+
+    /**
+     * The message length in bits of an HMAC round in the iterated part: one block of key pad plus one hash
+     */
+    private static final int HMAC_MESSAGE_BITS = (BLOCK_BYTES + Pbkdf2.PRF_LENGTH) * Byte.SIZE;
+
+    /**
+     * The number of bytes in a 32 bit word
+     */
+    private static final int WORD_BYTES = Integer.SIZE / Byte.SIZE;
+
+    /**
+     * The compression function
+     */
+    private final Sha256Lanes sha;
+
+    /**
+     * The number of lanes
+     */
+    private final int lanes;
+
+    /**
+     * The HMAC inner states of all lanes (after compressing the inner key pad)
+     */
+    private final int[] innerState;
+
+    /**
+     * The HMAC outer states of all lanes (after compressing the outer key pad)
+     */
+    private final int[] outerState;
+
+    /**
+     * The state being compressed
+     */
+    private final int[] state;
+
+    /**
+     * The message block being compressed (only the first 8 words change between iterations)
+     */
+    private final int[] block;
+
+    /**
+     * The current PBKDF2 "U" value of all lanes
+     */
+    private final int[] u;
+
+    /**
+     * The accumulated PBKDF2 "T" value of all lanes
+     */
+    private final int[] t;
+
+    /**
+     * Create a multi buffer PBKDF2 engine.
+     *
+     * @param lanes The number of passwords processed at once
+     * @throws IllegalArgumentException When {@code lanes} is not positive
+     */
+    public MultiBufferPbkdf2(final int lanes) {
+
+        Validate.isTrue(lanes > 0, "The validated value 'lanes' is not positive");
+
+        this.lanes = lanes;
+        this.sha = new Sha256Lanes(lanes);
+        this.innerState = new int[Sha256Lanes.STATE_WORDS * lanes];
+        this.outerState = new int[Sha256Lanes.STATE_WORDS * lanes];
+        this.state = new int[Sha256Lanes.STATE_WORDS * lanes];
+        this.block = new int[Sha256Lanes.BLOCK_WORDS * lanes];
+        this.u = new int[Sha256Lanes.STATE_WORDS * lanes];
+        this.t = new int[Sha256Lanes.STATE_WORDS * lanes];
+    }
+
+    /**
+     * @return The number of passwords processed at once
+     */
+    public int getLanes() {
+
+        return lanes;
+    }
+
+    /**
+     * Derive keys for up to {@link MultiBufferPbkdf2#getLanes()} passwords.
+     *
+     * @param passwords  The password bytes, one per lane. Only the first {@code count} elements are used.
+     * @param salts      The salts, one per lane. Only the first {@code count} elements are used.
+     * @param count      The number of passwords
+     * @param iterations The iteration count
+     * @param keyLength  The length of the derived keys in bytes
+     * @return The derived keys, one per password
+     * @throws NullPointerException     When {@code passwords}, {@code salts}, or any of the used elements are
+     *                                  {@code null}
+     * @throws IllegalArgumentException When {@code count} is out of range, any of the used passwords is empty, or
+     *                                  {@code iterations} or {@code keyLength} are not positive
+     * @throws IllegalStateException    When the JVM does not provide the HMAC-SHA256 algorithm
+     */
+    // CHECKSTYLE:OFF
+    // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+    // suppress warnings about the method being long (splitting it up would obscure the PBKDF2 structure)
+    @SuppressWarnings({"PMD.ExcessiveMethodLength", "PMD.CyclomaticComplexity", "PMD.StdCyclomaticComplexity", "PMD.ModifiedCyclomaticComplexity"})
+    // CHECKSTYLE:ON
+    public byte[][] derive(final byte[][] passwords, final byte[][] salts, final int count, final int iterations,
+                           final int keyLength) {
+
+        Validate.notNull(passwords, "The validated object 'passwords' is null");
+        Validate.notNull(salts, "The validated object 'salts' is null");
+        Validate.isTrue(count > 0 && count <= lanes && count <= passwords.length && count <= salts.length,
+                "The validated value 'count' is out of range");
+        Validate.isTrue(iterations > 0, "The validated value 'iterations' is not positive");
+        Validate.isTrue(keyLength > 0, "The validated value 'keyLength' is not positive");
+        for (int l = 0; l < count; l++) {
+            Validate.notNull(passwords[l], "The validated object 'passwords[" + l + "]' is null");
+            Validate.notNull(salts[l], "The validated object 'salts[" + l + "]' is null");
+            Validate.isTrue(passwords[l].length > 0, "The validated array 'passwords[" + l + "]' is empty");
+        }
+
+        final byte[][] result = new byte[count][keyLength];
+        final Mac[] macs = new Mac[count];
+        try {
+            initKeys(passwords, count, macs);
+
+            final byte[] blockIndex = new byte[WORD_BYTES];
+            final byte[] first = new byte[Pbkdf2.PRF_LENGTH];
+            final int blocks = (keyLength + Pbkdf2.PRF_LENGTH - 1) / Pbkdf2.PRF_LENGTH;
+            for (int i = 1; i <= blocks; i++) {
+
+                // U_1 = PRF(P, S || INT(i)) has a variable length input, compute it per lane
+                ByteBuffer.wrap(blockIndex).putInt(0, i);
+                Arrays.fill(u, 0);
+                for (int l = 0; l < count; l++) {
+                    macs[l].update(salts[l]);
+                    macs[l].update(blockIndex);
+                    doFinal(macs[l], first);
+                    final ByteBuffer words = ByteBuffer.wrap(first);
+                    for (int j = 0; j < Sha256Lanes.STATE_WORDS; j++) {
+                        u[j * lanes + l] = words.getInt();
+                    }
+                }
+                Cleanser.wipe(first);
+                System.arraycopy(u, 0, t, 0, u.length);
+
+                // U_c = PRF(P, U_{c-1}), T_i = U_1 ^ ... ^ U_c, for all lanes at once
+                for (int c = 1; c < iterations; c++) {
+                    hmac(u);
+                    for (int j = 0; j < t.length; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+
+                final int offset = (i - 1) * Pbkdf2.PRF_LENGTH;
+                final int length = Math.min(Pbkdf2.PRF_LENGTH, keyLength - offset);
+                for (int l = 0; l < count; l++) {
+                    for (int j = 0; j < length; j++) {
+                        final int word = t[(j / WORD_BYTES) * lanes + l];
+                        result[l][offset + j] = (byte) (word >>> (Byte.SIZE * (WORD_BYTES - 1 - j % WORD_BYTES)));
+                    }
+                }
+            }
+        } finally {
+            Arrays.fill(innerState, 0);
+            Arrays.fill(outerState, 0);
+            Arrays.fill(state, 0);
+            Arrays.fill(block, 0);
+            Arrays.fill(u, 0);
+            Arrays.fill(t, 0);
+        }
+
+        return result;
+    }
+
+    /**
+     * Compute the HMAC inner and outer states for all lanes, and initialize a {@code Mac} per lane for the first
+     * (variable length) PBKDF2 round.
+     *
+     * @param passwords The password bytes, one per lane
+     * @param count     The number of passwords
+     * @param macs      The array to store the initialized {@code Mac} objects in
+     */
+    private void initKeys(final byte[][] passwords, final int count, final Mac[] macs) {
+
+        final byte[] key = new byte[BLOCK_BYTES];
+        final int[] innerBlock = new int[Sha256Lanes.BLOCK_WORDS * lanes];
+        final int[] outerBlock = new int[Sha256Lanes.BLOCK_WORDS * lanes];
+        try {
+            for (int l = 0; l < count; l++) {
+                try {
+                    macs[l] = Mac.getInstance(Pbkdf2.HMAC_ALGORITHM);
+                    macs[l].init(new SecretKeySpec(passwords[l], Pbkdf2.HMAC_ALGORITHM));
+                } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                    final String error = "Cannot initialize " + Pbkdf2.HMAC_ALGORITHM;
+                    throw new IllegalStateException(error, e);
+                }
+
+                // HMAC keys longer than a block are hashed first
+                Arrays.fill(key, (byte) 0);
+                if (passwords[l].length > BLOCK_BYTES) {
+                    final byte[] digest = sha256(passwords[l]);
+                    System.arraycopy(digest, 0, key, 0, digest.length);
+                    Cleanser.wipe(digest);
+                } else {
+                    System.arraycopy(passwords[l], 0, key, 0, passwords[l].length);
+                }
+
+                final ByteBuffer words = ByteBuffer.wrap(key);
+                for (int j = 0; j < Sha256Lanes.BLOCK_WORDS; j++) {
+                    final int word = words.getInt();
+                    innerBlock[j * lanes + l] = word ^ IPAD;
+                    outerBlock[j * lanes + l] = word ^ OPAD;
+                }
+            }
+
+            for (int l = 0; l < lanes; l++) {
+                for (int j = 0; j < Sha256Lanes.STATE_WORDS; j++) {
+                    innerState[j * lanes + l] = Sha256Lanes.IV[j];
+                    outerState[j * lanes + l] = Sha256Lanes.IV[j];
+                }
+            }
+            sha.compress(innerState, innerBlock);
+            sha.compress(outerState, outerBlock);
+
+            // the padding of the iterated HMAC messages never changes
+            Arrays.fill(block, 0);
+            for (int l = 0; l < lanes; l++) {
+                block[Sha256Lanes.STATE_WORDS * lanes + l] = PADDING_START;
+                block[(Sha256Lanes.BLOCK_WORDS - 1) * lanes + l] = HMAC_MESSAGE_BITS;
+            }
+        } finally {
+            Cleanser.wipe(key);
+            Arrays.fill(innerBlock, 0);
+            Arrays.fill(outerBlock, 0);
+        }
+    }
+
+    /**
+     * Compute {@code HMAC(P, value)} for a 32 byte value in all lanes, replacing the value with the result.
+     *
+     * @param value The value of all lanes ({@code 8 * lanes} words)
+     */
+    private void hmac(final int[] value) {
+
+        final int words = Sha256Lanes.STATE_WORDS * lanes;
+
+        // inner hash: H(K ^ ipad || value)
+        System.arraycopy(value, 0, block, 0, words);
+        System.arraycopy(innerState, 0, state, 0, words);
+        sha.compress(state, block);
+
+        // outer hash: H(K ^ opad || inner hash)
+        System.arraycopy(state, 0, block, 0, words);
+        System.arraycopy(outerState, 0, value, 0, words);
+        sha.compress(value, block);
+    }
+
+    /**
+     * @param data The data to hash
+     * @return The SHA-256 hash of the data
+     */
+    private static byte[] sha256(final byte[] data) {
+
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            final String error = "Cannot initialize SHA-256";
+            throw new IllegalStateException(error, e);
+        }
+    }
+
+    /**
+     * Finish the MAC computation, writing the result into the provided buffer.
+     *
+     * @param mac    The MAC to finish
+     * @param output The buffer to write the result to
+     */
+    private static void doFinal(final Mac mac, final byte[] output) {
+
+        try {
+            mac.doFinal(output, 0);
+        } catch (ShortBufferException e) {
+            // cannot happen, the buffer is always large enough
+            final String error = "The MAC output buffer is too small";
+            throw new IllegalStateException(error, e);
+        }
+    }
+}
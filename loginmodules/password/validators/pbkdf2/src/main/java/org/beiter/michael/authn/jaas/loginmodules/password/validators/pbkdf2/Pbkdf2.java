@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A PBKDF2 implementation (RFC 2898) using HMAC-SHA256 as the pseudo random function.
+ * <p>
+ * The JDK only ships with "PBKDF2WithHmacSHA1" in older releases, which is why this class builds PBKDF2 on top of the
+ * (universally available) "HmacSHA256" {@code Mac}.
+ */
+public final class Pbkdf2 {
+
+    /**
+     * The name of the HMAC algorithm used as the PRF
+     */
+    public static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The output length of the PRF in bytes
+     */
+    public static final int PRF_LENGTH = 32;
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private Pbkdf2() {
+    }
+
+    /**
+     * Derive a key from a password.
+     *
+     * @param password   The password bytes (commonly the UTF-8 representation of the password)
+     * @param salt       The salt
+     * @param iterations The iteration count
+     * @param keyLength  The length of the derived key in bytes
+     * @return The derived key
+     * @throws NullPointerException     When {@code password} or {@code salt} are {@code null}
+     * @throws IllegalArgumentException When {@code password} is empty, or {@code iterations} or {@code keyLength} are
+     *                                  not positive
+     * @throws IllegalStateException    When the JVM does not provide the HMAC-SHA256 algorithm
+     */
+    public static byte[] derive(final byte[] password, final byte[] salt, final int iterations, final int keyLength) {
+
+        Validate.notNull(password, "The validated object 'password' is null");
+        Validate.notNull(salt, "The validated object 'salt' is null");
+        Validate.isTrue(password.length > 0, "The validated array 'password' is empty");
+        Validate.isTrue(iterations > 0, "The validated value 'iterations' is not positive");
+        Validate.isTrue(keyLength > 0, "The validated value 'keyLength' is not positive");
+
+        final Mac mac;
+        try {
+            mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(password, HMAC_ALGORITHM));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            final String error = "Cannot initialize " + HMAC_ALGORITHM;
+            throw new IllegalStateException(error, e);
+        }
+
+        final byte[] result = new byte[keyLength];
+        final byte[] block = new byte[PRF_LENGTH];
+        final byte[] u = new byte[PRF_LENGTH];
+        final byte[] blockIndex = new byte[Integer.SIZE / Byte.SIZE];
+
+        final int blocks = (keyLength + PRF_LENGTH - 1) / PRF_LENGTH;
+        for (int i = 1; i <= blocks; i++) {
+
+            // U_1 = PRF(P, S || INT(i))
+            ByteBuffer.wrap(blockIndex).putInt(0, i);
+            mac.update(salt);
+            mac.update(blockIndex);
+            doFinal(mac, u);
+            System.arraycopy(u, 0, block, 0, PRF_LENGTH);
+
+            // U_c = PRF(P, U_{c-1}), T_i = U_1 ^ ... ^ U_c
+            for (int c = 1; c < iterations; c++) {
+                mac.update(u);
+                doFinal(mac, u);
+                for (int j = 0; j < PRF_LENGTH; j++) {
+                    block[j] ^= u[j];
+                }
+            }
+
+            final int offset = (i - 1) * PRF_LENGTH;
+            System.arraycopy(block, 0, result, offset, Math.min(PRF_LENGTH, keyLength - offset));
+        }
+
+        return result;
+    }
+
+    /**
+     * Finish the MAC computation, writing the result into the provided buffer (avoids an allocation per iteration).
+     *
+     * @param mac    The MAC to finish
+     * @param output The buffer to write the result to
+     */
+    private static void doFinal(final Mac mac, final byte[] output) {
+
+        try {
+            mac.doFinal(output, 0);
+        } catch (javax.crypto.ShortBufferException e) {
+            // cannot happen, the buffer is always large enough
+            final String error = "The MAC output buffer is too small";
+            throw new IllegalStateException(error, e);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.array.Cleanser;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder.JaasBasedPbkdf2PropsBuilder;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command line tool that benchmarks PBKDF2 on the local machine, and recommends the number of iterations that keeps
+ * the verification latency within a p50 / p99 target while a given number of verifications run concurrently.
+ * <p>
+ * Usage: {@code java -cp ... Pbkdf2Calibrator [--p50=<ms>] [--p99=<ms>] [--concurrency=<n>] [--samples=<n>]
+ * [--saltLength=<bytes>] [--keyLength=<bytes>] [--engine=<standard|multibuffer>] [--lanes=<n>]}
+ * <p>
+ * The derivations are measured through the same engine as in the {@link Pbkdf2PasswordValidator}, with the configured
+ * salt and key length, so that the recommendation holds for the settings it is printed with. The tool prints the
+ * measured latencies and all configuration keys to set. Measurements use a fixed password and salt, and a warm-up
+ * phase before each measurement, so that runs on the same hardware produce comparable numbers.
+ */
+public final class Pbkdf2Calibrator {
+
+    /**
+     * The default p50 target in milliseconds
+     */
+    public static final long DEFAULT_P50_MILLIS = 50;
+
+    /**
+     * The default p99 target in milliseconds
+     */
+    public static final long DEFAULT_P99_MILLIS = 100;
+
+    /**
+     * The default number of concurrent verifications
+     */
+    public static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default number of measured verifications per thread and round
+     */
+    public static final int DEFAULT_SAMPLES = 20;
+
+    /**
+     * The smallest iteration count the calibration will recommend
+     */
+    public static final int MIN_ITERATIONS = 1000;
+
+    /**
+     * The maximum number of measurement rounds
+     */
+    private static final int MAX_ROUNDS = 8;
+
+    /**
+     * The iteration count used for the initial single threaded estimate
+     */
+    private static final int PROBE_ITERATIONS = 10000;
+
+    /**
+     * The percentile for the median
+     */
+    private static final double P50 = 0.50;
+
+    /**
+     * The percentile for the tail latency
+     */
+    private static final double P99 = 0.99;
+
+    /**
+     * The tolerance (below the target) at which the calibration stops refining the iteration count
+     */
+    private static final double TOLERANCE = 0.95;
+
+    /**
+     * The number of nanoseconds in a millisecond
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * The fixed password used for all measurements
+     */
+    private static final char[] PASSWORD = "calibration password".toCharArray();
+
+    /**
+     * @see Pbkdf2Calibrator#Pbkdf2Calibrator(int, int, Pbkdf2Properties)
+     */
+    private final int concurrency;
+
+    /**
+     * @see Pbkdf2Calibrator#Pbkdf2Calibrator(int, int, Pbkdf2Properties)
+     */
+    private final int samples;
+
+    /**
+     * @see Pbkdf2Calibrator#Pbkdf2Calibrator(int, int, Pbkdf2Properties)
+     */
+    private final Pbkdf2Properties properties;
+
+    /**
+     * The fixed salt used for all measurements, of the configured salt length
+     */
+    private final byte[] salt;
+
+    /**
+     * Create a calibrator.
+     *
+     * @param concurrency The number of verifications running concurrently during the measurement
+     * @param samples     The number of measured verifications per thread and round
+     * @param properties  The PBKDF2 settings to measure with (the salt length, key length, engine, and lanes are used)
+     * @throws NullPointerException     When {@code properties} is {@code null}
+     * @throws IllegalArgumentException When any of the numbers is not positive, or the engine is not supported
+     */
+    public Pbkdf2Calibrator(final int concurrency, final int samples, final Pbkdf2Properties properties) {
+
+        Validate.isTrue(concurrency > 0, "The validated value 'concurrency' is not positive");
+        Validate.isTrue(samples > 0, "The validated value 'samples' is not positive");
+        Validate.notNull(properties, "The validated object 'properties' is null");
+        Validate.isTrue(properties.getSaltLength() > 0, "The validated value 'saltLength' is not positive");
+        Validate.isTrue(properties.getKeyLength() > 0, "The validated value 'keyLength' is not positive");
+        Validate.isTrue(properties.getLanes() > 0, "The validated value 'lanes' is not positive");
+        Validate.isTrue(Pbkdf2Properties.ENGINE_STANDARD.equals(properties.getEngine())
+                        || Pbkdf2Properties.ENGINE_MULTI_BUFFER.equals(properties.getEngine()),
+                "The engine is not supported: " + properties.getEngine());
+
+        this.concurrency = concurrency;
+        this.samples = samples;
+        this.properties = new Pbkdf2Properties(properties);
+        this.salt = new byte[properties.getSaltLength()];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) i;
+        }
+    }
+
+    /**
+     * Run the calibration tool.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(final String[] args) {
+
+        final int status = run(args, System.out);
+        if (status != 0) {
+            // CHECKSTYLE:OFF
+            // a command line tool must report failures through the exit code
+            System.exit(status);
+            // CHECKSTYLE:ON
+        }
+    }
+
+    /**
+     * Run the calibration tool, writing the report to the provided stream.
+     *
+     * @param args The command line arguments
+     * @param out  The stream to write the report to
+     * @return The exit code: 0 on success, 1 if the arguments are invalid, 2 if the calibration has been interrupted
+     */
+    // CHECKSTYLE:OFF
+    // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+    // suppress warnings about the complexity of argument parsing
+    @SuppressWarnings({"PMD.CyclomaticComplexity", "PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity"})
+    // CHECKSTYLE:ON
+    static int run(final String[] args, final PrintStream out) {
+
+        long p50Millis = DEFAULT_P50_MILLIS;
+        long p99Millis = DEFAULT_P99_MILLIS;
+        int concurrency = DEFAULT_CONCURRENCY;
+        int samples = DEFAULT_SAMPLES;
+        final Pbkdf2Properties props = JaasBasedPbkdf2PropsBuilder.buildDefault();
+
+        try {
+            for (final String arg : args) {
+                if (arg.startsWith("--p50=")) {
+                    p50Millis = Long.parseLong(valueOf(arg));
+                } else if (arg.startsWith("--p99=")) {
+                    p99Millis = Long.parseLong(valueOf(arg));
+                } else if (arg.startsWith("--concurrency=")) {
+                    concurrency = Integer.parseInt(valueOf(arg));
+                } else if (arg.startsWith("--samples=")) {
+                    samples = Integer.parseInt(valueOf(arg));
+                } else if (arg.startsWith("--saltLength=")) {
+                    props.setSaltLength(Integer.parseInt(valueOf(arg)));
+                } else if (arg.startsWith("--keyLength=")) {
+                    props.setKeyLength(Integer.parseInt(valueOf(arg)));
+                } else if (arg.startsWith("--engine=")) {
+                    props.setEngine(valueOf(arg));
+                } else if (arg.startsWith("--lanes=")) {
+                    props.setLanes(Integer.parseInt(valueOf(arg)));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            Validate.isTrue(p50Millis > 0 && p99Millis >= p50Millis, "The targets must satisfy 0 < p50 <= p99");
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            out.println("Usage: Pbkdf2Calibrator [--p50=<ms>] [--p99=<ms>] [--concurrency=<n>] [--samples=<n>] "
+                    + "[--saltLength=<bytes>] [--keyLength=<bytes>] [--engine=<standard|multibuffer>] [--lanes=<n>]");
+            return 1;
+        }
+
+        final Result result;
+        try {
+            final Pbkdf2Calibrator calibrator = new Pbkdf2Calibrator(concurrency, samples, props);
+            out.println(String.format(Locale.ENGLISH, "Calibrating PBKDF2-HMAC-SHA256 with the %s engine: target "
+                    + "p50 %d ms, p99 %d ms, concurrency %d, %d samples per thread", props.getEngine(), p50Millis,
+                    p99Millis, concurrency, samples));
+            result = calibrator.calibrate(p50Millis * NANOS_PER_MILLI, p99Millis * NANOS_PER_MILLI);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("Calibration interrupted");
+            return 2;
+        }
+
+        out.println(String.format(Locale.ENGLISH, "Measured with %d iterations: p50 %.1f ms, p99 %.1f ms",
+                result.getIterations(), (double) result.getP50Nanos() / NANOS_PER_MILLI,
+                (double) result.getP99Nanos() / NANOS_PER_MILLI));
+        if (result.getIterations() == MIN_ITERATIONS && !result.meets(p50Millis * NANOS_PER_MILLI,
+                p99Millis * NANOS_PER_MILLI)) {
+            out.println("Warning: the targets cannot be met on this machine at the requested concurrency");
+        }
+        out.println();
+        out.println("# PBKDF2 password validator settings");
+        out.println(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS + "=" + result.getIterations());
+        out.println(JaasBasedPbkdf2PropsBuilder.KEY_SALT_LENGTH + "=" + props.getSaltLength());
+        out.println(JaasBasedPbkdf2PropsBuilder.KEY_KEY_LENGTH + "=" + props.getKeyLength());
+        out.println(JaasBasedPbkdf2PropsBuilder.KEY_ENGINE + "=" + props.getEngine());
+        out.println(JaasBasedPbkdf2PropsBuilder.KEY_LANES + "=" + props.getLanes());
+
+        return 0;
+    }
+
+    /**
+     * Find the largest iteration count (rounded down to a multiple of {@link Pbkdf2Calibrator#MIN_ITERATIONS}) for
+     * which the measured p50 and p99 latencies stay within the targets.
+     *
+     * @param p50TargetNanos The p50 latency target in nanoseconds
+     * @param p99TargetNanos The p99 latency target in nanoseconds
+     * @return The recommended iteration count and the latencies measured with it
+     * @throws IllegalArgumentException When the targets are not positive
+     * @throws InterruptedException     When the calibration is interrupted
+     */
+    public Result calibrate(final long p50TargetNanos, final long p99TargetNanos)
+            throws InterruptedException {
+
+        Validate.isTrue(p50TargetNanos > 0, "The validated value 'p50TargetNanos' is not positive");
+        Validate.isTrue(p99TargetNanos > 0, "The validated value 'p99TargetNanos' is not positive");
+
+        // single threaded estimate of the cost per iteration, to get into the right order of magnitude quickly
+        derive(PROBE_ITERATIONS);
+        final long start = System.nanoTime();
+        derive(PROBE_ITERATIONS);
+        final double nanosPerIteration = Math.max(1.0, (double) (System.nanoTime() - start) / PROBE_ITERATIONS);
+
+        int iterations = roundDown(p50TargetNanos / nanosPerIteration);
+        Result best = null;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+
+            final Result result = measure(iterations);
+            if (result.meets(p50TargetNanos, p99TargetNanos)
+                    && (best == null || result.getIterations() > best.getIterations())) {
+                best = result;
+            }
+
+            // scale by the tighter of the two targets
+            final double scale = Math.min((double) p50TargetNanos / Math.max(1, result.getP50Nanos()),
+                    (double) p99TargetNanos / Math.max(1, result.getP99Nanos()));
+            if (scale >= 1.0 && scale * TOLERANCE <= 1.0) {
+                // within the tolerance below the target, no point in measuring again
+                break;
+            }
+
+            final int next = roundDown(iterations * scale * TOLERANCE);
+            if (next == iterations) {
+                if (result.meets(p50TargetNanos, p99TargetNanos) || iterations == MIN_ITERATIONS) {
+                    break;
+                }
+                iterations = roundDown(iterations - MIN_ITERATIONS);
+            } else {
+                iterations = next;
+            }
+        }
+
+        if (best == null) {
+            // the targets cannot be met, report the cheapest setting we are willing to recommend
+            return measure(MIN_ITERATIONS);
+        } else {
+            return best;
+        }
+    }
+
+    /**
+     * Measure the verification latency with the provided iteration count, running {@code concurrency} verifications
+     * at the same time.
+     *
+     * @param iterations The iteration count
+     * @return The measured latencies
+     * @throws IllegalArgumentException When {@code iterations} is not positive
+     * @throws InterruptedException     When the measurement is interrupted
+     */
+    public Result measure(final int iterations)
+            throws InterruptedException {
+
+        Validate.isTrue(iterations > 0, "The validated value 'iterations' is not positive");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            final CountDownLatch ready = new CountDownLatch(concurrency);
+            final CountDownLatch go = new CountDownLatch(1);
+            final List<Future<long[]>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call()
+                            throws InterruptedException {
+
+                        // warm up, then wait for all threads to be ready so that they measure under full load
+                        derive(iterations);
+                        ready.countDown();
+                        go.await();
+
+                        final long[] latencies = new long[samples];
+                        for (int j = 0; j < samples; j++) {
+                            final long begin = System.nanoTime();
+                            derive(iterations);
+                            latencies[j] = System.nanoTime() - begin;
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+            ready.await();
+            go.countDown();
+
+            final long[] all = new long[concurrency * samples];
+            int pos = 0;
+            for (final Future<long[]> future : futures) {
+                final long[] latencies = future.get();
+                System.arraycopy(latencies, 0, all, pos, latencies.length);
+                pos += latencies.length;
+            }
+            Arrays.sort(all);
+
+            return new Result(iterations, percentile(all, P50), percentile(all, P99));
+        } catch (ExecutionException e) {
+            final String error = "The measurement failed";
+            throw new IllegalStateException(error, e);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Derive a key from the fixed password and salt with the configured engine and key length.
+     *
+     * @param iterations The iteration count
+     */
+    private void derive(final int iterations) {
+
+        Cleanser.wipe(Pbkdf2PasswordValidator.derive(properties, PASSWORD, salt, iterations,
+                properties.getKeyLength()));
+    }
+
+    /**
+     * Return the value at a percentile of a sorted array, using the nearest rank method.
+     *
+     * @param sorted     The sorted values
+     * @param percentile The percentile, between 0 (exclusive) and 1 (inclusive)
+     * @return The value at the percentile
+     * @throws NullPointerException     When {@code sorted} is {@code null}
+     * @throws IllegalArgumentException When {@code sorted} is empty or the percentile is out of range
+     */
+    static long percentile(final long[] sorted, final double percentile) {
+
+        Validate.notNull(sorted, "The validated object 'sorted' is null");
+        Validate.isTrue(sorted.length > 0, "The validated array 'sorted' is empty");
+        Validate.isTrue(percentile > 0 && percentile <= 1, "The validated value 'percentile' is out of range");
+
+        final int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Round an iteration count down to a multiple of {@link Pbkdf2Calibrator#MIN_ITERATIONS}, but not below it.
+     *
+     * @param iterations The iteration count
+     * @return The rounded iteration count
+     */
+    private static int roundDown(final double iterations) {
+
+        final double capped = Math.min(iterations, Integer.MAX_VALUE);
+        return Math.max(MIN_ITERATIONS, (int) (capped / MIN_ITERATIONS) * MIN_ITERATIONS);
+    }
+
+    /**
+     * Return the value part of a {@code --key=value} argument.
+     *
+     * @param arg The argument
+     * @return The value
+     */
+    private static String valueOf(final String arg) {
+
+        return arg.substring(arg.indexOf('=') + 1).trim();
+    }
+
+    /**
+     * The latencies measured for an iteration count.
+     */
+    public static final class Result {
+
+        /**
+         * The iteration count
+         */
+        private final int iterations;
+
+        /**
+         * The p50 latency in nanoseconds
+         */
+        private final long p50Nanos;
+
+        /**
+         * The p99 latency in nanoseconds
+         */
+        private final long p99Nanos;
+
+        /**
+         * Create a result.
+         *
+         * @param iterations The iteration count
+         * @param p50Nanos   The p50 latency in nanoseconds
+         * @param p99Nanos   The p99 latency in nanoseconds
+         */
+        Result(final int iterations, final long p50Nanos, final long p99Nanos) {
+
+            this.iterations = iterations;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        /**
+         * @return The iteration count
+         */
+        public int getIterations() {
+
+            return iterations;
+        }
+
+        /**
+         * @return The p50 latency in nanoseconds
+         */
+        public long getP50Nanos() {
+
+            return p50Nanos;
+        }
+
+        /**
+         * @return The p99 latency in nanoseconds
+         */
+        public long getP99Nanos() {
+
+            return p99Nanos;
+        }
+
+        /**
+         * Check if the measured latencies are within the targets.
+         *
+         * @param p50TargetNanos The p50 latency target in nanoseconds
+         * @param p99TargetNanos The p99 latency target in nanoseconds
+         * @return {@code true} if both latencies are within their target, {@code false} otherwise
+         */
+        public boolean meets(final long p50TargetNanos, final long p99TargetNanos) {
+
+            return p50Nanos <= p50TargetNanos && p99Nanos <= p99TargetNanos;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.array.Cleanser;
+import org.beiter.michael.array.Converter;
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.FactoryException;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordValidatorFactory;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.UpgradeablePasswordValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder.JaasBasedPbkdf2PropsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This implementation of a password validator can validate a password against a PBKDF2 (HMAC-SHA256) credential.
+ * <p>
+ * Credentials are stored in the format {@code pbkdf2-sha256$<iterations>$<hex salt>$<hex hash>}. The validator
+ * accepts credentials with any iteration count, salt length and hash length, but reports credentials with fewer
+ * iterations or a shorter hash than currently configured as requiring a re-hash (see
+ * {@link UpgradeablePasswordValidator}).
+ * <p>
+ * Stored credentials in other formats (e.g. plain-text passwords) can be migrated: if a legacy validator is configured
+ * (see {@link Pbkdf2Properties#setLegacyValidatorClassName(String)}), it validates them, and they are reported as
+ * requiring a re-hash, so that the authenticator replaces them with a PBKDF2 credential on the next successful login.
+ * <p>
+ * With the {@code multibuffer} engine, derivations from concurrent logins are combined into batches (see
+ * {@link BatchingPbkdf2}). The batches are shared by all instances of this validator with the same number of lanes,
+ * because a JAAS login creates a new validator instance for every login module instance.
+ */
+public class Pbkdf2PasswordValidator
+        implements UpgradeablePasswordValidator {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(Pbkdf2PasswordValidator.class);
+
+    /**
+     * The prefix identifying a credential in the format supported by this validator
+     */
+    public static final String CREDENTIAL_PREFIX = "pbkdf2-sha256";
+
+    /**
+     * The separator between the fields in a credential
+     */
+    private static final char SEPARATOR = '$';
+
+    /**
+     * The hex alphabet used for encoding salt and hash
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The number of bits in a hex digit
+     */
+    private static final int NIBBLE_BITS = 4;
+
+    /**
+     * The mask to extract a hex digit from a byte
+     */
+    private static final int NIBBLE_MASK = 0x0f;
+
+    /**
+     * The character encoding used to convert passwords to bytes
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The source of randomness for salts
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The multi buffer engines shared by all validator instances, by number of lanes
+     */
+    private static final ConcurrentMap<Integer, BatchingPbkdf2> ENGINES = new ConcurrentHashMap<>();
+
+    /**
+     * The properties this validator uses to create new credentials, and to decide if a credential needs a re-hash
+     */
+    private volatile Pbkdf2Properties pbkdf2Props = JaasBasedPbkdf2PropsBuilder.buildDefault();
+
+    /**
+     * The validator for stored credentials in other formats, {@code null} if none has been configured
+     */
+    private volatile PasswordValidator legacyValidator;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a legacy validator is configured, it is created and initialized with the same properties. If it cannot be
+     * created, stored credentials in other formats do not validate.
+     *
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    @Override
+    public final void init(final CommonProperties properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final Pbkdf2Properties props = JaasBasedPbkdf2PropsBuilder.build(properties.getAdditionalProperties());
+        legacyValidator = createLegacyValidator(props.getLegacyValidatorClassName(), properties);
+        pbkdf2Props = props;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the credential...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final boolean validate(final char[] providedPassword, final char[] storedCredential) {
+
+        if (providedPassword == null || providedPassword.length == 0 || storedCredential == null) {
+            return false;
+        }
+
+        final Credential credential = Credential.parse(storedCredential);
+        if (credential == null) {
+            return validateLegacy(providedPassword, storedCredential);
+        }
+
+        final byte[] hash = derive(pbkdf2Props, providedPassword, credential.salt, credential.iterations,
+                credential.hash.length);
+        try {
+            return MessageDigest.isEqual(hash, credential.hash);
+        } finally {
+            Cleanser.wipe(hash);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the credential...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final boolean needsRehash(final char[] storedCredential) {
+
+        final Credential credential = Credential.parse(storedCredential);
+        if (credential == null) {
+            return true;
+        }
+
+        final Pbkdf2Properties props = pbkdf2Props;
+        return credential.iterations < props.getIterations() || credential.hash.length < props.getKeyLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    // It would be pretty dumb to use varargs for the password...
+    @SuppressWarnings("PMD.UseVarargs")
+    public final char[] hash(final char[] providedPassword) {
+
+        Validate.notNull(providedPassword, "The validated object 'providedPassword' is null");
+        Validate.isTrue(providedPassword.length > 0, "The validated array 'providedPassword' is empty");
+
+        final Pbkdf2Properties props = pbkdf2Props;
+        final byte[] salt = new byte[props.getSaltLength()];
+        RANDOM.nextBytes(salt);
+
+        final byte[] hash = derive(props, providedPassword, salt, props.getIterations(), props.getKeyLength());
+        try {
+            return format(props.getIterations(), salt, hash);
+        } finally {
+            Cleanser.wipe(hash);
+        }
+    }
+
+    /**
+     * Validate a password against a stored credential that is not a valid PBKDF2 credential, using the legacy
+     * validator. Malformed credentials in the PBKDF2 format are never passed to the legacy validator.
+     *
+     * @param providedPassword The password to validate
+     * @param storedCredential The stored credential
+     * @return {@code true} if the legacy validator accepts the password
+     */
+    private boolean validateLegacy(final char[] providedPassword, final char[] storedCredential) {
+
+        // private method asserts
+        assert providedPassword != null : "The provided password cannot be null";
+        assert storedCredential != null : "The stored credential cannot be null";
+
+        final PasswordValidator legacy = legacyValidator;
+        if (legacy == null || hasPrefix(storedCredential)) {
+            LOG.warn("The stored credential is not in a supported format");
+            return false;
+        }
+
+        return legacy.validate(providedPassword, storedCredential);
+    }
+
+    /**
+     * Create the legacy validator.
+     *
+     * @param className  The class name of the legacy validator, may be {@code null}
+     * @param properties The properties to initialize the legacy validator with
+     * @return The legacy validator, or {@code null} if none is configured or it cannot be created
+     */
+    private static PasswordValidator createLegacyValidator(final String className,
+                                                           final CommonProperties properties) {
+
+        // private method asserts
+        assert properties != null : "The properties cannot be null";
+
+        if (className == null) {
+            return null;
+        }
+        if (Pbkdf2PasswordValidator.class.getName().equals(className)) {
+            LOG.warn("The PBKDF2 password validator cannot be its own legacy validator, ignoring the legacy validator");
+            return null;
+        }
+
+        try {
+            return PasswordValidatorFactory.getInstance(className, properties);
+        } catch (FactoryException e) {
+            LOG.warn("Cannot create the legacy password validator, credentials in other formats will not validate", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param credential The credential to check
+     * @return {@code true} if the credential starts with the prefix of the format supported by this validator
+     */
+    private static boolean hasPrefix(final char[] credential) {
+
+        final int prefixLength = CREDENTIAL_PREFIX.length();
+        return credential.length >= prefixLength
+                && CREDENTIAL_PREFIX.equals(new String(credential, 0, prefixLength));
+    }
+
+    /**
+     * Derive a PBKDF2 hash from a password with the configured engine, wiping the intermediate password bytes.
+     *
+     * @param props      The properties selecting the engine
+     * @param password   The password
+     * @param salt       The salt
+     * @param iterations The iteration count
+     * @param keyLength  The length of the hash in bytes
+     * @return The hash
+     */
+    static byte[] derive(final Pbkdf2Properties props, final char[] password, final byte[] salt,
+                         final int iterations, final int keyLength) {
+
+        final byte[] passwordBytes = Converter.toBytes(password, ENCODING);
+        try {
+            if (Pbkdf2Properties.ENGINE_MULTI_BUFFER.equals(props.getEngine())) {
+                return getEngine(props.getLanes()).derive(passwordBytes, salt, iterations, keyLength);
+            } else {
+                return Pbkdf2.derive(passwordBytes, salt, iterations, keyLength);
+            }
+        } finally {
+            Cleanser.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Get the shared multi buffer engine for a number of lanes, creating it if it does not exist yet.
+     *
+     * @param lanes The number of lanes
+     * @return The engine
+     */
+    private static BatchingPbkdf2 getEngine(final int lanes) {
+
+        final Integer key = lanes;
+        BatchingPbkdf2 engine = ENGINES.get(key);
+        if (engine == null) {
+            final BatchingPbkdf2 newEngine = new BatchingPbkdf2(lanes);
+            engine = ENGINES.putIfAbsent(key, newEngine);
+            if (engine == null) {
+                engine = newEngine;
+            }
+        }
+
+        return engine;
+    }
+
+    /**
+     * Create a credential in the format supported by this validator.
+     *
+     * @param iterations The iteration count
+     * @param salt       The salt
+     * @param hash       The hash
+     * @return The formatted credential
+     */
+    static char[] format(final int iterations, final byte[] salt, final byte[] hash) {
+
+        final String head = CREDENTIAL_PREFIX + SEPARATOR + iterations + SEPARATOR;
+        final char[] result = new char[head.length() + salt.length * 2 + 1 + hash.length * 2];
+        head.getChars(0, head.length(), result, 0);
+        int pos = toHex(salt, result, head.length());
+        result[pos++] = SEPARATOR;
+        toHex(hash, result, pos);
+
+        return result;
+    }
+
+    /**
+     * Write the hex representation of a byte array into a char array.
+     *
+     * @param bytes  The bytes to encode
+     * @param target The array to write to
+     * @param offset The position in the target array to start writing
+     * @return The position in the target array after the last written character
+     */
+    private static int toHex(final byte[] bytes, final char[] target, final int offset) {
+
+        int pos = offset;
+        for (final byte b : bytes) {
+            target[pos++] = HEX[(b >>> NIBBLE_BITS) & NIBBLE_MASK];
+            target[pos++] = HEX[b & NIBBLE_MASK];
+        }
+
+        return pos;
+    }
+
+    /**
+     * A parsed credential.
+     */
+    private static final class Credential {
+
+        /**
+         * The iteration count
+         */
+        private final int iterations;
+
+        /**
+         * The salt
+         */
+        private final byte[] salt;
+
+        /**
+         * The hash
+         */
+        private final byte[] hash;
+
+        /**
+         * Create a parsed credential.
+         *
+         * @param iterations The iteration count
+         * @param salt       The salt
+         * @param hash       The hash
+         */
+        private Credential(final int iterations, final byte[] salt, final byte[] hash) {
+
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        /**
+         * Parse a credential without creating intermediate {@code String} copies of it.
+         *
+         * @param credential The credential to parse
+         * @return The parsed credential, or {@code null} if the credential is not in a supported format
+         */
+        // CHECKSTYLE:OFF
+        // this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+        // suppress warnings about this method being too complex (parsing is inherently branchy)
+        @SuppressWarnings({"PMD.CyclomaticComplexity", "PMD.StdCyclomaticComplexity", "PMD.ModifiedCyclomaticComplexity", "PMD.NPathComplexity"})
+        // CHECKSTYLE:ON
+        private static Credential parse(final char[] credential) {
+
+            if (credential == null) {
+                return null;
+            }
+
+            final int prefixLength = CREDENTIAL_PREFIX.length();
+            if (credential.length <= prefixLength || credential[prefixLength] != SEPARATOR
+                    || !CREDENTIAL_PREFIX.equals(new String(credential, 0, prefixLength))) {
+                return null;
+            }
+
+            // iterations
+            int pos = prefixLength + 1;
+            long iterations = 0;
+            final int iterationsStart = pos;
+            while (pos < credential.length && credential[pos] != SEPARATOR) {
+                final int digit = Character.digit(credential[pos], 10);
+                if (digit < 0) {
+                    return null;
+                }
+                iterations = iterations * 10 + digit;
+                if (iterations > Integer.MAX_VALUE) {
+                    return null;
+                }
+                pos++;
+            }
+            if (pos == iterationsStart || pos == credential.length || iterations == 0) {
+                return null;
+            }
+
+            // salt
+            final int saltStart = ++pos;
+            while (pos < credential.length && credential[pos] != SEPARATOR) {
+                pos++;
+            }
+            if (pos == credential.length) {
+                return null;
+            }
+            final byte[] salt = fromHex(credential, saltStart, pos);
+
+            // hash
+            final byte[] hash = fromHex(credential, pos + 1, credential.length);
+            if (salt == null || hash == null || hash.length == 0) {
+                return null;
+            }
+
+            return new Credential((int) iterations, salt, hash);
+        }
+
+        /**
+         * Decode a hex encoded section of a char array.
+         *
+         * @param chars The chars to decode
+         * @param start The start of the section (inclusive)
+         * @param end   The end of the section (exclusive)
+         * @return The decoded bytes, or {@code null} if the section is not valid hex
+         */
+        private static byte[] fromHex(final char[] chars, final int start, final int end) {
+
+            if ((end - start) % 2 != 0) {
+                return null;
+            }
+
+            final byte[] result = new byte[(end - start) / 2];
+            for (int i = 0; i < result.length; i++) {
+                final int high = Character.digit(chars[start + 2 * i], 16);
+                final int low = Character.digit(chars[start + 2 * i + 1], 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                result[i] = (byte) ((high << NIBBLE_BITS) | low);
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class specifies PBKDF2 password validator properties.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the constructor (required for producing java docs)
+@SuppressWarnings({"PMD.UnnecessaryConstructor"})
+// CHECKSTYLE:ON
+public class Pbkdf2Properties {
+
+    /**
+     * The name of the engine that derives every key on the calling thread using the JCE HMAC implementation
+     */
+    public static final String ENGINE_STANDARD = "standard";
+
+    /**
+     * The name of the engine that combines concurrent derivations into batches
+     */
+    public static final String ENGINE_MULTI_BUFFER = "multibuffer";
+
+    /**
+     * @see Pbkdf2Properties#setIterations(int)
+     */
+    private int iterations;
+
+    /**
+     * @see Pbkdf2Properties#setSaltLength(int)
+     */
+    private int saltLength;
+
+    /**
+     * @see Pbkdf2Properties#setKeyLength(int)
+     */
+    private int keyLength;
+
+    /**
+     * @see Pbkdf2Properties#setEngine(String)
+     */
+    private String engine;
+
+    /**
+     * @see Pbkdf2Properties#setLanes(int)
+     */
+    private int lanes;
+
+    /**
+     * @see Pbkdf2Properties#setLegacyValidatorClassName(String)
+     */
+    private String legacyValidatorClassName;
+
+    /**
+     * @see Pbkdf2Properties#setAdditionalProperties(Map <String, String>)
+     */
+    private Map<String, String> additionalProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty set of PBKDF2 properties, with most values being set to <code>null</code>, 0, or empty
+     * (depending on the type of the property). Usually this constructor is used if this configuration POJO is populated
+     * in an automated fashion (e.g. injection). If you need to build them manually (possibly with defaults), use or
+     * create a properties builder (such as the {@code JaasBasedPbkdf2PropsBuilder}).
+     * <p>
+     * You can change the defaults with the setters.
+     */
+    public Pbkdf2Properties() {
+
+        // no code here, constructor just for java docs
+    }
+
+    /**
+     * Creates a set of PBKDF2 properties from an existing set of PBKDF2 properties, making a defensive copy.
+     *
+     * @param properties The set of properties to copy
+     * @throws NullPointerException When {@code properties} is {@code null}
+     * @see Pbkdf2Properties()
+     */
+    public Pbkdf2Properties(final Pbkdf2Properties properties) {
+
+        this();
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        setIterations(properties.getIterations());
+        setSaltLength(properties.getSaltLength());
+        setKeyLength(properties.getKeyLength());
+        // no need for defensive copies of String
+        setEngine(properties.getEngine());
+        setLanes(properties.getLanes());
+        // no need for defensive copies of String
+        setLegacyValidatorClassName(properties.getLegacyValidatorClassName());
+        setAdditionalProperties(properties.getAdditionalProperties());
+    }
+
+    /**
+     * @return The number of PBKDF2 iterations used for new credentials
+     * @see Pbkdf2Properties#setIterations(int)
+     */
+    public final int getIterations() {
+
+        return iterations;
+    }
+
+    /**
+     * The number of PBKDF2 iterations to use when creating new credentials. Stored credentials with a lower iteration
+     * count are reported as requiring a re-hash.
+     *
+     * @param iterations The number of iterations
+     */
+    public final void setIterations(final int iterations) {
+
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return The length of the salt in bytes used for new credentials
+     * @see Pbkdf2Properties#setSaltLength(int)
+     */
+    public final int getSaltLength() {
+
+        return saltLength;
+    }
+
+    /**
+     * The length of the random salt in bytes to use when creating new credentials.
+     *
+     * @param saltLength The salt length in bytes
+     */
+    public final void setSaltLength(final int saltLength) {
+
+        this.saltLength = saltLength;
+    }
+
+    /**
+     * @return The length of the derived key in bytes used for new credentials
+     * @see Pbkdf2Properties#setKeyLength(int)
+     */
+    public final int getKeyLength() {
+
+        return keyLength;
+    }
+
+    /**
+     * The length of the derived key (i.e. the password hash) in bytes to use when creating new credentials. Stored
+     * credentials with a shorter key are reported as requiring a re-hash.
+     *
+     * @param keyLength The key length in bytes
+     */
+    public final void setKeyLength(final int keyLength) {
+
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * @return The name of the engine used to derive keys
+     * @see Pbkdf2Properties#setEngine(String)
+     */
+    public final String getEngine() {
+
+        // no need for defensive copies of String
+        return engine;
+    }
+
+    /**
+     * The engine used to derive keys. The {@code standard} engine derives every key on the calling thread using the
+     * JCE HMAC implementation. The {@code multibuffer} engine combines derivations from concurrent logins into batches
+     * and computes them together, which increases the throughput under load.
+     *
+     * @param engine The name of the engine
+     */
+    public final void setEngine(final String engine) {
+
+        // no need for defensive copies of String
+        this.engine = engine;
+    }
+
+    /**
+     * @return The maximum number of derivations the multi buffer engine computes together
+     * @see Pbkdf2Properties#setLanes(int)
+     */
+    public final int getLanes() {
+
+        return lanes;
+    }
+
+    /**
+     * The maximum number of derivations the multi buffer engine computes together. This setting has no effect with
+     * other engines.
+     *
+     * @param lanes The number of lanes
+     */
+    public final void setLanes(final int lanes) {
+
+        this.lanes = lanes;
+    }
+
+    /**
+     * @return The class name of the validator for stored credentials in other formats
+     * @see Pbkdf2Properties#setLegacyValidatorClassName(String)
+     */
+    public final String getLegacyValidatorClassName() {
+
+        // no need for defensive copies of String
+        return legacyValidatorClassName;
+    }
+
+    /**
+     * The fully qualified class name of a password validator that validates stored credentials which are not in the
+     * PBKDF2 format, e.g. plain-text passwords or hashes from a previous scheme. Such credentials are reported as
+     * requiring a re-hash, so that an authenticator supporting it migrates them to PBKDF2 on the next successful login.
+     * The legacy validator is initialized with the same properties as the PBKDF2 validator. If {@code null}, stored
+     * credentials in other formats never validate.
+     *
+     * @param legacyValidatorClassName The class name of the legacy validator
+     */
+    public final void setLegacyValidatorClassName(final String legacyValidatorClassName) {
+
+        // no need for defensive copies of String
+        this.legacyValidatorClassName = legacyValidatorClassName;
+    }
+
+    /**
+     * @return Any additional properties stored in this object that have not explicitly been parsed
+     * @see Pbkdf2Properties#setAdditionalProperties(Map <String, String>)
+     */
+    public final Map<String, String> getAdditionalProperties() {
+
+        // create a defensive copy of the map and all its properties
+        if (this.additionalProperties == null) {
+            // this should never happen!
+            return new ConcurrentHashMap<>();
+        } else {
+            final Map<String, String> tempMap = new ConcurrentHashMap<>();
+            // putAll() is safe here, because we always apply it on a ConcurrentHashMap
+            tempMap.putAll(additionalProperties);
+
+            return tempMap;
+        }
+    }
+
+    /**
+     * Any additional properties which have not been parsed, and for which no getter/setter exists, but are to be
+     * stored in this object nevertheless.
+     * <p>
+     * This property is commonly used to preserve original properties from upstream components that are to be passed
+     * on to downstream components unchanged. This properties set may or may not include properties that have been
+     * extracted from the map, and been made available through this POJO.
+     * <p>
+     * Note that these additional properties may be <code>null</code> or empty, even in a fully populated POJO where
+     * other properties commonly have values assigned to.
+     *
+     * @param additionalProperties The additional properties to store
+     */
+    public final void setAdditionalProperties(final Map<String, String> additionalProperties) {
+
+        // create a defensive copy of the map and all its properties
+        if (additionalProperties == null) {
+            // create a new (empty) properties map if the provided parameter was null
+            this.additionalProperties = new ConcurrentHashMap<>();
+        } else {
+            // create a defensive copy of the map and all its properties
+            // the code looks a little more complicated than a simple "putAll()", but it catches situations
+            // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+            // that do not (e.g. ConcurrentHashMap).
+            this.additionalProperties = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, String> entry : additionalProperties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = entry.getValue();
+
+                if (value != null) {
+                    this.additionalProperties.put(key, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+/**
+ * A SHA-256 compression function (FIPS 180-4) that processes several independent message blocks at once.
+ * <p>
+ * All arrays use a lane interleaved ("structure of arrays") layout: word {@code i} of lane {@code l} is stored at
+ * index {@code i * lanes + l}. Every step of the compression function is a loop over the lanes with unit stride and
+ * without dependencies between the lanes, which is the shape the JIT compiler can turn into SIMD instructions.
+ * <p>
+ * Instances hold scratch buffers and are <b>not</b> thread safe.
+ */
+final class Sha256Lanes {
+
+    /**
+     * The number of 32 bit words in a SHA-256 state
+     */
+    static final int STATE_WORDS = 8;
+
+    /**
+     * The number of 32 bit words in a SHA-256 message block
+     */
+    static final int BLOCK_WORDS = 16;
+
+    /**
+     * The SHA-256 initial hash value
+     */
+    static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19,
+    };
+
+    /**
+     * The SHA-256 round constants
+     */
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2,
+    };
+
+    /**
+     * The number of rounds (and message schedule words)
+     */
+    private static final int ROUNDS = 64;
+
+    /**
+     * The number of lanes
+     */
+    private final int lanes;
+
+    /**
+     * The message schedule, for all lanes
+     */
+    private final int[] schedule;
+
+    /**
+     * The working variables a..h, one array per variable with one element per lane
+     */
+    private final int[][] work;
+
+    /**
+     * Create a compression function for the given number of lanes.
+     *
+     * @param lanes The number of lanes
+     */
+    Sha256Lanes(final int lanes) {
+
+        assert lanes > 0 : "The number of lanes must be positive";
+
+        this.lanes = lanes;
+        this.schedule = new int[ROUNDS * lanes];
+        this.work = new int[STATE_WORDS][lanes];
+    }
+
+    /**
+     * @return The number of lanes
+     */
+    int getLanes() {
+
+        return lanes;
+    }
+
+    /**
+     * Compress one message block per lane into the state of that lane.
+     *
+     * @param state The state of all lanes ({@code 8 * lanes} words), updated in place
+     * @param block The message block of all lanes ({@code 16 * lanes} words), not modified
+     */
+    // CHECKSTYLE:OFF
+    // the shift and rotation amounts are defined by FIPS 180-4, naming them would not make this any clearer
+    @SuppressWarnings({"PMD.AvoidReassigningParameters", "PMD.ShortVariable"})
+    void compress(final int[] state, final int[] block) {
+
+        final int n = lanes;
+        final int[] w = schedule;
+        System.arraycopy(block, 0, w, 0, BLOCK_WORDS * n);
+        for (int t = BLOCK_WORDS; t < ROUNDS; t++) {
+            final int o = t * n;
+            final int o2 = o - 2 * n;
+            final int o7 = o - 7 * n;
+            final int o15 = o - 15 * n;
+            final int o16 = o - 16 * n;
+            for (int l = 0; l < n; l++) {
+                final int x = w[o2 + l];
+                final int y = w[o15 + l];
+                final int s1 = ((x >>> 17) | (x << 15)) ^ ((x >>> 19) | (x << 13)) ^ (x >>> 10);
+                final int s0 = ((y >>> 7) | (y << 25)) ^ ((y >>> 18) | (y << 14)) ^ (y >>> 3);
+                w[o + l] = s1 + w[o7 + l] + s0 + w[o16 + l];
+            }
+        }
+
+        int[] a = work[0];
+        int[] b = work[1];
+        int[] c = work[2];
+        int[] d = work[3];
+        int[] e = work[4];
+        int[] f = work[5];
+        int[] g = work[6];
+        int[] h = work[7];
+        for (int l = 0; l < n; l++) {
+            a[l] = state[l];
+            b[l] = state[n + l];
+            c[l] = state[2 * n + l];
+            d[l] = state[3 * n + l];
+            e[l] = state[4 * n + l];
+            f[l] = state[5 * n + l];
+            g[l] = state[6 * n + l];
+            h[l] = state[7 * n + l];
+        }
+
+        for (int t = 0; t < ROUNDS; t++) {
+            final int k = K[t];
+            final int o = t * n;
+            for (int l = 0; l < n; l++) {
+                final int ae = e[l];
+                final int aa = a[l];
+                final int s1 = ((ae >>> 6) | (ae << 26)) ^ ((ae >>> 11) | (ae << 21)) ^ ((ae >>> 25) | (ae << 7));
+                final int ch = (ae & f[l]) ^ (~ae & g[l]);
+                final int t1 = h[l] + s1 + ch + k + w[o + l];
+                final int s0 = ((aa >>> 2) | (aa << 30)) ^ ((aa >>> 13) | (aa << 19)) ^ ((aa >>> 22) | (aa << 10));
+                final int maj = (aa & b[l]) ^ (aa & c[l]) ^ (b[l] & c[l]);
+                d[l] += t1;
+                h[l] = t1 + s0 + maj;
+            }
+
+            // rotate the roles of the working variables instead of moving their values:
+            // the new 'a' is stored in the old 'h', the new 'e' in the old 'd'
+            final int[] tmp = h;
+            h = g;
+            g = f;
+            f = e;
+            e = d;
+            d = c;
+            c = b;
+            b = a;
+            a = tmp;
+        }
+
+        for (int l = 0; l < n; l++) {
+            state[l] += a[l];
+            state[n + l] += b[l];
+            state[2 * n + l] += c[l];
+            state[3 * n + l] += d[l];
+            state[4 * n + l] += e[l];
+            state[5 * n + l] += f[l];
+            state[6 * n + l] += g[l];
+            state[7 * n + l] += h[l];
+        }
+    }
+    // CHECKSTYLE:ON
+}
@@ -0,0 +1,5 @@
+/**
+ * Provides a password validator implementation for validating PBKDF2 (HMAC-SHA256) password credentials in JAAS
+ * modules, including support for upgrading credentials that are below the configured cost target.
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
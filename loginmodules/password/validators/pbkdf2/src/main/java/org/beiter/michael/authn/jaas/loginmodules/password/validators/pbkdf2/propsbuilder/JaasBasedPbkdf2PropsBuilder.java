@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.beiter.michael.authn.jaas.common.propsbuilder.PropsUtil;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.MultiBufferPbkdf2;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.Pbkdf2Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class builds a set of {@link Pbkdf2Properties} using the settings obtained from a
+ * JAAS Properties Map.
+ * <p>
+ * <p>
+ * Use the keys from the various KEY_* fields to properly populate the JAAS Properties Map before calling this class'
+ * methods.
+ */
+// CHECKSTYLE:OFF
+// this is flagged in checkstyle with a missing whitespace before '}', which is a bug in checkstyle
+// suppress warnings about the long variable names
+@SuppressWarnings({"PMD.LongVariable"})
+// CHECKSTYLE:ON
+public final class JaasBasedPbkdf2PropsBuilder {
+
+    /**
+     * The logger object for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(JaasBasedPbkdf2PropsBuilder.class);
+
+    // #################
+    // # Default values
+    // #################
+
+    /**
+     * @see Pbkdf2Properties#setIterations(int)
+     */
+    public static final int DEFAULT_ITERATIONS = 100000;
+
+    /**
+     * @see Pbkdf2Properties#setSaltLength(int)
+     */
+    public static final int DEFAULT_SALT_LENGTH = 16;
+
+    /**
+     * @see Pbkdf2Properties#setKeyLength(int)
+     */
+    public static final int DEFAULT_KEY_LENGTH = 32;
+
+    /**
+     * @see Pbkdf2Properties#setEngine(String)
+     */
+    public static final String DEFAULT_ENGINE = Pbkdf2Properties.ENGINE_STANDARD;
+
+    /**
+     * @see Pbkdf2Properties#setLanes(int)
+     */
+    public static final int DEFAULT_LANES = MultiBufferPbkdf2.DEFAULT_LANES;
+
+    /**
+     * @see Pbkdf2Properties#setLegacyValidatorClassName(String)
+     */
+    public static final String DEFAULT_LEGACY_VALIDATOR_CLASS_NAME = null;
+
+    // #####################
+    // # Configuration Keys
+    // #####################
+
+    /**
+     * @see Pbkdf2Properties#setIterations(int)
+     */
+    public static final String KEY_ITERATIONS = "jaas.password.validator.pbkdf2.iterations";
+
+    /**
+     * @see Pbkdf2Properties#setSaltLength(int)
+     */
+    public static final String KEY_SALT_LENGTH = "jaas.password.validator.pbkdf2.saltLength";
+
+    /**
+     * @see Pbkdf2Properties#setKeyLength(int)
+     */
+    public static final String KEY_KEY_LENGTH = "jaas.password.validator.pbkdf2.keyLength";
+
+    /**
+     * @see Pbkdf2Properties#setEngine(String)
+     */
+    public static final String KEY_ENGINE = "jaas.password.validator.pbkdf2.engine";
+
+    /**
+     * @see Pbkdf2Properties#setLanes(int)
+     */
+    public static final String KEY_LANES = "jaas.password.validator.pbkdf2.lanes";
+
+    /**
+     * @see Pbkdf2Properties#setLegacyValidatorClassName(String)
+     */
+    public static final String KEY_LEGACY_VALIDATOR_CLASS_NAME = "jaas.password.validator.pbkdf2.legacyValidator";
+
+
+    /**
+     * A private constructor to prevent instantiation of this class
+     */
+    private JaasBasedPbkdf2PropsBuilder() {
+    }
+
+    /**
+     * Creates a set of PBKDF2 properties that use the defaults as specified in this class.
+     *
+     * @return A set of PBKDF2 properties with (reasonable) defaults
+     * @see JaasBasedPbkdf2PropsBuilder
+     */
+    public static Pbkdf2Properties buildDefault() {
+
+        return build(new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * Initialize a set of PBKDF2 properties based on key / values in a <code>HashMap</code>.
+     * <p>
+     * Values that cannot be parsed as a positive integer, and unsupported engine names, are ignored, and the default
+     * is used instead.
+     *
+     * @param properties A <code>HashMap</code> with configuration properties as required by the init() method in JAAS,
+     *                   using the keys as specified in this class
+     * @return A <code>Pbkdf2Properties</code> object with default values, plus the provided parameters
+     * @throws NullPointerException When {@code properties} is {@code null}
+     */
+    public static Pbkdf2Properties build(final Map<String, ?> properties) {
+
+        Validate.notNull(properties, "The validated object 'properties' is null");
+
+        final Pbkdf2Properties pbkdf2Props = new Pbkdf2Properties();
+        pbkdf2Props.setIterations(PropsUtil.getPositiveInt(KEY_ITERATIONS, DEFAULT_ITERATIONS, properties));
+        pbkdf2Props.setSaltLength(PropsUtil.getPositiveInt(KEY_SALT_LENGTH, DEFAULT_SALT_LENGTH, properties));
+        pbkdf2Props.setKeyLength(PropsUtil.getPositiveInt(KEY_KEY_LENGTH, DEFAULT_KEY_LENGTH, properties));
+        pbkdf2Props.setLanes(PropsUtil.getPositiveInt(KEY_LANES, DEFAULT_LANES, properties));
+
+        String tmp = PropsUtil.getOption(KEY_ENGINE, properties);
+        if (Pbkdf2Properties.ENGINE_STANDARD.equals(tmp) || Pbkdf2Properties.ENGINE_MULTI_BUFFER.equals(tmp)) {
+            pbkdf2Props.setEngine(tmp);
+            PropsUtil.logValue(KEY_ENGINE, tmp);
+        } else {
+            if (StringUtils.isNotEmpty(tmp)) {
+                LOG.warn("Key '" + KEY_ENGINE + "' is not a supported engine, ignoring the configured value");
+            }
+            pbkdf2Props.setEngine(DEFAULT_ENGINE);
+            PropsUtil.logDefault(KEY_ENGINE, DEFAULT_ENGINE);
+        }
+
+        pbkdf2Props.setLegacyValidatorClassName(PropsUtil.getString(KEY_LEGACY_VALIDATOR_CLASS_NAME,
+                DEFAULT_LEGACY_VALIDATOR_CLASS_NAME, properties));
+
+        // set the additional properties, preserving the originally provided properties
+        // create a defensive copy of the map and all its properties
+        // the code looks a little more complicated than a simple "putAll()", but it catches situations
+        // where a Map is provided that supports null values (e.g. a HashMap) vs Map implementations
+        // that do not (e.g. ConcurrentHashMap).
+        final Map<String, String> tempMap = new ConcurrentHashMap<>();
+        try {
+            for (final Map.Entry<String, ?> entry : properties.entrySet()) {
+                final String key = entry.getKey();
+                final String value = (String) entry.getValue();
+
+                if (value != null) {
+                    tempMap.put(key, value);
+                }
+            }
+        } catch (ClassCastException e) {
+            final String error = "The values of the configured JAAS properties must be Strings. "
+                    + "Sorry, but we do not support anything else here!";
+            throw new IllegalArgumentException(error, e);
+        }
+        pbkdf2Props.setAdditionalProperties(tempMap);
+
+        return pbkdf2Props;
+    }
+}
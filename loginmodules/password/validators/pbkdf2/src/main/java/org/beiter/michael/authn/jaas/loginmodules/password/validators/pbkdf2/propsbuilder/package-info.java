@@ -0,0 +1,4 @@
+/**
+ * Provides classes to build the properties required for the PBKDF2 password validator.
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder;
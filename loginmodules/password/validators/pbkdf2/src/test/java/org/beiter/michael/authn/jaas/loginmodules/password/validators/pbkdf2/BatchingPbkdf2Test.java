@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BatchingPbkdf2Test {
+
+    /**
+     * Test that a single caller gets the same key as from the JCE based implementation
+     */
+    @Test
+    public void singleCallerTest() {
+
+        BatchingPbkdf2 batching = new BatchingPbkdf2(4);
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+
+        String error = "The batched key does not match the JCE based implementation";
+        assertThat(error, batching.derive(password, salt, 2, 32), is(equalTo(Pbkdf2.derive(password, salt, 2, 32))));
+    }
+
+    /**
+     * Test that concurrent callers with different passwords, iteration counts and key lengths all get their own,
+     * correct key from a single combiner
+     *
+     * @throws Exception When the test fails to run the concurrent callers
+     */
+    @Test
+    public void concurrentCallersTest()
+            throws Exception {
+
+        assertConcurrentCallers(new BatchingPbkdf2(MultiBufferPbkdf2.DEFAULT_LANES, 1));
+    }
+
+    /**
+     * Test that concurrent callers all get their own, correct key when several combiners run batches at the same time
+     *
+     * @throws Exception When the test fails to run the concurrent callers
+     */
+    @Test
+    public void concurrentCombinersTest()
+            throws Exception {
+
+        BatchingPbkdf2 batching = new BatchingPbkdf2(2, 4);
+
+        String error = "The number of combiners does not match";
+        assertThat(error, batching.getCombiners(), is(equalTo(4)));
+
+        assertConcurrentCallers(batching);
+    }
+
+    /**
+     * Test that interrupted callers still get their key, and keep their interrupt flag
+     *
+     * @throws Exception When the test fails to run the concurrent callers
+     */
+    @Test
+    public void interruptedCallersTest()
+            throws Exception {
+
+        final BatchingPbkdf2 batching = new BatchingPbkdf2(2);
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                final byte[] password = ("password" + i).getBytes(StandardCharsets.UTF_8);
+                final byte[] salt = ("salt" + i).getBytes(StandardCharsets.UTF_8);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+
+                        byte[] expected = Pbkdf2.derive(password, salt, 2000, 32);
+                        Thread.currentThread().interrupt();
+                        byte[] key = batching.derive(password, salt, 2000, 32);
+                        return Thread.interrupted() && Arrays.equals(expected, key);
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                String error = "An interrupted caller received an incorrect key, or lost its interrupt flag";
+                assertThat(error, result.get(), is(equalTo(true)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a non-positive number of combiners is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCombinersTest() {
+
+        new BatchingPbkdf2(2, 0);
+    }
+
+    /**
+     * Test that a non-positive number of lanes is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLanesTest() {
+
+        new BatchingPbkdf2(0);
+    }
+
+    /**
+     * Test that an empty password is rejected before it is queued
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPasswordTest() {
+
+        new BatchingPbkdf2(2).derive(new byte[0], new byte[16], 1, 32);
+    }
+
+    /**
+     * Run concurrent callers with different passwords, iteration counts and key lengths, and check that they all get
+     * their own, correct key.
+     *
+     * @param batching The batching PBKDF2 front end to test
+     * @throws Exception When the test fails to run the concurrent callers
+     */
+    private static void assertConcurrentCallers(final BatchingPbkdf2 batching)
+            throws Exception {
+
+        int callers = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                final byte[] password = ("password" + i).getBytes(StandardCharsets.UTF_8);
+                final byte[] salt = ("salt" + i).getBytes(StandardCharsets.UTF_8);
+                final int iterations = 50 + i % 3;
+                final int keyLength = 32 + i % 2;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+
+                        byte[] expected = Pbkdf2.derive(password, salt, iterations, keyLength);
+                        for (int round = 0; round < 5; round++) {
+                            byte[] key = batching.derive(password, salt, iterations, keyLength);
+                            if (!Arrays.equals(expected, key)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                String error = "A concurrent caller received an incorrect key";
+                assertThat(error, result.get(), is(equalTo(true)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MultiBufferPbkdf2Test {
+
+    /**
+     * Test the lane interleaved SHA-256 compression function against the JDK implementation
+     *
+     * @throws NoSuchAlgorithmException When the JVM does not support SHA-256
+     */
+    @Test
+    public void compressTest()
+            throws NoSuchAlgorithmException {
+
+        int lanes = 3;
+        Sha256Lanes sha = new Sha256Lanes(lanes);
+        int[] state = new int[Sha256Lanes.STATE_WORDS * lanes];
+        int[] block = new int[Sha256Lanes.BLOCK_WORDS * lanes];
+        byte[][] messages = {
+                new byte[0],
+                "abc".getBytes(StandardCharsets.UTF_8),
+                "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8),
+        };
+
+        for (int l = 0; l < lanes; l++) {
+            // a single padded block: message, 0x80, zeros, 64 bit big endian bit length
+            ByteBuffer padded = ByteBuffer.allocate(64);
+            padded.put(messages[l]).put((byte) 0x80);
+            padded.putLong(56, messages[l].length * 8L);
+            for (int i = 0; i < Sha256Lanes.BLOCK_WORDS; i++) {
+                block[i * lanes + l] = padded.getInt(i * 4);
+            }
+            for (int i = 0; i < Sha256Lanes.STATE_WORDS; i++) {
+                state[i * lanes + l] = Sha256Lanes.IV[i];
+            }
+        }
+
+        sha.compress(state, block);
+
+        for (int l = 0; l < lanes; l++) {
+            ByteBuffer digest = ByteBuffer.allocate(32);
+            for (int i = 0; i < Sha256Lanes.STATE_WORDS; i++) {
+                digest.putInt(state[i * lanes + l]);
+            }
+            byte[] expected = MessageDigest.getInstance("SHA-256").digest(messages[l]);
+            String error = "The digest of lane " + l + " does not match the JDK implementation";
+            assertThat(error, digest.array(), is(equalTo(expected)));
+        }
+    }
+
+    /**
+     * Test the multi buffer engine against the published test vectors for P="password", S="salt"
+     */
+    @Test
+    public void knownVectorsTest() {
+
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(4);
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        byte[][] passwords = {password, password, password};
+        byte[][] salts = {salt, salt, salt};
+
+        byte[][] keys = engine.derive(passwords, salts, 3, 4096, 32);
+
+        for (byte[] key : keys) {
+            String error = "The multi buffer engine does not match the test vector";
+            assertThat(error, toHex(key),
+                    is(equalTo("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a")));
+        }
+    }
+
+    /**
+     * Test that a full batch of different passwords, salts, and password lengths (including passwords longer than
+     * the HMAC block size) derives the same keys as the JCE based implementation
+     */
+    @Test
+    public void matchesPbkdf2Test() {
+
+        Random random = new Random(42);
+        int lanes = MultiBufferPbkdf2.DEFAULT_LANES;
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(lanes);
+        int[] passwordLengths = {1, 8, 31, 55, 64, 65, 100, 200};
+        byte[][] passwords = new byte[lanes][];
+        byte[][] salts = new byte[lanes][];
+        for (int l = 0; l < lanes; l++) {
+            passwords[l] = new byte[passwordLengths[l]];
+            random.nextBytes(passwords[l]);
+            salts[l] = new byte[l * 9];
+            random.nextBytes(salts[l]);
+        }
+
+        byte[][] keys = engine.derive(passwords, salts, lanes, 17, 32);
+
+        for (int l = 0; l < lanes; l++) {
+            String error = "The key of lane " + l + " does not match the JCE based implementation";
+            assertThat(error, keys[l], is(equalTo(Pbkdf2.derive(passwords[l], salts[l], 17, 32))));
+        }
+    }
+
+    /**
+     * Test partial batches and keys that are longer, or not a multiple of, the PRF output length
+     */
+    @Test
+    public void partialBatchAndKeyLengthTest() {
+
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(4);
+        byte[][] passwords = {"secret".getBytes(StandardCharsets.UTF_8), "other".getBytes(StandardCharsets.UTF_8)};
+        byte[][] salts = {"pepper".getBytes(StandardCharsets.UTF_8), new byte[0]};
+
+        for (int keyLength : new int[]{1, 20, 32, 33, 64, 70}) {
+            byte[][] keys = engine.derive(passwords, salts, 2, 3, keyLength);
+
+            String error = "The engine did not return one key per requested derivation";
+            assertThat(error, keys.length, is(equalTo(2)));
+            for (int l = 0; l < 2; l++) {
+                error = "The key of lane " + l + " with length " + keyLength + " does not match";
+                assertThat(error, keys[l], is(equalTo(Pbkdf2.derive(passwords[l], salts[l], 3, keyLength))));
+            }
+        }
+    }
+
+    /**
+     * Test that the engine does not modify the provided passwords and salts
+     */
+    @Test
+    public void inputsNotModifiedTest() {
+
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(2);
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+
+        engine.derive(new byte[][]{password}, new byte[][]{salt}, 1, 2, 32);
+
+        String error = "The password has been modified";
+        assertThat(error, Arrays.equals(password, "password".getBytes(StandardCharsets.UTF_8)), is(equalTo(true)));
+        error = "The salt has been modified";
+        assertThat(error, Arrays.equals(salt, "salt".getBytes(StandardCharsets.UTF_8)), is(equalTo(true)));
+    }
+
+    /**
+     * Test that a batch larger than the number of lanes is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyDerivationsTest() {
+
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(1);
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+
+        engine.derive(new byte[][]{password, password}, new byte[][]{password, password}, 2, 1, 32);
+    }
+
+    /**
+     * Test that an empty password is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPasswordTest() {
+
+        MultiBufferPbkdf2 engine = new MultiBufferPbkdf2(1);
+
+        engine.derive(new byte[][]{new byte[0]}, new byte[][]{new byte[16]}, 1, 1, 32);
+    }
+
+    /**
+     * Convert a byte array to a lower case hex string
+     *
+     * @param bytes The bytes to convert
+     * @return The hex string
+     */
+    private static String toHex(final byte[] bytes) {
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder.JaasBasedPbkdf2PropsBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class Pbkdf2CalibratorTest {
+
+    /**
+     * Test the nearest rank percentile calculation
+     */
+    @Test
+    public void percentileTest() {
+
+        long[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+        String error = "p50 does not match the expected value";
+        assertThat(error, Pbkdf2Calibrator.percentile(values, 0.5), is(equalTo(5L)));
+        error = "p99 does not match the expected value";
+        assertThat(error, Pbkdf2Calibrator.percentile(values, 0.99), is(equalTo(10L)));
+        error = "p100 does not match the expected value";
+        assertThat(error, Pbkdf2Calibrator.percentile(values, 1.0), is(equalTo(10L)));
+        error = "percentile of a single value does not match the expected value";
+        assertThat(error, Pbkdf2Calibrator.percentile(new long[]{42}, 0.01), is(equalTo(42L)));
+    }
+
+    /**
+     * Test that the measurement reports the configured iteration count and sane latencies
+     *
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void measureTest()
+            throws InterruptedException {
+
+        Pbkdf2Calibrator calibrator = new Pbkdf2Calibrator(2, 5, JaasBasedPbkdf2PropsBuilder.buildDefault());
+        Pbkdf2Calibrator.Result result = calibrator.measure(1000);
+
+        String error = "The result does not report the measured iteration count";
+        assertThat(error, result.getIterations(), is(equalTo(1000)));
+        error = "The p50 latency is not positive";
+        assertThat(error, result.getP50Nanos(), is(greaterThan(0L)));
+        error = "The p99 latency is lower than the p50 latency";
+        assertThat(error, result.getP99Nanos(), is(greaterThanOrEqualTo(result.getP50Nanos())));
+    }
+
+    /**
+     * Test that the measurement uses the configured engine and salt length
+     *
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void measureMultiBufferTest()
+            throws InterruptedException {
+
+        Pbkdf2Properties props = JaasBasedPbkdf2PropsBuilder.buildDefault();
+        props.setEngine(Pbkdf2Properties.ENGINE_MULTI_BUFFER);
+        props.setLanes(4);
+        props.setSaltLength(64);
+        Pbkdf2Calibrator.Result result = new Pbkdf2Calibrator(4, 5, props).measure(1000);
+
+        String error = "The result does not report the measured iteration count";
+        assertThat(error, result.getIterations(), is(equalTo(1000)));
+        error = "The p50 latency is not positive";
+        assertThat(error, result.getP50Nanos(), is(greaterThan(0L)));
+    }
+
+    /**
+     * Test that an unsupported engine is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidEngineTest() {
+
+        Pbkdf2Properties props = JaasBasedPbkdf2PropsBuilder.buildDefault();
+        props.setEngine("unknown");
+        new Pbkdf2Calibrator(1, 1, props);
+    }
+
+    /**
+     * Test that the calibration recommends an iteration count that meets the targets
+     *
+     * @throws InterruptedException When the test is interrupted
+     */
+    @Test
+    public void calibrateTest()
+            throws InterruptedException {
+
+        long p50 = 20000000L;
+        long p99 = 60000000L;
+        Pbkdf2Calibrator calibrator = new Pbkdf2Calibrator(2, 5, JaasBasedPbkdf2PropsBuilder.buildDefault());
+        Pbkdf2Calibrator.Result result = calibrator.calibrate(p50, p99);
+
+        String error = "The recommended iteration count is below the minimum";
+        assertThat(error, result.getIterations(), is(greaterThanOrEqualTo(Pbkdf2Calibrator.MIN_ITERATIONS)));
+        error = "The recommended iteration count is not a multiple of the minimum";
+        assertThat(error, result.getIterations() % Pbkdf2Calibrator.MIN_ITERATIONS, is(equalTo(0)));
+        if (result.getIterations() > Pbkdf2Calibrator.MIN_ITERATIONS) {
+            error = "The recommended iteration count does not meet the targets";
+            assertThat(error, result.meets(p50, p99), is(equalTo(true)));
+        }
+    }
+
+    /**
+     * Test that the command line tool prints all configuration keys of the measured settings
+     */
+    @Test
+    public void runPrintsConfigKeysTest() {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+
+        int status = Pbkdf2Calibrator.run(new String[]{"--p50=5", "--p99=20", "--concurrency=1", "--samples=3",
+                "--saltLength=24", "--engine=multibuffer", "--lanes=2"}, out);
+        String report = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+        String error = "The calibration tool did not succeed";
+        assertThat(error, status, is(equalTo(0)));
+        error = "The report does not contain the iterations key";
+        assertThat(error, report, containsString(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS + "="));
+        error = "The report does not contain the salt length key";
+        assertThat(error, report, containsString(JaasBasedPbkdf2PropsBuilder.KEY_SALT_LENGTH + "=24"));
+        error = "The report does not contain the key length key";
+        assertThat(error, report, containsString(JaasBasedPbkdf2PropsBuilder.KEY_KEY_LENGTH + "=32"));
+        error = "The report does not contain the engine key";
+        assertThat(error, report, containsString(JaasBasedPbkdf2PropsBuilder.KEY_ENGINE + "=multibuffer"));
+        error = "The report does not contain the lanes key";
+        assertThat(error, report, containsString(JaasBasedPbkdf2PropsBuilder.KEY_LANES + "=2"));
+    }
+
+    /**
+     * Test that invalid arguments are rejected
+     */
+    @Test
+    public void runInvalidArgumentsTest() {
+
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+
+        String error = "An unknown argument has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--unknown=1"}, out), is(equalTo(1)));
+        error = "A non-numeric argument has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--p50=fast"}, out), is(equalTo(1)));
+        error = "A p99 target below the p50 target has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--p50=10", "--p99=5"}, out), is(equalTo(1)));
+        error = "A non-positive concurrency has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--concurrency=0"}, out), is(equalTo(1)));
+        error = "An unsupported engine has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--engine=fast"}, out), is(equalTo(1)));
+        error = "A non-positive salt length has been accepted";
+        assertThat(error, Pbkdf2Calibrator.run(new String[]{"--saltLength=0"}, out), is(equalTo(1)));
+    }
+}
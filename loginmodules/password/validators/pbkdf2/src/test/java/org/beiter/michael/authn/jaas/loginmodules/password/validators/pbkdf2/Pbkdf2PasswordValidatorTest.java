@@ -0,0 +1,282 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.beiter.michael.authn.jaas.common.CommonProperties;
+import org.beiter.michael.authn.jaas.common.propsbuilder.JaasBasedCommonPropsBuilder;
+import org.beiter.michael.authn.jaas.loginmodules.password.common.PasswordValidator;
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder.JaasBasedPbkdf2PropsBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class Pbkdf2PasswordValidatorTest {
+
+    /**
+     * The validator under test, configured with a low iteration count to keep the tests fast
+     */
+    private Pbkdf2PasswordValidator validator;
+
+    /**
+     * Initialize the validator with a low iteration count
+     */
+    @Before
+    public void initValidator() {
+
+        validator = new Pbkdf2PasswordValidator();
+        validator.init(buildProps("10"));
+    }
+
+    /**
+     * Test that, if one of the two passwords is null ("provided password" or "stored password"), the result of the
+     * validation is false
+     */
+    @Test
+    public void validateNullPasswordsTest() {
+
+        char[] credential = validator.hash("SomePassword".toCharArray());
+
+        String error = "Validating a provided password with null value should be 'false'";
+        assertThat(error, validator.validate(null, credential), is(equalTo(false)));
+
+        error = "Validating a provided password against a stored value with null value should be 'false'";
+        assertThat(error, validator.validate("SomePassword".toCharArray(), null), is(equalTo(false)));
+    }
+
+    /**
+     * Test that the validation result is true if the password matches, and false otherwise
+     */
+    @Test
+    public void validatePasswordsTest() {
+
+        char[] credential = validator.hash("Password".toCharArray());
+
+        String error = "Validating a matching password should be 'true'";
+        assertThat(error, validator.validate("Password".toCharArray(), credential), is(equalTo(true)));
+
+        error = "Validating a mismatching password should be 'false'";
+        assertThat(error, validator.validate("password".toCharArray(), credential), is(equalTo(false)));
+
+        error = "Validating an empty password should be 'false'";
+        assertThat(error, validator.validate(new char[0], credential), is(equalTo(false)));
+    }
+
+    /**
+     * Test that a credential from the published test vectors is validated
+     */
+    @Test
+    public void validateKnownCredentialTest() {
+
+        char[] credential = ("pbkdf2-sha256$2$73616c74$"
+                + "ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43").toCharArray();
+
+        String error = "Validating the known credential should be 'true'";
+        assertThat(error, validator.validate("password".toCharArray(), credential), is(equalTo(true)));
+    }
+
+    /**
+     * Test that malformed credentials are rejected, and reported as requiring a re-hash
+     */
+    @Test
+    public void validateMalformedCredentialTest() {
+
+        String[] malformed = {"", "Password", "pbkdf2-sha256", "pbkdf2-sha256$", "pbkdf2-sha256$10$00$",
+                "pbkdf2-sha256$x$00$00", "pbkdf2-sha256$0$00$00", "pbkdf2-sha256$10$0$00", "pbkdf2-sha256$10$00$zz",
+                "pbkdf2-sha1$10$00$00", "pbkdf2-sha256$99999999999$00$00"};
+
+        for (String credential : malformed) {
+            String error = "Validating against malformed credential '" + credential + "' should be 'false'";
+            assertThat(error, validator.validate("Password".toCharArray(), credential.toCharArray()),
+                    is(equalTo(false)));
+            error = "Malformed credential '" + credential + "' should require a re-hash";
+            assertThat(error, validator.needsRehash(credential.toCharArray()), is(equalTo(true)));
+        }
+    }
+
+    /**
+     * Test that credentials in other formats validate with the legacy validator, and are migrated to PBKDF2
+     */
+    @Test
+    public void legacyCredentialTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, "10");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_LEGACY_VALIDATOR_CLASS_NAME, EqualsValidator.class.getName());
+        Pbkdf2PasswordValidator migrating = new Pbkdf2PasswordValidator();
+        migrating.init(JaasBasedCommonPropsBuilder.build(map));
+
+        char[] legacy = "Password".toCharArray();
+        String error = "A legacy credential should validate with the legacy validator";
+        assertThat(error, migrating.validate("Password".toCharArray(), legacy), is(equalTo(true)));
+        error = "A mismatching password should not validate against a legacy credential";
+        assertThat(error, migrating.validate("password".toCharArray(), legacy), is(equalTo(false)));
+        error = "A legacy credential should require a re-hash";
+        assertThat(error, migrating.needsRehash(legacy), is(equalTo(true)));
+
+        char[] upgraded = migrating.hash("Password".toCharArray());
+        error = "The migrated credential should validate";
+        assertThat(error, migrating.validate("Password".toCharArray(), upgraded), is(equalTo(true)));
+        error = "The migrated credential should not require a re-hash";
+        assertThat(error, migrating.needsRehash(upgraded), is(equalTo(false)));
+
+        char[] malformed = "pbkdf2-sha256$10$00$".toCharArray();
+        error = "A malformed PBKDF2 credential should not be passed to the legacy validator";
+        assertThat(error, migrating.validate(malformed.clone(), malformed), is(equalTo(false)));
+    }
+
+    /**
+     * Test that a legacy validator which cannot be created does not validate any credential in another format
+     */
+    @Test
+    public void invalidLegacyValidatorTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, "10");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_LEGACY_VALIDATOR_CLASS_NAME, "no.such.Validator");
+        Pbkdf2PasswordValidator migrating = new Pbkdf2PasswordValidator();
+        migrating.init(JaasBasedCommonPropsBuilder.build(map));
+
+        String error = "A legacy credential should not validate without a legacy validator";
+        assertThat(error, migrating.validate("Password".toCharArray(), "Password".toCharArray()), is(equalTo(false)));
+    }
+
+    /**
+     * Test that credentials below the configured cost target require a re-hash, and new credentials do not
+     */
+    @Test
+    public void needsRehashTest() {
+
+        char[] credential = validator.hash("Password".toCharArray());
+
+        String error = "A freshly created credential should not require a re-hash";
+        assertThat(error, validator.needsRehash(credential), is(equalTo(false)));
+
+        Pbkdf2PasswordValidator stronger = new Pbkdf2PasswordValidator();
+        stronger.init(buildProps("20"));
+
+        error = "A credential below the iteration target should require a re-hash";
+        assertThat(error, stronger.needsRehash(credential), is(equalTo(true)));
+        error = "A credential below the iteration target should still validate";
+        assertThat(error, stronger.validate("Password".toCharArray(), credential), is(equalTo(true)));
+
+        char[] upgraded = stronger.hash("Password".toCharArray());
+        error = "The upgraded credential should not require a re-hash";
+        assertThat(error, stronger.needsRehash(upgraded), is(equalTo(false)));
+        error = "The upgraded credential should validate";
+        assertThat(error, stronger.validate("Password".toCharArray(), upgraded), is(equalTo(true)));
+        error = "The upgraded credential should use the new iteration count";
+        assertThat(error, new String(upgraded), startsWith("pbkdf2-sha256$20$"));
+    }
+
+    /**
+     * Test that two credentials for the same password use different salts
+     */
+    @Test
+    public void hashUsesRandomSaltTest() {
+
+        String error = "Two credentials for the same password should differ";
+        assertThat(error, new String(validator.hash("Password".toCharArray())),
+                is(not(equalTo(new String(validator.hash("Password".toCharArray()))))));
+    }
+
+    /**
+     * Test that credentials created with the standard engine validate with the multi buffer engine, and vice versa
+     */
+    @Test
+    public void multiBufferEngineTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, "10");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ENGINE, Pbkdf2Properties.ENGINE_MULTI_BUFFER);
+        Pbkdf2PasswordValidator multiBuffer = new Pbkdf2PasswordValidator();
+        multiBuffer.init(JaasBasedCommonPropsBuilder.build(map));
+
+        char[] credential = validator.hash("Password".toCharArray());
+        String error = "A standard credential should validate with the multi buffer engine";
+        assertThat(error, multiBuffer.validate("Password".toCharArray(), credential), is(equalTo(true)));
+        error = "A mismatching password should not validate with the multi buffer engine";
+        assertThat(error, multiBuffer.validate("password".toCharArray(), credential), is(equalTo(false)));
+
+        credential = multiBuffer.hash("Password".toCharArray());
+        error = "A multi buffer credential should validate with the standard engine";
+        assertThat(error, validator.validate("Password".toCharArray(), credential), is(equalTo(true)));
+    }
+
+    /**
+     * Test that an empty password cannot be hashed
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void hashEmptyPasswordTest() {
+
+        validator.hash(new char[0]);
+    }
+
+    /**
+     * Build a set of common properties with the provided iteration count
+     *
+     * @param iterations The iteration count
+     * @return The common properties
+     */
+    private static CommonProperties buildProps(final String iterations) {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, iterations);
+        return JaasBasedCommonPropsBuilder.build(map);
+    }
+
+    /**
+     * A legacy validator that accepts a password if it equals the stored credential
+     */
+    public static class EqualsValidator
+            implements PasswordValidator {
+
+        @Override
+        public void init(final CommonProperties properties) {
+
+            // nothing to configure
+        }
+
+        @Override
+        public boolean validate(final char[] providedPassword, final char[] storedCredential) {
+
+            return Arrays.equals(providedPassword, storedCredential);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class Pbkdf2Test {
+
+    /**
+     * Test the PBKDF2-HMAC-SHA256 implementation against the published test vectors for P="password", S="salt"
+     */
+    @Test
+    public void knownVectorsTest() {
+
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+
+        String error = "PBKDF2 with 1 iteration does not match the test vector";
+        assertThat(error, toHex(Pbkdf2.derive(password, salt, 1, 32)),
+                is(equalTo("120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b")));
+
+        error = "PBKDF2 with 2 iterations does not match the test vector";
+        assertThat(error, toHex(Pbkdf2.derive(password, salt, 2, 32)),
+                is(equalTo("ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43")));
+
+        error = "PBKDF2 with 4096 iterations does not match the test vector";
+        assertThat(error, toHex(Pbkdf2.derive(password, salt, 4096, 32)),
+                is(equalTo("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a")));
+    }
+
+    /**
+     * Test that keys longer than one PRF block are derived as a prefix-consistent concatenation of blocks
+     */
+    @Test
+    public void multiBlockKeyTest() {
+
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+
+        String longKey = toHex(Pbkdf2.derive(password, salt, 2, 40));
+        String error = "The derived key has an unexpected length";
+        assertThat(error, longKey.length(), is(equalTo(80)));
+        error = "The first block of a multi block key does not match the single block key";
+        assertThat(error, longKey, startsWith(toHex(Pbkdf2.derive(password, salt, 2, 32))));
+    }
+
+    /**
+     * Test that an empty password is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPasswordTest() {
+
+        Pbkdf2.derive(new byte[0], new byte[16], 1, 32);
+    }
+
+    /**
+     * Test that a null salt is rejected
+     */
+    @Test(expected = NullPointerException.class)
+    public void nullSaltTest() {
+
+        Pbkdf2.derive(new byte[1], null, 1, 32);
+    }
+
+    /**
+     * Test that a non-positive iteration count is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroIterationsTest() {
+
+        Pbkdf2.derive(new byte[1], new byte[16], 0, 32);
+    }
+
+    /**
+     * Hex encode a byte array
+     *
+     * @param bytes The bytes to encode
+     * @return The hex representation
+     */
+    private static String toHex(final byte[] bytes) {
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * This file is part of a universal JAAS library, providing a PBKDF2 password
+ * validator.
+ * %%
+ * Copyright (C) 2014 - 2016 Michael Beiter <michael@beiter.org>
+ * %%
+ * All rights reserved.
+ * .
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of the
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * .
+ * .
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.propsbuilder;
+
+import org.beiter.michael.authn.jaas.loginmodules.password.validators.pbkdf2.Pbkdf2Properties;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JaasPropsPbkdf2PropsBuilderTest {
+
+    /**
+     * default values test
+     */
+    @Test
+    public void defaultValuesTest() {
+
+        Pbkdf2Properties pbkdf2Props = JaasBasedPbkdf2PropsBuilder.buildDefault();
+
+        String error = "iterations does not match expected default value";
+        assertThat(error, pbkdf2Props.getIterations(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_ITERATIONS)));
+        error = "salt length does not match expected default value";
+        assertThat(error, pbkdf2Props.getSaltLength(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_SALT_LENGTH)));
+        error = "key length does not match expected default value";
+        assertThat(error, pbkdf2Props.getKeyLength(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_KEY_LENGTH)));
+        error = "engine does not match expected default value";
+        assertThat(error, pbkdf2Props.getEngine(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_ENGINE)));
+        error = "lanes does not match expected default value";
+        assertThat(error, pbkdf2Props.getLanes(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_LANES)));
+        error = "legacy validator does not match expected default value";
+        assertThat(error, pbkdf2Props.getLegacyValidatorClassName(),
+                is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_LEGACY_VALIDATOR_CLASS_NAME)));
+    }
+
+    /**
+     * configured values test
+     */
+    @Test
+    public void configuredValuesTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, "42");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_SALT_LENGTH, "43");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_KEY_LENGTH, "44");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ENGINE, Pbkdf2Properties.ENGINE_MULTI_BUFFER);
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_LANES, "45");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_LEGACY_VALIDATOR_CLASS_NAME, "LegacyValidator");
+        Pbkdf2Properties pbkdf2Props = JaasBasedPbkdf2PropsBuilder.build(map);
+
+        String error = "iterations does not match expected value";
+        assertThat(error, pbkdf2Props.getIterations(), is(equalTo(42)));
+        error = "salt length does not match expected value";
+        assertThat(error, pbkdf2Props.getSaltLength(), is(equalTo(43)));
+        error = "key length does not match expected value";
+        assertThat(error, pbkdf2Props.getKeyLength(), is(equalTo(44)));
+        error = "engine does not match expected value";
+        assertThat(error, pbkdf2Props.getEngine(), is(equalTo(Pbkdf2Properties.ENGINE_MULTI_BUFFER)));
+        error = "lanes does not match expected value";
+        assertThat(error, pbkdf2Props.getLanes(), is(equalTo(45)));
+        error = "legacy validator does not match expected value";
+        assertThat(error, pbkdf2Props.getLegacyValidatorClassName(), is(equalTo("LegacyValidator")));
+
+        Pbkdf2Properties pbkdf2Props2 = new Pbkdf2Properties(pbkdf2Props);
+        error = "copy constructor does not copy field";
+        assertThat(error, pbkdf2Props2.getIterations(), is(equalTo(42)));
+        assertThat(error, pbkdf2Props2.getSaltLength(), is(equalTo(43)));
+        assertThat(error, pbkdf2Props2.getKeyLength(), is(equalTo(44)));
+        assertThat(error, pbkdf2Props2.getEngine(), is(equalTo(Pbkdf2Properties.ENGINE_MULTI_BUFFER)));
+        assertThat(error, pbkdf2Props2.getLanes(), is(equalTo(45)));
+        assertThat(error, pbkdf2Props2.getLegacyValidatorClassName(), is(equalTo("LegacyValidator")));
+        assertThat(error, pbkdf2Props2.getAdditionalProperties().size(), is(equalTo(6)));
+    }
+
+    /**
+     * invalid values test
+     */
+    @Test
+    public void invalidValuesTest() {
+
+        Map<String, String> map = new HashMap<>();
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ITERATIONS, "not a number");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_SALT_LENGTH, "-1");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_KEY_LENGTH, null);
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_ENGINE, "gpu");
+        map.put(JaasBasedPbkdf2PropsBuilder.KEY_LANES, "0");
+        Pbkdf2Properties pbkdf2Props = JaasBasedPbkdf2PropsBuilder.build(map);
+
+        String error = "iterations does not match expected default value";
+        assertThat(error, pbkdf2Props.getIterations(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_ITERATIONS)));
+        error = "salt length does not match expected default value";
+        assertThat(error, pbkdf2Props.getSaltLength(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_SALT_LENGTH)));
+        error = "key length does not match expected default value";
+        assertThat(error, pbkdf2Props.getKeyLength(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_KEY_LENGTH)));
+        error = "engine does not match expected default value";
+        assertThat(error, pbkdf2Props.getEngine(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_ENGINE)));
+        error = "lanes does not match expected default value";
+        assertThat(error, pbkdf2Props.getLanes(), is(equalTo(JaasBasedPbkdf2PropsBuilder.DEFAULT_LANES)));
+    }
+}